@@ -40,12 +40,17 @@ tokens {
   BITMAP      = "bitmap";
   BY          = "by";
   CASCADE     = "cascade";
+  CLOSE       = "close";
   COLUMN      = "column";
   COMMIT      = "commit";
   CONSTRAINT  = "constraint";
+  COPY        = "copy";
   CRASH       = "crash";
   CREATE      = "create";
   CROSS       = "cross";
+  CURSOR      = "cursor";
+  DEALLOCATE  = "deallocate";
+  DECLARE     = "declare";
   DEFAULT     = "default";
   DELETE      = "delete";
   DESC        = "desc";
@@ -53,20 +58,25 @@ tokens {
   DROP        = "drop";
   DUMP        = "dump";
   EXCEPT      = "except";
+  EXECUTE     = "execute";
   EXISTS      = "exists";
   EXIT        = "exit";
   EXPLAIN     = "explain";
   FALSE       = "false";
+  FETCH       = "fetch";
   FILE        = "file";
   FLUSH       = "flush";
+  FOR         = "for";
   FOREIGN     = "foreign";
   FORMAT      = "format";
   FROM        = "from";
   FULL        = "full";
+  GLOBAL      = "global";
   GROUP       = "group";
   HAVING      = "having";
   IF          = "if";
   IN          = "in";
+  INCLUDE     = "include";
   INDEX       = "index";
   INNER       = "inner";
   INSERT      = "insert";
@@ -88,6 +98,7 @@ tokens {
   OR          = "or";
   ORDER       = "order";
   OUTER       = "outer";
+  PREPARE     = "prepare";
   PRIMARY     = "primary";
   PROPERTIES  = "properties";
   QUIT        = "quit";
@@ -97,11 +108,13 @@ tokens {
   RIGHT       = "right";
   ROLLBACK    = "rollback";
   SELECT      = "select";
+  SESSION     = "session";
   SET         = "set";
   SHOW        = "show";
   SIMILAR     = "similar";
   SOME        = "some";
   START       = "start";
+  STATS       = "stats";
   TABLE       = "table";
   TO          = "to";
   TRANSACTION = "transaction";
@@ -160,6 +173,71 @@ tokens {
   PERIOD;
 }
 
+{
+  /**
+   * The parameters of the statement being prepared, in the order they
+   * appear, or null if no statement is being prepared.  Parameters are only
+   * allowed in prepared statements.
+   */
+  private List<ParameterValue> parameters = null;
+
+
+  /**
+   * The normalized text of the statement being prepared, or null if no
+   * statement is being prepared.  See {@link #getTokenText}.
+   */
+  private StringBuilder statementText = null;
+
+
+  /**
+   * Records the text of each token of a statement being prepared, as the
+   * token is consumed.
+   */
+  @Override
+  public void consume() throws TokenStreamException {
+    if (statementText != null && inputState.guessing == 0) {
+      if (statementText.length() > 0)
+        statementText.append(' ');
+
+      statementText.append(getTokenText(LT(1)));
+    }
+
+    super.consume();
+  }
+
+
+  /**
+   * Returns the normalized text of a token.  Keywords and identifiers are
+   * upper-cased, and literals and quoted identifiers are written so that
+   * the lexer produces the same token from the text.  Joining the text of a
+   * statement's tokens with spaces therefore gives the same text for
+   * statements that differ only in case, whitespace and comments.
+   *
+   * @param token the token to return the text of
+   *
+   * @return the normalized text of the token
+   */
+  public static String getTokenText(Token token) {
+    String text = token.getText();
+    switch (token.getType()) {
+    case STRING_LITERAL:
+      return "'" + text + "'";
+
+    case QUOTED_IDENT:
+      return "\"" + text + "\"";
+
+    case LONG_LITERAL:
+      return text + "L";
+
+    case FLOAT_LITERAL:
+      return text + "F";
+
+    default:
+      return text.toUpperCase();
+    }
+  }
+}
+
 /* A list of one or more statements, separated by semicolons.  Multiple
  * semicolons without statements are fine, as is a single statement with
  * a semicolon and no subsequent statement.
@@ -182,12 +260,16 @@ command_semicolon returns [Command c] { c = null; } : c=command SEMICOLON ;
  */
 command returns [Command c] { c = null; } :
   ( c=create_stmt /* | alter_stmt */ | c=drop_stmt                 // DDL
-  | c=select_stmt | c=insert_stmt | c=update_stmt | c=delete_stmt  // DML
+  | c=top_select_stmt                                              // DML
+  | c=insert_stmt | c=update_stmt | c=delete_stmt                  // DML
   | c=begin_txn_stmt | c=commit_txn_stmt | c=rollback_txn_stmt     // Transactions
   | c=analyze_stmt | c=explain_stmt | c=exit_stmt | c=crash_stmt   // Utility
   | c=dump_table_stmt // | c=dump_index_stmt                          // Utility
+  | c=copy_stmt                                                    // Utility
   | c=flush_stmt | c=verify_stmt | c=optimize_stmt                 // Utility
-  | c=showvars_stmt | c=setvar_stmt                                // Utility
+  | c=showvars_stmt | c=setvar_stmt | c=showstats_stmt             // Utility
+  | c=prepare_stmt | c=execute_stmt | c=deallocate_stmt            // Prepared
+  | c=declare_cursor_stmt | c=fetch_stmt | c=close_cursor_stmt      // Cursors
   )
   ;
 
@@ -436,12 +518,35 @@ create_index returns [CreateIndexCommand c]
   CREATE ( UNIQUE { unique = true; } )? ( BITMAP { bitmap = true; } )? INDEX ( idxName=dbobj_ident )?
   ON tblName=dbobj_ident
   { c = new CreateIndexCommand(idxName, tblName, unique, bitmap); }
-  LPAREN colName=dbobj_ident { c.addColumn(colName); }
-         ( COMMA colName=dbobj_ident { c.addColumn(colName); } )* RPAREN
+  LPAREN index_column[c] ( COMMA index_column[c] )* RPAREN
+  ( INCLUDE
+    LPAREN colName=dbobj_ident { c.addIncludedColumn(colName); }
+           ( COMMA colName=dbobj_ident { c.addIncludedColumn(colName); } )* RPAREN
+  )?
   ( p=cmd_properties { c.setProperties(p); } )?
   ;
 
 
+/**
+ * An index column is a column of the table, or a column of another table that
+ * the table references through a foreign key, for bitmap join indexes.
+ */
+index_column[CreateIndexCommand c]
+  {
+    String n1 = null;
+    String n2 = null;
+  }
+  :
+  n1=dbobj_ident ( PERIOD n2=dbobj_ident )?
+  {
+    if (n2 == null)
+      c.addColumn(n1);
+    else
+      c.addJoinColumn(n1, n2);
+  }
+  ;
+
+
 /* ALTER Statements */
 
 /*
@@ -496,6 +601,23 @@ select_stmt returns [QueryCommand c] { c = null; SelectClause sc = null; } :
   sc=select_clause { c = new SelectCommand(sc); }
   ;
 
+/**
+ * A SELECT statement issued as a command of its own.  The normalized text of
+ * the statement is recorded as it is parsed, so that its results can be
+ * found in the query result cache.
+ */
+top_select_stmt returns [QueryCommand c]
+  {
+    c = null;
+    statementText = new StringBuilder();
+  } :
+  c=select_stmt
+  {
+    ((SelectCommand) c).setSQL(statementText.toString());
+    statementText = null;
+  }
+  ;
+
 /**
  * This rule parses a SELECT clause.  Since SELECT clauses can be nested in
  * other expressions, it's important to have this as a separate sub-rule in the
@@ -744,10 +866,115 @@ explain_stmt returns [Command c]
   {
     c = null;
     QueryCommand cmdToExplain = null;
+    boolean analyze = false;
   } :
-  EXPLAIN ( cmdToExplain=select_stmt | cmdToExplain=insert_stmt
+  EXPLAIN ( ANALYZE { analyze = true; } )?
+          ( cmdToExplain=select_stmt | cmdToExplain=insert_stmt
           | cmdToExplain=update_stmt | cmdToExplain=delete_stmt )
-  { c = new ExplainCommand(cmdToExplain); }
+  { c = new ExplainCommand(cmdToExplain, analyze); }
+  ;
+
+
+/* PREPARE, EXECUTE and DEALLOCATE Statements */
+
+/**
+ * A statement that can be prepared:  a SELECT, INSERT, UPDATE or DELETE
+ * statement whose expressions may include parameters, written as "?".  The
+ * normalized text of the statement is recorded as it is parsed, so that the
+ * same statement prepared by different sessions can share its plans.
+ */
+prepared_stmt returns [PreparedStatement ps]
+  {
+    ps = null;
+    QueryCommand c = null;
+
+    parameters = new ArrayList<ParameterValue>();
+    statementText = new StringBuilder();
+  } :
+  ( c=select_stmt | c=insert_stmt | c=update_stmt | c=delete_stmt )
+  {
+    ps = new PreparedStatement(statementText.toString(), c, parameters);
+    parameters = null;
+    statementText = null;
+  }
+  ;
+
+
+prepare_stmt returns [PrepareCommand c]
+  {
+    c = null;
+    String name = null;
+    PreparedStatement ps = null;
+  } :
+  PREPARE name=dbobj_ident AS ps=prepared_stmt
+  { c = new PrepareCommand(name, ps); }
+  ;
+
+
+execute_stmt returns [ExecuteCommand c]
+  {
+    c = null;
+    String name = null;
+    Expression e = null;
+  } :
+  EXECUTE name=dbobj_ident { c = new ExecuteCommand(name); }
+  ( LPAREN e=expression { c.addArgument(e); }
+    ( COMMA e=expression { c.addArgument(e); } )* RPAREN )?
+  ;
+
+
+deallocate_stmt returns [DeallocateCommand c]
+  {
+    c = null;
+    String name = null;
+  } :
+  DEALLOCATE (PREPARE)?
+  ( name=dbobj_ident { c = new DeallocateCommand(name); }
+  | ALL { c = new DeallocateCommand(null); }
+  )
+  ;
+
+
+/* DECLARE CURSOR, FETCH and CLOSE Statements */
+
+declare_cursor_stmt returns [DeclareCursorCommand c]
+  {
+    c = null;
+    String name = null;
+    QueryCommand query = null;
+  } :
+  DECLARE name=dbobj_ident CURSOR FOR query=select_stmt
+  { c = new DeclareCursorCommand(name, query); }
+  ;
+
+
+/**
+ * Fetches the next row of a cursor's results by default, or the specified
+ * number of rows, or all the remaining rows.
+ */
+fetch_stmt returns [FetchCommand c]
+  {
+    c = null;
+    String name = null;
+    int count = 1;
+  } :
+  FETCH ( n:INT_LITERAL { count = Integer.parseInt(n.getText()); }
+        | ALL { count = FetchCommand.FETCH_ALL; }
+        )?
+  ( FROM | IN )? name=dbobj_ident
+  { c = new FetchCommand(name, count); }
+  ;
+
+
+close_cursor_stmt returns [CloseCursorCommand c]
+  {
+    c = null;
+    String name = null;
+  } :
+  CLOSE
+  ( name=dbobj_ident { c = new CloseCursorCommand(name); }
+  | ALL { c = new CloseCursorCommand(null); }
+  )
   ;
 
 
@@ -782,6 +1009,35 @@ dump_index_stmt returns [DumpIndexCommand c]
   ;
 
 
+/* COPY Statements */
+
+copy_stmt returns [Command c]
+  {
+    c = null;
+    String tblName = null;
+    QueryCommand query = null;
+    String format = null;
+    CommandProperties p = null;
+    CopyFromCommand fromCmd = null;
+    CopyToCommand toCmd = null;
+  } :
+  COPY
+  ( tblName=dbobj_ident
+    ( FROM s1:STRING_LITERAL
+      { c = fromCmd = new CopyFromCommand(tblName, s1.getText()); }
+      ( p=cmd_properties { fromCmd.setProperties(p); } )?
+    | TO s2:STRING_LITERAL ( FORMAT format=dbobj_ident )?
+      { c = toCmd = new CopyToCommand(tblName, s2.getText(), format); }
+      ( p=cmd_properties { toCmd.setProperties(p); } )?
+    )
+  | LPAREN query=select_stmt RPAREN
+    TO s3:STRING_LITERAL ( FORMAT format=dbobj_ident )?
+    { c = toCmd = new CopyToCommand(query, s3.getText(), format); }
+    ( p=cmd_properties { toCmd.setProperties(p); } )?
+  )
+  ;
+
+
 /* VERIFY Statements */
 
 verify_stmt returns [VerifyCommand c]
@@ -844,6 +1100,21 @@ setvar_stmt returns [SetVariableCommand c]
   ;
 
 
+/**
+ * Shows the performance counters and latency histograms of the server, or
+ * those of the current session.
+ */
+showstats_stmt returns [ShowStatsCommand c]
+  {
+    c = null;
+    boolean session = false;
+  } :
+  SHOW ( SESSION { session = true; } | GLOBAL )?
+  STATS { c = new ShowStatsCommand(session); }
+  ( LIKE s:STRING_LITERAL { c.setFilter(s.getText()); } )?
+  ;
+
+
 /**
  * The expression rule matches pretty much any possible logical and/or
  * mathematical expression that one might need.  Note that it will parse a lot
@@ -973,9 +1244,9 @@ relational_expr returns [Expression e]
   | (
       ( NOT { invert = true; } )?
       (
-        ( LIKE       { matchType = StringMatchOperator.Type.LIKE;  }
-        | SIMILAR TO { matchType = StringMatchOperator.Type.REGEX; } )
-        e2=additive_expr { e = new StringMatchOperator(matchType, e, e2); } )
+        ( ( LIKE       { matchType = StringMatchOperator.Type.LIKE;  }
+          | SIMILAR TO { matchType = StringMatchOperator.Type.REGEX; } )
+          e2=additive_expr { e = new StringMatchOperator(matchType, e, e2); } )
       | ( BETWEEN e2=additive_expr AND e3=additive_expr
           {
             BooleanOperator b = new BooleanOperator(BooleanOperator.Type.AND_EXPR);
@@ -987,6 +1258,7 @@ relational_expr returns [Expression e]
       | ( IN
           ( values=expr_list { e = new InOperator(e, values); }
           | LPAREN sc=select_clause RPAREN { e = new InOperator(e, sc); } ) )
+      )
     )
     {
       if (invert) {
@@ -1064,6 +1336,16 @@ base_expr returns [Expression e]
     e=literal_expr
   | cn=column_name { e = new ColumnValue(cn); }
   | e=function_call
+  | QUESTION {
+      if (parameters == null) {
+        throw new SemanticException(
+          "Parameters are only allowed in prepared statements.");
+      }
+
+      ParameterValue p = new ParameterValue(parameters.size() + 1);
+      parameters.add(p);
+      e = p;
+    }
   | LPAREN
     ( e=logical_or_expr | sc=select_clause { e = new ScalarSubquery(sc); } )
     RPAREN
@@ -1174,6 +1456,7 @@ SLASH     : '/' ;
 PERCENT   : '%' ;
 PLUS      : '+' ;
 MINUS     : '-' ;
+QUESTION  : '?' ;
 
 
 /* Whitespace - we skip that. */
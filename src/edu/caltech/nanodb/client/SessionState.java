@@ -2,8 +2,12 @@ package edu.caltech.nanodb.client;
 
 
 import java.io.PrintStream;
+import java.util.HashMap;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import edu.caltech.nanodb.commands.QueryCursor;
+import edu.caltech.nanodb.server.performance.MetricsRegistry;
+import edu.caltech.nanodb.server.performance.PerformanceCounters;
 import edu.caltech.nanodb.transactions.TransactionState;
 
 
@@ -56,6 +60,43 @@ public class SessionState {
     }
 
 
+    /**
+     * Creates the state of a new session, with its own unique ID, without
+     * storing it in thread-local storage.  This allows a session to be
+     * served by different threads over time; see {@link #set}.
+     *
+     * @return the session-state for a new session.
+     */
+    public static SessionState newSession() {
+        return new SessionState(nextSessionID.getAndIncrement());
+    }
+
+
+    /**
+     * Returns a new ID that page pins can be recorded under, which is
+     * distinct from all session IDs.  See {@link #setPinOwnerID}.
+     *
+     * @return a new ID for recording page pins under
+     */
+    public static int newPinOwnerID() {
+        return nextSessionID.getAndIncrement();
+    }
+
+
+    /**
+     * Makes the specified session the session of the local thread, until
+     * it is replaced or {@link #remove removed}.
+     *
+     * @param state the session-state for the local thread
+     */
+    public static void set(SessionState state) {
+        if (state == null)
+            throw new IllegalArgumentException("state cannot be null");
+
+        threadLocalState.set(state);
+    }
+
+
     /*========================================================================
      * NON-STATIC FIELDS AND METHODS
      */
@@ -77,8 +118,55 @@ public class SessionState {
     private TransactionState txnState;
 
 
+    /**
+     * The ID that the buffer manager currently records this session's page
+     * pins under.  This is normally the session ID, but while a cursor is
+     * evaluating its plan it is the cursor's own ID, so that the pages the
+     * cursor's plan has pinned stay pinned after each command, until the
+     * cursor is closed.
+     */
+    private int pinOwnerID;
+
+
+    /**
+     * The statements this session has prepared, mapping each statement's
+     * name to its normalized SQL text.  The planned statements themselves
+     * are shared by all sessions, in the
+     * {@link edu.caltech.nanodb.commands.StatementCache}.
+     */
+    private HashMap<String, String> preparedStatements =
+        new HashMap<String, String>();
+
+
+    /** The cursors this session has declared and not yet closed, by name. */
+    private HashMap<String, QueryCursor> cursors =
+        new HashMap<String, QueryCursor>();
+
+
+    /**
+     * The number of pages this session has requested that were already in
+     * the buffer manager.
+     */
+    private long pagesHit;
+
+
+    /**
+     * The number of pages this session has requested that had to be read
+     * from their files.
+     */
+    private long pagesRead;
+
+
+    /**
+     * The performance counters and latency histograms of the work this
+     * session has done.
+     */
+    private MetricsRegistry metrics = new MetricsRegistry();
+
+
     private SessionState(int sessionID) {
         this.sessionID = sessionID;
+        pinOwnerID = sessionID;
         txnState = new TransactionState();
 
         // By default, we'll use the standard output stream for the session's
@@ -116,6 +204,156 @@ public class SessionState {
     }
 
 
+    /**
+     * Returns the ID that the buffer manager currently records this
+     * session's page pins under.
+     *
+     * @return the ID that page pins are currently recorded under
+     */
+    public int getPinOwnerID() {
+        return pinOwnerID;
+    }
+
+
+    /**
+     * Sets the ID that the buffer manager records this session's page pins
+     * under.  Pages pinned under an ID must be unpinned under the same ID.
+     *
+     * @param pinOwnerID the session ID, or an ID from {@link #newPinOwnerID}
+     */
+    public void setPinOwnerID(int pinOwnerID) {
+        this.pinOwnerID = pinOwnerID;
+    }
+
+
+    /**
+     * Records that the session requested a page, so that the page accesses
+     * made while evaluating a query or a plan node can be reported.  The
+     * access is also counted in the session's and the server's metrics.
+     *
+     * @param hit true if the page was already in the buffer manager, or false
+     *        if it had to be read from its file
+     */
+    public void recordPageAccess(boolean hit) {
+        String counterName;
+        if (hit) {
+            pagesHit++;
+            counterName = PerformanceCounters.BUFFER_PAGES_HIT;
+        }
+        else {
+            pagesRead++;
+            counterName = PerformanceCounters.BUFFER_PAGES_MISSED;
+        }
+
+        MetricsRegistry.getGlobal().inc(counterName);
+        metrics.inc(counterName);
+    }
+
+
+    public long getPagesHit() {
+        return pagesHit;
+    }
+
+
+    public long getPagesRead() {
+        return pagesRead;
+    }
+
+
+    /**
+     * Returns the performance counters and latency histograms of the work
+     * this session has done.
+     *
+     * @return the session's metrics registry
+     */
+    public MetricsRegistry getMetrics() {
+        return metrics;
+    }
+
+
+    /**
+     * Returns the normalized SQL text of a statement this session prepared.
+     *
+     * @param name the name of the prepared statement
+     *
+     * @return the statement's SQL text, or {@code null} if the session has no
+     *         prepared statement with that name
+     */
+    public String getPreparedStatement(String name) {
+        return preparedStatements.get(name);
+    }
+
+
+    public void addPreparedStatement(String name, String sql) {
+        preparedStatements.put(name, sql);
+    }
+
+
+    /**
+     * Removes a statement this session prepared.
+     *
+     * @param name the name of the prepared statement
+     *
+     * @return true if the statement was removed, or false if the session has
+     *         no prepared statement with that name
+     */
+    public boolean removePreparedStatement(String name) {
+        return preparedStatements.remove(name) != null;
+    }
+
+
+    public void clearPreparedStatements() {
+        preparedStatements.clear();
+    }
+
+
+    /**
+     * Returns a cursor this session declared.
+     *
+     * @param name the name of the cursor
+     *
+     * @return the cursor, or {@code null} if the session has no open cursor
+     *         with that name
+     */
+    public QueryCursor getCursor(String name) {
+        return cursors.get(name);
+    }
+
+
+    public void addCursor(String name, QueryCursor cursor) {
+        cursors.put(name, cursor);
+    }
+
+
+    /**
+     * Removes a cursor this session declared, without closing it.
+     *
+     * @param name the name of the cursor
+     *
+     * @return the cursor, or {@code null} if the session has no open cursor
+     *         with that name
+     */
+    public QueryCursor removeCursor(String name) {
+        return cursors.remove(name);
+    }
+
+
+    /**
+     * Closes and removes all the cursors this session declared, releasing
+     * the pages they hold pinned.
+     *
+     * @return the number of cursors that were closed
+     */
+    public int closeCursors() {
+        int numCursors = cursors.size();
+        for (QueryCursor cursor : cursors.values())
+            cursor.close();
+
+        cursors.clear();
+        return numCursors;
+    }
+
+
     @Override
     public int hashCode() {
         return sessionID;
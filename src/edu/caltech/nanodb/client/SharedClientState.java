@@ -2,8 +2,6 @@ package edu.caltech.nanodb.client;
 
 import java.io.EOFException;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.PrintStream;
 import java.net.Socket;
 import java.net.SocketException;
@@ -18,6 +16,8 @@ import edu.caltech.nanodb.qeval.PrettyTuplePrinter;
 import edu.caltech.nanodb.relations.Schema;
 import edu.caltech.nanodb.relations.Tuple;
 import edu.caltech.nanodb.server.CommandState;
+import edu.caltech.nanodb.server.ProtocolReader;
+import edu.caltech.nanodb.server.ProtocolWriter;
 
 
 /**
@@ -30,7 +30,7 @@ public class SharedClientState {
     private Socket socket;
 
 
-    private ObjectInputStream objectInput;
+    private ProtocolReader protocolInput;
 
 
     private Receiver receiver;
@@ -59,9 +59,9 @@ public class SharedClientState {
 
 
     /**
-     * This stream is used to send objects (commands, specifically) to the
+     * This stream is used to send commands to the server.
      */
-    private ObjectOutputStream objectOutput;
+    private ProtocolWriter protocolOutput;
 
 
     private class Receiver implements Runnable {
@@ -83,7 +83,7 @@ public class SharedClientState {
             done = false;
             while (true) {
                 try {
-                    Object obj = objectInput.readObject();
+                    Object obj = protocolInput.readMessage();
                     if (obj instanceof String) {
                         // Just print strings to the console
                         System.out.print(obj);
@@ -147,8 +147,8 @@ public class SharedClientState {
     public void connect(String hostname, int port) throws IOException {
         // Try to establish a connection to the shared database server.
         socket = new Socket(hostname, port);
-        objectOutput = new ObjectOutputStream(socket.getOutputStream());
-        objectInput = new ObjectInputStream(socket.getInputStream());
+        protocolOutput = new ProtocolWriter(socket.getOutputStream());
+        protocolInput = new ProtocolReader(socket.getInputStream());
 
         // A semaphore to synchronize the receiver with the code that
         // dispatches commands, so that we don't return from dispatching a
@@ -168,7 +168,8 @@ public class SharedClientState {
         tuples.clear();
 
         // Send the command to the server!
-        objectOutput.writeObject(commandString);
+        protocolOutput.writeCommand(commandString);
+        protocolOutput.flush();
 
         // Wait for the command to be completed.
         semCommandDone.acquire();
@@ -179,8 +180,8 @@ public class SharedClientState {
         receiver.shutdown();
         receiverThread.interrupt();
 
-        objectInput.close();
-        objectOutput.close();
+        protocolInput.close();
+        protocolOutput.close();
         socket.close();
     }
 }
\ No newline at end of file
@@ -3,8 +3,6 @@ package edu.caltech.nanodb.client;
 
 import java.io.EOFException;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.PrintStream;
 import java.net.Socket;
 import java.net.SocketException;
@@ -18,21 +16,41 @@ import edu.caltech.nanodb.qeval.PrettyTuplePrinter;
 import edu.caltech.nanodb.relations.Schema;
 import edu.caltech.nanodb.relations.Tuple;
 import edu.caltech.nanodb.server.CommandState;
+import edu.caltech.nanodb.server.ProtocolReader;
+import edu.caltech.nanodb.server.ProtocolWriter;
 import edu.caltech.nanodb.server.SharedServer;
 
 
 /**
  * This class implements a client to the NanoDB
  * {@link edu.caltech.nanodb.server.SharedServer}.
+ * <p>
+ * When commands are typed at a console, the client waits for each command
+ * to complete before prompting for the next one.  Otherwise, for example
+ * when a script is piped into the client, commands are pipelined:  they are
+ * sent without waiting for earlier commands to complete, up to a limit on
+ * the number of commands awaiting responses, so that the round-trip to the
+ * server isn't paid once per command.
  */
 public class SharedServerClient extends InteractiveClient {
     private static Logger logger = Logger.getLogger(SharedServerClient.class);
 
 
+    /**
+     * The system property that can be used to specify the most commands that
+     * can be sent to the server without their responses being received.
+     */
+    public static final String PROP_PIPELINE_DEPTH = "nanodb.client.pipeline";
+
+
+    /** By default, up to 100 commands may await responses at once. */
+    public static final int DEFAULT_PIPELINE_DEPTH = 100;
+
+
     private Socket socket;
 
 
-    private ObjectInputStream objectInput;
+    private ProtocolReader protocolInput;
 
 
     private Receiver receiver;
@@ -45,13 +63,29 @@ public class SharedServerClient extends InteractiveClient {
     private Thread receiverThread;
 
 
-    private Semaphore semCommandDone;
+    /**
+     * This semaphore has a permit for each command that may be sent without
+     * waiting for responses.  A permit is taken when a command is sent, and
+     * given back when the command completes.
+     */
+    private Semaphore semCommandSlots;
+
+
+    /** The most commands that may await responses at once. */
+    private int pipelineDepth;
+
+
+    /**
+     * True if commands are sent without waiting for earlier commands to
+     * complete.
+     */
+    private boolean pipelined;
 
 
     /**
-     * This stream is used to send objects (commands, specifically) to the
+     * This stream is used to send commands to the server.
      */
-    private ObjectOutputStream objectOutput;
+    private ProtocolWriter protocolOutput;
 
 
     private class Receiver implements Runnable {
@@ -73,7 +107,7 @@ public class SharedServerClient extends InteractiveClient {
             done = false;
             while (true) {
                 try {
-                    Object obj = objectInput.readObject();
+                    Object obj = protocolInput.readMessage();
                     if (obj instanceof String) {
                         // Just print strings to the console
                         System.out.print(obj);
@@ -98,7 +132,7 @@ public class SharedServerClient extends InteractiveClient {
                             }
 
                             // Signal that the command is completed.
-                            semCommandDone.release();
+                            semCommandSlots.release();
                         }
                     }
                     else {
@@ -123,6 +157,10 @@ public class SharedServerClient extends InteractiveClient {
                     e.printStackTrace(System.out);
                 }
             }
+
+            // No more responses will arrive, so don't leave anyone waiting
+            // for them.
+            semCommandSlots.release(pipelineDepth);
         }
 
 
@@ -134,12 +172,35 @@ public class SharedServerClient extends InteractiveClient {
 
 
     public SharedServerClient(String hostname, int port) throws IOException {
+        this(hostname, port, false, 1);
+    }
+
+
+    /**
+     * Connects to the shared database server.
+     *
+     * @param hostname the host the server is running on
+     * @param port the port the server is listening on
+     * @param pipelined true if commands are sent without waiting for earlier
+     *        commands to complete
+     * @param pipelineDepth the most commands that may await responses at
+     *        once, when commands are pipelined
+     *
+     * @throws IOException if the server can't be connected to
+     */
+    public SharedServerClient(String hostname, int port, boolean pipelined,
+                              int pipelineDepth) throws IOException {
+        if (pipelineDepth <= 0)
+            throw new IllegalArgumentException("pipelineDepth must be positive");
+
         // Try to establish a connection to the shared database server.
         socket = new Socket(hostname, port);
-        objectOutput = new ObjectOutputStream(socket.getOutputStream());
-        objectInput = new ObjectInputStream(socket.getInputStream());
+        protocolOutput = new ProtocolWriter(socket.getOutputStream());
+        protocolInput = new ProtocolReader(socket.getInputStream());
 
-        semCommandDone = new Semaphore(0);
+        this.pipelined = pipelined;
+        this.pipelineDepth = pipelineDepth;
+        semCommandSlots = new Semaphore(pipelineDepth);
     }
 
 
@@ -157,26 +218,48 @@ public class SharedServerClient extends InteractiveClient {
         // command.  We want to send that string, since the Command object
         // itself is too complicated to send across the wire.
         String commandString = typedBytes.toString();
-        objectOutput.writeObject(commandString);
 
-        // Wait for the command to be completed.
-        semCommandDone.acquire();
+        // Wait until the command can be sent.
+        semCommandSlots.acquire();
+        protocolOutput.writeCommand(commandString);
+        protocolOutput.flush();
+
+        if (!pipelined)
+            waitForCommands();
     }
 
 
-    public void shutdown() throws IOException {
+    /**
+     * Waits until all the commands that have been sent are completed.
+     *
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public void waitForCommands() throws InterruptedException {
+        semCommandSlots.acquire(pipelineDepth);
+        semCommandSlots.release(pipelineDepth);
+    }
+
+
+    public void shutdown() throws Exception {
+        // Let the responses to pipelined commands arrive before closing.
+        waitForCommands();
+
         receiver.shutdown();
         receiverThread.interrupt();
 
-        objectInput.close();
-        objectOutput.close();
+        protocolInput.close();
+        protocolOutput.close();
         socket.close();
     }
 
 
     public static void main(String args[]) throws Exception {
+        // Only pipeline commands if they aren't being typed at a console.
+        int pipelineDepth = Integer.getInteger(PROP_PIPELINE_DEPTH,
+            DEFAULT_PIPELINE_DEPTH);
         SharedServerClient client = new SharedServerClient("localhost",
-            SharedServer.DEFAULT_SERVER_PORT);
+            SharedServer.DEFAULT_SERVER_PORT, System.console() == null,
+            Math.max(pipelineDepth, 1));
 
         client.startup();
         client.mainloop();
@@ -3,14 +3,15 @@ package edu.caltech.nanodb.client.swingui;
 
 import edu.caltech.nanodb.expressions.TupleLiteral;
 import edu.caltech.nanodb.relations.Schema;
+import edu.caltech.nanodb.server.CommandState;
+import edu.caltech.nanodb.server.ProtocolReader;
+import edu.caltech.nanodb.server.ProtocolWriter;
 
 import java.awt.BorderLayout;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.PrintStream;
 import java.net.Socket;
 
@@ -33,10 +34,10 @@ public class GUIClient {
     private Socket sock;
 
     
-    private ObjectInputStream objectInput;
+    private ProtocolReader protocolInput;
 
 
-    private ObjectOutputStream objectOutput;
+    private ProtocolWriter protocolOutput;
 
 
     private JFrame frame;
@@ -67,8 +68,8 @@ public class GUIClient {
     
     public GUIClient(Socket sock) throws IOException {
         this.sock = sock;
-        objectOutput = new ObjectOutputStream(sock.getOutputStream());
-        objectInput = new ObjectInputStream(sock.getInputStream());
+        protocolOutput = new ProtocolWriter(sock.getOutputStream());
+        protocolInput = new ProtocolReader(sock.getInputStream());
     }
     
     
@@ -95,7 +96,7 @@ public class GUIClient {
         public void run() {
             try {
                 while (true) {
-                    Object obj = objectInput.readObject();
+                    Object obj = protocolInput.readMessage();
                     if (obj instanceof String) {
                         final String s = (String) obj;
                         SwingUtilities.invokeAndWait(new Runnable() {
@@ -136,6 +137,9 @@ public class GUIClient {
                             @Override public void run() { textOutput.append(msg); }
                         });
                     }
+                    else if (obj instanceof CommandState) {
+                        // Nothing to show when a command completes
+                    }
                     else {
                         JOptionPane.showMessageDialog(frame, String.format(
                             "Received unexpected object type!%n%n" +
@@ -159,7 +163,8 @@ public class GUIClient {
             commands = commands + ";";
 
         try {
-            objectOutput.writeObject(commands);
+            protocolOutput.writeCommand(commands);
+            protocolOutput.flush();
         }
         catch (Exception e) {
             JOptionPane.showMessageDialog(frame,
@@ -0,0 +1,51 @@
+package edu.caltech.nanodb.commands;
+
+
+import edu.caltech.nanodb.client.SessionState;
+import edu.caltech.nanodb.storage.StorageManager;
+
+
+/**
+ * This command object represents a <tt>CLOSE</tt> command, which closes one
+ * or all of the cursors the session has declared, releasing their plans and
+ * the pages the plans hold pinned.
+ */
+public class CloseCursorCommand extends Command {
+
+    /** The name of the cursor to close, or null to close them all. */
+    private String name;
+
+
+    public CloseCursorCommand(String name) {
+        super(Command.Type.UTILITY);
+        this.name = name;
+    }
+
+
+    @Override
+    public void execute(StorageManager storageManager)
+        throws ExecutionException {
+
+        SessionState state = SessionState.get();
+        if (name == null) {
+            int numCursors = state.closeCursors();
+            out.println("Closed " + numCursors + " cursors.");
+        }
+        else {
+            QueryCursor cursor = state.removeCursor(name);
+            if (cursor == null) {
+                throw new ExecutionException("No cursor named " + name +
+                    " is open.");
+            }
+
+            cursor.close();
+            out.println("Closed cursor " + name + ".");
+        }
+    }
+
+
+    @Override
+    public String toString() {
+        return "CloseCursorCommand[" + (name != null ? name : "ALL") + "]";
+    }
+}
@@ -53,6 +53,16 @@ public class CommandProperties {
     }
 
 
+    public boolean getBoolean(String name, boolean defaultValue) {
+        Object obj = get(name);
+        if (obj == null)
+            return defaultValue;
+
+        Boolean boolObj = TypeConverter.getBooleanValue(obj);
+        return boolObj.booleanValue();
+    }
+
+
     public String getString(String name, String defaultValue) {
         Object obj = get(name);
         if (obj == null)
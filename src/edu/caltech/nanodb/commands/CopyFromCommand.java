@@ -0,0 +1,388 @@
+package edu.caltech.nanodb.commands;
+
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+
+import edu.caltech.nanodb.expressions.TupleLiteral;
+import edu.caltech.nanodb.expressions.TypeCastException;
+import edu.caltech.nanodb.expressions.TypeConverter;
+import edu.caltech.nanodb.indexes.IndexBulkUpdater;
+import edu.caltech.nanodb.relations.ColumnInfo;
+import edu.caltech.nanodb.relations.ColumnType;
+import edu.caltech.nanodb.relations.TableInfo;
+import edu.caltech.nanodb.relations.TableSchema;
+import edu.caltech.nanodb.storage.StorageManager;
+import edu.caltech.nanodb.storage.heapfile.HeapFilePageTuple;
+import edu.caltech.nanodb.storage.heapfile.HeapFileBulkLoader;
+import edu.caltech.nanodb.storage.heapfile.HeapTupleFile;
+import edu.caltech.nanodb.util.CSVReader;
+
+
+/**
+ * <p>
+ * This command object represents a <tt>COPY ... FROM</tt> command, which
+ * loads the rows of a comma-separated values file into a table:
+ * <tt>COPY tbl FROM 'file.csv' [PROPERTIES (...)]</tt>.  The file is read
+ * one record at a time, and each record must have a value for every column
+ * of the table, in order.  An empty unquoted value is <tt>NULL</tt>.  These
+ * properties are recognized:
+ * </p>
+ * <ul>
+ *   <li><tt>header</tt> - if true, the first record holds column names
+ *       and is skipped</li>
+ *   <li><tt>delimiter</tt> - the character that separates values, if it
+ *       isn't a comma</li>
+ * </ul>
+ * <p>
+ * Rows are normally loaded in bulk, bypassing the per-row events that an
+ * <tt>INSERT</tt> fires:  a {@link HeapFileBulkLoader} fills new data pages
+ * at the end of the table and logs each one once, <tt>NOT NULL</tt>
+ * constraints and unique keys are checked as the rows are read, and an
+ * {@link IndexBulkUpdater} adds the rows to the table's indexes after they
+ * have all been stored.  Tables that aren't heap files, or that have foreign
+ * keys or bitmap indexes to maintain, are loaded one row at a time like an
+ * <tt>INSERT</tt> instead.
+ * </p>
+ * <p>
+ * If a row can't be loaded, the command fails, but the rows before it stay
+ * in the table, since the command's transaction is still committed.  A bulk
+ * load still adds those rows to the indexes, so that the indexes always
+ * match the table.
+ * </p>
+ */
+public class CopyFromCommand extends Command {
+
+    /** A logging object for reporting anything interesting that happens. */
+    private static Logger logger = Logger.getLogger(CopyFromCommand.class);
+
+
+    /** The property that says whether the file starts with a header. */
+    public static final String PROP_HEADER = "header";
+
+
+    /** The property that specifies the character that separates values. */
+    public static final String PROP_DELIMITER = "delimiter";
+
+
+    /** The name of the table to load the rows into. */
+    private String tableName;
+
+
+    /** The path and filename of the file to load. */
+    private String fileName;
+
+
+    /** Any additional properties specified in the command. */
+    private CommandProperties properties;
+
+
+    public CopyFromCommand(String tableName, String fileName) {
+        super(Command.Type.DML);
+
+        if (tableName == null)
+            throw new IllegalArgumentException("tableName cannot be null");
+
+        if (fileName == null)
+            throw new IllegalArgumentException("fileName cannot be null");
+
+        this.tableName = tableName;
+        this.fileName = fileName;
+    }
+
+
+    public void setProperties(CommandProperties properties) {
+        this.properties = properties;
+    }
+
+
+    public CommandProperties getProperties() {
+        return properties;
+    }
+
+
+    @Override
+    public void execute(StorageManager storageManager)
+        throws ExecutionException {
+
+        boolean header = false;
+        char delimiter = ',';
+        if (properties != null) {
+            header = properties.getBoolean(PROP_HEADER, header);
+
+            String delimStr = properties.getString(PROP_DELIMITER, ",");
+            if (delimStr.length() != 1) {
+                throw new ExecutionException("The delimiter must be a " +
+                    "single character, got \"" + delimStr + "\".");
+            }
+            delimiter = delimStr.charAt(0);
+
+            HashSet<String> names = new HashSet<String>(properties.getNames());
+            names.remove(PROP_HEADER);
+            names.remove(PROP_DELIMITER);
+            if (!names.isEmpty()) {
+                throw new ExecutionException("Unrecognized property " +
+                    "name(s) specified:  " + names);
+            }
+        }
+
+        TableInfo tableInfo;
+        try {
+            tableInfo = storageManager.getTableManager().openTable(tableName);
+        }
+        catch (IOException ioe) {
+            throw new ExecutionException("Could not open table \"" +
+                tableName + "\".", ioe);
+        }
+
+        long startTime = System.nanoTime();
+
+        CSVReader reader;
+        try {
+            reader = new CSVReader(new InputStreamReader(
+                new FileInputStream(fileName), "UTF-8"), delimiter);
+        }
+        catch (IOException ioe) {
+            throw new ExecutionException("Could not open file \"" +
+                fileName + "\".", ioe);
+        }
+
+        int numRows;
+        try {
+            if (header)
+                reader.readRecord();
+
+            if (canBulkLoad(storageManager, tableInfo))
+                numRows = bulkLoad(storageManager, tableInfo, reader);
+            else
+                numRows = insertRows(tableInfo, reader);
+        }
+        catch (ExecutionException e) {
+            throw e;
+        }
+        catch (Exception e) {
+            throw new ExecutionException("Couldn't load file \"" + fileName +
+                "\" into table \"" + tableName + "\".", e);
+        }
+        finally {
+            try {
+                reader.close();
+            }
+            catch (IOException ioe) {
+                logger.warn("Couldn't close file " + fileName, ioe);
+            }
+        }
+
+        double elapsedSecs = (System.nanoTime() - startTime) / 1.0e9;
+        out.printf("Copied %d rows in %f sec.%n", numRows, elapsedSecs);
+    }
+
+
+    /**
+     * Returns true if the table's rows can be loaded in bulk.  Foreign keys
+     * and bitmap indexes are only maintained by the row events that an
+     * <tt>INSERT</tt> fires, so tables with them must be loaded a row at a
+     * time.
+     */
+    private boolean canBulkLoad(StorageManager storageManager,
+                                TableInfo tableInfo) throws IOException {
+
+        TableSchema schema = tableInfo.getSchema();
+        if (!(tableInfo.getTupleFile() instanceof HeapTupleFile))
+            return false;
+
+        if (schema.numForeignKeys() > 0 || !schema.getBitmapIndexes().isEmpty())
+            return false;
+
+        // Bitmap join indexes may also take values from this table.
+        return storageManager.getBitmapIndexManager()
+            .findJoinIndexesOn(tableInfo).isEmpty();
+    }
+
+
+    private int bulkLoad(StorageManager storageManager, TableInfo tableInfo,
+                         CSVReader reader) throws Exception {
+
+        logger.debug("Bulk-loading file " + fileName + " into table " +
+            tableName);
+
+        HeapFileBulkLoader loader = new HeapFileBulkLoader(storageManager,
+            (HeapTupleFile) tableInfo.getTupleFile());
+        IndexBulkUpdater indexUpdater =
+            new IndexBulkUpdater(storageManager, tableInfo);
+
+        try {
+            try {
+                TupleLiteral tuple;
+                while ((tuple = readTuple(reader, tableInfo.getSchema(), true)) != null) {
+                    // Unique keys must be checked before the row is stored,
+                    // since the indexes are only updated later.
+                    try {
+                        indexUpdater.checkRow(tuple);
+                    }
+                    catch (IllegalStateException e) {
+                        throw new ExecutionException(String.format(
+                            "Line %d of \"%s\":  %s", reader.getRecordLineNumber(),
+                            fileName, e.getMessage()), e);
+                    }
+
+                    HeapFilePageTuple pageTup = loader.addTuple(tuple);
+                    indexUpdater.addRow(pageTup);
+                    pageTup.unpin();
+                }
+            }
+            catch (Exception e) {
+                // The rows stored before the error stay in the table, so
+                // they must still be added to the indexes.
+                try {
+                    loader.finish();
+                    indexUpdater.finish();
+                }
+                catch (Exception e2) {
+                    logger.error("Couldn't add the rows loaded before the " +
+                        "error to the indexes of table " + tableName, e2);
+                    e.addSuppressed(e2);
+                }
+                throw e;
+            }
+
+            loader.finish();
+            indexUpdater.finish();
+        }
+        finally {
+            // No row events are fired for the new rows, so cached query
+            // results must be told that the table changed, even if only
+            // some of the rows were loaded.
+            QueryResultCache.getInstance().tableChanged(tableInfo.getTableName());
+        }
+
+        logger.debug(String.format("Loaded %d rows into %d new pages.",
+            loader.getTuplesAdded(), loader.getPagesWritten()));
+
+        return loader.getTuplesAdded();
+    }
+
+
+    private int insertRows(TableInfo tableInfo, CSVReader reader)
+        throws Exception {
+
+        logger.debug("Inserting rows of file " + fileName + " into table " +
+            tableName + " one at a time");
+
+        InsertCommand.TupleInserter inserter =
+            new InsertCommand.TupleInserter(tableInfo);
+
+        int numRows = 0;
+        TupleLiteral tuple;
+        while ((tuple = readTuple(reader, tableInfo.getSchema(), false)) != null) {
+            inserter.process(tuple);
+            numRows++;
+        }
+
+        inserter.finish();
+        return numRows;
+    }
+
+
+    /**
+     * Reads the next record of the file, and converts its values to the
+     * types of the table's columns.
+     *
+     * @param reader the reader of the file
+     * @param schema the schema of the table
+     * @param checkNotNull if true, the values of <tt>NOT NULL</tt> columns
+     *        are checked, since no row events will check them
+     *
+     * @return the record's values, or null if there are no more records
+     *
+     * @throws ExecutionException if the record doesn't have a value for every
+     *         column, or a value can't be converted to its column's type
+     */
+    private TupleLiteral readTuple(CSVReader reader, TableSchema schema,
+                                   boolean checkNotNull)
+        throws IOException, ExecutionException {
+
+        List<String> record = reader.readRecord();
+        if (record == null)
+            return null;
+
+        int lineNumber = reader.getRecordLineNumber();
+        if (record.size() != schema.numColumns()) {
+            throw new ExecutionException(String.format(
+                "Line %d of \"%s\" has %d values, but table \"%s\" has %d columns.",
+                lineNumber, fileName, record.size(), tableName, schema.numColumns()));
+        }
+
+        Set<Integer> notNull = schema.getNotNull();
+        TupleLiteral tuple = new TupleLiteral();
+        for (int i = 0; i < record.size(); i++) {
+            ColumnInfo colInfo = schema.getColumnInfo(i);
+            String value = record.get(i);
+            if (value == null) {
+                if (checkNotNull && notNull.contains(i)) {
+                    throw new ExecutionException(String.format(
+                        "Line %d of \"%s\":  column %s cannot be NULL.",
+                        lineNumber, fileName, colInfo.getName()));
+                }
+
+                tuple.addValue(null);
+                continue;
+            }
+
+            try {
+                tuple.addValue(convertValue(colInfo.getType(), value));
+            }
+            catch (TypeCastException e) {
+                throw new ExecutionException(String.format(
+                    "Line %d of \"%s\":  can't convert \"%s\" to the type " +
+                    "of column %s.", lineNumber, fileName, value,
+                    colInfo.getName()), e);
+            }
+        }
+
+        return tuple;
+    }
+
+
+    /**
+     * Converts a value read from the file to the type of its column.  Values
+     * of the numeric types are parsed; all others are left as strings.
+     */
+    private static Object convertValue(ColumnType colType, String value) {
+        switch (colType.getBaseType()) {
+        case INTEGER:
+            return TypeConverter.getIntegerValue(value.trim());
+
+        case SMALLINT:
+            return TypeConverter.getShortValue(value.trim());
+
+        case BIGINT:
+            return TypeConverter.getLongValue(value.trim());
+
+        case TINYINT:
+            return TypeConverter.getByteValue(value.trim());
+
+        case FLOAT:
+            return TypeConverter.getFloatValue(value.trim());
+
+        case DOUBLE:
+            return TypeConverter.getDoubleValue(value.trim());
+
+        default:
+            return value;
+        }
+    }
+
+
+    @Override
+    public String toString() {
+        return "CopyFromCommand[table=" + tableName + ", filename=\"" +
+            fileName + "\", properties=" + properties + "]";
+    }
+}
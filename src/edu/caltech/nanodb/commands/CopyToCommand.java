@@ -0,0 +1,462 @@
+package edu.caltech.nanodb.commands;
+
+
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.log4j.Logger;
+
+import edu.caltech.nanodb.expressions.TupleLiteral;
+import edu.caltech.nanodb.plans.PlanNode;
+import edu.caltech.nanodb.qeval.EvalStats;
+import edu.caltech.nanodb.qeval.Planner;
+import edu.caltech.nanodb.qeval.PlannerFactory;
+import edu.caltech.nanodb.qeval.QueryEvaluator;
+import edu.caltech.nanodb.qeval.TupleProcessor;
+import edu.caltech.nanodb.relations.ColumnInfo;
+import edu.caltech.nanodb.relations.Schema;
+import edu.caltech.nanodb.relations.TableInfo;
+import edu.caltech.nanodb.relations.Tuple;
+import edu.caltech.nanodb.server.ProtocolReader;
+import edu.caltech.nanodb.server.ProtocolWriter;
+import edu.caltech.nanodb.storage.StorageManager;
+import edu.caltech.nanodb.storage.heapfile.HeapTupleFile;
+import edu.caltech.nanodb.util.CSVWriter;
+
+
+/**
+ * <p>
+ * This command object represents a <tt>COPY ... TO</tt> command, which
+ * writes the rows of a table or the results of a query to a file:
+ * <tt>COPY tbl TO 'file' [FORMAT fmt] [PROPERTIES (...)]</tt> or
+ * <tt>COPY (SELECT ...) TO 'file' [FORMAT fmt] [PROPERTIES (...)]</tt>.
+ * The format is either <tt>CSV</tt>, the default, which
+ * {@link CopyFromCommand} can load back in, or <tt>BINARY</tt>, which is the
+ * schema and row messages of the client protocol, and can be read with a
+ * {@link ProtocolReader}.  These properties are recognized:
+ * </p>
+ * <ul>
+ *   <li><tt>header</tt> - if true, CSV files start with a record of the
+ *       column names</li>
+ *   <li><tt>delimiter</tt> - the character that separates CSV values, if it
+ *       isn't a comma</li>
+ *   <li><tt>writers</tt> - when copying a heap-file table, the number of
+ *       threads that write it out</li>
+ * </ul>
+ * <p>
+ * Files are written through buffered NIO file channels.  When a table is
+ * copied with more than one writer, its data pages are split into
+ * contiguous ranges, and each writer reads one range and writes it to its
+ * own segment file, named after the file with a suffix of <tt>.000</tt>,
+ * <tt>.001</tt>, and so forth.  The segments hold the rows in the same
+ * order as a scan of the table, and each can be loaded on its own.
+ * </p>
+ */
+public class CopyToCommand extends Command {
+
+    /** A logging object for reporting anything interesting that happens. */
+    private static Logger logger = Logger.getLogger(CopyToCommand.class);
+
+
+    public static final String FORMAT_CSV = "csv";
+
+
+    public static final String FORMAT_BINARY = "binary";
+
+
+    /** The property that specifies the number of threads writing a table. */
+    public static final String PROP_WRITERS = "writers";
+
+
+    /**
+     * This class writes the rows it is handed to a file, in one of the
+     * formats the command supports.
+     */
+    private abstract static class FileExporter implements TupleProcessor {
+        protected String fileName;
+
+        protected FileChannel channel;
+
+        protected int rowsWritten;
+
+        protected FileExporter(String fileName) throws IOException {
+            this.fileName = fileName;
+            channel = FileChannel.open(Paths.get(fileName),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        }
+
+        public int getRowsWritten() {
+            return rowsWritten;
+        }
+
+        public void finish() {
+            // Not used
+        }
+
+        /** Writes out any buffered rows, and closes the file. */
+        public abstract void close() throws IOException;
+    }
+
+
+    private static class CSVExporter extends FileExporter {
+        private CSVWriter writer;
+
+        private boolean header;
+
+        private ArrayList<Object> values = new ArrayList<Object>();
+
+        public CSVExporter(String fileName, char delimiter, boolean header)
+            throws IOException {
+            super(fileName);
+            writer = new CSVWriter(channel, delimiter);
+            this.header = header;
+        }
+
+        public void setSchema(Schema schema) throws IOException {
+            if (!header)
+                return;
+
+            values.clear();
+            for (ColumnInfo colInfo : schema)
+                values.add(colInfo.getName());
+
+            writer.writeRecord(values);
+        }
+
+        public void process(Tuple tuple) throws IOException {
+            values.clear();
+            for (int i = 0; i < tuple.getColumnCount(); i++)
+                values.add(tuple.getColumnValue(i));
+
+            writer.writeRecord(values);
+            rowsWritten++;
+        }
+
+        public void close() throws IOException {
+            writer.close();
+        }
+    }
+
+
+    private static class BinaryExporter extends FileExporter {
+        private ProtocolWriter writer;
+
+        public BinaryExporter(String fileName) throws IOException {
+            super(fileName);
+            writer = new ProtocolWriter(Channels.newOutputStream(channel));
+        }
+
+        public void setSchema(Schema schema) throws IOException {
+            writer.writeSchema(schema);
+        }
+
+        public void process(Tuple tuple) throws IOException {
+            writer.writeTuple(tuple);
+            rowsWritten++;
+        }
+
+        public void close() throws IOException {
+            writer.close();
+        }
+    }
+
+
+    /** The name of the table to copy, or null if a query is copied. */
+    private String tableName;
+
+
+    /** The query whose results are copied, or null if a table is copied. */
+    private SelectCommand query;
+
+
+    /** The path and filename to write the rows to. */
+    private String fileName;
+
+
+    /** The format to write the rows in. */
+    private String format;
+
+
+    /** Any additional properties specified in the command. */
+    private CommandProperties properties;
+
+
+    /* The settings from the format and properties. */
+    private boolean header;
+
+    private char delimiter;
+
+    private int numWriters;
+
+
+    private CopyToCommand(String fileName, String format) {
+        super(Command.Type.UTILITY);
+
+        if (fileName == null)
+            throw new IllegalArgumentException("fileName cannot be null");
+
+        this.fileName = fileName;
+        this.format = (format != null ? format.toLowerCase() : FORMAT_CSV);
+    }
+
+
+    /**
+     * Constructs a command that copies the rows of a table.
+     *
+     * @param tableName the name of the table to copy
+     * @param fileName the path and file to write the rows to
+     * @param format the format to write the rows in, or null for CSV
+     */
+    public CopyToCommand(String tableName, String fileName, String format) {
+        this(fileName, format);
+
+        if (tableName == null)
+            throw new IllegalArgumentException("tableName cannot be null");
+
+        this.tableName = tableName;
+    }
+
+
+    /**
+     * Constructs a command that copies the results of a query.
+     *
+     * @param query the <tt>SELECT</tt> query whose results are copied
+     * @param fileName the path and file to write the rows to
+     * @param format the format to write the rows in, or null for CSV
+     */
+    public CopyToCommand(QueryCommand query, String fileName, String format) {
+        this(fileName, format);
+
+        if (!(query instanceof SelectCommand)) {
+            throw new IllegalArgumentException(
+                "query must be a SELECT command, got " + query);
+        }
+
+        this.query = (SelectCommand) query;
+    }
+
+
+    public void setProperties(CommandProperties properties) {
+        this.properties = properties;
+    }
+
+
+    public CommandProperties getProperties() {
+        return properties;
+    }
+
+
+    @Override
+    public void execute(StorageManager storageManager)
+        throws ExecutionException {
+
+        readSettings();
+        long startTime = System.nanoTime();
+
+        int numRows;
+        int numFiles = 1;
+        try {
+            if (query != null) {
+                numRows = copyPlan(query.getPlan(storageManager));
+            }
+            else {
+                TableInfo tableInfo =
+                    storageManager.getTableManager().openTable(tableName);
+
+                if (numWriters > 1 &&
+                    tableInfo.getTupleFile() instanceof HeapTupleFile) {
+                    HeapTupleFile tupleFile =
+                        (HeapTupleFile) tableInfo.getTupleFile();
+
+                    // Page 0 is the header page, so it isn't copied.
+                    int numPages = tupleFile.getDBFile().getNumPages() - 1;
+                    numFiles = Math.max(1, Math.min(numWriters, numPages));
+                    numRows = copySegments(tupleFile, numPages, numFiles);
+                }
+                else {
+                    Planner planner = PlannerFactory.getPlanner(storageManager);
+                    PlanNode plan = planner.makeSimpleSelect(tableName, null, null);
+                    plan.prepare();
+
+                    numRows = copyPlan(plan);
+                }
+            }
+        }
+        catch (ExecutionException e) {
+            throw e;
+        }
+        catch (Exception e) {
+            throw new ExecutionException("Couldn't copy rows to file \"" +
+                fileName + "\".", e);
+        }
+
+        double elapsedSecs = (System.nanoTime() - startTime) / 1.0e9;
+        if (numWriters > 1 && query == null) {
+            out.printf("Copied %d rows into %d files in %f sec.%n", numRows,
+                numFiles, elapsedSecs);
+        }
+        else {
+            out.printf("Copied %d rows in %f sec.%n", numRows, elapsedSecs);
+        }
+    }
+
+
+    /** Checks the format and properties, and records their settings. */
+    private void readSettings() throws ExecutionException {
+        if (!FORMAT_CSV.equals(format) && !FORMAT_BINARY.equals(format)) {
+            throw new ExecutionException("Unrecognized format \"" + format +
+                "\"; expected CSV or BINARY.");
+        }
+
+        header = false;
+        delimiter = ',';
+        numWriters = 1;
+        if (properties == null)
+            return;
+
+        header = properties.getBoolean(CopyFromCommand.PROP_HEADER, header);
+
+        String delimStr = properties.getString(CopyFromCommand.PROP_DELIMITER, ",");
+        if (delimStr.length() != 1) {
+            throw new ExecutionException("The delimiter must be a " +
+                "single character, got \"" + delimStr + "\".");
+        }
+        delimiter = delimStr.charAt(0);
+
+        numWriters = properties.getInt(PROP_WRITERS, numWriters);
+        if (numWriters < 1) {
+            throw new ExecutionException("The number of writers must be " +
+                "positive, got " + numWriters + ".");
+        }
+
+        HashSet<String> names = new HashSet<String>(properties.getNames());
+        names.remove(CopyFromCommand.PROP_HEADER);
+        names.remove(CopyFromCommand.PROP_DELIMITER);
+        names.remove(PROP_WRITERS);
+        if (!names.isEmpty()) {
+            throw new ExecutionException("Unrecognized property " +
+                "name(s) specified:  " + names);
+        }
+    }
+
+
+    private FileExporter openExporter(String fileName) throws IOException {
+        if (FORMAT_BINARY.equals(format))
+            return new BinaryExporter(fileName);
+        else
+            return new CSVExporter(fileName, delimiter, header);
+    }
+
+
+    /** Writes all the rows a plan produces to the file. */
+    private int copyPlan(PlanNode plan) throws Exception {
+        FileExporter exporter = openExporter(fileName);
+        try {
+            EvalStats stats = QueryEvaluator.executePlan(plan, exporter);
+            return stats.getRowsProduced();
+        }
+        finally {
+            exporter.close();
+        }
+    }
+
+
+    /**
+     * Writes a heap file's rows to segment files, with a separate thread
+     * reading each range of pages and writing its segment.
+     *
+     * @param tupleFile the heap file to copy
+     * @param numPages the number of data pages in the file
+     * @param numSegments the number of segments to split the pages into
+     *
+     * @return the total number of rows written
+     */
+    private int copySegments(final HeapTupleFile tupleFile, int numPages,
+                             int numSegments) throws Exception {
+
+        logger.debug(String.format("Copying %d pages of table %s into %d " +
+            "segments.", numPages, tableName, numSegments));
+
+        final Schema schema = tupleFile.getSchema();
+
+        ExecutorService executor = Executors.newFixedThreadPool(numSegments);
+        try {
+            ArrayList<Future<Integer>> results = new ArrayList<Future<Integer>>();
+            for (int i = 0; i < numSegments; i++) {
+                // Data pages start at page 1.
+                final int startPage = 1 + (int) ((long) numPages * i / numSegments);
+                final int endPage = 1 + (int) ((long) numPages * (i + 1) / numSegments);
+                final String segmentName = String.format("%s.%03d", fileName, i);
+
+                results.add(executor.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws Exception {
+                        FileExporter exporter = openExporter(segmentName);
+                        try {
+                            exporter.setSchema(schema);
+                            for (int pageNo = startPage; pageNo < endPage; pageNo++) {
+                                List<TupleLiteral> tuples =
+                                    tupleFile.getPageTuples(pageNo);
+                                for (TupleLiteral tuple : tuples)
+                                    exporter.process(tuple);
+                            }
+                        }
+                        finally {
+                            exporter.close();
+                        }
+                        return exporter.getRowsWritten();
+                    }
+                }));
+            }
+
+            int numRows = 0;
+            for (Future<Integer> result : results) {
+                try {
+                    numRows += result.get();
+                }
+                catch (java.util.concurrent.ExecutionException e) {
+                    throw new ExecutionException("Couldn't write a segment " +
+                        "of table \"" + tableName + "\".", e.getCause());
+                }
+            }
+
+            return numRows;
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+
+        sb.append("CopyToCommand[");
+        if (query != null)
+            sb.append("query=").append(query);
+        else
+            sb.append("table=").append(tableName);
+
+        sb.append(", filename=\"").append(fileName).append("\", format=");
+        sb.append(format);
+
+        if (properties != null)
+            sb.append(", properties=").append(properties);
+
+        sb.append(']');
+
+        return sb.toString();
+    }
+}
@@ -10,12 +10,18 @@ import java.util.List;
 import edu.caltech.nanodb.indexes.bitmapindex.BitmapIndexManager;
 import org.apache.log4j.Logger;
 
+import edu.caltech.nanodb.expressions.ColumnName;
+
 import edu.caltech.nanodb.indexes.IndexManager;
 
+import edu.caltech.nanodb.relations.BitmapJoinColumnRefs;
 import edu.caltech.nanodb.relations.ColumnRefs;
+import edu.caltech.nanodb.relations.ForeignKeyColumnRefs;
 import edu.caltech.nanodb.relations.KeyColumnRefs;
 import edu.caltech.nanodb.relations.TableConstraintType;
+import edu.caltech.nanodb.relations.SchemaNameException;
 import edu.caltech.nanodb.relations.TableInfo;
+import edu.caltech.nanodb.relations.TableSchema;
 
 import edu.caltech.nanodb.storage.TableManager;
 import edu.caltech.nanodb.storage.StorageManager;
@@ -52,6 +58,23 @@ public class CreateIndexCommand extends Command {
     private ArrayList<String> columnNames = new ArrayList<String>();
 
 
+    /**
+     * The list of non-key column-names whose values are stored in each index
+     * entry, as specified by the <tt>INCLUDE</tt> clause.  These columns
+     * don't affect the order of the index, but they allow queries to be
+     * answered from the index without reading the table.
+     */
+    private ArrayList<String> includedColumnNames = new ArrayList<String>();
+
+
+    /**
+     * The columns of other tables that the index is built against, for a
+     * bitmap join index.  The index is on the values that the table's rows
+     * refer to through their foreign key to the other table.
+     */
+    private ArrayList<ColumnName> joinColumnNames = new ArrayList<ColumnName>();
+
+
     /** Any additional properties specified in the command. */
     private CommandProperties properties;
 
@@ -94,6 +117,16 @@ public class CreateIndexCommand extends Command {
     }
 
 
+    public void addJoinColumn(String tableName, String columnName) {
+        this.joinColumnNames.add(new ColumnName(tableName, columnName));
+    }
+
+
+    public void addIncludedColumn(String columnName) {
+        this.includedColumnNames.add(columnName);
+    }
+
+
     @Override
     public void execute(StorageManager storageManager)
         throws ExecutionException {
@@ -117,23 +150,52 @@ public class CreateIndexCommand extends Command {
         }
 
         try {
-            int[] cols = tableInfo.getSchema().getColumnIndexes(columnNames);
-
             ColumnRefs colRefs;
-            if (unique) {
+            if (!joinColumnNames.isEmpty()) {
+                if (!bitmap || unique || joinColumnNames.size() != 1 ||
+                    !columnNames.isEmpty()) {
+                    throw new ExecutionException("Only bitmap indexes on " +
+                        "a single column can be on a column of another table.");
+                }
+
+                colRefs = makeJoinColumnRefs(tableInfo, tableManager);
+            }
+            else if (unique) {
+                int[] cols = tableInfo.getSchema().getColumnIndexes(columnNames);
                 colRefs = new KeyColumnRefs(indexName, cols,
                     TableConstraintType.UNIQUE);
             }
             else {
+                int[] cols = tableInfo.getSchema().getColumnIndexes(columnNames);
                 colRefs = new ColumnRefs(indexName, cols);
             }
 
+            if (!includedColumnNames.isEmpty()) {
+                if (bitmap) {
+                    throw new ExecutionException(
+                        "Bitmap indexes cannot include non-key columns.");
+                }
+
+                colRefs.setIncludedCols(tableInfo.getSchema().getColumnIndexes(
+                    includedColumnNames));
+            }
+
             if (bitmap) {
                 bitmapIndexManager.createBitmapIndex(tableInfo, colRefs);
             } else {
                 indexManager.addIndexToTable(tableInfo, colRefs);
             }
         }
+        catch (IllegalArgumentException e) {
+            throw new ExecutionException(String.format(
+                "Can't create index %s on table %s:  %s", indexName,
+                tableName, e.getMessage()), e);
+        }
+        catch (SchemaNameException e) {
+            throw new ExecutionException(String.format(
+                "Can't create index %s on table %s:  %s", indexName,
+                tableName, e.getMessage()), e);
+        }
         catch (IOException e) {
             throw new ExecutionException(String.format(
                 "Error occurred while creating index %s on table %s",
@@ -145,4 +207,43 @@ public class CreateIndexCommand extends Command {
 
         out.printf("Created index %s on table %s.%n", indexName, tableName);
     }
+
+
+    /**
+     * Makes the column references of a bitmap join index on the table.  The
+     * index's columns are the table's foreign key to the other table, which
+     * must be the only foreign key between the two tables.
+     */
+    private BitmapJoinColumnRefs makeJoinColumnRefs(TableInfo tableInfo,
+        TableManager tableManager) throws IOException {
+
+        ColumnName joinColumnName = joinColumnNames.get(0);
+        String dimensionTable = joinColumnName.getTableName();
+        TableSchema schema = tableInfo.getSchema();
+
+        ForeignKeyColumnRefs foreignKey = null;
+        for (ForeignKeyColumnRefs fk : schema.getForeignKeys()) {
+            if (fk.getRefTable().equals(dimensionTable)) {
+                if (foreignKey != null) {
+                    throw new IllegalArgumentException(String.format(
+                        "Table %s has more than one foreign key to table %s",
+                        tableName, dimensionTable));
+                }
+                foreignKey = fk;
+            }
+        }
+
+        if (foreignKey == null) {
+            throw new IllegalArgumentException(String.format(
+                "Table %s has no foreign key to table %s", tableName,
+                dimensionTable));
+        }
+
+        // Make sure the other table has the column.
+        TableInfo dimensionInfo = tableManager.openTable(dimensionTable);
+        dimensionInfo.getSchema().getColumnInfo(joinColumnName.getColumnName());
+
+        return new BitmapJoinColumnRefs(indexName, foreignKey.getCols(),
+            dimensionTable, joinColumnName.getColumnName());
+    }
 }
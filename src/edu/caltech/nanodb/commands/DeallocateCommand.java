@@ -0,0 +1,50 @@
+package edu.caltech.nanodb.commands;
+
+
+import edu.caltech.nanodb.client.SessionState;
+import edu.caltech.nanodb.storage.StorageManager;
+
+
+/**
+ * This command object represents a <tt>DEALLOCATE</tt> command, which removes
+ * one or all of the statements the session has prepared.  The statements'
+ * plans stay in the {@link StatementCache}, since other sessions may have
+ * prepared the same statements.
+ */
+public class DeallocateCommand extends Command {
+
+    /** The name of the statement to remove, or null to remove them all. */
+    private String name;
+
+
+    public DeallocateCommand(String name) {
+        super(Command.Type.UTILITY);
+        this.name = name;
+    }
+
+
+    @Override
+    public void execute(StorageManager storageManager)
+        throws ExecutionException {
+
+        SessionState state = SessionState.get();
+        if (name == null) {
+            state.clearPreparedStatements();
+            out.println("Deallocated all prepared statements.");
+        }
+        else {
+            if (!state.removePreparedStatement(name)) {
+                throw new ExecutionException("No statement named " + name +
+                    " has been prepared.");
+            }
+
+            out.println("Deallocated prepared statement " + name + ".");
+        }
+    }
+
+
+    @Override
+    public String toString() {
+        return "DeallocateCommand[" + (name != null ? name : "ALL") + "]";
+    }
+}
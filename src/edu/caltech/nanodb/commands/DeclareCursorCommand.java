@@ -0,0 +1,63 @@
+package edu.caltech.nanodb.commands;
+
+
+import edu.caltech.nanodb.client.SessionState;
+import edu.caltech.nanodb.storage.StorageManager;
+
+
+/**
+ * This command object represents a <tt>DECLARE ... CURSOR FOR</tt> command,
+ * which plans a <tt>SELECT</tt> query and starts evaluating it, so that the
+ * session can then read the results a few rows at a time with
+ * <tt>FETCH</tt>.  The query's plan stays suspended between fetches, so the
+ * query is never evaluated again, until the cursor is closed with
+ * <tt>CLOSE</tt>.
+ *
+ * @see QueryCursor
+ */
+public class DeclareCursorCommand extends Command {
+
+    /** The name the session gives the cursor. */
+    private String name;
+
+
+    /** The query that the cursor produces the results of. */
+    private SelectCommand query;
+
+
+    public DeclareCursorCommand(String name, QueryCommand query) {
+        super(Command.Type.UTILITY);
+
+        if (name == null)
+            throw new IllegalArgumentException("name cannot be null");
+
+        if (!(query instanceof SelectCommand)) {
+            throw new IllegalArgumentException(
+                "query must be a SELECT command, got " + query);
+        }
+
+        this.name = name;
+        this.query = (SelectCommand) query;
+    }
+
+
+    @Override
+    public void execute(StorageManager storageManager)
+        throws ExecutionException {
+
+        SessionState state = SessionState.get();
+        if (state.getCursor(name) != null) {
+            throw new ExecutionException("A cursor named " + name +
+                " is already open.");
+        }
+
+        state.addCursor(name, new QueryCursor(query, storageManager));
+        out.println("Declared cursor " + name + ".");
+    }
+
+
+    @Override
+    public String toString() {
+        return "DeclareCursorCommand[" + name + " = " + query + "]";
+    }
+}
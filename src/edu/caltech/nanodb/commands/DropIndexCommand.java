@@ -6,6 +6,8 @@ import java.io.IOException;
 import org.apache.log4j.Logger;
 
 import edu.caltech.nanodb.indexes.IndexManager;
+import edu.caltech.nanodb.indexes.bitmapindex.BitmapIndexManager;
+import edu.caltech.nanodb.relations.ColumnRefs;
 import edu.caltech.nanodb.relations.TableInfo;
 import edu.caltech.nanodb.storage.StorageManager;
 import edu.caltech.nanodb.storage.TableManager;
@@ -50,8 +52,21 @@ public class DropIndexCommand extends Command {
             // save the table's schema back to the table file.
 
             TableInfo tableInfo = tableManager.openTable(tableName);
-            indexManager.dropIndex(tableInfo, indexName);
-            tableManager.saveTableInfo(tableInfo);
+
+            ColumnRefs bitmapIndex =
+                tableInfo.getSchema().getBitmapIndexes().get(indexName);
+            if (bitmapIndex != null) {
+                // Bitmap indexes are kept by attribute, and save the schema
+                // themselves.
+                String attribute = BitmapIndexManager.getIndexAttribute(
+                    tableInfo.getSchema(), bitmapIndex);
+                storageManager.getBitmapIndexManager().dropBitmapIndex(
+                    tableInfo, attribute);
+            }
+            else {
+                indexManager.dropIndex(tableInfo, indexName);
+                tableManager.saveTableInfo(tableInfo);
+            }
         }
         catch (IOException e) {
             throw new ExecutionException(String.format(
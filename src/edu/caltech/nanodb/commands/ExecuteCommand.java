@@ -0,0 +1,129 @@
+package edu.caltech.nanodb.commands;
+
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+import edu.caltech.nanodb.client.SessionState;
+import edu.caltech.nanodb.expressions.Expression;
+import edu.caltech.nanodb.expressions.ExpressionException;
+import edu.caltech.nanodb.qeval.PrettyTuplePrinter;
+import edu.caltech.nanodb.qeval.TupleProcessor;
+import edu.caltech.nanodb.storage.StorageManager;
+
+
+/**
+ * This command object represents an <tt>EXECUTE</tt> command, which executes
+ * a statement that the session prepared with <tt>PREPARE</tt>, using the
+ * specified values for the statement's parameters.  The statement's plan is
+ * taken from the {@link StatementCache} if it is still valid; otherwise the
+ * statement is parsed and planned again.
+ */
+public class ExecuteCommand extends Command {
+
+    /** A logging object for reporting anything interesting that happens. */
+    private static Logger logger = Logger.getLogger(ExecuteCommand.class);
+
+
+    /** The name of the prepared statement to execute. */
+    private String name;
+
+
+    /** The values of the statement's parameters, in order. */
+    private List<Expression> arguments = new ArrayList<Expression>();
+
+
+    /**
+     * The tuple processor that the results of a <tt>SELECT</tt> statement are
+     * sent to, or null to print them to the session's output.
+     */
+    private TupleProcessor tupleProcessor;
+
+
+    public ExecuteCommand(String name) {
+        super(Command.Type.DML);
+
+        if (name == null)
+            throw new IllegalArgumentException("name cannot be null");
+
+        this.name = name;
+    }
+
+
+    public void addArgument(Expression arg) {
+        arguments.add(arg);
+    }
+
+
+    public void setTupleProcessor(TupleProcessor tupleProcessor) {
+        this.tupleProcessor = tupleProcessor;
+    }
+
+
+    @Override
+    public void execute(StorageManager storageManager)
+        throws ExecutionException {
+
+        String sql = SessionState.get().getPreparedStatement(name);
+        if (sql == null) {
+            throw new ExecutionException("No statement named " + name +
+                " has been prepared.");
+        }
+
+        List<Object> values = new ArrayList<Object>();
+        for (Expression arg : arguments) {
+            if (arg.hasSymbols()) {
+                throw new ExecutionException(
+                    "EXECUTE values cannot contain symbols!");
+            }
+
+            try {
+                values.add(arg.evaluate());
+            }
+            catch (ExpressionException e) {
+                throw new ExecutionException(
+                    "Couldn't evaluate an EXECUTE value.", e);
+            }
+        }
+
+        StatementCache cache = StatementCache.getInstance();
+        PreparedStatement stmt = cache.acquire(sql, storageManager);
+        if (stmt == null) {
+            logger.debug("Planning statement " + sql);
+            stmt = PreparedStatement.parse(sql);
+            stmt.prepare(storageManager);
+        }
+
+        QueryCommand command = stmt.getCommand();
+        try {
+            stmt.bind(values);
+
+            // The statement may have been parsed by another session.
+            command.out = out;
+            if (command instanceof SelectCommand) {
+                TupleProcessor processor = tupleProcessor;
+                if (processor == null)
+                    processor = new PrettyTuplePrinter(out);
+
+                ((SelectCommand) command).setTupleProcessor(processor);
+            }
+
+            command.execute(storageManager);
+        }
+        finally {
+            stmt.clearBindings();
+            if (command instanceof SelectCommand)
+                ((SelectCommand) command).setTupleProcessor(null);
+
+            cache.release(stmt);
+        }
+    }
+
+
+    @Override
+    public String toString() {
+        return "ExecuteCommand[" + name + ", arguments = " + arguments + "]";
+    }
+}
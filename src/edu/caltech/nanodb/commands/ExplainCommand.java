@@ -6,7 +6,11 @@ import edu.caltech.nanodb.storage.StorageManager;
 
 /**
  * This Command class represents the <tt>EXPLAIN</tt> SQL command, which prints
- * out details of how SQL DML statements will be evaluated.
+ * out details of how SQL DML statements will be evaluated.  The
+ * <tt>EXPLAIN ANALYZE</tt> form also executes the statement, and prints the
+ * rows, time and page accesses actually measured for each plan node
+ * alongside its estimated cost.  Statements other than <tt>SELECT</tt> still
+ * make their changes when they are analyzed.
  */
 public class ExplainCommand extends Command {
 
@@ -14,15 +18,32 @@ public class ExplainCommand extends Command {
     private QueryCommand cmdToExplain;
 
 
+    /** True if the command should also be executed and measured. */
+    private boolean analyze;
+
+
     /**
      * Construct an explain command.
      *
      * @param cmdToExplain the command that should be explained.
      */
     public ExplainCommand(QueryCommand cmdToExplain) {
+        this(cmdToExplain, false);
+    }
+
+
+    /**
+     * Construct an explain command.
+     *
+     * @param cmdToExplain the command that should be explained.
+     * @param analyze true if the command should also be executed, and the
+     *        statistics of its evaluation reported.
+     */
+    public ExplainCommand(QueryCommand cmdToExplain, boolean analyze) {
         super(Command.Type.UTILITY);
 
         this.cmdToExplain = cmdToExplain;
+        this.analyze = analyze;
     }
 
 
@@ -31,6 +52,7 @@ public class ExplainCommand extends Command {
         throws ExecutionException {
 
         cmdToExplain.setExplain(true);
+        cmdToExplain.setAnalyze(analyze);
         cmdToExplain.execute(storageManager);
     }
 }
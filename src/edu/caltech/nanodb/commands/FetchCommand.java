@@ -0,0 +1,100 @@
+package edu.caltech.nanodb.commands;
+
+
+import edu.caltech.nanodb.client.SessionState;
+import edu.caltech.nanodb.expressions.TupleLiteral;
+import edu.caltech.nanodb.qeval.PrettyTuplePrinter;
+import edu.caltech.nanodb.qeval.TupleProcessor;
+import edu.caltech.nanodb.storage.StorageManager;
+
+
+/**
+ * This command object represents a <tt>FETCH</tt> command, which reads the
+ * next rows of the results of a cursor the session declared with
+ * <tt>DECLARE ... CURSOR</tt>.  The rows are sent to the command's tuple
+ * processor just like the results of a <tt>SELECT</tt> command.
+ */
+public class FetchCommand extends Command {
+
+    /** The row count that fetches all the remaining rows. */
+    public static final int FETCH_ALL = -1;
+
+
+    /** The name of the cursor to fetch rows from. */
+    private String name;
+
+
+    /** The most rows to fetch, or {@link #FETCH_ALL}. */
+    private int count;
+
+
+    /**
+     * The tuple processor that the rows are sent to, or null to print them
+     * to the session's output.
+     */
+    private TupleProcessor tupleProcessor;
+
+
+    public FetchCommand(String name, int count) {
+        super(Command.Type.DML);
+
+        if (name == null)
+            throw new IllegalArgumentException("name cannot be null");
+
+        if (count < 0 && count != FETCH_ALL)
+            throw new IllegalArgumentException("count cannot be negative");
+
+        this.name = name;
+        this.count = count;
+    }
+
+
+    public void setTupleProcessor(TupleProcessor tupleProcessor) {
+        this.tupleProcessor = tupleProcessor;
+    }
+
+
+    @Override
+    public void execute(StorageManager storageManager)
+        throws ExecutionException {
+
+        QueryCursor cursor = SessionState.get().getCursor(name);
+        if (cursor == null)
+            throw new ExecutionException("No cursor named " + name + " is open.");
+
+        TupleProcessor processor = tupleProcessor;
+        if (processor == null)
+            processor = new PrettyTuplePrinter(out);
+
+        int rowsFetched = 0;
+        try {
+            processor.setSchema(cursor.getSchema());
+            while (count == FETCH_ALL || rowsFetched < count) {
+                TupleLiteral row = cursor.next();
+                if (row == null)
+                    break;
+
+                processor.process(row);
+                rowsFetched++;
+            }
+
+            cursor.unpinSentRows();
+        }
+        catch (ExecutionException e) {
+            throw e;
+        }
+        catch (Exception e) {
+            throw new ExecutionException(e);
+        }
+
+        processor.finish();
+        out.println("Fetched " + rowsFetched + " rows.");
+    }
+
+
+    @Override
+    public String toString() {
+        return "FetchCommand[" + name + ", count = " +
+            (count == FETCH_ALL ? "ALL" : Integer.toString(count)) + "]";
+    }
+}
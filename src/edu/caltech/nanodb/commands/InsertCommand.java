@@ -37,9 +37,10 @@ public class InsertCommand extends QueryCommand {
     /**
      * An implementation of the tuple processor interface used by the
      * {@link InsertCommand} to insert tuples into a table, when the command is
-     * of the form <tt>INSERT</tt> ... <tt>SELECT</tt>.
+     * of the form <tt>INSERT</tt> ... <tt>SELECT</tt>.  {@link CopyFromCommand}
+     * also uses it for tables that can't be bulk-loaded.
      */
-    private static class TupleInserter implements TupleProcessor {
+    static class TupleInserter implements TupleProcessor {
         /** The table into which the new tuples will be inserted. */
         private TableInfo tableInfo;
 
@@ -175,6 +176,21 @@ public class InsertCommand extends QueryCommand {
     }
 
 
+    /**
+     * Inserting a single row has no plan, so this only checks that the table
+     * exists; the row is still inserted by {@link #execute}.
+     */
+    @Override
+    public void preparePlan(StorageManager storageManager)
+        throws IOException, SchemaNameException {
+
+        if (values != null)
+            tableInfo = storageManager.getTableManager().openTable(tableName);
+        else
+            super.preparePlan(storageManager);
+    }
+
+
     /** This method is used when inserting only a single row of data. */
     private void insertSingleRow(StorageManager storageManager)
         throws ExecutionException {
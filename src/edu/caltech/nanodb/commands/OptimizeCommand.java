@@ -1,15 +1,24 @@
 package edu.caltech.nanodb.commands;
 
 
+import java.io.IOException;
+
+import java.util.ArrayList;
 import java.util.LinkedHashSet;
 
+import edu.caltech.nanodb.indexes.bitmapindex.BitmapIndexManager;
+import edu.caltech.nanodb.relations.TableInfo;
 import edu.caltech.nanodb.storage.StorageManager;
+import edu.caltech.nanodb.storage.TableManager;
 
 
 /**
  * This Command class represents the <tt>OPTIMIZE</tt> SQL command, which
  * optimizes a table's representation (along with any indexes) to improve access
  * performance and space utilization.  This is not a standard SQL command.
+ * <p>
+ * Currently only a table's bitmap indexes are optimized:  they are rebuilt
+ * from scratch, in bulk, which leaves no gaps for deleted rows.
  */
 public class OptimizeCommand extends Command {
 
@@ -59,7 +68,42 @@ public class OptimizeCommand extends Command {
     @Override
     public void execute(StorageManager storageManager)
         throws ExecutionException {
-        throw new ExecutionException("Not yet implemented!");
+
+        // Make sure that all the tables are valid.
+
+        TableManager tableManager = storageManager.getTableManager();
+
+        ArrayList<TableInfo> tableInfos = new ArrayList<TableInfo>();
+
+        for (String table : tableNames) {
+            try {
+                TableInfo tableInfo = tableManager.openTable(table);
+                tableInfos.add(tableInfo);
+            }
+            catch (IOException ioe) {
+                throw new ExecutionException("Could not open table " + table, ioe);
+            }
+        }
+
+        // Now, optimize each table.
+
+        BitmapIndexManager bitmapIndexManager =
+            storageManager.getBitmapIndexManager();
+
+        for (TableInfo tableInfo : tableInfos) {
+            try {
+                out.println("Optimizing table " + tableInfo.getTableName());
+                int numRebuilt =
+                    bitmapIndexManager.rebuildBitmapIndexes(tableInfo);
+                if (numRebuilt > 0)
+                    out.println("Rebuilt " + numRebuilt + " bitmap indexes");
+            }
+            catch (IOException ioe) {
+                throw new ExecutionException("Could not optimize table " +
+                    tableInfo.getTableName(), ioe);
+            }
+        }
+        out.println("Optimization complete.");
     }
 
 
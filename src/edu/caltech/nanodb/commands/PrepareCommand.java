@@ -0,0 +1,65 @@
+package edu.caltech.nanodb.commands;
+
+
+import edu.caltech.nanodb.client.SessionState;
+import edu.caltech.nanodb.storage.StorageManager;
+
+
+/**
+ * This command object represents a <tt>PREPARE</tt> command, which parses and
+ * plans a statement so that the session can execute it repeatedly with
+ * <tt>EXECUTE</tt>, giving its parameters different values each time.  The
+ * planned statement goes into the {@link StatementCache}, where other
+ * sessions preparing the same statement can also use it.
+ */
+public class PrepareCommand extends Command {
+
+    /** The name the session gives the statement. */
+    private String name;
+
+
+    /** The statement being prepared. */
+    private PreparedStatement statement;
+
+
+    public PrepareCommand(String name, PreparedStatement statement) {
+        super(Command.Type.UTILITY);
+
+        if (name == null)
+            throw new IllegalArgumentException("name cannot be null");
+
+        if (statement == null)
+            throw new IllegalArgumentException("statement cannot be null");
+
+        this.name = name;
+        this.statement = statement;
+    }
+
+
+    @Override
+    public void execute(StorageManager storageManager)
+        throws ExecutionException {
+
+        SessionState state = SessionState.get();
+        if (state.getPreparedStatement(name) != null) {
+            throw new ExecutionException("A statement named " + name +
+                " has already been prepared.");
+        }
+
+        // Plan the statement now, so that errors are reported when the
+        // statement is prepared rather than when it is executed.
+        statement.prepare(storageManager);
+
+        state.addPreparedStatement(name, statement.getSQL());
+        StatementCache.getInstance().release(statement);
+
+        out.printf("Prepared statement %s with %d parameters.%n", name,
+            statement.getNumParameters());
+    }
+
+
+    @Override
+    public String toString() {
+        return "PrepareCommand[" + name + " = " + statement.getSQL() + "]";
+    }
+}
@@ -0,0 +1,191 @@
+package edu.caltech.nanodb.commands;
+
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+
+import antlr.RecognitionException;
+import antlr.TokenStreamException;
+
+import edu.caltech.nanodb.expressions.ParameterValue;
+import edu.caltech.nanodb.relations.SchemaNameException;
+import edu.caltech.nanodb.sqlparse.NanoSqlLexer;
+import edu.caltech.nanodb.sqlparse.NanoSqlParser;
+import edu.caltech.nanodb.storage.StorageManager;
+
+
+/**
+ * This class holds a parsed and planned query command that can be executed
+ * repeatedly, with different values for its parameters.  Prepared statements
+ * are identified by their normalized SQL text, so that sessions preparing the
+ * same statement can share the work of parsing and planning it through the
+ * {@link StatementCache}.
+ * <p>
+ * A prepared statement is executed by one session at a time, since its plan
+ * holds the state of the execution.
+ */
+public class PreparedStatement {
+
+    /** The normalized SQL text of the statement. */
+    private String sql;
+
+
+    /** The command that the statement executes. */
+    private QueryCommand command;
+
+
+    /** The parameters of the statement, in the order they appear. */
+    private List<ParameterValue> parameters;
+
+
+    /**
+     * The storage manager the statement was planned against, or null if the
+     * statement hasn't been planned yet.
+     */
+    private StorageManager storageManager;
+
+
+    /** The version of the tables' definitions the plan was made from. */
+    private long catalogVersion;
+
+
+    public PreparedStatement(String sql, QueryCommand command,
+                             List<ParameterValue> parameters) {
+        if (sql == null)
+            throw new IllegalArgumentException("sql cannot be null");
+
+        if (command == null)
+            throw new IllegalArgumentException("command cannot be null");
+
+        if (parameters == null)
+            throw new IllegalArgumentException("parameters cannot be null");
+
+        this.sql = sql;
+        this.command = command;
+        this.parameters = parameters;
+    }
+
+
+    /**
+     * Parses the normalized SQL text of a statement into a new prepared
+     * statement, which must then be {@link #prepare prepared}.
+     *
+     * @param sql the normalized SQL text of the statement
+     *
+     * @return the statement
+     *
+     * @throws ExecutionException if the text can't be parsed
+     */
+    public static PreparedStatement parse(String sql)
+        throws ExecutionException {
+
+        NanoSqlLexer lexer = new NanoSqlLexer(new StringReader(sql));
+        NanoSqlParser parser = new NanoSqlParser(lexer);
+        try {
+            return parser.prepared_stmt();
+        }
+        catch (RecognitionException e) {
+            throw new ExecutionException("Couldn't parse statement " + sql, e);
+        }
+        catch (TokenStreamException e) {
+            throw new ExecutionException("Couldn't parse statement " + sql, e);
+        }
+    }
+
+
+    /**
+     * Plans the statement against the current definitions of the tables it
+     * uses.
+     *
+     * @param storageManager the storage manager to plan the statement against
+     *
+     * @throws ExecutionException if the statement refers to tables or columns
+     *         that don't exist, or can't be planned for some other reason
+     */
+    public void prepare(StorageManager storageManager)
+        throws ExecutionException {
+
+        // Get the version first, so that changes made while planning make
+        // the plan invalid.
+        long version = storageManager.getTableManager().getCatalogVersion();
+        try {
+            command.preparePlan(storageManager);
+        }
+        catch (IOException e) {
+            throw new ExecutionException(e);
+        }
+        catch (SchemaNameException e) {
+            throw new ExecutionException(e);
+        }
+
+        this.storageManager = storageManager;
+        catalogVersion = version;
+    }
+
+
+    /**
+     * Returns true if the statement's plan can be executed against the
+     * specified storage manager, i.e. the statement was planned against it,
+     * and no table definitions or statistics have changed since then.
+     *
+     * @param storageManager the storage manager to execute the statement
+     *        against
+     *
+     * @return true if the statement's plan can be executed
+     */
+    public boolean isValid(StorageManager storageManager) {
+        return storageManager != null &&
+            this.storageManager == storageManager &&
+            catalogVersion ==
+                storageManager.getTableManager().getCatalogVersion();
+    }
+
+
+    public String getSQL() {
+        return sql;
+    }
+
+
+    public QueryCommand getCommand() {
+        return command;
+    }
+
+
+    public int getNumParameters() {
+        return parameters.size();
+    }
+
+
+    /**
+     * Binds values to the statement's parameters.
+     *
+     * @param values the values of the parameters, in order
+     *
+     * @throws ExecutionException if the number of values doesn't match the
+     *         number of parameters
+     */
+    public void bind(List<Object> values) throws ExecutionException {
+        if (values.size() != parameters.size()) {
+            throw new ExecutionException(String.format("Statement has %d " +
+                "parameters, but %d values were given.", parameters.size(),
+                values.size()));
+        }
+
+        for (int i = 0; i < values.size(); i++)
+            parameters.get(i).setValue(values.get(i));
+    }
+
+
+    /** Removes the values bound to the statement's parameters. */
+    public void clearBindings() {
+        for (ParameterValue param : parameters)
+            param.clearValue();
+    }
+
+
+    @Override
+    public String toString() {
+        return "PreparedStatement[" + sql + "]";
+    }
+}
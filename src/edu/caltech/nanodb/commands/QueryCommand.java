@@ -10,7 +10,9 @@ import edu.caltech.nanodb.plans.PlanNode;
 import edu.caltech.nanodb.qeval.EvalStats;
 import edu.caltech.nanodb.qeval.QueryEvaluator;
 import edu.caltech.nanodb.qeval.TupleProcessor;
+import edu.caltech.nanodb.relations.Schema;
 import edu.caltech.nanodb.relations.SchemaNameException;
+import edu.caltech.nanodb.relations.Tuple;
 import edu.caltech.nanodb.storage.StorageManager;
 
 
@@ -62,6 +64,21 @@ public abstract class QueryCommand extends Command {
     protected boolean explain = false;
 
 
+    /**
+     * If this flag is true, and the command is to be explained, then the
+     * command is also executed, and the statistics measured for each plan
+     * node are shown alongside the estimates.
+     */
+    protected boolean analyze = false;
+
+
+    /**
+     * True if the plan was prepared ahead of time by {@link #preparePlan},
+     * so that executing the command doesn't plan it again.
+     */
+    private boolean planPrepared = false;
+
+
     /**
      * Initializes a new query-command object.
      *
@@ -78,6 +95,55 @@ public abstract class QueryCommand extends Command {
     }
 
 
+    public void setAnalyze(boolean f) {
+        analyze = f;
+    }
+
+
+    /**
+     * Prepares the command's execution plan ahead of time, so that the
+     * command can then be executed any number of times without being planned
+     * again.  The plan is only valid while the schemas and statistics of the
+     * tables it uses don't change.
+     *
+     * @param storageManager the storage manager the command will be executed
+     *        against
+     *
+     * @throws IOException if a table can't be opened
+     * @throws SchemaNameException if the command refers to columns that don't
+     *         exist, or refers to them ambiguously
+     */
+    public void preparePlan(StorageManager storageManager)
+        throws IOException, SchemaNameException {
+
+        prepareQueryPlan(storageManager);
+        planPrepared = true;
+    }
+
+
+    /**
+     * Returns the command's execution plan, planning the command first if
+     * its plan wasn't prepared ahead of time.
+     *
+     * @param storageManager the storage manager the command will be executed
+     *        against
+     *
+     * @return the command's execution plan
+     *
+     * @throws IOException if a table can't be opened
+     * @throws SchemaNameException if the command refers to columns that don't
+     *         exist, or refers to them ambiguously
+     */
+    PlanNode getPlan(StorageManager storageManager)
+        throws IOException, SchemaNameException {
+
+        if (!planPrepared)
+            prepareQueryPlan(storageManager);
+
+        return plan;
+    }
+
+
     @Override
     public void execute(StorageManager storageManager)
         throws ExecutionException {
@@ -86,7 +152,8 @@ public abstract class QueryCommand extends Command {
             throw new IllegalArgumentException("storageManager cannot be null");
 
         try {
-            prepareQueryPlan(storageManager);
+            if (!planPrepared)
+                prepareQueryPlan(storageManager);
 
             if (!explain) {
                 // Debug:  print out the plan and its costing details.
@@ -138,6 +205,23 @@ public abstract class QueryCommand extends Command {
                 out.println(desc + stats.getRowsProduced() + " rows.");
             }
             else {
+                // To analyze the plan, execute it with statistics enabled.
+                // The rows of a SELECT aren't wanted, but other commands
+                // still make their changes.
+
+                EvalStats stats = null;
+                if (analyze) {
+                    plan.enableEvalStats();
+
+                    TupleProcessor processor;
+                    if (queryType == QueryCommand.Type.SELECT)
+                        processor = new DiscardingTupleProcessor();
+                    else
+                        processor = getTupleProcessor();
+
+                    stats = QueryEvaluator.executePlan(plan, processor);
+                }
+
                 out.println("Explain Plan:");
                 plan.printNodeTree(out, true, "    ");
 
@@ -154,6 +238,13 @@ public abstract class QueryCommand extends Command {
                 else {
                     out.println("Plan cost is not available.");
                 }
+
+                if (stats != null) {
+                    out.printf("Actual %d tuples in %f sec, with %d pages " +
+                        "read and %d pages hit%n", stats.getRowsProduced(),
+                        stats.getElapsedTimeSecs(), stats.getPagesRead(),
+                        stats.getPagesHit());
+                }
             }
         }
         catch (ExecutionException e) {
@@ -165,6 +256,25 @@ public abstract class QueryCommand extends Command {
     }
 
 
+    /** Discards the rows of a query analyzed by <tt>EXPLAIN ANALYZE</tt>. */
+    private static class DiscardingTupleProcessor implements TupleProcessor {
+        @Override
+        public void setSchema(Schema schema) {
+            // Ignore.
+        }
+
+        @Override
+        public void process(Tuple tuple) {
+            // Ignore.
+        }
+
+        @Override
+        public void finish() {
+            // Ignore.
+        }
+    }
+
+
     protected abstract void prepareQueryPlan(StorageManager storageManager)
         throws IOException, SchemaNameException;
 
@@ -0,0 +1,287 @@
+package edu.caltech.nanodb.commands;
+
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+import edu.caltech.nanodb.client.SessionState;
+import edu.caltech.nanodb.expressions.TupleLiteral;
+import edu.caltech.nanodb.plans.PlanNode;
+import edu.caltech.nanodb.relations.Schema;
+import edu.caltech.nanodb.relations.Tuple;
+import edu.caltech.nanodb.storage.StorageManager;
+
+
+/**
+ * This class evaluates a <tt>SELECT</tt> command's plan incrementally,
+ * producing the command's results as the caller asks for them instead of
+ * feeding them all to a {@link edu.caltech.nanodb.qeval.TupleProcessor}.
+ * Only the rows the caller is currently looking at are held in memory, so
+ * large results can be consumed a few rows at a time.
+ * <p>
+ * The plan can be suspended between commands:  the pages the plan pins are
+ * recorded under the cursor's own {@link SessionState#getPinOwnerID pin
+ * owner} rather than the session, so they stay pinned when the session's
+ * pages are unpinned after each command.  {@link #fetch} then unpins the
+ * pages of the rows it produced, keeping only the pages of the plan's
+ * current position pinned; callers that use {@link #next} should call
+ * {@link #unpinSentRows} after each batch of rows.  The remaining pages are
+ * unpinned when the cursor is closed.  A cursor must be used by the session
+ * that opened it, and must always be closed, even if the caller stops
+ * reading rows before the results run out.
+ */
+public class QueryCursor {
+    /** A logging object for reporting anything interesting that happens. */
+    private static Logger logger = Logger.getLogger(QueryCursor.class);
+
+
+    /** The command whose results the cursor produces. */
+    private SelectCommand command;
+
+
+    private StorageManager storageManager;
+
+
+    /** The ID that the pages the cursor pins are recorded under. */
+    private int pinOwnerID;
+
+
+    /** The plan producing the results, or null once the cursor is closed. */
+    private PlanNode plan;
+
+
+    /** The schema of the results. */
+    private Schema schema;
+
+
+    /** True once the plan has produced all of its results. */
+    private boolean done = false;
+
+
+    /** The number of rows the cursor has produced so far. */
+    private int rowsProduced = 0;
+
+
+    /**
+     * Plans the command, if it wasn't already prepared, and starts
+     * evaluating its plan.
+     *
+     * @param command the <tt>SELECT</tt> command to produce the results of
+     * @param storageManager the storage manager to evaluate the command
+     *        against
+     *
+     * @throws ExecutionException if the command can't be planned, or its plan
+     *         can't be started
+     */
+    public QueryCursor(SelectCommand command, StorageManager storageManager)
+        throws ExecutionException {
+
+        if (command == null)
+            throw new IllegalArgumentException("command cannot be null");
+
+        if (storageManager == null)
+            throw new IllegalArgumentException("storageManager cannot be null");
+
+        this.command = command;
+        this.storageManager = storageManager;
+        pinOwnerID = SessionState.newPinOwnerID();
+
+        // Planning may pin pages that the plan goes on to use, so it is also
+        // done under the cursor's pin owner.
+        int sessionPinOwnerID = startPinning();
+        try {
+            plan = command.getPlan(storageManager);
+            schema = plan.getSchema();
+            plan.initialize();
+        }
+        catch (Exception e) {
+            plan = null;
+            storageManager.getBufferManager().unpinAllSessionPages();
+            throw new ExecutionException("Couldn't open cursor for " +
+                command, e);
+        }
+        finally {
+            stopPinning(sessionPinOwnerID);
+        }
+
+        logger.debug("Opened cursor with plan:\n" +
+            PlanNode.printNodeTreeToString(plan, true));
+    }
+
+
+    /**
+     * Returns the command whose results the cursor produces.
+     *
+     * @return the command whose results the cursor produces
+     */
+    public SelectCommand getCommand() {
+        return command;
+    }
+
+
+    /**
+     * Returns the schema of the rows the cursor produces.
+     *
+     * @return the schema of the rows the cursor produces
+     */
+    public Schema getSchema() {
+        return schema;
+    }
+
+
+    /**
+     * Returns the number of rows the cursor has produced so far.
+     *
+     * @return the number of rows the cursor has produced so far
+     */
+    public int getRowsProduced() {
+        return rowsProduced;
+    }
+
+
+    public boolean isClosed() {
+        return (plan == null);
+    }
+
+
+    /**
+     * Produces the next row of the results.  The row is a copy, so the caller
+     * can keep it after the cursor moves on or is closed.
+     *
+     * @return the next row, or <tt>null</tt> if there are no more rows
+     *
+     * @throws ExecutionException if the cursor is closed, or the next row
+     *         can't be produced
+     */
+    public TupleLiteral next() throws ExecutionException {
+        if (plan == null)
+            throw new ExecutionException("The cursor has been closed.");
+
+        if (done)
+            return null;
+
+        Tuple tuple;
+        int sessionPinOwnerID = startPinning();
+        try {
+            tuple = plan.getNextTuple();
+        }
+        catch (Exception e) {
+            throw new ExecutionException("Couldn't produce the next row of " +
+                command, e);
+        }
+        finally {
+            stopPinning(sessionPinOwnerID);
+        }
+
+        if (tuple == null) {
+            done = true;
+            return null;
+        }
+
+        rowsProduced++;
+        if (tuple instanceof TupleLiteral)
+            return (TupleLiteral) tuple;
+
+        return new TupleLiteral(tuple);
+    }
+
+
+    /**
+     * Produces up to the specified number of the next rows of the results.
+     *
+     * @param maxRows the most rows to produce
+     *
+     * @return the next rows, which are fewer than <tt>maxRows</tt> only if
+     *         the results ran out
+     *
+     * @throws ExecutionException if the cursor is closed, or the rows can't
+     *         be produced
+     */
+    public List<TupleLiteral> fetch(int maxRows) throws ExecutionException {
+        if (maxRows < 0)
+            throw new IllegalArgumentException("maxRows cannot be negative");
+
+        List<TupleLiteral> rows = new ArrayList<TupleLiteral>();
+        while (rows.size() < maxRows) {
+            TupleLiteral row = next();
+            if (row == null)
+                break;
+
+            rows.add(row);
+        }
+
+        unpinSentRows();
+        return rows;
+    }
+
+
+    /**
+     * Unpins the pages of the rows the cursor has already produced, keeping
+     * only the pages that the plan's current position refers to pinned.
+     * Otherwise a cursor would keep every page it read pinned until it is
+     * closed, and the Buffer Manager would have to grow past its size limit
+     * to hold them.  This touches every page the cursor has pinned, so it is
+     * done after each batch of rows rather than after every row.
+     */
+    public void unpinSentRows() {
+        if (plan == null)
+            return;
+
+        // Pin the current position under a new pin owner, so that those pins
+        // survive unpinning the pages recorded under the old one.
+        int oldPinOwnerID = pinOwnerID;
+        pinOwnerID = SessionState.newPinOwnerID();
+
+        int sessionPinOwnerID = startPinning();
+        try {
+            plan.pinCurrentTuples();
+
+            SessionState.get().setPinOwnerID(oldPinOwnerID);
+            storageManager.getBufferManager().unpinAllSessionPages();
+        }
+        finally {
+            stopPinning(sessionPinOwnerID);
+        }
+    }
+
+
+    /**
+     * Stops evaluating the plan, releases its resources and unpins the pages
+     * it pinned.  Closing a cursor that is already closed does nothing.
+     */
+    public void close() {
+        if (plan == null)
+            return;
+
+        int sessionPinOwnerID = startPinning();
+        try {
+            plan.cleanUp();
+            storageManager.getBufferManager().unpinAllSessionPages();
+        }
+        finally {
+            stopPinning(sessionPinOwnerID);
+            plan = null;
+        }
+    }
+
+
+    /**
+     * Makes the buffer manager record the current session's page pins under
+     * the cursor's pin owner.
+     *
+     * @return the pin owner to restore when the cursor is done pinning pages
+     */
+    private int startPinning() {
+        SessionState state = SessionState.get();
+        int sessionPinOwnerID = state.getPinOwnerID();
+        state.setPinOwnerID(pinOwnerID);
+        return sessionPinOwnerID;
+    }
+
+
+    private void stopPinning(int sessionPinOwnerID) {
+        SessionState.get().setPinOwnerID(sessionPinOwnerID);
+    }
+}
@@ -0,0 +1,628 @@
+package edu.caltech.nanodb.commands;
+
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+import edu.caltech.nanodb.expressions.Expression;
+import edu.caltech.nanodb.expressions.ExpressionProcessor;
+import edu.caltech.nanodb.expressions.FunctionCall;
+import edu.caltech.nanodb.expressions.OrderByExpression;
+import edu.caltech.nanodb.expressions.SubqueryOperator;
+import edu.caltech.nanodb.expressions.TupleLiteral;
+import edu.caltech.nanodb.expressions.TypeCastException;
+import edu.caltech.nanodb.expressions.TypeConverter;
+import edu.caltech.nanodb.qeval.TupleProcessor;
+import edu.caltech.nanodb.relations.Schema;
+import edu.caltech.nanodb.relations.TableInfo;
+import edu.caltech.nanodb.relations.Tuple;
+import edu.caltech.nanodb.server.RowEventListener;
+import edu.caltech.nanodb.server.performance.PerformanceCounters;
+import edu.caltech.nanodb.server.properties.PropertyHandler;
+import edu.caltech.nanodb.server.properties.ReadOnlyPropertyException;
+import edu.caltech.nanodb.server.properties.UnrecognizedPropertyException;
+import edu.caltech.nanodb.storage.StorageManager;
+
+
+/**
+ * This class caches the results of <tt>SELECT</tt> statements for all
+ * sessions, keyed by their normalized SQL text, so that a query issued again
+ * before the tables it reads have changed is answered from memory instead of
+ * being planned and evaluated again.  The cache is disabled unless
+ * {@link #PROP_RESULTCACHE_SIZE} is set to the most result rows to keep.
+ * <p>
+ * Each table has a modification count, which the {@link TableChangeListener}
+ * increments whenever a row of the table is inserted, updated or deleted.  A
+ * cached result records the counts of the tables its query reads, and the
+ * {@link edu.caltech.nanodb.storage.TableManager#getCatalogVersion catalog
+ * version}, when the query started; the result is only used while they are
+ * all unchanged.  Stale results are dropped when they are found, and the
+ * least recently used results are evicted when the cache is full.  Hits,
+ * misses, invalidations and evictions are recorded in
+ * {@link PerformanceCounters}.
+ * <p>
+ * Queries that call functions that aren't
+ * {@link edu.caltech.nanodb.functions.Function#isDeterministic deterministic},
+ * or that read from table-returning functions, are never cached.
+ */
+public class QueryResultCache {
+    /** A logging object for reporting anything interesting that happens. */
+    private static Logger logger = Logger.getLogger(QueryResultCache.class);
+
+
+    /**
+     * The system property that can be used to specify the most result rows
+     * to cache, over all cached results.
+     */
+    public static final String PROP_RESULTCACHE_SIZE = "nanodb.resultcache.size";
+
+
+    /** By default, no results are cached. */
+    public static final int DEFAULT_RESULTCACHE_SIZE = 0;
+
+
+    public static final String RESULT_CACHE_HITS = "resultcache.hits";
+
+
+    public static final String RESULT_CACHE_MISSES = "resultcache.misses";
+
+
+    public static final String RESULT_CACHE_INVALIDATIONS =
+        "resultcache.invalidations";
+
+
+    public static final String RESULT_CACHE_EVICTIONS = "resultcache.evictions";
+
+
+    public static class ResultCachePropertyHandler implements PropertyHandler {
+
+        @Override
+        public Object getPropertyValue(String propertyName)
+                throws UnrecognizedPropertyException {
+
+            if (PROP_RESULTCACHE_SIZE.equals(propertyName)) {
+                return getInstance().getMaxSize();
+            }
+            else {
+                throw new UnrecognizedPropertyException("No property named " +
+                        propertyName);
+            }
+        }
+
+        @Override
+        public void setPropertyValue(String propertyName, Object value)
+                throws UnrecognizedPropertyException, ReadOnlyPropertyException,
+                TypeCastException {
+
+            if (PROP_RESULTCACHE_SIZE.equals(propertyName)) {
+                Integer size = TypeConverter.getIntegerValue(value);
+                if (size == null || size < 0) {
+                    throw new TypeCastException(
+                        "Invalid result cache size " + value);
+                }
+
+                getInstance().setMaxSize(size);
+            }
+            else {
+                throw new UnrecognizedPropertyException("No property named " +
+                        propertyName);
+            }
+        }
+    }
+
+
+    /**
+     * This class implements the {@link RowEventListener} interface to
+     * increment the modification count of each table that a row is inserted
+     * into, updated in or deleted from.
+     */
+    public static class TableChangeListener implements RowEventListener {
+
+        @Override
+        public void beforeRowInserted(TableInfo tblFileInfo, Tuple newValues) {
+            // Ignore.
+        }
+
+        @Override
+        public void afterRowInserted(TableInfo tblFileInfo, Tuple newTuple) {
+            getInstance().tableChanged(tblFileInfo.getTableName());
+        }
+
+        @Override
+        public void beforeRowUpdated(TableInfo tblFileInfo, Tuple oldTuple,
+                                     Tuple newValues) {
+            // Ignore.
+        }
+
+        @Override
+        public void afterRowUpdated(TableInfo tblFileInfo, Tuple oldValues,
+                                    Tuple newTuple) {
+            getInstance().tableChanged(tblFileInfo.getTableName());
+        }
+
+        @Override
+        public void beforeRowDeleted(TableInfo tblFileInfo, Tuple oldTuple) {
+            // Ignore.
+        }
+
+        @Override
+        public void afterRowDeleted(TableInfo tblFileInfo, Tuple oldValues) {
+            getInstance().tableChanged(tblFileInfo.getTableName());
+        }
+    }
+
+
+    /** The cached result of a query, and what it was computed from. */
+    private static class CachedResult {
+        /** The normalized SQL text of the query. */
+        String sql;
+
+        /** The storage manager the query was evaluated against. */
+        StorageManager storageManager;
+
+        /** The version of the tables' definitions when the query started. */
+        long catalogVersion;
+
+        /**
+         * The modification counts of the tables the query reads, when the
+         * query started.
+         */
+        HashMap<String, Long> tableVersions = new HashMap<String, Long>();
+
+        Schema schema;
+
+        /** The rows of the result, or null if there were too many to keep. */
+        List<TupleLiteral> tuples = new ArrayList<TupleLiteral>();
+    }
+
+
+    /**
+     * This tuple-processor passes the results of a query on to another
+     * processor, keeping copies of them so that they can be added to the
+     * cache with {@link #addResult} once the query has finished.  If the
+     * query produces more rows than the cache can hold, they aren't kept.
+     */
+    public static class ResultRecorder implements TupleProcessor {
+
+        private CachedResult result;
+
+
+        private TupleProcessor processor;
+
+
+        /** The most rows to keep. */
+        private int maxRows;
+
+
+        private ResultRecorder(CachedResult result, TupleProcessor processor,
+                               int maxRows) {
+            this.result = result;
+            this.processor = processor;
+            this.maxRows = maxRows;
+        }
+
+
+        @Override
+        public void setSchema(Schema schema) throws Exception {
+            result.schema = schema;
+            processor.setSchema(schema);
+        }
+
+
+        @Override
+        public void process(Tuple tuple) throws Exception {
+            if (result.tuples != null) {
+                if (result.tuples.size() < maxRows)
+                    result.tuples.add(new TupleLiteral(tuple));
+                else
+                    result.tuples = null;
+            }
+
+            processor.process(tuple);
+        }
+
+
+        @Override
+        public void finish() {
+            processor.finish();
+        }
+    }
+
+
+    /**
+     * This expression-processor finds the subqueries in an expression, and
+     * checks that the expression only calls deterministic functions.
+     */
+    private static class CacheableChecker implements ExpressionProcessor {
+
+        /** The tables read by the subqueries found so far. */
+        private HashMap<String, Long> tableVersions;
+
+
+        private boolean cacheable = true;
+
+
+        CacheableChecker(HashMap<String, Long> tableVersions) {
+            this.tableVersions = tableVersions;
+        }
+
+
+        /**
+         * Traverses an expression, returning true if it and the expressions
+         * checked before it can be cached.
+         */
+        boolean check(Expression expr) {
+            try {
+                expr.traverse(this);
+            }
+            catch (UnsupportedOperationException e) {
+                // Some expressions, such as IN with a subquery, can't be
+                // traversed yet.
+                cacheable = false;
+            }
+
+            return cacheable;
+        }
+
+
+        @Override
+        public void enter(Expression node) {
+            if (node instanceof FunctionCall) {
+                if (!((FunctionCall) node).getFunction().isDeterministic())
+                    cacheable = false;
+            }
+            else if (node instanceof SubqueryOperator) {
+                SelectClause subquery = ((SubqueryOperator) node).getSubquery();
+                if (subquery != null && !findTables(subquery, tableVersions))
+                    cacheable = false;
+            }
+        }
+
+
+        @Override
+        public Expression leave(Expression node) {
+            return node;
+        }
+    }
+
+
+    private static QueryResultCache instance = new QueryResultCache();
+
+
+    public static QueryResultCache getInstance() {
+        return instance;
+    }
+
+
+    /** The cached results, with the least recently used result first. */
+    private LinkedHashMap<String, CachedResult> results;
+
+
+    /** The total number of rows in the cached results. */
+    private int numRows;
+
+
+    private volatile int maxSize;
+
+
+    /** The modification count of each table, keyed by the table's name. */
+    private ConcurrentHashMap<String, AtomicLong> tableVersions =
+        new ConcurrentHashMap<String, AtomicLong>();
+
+
+    private QueryResultCache() {
+        results = new LinkedHashMap<String, CachedResult>(16, 0.75f, true);
+        maxSize = configureMaxSize();
+    }
+
+
+    private static int configureMaxSize() {
+        String str = System.getProperty(PROP_RESULTCACHE_SIZE);
+        if (str == null)
+            return DEFAULT_RESULTCACHE_SIZE;
+
+        try {
+            int size = Integer.parseInt(str.trim());
+            if (size >= 0)
+                return size;
+        }
+        catch (NumberFormatException e) {
+            // Fall through to the error.
+        }
+
+        logger.error(String.format("Could not parse result cache size " +
+            "value \"%s\"; using default value of %d rows", str,
+            DEFAULT_RESULTCACHE_SIZE));
+        return DEFAULT_RESULTCACHE_SIZE;
+    }
+
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+
+    /**
+     * Changes the most result rows to cache, evicting results if they no
+     * longer fit.  A size of 0 disables the cache.
+     */
+    public synchronized void setMaxSize(int maxSize) {
+        this.maxSize = maxSize;
+        evict();
+    }
+
+
+    /** Returns true if query results are cached. */
+    public boolean isEnabled() {
+        return maxSize > 0;
+    }
+
+
+    /** Returns the number of results currently cached. */
+    public synchronized int size() {
+        return results.size();
+    }
+
+
+    /**
+     * Records that the contents of a table have changed, so that cached
+     * results that read the table are no longer used.  Changes made through
+     * row events are recorded by the {@link TableChangeListener}; this must
+     * be called by anything that changes a table's rows without firing them.
+     *
+     * @param tableName the name of the table that changed
+     */
+    public void tableChanged(String tableName) {
+        getTableVersion(tableName).incrementAndGet();
+    }
+
+
+    private AtomicLong getTableVersion(String tableName) {
+        AtomicLong version = tableVersions.get(tableName);
+        if (version == null) {
+            tableVersions.putIfAbsent(tableName, new AtomicLong());
+            version = tableVersions.get(tableName);
+        }
+
+        return version;
+    }
+
+
+    /**
+     * Sends the cached result of a query to a tuple-processor, if the cache
+     * has a result for the query that is still valid.
+     *
+     * @param sql the normalized SQL text of the query
+     *
+     * @param storageManager the storage manager the query is being executed
+     *        against
+     *
+     * @param processor the tuple-processor to send the result's rows to
+     *
+     * @return the number of rows sent, or -1 if no valid result is cached, in
+     *         which case nothing is sent to the processor
+     *
+     * @throws Exception if the processor reports an error
+     */
+    public int sendResult(String sql, StorageManager storageManager,
+                          TupleProcessor processor) throws Exception {
+
+        CachedResult result;
+        synchronized (this) {
+            result = results.get(sql);
+            if (result != null && !isValid(result, storageManager)) {
+                logger.debug("Dropping stale result for " + sql);
+                PerformanceCounters.inc(RESULT_CACHE_INVALIDATIONS);
+
+                results.remove(sql);
+                numRows -= result.tuples.size();
+                result = null;
+            }
+
+            if (result == null) {
+                PerformanceCounters.inc(RESULT_CACHE_MISSES);
+                return -1;
+            }
+
+            PerformanceCounters.inc(RESULT_CACHE_HITS);
+        }
+
+        // The cached rows are never modified, so they can be sent without
+        // holding the lock.  Each gets its own copy, since processors may
+        // keep the tuples they are given.
+        processor.setSchema(result.schema);
+        for (TupleLiteral tuple : result.tuples)
+            processor.process(new TupleLiteral(tuple));
+        processor.finish();
+
+        return result.tuples.size();
+    }
+
+
+    /**
+     * Starts recording the result of a query, so that it can be added to the
+     * cache.  This must be called before the query is evaluated, so that
+     * changes made to the tables during the evaluation make the result stale.
+     *
+     * @param sql the normalized SQL text of the query
+     *
+     * @param selClause the query
+     *
+     * @param storageManager the storage manager the query will be evaluated
+     *        against
+     *
+     * @param processor the tuple-processor that the query's results are to
+     *        be sent to
+     *
+     * @return a tuple-processor to send the query's results to instead, or
+     *         null if the query's results can't be cached
+     */
+    public ResultRecorder startRecording(String sql, SelectClause selClause,
+        StorageManager storageManager, TupleProcessor processor) {
+
+        CachedResult result = new CachedResult();
+        result.sql = sql;
+        result.storageManager = storageManager;
+        result.catalogVersion =
+            storageManager.getTableManager().getCatalogVersion();
+
+        if (!findTables(selClause, result.tableVersions)) {
+            logger.debug("Results of " + sql + " can't be cached");
+            return null;
+        }
+
+        for (Map.Entry<String, Long> entry : result.tableVersions.entrySet())
+            entry.setValue(getTableVersion(entry.getKey()).get());
+
+        return new ResultRecorder(result, processor, maxSize);
+    }
+
+
+    /**
+     * Adds the result recorded by a recorder to the cache, evicting the least
+     * recently used results if the cache is full.  Results with more rows
+     * than the cache can hold aren't added.
+     *
+     * @param recorder the recorder that the query's results were sent to
+     */
+    public synchronized void addResult(ResultRecorder recorder) {
+        CachedResult result = recorder.result;
+        if (result.tuples == null || result.tuples.size() > maxSize)
+            return;
+
+        CachedResult old = results.put(result.sql, result);
+        if (old != null)
+            numRows -= old.tuples.size();
+
+        numRows += result.tuples.size();
+        evict();
+    }
+
+
+    /** Removes all results from the cache. */
+    public synchronized void clear() {
+        results.clear();
+        numRows = 0;
+    }
+
+
+    private boolean isValid(CachedResult result, StorageManager storageManager) {
+        if (result.storageManager != storageManager ||
+            result.catalogVersion !=
+                storageManager.getTableManager().getCatalogVersion()) {
+            return false;
+        }
+
+        for (Map.Entry<String, Long> entry : result.tableVersions.entrySet()) {
+            if (getTableVersion(entry.getKey()).get() != entry.getValue())
+                return false;
+        }
+
+        return true;
+    }
+
+
+    /** Evicts the least recently used results until the cache fits. */
+    private void evict() {
+        Iterator<CachedResult> iter = results.values().iterator();
+        while (numRows > maxSize && iter.hasNext()) {
+            numRows -= iter.next().tuples.size();
+            iter.remove();
+            PerformanceCounters.inc(RESULT_CACHE_EVICTIONS);
+        }
+
+        // An empty result uses no rows, but still shouldn't be kept when the
+        // cache is disabled.
+        if (maxSize == 0)
+            results.clear();
+    }
+
+
+    /**
+     * Finds the names of the tables that a query reads, including tables
+     * read by its subqueries and <tt>WITH</tt> clauses.
+     *
+     * @param selClause the query
+     *
+     * @param tableVersions the map to add the table names to
+     *
+     * @return true if the query's results can be cached, or false if it calls
+     *         functions that aren't deterministic or reads from
+     *         table-returning functions
+     */
+    private static boolean findTables(SelectClause selClause,
+                                      HashMap<String, Long> tableVersions) {
+
+        for (SelectClause withClause : selClause.getWithClauses().values()) {
+            if (!findTables(withClause, tableVersions))
+                return false;
+        }
+
+        FromClause fromClause = selClause.getFromClause();
+        if (fromClause != null && !findTables(fromClause, tableVersions))
+            return false;
+
+        ArrayList<Expression> exprs = new ArrayList<Expression>();
+        for (SelectValue selValue : selClause.getSelectValues()) {
+            if (selValue.isExpression())
+                exprs.add(selValue.getExpression());
+
+            if (selValue.isScalarSubquery() &&
+                !findTables(selValue.getScalarSubquery(), tableVersions)) {
+                return false;
+            }
+        }
+
+        exprs.add(selClause.getWhereExpr());
+        exprs.addAll(selClause.getGroupByExprs());
+        exprs.add(selClause.getHavingExpr());
+        for (OrderByExpression orderByExpr : selClause.getOrderByExprs())
+            exprs.add(orderByExpr.getExpression());
+
+        CacheableChecker checker = new CacheableChecker(tableVersions);
+        for (Expression expr : exprs) {
+            if (expr != null && !checker.check(expr))
+                return false;
+        }
+
+        return true;
+    }
+
+
+    private static boolean findTables(FromClause fromClause,
+                                      HashMap<String, Long> tableVersions) {
+
+        switch (fromClause.getClauseType()) {
+        case BASE_TABLE:
+            // Names of WITH clauses also end up here, but tracking them is
+            // harmless.
+            tableVersions.put(fromClause.getTableName(), null);
+            return true;
+
+        case SELECT_SUBQUERY:
+            return findTables(fromClause.getSelectClause(), tableVersions);
+
+        case JOIN_EXPR:
+            if (!findTables(fromClause.getLeftChild(), tableVersions) ||
+                !findTables(fromClause.getRightChild(), tableVersions)) {
+                return false;
+            }
+
+            Expression onExpr = fromClause.getOnExpression();
+            return onExpr == null ||
+                new CacheableChecker(tableVersions).check(onExpr);
+
+        default:
+            // Table-returning functions may produce different rows each time.
+            return false;
+        }
+    }
+}
@@ -25,5 +25,10 @@ public class RollbackTransactionCommand extends Command {
         catch (TransactionException e) {
             throw new ExecutionException(e);
         }
+        finally {
+            // Rolling back changes the tables' rows without firing row
+            // events, so cached results may no longer match the tables.
+            QueryResultCache.getInstance().clear();
+        }
     }
 }
@@ -3,8 +3,10 @@ package edu.caltech.nanodb.commands;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.SortedMap;
 
 import org.apache.log4j.Logger;
@@ -116,6 +118,17 @@ public class SelectClause {
     }
 
 
+    /**
+     * Returns the <tt>WITH</tt> clauses of the <tt>SELECT</tt> clause, in
+     * the order they were specified.
+     *
+     * @return the <tt>WITH</tt> clauses, keyed by name
+     */
+    public Map<String, SelectClause> getWithClauses() {
+        return Collections.unmodifiableMap(withClauses);
+    }
+
+
     /**
      * Mark the select clause's results as being distinct or not distinct.
      * This corresponds to whether the SQL command is
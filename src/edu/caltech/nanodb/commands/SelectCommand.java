@@ -42,6 +42,14 @@ public class SelectCommand extends QueryCommand {
     private TupleProcessor tupleProcessor;
 
 
+    /**
+     * The normalized SQL text of the command, if it was issued as a command
+     * of its own, or null otherwise.  Only commands with SQL text can have
+     * their results cached in the {@link QueryResultCache}.
+     */
+    private String sql;
+
+
     public SelectCommand(SelectClause selClause) {
         super(QueryCommand.Type.SELECT);
 
@@ -81,6 +89,67 @@ public class SelectCommand extends QueryCommand {
     }
 
 
+    public void setSQL(String sql) {
+        this.sql = sql;
+    }
+
+
+    public String getSQL() {
+        return sql;
+    }
+
+
+    /**
+     * Executes the query.  If the query has SQL text and the
+     * {@link QueryResultCache} is enabled, the query is answered from the
+     * cache when it holds a valid result for the query, and its result is
+     * added to the cache otherwise.
+     */
+    @Override
+    public void execute(StorageManager storageManager)
+        throws ExecutionException {
+
+        QueryResultCache cache = QueryResultCache.getInstance();
+        if (sql == null || explain || !cache.isEnabled()) {
+            super.execute(storageManager);
+            return;
+        }
+
+        TupleProcessor processor = getTupleProcessor();
+        try {
+            long startTime = System.nanoTime();
+            int rowsProduced = cache.sendResult(sql, storageManager, processor);
+            if (rowsProduced >= 0) {
+                out.printf("SELECT took %f sec to evaluate (cached).%n",
+                    (System.nanoTime() - startTime) / 1.0e9);
+                out.println("Selected " + rowsProduced + " rows.");
+                return;
+            }
+        }
+        catch (Exception e) {
+            throw new ExecutionException(e);
+        }
+
+        QueryResultCache.ResultRecorder recorder =
+            cache.startRecording(sql, selClause, storageManager, processor);
+        if (recorder == null) {
+            super.execute(storageManager);
+            return;
+        }
+
+        tupleProcessor = recorder;
+        try {
+            super.execute(storageManager);
+        }
+        finally {
+            tupleProcessor = processor;
+        }
+
+        // The result is only cached if the query succeeded.
+        cache.addResult(recorder);
+    }
+
+
     public void setTupleProcessor(TupleProcessor tupleProcessor) {
         this.tupleProcessor = tupleProcessor;
     }
@@ -0,0 +1,108 @@
+package edu.caltech.nanodb.commands;
+
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.regex.Pattern;
+
+import edu.caltech.nanodb.server.performance.MetricsRegistry;
+import edu.caltech.nanodb.server.performance.PerformanceCounters;
+import edu.caltech.nanodb.storage.StorageManager;
+
+
+/**
+ * Implements the "SHOW [SESSION | GLOBAL] STATS" command, which prints the
+ * value of every performance counter, and of every statistic of the latency
+ * histograms, either for the whole server or for the current session.  The
+ * statistics may be filtered with a <tt>LIKE</tt> pattern on their names.
+ */
+public class ShowStatsCommand extends Command {
+
+    /** True to show the current session's statistics, false for the server's. */
+    private boolean session;
+
+
+    /** A regular expression that the names shown must match, or null. */
+    private Pattern filter = null;
+
+
+    public ShowStatsCommand(boolean session) {
+        super(Command.Type.UTILITY);
+        this.session = session;
+    }
+
+
+    /**
+     * Shows only the statistics whose names match the specified pattern.
+     *
+     * @param likePattern a pattern as used by <tt>LIKE</tt>, where "%"
+     *        matches any sequence of characters and "_" any one character
+     */
+    public void setFilter(String likePattern) {
+        StringBuilder regex = new StringBuilder();
+        int start = 0;
+        for (int i = 0; i < likePattern.length(); i++) {
+            char ch = likePattern.charAt(i);
+            if (ch == '%' || ch == '_') {
+                if (i > start)
+                    regex.append(Pattern.quote(likePattern.substring(start, i)));
+
+                regex.append(ch == '%' ? ".*" : ".");
+                start = i + 1;
+            }
+        }
+        if (start < likePattern.length())
+            regex.append(Pattern.quote(likePattern.substring(start)));
+
+        filter = Pattern.compile(regex.toString(), Pattern.DOTALL);
+    }
+
+
+    @Override
+    public void execute(StorageManager storageManager)
+        throws ExecutionException {
+
+        MetricsRegistry metrics = session ?
+            PerformanceCounters.getSessionMetrics() :
+            PerformanceCounters.getGlobalMetrics();
+
+        SortedMap<String, Long> values = metrics.getValues();
+        if (filter != null) {
+            Iterator<String> iter = values.keySet().iterator();
+            while (iter.hasNext()) {
+                if (!filter.matcher(iter.next()).matches())
+                    iter.remove();
+            }
+        }
+
+        int maxNameLength = "STATISTIC".length();
+        int maxValueLength = "VALUE".length();
+        for (Map.Entry<String, Long> entry : values.entrySet()) {
+            maxNameLength = Math.max(maxNameLength, entry.getKey().length());
+            maxValueLength = Math.max(maxValueLength,
+                entry.getValue().toString().length());
+        }
+
+        String formatStr = String.format("| %%-%ds | %%%ds |%%n",
+            maxNameLength, maxValueLength);
+
+        char[] lines = new char[maxNameLength + maxValueLength + 7];
+        Arrays.fill(lines, '-');
+        lines[0] = '+';
+        lines[lines.length - 1] = '+';
+        lines[maxNameLength + 3] = '+';
+        String lineStr = new String(lines);
+
+        out.println(lineStr);
+        out.printf(formatStr, "STATISTIC", "VALUE");
+        out.println(lineStr);
+        for (Map.Entry<String, Long> entry : values.entrySet())
+            out.printf(formatStr, entry.getKey(), entry.getValue());
+        out.println(lineStr);
+
+        out.printf("Latencies are in microseconds; %s statistics.%n",
+            session ? "session" : "global");
+    }
+}
@@ -0,0 +1,258 @@
+package edu.caltech.nanodb.commands;
+
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import edu.caltech.nanodb.expressions.TypeCastException;
+import edu.caltech.nanodb.expressions.TypeConverter;
+import edu.caltech.nanodb.server.performance.PerformanceCounters;
+import edu.caltech.nanodb.server.properties.PropertyHandler;
+import edu.caltech.nanodb.server.properties.ReadOnlyPropertyException;
+import edu.caltech.nanodb.server.properties.UnrecognizedPropertyException;
+import edu.caltech.nanodb.storage.StorageManager;
+
+
+/**
+ * This class caches planned {@link PreparedStatement}s for all sessions,
+ * keyed by their normalized SQL text, so that executing a statement doesn't
+ * parse and plan it again.  A statement is taken out of the cache while a
+ * session executes it, and returned afterwards; if several sessions execute
+ * the same statement at once, each gets its own copy.
+ * <p>
+ * A cached plan is only reused while the definitions and statistics of the
+ * tables haven't changed since it was made, as reported by
+ * {@link edu.caltech.nanodb.storage.TableManager#getCatalogVersion}.  Stale
+ * statements are dropped when they are found, and the statement is parsed
+ * and planned again.  Hits, misses and invalidations are recorded in
+ * {@link PerformanceCounters}.
+ */
+public class StatementCache {
+    /** A logging object for reporting anything interesting that happens. */
+    private static Logger logger = Logger.getLogger(StatementCache.class);
+
+
+    /**
+     * The system property that can be used to specify the most planned
+     * statements to cache.
+     */
+    public static final String PROP_STATEMENTCACHE_SIZE =
+        "nanodb.statementcache.size";
+
+
+    /** By default, up to 256 planned statements are cached. */
+    public static final int DEFAULT_STATEMENTCACHE_SIZE = 256;
+
+
+    public static final String STATEMENT_CACHE_HITS = "statement.cacheHits";
+
+
+    public static final String STATEMENT_CACHE_MISSES = "statement.cacheMisses";
+
+
+    public static final String STATEMENT_CACHE_INVALIDATIONS =
+        "statement.cacheInvalidations";
+
+
+    public static class StatementCachePropertyHandler implements PropertyHandler {
+
+        @Override
+        public Object getPropertyValue(String propertyName)
+                throws UnrecognizedPropertyException {
+
+            if (PROP_STATEMENTCACHE_SIZE.equals(propertyName)) {
+                return getInstance().getMaxSize();
+            }
+            else {
+                throw new UnrecognizedPropertyException("No property named " +
+                        propertyName);
+            }
+        }
+
+        @Override
+        public void setPropertyValue(String propertyName, Object value)
+                throws UnrecognizedPropertyException, ReadOnlyPropertyException,
+                TypeCastException {
+
+            if (PROP_STATEMENTCACHE_SIZE.equals(propertyName)) {
+                Integer size = TypeConverter.getIntegerValue(value);
+                if (size == null || size < 0) {
+                    throw new TypeCastException(
+                        "Invalid statement cache size " + value);
+                }
+
+                getInstance().setMaxSize(size);
+            }
+            else {
+                throw new UnrecognizedPropertyException("No property named " +
+                        propertyName);
+            }
+        }
+    }
+
+
+    private static StatementCache instance = new StatementCache();
+
+
+    public static StatementCache getInstance() {
+        return instance;
+    }
+
+
+    /**
+     * The cached statements that no session is executing, for each SQL text,
+     * with the least recently used text first.
+     */
+    private LinkedHashMap<String, LinkedList<PreparedStatement>> idleStatements;
+
+
+    /** The total number of cached statements. */
+    private int numStatements;
+
+
+    private int maxSize;
+
+
+    private StatementCache() {
+        idleStatements =
+            new LinkedHashMap<String, LinkedList<PreparedStatement>>(16, 0.75f, true);
+        maxSize = configureMaxSize();
+    }
+
+
+    private static int configureMaxSize() {
+        String str = System.getProperty(PROP_STATEMENTCACHE_SIZE);
+        if (str == null)
+            return DEFAULT_STATEMENTCACHE_SIZE;
+
+        try {
+            int size = Integer.parseInt(str.trim());
+            if (size >= 0)
+                return size;
+        }
+        catch (NumberFormatException e) {
+            // Fall through to the error.
+        }
+
+        logger.error(String.format("Could not parse statement cache size " +
+            "value \"%s\"; using default value of %d statements", str,
+            DEFAULT_STATEMENTCACHE_SIZE));
+        return DEFAULT_STATEMENTCACHE_SIZE;
+    }
+
+
+    public synchronized int getMaxSize() {
+        return maxSize;
+    }
+
+
+    /**
+     * Changes the most planned statements to cache, evicting statements if
+     * they no longer fit.
+     */
+    public synchronized void setMaxSize(int maxSize) {
+        this.maxSize = maxSize;
+        evict();
+    }
+
+
+    /** Returns the number of statements currently cached. */
+    public synchronized int size() {
+        return numStatements;
+    }
+
+
+    /**
+     * Takes a planned statement for the specified SQL text out of the cache,
+     * so that the caller can execute it.  The statement should be returned
+     * with {@link #release} once it has been executed.
+     *
+     * @param sql the normalized SQL text of the statement
+     *
+     * @param storageManager the storage manager the statement will be
+     *        executed against
+     *
+     * @return a statement whose plan is still valid, or {@code null} if the
+     *         statement must be parsed and planned again
+     */
+    public synchronized PreparedStatement acquire(String sql,
+        StorageManager storageManager) {
+
+        LinkedList<PreparedStatement> statements = idleStatements.get(sql);
+        if (statements != null) {
+            while (!statements.isEmpty()) {
+                PreparedStatement stmt = statements.removeLast();
+                numStatements--;
+
+                if (stmt.isValid(storageManager)) {
+                    if (statements.isEmpty())
+                        idleStatements.remove(sql);
+
+                    PerformanceCounters.inc(STATEMENT_CACHE_HITS);
+                    return stmt;
+                }
+
+                logger.debug("Dropping stale plan for " + sql);
+                PerformanceCounters.inc(STATEMENT_CACHE_INVALIDATIONS);
+            }
+
+            idleStatements.remove(sql);
+        }
+
+        PerformanceCounters.inc(STATEMENT_CACHE_MISSES);
+        return null;
+    }
+
+
+    /**
+     * Adds a planned statement to the cache, or returns one taken out by
+     * {@link #acquire}, evicting the least recently used statements if the
+     * cache is full.
+     *
+     * @param stmt the planned statement
+     */
+    public synchronized void release(PreparedStatement stmt) {
+        if (maxSize == 0)
+            return;
+
+        LinkedList<PreparedStatement> statements =
+            idleStatements.get(stmt.getSQL());
+        if (statements == null) {
+            statements = new LinkedList<PreparedStatement>();
+            idleStatements.put(stmt.getSQL(), statements);
+        }
+
+        statements.addLast(stmt);
+        numStatements++;
+        evict();
+    }
+
+
+    /** Removes all statements from the cache. */
+    public synchronized void clear() {
+        idleStatements.clear();
+        numStatements = 0;
+    }
+
+
+    /** Evicts the least recently used statements until the cache fits. */
+    private void evict() {
+        Iterator<Map.Entry<String, LinkedList<PreparedStatement>>> iter =
+            idleStatements.entrySet().iterator();
+
+        while (numStatements > maxSize && iter.hasNext()) {
+            LinkedList<PreparedStatement> statements = iter.next().getValue();
+            while (numStatements > maxSize && !statements.isEmpty()) {
+                statements.removeFirst();
+                numStatements--;
+            }
+
+            if (statements.isEmpty())
+                iter.remove();
+        }
+    }
+}
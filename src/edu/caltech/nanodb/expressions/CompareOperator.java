@@ -52,6 +52,28 @@ public class CompareOperator extends Expression {
         public String stringRep() {
             return stringRep;
         }
+
+        /**
+         * Returns the comparison that gives the same result when the two
+         * sides of the comparison are swapped.
+         *
+         * @return the comparison type with its operands swapped
+         */
+        public Type flip() {
+            switch (this) {
+            case LESS_THAN:
+                return GREATER_THAN;
+            case LESS_OR_EQUAL:
+                return GREATER_OR_EQUAL;
+            case GREATER_THAN:
+                return LESS_THAN;
+            case GREATER_OR_EQUAL:
+                return LESS_OR_EQUAL;
+            default:
+                // Equality and inequality are symmetric.
+                return this;
+            }
+        }
     }
 
     /** The kind of comparison, such as "equals" or "less than." */
@@ -82,7 +82,22 @@ public class InOperator extends SubqueryOperator {
      * expression's result is always <code>FALSE</code>.
      */
     public Object evaluate(Environment env) throws ExpressionException {
-        throw new UnsupportedOperationException("Not yet implemented!");
+        if (values == null) {
+            // TODO:  Evaluate subqueries.
+            throw new UnsupportedOperationException("Not yet implemented!");
+        }
+
+        Object exprValue = expr.evaluate(env);
+        if (exprValue == null)
+            return Boolean.FALSE;
+
+        for (Expression e : values) {
+            Object value = e.evaluate(env);
+            if (value != null && CompareOperator.areObjectsEqual(exprValue, value))
+                return Boolean.TRUE;
+        }
+
+        return Boolean.FALSE;
     }
 
 
@@ -150,6 +165,17 @@ public class InOperator extends SubqueryOperator {
     }
 
 
+    /**
+     * Returns the expression on the lefthand side of the <tt>IN</tt>
+     * operation, whose value is looked for on the righthand side.
+     *
+     * @return the expression on the lefthand side of the <tt>IN</tt> operation
+     */
+    public Expression getExpression() {
+        return expr;
+    }
+
+
     /**
      * If the <tt>IN</tt> operation has a list of values on the righthand side,
      * this will be the list of values.  Otherwise, this will be <tt>null</tt>.
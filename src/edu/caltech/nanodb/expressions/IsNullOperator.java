@@ -66,6 +66,26 @@ public class IsNullOperator extends Expression {
 
 
 
+    /**
+     * Returns the expression that is checked for <tt>NULL</tt>.
+     *
+     * @return the expression that is checked for <tt>NULL</tt>
+     */
+    public Expression getExpression() {
+        return expr;
+    }
+
+
+    /**
+     * Returns true if this is an <tt>IS NOT NULL</tt> operator.
+     *
+     * @return true for <tt>IS NOT NULL</tt>, false for <tt>IS NULL</tt>
+     */
+    public boolean isInverted() {
+        return invert;
+    }
+
+
     @Override
     public Expression traverse(ExpressionProcessor p) {
         p.enter(this);
@@ -0,0 +1,160 @@
+package edu.caltech.nanodb.expressions;
+
+
+import edu.caltech.nanodb.relations.ColumnInfo;
+import edu.caltech.nanodb.relations.ColumnType;
+import edu.caltech.nanodb.relations.SQLDataType;
+import edu.caltech.nanodb.relations.Schema;
+import edu.caltech.nanodb.relations.SchemaNameException;
+
+
+/**
+ * This expression class represents a parameter of a prepared statement,
+ * written as <tt>?</tt> in the statement's SQL.  The parameter's value is
+ * bound each time the statement is executed, and the parameter then
+ * evaluates to that value, just like a literal.
+ * <p>
+ * Copies of a parameter share its value, so that binding a value to the
+ * parameter in a statement also binds it in any copies that the planner
+ * made of the statement's expressions.
+ */
+public class ParameterValue extends Expression {
+
+    /** Holds the value bound to a parameter and all its copies. */
+    private static class Binding {
+        boolean bound;
+
+        Object value;
+    }
+
+
+    /** The position of this parameter in its statement, starting at 1. */
+    private int index;
+
+
+    /** The value bound to this parameter. */
+    private Binding binding;
+
+
+    public ParameterValue(int index) {
+        if (index < 1)
+            throw new IllegalArgumentException("index must be at least 1");
+
+        this.index = index;
+        binding = new Binding();
+    }
+
+
+    /**
+     * Returns the position of this parameter in its statement.
+     *
+     * @return the position of this parameter in its statement, starting at 1
+     */
+    public int getIndex() {
+        return index;
+    }
+
+
+    /**
+     * Binds a value to this parameter, and all copies of it.
+     *
+     * @param value the value of the parameter, which may be {@code null}
+     */
+    public void setValue(Object value) {
+        binding.value = value;
+        binding.bound = true;
+    }
+
+
+    /** Removes the value bound to this parameter, and all copies of it. */
+    public void clearValue() {
+        binding.value = null;
+        binding.bound = false;
+    }
+
+
+    public boolean isBound() {
+        return binding.bound;
+    }
+
+
+    public ColumnInfo getColumnInfo(Schema schema) throws SchemaNameException {
+        // Until a value is bound, the parameter's type isn't known.
+        SQLDataType sqlType = SQLDataType.VARCHAR;
+        if (binding.bound && binding.value != null)
+            sqlType = TypeConverter.getSQLType(binding.value);
+
+        return new ColumnInfo(toString(), new ColumnType(sqlType));
+    }
+
+
+    /**
+     * Parameters evaluate to the value bound to them.
+     *
+     * @throws ExpressionException if no value is bound to the parameter
+     */
+    public Object evaluate(Environment env) {
+        if (!binding.bound) {
+            throw new ExpressionException("No value is bound to parameter " +
+                index);
+        }
+
+        return binding.value;
+    }
+
+
+    @Override
+    public Expression traverse(ExpressionProcessor p) {
+        p.enter(this);
+        return p.leave(this);
+    }
+
+
+    @Override
+    public String toString() {
+        return "?" + index;
+    }
+
+
+    /**
+     * Parameters cannot be simplified, since their values change from one
+     * execution to the next.
+     */
+    public Expression simplify() {
+        return this;
+    }
+
+
+    /**
+     * Parameters are equal if they are the same parameter of a statement,
+     * or copies of it.
+     *
+     * @param obj the object to which we are comparing
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (obj instanceof ParameterValue) {
+            ParameterValue other = (ParameterValue) obj;
+            return index == other.index && binding == other.binding;
+        }
+        return false;
+    }
+
+
+    @Override
+    public int hashCode() {
+        return 31 * 7 + index;
+    }
+
+
+    /**
+     * Creates a copy of the parameter.
+     *
+     * @design The copy shares the binding of this parameter, so that values
+     *         bound to the parameter are seen by the copy as well.
+     */
+    @Override
+    protected Object clone() throws CloneNotSupportedException {
+        return super.clone();
+    }
+}
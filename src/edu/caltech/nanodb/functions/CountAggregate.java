@@ -53,6 +53,19 @@ public class CountAggregate extends AggregateFunction {
     }
 
 
+    /**
+     * Clones the aggregate, giving the clone its own set of distinct values;
+     * otherwise each group of a grouping would count only the values that no
+     * other group had seen.
+     */
+    @Override
+    public Object clone() throws CloneNotSupportedException {
+        CountAggregate agg = (CountAggregate) super.clone();
+        agg.valuesSeen = new HashSet<Object>();
+        return agg;
+    }
+
+
     @Override
     public void clearResult() {
         count = -1;
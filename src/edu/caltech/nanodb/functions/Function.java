@@ -31,6 +31,18 @@ package edu.caltech.nanodb.functions;
  */
 public abstract class Function implements Cloneable {
 
+    /**
+     * Returns true if the function always computes the same result from the
+     * same arguments and database contents.  The results of queries that
+     * call functions that aren't deterministic are never cached.
+     *
+     * @return true if the function is deterministic
+     */
+    public boolean isDeterministic() {
+        return true;
+    }
+
+
     /**
      * Creates a copy of expression.
      */
@@ -11,20 +11,33 @@ import edu.caltech.nanodb.relations.ColumnType;
 import edu.caltech.nanodb.relations.SQLDataType;
 import edu.caltech.nanodb.relations.Schema;
 
+import edu.caltech.nanodb.server.performance.MetricsRegistry;
 import edu.caltech.nanodb.server.performance.PerformanceCounters;
 
 
-/** Returns the current value of the specified performance counter. */
+/**
+ * Returns the current value of the specified performance counter, or of a
+ * statistic of a latency histogram, such as <tt>query.execTime.p99</tt>.  An
+ * optional second argument of <tt>'SESSION'</tt> reads the value for the
+ * current session, rather than for the whole server (<tt>'GLOBAL'</tt>).
+ */
 public class ReadPerfCounter extends SimpleFunction {
+    /** Performance counters change independently of the database contents. */
+    @Override
+    public boolean isDeterministic() {
+        return false;
+    }
+
+
     @Override
     public ColumnType getReturnType(List<Expression> args, Schema schema) {
-        return new ColumnType(SQLDataType.INTEGER);
+        return new ColumnType(SQLDataType.BIGINT);
     }
 
 
     @Override
     public Object evaluate(Environment env, List<Expression> args) {
-        if (args.size() != 1) {
+        if (args.size() != 1 && args.size() != 2) {
             throw new ExpressionException("Cannot call PERF_COUNTER on " +
                 args.size() + " arguments");
         }
@@ -34,6 +47,27 @@ public class ReadPerfCounter extends SimpleFunction {
         if (argVal == null)
             return null;
 
-        return PerformanceCounters.get(TypeConverter.getStringValue(argVal));
+        MetricsRegistry metrics = getMetrics(env, args, "PERF_COUNTER");
+        return metrics.get(TypeConverter.getStringValue(argVal));
+    }
+
+
+    /**
+     * Returns the registry named by the optional scope argument of the
+     * performance-counter functions.
+     */
+    static MetricsRegistry getMetrics(Environment env, List<Expression> args,
+                                      String functionName) {
+        if (args.size() < 2)
+            return PerformanceCounters.getGlobalMetrics();
+
+        String scope = TypeConverter.getStringValue(args.get(1).evaluate(env));
+        try {
+            return PerformanceCounters.getMetrics(scope);
+        }
+        catch (IllegalArgumentException e) {
+            throw new ExpressionException("Cannot call " + functionName +
+                ":  " + e.getMessage());
+        }
     }
 }
@@ -11,20 +11,33 @@ import edu.caltech.nanodb.relations.ColumnType;
 import edu.caltech.nanodb.relations.SQLDataType;
 import edu.caltech.nanodb.relations.Schema;
 
-import edu.caltech.nanodb.server.performance.PerformanceCounters;
+import edu.caltech.nanodb.server.performance.MetricsRegistry;
 
 
-/** Resets the specified performance counter, and returns the old value. */
+/**
+ * Resets the specified performance counter and returns the old value, or
+ * clears a latency histogram and returns the number of durations it had
+ * recorded.  Like {@link ReadPerfCounter}, an optional second argument of
+ * <tt>'SESSION'</tt> resets the current session's value instead of the
+ * server's.
+ */
 public class ResetPerfCounter extends SimpleFunction {
+    /** Performance counters change independently of the database contents. */
+    @Override
+    public boolean isDeterministic() {
+        return false;
+    }
+
+
     @Override
     public ColumnType getReturnType(List<Expression> args, Schema schema) {
-        return new ColumnType(SQLDataType.INTEGER);
+        return new ColumnType(SQLDataType.BIGINT);
     }
 
 
     @Override
     public Object evaluate(Environment env, List<Expression> args) {
-        if (args.size() != 1) {
+        if (args.size() != 1 && args.size() != 2) {
             throw new ExpressionException("Cannot call RESET_PERF_COUNTER on " +
                 args.size() + " arguments");
         }
@@ -34,6 +47,8 @@ public class ResetPerfCounter extends SimpleFunction {
         if (argVal == null)
             return null;
 
-        return PerformanceCounters.clear(TypeConverter.getStringValue(argVal));
+        MetricsRegistry metrics =
+            ReadPerfCounter.getMetrics(env, args, "RESET_PERF_COUNTER");
+        return metrics.clear(TypeConverter.getStringValue(argVal));
     }
 }
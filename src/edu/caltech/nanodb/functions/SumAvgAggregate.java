@@ -49,6 +49,16 @@ public class SumAvgAggregate extends AggregateFunction {
     }
 
 
+    /** Clones the aggregate, giving the clone its own set of distinct values. */
+    @Override
+    public Object clone() throws CloneNotSupportedException {
+        SumAvgAggregate agg = (SumAvgAggregate) super.clone();
+        if (distinct)
+            agg.set = new HashSet<Object>();
+        return agg;
+    }
+
+
     @Override
     public void clearResult() {
         sum = null;
@@ -3,6 +3,7 @@ package edu.caltech.nanodb.indexes;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 
@@ -23,6 +24,8 @@ import edu.caltech.nanodb.storage.SequentialTupleFile;
 import edu.caltech.nanodb.storage.TupleFile;
 import edu.caltech.nanodb.storage.StorageManager;
 import edu.caltech.nanodb.storage.TupleFileManager;
+import edu.caltech.nanodb.storage.btreefile.BTreeBulkLoader;
+import edu.caltech.nanodb.storage.btreefile.BTreeTupleFile;
 
 
 public class BasicIndexManager implements IndexManager {
@@ -97,22 +100,25 @@ public class BasicIndexManager implements IndexManager {
         String tableName = tableInfo.getTableName();
         TableSchema tableSchema = tableInfo.getSchema();
 
-        // TODO:  Check if current columns already are an index for this table.
-        //        (Not essential, but you don't want to be redundant.)
-        //        (NOTE:  Also need to make sure the index types are the same.)
-        /*
-        getIndexesOnColumns(columnNames, / * exactMatch * / true);
-
-        for (Map.Entry<String, ColumnIndexes> entry :
-            tableSchema.getIndexes().entrySet()) {
-            if (index.equalsColumns(entry.getValue())) {
-                throw new ExecutionException(String.format(
-                    "Could not create new index on table \"%s\". The table " +
-                        "already has an index \"%s\" with the same columns " +
-                        "in the same order.", tableName, entry.getKey()));
+        // An index with the same columns in the same order is redundant,
+        // unless the new index is unique and the existing one isn't, or the
+        // two indexes include different non-key columns.
+        for (ColumnRefs existing : tableSchema.getIndexes().values()) {
+            TableConstraintType existingType = existing.getConstraintType();
+            boolean existingUnique =
+                (existingType != null && existingType.isUnique());
+            TableConstraintType newType = indexColRefs.getConstraintType();
+            boolean newUnique = (newType != null && newType.isUnique());
+
+            if (existing.equalsColumns(indexColRefs) &&
+                (existingUnique || !newUnique) &&
+                Arrays.equals(existing.getIncludedCols(),
+                              indexColRefs.getIncludedCols())) {
+                throw new IllegalArgumentException(String.format(
+                    "The table already has an index %s with the same " +
+                    "columns in the same order.", existing.getIndexName()));
             }
         }
-        */
 
         String indexName = indexColRefs.getIndexName();
         logger.debug(String.format("Creating an IndexInfo object " +
@@ -167,6 +173,25 @@ public class BasicIndexManager implements IndexManager {
         TupleFile tableTupleFile = srcTableInfo.getTupleFile();
         TupleFile indexTupleFile = newIndexInfo.getTupleFile();
 
+        if (indexTupleFile instanceof BTreeTupleFile) {
+            // B+ tree indexes can be built bottom-up from the sorted index
+            // tuples, which is much faster than inserting them one by one.
+            BTreeBulkLoader loader = new BTreeBulkLoader(storageManager,
+                (BTreeTupleFile) indexTupleFile);
+            if (unique)
+                loader.setUniqueKeySize(columnRefs.size());
+
+            PageTuple curTuple = (PageTuple) tableTupleFile.getFirstTuple();
+            while (curTuple != null) {
+                loader.addTuple(IndexUtils.makeSearchKeyValue(columnRefs,
+                    curTuple, /* findExactTuple */ true));
+                curTuple = (PageTuple) tableTupleFile.getNextTuple(curTuple);
+            }
+
+            loader.finish();
+            return;
+        }
+
         // Traverse the tuples in the table, so we can populate the index.
         PageTuple curTuple = (PageTuple) tableTupleFile.getFirstTuple();
         while (curTuple != null) {
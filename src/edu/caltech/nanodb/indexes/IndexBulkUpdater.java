@@ -0,0 +1,268 @@
+package edu.caltech.nanodb.indexes;
+
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+import edu.caltech.nanodb.expressions.TupleComparator;
+import edu.caltech.nanodb.expressions.TupleLiteral;
+import edu.caltech.nanodb.relations.ColumnRefs;
+import edu.caltech.nanodb.relations.TableConstraintType;
+import edu.caltech.nanodb.relations.TableInfo;
+import edu.caltech.nanodb.relations.Tuple;
+import edu.caltech.nanodb.storage.PageTuple;
+import edu.caltech.nanodb.storage.StorageManager;
+import edu.caltech.nanodb.storage.TupleFile;
+import edu.caltech.nanodb.storage.btreefile.BTreeBulkLoader;
+import edu.caltech.nanodb.storage.btreefile.BTreeTupleFile;
+
+
+/**
+ * This class adds a large number of new rows to all of a table's indexes,
+ * for when the rows are loaded into the table in bulk instead of through
+ * the per-row events that {@link IndexUpdater} handles.  Indexes that are
+ * still empty B<sup>+</sup> trees are built bottom-up with a
+ * {@link BTreeBulkLoader}.  The rows' entries for any other index are
+ * sorted in batches and then added to the index in order, so that
+ * consecutive insertions go to the same or neighboring index pages.
+ * <p>
+ * Since the entries are only added to the indexes later, each row must be
+ * checked against the unique indexes with {@link #checkRow} before it is
+ * stored in the table, so that a row that violates a unique index is never
+ * stored.
+ */
+public class IndexBulkUpdater {
+
+    /** A logging object for reporting anything interesting that happens. */
+    private static Logger logger = Logger.getLogger(IndexBulkUpdater.class);
+
+
+    /**
+     * The number of index entries collected for an index before they are
+     * sorted and added to it.
+     */
+    public static final int BATCH_SIZE = 10000;
+
+
+    /** Orders index entries using all of their columns. */
+    private static final Comparator<Tuple> TUPLE_ORDER = new Comparator<Tuple>() {
+        @Override
+        public int compare(Tuple t1, Tuple t2) {
+            return TupleComparator.compareTuples(t1, t2);
+        }
+    };
+
+
+    /** The new rows' entries for one of the table's indexes. */
+    private static class IndexEntries {
+        public ColumnRefs indexDef;
+
+        public TupleFile tupleFile;
+
+        public boolean unique;
+
+        /** The loader that builds the index, if it was empty. */
+        public BTreeBulkLoader loader;
+
+        /** The entries waiting to be added, if the index wasn't empty. */
+        public ArrayList<TupleLiteral> batch;
+
+        /**
+         * If the index is unique, the keys of the rows that have been added
+         * but aren't in the index yet.
+         */
+        public HashSet<TupleLiteral> keys;
+    }
+
+
+    /** Details of the table the rows are added to. */
+    private TableInfo tableInfo;
+
+
+    /** The entries for each of the table's indexes. */
+    private List<IndexEntries> indexes;
+
+
+    /**
+     * Opens all of the table's indexes, ready for new rows to be added.
+     *
+     * @param storageManager the storage manager to open the indexes with
+     * @param tableInfo details of the table the rows are added to
+     *
+     * @throws IOException if an IO error occurs while opening the indexes
+     */
+    public IndexBulkUpdater(StorageManager storageManager, TableInfo tableInfo)
+        throws IOException {
+
+        if (storageManager == null)
+            throw new IllegalArgumentException("storageManager cannot be null");
+
+        if (tableInfo == null)
+            throw new IllegalArgumentException("tableInfo cannot be null");
+
+        this.tableInfo = tableInfo;
+
+        IndexManager indexManager = storageManager.getIndexManager();
+        indexes = new ArrayList<IndexEntries>();
+        for (ColumnRefs indexDef : tableInfo.getSchema().getIndexes().values()) {
+            IndexInfo indexInfo = indexManager.openIndex(tableInfo,
+                indexDef.getIndexName());
+
+            IndexEntries entries = new IndexEntries();
+            entries.indexDef = indexDef;
+            entries.tupleFile = indexInfo.getTupleFile();
+
+            TableConstraintType constraintType = indexDef.getConstraintType();
+            entries.unique = (constraintType != null && constraintType.isUnique());
+            if (entries.unique)
+                entries.keys = new HashSet<TupleLiteral>();
+
+            if (entries.tupleFile instanceof BTreeTupleFile &&
+                ((BTreeTupleFile) entries.tupleFile).isEmpty()) {
+                entries.loader = new BTreeBulkLoader(storageManager,
+                    (BTreeTupleFile) entries.tupleFile);
+                if (entries.unique)
+                    entries.loader.setUniqueKeySize(indexDef.size());
+
+                logger.debug("Index " + indexDef.getIndexName() +
+                    " is empty; bulk-loading it.");
+            }
+            else {
+                entries.batch = new ArrayList<TupleLiteral>();
+            }
+
+            indexes.add(entries);
+        }
+    }
+
+
+    /**
+     * Returns true if the table has any indexes to update.
+     *
+     * @return true if the table has any indexes to update
+     */
+    public boolean hasIndexes() {
+        return !indexes.isEmpty();
+    }
+
+
+    /**
+     * Checks that a new row can be added to all of the table's unique
+     * indexes.  This must be done before the row is stored in the table.
+     *
+     * @param tuple the new row
+     *
+     * @throws IOException if an IO error occurs while searching an index
+     * @throws IllegalStateException if the row would violate a unique index,
+     *         either because the index has the row's key, or because a row
+     *         added earlier has it
+     */
+    public void checkRow(Tuple tuple) throws IOException {
+        for (IndexEntries entries : indexes) {
+            if (!entries.unique)
+                continue;
+
+            TupleLiteral key = IndexUtils.makeSearchKeyValue(entries.indexDef,
+                tuple, /* findExactTuple */ false);
+
+            boolean found = entries.keys.contains(key);
+            if (!found && entries.loader == null) {
+                PageTuple existing =
+                    IndexUtils.findTupleInIndex(key, entries.tupleFile);
+                if (existing != null) {
+                    existing.unpin();
+                    found = true;
+                }
+            }
+
+            if (found) {
+                throw new IllegalStateException("Unique index " +
+                    entries.indexDef.getIndexName() +
+                    " already contains a tuple with this value.");
+            }
+        }
+    }
+
+
+    /**
+     * Adds a new row of the table to all of the table's indexes.  The row
+     * may not be in the indexes until {@link #finish} is called.  The row
+     * must have been checked with {@link #checkRow} before it was stored.
+     *
+     * @param ptup the new row, as stored in the table
+     *
+     * @throws IOException if an IO error occurs while updating an index
+     */
+    public void addRow(PageTuple ptup) throws IOException {
+        for (IndexEntries entries : indexes) {
+            if (entries.unique) {
+                entries.keys.add(IndexUtils.makeSearchKeyValue(
+                    entries.indexDef, ptup, /* findExactTuple */ false));
+            }
+
+            TupleLiteral idxTup = IndexUtils.makeSearchKeyValue(
+                entries.indexDef, ptup, /* findExactTuple */ true);
+
+            if (entries.loader != null) {
+                entries.loader.addTuple(idxTup);
+            }
+            else {
+                entries.batch.add(idxTup);
+                if (entries.batch.size() >= BATCH_SIZE)
+                    addBatch(entries);
+            }
+        }
+    }
+
+
+    /**
+     * Adds all the rows that haven't been added to the indexes yet.
+     *
+     * @throws IOException if an IO error occurs while updating an index
+     */
+    public void finish() throws IOException {
+        for (IndexEntries entries : indexes) {
+            if (entries.loader != null)
+                entries.loader.finish();
+            else
+                addBatch(entries);
+        }
+    }
+
+
+    /**
+     * Sorts the entries collected for an index, and adds them to it.  Their
+     * keys were already checked by {@link #checkRow}.
+     *
+     * @param entries the index and the entries to add to it
+     *
+     * @throws IOException if an IO error occurs while updating the index
+     */
+    private void addBatch(IndexEntries entries) throws IOException {
+        logger.debug(String.format("Adding %d rows of table %s to index %s.",
+            entries.batch.size(), tableInfo.getTableName(),
+            entries.indexDef.getIndexName()));
+
+        Collections.sort(entries.batch, TUPLE_ORDER);
+
+        for (TupleLiteral idxTup : entries.batch) {
+            // Release each new entry's page as we go, so that a large batch
+            // doesn't leave the whole index pinned.
+            Tuple added = entries.tupleFile.addTuple(idxTup);
+            if (added instanceof PageTuple)
+                ((PageTuple) added).unpin();
+        }
+
+        entries.batch.clear();
+
+        // The index itself now has these keys.
+        if (entries.unique)
+            entries.keys.clear();
+    }
+}
@@ -60,6 +60,12 @@ public class IndexUtils {
             new ColumnType(SQLDataType.FILE_POINTER));
         indexSchema.addColumnInfo(filePtr);
 
+        // Any included columns follow the tuple-pointer.  Since the key and
+        // tuple-pointer are already unique, the included columns never
+        // affect the order of the index entries.
+        for (int iCol : indexDesc.getIncludedCols())
+            indexSchema.addColumnInfo(tableSchema.getColumnInfo(iCol));
+
         return indexSchema;
     }
 
@@ -215,7 +221,8 @@ public class IndexUtils {
      * This helper function creates a {@link TupleLiteral} that holds the
      * key-values necessary for storing or deleting the specified table-tuple
      * in the index.  Specifically, this method stores the tuple's file-pointer
-     * in the key as the last value.
+     * in the key after the key columns, followed by the values of any
+     * columns the index includes.
      *
      * @param columnRefs the columns that the index is built on
      *
@@ -237,6 +244,9 @@ public class IndexUtils {
             // Include the file-pointer as the last value in the tuple, so
             // that all key-values are unique in the index.
             searchKeyVal.addValue(((PageTuple) tuple).getExternalReference());
+
+            for (int iCol : columnRefs.getIncludedCols())
+                searchKeyVal.addValue(tuple.getColumnValue(iCol));
         }
 
         return searchKeyVal;
@@ -0,0 +1,273 @@
+package edu.caltech.nanodb.indexes.bitmapindex;
+
+import edu.caltech.nanodb.expressions.TypeCastException;
+import edu.caltech.nanodb.expressions.TypeConverter;
+import edu.caltech.nanodb.server.performance.PerformanceCounters;
+import edu.caltech.nanodb.server.properties.PropertyHandler;
+import edu.caltech.nanodb.server.properties.PropertyRegistry;
+import edu.caltech.nanodb.server.properties.ReadOnlyPropertyException;
+import edu.caltech.nanodb.server.properties.UnrecognizedPropertyException;
+import edu.caltech.nanodb.storage.bitmapfile.Bitmap;
+import org.apache.log4j.Logger;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Holds the value bitmaps of all bitmap indexes that have been loaded from their files, up to a
+ * total size in bytes, evicting the least recently used bitmaps to make room. Value bitmaps are
+ * disk backed, so every change to one is already in its file, and evicting it only means it is
+ * loaded again the next time it is needed. The existence, NULL and slice bitmaps of open indexes
+ * are few, and are kept by the indexes themselves.
+ * <p>
+ * The size of a bitmap is measured when it is added and whenever it is used again, since bits
+ * are set in cached bitmaps as rows are added. Hits, misses, evictions and the bytes cached are
+ * recorded in {@link PerformanceCounters}.
+ */
+public class BitmapCache {
+    private static Logger logger = Logger.getLogger(BitmapCache.class);
+
+    /**
+     * The system property that can be used to specify the most bytes of bitmaps to cache, with an
+     * optional <tt>k</tt>, <tt>m</tt> or <tt>g</tt> suffix.
+     */
+    public static final String PROP_BITMAPCACHE_SIZE = "nanodb.bitmapcache.size";
+
+    /** The default bitmap cache size is 64MB. */
+    public static final long DEFAULT_BITMAPCACHE_SIZE = 64 * 1024 * 1024;
+
+    private class BitmapCachePropertyHandler implements PropertyHandler {
+
+        @Override
+        public Object getPropertyValue(String propertyName)
+                throws UnrecognizedPropertyException {
+
+            if (PROP_BITMAPCACHE_SIZE.equals(propertyName)) {
+                return getMaxSize();
+            } else {
+                throw new UnrecognizedPropertyException("No property named " +
+                        propertyName);
+            }
+        }
+
+        @Override
+        public void setPropertyValue(String propertyName, Object value)
+                throws UnrecognizedPropertyException, ReadOnlyPropertyException,
+                TypeCastException {
+
+            if (PROP_BITMAPCACHE_SIZE.equals(propertyName)) {
+                Long size = (value instanceof String) ?
+                        parseSize((String) value) : TypeConverter.getLongValue(value);
+                if (size == null || size < 0)
+                    throw new TypeCastException("Invalid bitmap cache size " + value);
+
+                setMaxSize(size);
+            } else {
+                throw new UnrecognizedPropertyException("No property named " +
+                        propertyName);
+            }
+        }
+    }
+
+    /* A value bitmap of an index */
+    private static class CacheKey {
+        private BitmapIndex index;
+        private int bitmapNumber;
+
+        public CacheKey(BitmapIndex index, int bitmapNumber) {
+            this.index = index;
+            this.bitmapNumber = bitmapNumber;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (obj instanceof CacheKey) {
+                CacheKey other = (CacheKey) obj;
+                return index == other.index && bitmapNumber == other.bitmapNumber;
+            }
+            return false;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(index) + bitmapNumber;
+        }
+    }
+
+    private static class CacheEntry {
+        private Bitmap bitmap;
+
+        /* The size of the bitmap when it was last measured */
+        private long bytes;
+
+        public CacheEntry(Bitmap bitmap, long bytes) {
+            this.bitmap = bitmap;
+            this.bytes = bytes;
+        }
+    }
+
+    /* The cached bitmaps, least recently used first */
+    private LinkedHashMap<CacheKey, CacheEntry> entries;
+
+    private long totalBytes;
+
+    private long maxSize;
+
+    public BitmapCache() {
+        entries = new LinkedHashMap<CacheKey, CacheEntry>(16, 0.75f, true);
+        totalBytes = 0;
+        maxSize = configureMaxSize();
+
+        PropertyRegistry.getInstance().registerProperties(
+                new BitmapCachePropertyHandler(), PROP_BITMAPCACHE_SIZE);
+    }
+
+    private static long configureMaxSize() {
+        String str = System.getProperty(PROP_BITMAPCACHE_SIZE);
+        if (str == null)
+            return DEFAULT_BITMAPCACHE_SIZE;
+
+        Long size = parseSize(str);
+        if (size == null || size < 0) {
+            logger.error(String.format("Could not parse bitmap cache size value \"%s\"; " +
+                    "using default value of %d bytes", str, DEFAULT_BITMAPCACHE_SIZE));
+            return DEFAULT_BITMAPCACHE_SIZE;
+        }
+        return size;
+    }
+
+    /**
+     * Parses a size in bytes, with an optional <tt>k</tt>, <tt>m</tt> or <tt>g</tt> suffix, or
+     * returns null if the string isn't a size.
+     */
+    private static Long parseSize(String str) {
+        str = str.trim().toLowerCase();
+
+        long scale = 1;
+        if (str.length() > 1) {
+            char modifierChar = str.charAt(str.length() - 1);
+            if (modifierChar == 'k')
+                scale = 1024;
+            else if (modifierChar == 'm')
+                scale = 1024 * 1024;
+            else if (modifierChar == 'g')
+                scale = 1024 * 1024 * 1024;
+
+            if (scale != 1)
+                str = str.substring(0, str.length() - 1);
+        }
+
+        try {
+            return Long.parseLong(str) * scale;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    public synchronized long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Changes the most bytes of bitmaps to cache, evicting bitmaps if they no longer fit.
+     */
+    public synchronized void setMaxSize(long maxSize) {
+        this.maxSize = maxSize;
+        evict(null);
+    }
+
+    /**
+     * Returns the total size of the cached bitmaps, in bytes.
+     */
+    public synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+
+    /**
+     * Returns a value bitmap of an index if it is cached, or null if it must be loaded.
+     */
+    public synchronized Bitmap get(BitmapIndex index, int bitmapNumber) {
+        CacheKey key = new CacheKey(index, bitmapNumber);
+        CacheEntry entry = entries.get(key);
+        if (entry == null) {
+            PerformanceCounters.inc(PerformanceCounters.BITMAP_CACHE_MISSES);
+            return null;
+        }
+        PerformanceCounters.inc(PerformanceCounters.BITMAP_CACHE_HITS);
+
+        // The bitmap may have grown or shrunk since it was last used
+        long bytes = entry.bitmap.getSizeInBytes();
+        totalBytes += bytes - entry.bytes;
+        entry.bytes = bytes;
+        evict(key);
+
+        return entry.bitmap;
+    }
+
+    /**
+     * Caches a value bitmap of an index that was just loaded or created, evicting the least
+     * recently used bitmaps if the cache is full. The new bitmap itself is always kept, even if
+     * it alone is larger than the cache.
+     */
+    public synchronized void put(BitmapIndex index, int bitmapNumber, Bitmap bitmap) {
+        CacheKey key = new CacheKey(index, bitmapNumber);
+        CacheEntry entry = new CacheEntry(bitmap, bitmap.getSizeInBytes());
+
+        CacheEntry old = entries.put(key, entry);
+        if (old != null)
+            totalBytes -= old.bytes;
+        totalBytes += entry.bytes;
+
+        evict(key);
+    }
+
+    /**
+     * Removes a value bitmap of an index from the cache, such as when it is dropped.
+     */
+    public synchronized void remove(BitmapIndex index, int bitmapNumber) {
+        CacheEntry entry = entries.remove(new CacheKey(index, bitmapNumber));
+        if (entry != null)
+            totalBytes -= entry.bytes;
+        updateBytesCounter();
+    }
+
+    /**
+     * Removes all the value bitmaps of an index from the cache, such as when it is dropped.
+     */
+    public synchronized void removeAll(BitmapIndex index) {
+        Iterator<Map.Entry<CacheKey, CacheEntry>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<CacheKey, CacheEntry> entry = iterator.next();
+            if (entry.getKey().index == index) {
+                totalBytes -= entry.getValue().bytes;
+                iterator.remove();
+            }
+        }
+        updateBytesCounter();
+    }
+
+    /**
+     * Evicts the least recently used bitmaps until the cache fits in its maximum size.
+     *
+     * @param keep a bitmap that isn't evicted, since it is being returned, or null
+     */
+    private void evict(CacheKey keep) {
+        Iterator<Map.Entry<CacheKey, CacheEntry>> iterator = entries.entrySet().iterator();
+        while (totalBytes > maxSize && iterator.hasNext()) {
+            Map.Entry<CacheKey, CacheEntry> entry = iterator.next();
+            if (entry.getKey().equals(keep))
+                continue;
+
+            totalBytes -= entry.getValue().bytes;
+            iterator.remove();
+            PerformanceCounters.inc(PerformanceCounters.BITMAP_CACHE_EVICTIONS);
+        }
+        updateBytesCounter();
+    }
+
+    private void updateBytesCounter() {
+        PerformanceCounters.set(PerformanceCounters.BITMAP_CACHE_BYTES,
+                (int) Math.min(totalBytes, Integer.MAX_VALUE));
+    }
+}
@@ -1,23 +1,46 @@
 package edu.caltech.nanodb.indexes.bitmapindex;
 
+import edu.caltech.nanodb.relations.BitmapJoinColumnRefs;
+import edu.caltech.nanodb.relations.ColumnRefs;
+import edu.caltech.nanodb.relations.ForeignKeyColumnRefs;
+import edu.caltech.nanodb.relations.SQLDataType;
 import edu.caltech.nanodb.relations.TableInfo;
+import edu.caltech.nanodb.relations.TableSchema;
+import edu.caltech.nanodb.relations.Tuple;
 import edu.caltech.nanodb.storage.*;
 import edu.caltech.nanodb.storage.bitmapfile.Bitmap;
+import edu.caltech.nanodb.storage.bitmapfile.BitmapFile;
 import edu.caltech.nanodb.storage.bitmapfile.ValueSet;
-import edu.caltech.nanodb.storage.heapfile.HeapFilePageTuple;
 import edu.caltech.nanodb.storage.heapfile.HeapTupleFile;
 import org.apache.log4j.Logger;
 
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.List;
 
 /**
  * This file represents a single complete bitmap index with one table and one attribute.
- * The parts include one existence bitmap and many value bitmaps, one for each distinct
- * value of the attribute.
+ * The attribute is usually a column of the table, but it can also be several columns, whose
+ * values are combined into one (a <em>composite</em> index), or a column of another table that
+ * the table refers to through a foreign key (a <em>join</em> index, which gives each row the
+ * value of the row it refers to).  The parts include one existence bitmap, a bitmap of the rows whose value is NULL, and many
+ * value bitmaps, one for each distinct value of the attribute.  The values are kept in their own
+ * type, in order, by a {@link ValueSet}.  All of the parts are stored in a single
+ * {@link BitmapFile}.
+ * <p>
+ * Indexes on integer attributes are also <em>bit-sliced</em>:  bitmap <em>i</em> of the slices
+ * has the rows whose value has bit <em>i</em> set, after the sign bit is flipped so that the
+ * values order the same way as unsigned numbers.  A range of values can then be found with a
+ * few bitmap operations per slice, however many distinct values fall in the range.  Ranges over
+ * other ordered attributes are found by combining the bitmaps of the values in the range, which
+ * the value set finds without looking at the other values.
+ * <p>
+ * The rows of the table are at the same positions in every bitmap index on the table; see
+ * {@link BitmapRowIds}.  Value bitmaps are loaded when they are needed, and are kept in the
+ * {@link BitmapCache} shared by all indexes, which evicts them when it is full.
  */
 public class BitmapIndex {
     private static Logger logger = Logger.getLogger(BitmapIndex.class);
@@ -27,192 +50,602 @@ public class BitmapIndex {
 
     /* The table and attribute define the index when the index is created */
     private TableInfo table;
+    private ColumnRefs columns;
     private String attribute;
 
+    /* For a join index, the table the foreign key refers to, and the value of each of its rows
+     * by the row's encoded key, which is loaded when it is first needed */
+    private TableInfo dimension;
+    private HashMap<String, Object> dimensionValues;
+
     /* These bitmaps are set up when the index is populated */
+    private BitmapFile bitmapFile;
     private ValueSet values;
     private Bitmap existence;
-    private HashMap<String, Bitmap> valueBitmaps;
+    private Bitmap nulls;
+
+    /* The cache that holds the value bitmaps that have been loaded */
+    private BitmapCache bitmapCache;
+
+    /* The value bitmaps built in memory while the index is populated, by bitmap number */
+    private HashMap<Integer, Bitmap> bulkBitmaps;
 
-    /* Precomputed values */
-    private static int bitsPerPage = StorageManager.getCurrentPageSize() / 2;
+    /* The type of the attribute, and the number of bit-slices kept for it (0 if none) */
+    private SQLDataType type;
+    private int numSlices;
 
-    public BitmapIndex(TableInfo table, String attribute, BitmapIndexManager manager) {
+    /* The bit-slices, which are loaded the first time they are used */
+    private Bitmap[] slices;
+
+    /* True while the index is being populated, when its bitmaps are only kept in memory */
+    private boolean bulkLoading;
+
+    public BitmapIndex(TableInfo table, ColumnRefs columns, BitmapIndexManager manager) {
         this.table = table;
-        this.attribute = attribute;
-        this.valueBitmaps = new HashMap<String, Bitmap>();
+        this.columns = columns;
+        this.attribute = BitmapIndexManager.getIndexAttribute(table.getSchema(), columns);
         this.bitmapIndexManager = manager;
+        this.bitmapCache = manager.getBitmapCache();
         this.storageManager = manager.getBitmapFileManager().getStorageManager();
-        values = new ValueSet(getValuesFileName(table.getTableName(), attribute), storageManager);
+
+        if (columns instanceof BitmapJoinColumnRefs) {
+            BitmapJoinColumnRefs joinColumns = (BitmapJoinColumnRefs) columns;
+            try {
+                dimension = storageManager.getTableManager().openTable(
+                        joinColumns.getDimensionTable());
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            this.type = dimension.getSchema().getColumnInfo(joinColumns.getDimensionColumn())
+                    .getType().getBaseType();
+        } else if (columns.size() > 1) {
+            // Composite values are kept as encoded strings; see encodeValues
+            this.type = SQLDataType.VARCHAR;
+        } else {
+            this.type = table.getSchema().getColumnInfo(columns.getCol(0)).getType().getBaseType();
+        }
+        this.numSlices = getNumSlices(type);
+    }
+
+    /**
+     * Returns the number of bit-slices kept for values of the given type, or 0 if values of
+     * the type aren't bit-sliced.
+     */
+    public static int getNumSlices(SQLDataType type) {
+        switch (type) {
+            case TINYINT:
+                return 8;
+            case SMALLINT:
+                return 16;
+            case INTEGER:
+                return 32;
+            case BIGINT:
+                return 64;
+            default:
+                return 0;
+        }
     }
 
     /**
      * Used on initial creation of an index. Iterates through every tuple in the table and create all
-     * necessary bitmaps.
+     * necessary bitmaps. The rows are read from the table's {@link BitmapRowIds#getRowFile row
+     * file}, which is the table itself for heap tables. The bitmaps are built in memory and each
+     * one is written to the file once at the end, instead of writing every bit as it is set.
      */
     public void populate() throws IOException {
-        // Add support for other file types like BTree or Hash later.
-        if (!(table.getTupleFile() instanceof  HeapTupleFile))
-            throw new IllegalArgumentException("Can't populate from non heap files yet");
-
         // Initialize all the index parts
-        existence = bitmapIndexManager.getBitmapFileManager()
-                .createBitmapFile(getExistenceBitmapName(table.getTableName(), attribute), this);
-        values.createFile();
-
-        // Scan through all tuples in the table
-        HeapTupleFile heapTupleFile = (HeapTupleFile) table.getTupleFile();
-        PageTuple tuple = (PageTuple) heapTupleFile.getFirstTuple();
-
-        while (true) {
-            if (tuple == null) break;
-            int locationBit = getIndex(tuple.getExternalReference());
-
-            // Set the existence bit
-            existence.set(locationBit);
-
-            // If a bitmap for this value exists, set a bit in that bitmap, otherwise create a new
-            // one, set the bit, and cache it. Add the value to ValueSet if its not already there
-            String value = String.valueOf(tuple.getColumnValue(tuple.getSchema().getColumnIndex(attribute)));
-            if (valueBitmaps.containsKey(value)) {
-                valueBitmaps.get(value).set(locationBit);
-            } else {
-                createBitmap(value).set(locationBit);
+        bitmapFile = bitmapIndexManager.getBitmapFileManager()
+                .createBitmapFile(getIndexFileName(table.getTableName(), attribute));
+        values = new ValueSet(bitmapFile, type);
+        existence = Bitmap.emptyBitmap();
+        nulls = Bitmap.emptyBitmap();
+        slices = new Bitmap[numSlices];
+        for (int i = 0; i < numSlices; i++)
+            slices[i] = Bitmap.emptyBitmap();
+
+        bulkLoading = true;
+        bulkBitmaps = new HashMap<Integer, Bitmap>();
+        try {
+            // Scan through all tuples in the table
+            HeapTupleFile rowFile = bitmapIndexManager.getRowIds(table).getRowFile();
+            PageTuple tuple = (PageTuple) rowFile.getFirstTuple();
+
+            while (tuple != null) {
+                addValue(rowFile.getRowId(tuple.getExternalReference()), getRowValue(tuple));
+
+                // Move to the next tuple
+                tuple = (PageTuple) rowFile.getNextTuple(tuple);
             }
+        } finally {
+            bulkLoading = false;
+        }
 
-            // Move to the next tuple
-            tuple = (HeapFilePageTuple) heapTupleFile.getNextTuple(tuple);
+        // Write out every bitmap, and make them disk-backed from now on
+        writeBitmap(BitmapFile.EXISTENCE_BITMAP, existence);
+        writeBitmap(BitmapFile.NULL_BITMAP, nulls);
+        for (int i = 0; i < numSlices; i++)
+            writeBitmap(BitmapFile.FIRST_SLICE_BITMAP + i, slices[i]);
+        for (Integer bitmapNumber : bulkBitmaps.keySet()) {
+            Bitmap bitmap = bulkBitmaps.get(bitmapNumber);
+            writeBitmap(bitmapNumber, bitmap);
+            bitmapCache.put(this, bitmapNumber, bitmap);
         }
+        bulkBitmaps = null;
+    }
+
+    /**
+     * Writes a bitmap that was built in memory to the file, and makes it disk-backed.
+     */
+    private void writeBitmap(int bitmapNumber, Bitmap bitmap) {
+        bitmapFile.writeBitmap(bitmapNumber, bitmap);
+        bitmap.setBitmapFile(bitmapFile, bitmapNumber);
     }
 
     /**
      * Used to load parts of an index from file. Individual bitmaps aren't loaded until they are needed.
      */
     public void load() {
-        existence = bitmapIndexManager.getBitmapFileManager()
-                .loadBitmapFile(getExistenceBitmapName(table.getTableName(), attribute), this);
-        values.loadFile();
-
-        // Store all the values, but don't actually load the bitmaps until they are used
-        Iterator<String> iter = values.getValues().iterator();
-        while (iter.hasNext()) {
-            String value = iter.next();
-            valueBitmaps.put(value, null);
-        }
+        bitmapFile = bitmapIndexManager.getBitmapFileManager()
+                .openBitmapFile(getIndexFileName(table.getTableName(), attribute));
+        existence = bitmapFile.loadBitmap(BitmapFile.EXISTENCE_BITMAP);
+        nulls = bitmapFile.loadBitmap(BitmapFile.NULL_BITMAP);
+        values = new ValueSet(bitmapFile, type);
+        values.load();
     }
 
     /**
      * Add a new tuple to this index and updates all necessary bitmaps
+     *
+     * @param rowId the row's position, from {@link BitmapRowIds#addRow}
+     * @param tuple the row
      */
-    public void addTuple(PageTuple tuple) {
-        int location = getIndex(tuple.getExternalReference());
+    public void addTuple(int rowId, Tuple tuple) throws IOException {
+        addValue(rowId, getRowValue(tuple));
+    }
+
+    /**
+     * Returns the value of a row of the table in this index:  the value of the column, the
+     * encoded values of the columns of a composite index, or the value of the row that a join
+     * index's foreign key refers to.
+     */
+    private Object getRowValue(Tuple tuple) throws IOException {
+        if (dimension != null)
+            return getDimensionValue(tuple);
+
+        if (columns.size() == 1)
+            return tuple.getColumnValue(columns.getCol(0));
+
+        Object[] values = new Object[columns.size()];
+        for (int i = 0; i < values.length; i++)
+            values[i] = tuple.getColumnValue(columns.getCol(i));
+        return encodeValues(getColumnTypes(table.getSchema(), columns.getCols()), values);
+    }
+
+    /**
+     * Returns the value of the join index's column in the row that a row of the table refers
+     * to, or null if the foreign key is NULL or doesn't refer to any row.
+     */
+    private Object getDimensionValue(Tuple tuple) throws IOException {
+        if (dimensionValues == null)
+            loadDimensionValues();
+
+        ForeignKeyColumnRefs foreignKey =
+                ((BitmapJoinColumnRefs) columns).getForeignKey(table.getSchema());
+        Object[] key = new Object[foreignKey.size()];
+        for (int i = 0; i < key.length; i++)
+            key[i] = tuple.getColumnValue(foreignKey.getCol(i));
+
+        String encoded = encodeValues(
+                getColumnTypes(dimension.getSchema(), foreignKey.getRefCols()), key);
+        return (encoded == null) ? null : dimensionValues.get(encoded);
+    }
+
+    /**
+     * Reads every row of a join index's dimension table, keeping the value of the indexed column
+     * by the row's key.
+     */
+    private void loadDimensionValues() throws IOException {
+        BitmapJoinColumnRefs joinColumns = (BitmapJoinColumnRefs) columns;
+        int[] keyColumns = joinColumns.getForeignKey(table.getSchema()).getRefCols();
+        SQLDataType[] keyTypes = getColumnTypes(dimension.getSchema(), keyColumns);
+        int valueColumn = dimension.getSchema().getColumnIndex(joinColumns.getDimensionColumn());
+
+        dimensionValues = new HashMap<String, Object>();
+        TupleFile tupleFile = dimension.getTupleFile();
+        Tuple tuple = tupleFile.getFirstTuple();
+        while (tuple != null) {
+            Object[] key = new Object[keyColumns.length];
+            for (int i = 0; i < key.length; i++)
+                key[i] = tuple.getColumnValue(keyColumns[i]);
+
+            String encoded = encodeValues(keyTypes, key);
+            if (encoded != null)
+                dimensionValues.put(encoded, tuple.getColumnValue(valueColumn));
+
+            tuple = tupleFile.getNextTuple(tuple);
+        }
+    }
 
+    private static SQLDataType[] getColumnTypes(TableSchema schema, int[] columns) {
+        SQLDataType[] types = new SQLDataType[columns.length];
+        for (int i = 0; i < columns.length; i++)
+            types[i] = schema.getColumnInfo(columns[i]).getType().getBaseType();
+        return types;
+    }
+
+    /**
+     * Encodes values of the given types as a single string, converting each one the way a
+     * {@link ValueSet} would, and putting its length before it so that different lists of
+     * values never give the same string.  Returns null if any of the values is NULL, or can't
+     * be equal to any value of its type.
+     */
+    static String encodeValues(SQLDataType[] types, Object[] values) {
+        StringBuilder buf = new StringBuilder();
+        for (int i = 0; i < values.length; i++) {
+            Object key = ValueSet.toKey(types[i], values[i]);
+            if (key == null)
+                return null;
+
+            String s = key.toString();
+            buf.append(s.length()).append(':').append(s);
+        }
+        return buf.toString();
+    }
+
+    /**
+     * Sets the bits for a row with the given value in the existence bitmap, the value's bitmap
+     * and the bit-slices, or in the NULL bitmap if the value is NULL.
+     */
+    private void addValue(int location, Object value) {
         existence.set(location);
-        String value = String.valueOf(tuple.getColumnValue(table.getSchema().getColumnIndex(attribute)));
+        if (value == null) {
+            nulls.set(location);
+            return;
+        }
+
+        // If a bitmap for this value exists, set a bit in that bitmap, otherwise create a new
+        // one, set the bit, and cache it. Add the value to ValueSet if its not already there
         Bitmap bitmap = getBitmap(value);
         if (bitmap == null) bitmap = createBitmap(value);
         bitmap.set(location);
+
+        if (numSlices > 0) {
+            long encoded = encodeSliceValue(((Number) value).longValue());
+            Bitmap[] sliceBitmaps = getSlices();
+            for (int i = 0; i < numSlices; i++) {
+                if (((encoded >>> i) & 1) != 0)
+                    sliceBitmaps[i].set(location);
+            }
+        }
     }
 
     /**
      * Removes a tuple from this index and updates the existence bitmap
+     *
+     * @param location the row's position, from {@link BitmapRowIds#findRow}
+     * @param tuple the row
      */
-    public void removeTuple(PageTuple tuple) {
-        int location = getIndex(tuple.getExternalReference());
-
+    public void removeTuple(int location, Tuple tuple) throws IOException {
         if (!existence.contains(location)) throw new IllegalArgumentException("Never existed????");
         existence.unset(location);
 
-        String value = String.valueOf(tuple.getColumnValue(table.getSchema().getColumnIndex(attribute)));
+        Object columnValue = getRowValue(tuple);
+        if (columnValue == null) {
+            nulls.unset(location);
+            return;
+        }
+
+        // It is necessary to unset the bits here since if a new tuple is added in the same place,
+        // it doesn't have knowledge of the right value bitmap or slices to unset them.
+        if (numSlices > 0) {
+            long encoded = encodeSliceValue(((Number) columnValue).longValue());
+            Bitmap[] sliceBitmaps = getSlices();
+            for (int i = 0; i < numSlices; i++) {
+                if (((encoded >>> i) & 1) != 0)
+                    sliceBitmaps[i].unset(location);
+            }
+        }
 
-        // It is necessary to unset the bit here since if a new tuple is added in the same place,
-        // it doesn't have knowledge of the right value bitmap to unset it.
-        Bitmap valueBitmap = getBitmap(value);
+        // The value of a row in a join index changes when the row it refers to changes, until the
+        // index is rebuilt, so the row may not be in the value's bitmap after all
+        Integer bitmapNumber = values.getBitmapNumber(columnValue);
+        if (bitmapNumber == null) return;
+
+        Bitmap valueBitmap = loadValueBitmap(bitmapNumber);
         valueBitmap.unset(location);
 
-        // If there are no rows with this value left, delete the bitmap and remove the value from the list
+        // If there are no rows with this value left, drop the bitmap and remove the value from the list
         if (valueBitmap.cardinality() == 0) {
-            values.removeValue(value);
-            valueBitmaps.remove(value);
-            try {
-                storageManager.getFileManager().deleteDBFile(valueBitmap.getBitmapFile().getDbFile());
-            } catch (IOException e) {
-                logger.error("Failed to delete bitmap file " + value);
-            }
+            values.removeValue(columnValue);
+            bitmapCache.remove(this, bitmapNumber);
+            bitmapFile.dropBitmap(bitmapNumber);
         }
     }
 
     /**
-     * Drops this index by deleting all files associated with it
+     * Drops this index by deleting the file that holds it
      */
     public void drop() {
         this.existence = null;
         try {
-            storageManager.getFileManager().deleteDBFile(getExistenceBitmapName(table.getTableName(), attribute));
-            storageManager.getFileManager().deleteDBFile(getValuesFileName(table.getTableName(), attribute));
-            Iterator<String> iter = values.getValues().iterator();
-            while (iter.hasNext()) {
-                String value = iter.next();
-                storageManager.getFileManager().deleteDBFile(getValueBitmapName(table.getTableName(), attribute, value));
-            }
+            bitmapIndexManager.getBitmapFileManager()
+                    .deleteBitmapFile(getIndexFileName(table.getTableName(), attribute));
+            this.bitmapFile = null;
             this.values = null;
-            this.valueBitmaps = null;
+            bitmapCache.removeAll(this);
+            this.dimensionValues = null;
         } catch (IOException e) {
-
+            logger.error("Failed to delete bitmap index file for " + attribute);
         }
     }
 
     /**
-     * Gets the bitmap for a value, opening it if necessary
+     * Gets the bitmap for a value, opening it if necessary, or returns null if no row has the
+     * value.  The value can be of any type that compares to the attribute's values; for example
+     * an Integer can be looked up in an index on a BIGINT attribute.
+     */
+    public Bitmap getBitmap(Object value) {
+        Integer bitmapNumber = values.getBitmapNumber(value);
+        if (bitmapNumber == null) return null;
+
+        return loadValueBitmap(bitmapNumber);
+    }
+
+    /**
+     * Gets a value bitmap by its number, loading it if it isn't in the cache
      */
-    public Bitmap getBitmap(String value) {
-        // value doesn't exist at all
-        if (!valueBitmaps.containsKey(value)) return null;
-
-        // value exists but hasn't been loaded
-        if (valueBitmaps.get(value) == null) {
-            String name = getValueBitmapName(table.getTableName(), attribute, value);
-            Bitmap map = bitmapIndexManager.getBitmapFileManager().loadBitmapFile(name, this);
-            valueBitmaps.put(value, map);
-            return map;
+    private Bitmap loadValueBitmap(int bitmapNumber) {
+        if (bulkLoading)
+            return bulkBitmaps.get(bitmapNumber);
+
+        Bitmap map = bitmapCache.get(this, bitmapNumber);
+        if (map == null) {
+            map = bitmapFile.loadBitmap(bitmapNumber);
+            bitmapCache.put(this, bitmapNumber, map);
         }
-        return valueBitmaps.get(value);
+        return map;
+    }
+
+    /**
+     * Returns the rows that have the same value as a row of the table in this index's attribute,
+     * which the row is one of if it is in the index.
+     */
+    public Bitmap getMatchingRows(Tuple tuple) throws IOException {
+        Object value = getRowValue(tuple);
+        if (value == null)
+            return nulls;
+
+        return getBitmapWithDefault(value);
     }
 
     /**
      * Gets the bitmap for a value, but returns an empty bitmap if the value is not found
      */
-    public Bitmap getBitmapWithDefault(String value) {
+    public Bitmap getBitmapWithDefault(Object value) {
         Bitmap ret = getBitmap(value);
         if (ret == null) ret = Bitmap.emptyBitmap();
         return ret;
     }
 
     /**
-     * Creates a new bitmap for this value and stores it in the map
+     * Gets the bitmap of the rows of a composite index whose columns have the given values, in
+     * the order of the index's columns.  The bitmap is empty if no row has the values.
      */
-    public Bitmap createBitmap(String value) {
-        if (valueBitmaps.containsKey(value)) throw new IllegalArgumentException("Already exists!");
+    public Bitmap getCompositeBitmap(Object[] columnValues) {
+        String value = encodeValues(getColumnTypes(table.getSchema(), columns.getCols()),
+                columnValues);
+        if (value == null) return Bitmap.emptyBitmap();
 
-        values.addValue(value);
-        String name = getValueBitmapName(table.getTableName(), attribute, value);
-        Bitmap map =  bitmapIndexManager.getBitmapFileManager().createBitmapFile(name, this);
-        valueBitmaps.put(value, map);
-        return map;
+        return getBitmapWithDefault(value);
+    }
+
+    /**
+     * Returns the rows whose value is NULL.  The rows of a composite index with a NULL in any
+     * of its columns, and of a join index that don't refer to any row, are included.
+     */
+    public Bitmap getNullBitmap() {
+        return nulls;
+    }
+
+    /**
+     * Returns the rows whose value is not NULL, as a new bitmap.
+     */
+    public Bitmap getNonNullBitmap() {
+        return Bitmap.andNot(existence, nulls);
+    }
+
+    /**
+     * Returns true if {@link #getValues} can list the values of an attribute of the given type.
+     * Values of other types are kept as strings, which can't be turned back into the values.
+     */
+    public static boolean canListValues(SQLDataType type) {
+        switch (type) {
+            case TINYINT:
+            case SMALLINT:
+            case INTEGER:
+            case BIGINT:
+            case FLOAT:
+            case DOUBLE:
+            case CHAR:
+            case VARCHAR:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Returns the distinct non-NULL values of the attribute, in order, as values of the
+     * attribute's type. The type must be one that {@link #canListValues} accepts.
+     */
+    public List<Object> getValues() {
+        if (!canListValues(type))
+            throw new UnsupportedOperationException("Can't list values of type " + type);
+
+        ArrayList<Object> ret = new ArrayList<Object>();
+        for (Object key : values.getValues()) {
+            switch (type) {
+                case TINYINT:
+                    ret.add(((Number) key).byteValue());
+                    break;
+                case SMALLINT:
+                    ret.add(((Number) key).shortValue());
+                    break;
+                case INTEGER:
+                    ret.add(((Number) key).intValue());
+                    break;
+                case FLOAT:
+                    ret.add(((Number) key).floatValue());
+                    break;
+                default:
+                    // BIGINT and DOUBLE values are kept as Longs and Doubles, and strings as is
+                    ret.add(key);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Returns true if this index can find the rows whose values are in a range bounded by
+     * values like the given one.  Integer attributes can be compared against integers, and
+     * floating-point and string attributes against numbers and strings respectively.
+     */
+    public static boolean canCompareRange(SQLDataType type, Object bound) {
+        if (getNumSlices(type) > 0) {
+            return bound instanceof Byte || bound instanceof Short ||
+                    bound instanceof Integer || bound instanceof Long;
+        }
+
+        switch (type) {
+            case FLOAT:
+            case DOUBLE:
+                return bound instanceof Number;
+            case CHAR:
+            case VARCHAR:
+                return bound instanceof String;
+            default:
+                return false;
+        }
     }
 
     /**
-     * Translate a filepointer to an index in a bitmap
+     * Returns the rows whose values are in a range, as a new bitmap. Rows whose value is NULL
+     * are never in the range. The bounds must be values that {@link #canCompareRange} accepts.
+     *
+     * @param lower the lower bound of the range, or null if there is no lower bound
+     * @param lowerInclusive true if values equal to the lower bound are in the range
+     * @param upper the upper bound of the range, or null if there is no upper bound
+     * @param upperInclusive true if values equal to the upper bound are in the range
      */
-    public static int getIndex(FilePointer fp) {
-        return fp.getPageNo() * bitsPerPage + fp.getOffset();
+    public Bitmap getRangeBitmap(Object lower, boolean lowerInclusive, Object upper,
+                                 boolean upperInclusive) {
+        if (numSlices > 0) {
+            return getSlicedRangeBitmap(lower == null ? null : ((Number) lower).longValue(),
+                    lowerInclusive, upper == null ? null : ((Number) upper).longValue(),
+                    upperInclusive);
+        }
+
+        // Combine the bitmaps of all the values in the range
+        ArrayList<Bitmap> maps = new ArrayList<Bitmap>();
+        for (int bitmapNumber : values.getBitmapNumbers(lower, lowerInclusive, upper, upperInclusive))
+            maps.add(loadValueBitmap(bitmapNumber));
+
+        return Bitmap.or(maps);
+    }
+
+    /**
+     * Finds the rows whose values are in a range using the bit-slices.
+     */
+    private Bitmap getSlicedRangeBitmap(Long lower, boolean lowerInclusive, Long upper,
+                                        boolean upperInclusive) {
+        // The smallest and largest values the slices can hold
+        long min = -(1L << (numSlices - 1));
+        long max = (1L << (numSlices - 1)) - 1;
+
+        // Turn the bounds into inclusive bounds within the values the slices can hold
+        long low = min;
+        if (lower != null) {
+            if (!lowerInclusive && lower >= max) return Bitmap.emptyBitmap();
+            low = Math.max(min, lowerInclusive ? lower : lower + 1);
+        }
+        long high = max;
+        if (upper != null) {
+            if (!upperInclusive && upper <= min) return Bitmap.emptyBitmap();
+            high = Math.min(max, upperInclusive ? upper : upper - 1);
+        }
+        if (low > high) return Bitmap.emptyBitmap();
+
+        Bitmap ret = getNonNullBitmap();
+        if (low > min) ret = Bitmap.and(ret, compareSlices(low, true));
+        if (high < max) ret = Bitmap.and(ret, compareSlices(high, false));
+        return ret;
+    }
+
+    /**
+     * Returns the rows whose values are at least (or at most) the given value, as a new bitmap.
+     * The slices are scanned from the highest bit down, keeping track of the rows whose values
+     * match the given value in every bit so far. At each bit where those rows differ from the
+     * value, the ones on the requested side are added to the result.
+     *
+     * @param value the value to compare against
+     * @param greater true for the rows whose values are &gt;= the value, false for &lt;=
+     */
+    private Bitmap compareSlices(long value, boolean greater) {
+        long encoded = encodeSliceValue(value);
+        Bitmap[] sliceBitmaps = getSlices();
+
+        ArrayList<Bitmap> parts = new ArrayList<Bitmap>();
+        Bitmap equal = getNonNullBitmap();
+        for (int i = numSlices - 1; i >= 0; i--) {
+            if (((encoded >>> i) & 1) != 0) {
+                if (!greater) parts.add(Bitmap.andNot(equal, sliceBitmaps[i]));
+                equal = Bitmap.and(equal, sliceBitmaps[i]);
+            } else {
+                if (greater) parts.add(Bitmap.and(equal, sliceBitmaps[i]));
+                equal = Bitmap.andNot(equal, sliceBitmaps[i]);
+            }
+        }
+        parts.add(equal);
+        return Bitmap.or(parts);
     }
 
     /**
-     * Translates an index in a bitmap to a Filepointer
+     * Flips the sign bit of a value, within the number of slices, so that values order the
+     * same way as their unsigned encodings.
      */
-    public static FilePointer getPointer(int index) {
-        return new FilePointer(index / bitsPerPage, index % bitsPerPage);
+    private long encodeSliceValue(long value) {
+        long mask = (numSlices == 64) ? -1L : (1L << numSlices) - 1;
+        return (value ^ (1L << (numSlices - 1))) & mask;
+    }
+
+    /**
+     * Returns the bit-slices, lowest bit first, loading them if necessary.
+     */
+    private Bitmap[] getSlices() {
+        if (slices == null) {
+            slices = new Bitmap[numSlices];
+            for (int i = 0; i < numSlices; i++)
+                slices[i] = bitmapFile.loadBitmap(BitmapFile.FIRST_SLICE_BITMAP + i);
+        }
+        return slices;
+    }
+
+    /**
+     * Creates a new bitmap for this value and stores it in the map
+     */
+    public Bitmap createBitmap(Object value) {
+        if (values.getBitmapNumber(value) != null) throw new IllegalArgumentException("Already exists!");
+
+        int bitmapNumber = values.addValue(value);
+        Bitmap map;
+        if (bulkLoading) {
+            map = Bitmap.emptyBitmap();
+            bulkBitmaps.put(bitmapNumber, map);
+        } else {
+            map = bitmapFile.createBitmap(bitmapNumber);
+            bitmapCache.put(this, bitmapNumber, map);
+        }
+        return map;
     }
 
     public TableInfo getTableInfo() {
@@ -223,6 +656,22 @@ public class BitmapIndex {
         return attribute;
     }
 
+    public ColumnRefs getColumns() {
+        return columns;
+    }
+
+    /**
+     * Returns the type of the index's values, which is the type of the column for an index on
+     * one column, or of the other table's column for a join index.
+     */
+    public SQLDataType getType() {
+        return type;
+    }
+
+    public boolean isJoinIndex() {
+        return dimension != null;
+    }
+
     public Bitmap getExistence() {
         return existence;
     }
@@ -233,45 +682,23 @@ public class BitmapIndex {
      */
     public int size() {
         int ret = existence.save().length;
-        Iterator<String> iter = valueBitmaps.keySet().iterator();
-        while (iter.hasNext()) {
-            ret += getBitmap(iter.next()).save().length;
-        }
-        return ret;
-    }
-
-    public static String getExistenceBitmapName(String table, String attribute) {
-        try {
-            table = URLEncoder.encode(table, "UTF-8");
-            attribute = URLEncoder.encode(attribute, "UTF-8");
-        } catch (UnsupportedEncodingException e) {
-            throw new RuntimeException(e);
-        }
-        return new StringBuilder(table).append("()").append(attribute).append(".bitmap").toString();
-    }
+        for (Object value : values.getValues())
+            ret += getBitmap(value).save().length;
 
-    public static String getValuesFileName(String table, String attribute) {
-        try {
-            table = URLEncoder.encode(table, "UTF-8");
-            attribute = URLEncoder.encode(attribute, "UTF-8");
-        } catch (UnsupportedEncodingException e) {
-            throw new RuntimeException(e);
-        }
-        return new StringBuilder(table).append("()").append(attribute).append(".values").toString();
+        return ret;
     }
 
     /**
-     * Encode the table, attribute, and value for a bitmap into a single string.
+     * Returns the name of the file that holds the index on a table's attribute.
      */
-    public static String getValueBitmapName(String table, String attr, String value) {
+    public static String getIndexFileName(String table, String attribute) {
         try {
             table = URLEncoder.encode(table, "UTF-8");
-            attr = URLEncoder.encode(attr, "UTF-8");
-            value = URLEncoder.encode(value, "UTF-8");
+            attribute = URLEncoder.encode(attribute, "UTF-8");
         } catch (UnsupportedEncodingException e) {
             throw new RuntimeException(e);
         }
-        return new StringBuilder(table).append("()").append(attr).append("()").append(value).append(".bitmap").toString();
+        return new StringBuilder(table).append("()").append(attribute).append(".bitmap").toString();
     }
 
 }
@@ -1,6 +1,8 @@
 package edu.caltech.nanodb.indexes.bitmapindex;
 
+import edu.caltech.nanodb.relations.BitmapJoinColumnRefs;
 import edu.caltech.nanodb.relations.ColumnRefs;
+import edu.caltech.nanodb.relations.KeyColumnRefs;
 import edu.caltech.nanodb.relations.TableInfo;
 import edu.caltech.nanodb.relations.TableSchema;
 import edu.caltech.nanodb.storage.StorageManager;
@@ -10,13 +12,17 @@ import org.apache.log4j.Logger;
 
 import java.io.IOException;
 import java.util.AbstractMap;
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 
 /**
  * Handles creating and opening bitmap indexes, as well as some other simple operations on
- * bitmap indexes.
+ * bitmap indexes.  Each bitmap index on a table is known by its attribute:  the name of its
+ * column, the names of a composite index's columns separated by commas, or
+ * <tt>TABLE.COLUMN</tt> for a join index on a column of another table; see
+ * {@link #getIndexAttribute}.
  */
 public class BitmapIndexManager {
 
@@ -26,37 +32,55 @@ public class BitmapIndexManager {
 
     private HashMap<Map.Entry<TableInfo, String>, BitmapIndex> cache;
 
+    /* The value bitmaps that have been loaded, for all indexes */
+    private BitmapCache bitmapCache;
+
+    /* The positions of the rows of each table that has been used with bitmap indexes */
+    private HashMap<TableInfo, BitmapRowIds> rowIds;
+
     public BitmapIndexManager(StorageManager storageManager) {
         this.bitmapFileManager = new BitmapFileManager(storageManager);
         cache = new HashMap<Map.Entry<TableInfo, String>, BitmapIndex>();
+        rowIds = new HashMap<TableInfo, BitmapRowIds>();
+        bitmapCache = new BitmapCache();
     }
 
     public BitmapFileManager getBitmapFileManager() {
         return bitmapFileManager;
     }
 
+    public BitmapCache getBitmapCache() {
+        return bitmapCache;
+    }
+
     /**
      * Create and populate a new bitmap index, and write the bitmap index info to the schema
      */
     public BitmapIndex createBitmapIndex(TableInfo tableInfo, ColumnRefs columnRefs) {
         BitmapIndex bitmapIndex = null;
-        int[] columns = columnRefs.getCols();
-        if (columns.length != 1) throw new IllegalArgumentException("Bitmap indices can only be on one attribute");
-        String attribute = tableInfo.getSchema().getColumnInfo(columns[0]).getName();
+        String attribute = getIndexAttribute(tableInfo.getSchema(), columnRefs);
 
         String indexName = columnRefs.getIndexName();
 
         // Give the index a simple default name
         if (indexName == null) {
-            indexName = tableInfo.getTableName() + attribute;
+            indexName = tableInfo.getTableName() + attribute.replace(',', '_').replace('.', '_');
             columnRefs.setIndexName(indexName);
         }
 
-        if (tableInfo.getSchema().getBitmapIndexes().containsValue(indexName))
+        if (tableInfo.getSchema().getBitmapIndexes().containsKey(indexName))
             throw new IllegalArgumentException("Already exists bitmap index with same name");
 
+        // Each index is kept in a file named after its attribute
+        if (bitmapIndexExists(tableInfo.getSchema(), attribute))
+            throw new IllegalArgumentException("Already exists bitmap index on " + attribute);
+
         try {
-            bitmapIndex = new BitmapIndex(tableInfo, attribute, this);
+            // The first index on a table starts with a new mapping table, if the table needs one
+            if (tableInfo.getSchema().getBitmapIndexes().isEmpty())
+                getRowIds(tableInfo).drop();
+
+            bitmapIndex = new BitmapIndex(tableInfo, columnRefs, this);
             bitmapIndex.populate();
 
             // Indicate in table schema that index exists
@@ -76,19 +100,159 @@ public class BitmapIndexManager {
      * Check whether a bitmap index exists for a given attribute
      */
     public boolean bitmapIndexExists(TableSchema schema, String attribute) {
-        int index = schema.getColumnIndex(attribute);
-        Iterator<ColumnRefs> iter = schema.getBitmapIndexes().values().iterator();
-        while (iter.hasNext()) {
-            if (iter.next().getCol(0) == index) return true;
+        return findBitmapIndex(schema, attribute) != null;
+    }
+
+    /**
+     * Returns the columns of the bitmap index on an attribute, or null if there isn't one.
+     */
+    private ColumnRefs findBitmapIndex(TableSchema schema, String attribute) {
+        for (ColumnRefs refs : schema.getBitmapIndexes().values()) {
+            if (getIndexAttribute(schema, refs).equals(attribute)) return refs;
+        }
+        return null;
+    }
+
+    /**
+     * Returns the attribute a bitmap index on a table is known by, from the index's columns.
+     */
+    public static String getIndexAttribute(TableSchema schema, ColumnRefs columnRefs) {
+        if (columnRefs instanceof BitmapJoinColumnRefs) {
+            BitmapJoinColumnRefs joinRefs = (BitmapJoinColumnRefs) columnRefs;
+            return joinRefs.getDimensionTable() + "." + joinRefs.getDimensionColumn();
+        }
+
+        StringBuilder buf = new StringBuilder();
+        for (int i = 0; i < columnRefs.size(); i++) {
+            if (i > 0) buf.append(',');
+            buf.append(schema.getColumnInfo(columnRefs.getCol(i)).getName());
+        }
+        return buf.toString();
+    }
+
+    /**
+     * Drops the bitmap index on an attribute, deleting its file and removing it from the table's
+     * schema. When the last bitmap index on a table is dropped, the table's mapping table is
+     * deleted too.
+     */
+    public void dropBitmapIndex(TableInfo tableInfo, String attribute) throws IOException {
+        TableSchema schema = tableInfo.getSchema();
+        ColumnRefs refs = findBitmapIndex(schema, attribute);
+        if (refs == null)
+            throw new IllegalArgumentException("No bitmap index on " + attribute);
+        String indexName = refs.getIndexName();
+
+        openBitmapIndex(tableInfo, attribute).drop();
+        cache.remove(new AbstractMap.SimpleEntry<TableInfo, String>(tableInfo, attribute));
+
+        schema.dropBitmapIndex(indexName);
+        if (schema.getBitmapIndexes().isEmpty()) {
+            getRowIds(tableInfo).drop();
+            rowIds.remove(tableInfo);
+        }
+        bitmapFileManager.getStorageManager().getTableManager().saveTableInfo(tableInfo);
+        logger.info("Dropped bitmap index " + indexName + " on " + tableInfo.getTableName());
+    }
+
+    /**
+     * Rebuilds all of the bitmap indexes on a table from the table's rows, along with the
+     * table's mapping table, if it has one. Nothing else may use the table while this runs.
+     * Each index is built in memory and written once, which is much faster than changing the
+     * index one row at a time; rebuilding a B<sup>+</sup> tree table's mapping table also
+     * packs its rows into the fewest positions.
+     *
+     * @return the number of indexes rebuilt
+     */
+    public int rebuildBitmapIndexes(TableInfo tableInfo) throws IOException {
+        List<String> attributes = getIndexedAttributes(tableInfo);
+        for (String attribute : attributes) {
+            openBitmapIndex(tableInfo, attribute).drop();
+            cache.remove(new AbstractMap.SimpleEntry<TableInfo, String>(tableInfo, attribute));
+        }
+
+        getRowIds(tableInfo).drop();
+
+        for (String attribute : attributes) {
+            BitmapIndex bitmapIndex = new BitmapIndex(tableInfo,
+                    findBitmapIndex(tableInfo.getSchema(), attribute), this);
+            bitmapIndex.populate();
+            cache.put(new AbstractMap.SimpleEntry<TableInfo, String>(tableInfo, attribute), bitmapIndex);
+        }
+
+        logger.info("Rebuilt " + attributes.size() + " bitmap indexes on " + tableInfo.getTableName());
+        return attributes.size();
+    }
+
+    /**
+     * Rebuilds one of the bitmap indexes on a table from the table's rows, leaving the rows
+     * where they are in the table's other indexes.
+     */
+    public void rebuildBitmapIndex(TableInfo tableInfo, String attribute) throws IOException {
+        ColumnRefs refs = findBitmapIndex(tableInfo.getSchema(), attribute);
+        if (refs == null)
+            throw new IllegalArgumentException("No bitmap index on " + attribute);
+
+        openBitmapIndex(tableInfo, attribute).drop();
+
+        BitmapIndex bitmapIndex = new BitmapIndex(tableInfo, refs, this);
+        bitmapIndex.populate();
+        cache.put(new AbstractMap.SimpleEntry<TableInfo, String>(tableInfo, attribute), bitmapIndex);
+        logger.info("Rebuilt bitmap index on " + tableInfo.getTableName() + " : " + attribute);
+    }
+
+    /**
+     * Returns the attributes of a table that have bitmap indexes.
+     */
+    public List<String> getIndexedAttributes(TableInfo tableInfo) {
+        TableSchema schema = tableInfo.getSchema();
+        ArrayList<String> attributes = new ArrayList<String>();
+        for (ColumnRefs refs : schema.getBitmapIndexes().values())
+            attributes.add(getIndexAttribute(schema, refs));
+        return attributes;
+    }
+
+    /**
+     * Finds the bitmap join indexes whose values come from a table, which are on the tables
+     * that refer to it through foreign keys.
+     *
+     * @return the tables and attributes of the join indexes
+     */
+    public List<Map.Entry<TableInfo, String>> findJoinIndexesOn(TableInfo dimension)
+            throws IOException {
+        ArrayList<Map.Entry<TableInfo, String>> ret = new ArrayList<Map.Entry<TableInfo, String>>();
+
+        TableSchema schema = dimension.getSchema();
+        ArrayList<KeyColumnRefs> keys = new ArrayList<KeyColumnRefs>(schema.getCandidateKeys());
+        if (schema.getPrimaryKey() != null)
+            keys.add(schema.getPrimaryKey());
+
+        for (KeyColumnRefs key : keys) {
+            for (KeyColumnRefs.FKReference ref : key.getReferencingIndexes()) {
+                TableInfo tableInfo = bitmapFileManager.getStorageManager().getTableManager()
+                        .openTable(ref.tableName);
+                for (ColumnRefs refs : tableInfo.getSchema().getBitmapIndexes().values()) {
+                    if (refs instanceof BitmapJoinColumnRefs && ((BitmapJoinColumnRefs) refs)
+                            .getDimensionTable().equals(dimension.getTableName())) {
+                        Map.Entry<TableInfo, String> entry = new AbstractMap.SimpleEntry<TableInfo, String>(
+                                tableInfo, getIndexAttribute(tableInfo.getSchema(), refs));
+                        if (!ret.contains(entry)) ret.add(entry);
+                    }
+                }
+            }
         }
-        return false;
+        return ret;
     }
 
     /**
-     * Drops a bitmap index
+     * Returns the object that maps a table's rows to their positions in its bitmap indexes.
      */
-    public void dropBitmapIndex(TableInfo tableInfo, String attribute) {
-        // TODO Can't drop indexes yet
+    public BitmapRowIds getRowIds(TableInfo tableInfo) {
+        BitmapRowIds ret = rowIds.get(tableInfo);
+        if (ret == null) {
+            ret = new BitmapRowIds(tableInfo, bitmapFileManager.getStorageManager());
+            rowIds.put(tableInfo, ret);
+        }
+        return ret;
     }
 
     /**
@@ -99,7 +263,7 @@ public class BitmapIndexManager {
         Map<String, ColumnRefs> bitmaps = table.getSchema().getBitmapIndexes();
         if (bitmaps.size() == 0) throw new IllegalArgumentException("No bitmaps on this table");
         ColumnRefs columns = bitmaps.values().iterator().next();
-        String attribute = table.getSchema().getColumnInfo(columns.getCol(0)).getName();
+        String attribute = getIndexAttribute(table.getSchema(), columns);
         return openBitmapIndex(table, attribute).getExistence();
     }
 
@@ -112,7 +276,11 @@ public class BitmapIndexManager {
         if (cache.containsKey(key)) {
             ret = cache.get(key);
         } else {
-            ret = new BitmapIndex(tableInfo, attribute, this);
+            ColumnRefs refs = findBitmapIndex(tableInfo.getSchema(), attribute);
+            if (refs == null)
+                throw new IllegalArgumentException("No bitmap index on " + attribute);
+
+            ret = new BitmapIndex(tableInfo, refs, this);
             ret.load();
             cache.put(key, ret);
             logger.info("Opened bitmap index on " + tableInfo.getTableName() + " : " + attribute + " of size " + ret.size());
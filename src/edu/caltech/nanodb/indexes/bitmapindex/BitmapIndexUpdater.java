@@ -1,26 +1,59 @@
 package edu.caltech.nanodb.indexes.bitmapindex;
 
-import edu.caltech.nanodb.relations.ColumnRefs;
+import edu.caltech.nanodb.commands.Command;
 import edu.caltech.nanodb.relations.TableInfo;
 import edu.caltech.nanodb.relations.Tuple;
+import edu.caltech.nanodb.server.CommandEventListener;
+import edu.caltech.nanodb.server.EventDispatchException;
 import edu.caltech.nanodb.server.RowEventListener;
 import edu.caltech.nanodb.storage.PageTuple;
 import edu.caltech.nanodb.storage.StorageManager;
+import edu.caltech.nanodb.storage.bitmapfile.Bitmap;
 import org.apache.log4j.Logger;
 
-import java.util.Iterator;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 
 /**
- * Allows updating bitmap indexes when a row is modified in the table
+ * Allows updating bitmap indexes when a row is modified in the table.  Bitmap join indexes
+ * whose values come from a table that was modified are rebuilt once the command that modified
+ * it is finished, since changing one row of that table can change the value of any number of
+ * rows in the join index.
  */
-public class BitmapIndexUpdater implements RowEventListener {
+public class BitmapIndexUpdater implements RowEventListener, CommandEventListener {
 
     private static Logger logger = Logger.getLogger(BitmapIndexUpdater.class);
 
     private BitmapIndexManager bitmapIndexManager;
 
+    /* The join indexes to rebuild when the current command is finished */
+    private LinkedHashSet<Map.Entry<TableInfo, String>> staleJoinIndexes;
+
     public BitmapIndexUpdater(StorageManager manager) {
         this.bitmapIndexManager = manager.getBitmapIndexManager();
+        this.staleJoinIndexes = new LinkedHashSet<Map.Entry<TableInfo, String>>();
+    }
+
+    @Override
+    public void beforeCommandExecuted(Command cmd) {
+        // Ignore.
+    }
+
+    @Override
+    public void afterCommandExecuted(Command cmd) {
+        try {
+            for (Map.Entry<TableInfo, String> index : staleJoinIndexes)
+                bitmapIndexManager.rebuildBitmapIndex(index.getKey(), index.getValue());
+        }
+        catch (IOException e) {
+            throw new EventDispatchException("Couldn't rebuild bitmap join indexes", e);
+        }
+        finally {
+            staleJoinIndexes.clear();
+        }
     }
 
     @Override
@@ -38,6 +71,7 @@ public class BitmapIndexUpdater implements RowEventListener {
 
         // Add the new row to any indexes on the table.
         addRowToBitmapIndexes(tblFileInfo, (PageTuple) newTuple);
+        findStaleJoinIndexes(tblFileInfo);
     }
 
     @Override
@@ -64,6 +98,7 @@ public class BitmapIndexUpdater implements RowEventListener {
 
         // Add the new row to any indexes on the table.
         addRowToBitmapIndexes(tblFileInfo, (PageTuple) newTuple);
+        findStaleJoinIndexes(tblFileInfo);
     }
 
     @Override
@@ -79,27 +114,77 @@ public class BitmapIndexUpdater implements RowEventListener {
 
     @Override
     public void afterRowDeleted(TableInfo tblFileInfo, Tuple oldValues) {
-        // Ignore.
+        findStaleJoinIndexes(tblFileInfo);
+    }
+
+    /**
+     * Notes that the join indexes whose values come from a table need to be rebuilt.
+     */
+    private void findStaleJoinIndexes(TableInfo info) {
+        try {
+            staleJoinIndexes.addAll(bitmapIndexManager.findJoinIndexesOn(info));
+        }
+        catch (IOException e) {
+            throw new EventDispatchException("Couldn't find bitmap join indexes on table " +
+                    info.getTableName(), e);
+        }
     }
 
     private void addRowToBitmapIndexes(TableInfo info, PageTuple tuple) {
-        Iterator<ColumnRefs> iter = info.getSchema().getBitmapIndexes().values().iterator();
-        while (iter.hasNext()) {
-            ColumnRefs refs = iter.next();
-            String attribute = info.getSchema().getColumnInfo(refs.getCol(0)).getName();
-            BitmapIndex index = bitmapIndexManager.openBitmapIndex(info, attribute);
-            index.addTuple(tuple);
+        List<BitmapIndex> indexes = openBitmapIndexes(info);
+        if (indexes.isEmpty())
+            return;
+
+        try {
+            // The row has the same position in every index on the table
+            int rowId = bitmapIndexManager.getRowIds(info).addRow(tuple);
+            for (BitmapIndex index : indexes)
+                index.addTuple(rowId, tuple);
+        }
+        catch (IOException e) {
+            throw new EventDispatchException("Couldn't update bitmap indexes for table " +
+                    info.getTableName(), e);
         }
-        // Iterate through indexes on the table
     }
 
     private void removeRowFromBitmapIndexes(TableInfo info, PageTuple tuple) {
-        Iterator<ColumnRefs> iter = info.getSchema().getBitmapIndexes().values().iterator();
-        while (iter.hasNext()) {
-            ColumnRefs refs = iter.next();
-            String attribute = info.getSchema().getColumnInfo(refs.getCol(0)).getName();
-            BitmapIndex index = bitmapIndexManager.openBitmapIndex(info, attribute);
-            index.removeTuple(tuple);
+        List<BitmapIndex> indexes = openBitmapIndexes(info);
+        if (indexes.isEmpty())
+            return;
+
+        try {
+            // Any index can narrow down where the row might be; it has the row's value.  Join
+            // indexes are avoided, since the rows they refer to may have changed already.
+            BitmapIndex candidateIndex = indexes.get(0);
+            for (BitmapIndex index : indexes) {
+                if (!index.isJoinIndex()) {
+                    candidateIndex = index;
+                    break;
+                }
+            }
+            Bitmap candidates = candidateIndex.isJoinIndex() ?
+                    candidateIndex.getExistence() : candidateIndex.getMatchingRows(tuple);
+
+            BitmapRowIds rowIds = bitmapIndexManager.getRowIds(info);
+            int rowId = rowIds.findRow(tuple, candidates);
+            for (BitmapIndex index : indexes)
+                index.removeTuple(rowId, tuple);
+
+            rowIds.removeRow(rowId);
+        }
+        catch (IOException e) {
+            throw new EventDispatchException("Couldn't update bitmap indexes for table " +
+                    info.getTableName(), e);
         }
     }
+
+    /**
+     * Opens every bitmap index on a table.
+     */
+    private List<BitmapIndex> openBitmapIndexes(TableInfo info) {
+        ArrayList<BitmapIndex> indexes = new ArrayList<BitmapIndex>();
+        for (String attribute : bitmapIndexManager.getIndexedAttributes(info))
+            indexes.add(bitmapIndexManager.openBitmapIndex(info, attribute));
+        return indexes;
+    }
 }
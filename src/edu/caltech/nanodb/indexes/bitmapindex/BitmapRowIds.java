@@ -0,0 +1,210 @@
+package edu.caltech.nanodb.indexes.bitmapindex;
+
+import edu.caltech.nanodb.expressions.TupleComparator;
+import edu.caltech.nanodb.expressions.TupleLiteral;
+import edu.caltech.nanodb.relations.ColumnInfo;
+import edu.caltech.nanodb.relations.TableInfo;
+import edu.caltech.nanodb.relations.TableSchema;
+import edu.caltech.nanodb.relations.Tuple;
+import edu.caltech.nanodb.storage.DBFile;
+import edu.caltech.nanodb.storage.DBFileType;
+import edu.caltech.nanodb.storage.InvalidFilePointerException;
+import edu.caltech.nanodb.storage.PageTuple;
+import edu.caltech.nanodb.storage.SequentialTupleFile;
+import edu.caltech.nanodb.storage.StorageManager;
+import edu.caltech.nanodb.storage.TupleFile;
+import edu.caltech.nanodb.storage.bitmapfile.Bitmap;
+import edu.caltech.nanodb.storage.bitmapfile.BitSetIterator;
+import edu.caltech.nanodb.storage.heapfile.HeapTupleFile;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+
+/**
+ * Maps the rows of a table to their positions in the table's bitmap indexes, which are the same
+ * for every bitmap index on the table. The rows of a heap table are at their dense row IDs in the
+ * heap file (see {@link HeapTupleFile#getRowId}), since heap tuples never move.
+ * <p>
+ * Tuples in a B<sup>+</sup> tree table move whenever a tuple is added before them in their leaf,
+ * or their leaf is split or merged, so the table's rows are given positions by a <em>mapping
+ * table</em>:  a heap file that holds a copy of each row, at the row's position. A row is found
+ * in the table from its copy, since B<sup>+</sup> tree tables are ordered by all of their
+ * columns; the same works for any other {@link SequentialTupleFile}. Going the other way, the
+ * mapping table only has to be searched among the rows with the same value in an indexed column,
+ * which the bitmap indexes find. Rows with the same values in every column can't be told apart,
+ * so it doesn't matter which of their positions is used.
+ */
+public class BitmapRowIds {
+    private static Logger logger = Logger.getLogger(BitmapRowIds.class);
+
+    private TableInfo table;
+
+    private StorageManager storageManager;
+
+    /* The mapping table of a B+ tree table, or null if it isn't open or the table is a heap */
+    private HeapTupleFile mappingFile;
+
+    public BitmapRowIds(TableInfo table, StorageManager storageManager) {
+        this.table = table;
+        this.storageManager = storageManager;
+    }
+
+    /**
+     * Returns true if the table's rows are positioned by a mapping table.
+     */
+    public boolean usesMappingTable() {
+        return !(table.getTupleFile() instanceof HeapTupleFile);
+    }
+
+    /**
+     * Returns the heap file whose row IDs are the positions of the table's rows, and whose
+     * tuples have the values of the rows:  the table itself, or its mapping table. The mapping
+     * table is opened when it is first needed, and built if it doesn't exist yet.
+     */
+    public HeapTupleFile getRowFile() throws IOException {
+        if (!usesMappingTable())
+            return (HeapTupleFile) table.getTupleFile();
+
+        if (!(table.getTupleFile() instanceof SequentialTupleFile)) {
+            throw new IllegalArgumentException("Bitmap indexes can't be used on table " +
+                    table.getTableName() + ", which isn't a heap or sequential table");
+        }
+
+        if (mappingFile == null) {
+            String fileName = getMappingFileName(table.getTableName());
+            if (storageManager.getFileManager().fileExists(fileName)) {
+                DBFile dbFile = storageManager.openDBFile(fileName);
+                mappingFile = (HeapTupleFile) storageManager.getTupleFileManager(
+                        DBFileType.HEAP_TUPLE_FILE).openTupleFile(dbFile);
+            } else {
+                buildMappingTable(fileName);
+            }
+        }
+        return mappingFile;
+    }
+
+    /**
+     * Creates the mapping table, and copies every row of the table into it.
+     */
+    private void buildMappingTable(String fileName) throws IOException {
+        logger.info("Building bitmap row mapping table for " + table.getTableName());
+
+        TableSchema schema = new TableSchema();
+        for (ColumnInfo colInfo : table.getSchema().getColumnInfos())
+            schema.addColumnInfo(colInfo);
+
+        DBFile dbFile = storageManager.createDBFile(fileName, DBFileType.HEAP_TUPLE_FILE);
+        mappingFile = (HeapTupleFile) storageManager.getTupleFileManager(
+                DBFileType.HEAP_TUPLE_FILE).createTupleFile(dbFile, schema);
+
+        TupleFile tupleFile = table.getTupleFile();
+        Tuple tuple = tupleFile.getFirstTuple();
+        while (tuple != null) {
+            mappingFile.addTuple(new TupleLiteral(tuple));
+            tuple = tupleFile.getNextTuple(tuple);
+        }
+    }
+
+    /**
+     * Gives a position to a row that was just added to the table, and returns it.
+     */
+    public int addRow(PageTuple tuple) throws IOException {
+        if (!usesMappingTable())
+            return getRowFile().getRowId(tuple.getExternalReference());
+
+        HeapTupleFile rowFile = getRowFile();
+        PageTuple copy = (PageTuple) rowFile.addTuple(new TupleLiteral(tuple));
+        return rowFile.getRowId(copy.getExternalReference());
+    }
+
+    /**
+     * Returns the position of a row of the table.
+     *
+     * @param tuple the row
+     * @param candidates the positions the row may be at, such as the rows with the same value in
+     *        an indexed column; only used for tables with a mapping table
+     *
+     * @throws IllegalArgumentException if the row isn't at any of the candidate positions
+     */
+    public int findRow(PageTuple tuple, Bitmap candidates) throws IOException {
+        HeapTupleFile rowFile = getRowFile();
+        if (!usesMappingTable())
+            return rowFile.getRowId(tuple.getExternalReference());
+
+        BitSetIterator iterator = candidates.iterator();
+        while (iterator.hasNext()) {
+            int rowId = iterator.next();
+            Tuple copy = getMappedRow(rowId);
+            if (copy != null && TupleComparator.areTuplesEqual(copy, tuple))
+                return rowId;
+        }
+        throw new IllegalArgumentException("Row isn't in the bitmap indexes:  " + tuple);
+    }
+
+    /**
+     * Frees the position of a row that is being removed from the table.
+     */
+    public void removeRow(int rowId) throws IOException {
+        if (!usesMappingTable())
+            return;
+
+        Tuple copy = getMappedRow(rowId);
+        if (copy == null)
+            throw new IllegalArgumentException("No row at position " + rowId);
+
+        mappingFile.deleteTuple(copy);
+    }
+
+    /**
+     * Returns the row of the table at a position.
+     */
+    public Tuple getTuple(int rowId) throws InvalidFilePointerException, IOException {
+        HeapTupleFile rowFile = getRowFile();
+        if (!usesMappingTable())
+            return rowFile.getTuple(rowFile.getFilePointer(rowId));
+
+        Tuple copy = getMappedRow(rowId);
+        if (copy == null)
+            throw new InvalidFilePointerException("No row at position " + rowId);
+
+        return ((SequentialTupleFile) table.getTupleFile()).findFirstTupleEquals(copy);
+    }
+
+    /**
+     * Returns the copy of a row in the mapping table, or null if there is no row at the position.
+     */
+    private Tuple getMappedRow(int rowId) throws IOException {
+        try {
+            return mappingFile.getTuple(mappingFile.getFilePointer(rowId));
+        } catch (InvalidFilePointerException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Deletes the mapping table, if the table has one. It is built again when it is next needed.
+     */
+    public void drop() throws IOException {
+        if (!usesMappingTable())
+            return;
+
+        String fileName = getMappingFileName(table.getTableName());
+        DBFile dbFile = (mappingFile != null) ? mappingFile.getDBFile() :
+                storageManager.getBufferManager().getFile(fileName);
+        if (dbFile != null) {
+            storageManager.getBufferManager().removeDBFile(dbFile);
+            storageManager.getFileManager().closeDBFile(dbFile);
+        }
+        if (storageManager.getFileManager().fileExists(fileName))
+            storageManager.getFileManager().deleteDBFile(fileName);
+
+        mappingFile = null;
+    }
+
+    /**
+     * Returns the name of the file that holds the mapping table of a table.
+     */
+    public static String getMappingFileName(String table) {
+        return BitmapIndex.getIndexFileName(table, "") + "rows";
+    }
+}
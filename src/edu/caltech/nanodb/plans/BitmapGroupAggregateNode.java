@@ -0,0 +1,299 @@
+package edu.caltech.nanodb.plans;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import edu.caltech.nanodb.expressions.Expression;
+import edu.caltech.nanodb.expressions.FunctionCall;
+import edu.caltech.nanodb.expressions.OrderByExpression;
+import edu.caltech.nanodb.expressions.TupleLiteral;
+import edu.caltech.nanodb.functions.Count;
+import edu.caltech.nanodb.functions.CountDistinct;
+import edu.caltech.nanodb.functions.CountStar;
+import edu.caltech.nanodb.functions.Function;
+import edu.caltech.nanodb.indexes.bitmapindex.BitmapIndex;
+import edu.caltech.nanodb.indexes.bitmapindex.BitmapIndexManager;
+import edu.caltech.nanodb.qeval.PlanCost;
+import edu.caltech.nanodb.relations.SQLDataType;
+import edu.caltech.nanodb.relations.TableInfo;
+import edu.caltech.nanodb.relations.Tuple;
+import edu.caltech.nanodb.storage.bitmapfile.Bitmap;
+import org.apache.log4j.Logger;
+
+/**
+ * Computes <tt>COUNT(*)</tt>, <tt>COUNT(col)</tt> and <tt>COUNT(DISTINCT col)</tt>, grouped by
+ * zero or more columns, entirely from bitmap indexes. The child is a {@link BitmapIndexScanNode}
+ * that selects the rows, but its tuples are never read; instead each group is the AND of the
+ * selected rows with the bitmap of one value of each grouping column, and the counts are the
+ * cardinalities of bitmaps. The grouping columns and the columns being counted must all have
+ * bitmap indexes; see {@link #canComputeAggregates}.
+ * <p>
+ * Like {@link HashedGroupAggregateNode}, this node produces no groups at all when no rows are
+ * selected, and <tt>COUNT(col)</tt> is 0 for a group where every value of the column is NULL.
+ */
+public class BitmapGroupAggregateNode extends GroupAggregateNode {
+    private static Logger logger = Logger.getLogger(BitmapGroupAggregateNode.class);
+
+    private TableInfo tableInfo;
+
+    private BitmapIndexManager bitmapIndexManager;
+
+    /* The indexes on the grouping columns, in the same order as the group-by expressions */
+    private List<BitmapIndex> groupIndexes;
+
+    /* The index on the column each aggregate counts, or null for COUNT(*) */
+    private List<BitmapIndex> aggregateIndexes;
+
+    /* The result tuples, computed the first time a tuple is requested */
+    private List<TupleLiteral> groups;
+
+    private Iterator<TupleLiteral> groupIterator;
+
+
+    public BitmapGroupAggregateNode(BitmapIndexScanNode subplan, List<Expression> groupByExprs,
+                                    Map<String, FunctionCall> aggregates, TableInfo tableInfo,
+                                    BitmapIndexManager bitmapIndexManager) {
+        super(subplan, groupByExprs, aggregates);
+        this.tableInfo = tableInfo;
+        this.bitmapIndexManager = bitmapIndexManager;
+    }
+
+    /**
+     * Returns true if the grouping and aggregates of a query on a table can be computed from
+     * the table's bitmap indexes alone. This is the case if every group-by expression is a
+     * column with a bitmap index, and every aggregate is <tt>COUNT(*)</tt>, or a
+     * <tt>COUNT(col)</tt> or <tt>COUNT(DISTINCT col)</tt> of a column with a bitmap index.
+     * The index must be able to list the values of the grouping columns and of the columns
+     * counted with <tt>DISTINCT</tt>; see {@link BitmapIndex#canListValues}.
+     */
+    public static boolean canComputeAggregates(List<Expression> groupByExprs,
+                                               Map<String, FunctionCall> aggregates,
+                                               BitmapIndexManager bitmapIndexManager,
+                                               TableInfo tableInfo) {
+        for (Expression expr : groupByExprs) {
+            if (!canListValues(expr, bitmapIndexManager, tableInfo))
+                return false;
+        }
+
+        for (FunctionCall call : aggregates.values()) {
+            Function function = call.getFunction();
+            if (function instanceof CountStar)
+                continue;
+
+            if (call.getArguments().size() != 1)
+                return false;
+
+            Expression arg = call.getArguments().get(0);
+            if (function instanceof CountDistinct) {
+                if (!canListValues(arg, bitmapIndexManager, tableInfo))
+                    return false;
+            } else if (function instanceof Count) {
+                if (!BitmapIndexScanNode.isIndexedColumn(arg, bitmapIndexManager, tableInfo))
+                    return false;
+            } else {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns true if the expression is a column with a bitmap index that can list its values.
+     */
+    private static boolean canListValues(Expression expression,
+                                         BitmapIndexManager bitmapIndexManager,
+                                         TableInfo tableInfo) {
+        String attribute = BitmapIndexScanNode.getIndexedAttribute(expression, bitmapIndexManager, tableInfo);
+        if (attribute == null)
+            return false;
+
+        SQLDataType type = bitmapIndexManager.openBitmapIndex(tableInfo, attribute).getType();
+        return BitmapIndex.canListValues(type);
+    }
+
+    /**
+     * Opens the bitmap index on the column an expression refers to.
+     */
+    private BitmapIndex openIndex(Expression expression) {
+        String attribute = BitmapIndexScanNode.getIndexedAttribute(expression, bitmapIndexManager, tableInfo);
+        return bitmapIndexManager.openBitmapIndex(tableInfo, attribute);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj instanceof BitmapGroupAggregateNode) {
+            BitmapGroupAggregateNode other = (BitmapGroupAggregateNode) obj;
+
+            return groupByExprs.equals(other.groupByExprs) &&
+                    aggregates.equals(other.aggregates) &&
+                    leftChild.equals(other.leftChild);
+        }
+        return false;
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = 17;
+        hash = 31 * hash + groupByExprs.hashCode();
+        hash = 31 * hash + aggregates.hashCode();
+        hash = 31 * hash + leftChild.hashCode();
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return "BitmapGroupAggregate[groupBy=" + groupByExprs +
+                ", aggregates=" + aggregates + "]";
+    }
+
+    /**
+     * Groups come out in the order of the grouping columns' values, but NULL groups come last,
+     * so the results aren't reported as ordered.
+     */
+    public List<OrderByExpression> resultsOrderedBy() {
+        return null;
+    }
+
+    /** This node computes all of its groups at once, and doesn't support marking. */
+    public boolean supportsMarking() {
+        return false;
+    }
+
+    /** This node never reads tuples from its child, so it doesn't require marking. */
+    public boolean requiresLeftMarking() {
+        return false;
+    }
+
+    /** This node has only one child, so it doesn't require marking. */
+    public boolean requiresRightMarking() {
+        return false;
+    }
+
+    public void prepare() {
+        leftChild.prepare();
+        prepareSchemaStats();
+
+        groupIndexes = new ArrayList<BitmapIndex>();
+        for (Expression expr : groupByExprs)
+            groupIndexes.add(openIndex(expr));
+
+        aggregateIndexes = new ArrayList<BitmapIndex>();
+        for (FunctionCall call : aggregates.values()) {
+            if (call.getFunction() instanceof CountStar)
+                aggregateIndexes.add(null);
+            else
+                aggregateIndexes.add(openIndex(call.getArguments().get(0)));
+        }
+
+        // Only the bitmaps are read. Each group costs an AND per aggregate, and COUNT DISTINCT
+        // an AND per value of the column as well.
+        PlanCost childCost = leftChild.getCost();
+        cost = new PlanCost(estimatedNumTuples, childCost.tupleSize,
+                estimatedNumTuples * (1 + aggregates.size()), 0);
+    }
+
+    @Override
+    public void initialize() {
+        super.initialize();
+
+        groups = null;
+        groupIterator = null;
+        leftChild.initialize();
+    }
+
+    protected Tuple produceNextTuple() throws IllegalStateException, IOException {
+        if (groups == null) {
+            groups = new ArrayList<TupleLiteral>();
+            addGroups(((BitmapIndexScanNode) leftChild).getResult(), new TupleLiteral(), 0);
+            groupIterator = groups.iterator();
+            logger.info("Computed " + groups.size() + " groups from bitmap indexes on table " +
+                    tableInfo.getTableName());
+        }
+
+        if (groupIterator.hasNext())
+            return groupIterator.next();
+
+        return null;
+    }
+
+    /**
+     * Adds the result tuples for the groups of some rows, where the rows have already been split
+     * into groups by the first <tt>numGrouped</tt> grouping columns.
+     *
+     * @param rows the rows of the group
+     * @param groupValues the values of the first <tt>numGrouped</tt> grouping columns
+     * @param numGrouped the number of grouping columns the rows have been split by
+     */
+    private void addGroups(Bitmap rows, TupleLiteral groupValues, int numGrouped) {
+        if (rows.cardinality() == 0)
+            return;
+
+        if (numGrouped == groupIndexes.size()) {
+            groups.add(computeAggregates(rows, groupValues));
+            return;
+        }
+
+        BitmapIndex index = groupIndexes.get(numGrouped);
+        for (Object value : index.getValues()) {
+            addGroups(Bitmap.and(rows, index.getBitmap(value)),
+                    appendValue(groupValues, value), numGrouped + 1);
+        }
+        addGroups(Bitmap.and(rows, index.getNullBitmap()),
+                appendValue(groupValues, null), numGrouped + 1);
+    }
+
+    private static TupleLiteral appendValue(TupleLiteral tuple, Object value) {
+        TupleLiteral ret = new TupleLiteral();
+        ret.appendTuple(tuple);
+        ret.addValue(value);
+        return ret;
+    }
+
+    /**
+     * Makes the result tuple for a group, from the group's values and the rows in the group.
+     */
+    private TupleLiteral computeAggregates(Bitmap rows, TupleLiteral groupValues) {
+        TupleLiteral result = new TupleLiteral();
+        result.appendTuple(groupValues);
+
+        int i = 0;
+        for (FunctionCall call : aggregates.values()) {
+            BitmapIndex index = aggregateIndexes.get(i++);
+
+            int count;
+            if (index == null) {
+                count = rows.cardinality();
+            } else if (call.getFunction() instanceof CountDistinct) {
+                count = 0;
+                for (Object value : index.getValues()) {
+                    if (Bitmap.and(rows, index.getBitmap(value)).cardinality() > 0)
+                        count++;
+                }
+            } else {
+                count = Bitmap.andNot(rows, index.getNullBitmap()).cardinality();
+            }
+
+            result.addValue(count);
+        }
+        return result;
+    }
+
+    public void markCurrentPosition() throws UnsupportedOperationException {
+        throw new UnsupportedOperationException(
+                "Bitmap grouping/aggregate node doesn't support marking");
+    }
+
+    public void resetToLastMark() {
+        throw new UnsupportedOperationException(
+                "Bitmap grouping/aggregate node doesn't support marking");
+    }
+
+    public void cleanUp() {
+        groups = null;
+        groupIterator = null;
+        leftChild.cleanUp();
+    }
+}
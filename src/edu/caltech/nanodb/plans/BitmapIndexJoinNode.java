@@ -1,8 +1,10 @@
 package edu.caltech.nanodb.plans;
 
 import edu.caltech.nanodb.expressions.*;
+import edu.caltech.nanodb.qeval.PlanCost;
 import edu.caltech.nanodb.relations.JoinType;
 import edu.caltech.nanodb.relations.TableInfo;
+import edu.caltech.nanodb.relations.Tuple;
 import edu.caltech.nanodb.indexes.bitmapindex.BitmapIndexManager;
 import org.apache.log4j.Logger;
 
@@ -14,6 +16,13 @@ import java.util.Set;
  * indexes, i.e. it must be a FileScan or BitmapScan, and bitmaps must exist on some of the
  * attributes in the join predicate. The node does not use this child directly, but rather
  * uses bitmap index scans to access the table instead.
+ * <p>
+ * For each tuple of the left child, the join predicate is evaluated against the bitmap indexes
+ * of the right table, so the left child is the side that is scanned once. Inner joins put the
+ * smaller of the two children on the left if the bitmap indexes of either table can be used.
+ * Left and right outer joins are supported when the side whose tuples are all kept can be on
+ * the left. Semijoins, antijoins and cross joins aren't supported; the node is then not
+ * {@link #isValid valid}.
  */
 public class BitmapIndexJoinNode extends NestedLoopsJoinNode {
 
@@ -30,38 +39,62 @@ public class BitmapIndexJoinNode extends NestedLoopsJoinNode {
 
     boolean valid;
 
+    /** True if a right tuple has been joined to the current left tuple. */
+    private boolean leftMatched;
+
+    /** A tuple of NULLs, joined to the left tuples that match no right tuples in outer joins. */
+    private Tuple nullTuple;
+
     public BitmapIndexJoinNode(PlanNode left, PlanNode right, JoinType joinType, Expression predicate, BitmapIndexManager manager) {
         super(left, right, joinType, predicate);
         bitmapIndexManager = manager;
         rightExtraExpression = null;
-        valid = true;
 
-        // TODO if both left and right have indexes, choose the smaller table to be on the left
+        boolean solvable = canSolvePredicate(predicate);
+        swap();
+        boolean swappedSolvable = canSolvePredicate(predicate);
+        swap();
 
-        // Attempt to set up a bitmap index on the right side
-        if (rightChild instanceof FileScanNode) {
-            rightTable = ((FileScanNode) rightChild).getTableInfo();
-        } else if (rightChild instanceof BitmapIndexScanNode) {
-            rightTable = ((BitmapIndexScanNode) rightChild).getTableInfo();
-        }
+        boolean useSwapped;
+        switch (joinType) {
+            case INNER:
+                // Each left tuple is looked up in the bitmap indexes of the right table, so if
+                // either table can be looked up, scan the smaller one.
+                if (solvable && swappedSolvable)
+                    useSwapped = estimateTuples(leftChild) > estimateTuples(rightChild);
+                else
+                    useSwapped = swappedSolvable;
+
+                valid = solvable || swappedSolvable;
+                break;
 
-        // If it can't be solved the previous way, try again
-        if (!canSolvePredicate(predicate)) {
-            swap();
+            case LEFT_OUTER:
+                // The side whose tuples are all kept must be scanned, to find the tuples that
+                // match nothing.
+                useSwapped = false;
+                valid = solvable;
+                break;
 
-        }
+            case RIGHT_OUTER:
+                useSwapped = true;
+                valid = swappedSolvable;
+                break;
 
-        if (rightChild instanceof FileScanNode) {
-            rightTable = ((FileScanNode) rightChild).getTableInfo();
-        } else if (rightChild instanceof BitmapIndexScanNode) {
-            rightTable = ((BitmapIndexScanNode) rightChild).getTableInfo();
+            default:
+                // Semijoins and antijoins produce only the left side's columns, and cross joins
+                // have no predicate to evaluate with the bitmap indexes.
+                useSwapped = false;
+                valid = false;
         }
 
-        // If it can't be solved, then its invalid
-        if (canSolvePredicate(predicate)) {
+        if (useSwapped)
+            swap();
+
+        rightTable = getBitmapTable(rightChild);
+        if (valid) {
             if (rightChild instanceof FileScanNode) {
                 rightBitmapNode = new BitmapIndexScanNode(null, null, rightTable, manager);
-            } else if (rightChild instanceof BitmapIndexScanNode) {
+            } else {
                 try {
                     rightBitmapNode = (BitmapIndexScanNode) rightChild.clone();
                 } catch (CloneNotSupportedException e) {
@@ -69,27 +102,26 @@ public class BitmapIndexJoinNode extends NestedLoopsJoinNode {
                 }
                 rightExtraExpression = rightBitmapNode.getPredicate();
             }
-        } else {
-            valid = false;
         }
+    }
 
-        switch (joinType) {
-            case INNER:
-                break;
-            // TODO implement all the following joins. They are theoretically feasible
-            case RIGHT_OUTER:
-
-            case LEFT_OUTER:
-
-            case SEMIJOIN:
+    /**
+     * Returns the table that a child plan reads, if its tuples can be found with bitmap indexes
+     * instead of the plan itself.
+     */
+    private static TableInfo getBitmapTable(PlanNode child) {
+        if (child instanceof FileScanNode)
+            return ((FileScanNode) child).getTableInfo();
+        else if (child instanceof BitmapIndexScanNode)
+            return ((BitmapIndexScanNode) child).getTableInfo();
 
-            case ANTIJOIN:
+        return null;
+    }
 
-            case CROSS:
-                throw new RuntimeException("Not yet implemented");
-            default:
-                throw new IllegalArgumentException("Can't do bitmap joins with " + joinType);
-        }
+    /** Returns the estimated number of tuples a child plan produces, or 0 if it isn't known. */
+    private static float estimateTuples(PlanNode child) {
+        PlanCost cost = child.getCost();
+        return (cost != null) ? cost.numTuples : 0;
     }
 
     /**
@@ -98,6 +130,7 @@ public class BitmapIndexJoinNode extends NestedLoopsJoinNode {
      * index on that attribute, and the other element an attribute of the left table or a literal.
      */
     public boolean canSolvePredicate(Expression expression) {
+        rightTable = getBitmapTable(rightChild);
         if (rightTable == null) return false;
 
         Boolean ret = true;
@@ -147,57 +180,87 @@ public class BitmapIndexJoinNode extends NestedLoopsJoinNode {
         return ret;
     }
 
+    @Override
+    protected boolean supportsJoinType(JoinType joinType) {
+        return joinType == JoinType.INNER || joinType == JoinType.LEFT_OUTER ||
+            joinType == JoinType.RIGHT_OUTER;
+    }
+
+    @Override
+    public void initialize() {
+        super.initialize();
+
+        leftMatched = false;
+        nullTuple = new TupleLiteral(rightSchema.numColumns());
+    }
+
     @Override
     protected boolean getTuplesToJoin() throws IOException {
-        if (leftTuple == null && !done) {
-            leftTuple = leftChild.getNextTuple();
+        if (done)
+            return false;
+
+        // After joining a left tuple to NULLs, go on to the next left tuple.
+        if (rightTuple == nullTuple)
+            leftTuple = null;
+
+        while (true) {
             if (leftTuple == null) {
-                done = true;
-                return !done;
+                leftTuple = leftChild.getNextTuple();
+                if (leftTuple == null) {
+                    // Reached end of left relation.  All done.
+                    done = true;
+                    return false;
+                }
+
+                // Substitute the left tuple's values into the predicate, and find the right
+                // tuples that match it.
+                leftMatched = false;
+                environment.clear();
+                environment.addTuple(leftSchema, leftTuple);
+                Expression newpred = PredicateUtils.makePredicate(PredicateUtils.partiallyEvaluate(predicate, environment), rightExtraExpression);
+                rightBitmapNode.setPredicate(newpred);
             }
-            environment.clear();
-            environment.addTuple(leftSchema, leftTuple);
-            Expression newpred = PredicateUtils.makePredicate(PredicateUtils.partiallyEvaluate(predicate, environment), rightExtraExpression);
-            rightBitmapNode.setPredicate(newpred);
-        }
 
-        rightTuple = rightBitmapNode.getNextTuple();
-        while (rightTuple == null) {
-            // Reached end of right tuples. Need to get the next left tuple, substitute its values
-            // into the predicate, and set the right child to the new predicate.
-            leftTuple = leftChild.getNextTuple();
-            if (leftTuple == null) {
-                // Reached end of left relation.  All done.
-                done = true;
-                return !done;
+            rightTuple = rightBitmapNode.getNextTuple();
+            if (rightTuple != null) {
+                leftMatched = true;
+                return true;
             }
 
-            environment.clear();
-            environment.addTuple(leftSchema, leftTuple);
-            Expression newpred = PredicateUtils.makePredicate(PredicateUtils.partiallyEvaluate(predicate, environment), rightExtraExpression);
-            rightBitmapNode.setPredicate(newpred);
+            // Reached end of the matching right tuples. In an outer join, a left tuple that
+            // matched nothing is joined to NULLs; the left side is always the one that is kept.
+            if (!leftMatched && joinType != JoinType.INNER) {
+                rightTuple = nullTuple;
+                return true;
+            }
 
-            rightTuple = rightBitmapNode.getNextTuple();
+            leftTuple = null;
         }
-
-        return !done;
     }
 
     @Override
     protected boolean canJoinTuples() {
-        // TODO eventually handle extra predicates on the right side
+        // The bitmap scan only produces right tuples that satisfy the join predicate, as well as
+        // the right child's own predicate.
         return true;
     }
 
-    //TODO mark and reset
+    /** The node reads the right table through its own bitmap scans, so it can't mark positions. */
     @Override
-    public void markCurrentPosition() {
+    public boolean supportsMarking() {
+        return false;
+    }
 
+    @Override
+    public void markCurrentPosition() {
+        throw new UnsupportedOperationException(
+            "Bitmap index join node doesn't support marking");
     }
 
     @Override
     public void resetToLastMark() {
-
+        throw new UnsupportedOperationException(
+            "Bitmap index join node doesn't support marking");
     }
 
     public boolean isValid() {
@@ -2,28 +2,47 @@ package edu.caltech.nanodb.plans;
 
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import edu.caltech.nanodb.expressions.*;
 import edu.caltech.nanodb.qeval.PlanCost;
+import edu.caltech.nanodb.relations.BitmapJoinColumnRefs;
+import edu.caltech.nanodb.relations.ColumnRefs;
+import edu.caltech.nanodb.relations.SQLDataType;
 import edu.caltech.nanodb.relations.TableInfo;
+import edu.caltech.nanodb.relations.TableSchema;
 import edu.caltech.nanodb.relations.Tuple;
+import edu.caltech.nanodb.storage.bitmapfile.BitSetIterator;
 import edu.caltech.nanodb.storage.bitmapfile.Bitmap;
 import edu.caltech.nanodb.indexes.bitmapindex.BitmapIndex;
 import edu.caltech.nanodb.indexes.bitmapindex.BitmapIndexManager;
 import org.apache.log4j.Logger;
 
 import edu.caltech.nanodb.qeval.TableStats;
-import edu.caltech.nanodb.storage.FilePointer;
 import edu.caltech.nanodb.storage.InvalidFilePointerException;
 import edu.caltech.nanodb.storage.TupleFile;
 
 
 
 /**
- * A Bitmap Index Scan node. Allows a predicate composed of column equalities
- * to be evaluated very quickly when on a table with bitmap indexes.
+ * A Bitmap Index Scan node. Allows a predicate composed of column equalities,
+ * ranges, IN lists and NULL checks to be evaluated very quickly when on a table
+ * with bitmap indexes.
+ * <p>
+ * The predicate is evaluated into a single bitmap of the matching rows, and the
+ * rows are then read by iterating through the set bits of that bitmap, which
+ * visits a heap table's pages in order.  The matching rows are never listed out
+ * ahead of time, so the memory the scan needs depends on the size of the
+ * bitmap rather than the number of rows.
+ * <p>
+ * Equalities on all the columns of a composite bitmap index, in the same AND,
+ * are evaluated together with that index.  Columns of other tables can be
+ * used if the table has bitmap join indexes on them.
  */
 public class BitmapIndexScanNode extends SelectNode {
 
@@ -37,15 +56,20 @@ public class BitmapIndexScanNode extends SelectNode {
     /** The table that the index is built against. */
     private TupleFile tableTupleFile;
 
-    private FilePointer[] pointers;
+    /** The rows selected by the predicate, as positions in the bitmap indexes. */
+    private Bitmap result;
+
+    /** Iterates through the result, or null if the scan hasn't started. */
+    private BitSetIterator iterator;
+
+    /** The position of the current tuple, or -1 if there is none. */
+    private int currentPosition;
 
     /**
      * This field allows the index-scan node to mark a particular tuple in the
      * tuple-stream and then rewind to that point in the tuple-stream.
      */
-    private int markedTupleIndex;
-
-    private int currentTupleIndex;
+    private int markedPosition;
 
     private boolean jumpToMarkedTuple;
 
@@ -70,27 +94,36 @@ public class BitmapIndexScanNode extends SelectNode {
      * Sets the predicate to a new value, and recalculates the tuple results. Also resets the node.
      */
     public void setPredicate(Expression predicate) {
-        if (predicate == this.predicate && this.pointers != null) return;
+        if (predicate == this.predicate && this.result != null) return;
         if (currentTuple != null)
             logger.error("ERROR setting a predicate when all tuples are not finished");
 
         this.predicate = predicate;
-        Bitmap bitmap = bitmapIndexManager.getExistenceBitmap(tableInfo);
+        Bitmap existence = bitmapIndexManager.getExistenceBitmap(tableInfo);
 
-        // Evaluate the expression into a bitmap and pull file pointers from it
-        if (predicate != null) {
-            bitmap = Bitmap.and(bitmap, processExpression(predicate));
-        }
-        pointers = new FilePointer[bitmap.cardinality()];
-        int[] indexes = bitmap.toArray();
-        for (int i = 0; i < pointers.length; i++) {
-            pointers[i] = BitmapIndex.getPointer(indexes[i]);
+        // Evaluate the expression into a bitmap. The result is always a new bitmap, so rows
+        // changed while the scan is running don't change which rows it visits.
+        if (predicate == null) {
+            result = existence.clone();
+        } else {
+            // The terms of a top-level AND are combined with the existence bitmap all at once
+            ArrayList<Bitmap> terms = new ArrayList<Bitmap>();
+            terms.add(existence);
+            if (predicate instanceof BooleanOperator &&
+                    ((BooleanOperator) predicate).getType() == BooleanOperator.Type.AND_EXPR) {
+                terms.addAll(processConjuncts(getTerms((BooleanOperator) predicate)));
+            } else {
+                terms.add(processExpression(predicate));
+            }
+            result = Bitmap.and(terms);
         }
 
-        currentTupleIndex = 0;
+        iterator = null;
+        currentPosition = -1;
+        markedPosition = -1;
         jumpToMarkedTuple = false;
         done = false;
-        logger.info("Used a BitmapIndexScan to pull " + pointers.length + " values from table " + tableInfo.getTableName());
+        logger.info("Used a BitmapIndexScan to pull " + result.cardinality() + " values from table " + tableInfo.getTableName());
     }
 
     /**
@@ -101,9 +134,13 @@ public class BitmapIndexScanNode extends SelectNode {
      * <ul>
      *     <li>AND, OR, and NOT expression composed of expressions that can be evaluated
      *     by bitmaps</li>
-     *     <li>An = or != expression comparing a column value to a literal value where
-     *     there exists a bitmap index on the column</li>
+     *     <li>An =, !=, &lt;, &lt;=, &gt; or &gt;= expression comparing a column value to a
+     *     literal value where there exists a bitmap index on the column (BETWEEN is parsed
+     *     into two of these)</li>
+     *     <li>An IN expression comparing a column value to a list of literal values</li>
+     *     <li>An IS NULL or IS NOT NULL expression on a column value</li>
      * </ul>
+     * Comparisons, IN and IS NOT NULL never select rows whose value is NULL.
      */
     public Bitmap processExpression(Expression expression) {
         Bitmap ret;
@@ -114,14 +151,15 @@ public class BitmapIndexScanNode extends SelectNode {
             int numTerms = booleanOperator.getNumTerms();
             switch (booleanOperator.getType()) {
                 case AND_EXPR:
-                    ret = processExpression(booleanOperator.getTerm(0));
-                    for (int i = 1; i < numTerms; i++)
-                        ret = Bitmap.and(ret, processExpression(booleanOperator.getTerm(i)));
+                    // Combine all the terms at once, rather than a pair at a time
+                    ret = Bitmap.and(processConjuncts(getTerms(booleanOperator)));
                     break;
                 case OR_EXPR:
-                    ret = processExpression(booleanOperator.getTerm(0));
-                    for (int i = 1; i < numTerms; i++)
-                        ret = Bitmap.or(ret, processExpression(booleanOperator.getTerm(i)));
+                    ArrayList<Bitmap> terms = new ArrayList<Bitmap>(numTerms);
+                    for (int i = 0; i < numTerms; i++)
+                        terms.add(processExpression(booleanOperator.getTerm(i)));
+
+                    ret = Bitmap.or(terms);
                     break;
                 case NOT_EXPR:
                     // The NOT operation is replicated by taking the xor of the existence bitmap with this bitmap
@@ -131,47 +169,188 @@ public class BitmapIndexScanNode extends SelectNode {
                     throw new IllegalArgumentException("Unrecognized boolean type");
             }
         } else if (expression instanceof CompareOperator) {
-            // Check whether expression is an equality with a literal
+            // Check whether expression is a comparison with a literal
             CompareOperator compareOperator = (CompareOperator) expression;
-            Expression left = compareOperator.getLeftExpression();
-            Expression right = compareOperator.getRightExpression();
+            Expression left = foldConstant(compareOperator.getLeftExpression());
+            Expression right = foldConstant(compareOperator.getRightExpression());
+            CompareOperator.Type type = compareOperator.getType();
 
             if (left instanceof LiteralValue && right instanceof ColumnValue) {
-                // Swap left and right
+                // Swap left and right, which flips the comparison
                 Expression temp = right;
                 right = left;
                 left = temp;
+                type = type.flip();
             }
 
             if (!(right instanceof LiteralValue && left instanceof ColumnValue))
                 throw new IllegalArgumentException("Can only process columns and literals");
 
-            // Check if an index actually exists on this column
-            String columnName = ((ColumnValue) left).getColumnName().getColumnName();
-            if (!bitmapIndexManager.bitmapIndexExists(tableInfo.getSchema(), columnName))
-                throw new IllegalArgumentException("No bitmap index on this column");
+            BitmapIndex index = openIndex((ColumnValue) left);
+            Object value = right.evaluate();
 
-            String value = String.valueOf(right.evaluate());
+            // Nothing compares equal (or unequal) to NULL
+            if (value == null)
+                return Bitmap.emptyBitmap();
 
             // Construct the bitmap result
-            switch (compareOperator.getType()) {
+            switch (type) {
                 case EQUALS:
-                    ret = bitmapIndexManager.openBitmapIndex(tableInfo, columnName).getBitmapWithDefault(value);
+                    ret = index.getBitmapWithDefault(value);
                     break;
                 case NOT_EQUALS:
-                    // Add a NOT operation over the equals
-                    ret = bitmapIndexManager.openBitmapIndex(tableInfo, columnName).getBitmapWithDefault(value);
-                    ret = Bitmap.xor(ret, bitmapIndexManager.getExistenceBitmap(tableInfo));
+                    // Take the rows with a value, except for the ones with this value
+                    ret = Bitmap.andNot(index.getNonNullBitmap(), index.getBitmapWithDefault(value));
+                    break;
+                case LESS_THAN:
+                    ret = index.getRangeBitmap(null, false, value, false);
+                    break;
+                case LESS_OR_EQUAL:
+                    ret = index.getRangeBitmap(null, false, value, true);
+                    break;
+                case GREATER_THAN:
+                    ret = index.getRangeBitmap(value, false, null, false);
+                    break;
+                case GREATER_OR_EQUAL:
+                    ret = index.getRangeBitmap(value, true, null, false);
                     break;
                 default:
                     throw new UnsupportedOperationException("Can't do other comparisons with bitmaps");
             }
+        } else if (expression instanceof InOperator) {
+            // An IN list is the or of the bitmaps of its values
+            InOperator inOperator = (InOperator) expression;
+            BitmapIndex index = openIndex((ColumnValue) inOperator.getExpression());
+
+            ArrayList<Bitmap> maps = new ArrayList<Bitmap>();
+            for (Expression valueExpr : inOperator.getValues()) {
+                Object value = foldConstant(valueExpr).evaluate();
+                if (value != null)
+                    maps.add(index.getBitmapWithDefault(value));
+            }
+            ret = Bitmap.or(maps);
+        } else if (expression instanceof IsNullOperator) {
+            IsNullOperator isNullOperator = (IsNullOperator) expression;
+            BitmapIndex index = openIndex((ColumnValue) isNullOperator.getExpression());
+
+            if (isNullOperator.isInverted())
+                ret = index.getNonNullBitmap();
+            else
+                ret = index.getNullBitmap();
         } else {
             throw new IllegalArgumentException("Can't use bitmaps with this expression");
         }
         return ret;
     }
 
+    /**
+     * Evaluates the terms of an AND, returning a bitmap for each term, or for each group of
+     * terms that a composite index evaluates together.
+     */
+    private List<Bitmap> processConjuncts(List<Expression> terms) {
+        ArrayList<Bitmap> ret = new ArrayList<Bitmap>();
+
+        HashSet<Expression> evaluated = new HashSet<Expression>();
+        Map<String, List<Expression>> compositeTerms =
+                findCompositeTerms(terms, bitmapIndexManager, tableInfo);
+        for (Map.Entry<String, List<Expression>> entry : compositeTerms.entrySet()) {
+            List<Expression> group = entry.getValue();
+            Object[] values = new Object[group.size()];
+            for (int i = 0; i < values.length; i++)
+                values[i] = splitEquality(group.get(i))[1].evaluate();
+
+            BitmapIndex index = bitmapIndexManager.openBitmapIndex(tableInfo, entry.getKey());
+            ret.add(index.getCompositeBitmap(values));
+            evaluated.addAll(group);
+        }
+
+        for (Expression term : terms) {
+            if (!evaluated.contains(term))
+                ret.add(processExpression(term));
+        }
+        return ret;
+    }
+
+    private static List<Expression> getTerms(BooleanOperator booleanOperator) {
+        ArrayList<Expression> terms = new ArrayList<Expression>();
+        for (int i = 0; i < booleanOperator.getNumTerms(); i++)
+            terms.add(booleanOperator.getTerm(i));
+        return terms;
+    }
+
+    /**
+     * Finds the terms of an AND that composite bitmap indexes can evaluate:  an equality
+     * between each of the index's columns and a literal.  Each term is used by at most one
+     * index.
+     *
+     * @return the terms used by each composite index, in the order of the index's columns, by
+     *         the attribute of the index
+     */
+    private static Map<String, List<Expression>> findCompositeTerms(List<Expression> terms,
+            BitmapIndexManager bitmapIndexManager, TableInfo tableInfo) {
+        LinkedHashMap<String, List<Expression>> ret = new LinkedHashMap<String, List<Expression>>();
+        TableSchema schema = tableInfo.getSchema();
+
+        HashSet<Expression> used = new HashSet<Expression>();
+        for (ColumnRefs refs : schema.getBitmapIndexes().values()) {
+            if (refs.size() < 2 || refs instanceof BitmapJoinColumnRefs)
+                continue;
+
+            ArrayList<Expression> group = new ArrayList<Expression>();
+            for (int i = 0; i < refs.size(); i++) {
+                String columnName = schema.getColumnInfo(refs.getCol(i)).getName();
+                for (Expression term : terms) {
+                    Expression[] sides = splitEquality(term);
+                    if (sides != null && !used.contains(term) && !group.contains(term) &&
+                            isTableColumn((ColumnValue) sides[0], bitmapIndexManager, tableInfo) &&
+                            ((ColumnValue) sides[0]).getColumnName().getColumnName().equals(columnName)) {
+                        group.add(term);
+                        break;
+                    }
+                }
+            }
+
+            if (group.size() == refs.size()) {
+                used.addAll(group);
+                ret.put(BitmapIndexManager.getIndexAttribute(schema, refs), group);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Splits an equality between a column and a literal into the column and the literal,
+     * or returns null if the expression isn't one.
+     */
+    private static Expression[] splitEquality(Expression expression) {
+        if (!(expression instanceof CompareOperator))
+            return null;
+
+        CompareOperator compareOperator = (CompareOperator) expression;
+        if (compareOperator.getType() != CompareOperator.Type.EQUALS)
+            return null;
+
+        Expression left = foldConstant(compareOperator.getLeftExpression());
+        Expression right = foldConstant(compareOperator.getRightExpression());
+        if (left instanceof LiteralValue && right instanceof ColumnValue)
+            return new Expression[] {right, left};
+        if (left instanceof ColumnValue && right instanceof LiteralValue)
+            return new Expression[] {left, right};
+        return null;
+    }
+
+    /**
+     * Opens the bitmap index on a column, which must exist.
+     */
+    private BitmapIndex openIndex(ColumnValue columnValue) {
+        // Check if an index actually exists on this column
+        String attribute = getIndexedAttribute(columnValue, bitmapIndexManager, tableInfo);
+        if (attribute == null)
+            throw new IllegalArgumentException("No bitmap index on this column");
+
+        return bitmapIndexManager.openBitmapIndex(tableInfo, attribute);
+    }
+
     /**
      * Returns true if the given expression is in a format that can be solved by bitmap indexes, and false
      * in other cases.
@@ -182,6 +361,11 @@ public class BitmapIndexScanNode extends SelectNode {
      *     by bitmaps</li>
      *     <li>An = or != expression comparing a column value to a literal value where
      *     there exists a bitmap index on the column</li>
+     *     <li>A &lt;, &lt;=, &gt; or &gt;= expression comparing a column value to a literal
+     *     value that the column's bitmap index can compare ranges against; see
+     *     {@link BitmapIndex#canCompareRange}</li>
+     *     <li>An IN expression comparing an indexed column value to a list of literal values</li>
+     *     <li>An IS NULL or IS NOT NULL expression on an indexed column value</li>
      * </ul>
      */
     public static boolean canProcessExpression(Expression expression, BitmapIndexManager bitmapIndexManager, TableInfo tableInfo) {
@@ -192,8 +376,16 @@ public class BitmapIndexScanNode extends SelectNode {
             int numTerms = booleanOperator.getNumTerms();
             switch (booleanOperator.getType()) {
                 case AND_EXPR:
-                    for (int i = 0; i < numTerms; i++)
-                        ret &= canProcessExpression(booleanOperator.getTerm(i), bitmapIndexManager, tableInfo);
+                    // Terms that composite indexes evaluate together don't need indexes of their own
+                    List<Expression> terms = getTerms(booleanOperator);
+                    HashSet<Expression> composite = new HashSet<Expression>();
+                    for (List<Expression> group : findCompositeTerms(terms, bitmapIndexManager, tableInfo).values())
+                        composite.addAll(group);
+
+                    for (Expression term : terms) {
+                        if (!composite.contains(term))
+                            ret &= canProcessExpression(term, bitmapIndexManager, tableInfo);
+                    }
                     break;
                 case OR_EXPR:
                     for (int i = 0; i < numTerms; i++)
@@ -206,10 +398,10 @@ public class BitmapIndexScanNode extends SelectNode {
                     ret = false;
             }
         } else if (expression instanceof CompareOperator) {
-            // Check whether expression is an equality with a literal
+            // Check whether expression is a comparison with a literal
             CompareOperator compareOperator = (CompareOperator) expression;
-            Expression left = compareOperator.getLeftExpression();
-            Expression right = compareOperator.getRightExpression();
+            Expression left = foldConstant(compareOperator.getLeftExpression());
+            Expression right = foldConstant(compareOperator.getRightExpression());
 
             if (left instanceof LiteralValue && right instanceof ColumnValue) {
                 // Swap left and right
@@ -218,15 +410,8 @@ public class BitmapIndexScanNode extends SelectNode {
                 left = temp;
             }
 
-            if (!(right instanceof LiteralValue && left instanceof ColumnValue)) {
-                ret = false;
-            }
-
-            // Check if an index actually exists on this column
-            String columnName = ((ColumnValue) left).getColumnName().getColumnName();
-            if (!bitmapIndexManager.bitmapIndexExists(tableInfo.getSchema(), columnName)) {
-                ret = false;
-            }
+            if (!(right instanceof LiteralValue && isIndexedColumn(left, bitmapIndexManager, tableInfo)))
+                return false;
 
             switch (compareOperator.getType()) {
                 case EQUALS:
@@ -234,8 +419,22 @@ public class BitmapIndexScanNode extends SelectNode {
                 case NOT_EQUALS:
                     break;
                 default:
-                    ret = false;
+                    // Ranges need a bound that the index can compare the column's values to
+                    String attribute = getIndexedAttribute(left, bitmapIndexManager, tableInfo);
+                    SQLDataType type = bitmapIndexManager.openBitmapIndex(tableInfo, attribute).getType();
+                    ret = BitmapIndex.canCompareRange(type, right.evaluate());
             }
+        } else if (expression instanceof InOperator) {
+            // Only lists of literal values can be processed, not subqueries
+            InOperator inOperator = (InOperator) expression;
+            if (inOperator.getValues() == null ||
+                    !isIndexedColumn(inOperator.getExpression(), bitmapIndexManager, tableInfo))
+                return false;
+
+            for (Expression value : inOperator.getValues())
+                ret &= foldConstant(value) instanceof LiteralValue;
+        } else if (expression instanceof IsNullOperator) {
+            ret = isIndexedColumn(((IsNullOperator) expression).getExpression(), bitmapIndexManager, tableInfo);
         } else {
             ret = false;
         }
@@ -243,26 +442,78 @@ public class BitmapIndexScanNode extends SelectNode {
     }
 
     /**
-     * Check if a predicate can be partially solved with bitmap indexes. This is only the case
-     * if the predicate is a boolean AND expression, and at least one of the subexpressions
-     * can be solved with bitmap indexes. The clauses that can be used with bitmaps
-     * are put in the evaluated set.
+     * Folds arithmetic on literals into a single literal value. The parser turns a negative number
+     * into a subtraction from zero, which would otherwise keep it from being compared to a bitmap index.
+     * Arithmetic on statement parameters isn't folded, since the parameters have no values yet.
+     */
+    private static Expression foldConstant(Expression expression) {
+        if (expression instanceof ArithmeticOperator && !expression.hasSymbols()) {
+            try {
+                return expression.duplicate().simplify();
+            } catch (ExpressionException e) {
+                return expression;
+            }
+        }
+
+        return expression;
+    }
+
+    /**
+     * Returns true if the expression is a column value, and there is a bitmap index on the column.
+     */
+    public static boolean isIndexedColumn(Expression expression, BitmapIndexManager bitmapIndexManager, TableInfo tableInfo) {
+        return getIndexedAttribute(expression, bitmapIndexManager, tableInfo) != null;
+    }
+
+    /**
+     * Returns the attribute of the bitmap index on the column an expression refers to, or null
+     * if the expression isn't a column value or there is no such index.  A column of another
+     * table is indexed by a join index, whose attribute is the column's full name.
+     */
+    public static String getIndexedAttribute(Expression expression, BitmapIndexManager bitmapIndexManager, TableInfo tableInfo) {
+        if (!(expression instanceof ColumnValue))
+            return null;
+
+        ColumnValue columnValue = (ColumnValue) expression;
+        String columnName = columnValue.getColumnName().getColumnName();
+        if (!isTableColumn(columnValue, bitmapIndexManager, tableInfo)) {
+            return columnValue.getColumnName().getTableName() + "." + columnName;
+        }
+
+        if (bitmapIndexManager.bitmapIndexExists(tableInfo.getSchema(), columnName))
+            return columnName;
+        return null;
+    }
+
+    /**
+     * Returns false if a column value refers to a column of another table that there is a join
+     * index on, and true otherwise.
+     */
+    private static boolean isTableColumn(ColumnValue columnValue, BitmapIndexManager bitmapIndexManager, TableInfo tableInfo) {
+        String tableName = columnValue.getColumnName().getTableName();
+        return tableName == null || !bitmapIndexManager.bitmapIndexExists(tableInfo.getSchema(),
+                tableName + "." + columnValue.getColumnName().getColumnName());
+    }
+
+    /**
+     * Check if a predicate can be partially solved with bitmap indexes. This is the case if
+     * the predicate is a boolean AND expression and at least one of the subexpressions can be
+     * solved with bitmap indexes, or if the whole predicate can be. The clauses that can be
+     * used with bitmaps are put in the evaluated set.
      */
     public static boolean canSplitExpression(Expression expression, BitmapIndexManager bitmapIndexManager, TableInfo tableInfo, Set<Expression> evaluated) {
-        if (expression instanceof BooleanOperator) {
-            BooleanOperator booleanOperator = (BooleanOperator) expression;
-            int numTerms = booleanOperator.getNumTerms();
-            switch (booleanOperator.getType()) {
-                case AND_EXPR:
-                    for (int i = 0; i < numTerms; i++) {
-                        if (canProcessExpression(booleanOperator.getTerm(i), bitmapIndexManager, tableInfo)) {
-                            evaluated.add(booleanOperator.getTerm(i));
-                        }
-                    }
-                    return (evaluated.size() > 0);
-                default:
-                    return false;
+        if (expression instanceof BooleanOperator &&
+                ((BooleanOperator) expression).getType() == BooleanOperator.Type.AND_EXPR) {
+            List<Expression> terms = getTerms((BooleanOperator) expression);
+            for (List<Expression> group : findCompositeTerms(terms, bitmapIndexManager, tableInfo).values())
+                evaluated.addAll(group);
+
+            for (Expression term : terms) {
+                if (canProcessExpression(term, bitmapIndexManager, tableInfo)) {
+                    evaluated.add(term);
+                }
             }
+            return (evaluated.size() > 0);
         } else if (canProcessExpression(expression, bitmapIndexManager, tableInfo)) {
             evaluated.add(expression);
             return true;
@@ -297,7 +548,8 @@ public class BitmapIndexScanNode extends SelectNode {
     public int hashCode() {
         int hash = 7;
         hash = hash * 13 + tableInfo.hashCode();
-        hash = hash * 17 + predicate.hashCode();
+        if (predicate != null)
+            hash = hash * 17 + predicate.hashCode();
         return hash;
     }
 
@@ -312,7 +564,8 @@ public class BitmapIndexScanNode extends SelectNode {
         node.bitmapIndexManager = bitmapIndexManager;
         node.tableInfo = tableInfo;
         node.tableTupleFile = tableTupleFile;
-        node.pointers = pointers;
+        node.result = result;
+        node.iterator = null;
         node.extra = extra;
         return node;
     }
@@ -375,59 +628,91 @@ public class BitmapIndexScanNode extends SelectNode {
                 tableStats.numTuples, tableStats.numDataPages);
     }
 
+    /**
+     * Returns the rows selected by the predicate, as positions in the bitmap indexes. The bitmap
+     * is computed when the node is prepared, and must not be changed.
+     */
+    public Bitmap getResult() {
+        return result;
+    }
+
     @Override
     public void initialize() {
         super.initialize();
 
-        currentTupleIndex = 0;
+        // A plan that is executed again recomputes its rows, since the table
+        // may have changed since the plan last ran.
+        if (result == null)
+            setPredicate(predicate);
+
+        iterator = null;
+        currentPosition = -1;
+        markedPosition = -1;
         // Reset our marking state.
         jumpToMarkedTuple = false;
     }
 
+    /**
+     * Reads the tuple at a position in the bitmap indexes, which is the row ID of the tuple
+     * in the table's heap file, or of its copy in the table's mapping table.
+     */
+    private Tuple getTuple(int position) throws InvalidFilePointerException, IOException {
+        return bitmapIndexManager.getRowIds(tableInfo).getTuple(position);
+    }
+
     @Override
     protected void advanceCurrentTuple() throws IllegalStateException, IOException {
         try {
             if (jumpToMarkedTuple) {
-                currentTupleIndex = markedTupleIndex;
+                // Start the iteration over, and go forward to the marked tuple
                 jumpToMarkedTuple = false;
-                currentTuple = tableTupleFile.getTuple(pointers[currentTupleIndex]);
-            } else {
-                if (pointers.length == 0) {
-                    currentTuple = null;
-                } else if (currentTupleIndex == 0 && currentTuple == null) {
-                    currentTuple = tableTupleFile.getTuple(pointers[currentTupleIndex]);
-                } else if (currentTupleIndex == pointers.length - 1) {
-                    currentTuple = null;
-                } else {
-                    currentTupleIndex += 1;
-                    currentTuple = tableTupleFile.getTuple(pointers[currentTupleIndex]);
+                iterator = result.iterator();
+                if (markedPosition >= 0) {
+                    do {
+                        currentPosition = iterator.next();
+                    } while (currentPosition < markedPosition);
+
+                    currentTuple = getTuple(currentPosition);
+                    return;
                 }
             }
+
+            if (iterator == null)
+                iterator = result.iterator();
+
+            if (iterator.hasNext()) {
+                currentPosition = iterator.next();
+                currentTuple = getTuple(currentPosition);
+            } else {
+                currentPosition = -1;
+                currentTuple = null;
+            }
         } catch (InvalidFilePointerException e) {
             logger.warn("Invalid file pointer!!!");
         }
     }
 
     public void cleanUp() {
-        // Nothing to do!
+        result = null;
     }
 
     /**
      * Return the number of tuples in the result.
      */
     public int size() {
-        return pointers.length;
+        return result.cardinality();
     }
 
     public void markCurrentPosition() {
         logger.debug("Marking current position in tuple-stream.");
-        markedTupleIndex = currentTupleIndex;
+        markedPosition = currentPosition;
     }
 
 
     public void resetToLastMark() {
         logger.debug("Resetting to previously marked position in tuple-stream.");
         jumpToMarkedTuple = true;
+        done = false;
     }
 
     /**
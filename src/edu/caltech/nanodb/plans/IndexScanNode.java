@@ -2,24 +2,41 @@ package edu.caltech.nanodb.plans;
 
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 
 import org.apache.commons.lang.ObjectUtils;
 import org.apache.log4j.Logger;
 
+import edu.caltech.nanodb.expressions.ColumnValue;
+import edu.caltech.nanodb.expressions.CompareOperator;
+import edu.caltech.nanodb.expressions.Expression;
+import edu.caltech.nanodb.expressions.LiteralValue;
 import edu.caltech.nanodb.expressions.OrderByExpression;
+import edu.caltech.nanodb.expressions.PredicateUtils;
 import edu.caltech.nanodb.expressions.TupleComparator;
 import edu.caltech.nanodb.expressions.TupleLiteral;
+import edu.caltech.nanodb.expressions.TypeCastException;
+import edu.caltech.nanodb.expressions.TypeConverter;
 import edu.caltech.nanodb.indexes.IndexInfo;
 import edu.caltech.nanodb.indexes.IndexManager;
 import edu.caltech.nanodb.indexes.IndexUtils;
+import edu.caltech.nanodb.qeval.ColumnStats;
+import edu.caltech.nanodb.qeval.PlanCost;
+import edu.caltech.nanodb.qeval.SelectivityEstimator;
 import edu.caltech.nanodb.qeval.TableStats;
+import edu.caltech.nanodb.relations.ColumnInfo;
+import edu.caltech.nanodb.relations.ColumnRefs;
+import edu.caltech.nanodb.relations.ColumnType;
 import edu.caltech.nanodb.relations.Schema;
 import edu.caltech.nanodb.relations.Tuple;
 import edu.caltech.nanodb.storage.FilePointer;
 import edu.caltech.nanodb.storage.InvalidFilePointerException;
 import edu.caltech.nanodb.storage.SequentialTupleFile;
 import edu.caltech.nanodb.storage.TupleFile;
+import edu.caltech.nanodb.storage.btreefile.BTreeRangeCursor;
+import edu.caltech.nanodb.storage.btreefile.BTreeTupleFile;
 
 
 /**
@@ -71,6 +88,75 @@ public class IndexScanNode extends PlanNode {
     private boolean includeValue2;
 
 
+    /**
+     * If set, this expression computes the first key value when the scan is
+     * initialized; see {@link #setKeyExpressions}.
+     */
+    private Expression keyExpr1 = null;
+
+
+    /**
+     * If set, this expression computes the second key value when the scan is
+     * initialized; see {@link #setKeyExpressions}.
+     */
+    private Expression keyExpr2 = null;
+
+
+    /** The type of the key column that the key expressions are compared to. */
+    private ColumnType keyType = null;
+
+
+    /** The original inclusiveness of the bounds computed by key expressions. */
+    private boolean includeKey1, includeKey2;
+
+
+    /**
+     * True if the key computed when the scan was initialized can't match any
+     * index entries, e.g. because it is <tt>NULL</tt>.
+     */
+    private boolean emptyScan;
+
+
+    /**
+     * True if the equality key computed when the scan was initialized can't
+     * be converted to the key column's type, so that the whole index must be
+     * scanned instead.
+     */
+    private boolean openScan;
+
+
+    /**
+     * True if the scan produces tuples in descending order of the index's
+     * key.  This is only supported for indexes stored in B<sup>+</sup> tree
+     * files.
+     */
+    private boolean descending;
+
+
+    /**
+     * If the index is stored in a B<sup>+</sup> tree file, this is the
+     * cursor that produces the index tuples in the scan's range.
+     */
+    private BTreeRangeCursor cursor;
+
+
+    /**
+     * True if the scan produces its results from the index entries alone,
+     * without reading the table.  This is only possible when the index
+     * holds every column the query needs, either as a key column or as an
+     * included column.  In this case the node's schema only contains the
+     * columns stored in the index.
+     */
+    private boolean indexOnly;
+
+
+    /**
+     * For index-only scans, this array maps each column of the node's schema
+     * to the column of the index entry that holds its value.
+     */
+    private int[] indexOnlyColumns;
+
+
     /**
      * The current tuple from the index that is being used.  Note that this
      * tuple is not what {@link #getNextTuple} returns; rather, it's the tuple
@@ -97,6 +183,13 @@ public class IndexScanNode extends PlanNode {
     private FilePointer markedTuple;
 
 
+    /**
+     * When the scan uses a range cursor, this is the index tuple that was
+     * current when the position was marked.
+     */
+    private Tuple markedIndexTuple;
+
+
     private boolean jumpToMarkedTuple;
 
 
@@ -134,6 +227,28 @@ public class IndexScanNode extends PlanNode {
     public IndexScanNode(IndexInfo indexInfo, TupleLiteral lowerValue,
                          boolean includeLower, TupleLiteral upperValue,
                          boolean includeUpper) {
+        this(indexInfo, lowerValue, includeLower, upperValue, includeUpper,
+            false);
+    }
+
+
+    /**
+     * Construct an index scan node that produces the tuples whose index
+     * key falls within a range of values, in either ascending or descending
+     * order of the index key.  Either bound may be {@code null} to leave
+     * that end of the range open.
+     *
+     * @param indexInfo the information about the index being used
+     * @param lowerValue the lower bound of the range, or {@code null}
+     * @param includeLower true if the lower bound is inclusive
+     * @param upperValue the upper bound of the range, or {@code null}
+     * @param includeUpper true if the upper bound is inclusive
+     * @param descending true to produce tuples in descending order of the
+     *        index key; this requires a B<sup>+</sup> tree index
+     */
+    public IndexScanNode(IndexInfo indexInfo, TupleLiteral lowerValue,
+                         boolean includeLower, TupleLiteral upperValue,
+                         boolean includeUpper, boolean descending) {
         super(OperationType.SELECT);
 
         if (indexInfo == null)
@@ -163,6 +278,12 @@ public class IndexScanNode extends PlanNode {
 
         this.includeValue1 = includeLower;
         this.includeValue2 = includeUpper;
+
+        if (descending && !(indexTupleFile instanceof BTreeTupleFile)) {
+            throw new IllegalArgumentException("Descending scans require " +
+                "a B+ tree index.");
+        }
+        this.descending = descending;
     }
 
 
@@ -186,7 +307,9 @@ public class IndexScanNode extends PlanNode {
                 ObjectUtils.equals(value1, other.value1) &&
                 ObjectUtils.equals(value2, other.value2) &&
                 includeValue1 == other.includeValue1 &&
-                includeValue2 == other.includeValue2;
+                includeValue2 == other.includeValue2 &&
+                descending == other.descending &&
+                indexOnly == other.indexOnly;
         }
 
         return false;
@@ -207,6 +330,8 @@ public class IndexScanNode extends PlanNode {
         hash = 31 * hash + ObjectUtils.hashCode(value2);
         hash = 31 * hash + (includeValue1 ? 1 : 0);
         hash = 31 * hash + (includeValue2 ? 1 : 0);
+        hash = 31 * hash + (descending ? 1 : 0);
+        hash = 31 * hash + (indexOnly ? 1 : 0);
         return hash;
     }
 
@@ -225,6 +350,9 @@ public class IndexScanNode extends PlanNode {
         // The tuple file doesn't need to be copied since it's immutable.
         node.indexTupleFile = indexTupleFile;
 
+        // The copy must open its own cursor.
+        node.cursor = null;
+
         return node;
     }
 
@@ -240,20 +368,26 @@ public class IndexScanNode extends PlanNode {
         buf.append(", type:  ").append(scanType);
 
         if (scanType == ScanType.EQUALITY) {
-            buf.append(", value=").append(value1);
+            buf.append(", value=").append(keyExpr1 != null ? keyExpr1 : value1);
         }
         else if (scanType == ScanType.RANGE) {
-            if (value1 != null) {
-                buf.append(", lower=").append(value1);
+            if (keyExpr1 != null || value1 != null) {
+                buf.append(", lower=").append(keyExpr1 != null ? keyExpr1 : value1);
                 buf.append(includeValue1 ? " (inclusive)" : " (exclusive)");
             }
 
-            if (value2 != null) {
-                buf.append(", upper=").append(value2);
+            if (keyExpr2 != null || value2 != null) {
+                buf.append(", upper=").append(keyExpr2 != null ? keyExpr2 : value2);
                 buf.append(includeValue2 ? " (inclusive)" : " (exclusive)");
             }
+
+            if (descending)
+                buf.append(", descending");
         }
 
+        if (indexOnly)
+            buf.append(", index-only");
+
         buf.append("]");
 
         return buf.toString();
@@ -261,13 +395,133 @@ public class IndexScanNode extends PlanNode {
 
 
     /**
-     * Currently we will always say that the file-scan node produces unsorted
-     * results.  In actuality, a file scan's results will be sorted if the table
-     * file uses a sequential format, but currently we don't have any sequential
-     * file formats.
+     * An index scan over a B<sup>+</sup> tree index produces tuples in the
+     * order of the index's key columns, ascending or descending.  Other
+     * kinds of indexes produce tuples in no particular order.
      */
     public List<OrderByExpression> resultsOrderedBy() {
-        return null;
+        if (!(indexTupleFile instanceof BTreeTupleFile))
+            return null;
+
+        Schema tableSchema = tableTupleFile.getSchema();
+        ArrayList<OrderByExpression> orderBy = new ArrayList<>();
+        for (int iCol : indexInfo.getTableColumnRefs().getCols()) {
+            ColumnInfo colInfo = tableSchema.getColumnInfo(iCol);
+            orderBy.add(new OrderByExpression(
+                new ColumnValue(colInfo.getColumnName()), !descending));
+        }
+
+        return orderBy;
+    }
+
+
+    /**
+     * Specifies whether the scan should produce its results from the index
+     * entries alone, without reading the table.  The caller must make sure
+     * that the index stores every column that is needed from the scan.
+     *
+     * @param indexOnly true to produce results from the index entries alone
+     */
+    public void setIndexOnly(boolean indexOnly) {
+        this.indexOnly = indexOnly;
+    }
+
+
+    /**
+     * Returns true if the scan produces its results from the index entries
+     * alone, without reading the table.
+     *
+     * @return true if this is an index-only scan
+     */
+    public boolean isIndexOnly() {
+        return indexOnly;
+    }
+
+
+    /**
+     * Makes the scan compute its key values each time it is initialized,
+     * from expressions whose values aren't known when the plan is made, such
+     * as the parameters of a prepared statement.  The first expression
+     * replaces the search key of an equality scan or the lower bound of a
+     * range scan, and the second replaces the upper bound of a range scan;
+     * either may be {@code null} to keep the value given to the constructor.
+     * <p>
+     * Each value is converted to the type of the index's leading key column.
+     * A <tt>NULL</tt> value matches no index entries.  If a range bound can't
+     * be converted without losing information then that end of the range is
+     * left open, so the caller must still filter the results of the scan.
+     *
+     * @param expr1 computes the search key or the lower bound, or
+     *        {@code null}
+     * @param expr2 computes the upper bound, or {@code null}
+     * @param keyType the type of the index's leading key column
+     */
+    public void setKeyExpressions(Expression expr1, Expression expr2,
+                                  ColumnType keyType) {
+        if (keyType == null)
+            throw new IllegalArgumentException("keyType cannot be null");
+
+        if (expr2 != null && scanType != ScanType.RANGE) {
+            throw new IllegalArgumentException(
+                "Only RANGE scans have an upper bound");
+        }
+
+        if (!(indexTupleFile instanceof BTreeTupleFile)) {
+            throw new IllegalArgumentException(
+                "Key expressions require a B+ tree index");
+        }
+
+        keyExpr1 = expr1;
+        keyExpr2 = expr2;
+        this.keyType = keyType;
+
+        includeKey1 = includeValue1;
+        includeKey2 = includeValue2;
+    }
+
+
+    /**
+     * Returns true if the specified index stores the values of all the
+     * specified table columns, either as key columns or as included columns.
+     *
+     * @param indexInfo the index to examine
+     *
+     * @param tableColumns the indexes of columns in the table's schema
+     *
+     * @return true if an index-only scan of the index can produce all of the
+     *         specified columns
+     */
+    public static boolean indexCoversColumns(IndexInfo indexInfo,
+                                             Collection<Integer> tableColumns) {
+        ColumnRefs colRefs = indexInfo.getTableColumnRefs();
+        for (int iCol : tableColumns) {
+            if (findIndexColumn(colRefs, iCol) == -1)
+                return false;
+        }
+        return true;
+    }
+
+
+    /**
+     * Returns the column of the index entries that holds the specified table
+     * column, or -1 if the index doesn't store the column.  Index entries
+     * hold the key columns, then the tuple-pointer, then any included
+     * columns.
+     */
+    private static int findIndexColumn(ColumnRefs colRefs, int tableColumn) {
+        int[] keyCols = colRefs.getCols();
+        for (int i = 0; i < keyCols.length; i++) {
+            if (keyCols[i] == tableColumn)
+                return i;
+        }
+
+        int[] includedCols = colRefs.getIncludedCols();
+        for (int i = 0; i < includedCols.length; i++) {
+            if (includedCols[i] == tableColumn)
+                return keyCols.length + 1 + i;
+        }
+
+        return -1;
     }
 
 
@@ -299,16 +553,127 @@ public class IndexScanNode extends PlanNode {
     public void prepare() {
         // Grab the schema and statistics from the table file.
 
-        schema = tableTupleFile.getSchema();
-
-        // TODO:  We should also update the table statistics based on what the
-        //        index scan is going to do, but that's too complicated, so
-        //        we'll leave them unchanged for now.
+        Schema tableSchema = tableTupleFile.getSchema();
         TableStats tableStats = tableTupleFile.getStats();
-        stats = tableStats.getAllColumnStats();
+        ArrayList<ColumnStats> tableColStats = tableStats.getAllColumnStats();
+
+        if (indexOnly) {
+            // Only the columns stored in the index are available.  Keep them
+            // in the order they appear in the table.
+            ColumnRefs colRefs = indexInfo.getTableColumnRefs();
+            ArrayList<Integer> mapping = new ArrayList<>();
+            schema = new Schema();
+            stats = new ArrayList<>();
+            for (int iCol = 0; iCol < tableSchema.numColumns(); iCol++) {
+                int idxCol = findIndexColumn(colRefs, iCol);
+                if (idxCol != -1) {
+                    schema.addColumnInfo(tableSchema.getColumnInfo(iCol));
+                    stats.add(tableColStats.get(iCol));
+                    mapping.add(idxCol);
+                }
+            }
+
+            indexOnlyColumns = new int[mapping.size()];
+            for (int i = 0; i < indexOnlyColumns.length; i++)
+                indexOnlyColumns[i] = mapping.get(i);
+        }
+        else {
+            // TODO:  We should also update the table statistics based on
+            //        what the index scan is going to do, but that's too
+            //        complicated, so we'll leave them unchanged for now.
+            schema = tableSchema;
+            stats = tableColStats;
+        }
+
+        // Estimate how many tuples fall within the scan's range.
+        float selectivity = 1.0f;
+        Expression rangePredicate = makeRangePredicate(tableSchema);
+        if (rangePredicate != null) {
+            selectivity = SelectivityEstimator.estimateSelectivity(
+                rangePredicate, tableSchema, tableColStats);
+        }
+
+        float numTuples = tableStats.numTuples * selectivity;
+
+        // We read the fraction of the index's pages that hold the range.
+        // Unless the scan is index-only, every tuple also costs a page read
+        // from the table.
+        int indexPages;
+        try {
+            indexPages = indexTupleFile.getDBFile().getNumPages();
+        }
+        catch (IOException e) {
+            indexPages = tableStats.numDataPages;
+        }
+
+        long numBlockIOs = (long) Math.ceil(indexPages * selectivity);
+        float tupleSize = tableStats.avgTupleSize;
+        if (indexOnly) {
+            tupleSize *= (float) schema.numColumns() /
+                Math.max(1, tableSchema.numColumns());
+        }
+        else {
+            numBlockIOs += (long) Math.ceil(numTuples);
+        }
 
-        // TODO:  Cost the plan node
-        cost = null;
+        cost = new PlanCost(numTuples, tupleSize, numTuples, numBlockIOs);
+    }
+
+
+    /**
+     * Builds a predicate describing the range of the scan on the index's
+     * key columns, so that the range's selectivity can be estimated.
+     *
+     * @param tableSchema the schema of the table the index is built on
+     *
+     * @return a predicate describing the scan's range, or {@code null} if
+     *         the scan covers the whole index
+     */
+    private Expression makeRangePredicate(Schema tableSchema) {
+        int[] keyCols = indexInfo.getTableColumnRefs().getCols();
+        ArrayList<Expression> conjuncts = new ArrayList<>();
+
+        if (scanType == ScanType.EQUALITY) {
+            if (keyExpr1 != null) {
+                // Equality estimates don't depend on the value.
+                conjuncts.add(new CompareOperator(CompareOperator.Type.EQUALS,
+                    makeKeyColumn(tableSchema, keyCols[0]),
+                    new LiteralValue(null)));
+            }
+            else {
+                for (int i = 0; i < value1.getColumnCount() && i < keyCols.length; i++) {
+                    conjuncts.add(new CompareOperator(CompareOperator.Type.EQUALS,
+                        makeKeyColumn(tableSchema, keyCols[i]),
+                        new LiteralValue(value1.getColumnValue(i))));
+                }
+            }
+        }
+        else {
+            // Range bounds are only estimated on the first key column.  Bounds
+            // computed by key expressions get the default estimate.
+            if (keyExpr1 != null || (value1 != null && value1.getColumnCount() > 0)) {
+                conjuncts.add(new CompareOperator(includeValue1 ?
+                    CompareOperator.Type.GREATER_OR_EQUAL :
+                    CompareOperator.Type.GREATER_THAN,
+                    makeKeyColumn(tableSchema, keyCols[0]), keyExpr1 != null ?
+                    keyExpr1 : new LiteralValue(value1.getColumnValue(0))));
+            }
+
+            if (keyExpr2 != null || (value2 != null && value2.getColumnCount() > 0)) {
+                conjuncts.add(new CompareOperator(includeValue2 ?
+                    CompareOperator.Type.LESS_OR_EQUAL :
+                    CompareOperator.Type.LESS_THAN,
+                    makeKeyColumn(tableSchema, keyCols[0]), keyExpr2 != null ?
+                    keyExpr2 : new LiteralValue(value2.getColumnValue(0))));
+            }
+        }
+
+        return PredicateUtils.makePredicate(conjuncts);
+    }
+
+
+    private Expression makeKeyColumn(Schema tableSchema, int iCol) {
+        return new ColumnValue(tableSchema.getColumnInfo(iCol).getColumnName());
     }
 
 
@@ -319,18 +684,259 @@ public class IndexScanNode extends PlanNode {
         currentIndexTuple = null;
         done = false;
 
+        if (cursor != null) {
+            cursor.close();
+            cursor = null;
+        }
+
         // Reset our marking state.
         markedTuple = null;
+        markedIndexTuple = null;
         jumpToMarkedTuple = false;
+
+        if (keyType != null)
+            computeKeys();
+    }
+
+
+    /**
+     * Computes the scan's key values from the key expressions.  Values that
+     * can't be converted to the key column's type exactly don't bound the
+     * scan, or bound it inclusively when that still covers the original
+     * range, since the caller filters the scan's results anyway.
+     */
+    private void computeKeys() {
+        emptyScan = false;
+        openScan = false;
+
+        if (keyExpr1 != null) {
+            Object value = keyExpr1.evaluate();
+            if (scanType == ScanType.EQUALITY) {
+                Object key = convertKey(value);
+                if (value == null) {
+                    emptyScan = true;
+                }
+                else if (key == null) {
+                    openScan = true;
+                }
+                else {
+                    // No value of the column equals a value that can't be
+                    // converted exactly.
+                    emptyScan = !sameValue(key, value);
+                    value1 = makeKey(key);
+                }
+            }
+            else {
+                includeValue1 = includeKey1;
+                value1 = makeBound(value);
+                if (value1 != null && !sameValue(value1.getColumnValue(0), value))
+                    includeValue1 = true;
+            }
+        }
+
+        if (keyExpr2 != null) {
+            Object value = keyExpr2.evaluate();
+            includeValue2 = includeKey2;
+            value2 = makeBound(value);
+            if (value2 != null && !sameValue(value2.getColumnValue(0), value))
+                includeValue2 = true;
+        }
+    }
+
+
+    /**
+     * Converts a value computed by a key expression to the type of the key
+     * column.  Numbers are only converted to numbers and strings to strings,
+     * since the index orders other conversions differently from comparisons.
+     *
+     * @param value the value to convert
+     *
+     * @return the converted value, or {@code null} if the value is
+     *         <tt>NULL</tt> or can't be converted
+     */
+    private Object convertKey(Object value) {
+        if (value == null)
+            return null;
+
+        try {
+            switch (keyType.getBaseType()) {
+            case TINYINT:
+                return value instanceof Number ?
+                    TypeConverter.getByteValue(value) : null;
+
+            case SMALLINT:
+                return value instanceof Number ?
+                    TypeConverter.getShortValue(value) : null;
+
+            case INTEGER:
+                return value instanceof Number ?
+                    TypeConverter.getIntegerValue(value) : null;
+
+            case BIGINT:
+                return value instanceof Number ?
+                    TypeConverter.getLongValue(value) : null;
+
+            case FLOAT:
+                return value instanceof Number ?
+                    TypeConverter.getFloatValue(value) : null;
+
+            case DOUBLE:
+                return value instanceof Number ?
+                    TypeConverter.getDoubleValue(value) : null;
+
+            case CHAR:
+            case VARCHAR:
+            case TEXT:
+                return value instanceof String ? value : null;
+
+            default:
+                return TypeConverter.getSQLType(value) ==
+                    keyType.getBaseType() ? value : null;
+            }
+        }
+        catch (TypeCastException e) {
+            return null;
+        }
+    }
+
+
+    /** Returns true if a converted key value equals the original value. */
+    private static boolean sameValue(Object key, Object value) {
+        TypeConverter.Pair pair = TypeConverter.coerceComparison(key, value);
+        return ObjectUtils.equals(pair.value1, pair.value2);
+    }
+
+
+    private static TupleLiteral makeKey(Object key) {
+        TupleLiteral tuple = new TupleLiteral();
+        tuple.addValue(key);
+        return tuple;
+    }
+
+
+    /**
+     * Makes a range bound from a value computed by a key expression.  A
+     * number that was truncated towards zero to fit the key column still
+     * bounds the original range once the bound is inclusive; any other
+     * inexact conversion leaves that end of the range open.
+     *
+     * @param value the value of the bound
+     *
+     * @return the bound, or {@code null} to leave that end of the range open
+     */
+    private TupleLiteral makeBound(Object value) {
+        if (value == null) {
+            // Nothing compares to NULL, so the range is empty.
+            emptyScan = true;
+            return null;
+        }
+
+        Object key = convertKey(value);
+        if (key == null)
+            return null;
+
+        if (key instanceof Number && !sameValue(key, value)) {
+            double k = ((Number) key).doubleValue();
+            double v = ((Number) value).doubleValue();
+            if (Math.abs(v - k) >= 1 || k * v < 0)
+                return null;
+        }
+
+        return makeKey(key);
     }
 
 
     @Override
-    public Tuple getNextTuple() throws IllegalStateException, IOException {
+    protected Tuple produceNextTuple() throws IllegalStateException, IOException {
+        if (emptyScan)
+            return null;
+
+        if (indexTupleFile instanceof BTreeTupleFile) {
+            currentIndexTuple = getNextCursorTuple();
+        }
+        else {
+            if (done)
+                return null;
+
+            currentIndexTuple = getNextIndexTuple();
+        }
 
-        if (done)
+        if (currentIndexTuple == null) {
+            done = true;
             return null;
+        }
+
+        if (indexOnly) {
+            // Everything we need is in the index entry.
+            TupleLiteral result = new TupleLiteral();
+            for (int idxCol : indexOnlyColumns)
+                result.addValue(currentIndexTuple.getColumnValue(idxCol));
+
+            return result;
+        }
 
+        // Now, look up the table tuple based on the index tuple's
+        // file-pointer.
+        FilePointer tuplePtr =
+            (FilePointer) currentIndexTuple.getColumnValue(idxTuplePtr);
+        Tuple tableTuple;
+        try {
+            tableTuple = tableTupleFile.getTuple(tuplePtr);
+        }
+        catch (InvalidFilePointerException e) {
+            throw new IOException(
+                "Couldn't retrieve table-tuple referenced by index!", e);
+        }
+
+        return tableTuple;
+    }
+
+
+    /**
+     * Retrieves the next index tuple in the scan from a B<sup>+</sup> tree
+     * index, using a range cursor.  Equality scans are simply range scans
+     * whose lower and upper bounds are the same.
+     *
+     * @return the next index tuple, or {@code null} if the scan is complete
+     *
+     * @throws IOException if an IO error occurs while reading the index
+     */
+    private Tuple getNextCursorTuple() throws IOException {
+        if (cursor == null) {
+            BTreeTupleFile btreeFile = (BTreeTupleFile) indexTupleFile;
+            if (openScan) {
+                cursor = btreeFile.openRangeCursor(null, false, null, false,
+                    false);
+            }
+            else if (scanType == ScanType.EQUALITY) {
+                cursor = btreeFile.openRangeCursor(value1, true, value1, true,
+                    false);
+            }
+            else {
+                cursor = btreeFile.openRangeCursor(value1, includeValue1,
+                    value2, includeValue2, descending);
+            }
+        }
+
+        if (jumpToMarkedTuple) {
+            logger.debug("Resuming at previously marked tuple.");
+            cursor.restart(markedIndexTuple);
+            jumpToMarkedTuple = false;
+        }
+
+        return cursor.next();
+    }
+
+
+    /**
+     * Retrieves the next index tuple in the scan from an index that isn't
+     * stored in a B<sup>+</sup> tree file.
+     *
+     * @return the next index tuple, or {@code null} if the scan is complete
+     *
+     * @throws IOException if an IO error occurs while reading the index
+     */
+    private Tuple getNextIndexTuple() throws IOException {
         if (jumpToMarkedTuple) {
             logger.debug("Resuming at previously marked tuple.");
             try {
@@ -349,24 +955,9 @@ public class IndexScanNode extends PlanNode {
         else {
             // Go ahead and navigate to the next tuple.
             currentIndexTuple = findNextTuple(currentIndexTuple);
-            if (currentIndexTuple == null)
-                done = true;
         }
 
-        // Now, look up the table tuple based on the index tuple's
-        // file-pointer.
-        FilePointer tuplePtr =
-            (FilePointer) currentIndexTuple.getColumnValue(idxTuplePtr);
-        Tuple tableTuple;
-        try {
-            tableTuple = tableTupleFile.getTuple(tuplePtr);
-        }
-        catch (InvalidFilePointerException e) {
-            throw new IOException(
-                "Couldn't retrieve table-tuple referenced by index!", e);
-        }
-
-        return tableTuple;
+        return currentIndexTuple;
     }
 
 
@@ -378,10 +969,15 @@ public class IndexScanNode extends PlanNode {
         }
         else if (scanType == ScanType.RANGE) {
             SequentialTupleFile seqTupleFile = (SequentialTupleFile) indexTupleFile;
-            if (includeValue1)
+            if (value1 == null)
+                firstTuple = seqTupleFile.getFirstTuple();
+            else if (includeValue1)
                 firstTuple = seqTupleFile.findFirstTupleEquals(value1);
             else
                 firstTuple = seqTupleFile.findFirstTupleGreaterThan(value1);
+
+            if (firstTuple != null && !inUpperBound(firstTuple))
+                firstTuple = null;
         }
         else {
             throw new IllegalStateException(
@@ -403,8 +999,7 @@ public class IndexScanNode extends PlanNode {
                     nextTuple = null;
             }
             else if (scanType == ScanType.RANGE) {
-                int cmp = TupleComparator.comparePartialTuples(nextTuple, value2);
-                if (cmp > 0 || (cmp == 0 && !includeValue2))
+                if (!inUpperBound(nextTuple))
                     nextTuple = null;
             }
             else {
@@ -417,8 +1012,32 @@ public class IndexScanNode extends PlanNode {
     }
 
 
+    private boolean inUpperBound(Tuple tuple) {
+        if (value2 == null)
+            return true;
+
+        int cmp = TupleComparator.comparePartialTuples(tuple, value2);
+        return cmp < 0 || (cmp == 0 && includeValue2);
+    }
+
+
     public void cleanUp() {
-        // Nothing to do!
+        if (cursor != null) {
+            cursor.close();
+            cursor = null;
+        }
+    }
+
+
+    /**
+     * Pins the current index tuple, since the next one is found from it, and
+     * the marked index tuple, if any.
+     */
+    @Override
+    public void pinCurrentTuples() {
+        super.pinCurrentTuples();
+        pinTuple(currentIndexTuple);
+        pinTuple(markedIndexTuple);
     }
 
 
@@ -427,15 +1046,19 @@ public class IndexScanNode extends PlanNode {
             throw new IllegalStateException("There is no current tuple!");
 
         logger.debug("Marking current position in tuple-stream.");
-        markedTuple = currentIndexTuple.getExternalReference();
+        if (cursor != null)
+            markedIndexTuple = currentIndexTuple;
+        else
+            markedTuple = currentIndexTuple.getExternalReference();
     }
 
 
     public void resetToLastMark() {
-        if (markedTuple == null)
+        if (markedTuple == null && markedIndexTuple == null)
             throw new IllegalStateException("There is no last-marked tuple!");
 
         logger.debug("Resetting to previously marked position in tuple-stream.");
         jumpToMarkedTuple = true;
+        done = false;
     }
 }
@@ -202,6 +202,18 @@ public class NestedLoopsJoinNode extends ThetaJoinNode {
     }
 
 
+    /**
+     * Pins the current left tuple, which is joined with the rest of the
+     * right child's tuples, as well as the current right tuple.
+     */
+    @Override
+    public void pinCurrentTuples() {
+        super.pinCurrentTuples();
+        pinTuple(leftTuple);
+        pinTuple(rightTuple);
+    }
+
+
     /**
      * Returns the next joined tuple that satisfies the join condition.
      *
@@ -209,7 +221,7 @@ public class NestedLoopsJoinNode extends ThetaJoinNode {
      *
      * @throws IOException if a db file failed to open at some point
      */
-    public Tuple getNextTuple() throws IOException {
+    protected Tuple produceNextTuple() throws IOException {
         if (done)
             return null;
 
@@ -13,6 +13,7 @@ import edu.caltech.nanodb.expressions.Environment;
 import edu.caltech.nanodb.expressions.OrderByExpression;
 
 import edu.caltech.nanodb.qeval.ColumnStats;
+import edu.caltech.nanodb.qeval.NodeEvalStats;
 import edu.caltech.nanodb.qeval.PlanCost;
 
 import edu.caltech.nanodb.relations.Schema;
@@ -106,6 +107,15 @@ public abstract class PlanNode implements Cloneable {
     protected Environment environment;
 
 
+    /**
+     * The statistics measured while this plan node is evaluated, for
+     * <tt>EXPLAIN ANALYZE</tt>.  This is <tt>null</tt> unless
+     * {@link #enableEvalStats} has been called, so that plans are normally
+     * evaluated without the cost of measuring them.
+     */
+    private NodeEvalStats evalStats;
+
+
     /**
      * Constructs a PlanNode with a given operation type.  This method will be
      * called by subclass constructors.
@@ -297,10 +307,40 @@ public abstract class PlanNode implements Cloneable {
 
 
     /**
-     * Gets the next tuple that fulfills the conditions for this plan node.
-     * If the node has a child, it should call getNextTuple() on the child.
-     * If the node is a leaf, the tuple comes from some external source such
-     * as a table file, the network, etc.
+     * Gets the next tuple that fulfills the conditions for this plan node,
+     * by calling {@link #produceNextTuple}.  If statistics are being measured
+     * for this node, the call is measured.
+     *
+     * @return the next tuple to be generated by this plan, or <tt>null</tt>
+     *         if the plan has finished generating plan nodes.
+     *
+     * @throws IOException if table data cannot be read from the filesystem
+     * @throws IllegalStateException if a plan node is not properly initialized
+     */
+    public final Tuple getNextTuple()
+        throws IllegalStateException, IOException {
+
+        if (evalStats == null)
+            return produceNextTuple();
+
+        Tuple tuple = null;
+        evalStats.startCall();
+        try {
+            tuple = produceNextTuple();
+        }
+        finally {
+            evalStats.endCall(tuple != null);
+        }
+
+        return tuple;
+    }
+
+
+    /**
+     * Produces the next tuple that fulfills the conditions for this plan
+     * node.  If the node has a child, it should call getNextTuple() on the
+     * child.  If the node is a leaf, the tuple comes from some external source
+     * such as a table file, the network, etc.
      *
      * @return the next tuple to be generated by this plan, or <tt>null</tt>
      *         if the plan has finished generating plan nodes.
@@ -308,10 +348,67 @@ public abstract class PlanNode implements Cloneable {
      * @throws IOException if table data cannot be read from the filesystem
      * @throws IllegalStateException if a plan node is not properly initialized
      */
-    public abstract Tuple getNextTuple()
+    protected abstract Tuple produceNextTuple()
         throws IllegalStateException, IOException;
 
 
+    /**
+     * Pins the tuples that this node and the nodes below it hold on to
+     * between calls to {@link #getNextTuple}, such as the current tuple of a
+     * file scan, or the outer tuple of a nested-loops join.  A
+     * {@link edu.caltech.nanodb.commands.QueryCursor} calls this before it
+     * unpins the pages of the rows it has already produced, so that the plan
+     * can carry on from its current position.  Nodes that hold tuples must
+     * override this method to pin them, and call their parent class'
+     * implementation as well.
+     */
+    public void pinCurrentTuples() {
+        if (leftChild != null)
+            leftChild.pinCurrentTuples();
+
+        if (rightChild != null)
+            rightChild.pinCurrentTuples();
+    }
+
+
+    /**
+     * Pins a tuple that a node holds on to, if the tuple is backed by a
+     * page that is still pinned.
+     *
+     * @param tuple the tuple to pin, or <tt>null</tt>
+     */
+    protected static void pinTuple(Tuple tuple) {
+        if (tuple != null && tuple.getPinCount() > 0)
+            tuple.pin();
+    }
+
+
+    /**
+     * Starts measuring the statistics of this node and all the nodes below
+     * it, as they are evaluated.  This is used by <tt>EXPLAIN ANALYZE</tt>.
+     */
+    public void enableEvalStats() {
+        evalStats = new NodeEvalStats();
+
+        if (leftChild != null)
+            leftChild.enableEvalStats();
+
+        if (rightChild != null)
+            rightChild.enableEvalStats();
+    }
+
+
+    /**
+     * Returns the statistics measured while this node was evaluated, or
+     * <tt>null</tt> if {@link #enableEvalStats} hasn't been called.
+     *
+     * @return the statistics measured while this node was evaluated
+     */
+    public NodeEvalStats getEvalStats() {
+        return evalStats;
+    }
+
+
     /**
      * Marks the current tuple in the tuple-stream produced by this node.  The
      * {@link #resetToLastMark} method can be used to return to this tuple.
@@ -377,6 +474,9 @@ public abstract class PlanNode implements Cloneable {
                 buf.append(" cost is unknown");
         }
 
+        if (evalStats != null)
+            buf.append(" actual=").append(evalStats);
+
         out.println(buf.toString());
 
         if (leftChild != null)
@@ -491,8 +591,9 @@ public abstract class PlanNode implements Cloneable {
         // NodeType is immutable.
         node.nodeType = this.nodeType;
 
-        // Environment is used for execution.
+        // Environment and statistics are used for execution.
         node.environment = null;
+        node.evalStats = null;
 
         // Copy the children if applicable.
         if (this.leftChild != null)
@@ -8,6 +8,7 @@ import edu.caltech.nanodb.expressions.*;
 import edu.caltech.nanodb.qeval.ColumnStats;
 import edu.caltech.nanodb.qeval.PlanCost;
 import edu.caltech.nanodb.relations.Schema;
+import edu.caltech.nanodb.relations.SchemaNameException;
 import edu.caltech.nanodb.relations.Tuple;
 import edu.caltech.nanodb.relations.ColumnInfo;
 
@@ -226,11 +227,50 @@ public class ProjectNode extends PlanNode {
     }
 
 
-    /** Determines whether the results of the node are sorted. */
+    /**
+     * If the subplan is ordered, this node's results are ordered by the
+     * longest prefix of the subplan's ordering whose columns are projected
+     * unchanged, i.e. not computed or renamed.
+     */
     public List<OrderByExpression> resultsOrderedBy() {
-        // TODO:  if subplan is ordered and projected results include the same
-        //        columns, then this node's results are also ordered.
-        return null;
+        if (leftChild == null || schema == null)
+            return null;
+
+        List<OrderByExpression> childOrder = leftChild.resultsOrderedBy();
+        if (childOrder == null)
+            return null;
+
+        Schema childSchema = leftChild.getSchema();
+        ArrayList<OrderByExpression> resultsOrderedBy =
+            new ArrayList<OrderByExpression>();
+
+        for (OrderByExpression orderByExpr : childOrder) {
+            Expression expr = orderByExpr.getExpression();
+            if (!(expr instanceof ColumnValue))
+                break;
+
+            try {
+                int iCol = childSchema.getColumnIndex(
+                    ((ColumnValue) expr).getColumnName());
+                if (iCol == -1)
+                    break;
+
+                ColumnInfo colInfo = childSchema.getColumnInfo(iCol);
+                int iResultCol = schema.getColumnIndex(colInfo);
+                if (iResultCol == -1 ||
+                    !colInfo.equals(schema.getColumnInfo(iResultCol))) {
+                    break;
+                }
+            }
+            catch (SchemaNameException e) {
+                // The column's name is ambiguous.
+                break;
+            }
+
+            resultsOrderedBy.add(orderByExpr);
+        }
+
+        return resultsOrderedBy.isEmpty() ? null : resultsOrderedBy;
     }
 
 
@@ -259,7 +299,7 @@ public class ProjectNode extends PlanNode {
      *
      * @throws java.io.IOException if a db file failed to open at some point
      */
-    public Tuple getNextTuple() throws IOException {
+    protected Tuple produceNextTuple() throws IOException {
 
         // If this node is finished finding tuples, return null until it is
         // re-initialized.
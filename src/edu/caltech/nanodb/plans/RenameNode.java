@@ -41,18 +41,23 @@ public class RenameNode extends PlanNode {
 
     @Override
     public List<OrderByExpression> resultsOrderedBy() {
+        List<OrderByExpression> childOrder = leftChild.resultsOrderedBy();
+        if (childOrder == null)
+            return null;
+
         List<OrderByExpression> resultsOrderedBy = new ArrayList<OrderByExpression>();
         
         logger.debug("Renaming table name in ORDER BY expression");
         
-        for (OrderByExpression orderByExpr : leftChild.resultsOrderedBy()) {
+        for (OrderByExpression orderByExpr : childOrder) {
             Expression expr = orderByExpr.getExpression().duplicate();
             
             ((ColumnValue) expr).setColumnName(new ColumnName(
                     resultTableName,
                     expr.getColumnInfo(leftChild.getSchema()).getName()));
             
-            resultsOrderedBy.add(new OrderByExpression(expr));
+            resultsOrderedBy.add(new OrderByExpression(expr,
+                orderByExpr.isAscending()));
         }
         
         return resultsOrderedBy;
@@ -94,7 +99,7 @@ public class RenameNode extends PlanNode {
     }
 
     @Override
-    public Tuple getNextTuple() throws IOException {
+    protected Tuple produceNextTuple() throws IOException {
         return leftChild.getNextTuple();
     }
 
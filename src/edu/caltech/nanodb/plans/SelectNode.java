@@ -71,6 +71,14 @@ public abstract class SelectNode extends PlanNode {
     }
 
 
+    /** Pins the current tuple, since the next one is found from it. */
+    @Override
+    public void pinCurrentTuples() {
+        super.pinCurrentTuples();
+        pinTuple(currentTuple);
+    }
+
+
     /**
      * Gets the next tuple selected by the predicate.
      *
@@ -82,7 +90,7 @@ public abstract class SelectNode extends PlanNode {
      *
      * @throws java.io.IOException if a db file failed to open at some point
      */
-    public Tuple getNextTuple() throws IllegalStateException, IOException {
+    protected Tuple produceNextTuple() throws IllegalStateException, IOException {
 
         // If this node is finished finding tuples, return null until it is
         // re-initialized.
@@ -200,7 +200,7 @@ public class SortMergeJoinNode extends ThetaJoinNode {
 
 
     @Override
-    public Tuple getNextTuple() throws IllegalStateException, IOException {
+    protected Tuple produceNextTuple() throws IllegalStateException, IOException {
         // TODO:  Implement
         return null;
     }
@@ -158,7 +158,7 @@ public class SortNode extends PlanNode {
      * @throws java.io.IOException if table data cannot be read from the filesystem
      * @throws IllegalStateException if a plan node is not properly initialized
      */
-    public Tuple getNextTuple() throws IllegalStateException, IOException {
+    protected Tuple produceNextTuple() throws IllegalStateException, IOException {
         if (done)
             return null;
 
@@ -119,7 +119,7 @@ public abstract class ThetaJoinNode extends PlanNode {
     public void initialize() {
         super.initialize();
 
-        if (joinType != JoinType.CROSS && joinType != JoinType.INNER) {
+        if (!supportsJoinType(joinType)) {
             throw new UnsupportedOperationException(
                 "We don't support joins of type " + joinType + " yet!");
         }
@@ -129,6 +129,20 @@ public abstract class ThetaJoinNode extends PlanNode {
     }
 
 
+    /**
+     * Returns true if this node can perform joins of the specified type.
+     * Only inner joins and cross joins are supported, unless a subclass
+     * supports more.
+     *
+     * @param joinType the type of join
+     *
+     * @return true if this node can perform joins of the type
+     */
+    protected boolean supportsJoinType(JoinType joinType) {
+        return joinType == JoinType.CROSS || joinType == JoinType.INNER;
+    }
+
+
     /**
      * This helper method can be used by the {@link #prepare} method in
      * subclasses, to compute the output schema and initial stats of the
@@ -11,14 +11,35 @@ import org.apache.log4j.Logger;
 import edu.caltech.nanodb.commands.FromClause;
 import edu.caltech.nanodb.commands.SelectClause;
 import edu.caltech.nanodb.commands.SelectValue;
+import edu.caltech.nanodb.expressions.ColumnName;
+import edu.caltech.nanodb.expressions.ColumnValue;
+import edu.caltech.nanodb.expressions.CompareOperator;
 import edu.caltech.nanodb.expressions.Expression;
+import edu.caltech.nanodb.expressions.ExpressionProcessor;
 import edu.caltech.nanodb.expressions.FunctionCall;
+import edu.caltech.nanodb.expressions.LiteralValue;
 import edu.caltech.nanodb.expressions.OrderByExpression;
+import edu.caltech.nanodb.expressions.ParameterValue;
 import edu.caltech.nanodb.expressions.PredicateUtils;
+import edu.caltech.nanodb.expressions.SubqueryOperator;
+import edu.caltech.nanodb.expressions.TupleLiteral;
+import edu.caltech.nanodb.expressions.TypeConverter;
+import edu.caltech.nanodb.indexes.IndexInfo;
+import edu.caltech.nanodb.indexes.IndexManager;
+import edu.caltech.nanodb.indexes.bitmapindex.BitmapIndexManager;
+import edu.caltech.nanodb.relations.BitmapJoinColumnRefs;
+import edu.caltech.nanodb.relations.ColumnInfo;
+import edu.caltech.nanodb.relations.ColumnRefs;
+import edu.caltech.nanodb.relations.ColumnType;
+import edu.caltech.nanodb.relations.ForeignKeyColumnRefs;
 import edu.caltech.nanodb.relations.JoinType;
+import edu.caltech.nanodb.relations.SQLDataType;
 import edu.caltech.nanodb.relations.Schema;
+import edu.caltech.nanodb.relations.SchemaNameException;
 import edu.caltech.nanodb.relations.TableInfo;
+import edu.caltech.nanodb.relations.TableSchema;
 import edu.caltech.nanodb.storage.StorageManager;
+import edu.caltech.nanodb.storage.btreefile.BTreeTupleFile;
 
 
 /**
@@ -163,22 +184,40 @@ public class CostBasedJoinPlanner extends AbstractPlannerImpl {
             handledProjectEarly = true;
         }
 
+        // Find the columns the query uses before aggregate extraction
+        // rewrites the expressions, so that leaf plans can tell whether an
+        // index holds every column they need to produce.
+        Set<ColumnName> usedColumns = findUsedColumns(selClause);
+
         // Look for aggregate function calls, and transform expressions that
         // include them so that we can compute them all in one grouping /
         // aggregate plan node.
         AggregateFunctionExtractor extractor = prepareAggregates(selClause);
 
-        if (fromClause != null) {
-            // Pull out the top-level conjuncts from the WHERE clause on the
-            // query, since we will handle them in special ways if we have
-            // outer joins.
-
-            HashSet<Expression> whereConjuncts = new HashSet<Expression>();
-            PredicateUtils.collectConjuncts(selClause.getWhereExpr(), whereConjuncts);
+        List<Expression> groupByExprs = selClause.getGroupByExprs();
+        boolean grouping = !groupByExprs.isEmpty() || extractor.foundAggregates();
+
+        // Pull out the top-level conjuncts from the WHERE clause on the
+        // query, since we will handle them in special ways if we have
+        // outer joins.
+        HashSet<Expression> whereConjuncts = new HashSet<Expression>();
+        PredicateUtils.collectConjuncts(selClause.getWhereExpr(), whereConjuncts);
+
+        // Counts over bitmap-indexed columns can be computed from the bitmap
+        // indexes, without reading the table at all.
+        boolean handledGroupingEarly = false;
+        if (fromClause != null && grouping) {
+            plan = makeBitmapGroupAggregate(fromClause, whereConjuncts,
+                groupByExprs, extractor.getAggregateCalls());
+            handledGroupingEarly = (plan != null);
+        }
 
+        List<OrderByExpression> orderByExprs = selClause.getOrderByExprs();
+        if (fromClause != null && !handledGroupingEarly) {
             // Create an optimal join plan from the top-level from-clause and the
             // top-level conjuncts.
-            JoinComponent joinComp = makeJoinPlan(fromClause, whereConjuncts);
+            JoinComponent joinComp =
+                makeJoinPlan(fromClause, whereConjuncts, usedColumns);
             plan = joinComp.joinPlan;
 
             HashSet<Expression> unusedConjuncts =
@@ -188,19 +227,51 @@ public class CostBasedJoinPlanner extends AbstractPlannerImpl {
             Expression finalPredicate = PredicateUtils.makePredicate(unusedConjuncts);
             if (finalPredicate != null)
                 plan = addPredicateToPlan(plan, finalPredicate);
+
+            // A query over a single table may be able to read the table's
+            // rows from an index, in the order that the ORDER BY clause
+            // requires.  Use the index if that is cheaper than sorting the
+            // results of the plan we already have.
+            if (!grouping && !orderByExprs.isEmpty()) {
+                PlanNode orderedPlan = makeOrderedScan(fromClause,
+                    whereConjuncts, orderByExprs, usedColumns);
+                if (orderedPlan != null) {
+                    Expression predicate =
+                        PredicateUtils.makePredicate(whereConjuncts);
+                    if (predicate != null)
+                        orderedPlan = addPredicateToPlan(orderedPlan, predicate);
+                    orderedPlan.prepare();
+
+                    PlanNode sortedPlan = plan;
+                    sortedPlan.prepare();
+                    if (!isOrderedBy(sortedPlan, orderByExprs)) {
+                        sortedPlan = new SortNode(sortedPlan, orderByExprs);
+                        sortedPlan.prepare();
+                    }
+
+                    if (isCheaper(orderedPlan.getCost(), sortedPlan.getCost())) {
+                        logger.debug("Reading the table in ORDER BY order " +
+                            "is cheaper than sorting it");
+                        plan = orderedPlan;
+                    }
+                }
+            }
         }
 
         // Handle grouping and aggregation next, if there are any grouping
         // specifications or aggregate operations.
-        List<Expression> groupByExprs = selClause.getGroupByExprs();
-        if (!groupByExprs.isEmpty() || extractor.foundAggregates()) {
-            // Get the aggregates, if present.
-            Map<String, FunctionCall> aggregates = extractor.getAggregateCalls();
-
-            // By default, use a hash-based grouping/aggregate node.  Later
-            // we can replace with a sort-based grouping/aggregate node if
-            // it would be more efficient.
-            plan = new HashedGroupAggregateNode(plan, groupByExprs, aggregates);
+        if (grouping) {
+            if (!handledGroupingEarly) {
+                // Get the aggregates, if present.
+                Map<String, FunctionCall> aggregates =
+                    extractor.getAggregateCalls();
+
+                // By default, use a hash-based grouping/aggregate node.
+                // Later we can replace with a sort-based grouping/aggregate
+                // node if it would be more efficient.
+                plan = new HashedGroupAggregateNode(plan, groupByExprs,
+                    aggregates);
+            }
 
             // Apply the HAVING predicate, if one is present.
             Expression havingExpr = selClause.getHavingExpr();
@@ -214,16 +285,74 @@ public class CostBasedJoinPlanner extends AbstractPlannerImpl {
         if (!selClause.isTrivialProject())
             plan = new ProjectNode(plan, selClause.getSelectValues());
 
-        // Finally, apply any sorting at the end.
-        List<OrderByExpression> orderByExprs = selClause.getOrderByExprs();
-        if (!orderByExprs.isEmpty())
-            plan = new SortNode(plan, orderByExprs);
+        // Finally, apply any sorting at the end, unless the plan already
+        // produces its results in the required order.
+        if (!orderByExprs.isEmpty()) {
+            plan.prepare();
+            if (!isOrderedBy(plan, orderByExprs))
+                plan = new SortNode(plan, orderByExprs);
+        }
 
         plan.prepare();
         return plan;
     }
 
 
+    /**
+     * Makes a plan that computes the grouping and aggregates of a query from
+     * bitmap indexes alone, if that is possible.  The query must read a
+     * single base table that isn't renamed, every <tt>WHERE</tt> conjunct
+     * must be one that bitmap indexes can evaluate, and the grouping and
+     * aggregates must be counts over bitmap-indexed columns; see
+     * {@link BitmapGroupAggregateNode#canComputeAggregates}.
+     *
+     * @param fromClause the <tt>FROM</tt> clause of the query
+     * @param whereConjuncts the top-level conjuncts of the <tt>WHERE</tt>
+     *        clause
+     * @param groupByExprs the <tt>GROUP BY</tt> expressions of the query
+     * @param aggregates the aggregate function calls of the query
+     *
+     * @return a grouping/aggregate plan that reads bitmap indexes, or
+     *         {@code null} if the query can't be answered that way
+     *
+     * @throws IOException if the table can't be opened
+     */
+    private PlanNode makeBitmapGroupAggregate(FromClause fromClause,
+        Set<Expression> whereConjuncts, List<Expression> groupByExprs,
+        Map<String, FunctionCall> aggregates) throws IOException {
+
+        if (fromClause.getClauseType() != FromClause.ClauseType.BASE_TABLE ||
+            fromClause.isRenamed()) {
+            return null;
+        }
+
+        TableInfo tableInfo = storageManager.getTableManager().openTable(
+            fromClause.getTableName());
+        if (tableInfo.getSchema().getBitmapIndexes().isEmpty())
+            return null;
+
+        BitmapIndexManager bitmapIndexManager =
+            storageManager.getBitmapIndexManager();
+        for (Expression conjunct : whereConjuncts) {
+            if (!BitmapIndexScanNode.canProcessExpression(conjunct,
+                bitmapIndexManager, tableInfo)) {
+                return null;
+            }
+        }
+
+        if (!BitmapGroupAggregateNode.canComputeAggregates(groupByExprs,
+            aggregates, bitmapIndexManager, tableInfo)) {
+            return null;
+        }
+
+        BitmapIndexScanNode scan = new BitmapIndexScanNode(
+            PredicateUtils.makePredicate(whereConjuncts), null, tableInfo,
+            bitmapIndexManager);
+        return new BitmapGroupAggregateNode(scan, groupByExprs, aggregates,
+            tableInfo, bitmapIndexManager);
+    }
+
+
     /**
      * Given the top-level {@code FromClause} for a SELECT-FROM-WHERE block,
      * this helper generates an optimal join plan for the {@code FromClause}.
@@ -232,12 +361,15 @@ public class CostBasedJoinPlanner extends AbstractPlannerImpl {
      *        SELECT-FROM-WHERE block.
      * @param extraConjuncts any extra conjuncts (e.g. from the WHERE clause,
      *        or HAVING clause)
+     * @param usedColumns the columns used by the query, or {@code null} if
+     *        they can't be determined
      * @return a {@code JoinComponent} object that represents the optimal plan
      *         corresponding to the FROM-clause
      * @throws IOException if an IO error occurs during planning.
      */
     private JoinComponent makeJoinPlan(FromClause fromClause,
-        Collection<Expression> extraConjuncts) throws IOException {
+        Collection<Expression> extraConjuncts, Set<ColumnName> usedColumns)
+        throws IOException {
 
         // These variables receive the leaf-clauses and join conjuncts found
         // from scanning the sub-clauses.  Initially, we put the extra conjuncts
@@ -263,7 +395,7 @@ public class CostBasedJoinPlanner extends AbstractPlannerImpl {
 
         logger.debug("Generating plans for all leaves");
         ArrayList<JoinComponent> leafComponents = generateLeafJoinComponents(
-            leafFromClauses, roConjuncts);
+            leafFromClauses, roConjuncts, usedColumns);
 
         // Print out the results, for debugging purposes.
         if (logger.isDebugEnabled()) {
@@ -282,10 +414,70 @@ public class CostBasedJoinPlanner extends AbstractPlannerImpl {
         logger.info("Optimal join plan generated:\n" +
             PlanNode.printNodeTreeToString(plan, true));
 
+        // The optimal plan may join the leaves in a different order than
+        // the FROM clause lists them, which also reorders the columns.
+        PlanNode reordered = restoreColumnOrder(plan, leafComponents);
+        if (reordered != plan) {
+            optimalJoin = new JoinComponent(reordered, optimalJoin.leavesUsed,
+                optimalJoin.conjunctsUsed);
+        }
+
         return optimalJoin;
     }
 
 
+    /**
+     * Puts the columns produced by a join plan back in the order of the
+     * leaves of the <tt>FROM</tt> clause, by adding a project node over the
+     * plan.  The plan is returned as is if its columns are already in that
+     * order, or if they can't be named unambiguously.
+     *
+     * @param plan the join plan over all of the leaves
+     *
+     * @param leafComponents the leaves of the join, in the order that the
+     *        <tt>FROM</tt> clause lists them
+     *
+     * @return the plan, or a project node over the plan
+     */
+    private PlanNode restoreColumnOrder(PlanNode plan,
+        List<JoinComponent> leafComponents) {
+
+        if (leafComponents.size() < 2)
+            return plan;
+
+        ArrayList<ColumnInfo> fromColumns = new ArrayList<ColumnInfo>();
+        for (JoinComponent leaf : leafComponents)
+            fromColumns.addAll(leaf.joinPlan.getSchema().getColumnInfos());
+
+        Schema planSchema = plan.getSchema();
+        if (planSchema.numColumns() != fromColumns.size())
+            return plan;
+
+        boolean sameOrder = true;
+        HashSet<ColumnName> names = new HashSet<ColumnName>();
+        for (int i = 0; i < fromColumns.size(); i++) {
+            ColumnInfo colInfo = fromColumns.get(i);
+            if (colInfo.getTableName() == null || !names.add(colInfo.getColumnName()))
+                return plan;
+
+            ColumnInfo planColInfo = planSchema.getColumnInfo(i);
+            if (!colInfo.getColumnName().equals(planColInfo.getColumnName()))
+                sameOrder = false;
+        }
+
+        if (sameOrder)
+            return plan;
+
+        ArrayList<SelectValue> values = new ArrayList<SelectValue>();
+        for (ColumnInfo colInfo : fromColumns)
+            values.add(new SelectValue(new ColumnValue(colInfo.getColumnName()), null));
+
+        PlanNode project = new ProjectNode(plan, values);
+        project.prepare();
+        return project;
+    }
+
+
     /**
      * This helper method pulls the essential details for join optimization
      * out of a <tt>FROM</tt> clause.
@@ -341,6 +533,9 @@ public class CostBasedJoinPlanner extends AbstractPlannerImpl {
      * @param conjuncts the collection of conjuncts that can be applied at this
      *                  level
      *
+     * @param usedColumns the columns used by the query, or {@code null} if
+     *        they can't be determined
+     *
      * @return a collection of {@link JoinComponent} object containing the plans
      *         and other details for each leaf from-clause
      *
@@ -348,8 +543,8 @@ public class CostBasedJoinPlanner extends AbstractPlannerImpl {
      *         schema loaded, for some reason
      */
     private ArrayList<JoinComponent> generateLeafJoinComponents(
-        Collection<FromClause> leafFromClauses, Collection<Expression> conjuncts)
-        throws IOException {
+        Collection<FromClause> leafFromClauses, Collection<Expression> conjuncts,
+        Set<ColumnName> usedColumns) throws IOException {
 
         // Create a subplan for every single leaf FROM-clause, and prepare the
         // leaf-plan.
@@ -358,7 +553,7 @@ public class CostBasedJoinPlanner extends AbstractPlannerImpl {
             HashSet<Expression> leafConjuncts = new HashSet<Expression>();
 
             PlanNode leafPlan =
-                makeLeafPlan(leafClause, conjuncts, leafConjuncts);
+                makeLeafPlan(leafClause, conjuncts, leafConjuncts, usedColumns);
 
             JoinComponent leaf = new JoinComponent(leafPlan, leafConjuncts);
             leafComponents.add(leaf);
@@ -368,6 +563,134 @@ public class CostBasedJoinPlanner extends AbstractPlannerImpl {
     }
 
 
+    /**
+     * Finds the conjuncts on other tables that a table's bitmap join indexes
+     * can evaluate, so that the table's rows are filtered before they are
+     * joined.  This turns a star join into bitmap ANDs on the fact table.  A
+     * conjunct can be used if it only refers to columns of a dimension table
+     * that the table has join indexes on, and the query joins the table to
+     * the dimension table on the foreign key the join indexes are built on.
+     * The conjuncts are still applied to the dimension table as well.
+     *
+     * @param tableInfo the table
+     *
+     * @param tableName the name of the table in the query
+     *
+     * @param conjuncts the conjuncts that can be applied to the plan, or
+     *        {@code null} if there are none
+     *
+     * @param joinIndexConjuncts this is an output-parameter, that the
+     *        conjuncts the join indexes can evaluate are added to
+     *
+     * @throws IOException if the dimension tables can't be opened
+     */
+    private void findJoinIndexConjuncts(TableInfo tableInfo, String tableName,
+        Collection<Expression> conjuncts, Set<Expression> joinIndexConjuncts)
+        throws IOException {
+
+        if (conjuncts == null)
+            return;
+
+        TableSchema schema = tableInfo.getSchema();
+        BitmapIndexManager bitmapIndexManager =
+            storageManager.getBitmapIndexManager();
+
+        HashSet<String> dimensionTables = new HashSet<String>();
+        for (ColumnRefs refs : schema.getBitmapIndexes().values()) {
+            if (!(refs instanceof BitmapJoinColumnRefs))
+                continue;
+
+            BitmapJoinColumnRefs joinRefs = (BitmapJoinColumnRefs) refs;
+            if (dimensionTables.add(joinRefs.getDimensionTable()) &&
+                joinsOnForeignKey(schema, tableName, joinRefs, conjuncts)) {
+                String dimensionTable = joinRefs.getDimensionTable();
+                for (Expression conjunct : conjuncts) {
+                    if (usesOnlyJoinIndexes(conjunct, dimensionTable, tableInfo) &&
+                        BitmapIndexScanNode.canProcessExpression(conjunct,
+                            bitmapIndexManager, tableInfo)) {
+                        joinIndexConjuncts.add(conjunct);
+                    }
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Returns true if the conjuncts include an equality between each column
+     * of a join index's foreign key and the column of the dimension table
+     * that it references.
+     */
+    private boolean joinsOnForeignKey(TableSchema schema, String tableName,
+        BitmapJoinColumnRefs joinRefs, Collection<Expression> conjuncts)
+        throws IOException {
+
+        ForeignKeyColumnRefs foreignKey = joinRefs.getForeignKey(schema);
+        TableSchema dimensionSchema = storageManager.getTableManager().openTable(
+            joinRefs.getDimensionTable()).getSchema();
+
+        for (int i = 0; i < foreignKey.size(); i++) {
+            ColumnName factColumn = new ColumnName(tableName,
+                schema.getColumnInfo(foreignKey.getCol(i)).getName());
+            ColumnName dimensionColumn = new ColumnName(
+                joinRefs.getDimensionTable(),
+                dimensionSchema.getColumnInfo(foreignKey.getRefCol(i)).getName());
+
+            boolean found = false;
+            for (Expression conjunct : conjuncts) {
+                if (!(conjunct instanceof CompareOperator))
+                    continue;
+
+                CompareOperator compare = (CompareOperator) conjunct;
+                if (compare.getType() != CompareOperator.Type.EQUALS ||
+                    !(compare.getLeftExpression() instanceof ColumnValue) ||
+                    !(compare.getRightExpression() instanceof ColumnValue)) {
+                    continue;
+                }
+
+                ColumnName left =
+                    ((ColumnValue) compare.getLeftExpression()).getColumnName();
+                ColumnName right =
+                    ((ColumnValue) compare.getRightExpression()).getColumnName();
+                if ((left.equals(factColumn) && right.equals(dimensionColumn)) ||
+                    (left.equals(dimensionColumn) && right.equals(factColumn))) {
+                    found = true;
+                    break;
+                }
+            }
+
+            if (!found)
+                return false;
+        }
+        return true;
+    }
+
+
+    /**
+     * Returns true if every column an expression refers to is a column of a
+     * dimension table that the table has a join index on.
+     */
+    private boolean usesOnlyJoinIndexes(Expression expression,
+        String dimensionTable, TableInfo tableInfo) {
+
+        ArrayList<ColumnName> symbols = new ArrayList<ColumnName>();
+        expression.getAllSymbols(symbols);
+        if (symbols.isEmpty())
+            return false;
+
+        BitmapIndexManager bitmapIndexManager =
+            storageManager.getBitmapIndexManager();
+        for (ColumnName symbol : symbols) {
+            if (!dimensionTable.equals(symbol.getTableName()) ||
+                !bitmapIndexManager.bitmapIndexExists(tableInfo.getSchema(),
+                    dimensionTable + "." + symbol.getColumnName())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
     /**
      * Constructs a plan tree for evaluating the specified from-clause.
      * Depending on the clause's {@link FromClause#getClauseType type},
@@ -376,7 +699,9 @@ public class CostBasedJoinPlanner extends AbstractPlannerImpl {
      *   <li>
      *     {@link edu.caltech.nanodb.commands.FromClause.ClauseType#BASE_TABLE} -
      *     the clause is a simple table reference, so a simple select operation
-     *     is constructed via {@link #makeSimpleSelect}.
+     *     is constructed via {@link #makeSimpleSelect}, unless bitmap indexes
+     *     can evaluate the clause's predicate, or an index holds every
+     *     column the query uses (see {@link #makeIndexOnlyScan}).
      *   </li>
      *   <li>
      *     {@link edu.caltech.nanodb.commands.FromClause.ClauseType#SELECT_SUBQUERY} -
@@ -403,6 +728,9 @@ public class CostBasedJoinPlanner extends AbstractPlannerImpl {
      *        in this plan from the <tt>conjuncts</tt> collection should be added
      *        to this out-param.
      *
+     * @param usedColumns the columns used by the query, or {@code null} if
+     *        they can't be determined
+     *
      * @return a plan tree for evaluating the specified from-clause
      *
      * @throws IOException if an IO error occurs when the planner attempts to
@@ -413,8 +741,8 @@ public class CostBasedJoinPlanner extends AbstractPlannerImpl {
      *         unrecognized type.
      */
     private PlanNode makeLeafPlan(FromClause fromClause,
-        Collection<Expression> conjuncts, HashSet<Expression> leafConjuncts)
-        throws IOException {
+        Collection<Expression> conjuncts, HashSet<Expression> leafConjuncts,
+        Set<ColumnName> usedColumns) throws IOException {
 
         PlanNode plan;
         boolean bitmap = false;
@@ -433,7 +761,13 @@ public class CostBasedJoinPlanner extends AbstractPlannerImpl {
                 HashSet<Expression> temp = new HashSet<Expression>();
                 PredicateUtils.findExprsUsingSchemas(conjuncts, false,
                         temp, info.getSchema());
-                Expression leafPredicate = PredicateUtils.makePredicate(temp);
+
+                // Conjuncts on other tables can also filter this table's
+                // rows, through its bitmap join indexes
+                HashSet<Expression> candidates = new HashSet<Expression>(temp);
+                findJoinIndexConjuncts(info, fromClause.getResultName(),
+                    conjuncts, candidates);
+                Expression leafPredicate = PredicateUtils.makePredicate(candidates);
 
                 // Check if the predicate can be broken down into a predicate that partially uses bitmap indexes
                 HashSet<Expression> evaluated = new HashSet<Expression>();
@@ -449,9 +783,17 @@ public class CostBasedJoinPlanner extends AbstractPlannerImpl {
                     leafConjuncts.addAll(evaluated);
                     bitmap = true;
                 } else {
-                    // This clause is a base-table, so we just generate a file-scan
-                    // plan node for the table.
-                    plan = makeSimpleSelect(fromClause.getTableName(), null, null);
+                    // If an index holds every column we need from the table,
+                    // we can read the index instead of the table.
+                    plan = makeIndexOnlyScan(info, fromClause, temp,
+                        usedColumns);
+
+                    // Otherwise, this clause is a base-table, so we just
+                    // generate a file-scan plan node for the table.
+                    if (plan == null) {
+                        plan = makeSimpleSelect(fromClause.getTableName(),
+                            null, null);
+                    }
                 }
             }
 
@@ -489,17 +831,28 @@ public class CostBasedJoinPlanner extends AbstractPlannerImpl {
             childConjuncts = conjuncts;
             if (fromClause.hasOuterJoinOnRight())
                 childConjuncts = null;
-            JoinComponent leftComp =
-                makeJoinPlan(fromClause.getLeftChild(), childConjuncts);
+            JoinComponent leftComp = makeJoinPlan(fromClause.getLeftChild(),
+                childConjuncts, usedColumns);
 
             childConjuncts = conjuncts;
             if (fromClause.hasOuterJoinOnLeft())
                 childConjuncts = null;
-            JoinComponent rightComp =
-                makeJoinPlan(fromClause.getRightChild(), childConjuncts);
-
-            plan = new NestedLoopsJoinNode(leftComp.joinPlan, rightComp.joinPlan,
-                fromClause.getJoinType(), fromClause.getPreparedJoinExpr());
+            JoinComponent rightComp = makeJoinPlan(fromClause.getRightChild(),
+                childConjuncts, usedColumns);
+
+            // Only bitmap index joins can perform outer joins so far.
+            BitmapIndexJoinNode bitmapJoin = new BitmapIndexJoinNode(
+                leftComp.joinPlan, rightComp.joinPlan, fromClause.getJoinType(),
+                fromClause.getPreparedJoinExpr(),
+                storageManager.getBitmapIndexManager());
+            if (bitmapJoin.isValid()) {
+                plan = bitmapJoin;
+            }
+            else {
+                plan = new NestedLoopsJoinNode(leftComp.joinPlan,
+                    rightComp.joinPlan, fromClause.getJoinType(),
+                    fromClause.getPreparedJoinExpr());
+            }
 
             leafConjuncts.addAll(leftComp.conjunctsUsed);
             leafConjuncts.addAll(rightComp.conjunctsUsed);
@@ -676,6 +1029,557 @@ public class CostBasedJoinPlanner extends AbstractPlannerImpl {
     }
 
 
+    /**
+     * Finds all columns that a query refers to, in its select values, its
+     * join conditions, and its WHERE, GROUP BY, HAVING and ORDER BY
+     * clauses.  Wildcards are returned as-is.  If the query contains
+     * subqueries then {@code null} is returned, since subqueries may refer
+     * to columns of the enclosing query that we don't find here.
+     *
+     * @param selClause the query to examine
+     *
+     * @return the columns used by the query, or {@code null} if they can't
+     *         be determined
+     */
+    private Set<ColumnName> findUsedColumns(SelectClause selClause) {
+        ArrayList<Expression> exprs = new ArrayList<Expression>();
+        HashSet<ColumnName> usedColumns = new HashSet<ColumnName>();
+
+        for (SelectValue sv : selClause.getSelectValues()) {
+            if (sv.isScalarSubquery())
+                return null;
+            else if (sv.isWildcard())
+                usedColumns.add(sv.getWildcard());
+            else
+                exprs.add(sv.getExpression());
+        }
+
+        if (selClause.getWhereExpr() != null)
+            exprs.add(selClause.getWhereExpr());
+
+        exprs.addAll(selClause.getGroupByExprs());
+
+        if (selClause.getHavingExpr() != null)
+            exprs.add(selClause.getHavingExpr());
+
+        for (OrderByExpression orderBy : selClause.getOrderByExprs())
+            exprs.add(orderBy.getExpression());
+
+        collectJoinExprs(selClause.getFromClause(), exprs);
+
+        // Look for subqueries while collecting the symbols.
+        final boolean[] foundSubquery = {false};
+        ExpressionProcessor subqueryFinder = new ExpressionProcessor() {
+            public void enter(Expression e) {
+                if (e instanceof SubqueryOperator &&
+                    ((SubqueryOperator) e).getSubquery() != null) {
+                    foundSubquery[0] = true;
+                }
+            }
+
+            public Expression leave(Expression e) {
+                return e;
+            }
+        };
+
+        for (Expression e : exprs) {
+            e.traverse(subqueryFinder);
+            e.getAllSymbols(usedColumns);
+        }
+
+        if (foundSubquery[0])
+            return null;
+
+        return usedColumns;
+    }
+
+
+    /**
+     * Adds the join conditions of every join expression in a FROM clause to
+     * a collection.
+     *
+     * @param fromClause the FROM clause to examine, or {@code null}
+     *
+     * @param exprs the collection that receives the join conditions
+     */
+    private void collectJoinExprs(FromClause fromClause,
+                                  Collection<Expression> exprs) {
+        if (fromClause == null || !fromClause.isJoinExpr())
+            return;
+
+        if (fromClause.getPreparedJoinExpr() != null)
+            exprs.add(fromClause.getPreparedJoinExpr());
+
+        collectJoinExprs(fromClause.getLeftChild(), exprs);
+        collectJoinExprs(fromClause.getRightChild(), exprs);
+    }
+
+
+    /**
+     * Attempts to make an index-only scan for a base table in the FROM
+     * clause.  This is possible when some B<sup>+</sup> tree index on the
+     * table stores every column the query uses from the table, either as a
+     * key column or as an included column, and when one of the conjuncts
+     * restricts the leading key column to a single value or range of values.
+     * Indexes aren't used without such a conjunct, since reading the whole
+     * index is rarely cheaper than reading the whole table.
+     * <p>
+     * The conjuncts are not removed from the leaf predicate, so the caller
+     * still applies them to the results of the scan.  This takes care of
+     * any <tt>NULL</tt> keys in the range, and any other conjuncts.
+     *
+     * @param tableInfo the table being scanned
+     *
+     * @param fromClause the FROM clause that refers to the table
+     *
+     * @param conjuncts the conjuncts that only refer to this table
+     *
+     * @param usedColumns the columns used by the query, or {@code null} if
+     *        they can't be determined
+     *
+     * @return an index-only scan of the table, or {@code null} if no index
+     *         can be used
+     *
+     * @throws IOException if an IO error occurs while opening an index
+     */
+    private PlanNode makeIndexOnlyScan(TableInfo tableInfo,
+        FromClause fromClause, Collection<Expression> conjuncts,
+        Set<ColumnName> usedColumns) throws IOException {
+
+        if (usedColumns == null || conjuncts.isEmpty())
+            return null;
+
+        TableSchema schema = tableInfo.getSchema();
+        Map<String, ColumnRefs> indexes = schema.getIndexes();
+        if (indexes.isEmpty())
+            return null;
+
+        Set<Integer> neededColumns =
+            findNeededColumns(schema, fromClause, usedColumns);
+        if (neededColumns == null)
+            return null;
+
+        IndexManager indexManager = storageManager.getIndexManager();
+        for (String indexName : indexes.keySet()) {
+            IndexInfo indexInfo = indexManager.openIndex(tableInfo, indexName);
+            if (!(indexInfo.getTupleFile() instanceof BTreeTupleFile) ||
+                !IndexScanNode.indexCoversColumns(indexInfo, neededColumns)) {
+                continue;
+            }
+
+            int keyCol = indexInfo.getTableColumnRefs().getCol(0);
+            IndexScanNode scan = makeKeyScan(indexInfo,
+                schema.getColumnInfo(keyCol).getName(),
+                schema.getColumnInfo(keyCol).getType(), conjuncts, false);
+
+            if (scan != null) {
+                logger.debug("Using index-only scan of index " + indexName +
+                    " for table " + tableInfo.getTableName());
+                scan.setIndexOnly(true);
+                scan.prepare();
+                return scan;
+            }
+        }
+
+        return null;
+    }
+
+
+    /**
+     * Finds the columns of a table that a query uses.
+     *
+     * @param schema the schema of the table
+     *
+     * @param fromClause the <tt>FROM</tt> clause that names the table
+     *
+     * @param usedColumns the columns used by the query
+     *
+     * @return the indexes of the table's columns that the query uses, or
+     *         {@code null} if the query uses every column of the table
+     */
+    private Set<Integer> findNeededColumns(TableSchema schema,
+        FromClause fromClause, Set<ColumnName> usedColumns) {
+
+        String resultName = fromClause.getResultName();
+        HashSet<Integer> neededColumns = new HashSet<Integer>();
+        for (ColumnName colName : usedColumns) {
+            if (colName.isTableSpecified() &&
+                !colName.getTableName().equals(resultName)) {
+                continue;
+            }
+
+            if (colName.isColumnWildcard()) {
+                // Every column of the table is needed.
+                return null;
+            }
+
+            for (int i = 0; i < schema.numColumns(); i++) {
+                if (colName.getColumnName().equals(
+                    schema.getColumnInfo(i).getName())) {
+                    neededColumns.add(i);
+                }
+            }
+        }
+
+        return neededColumns;
+    }
+
+
+    /**
+     * Makes a plan that reads the rows of a base table from a
+     * B<sup>+</sup> tree index, in the order that a query's <tt>ORDER
+     * BY</tt> clause requires, so that the rows don't need to be sorted.
+     * The <tt>ORDER BY</tt> clause must list leading key columns of the
+     * index, and must sort them all ascending or all descending; in the
+     * latter case the index is scanned backwards.  Conjuncts on the leading
+     * key column bound the range of the scan, and if the index holds every
+     * column the query uses then the table isn't read at all.  The caller
+     * only uses this plan if it is cheaper than sorting the query's rows.
+     * <p>
+     * Bitmap indexes are preferred when they can evaluate the query's
+     * predicate, since they may select far fewer rows than an index scan
+     * reads.
+     *
+     * @param fromClause the <tt>FROM</tt> clause of the query
+     *
+     * @param whereConjuncts the top-level conjuncts of the <tt>WHERE</tt>
+     *        clause
+     *
+     * @param orderByExprs the <tt>ORDER BY</tt> expressions of the query
+     *
+     * @param usedColumns the columns used by the query, or {@code null} if
+     *        they can't be determined
+     *
+     * @return an index scan, possibly renamed, or {@code null} if the query
+     *         can't be answered that way
+     *
+     * @throws IOException if the table or its indexes can't be opened
+     */
+    private PlanNode makeOrderedScan(FromClause fromClause,
+        Set<Expression> whereConjuncts, List<OrderByExpression> orderByExprs,
+        Set<ColumnName> usedColumns) throws IOException {
+
+        if (fromClause.getClauseType() != FromClause.ClauseType.BASE_TABLE)
+            return null;
+
+        // Every ORDER BY expression must be a column of the table, and they
+        // must all be sorted in the same direction.
+        String resultName = fromClause.getResultName();
+        boolean descending = !orderByExprs.get(0).isAscending();
+        ArrayList<String> orderColumns = new ArrayList<String>();
+        for (OrderByExpression orderByExpr : orderByExprs) {
+            Expression expr = orderByExpr.getExpression();
+            if (!(expr instanceof ColumnValue) ||
+                orderByExpr.isAscending() == descending) {
+                return null;
+            }
+
+            ColumnName colName = ((ColumnValue) expr).getColumnName();
+            if (colName.isTableSpecified() &&
+                !colName.getTableName().equals(resultName)) {
+                return null;
+            }
+
+            orderColumns.add(colName.getColumnName());
+        }
+
+        TableInfo tableInfo = storageManager.getTableManager().openTable(
+            fromClause.getTableName());
+        TableSchema schema = tableInfo.getSchema();
+        if (schema.getIndexes().isEmpty())
+            return null;
+
+        // The conjuncts refer to the table by its alias, if it has one.
+        Schema resultSchema = fromClause.getPreparedSchema();
+        if (resultSchema == null)
+            resultSchema = schema;
+
+        HashSet<Expression> conjuncts = new HashSet<Expression>();
+        PredicateUtils.findExprsUsingSchemas(whereConjuncts, false,
+            conjuncts, resultSchema);
+        if (BitmapIndexScanNode.canSplitExpression(
+            PredicateUtils.makePredicate(conjuncts),
+            storageManager.getBitmapIndexManager(), tableInfo,
+            new HashSet<Expression>())) {
+            return null;
+        }
+
+        IndexManager indexManager = storageManager.getIndexManager();
+        for (String indexName : schema.getIndexes().keySet()) {
+            IndexInfo indexInfo = indexManager.openIndex(tableInfo, indexName);
+            ColumnRefs keyCols = indexInfo.getTableColumnRefs();
+            if (!(indexInfo.getTupleFile() instanceof BTreeTupleFile) ||
+                keyCols.size() < orderColumns.size()) {
+                continue;
+            }
+
+            boolean ordered = true;
+            for (int i = 0; i < orderColumns.size(); i++) {
+                String keyColName =
+                    schema.getColumnInfo(keyCols.getCol(i)).getName();
+                if (!keyColName.equals(orderColumns.get(i))) {
+                    ordered = false;
+                    break;
+                }
+            }
+            if (!ordered)
+                continue;
+
+            ColumnInfo keyColInfo = schema.getColumnInfo(keyCols.getCol(0));
+            IndexScanNode scan = makeKeyScan(indexInfo, keyColInfo.getName(),
+                keyColInfo.getType(), conjuncts, descending);
+            if (scan == null) {
+                scan = new IndexScanNode(indexInfo, null, false, null, false,
+                    descending);
+            }
+
+            if (usedColumns != null) {
+                Set<Integer> neededColumns =
+                    findNeededColumns(schema, fromClause, usedColumns);
+                if (neededColumns != null &&
+                    IndexScanNode.indexCoversColumns(indexInfo, neededColumns)) {
+                    scan.setIndexOnly(true);
+                }
+            }
+
+            logger.debug("Using index " + indexName + " to read table " +
+                tableInfo.getTableName() + " in ORDER BY order");
+
+            PlanNode plan = scan;
+            if (fromClause.isRenamed())
+                plan = new RenameNode(plan, resultName);
+
+            plan.prepare();
+            return plan;
+        }
+
+        return null;
+    }
+
+
+    /**
+     * Returns true if a plan produces its results in the order that an
+     * <tt>ORDER BY</tt> clause requires, because the plan's
+     * {@link PlanNode#resultsOrderedBy ordering} begins with the same
+     * columns, sorted in the same directions.
+     *
+     * @param plan the prepared plan to examine
+     *
+     * @param orderByExprs the <tt>ORDER BY</tt> expressions of the query
+     *
+     * @return true if the plan's results don't need to be sorted
+     */
+    private boolean isOrderedBy(PlanNode plan,
+                                List<OrderByExpression> orderByExprs) {
+        List<OrderByExpression> resultsOrder = plan.resultsOrderedBy();
+        if (resultsOrder == null || resultsOrder.size() < orderByExprs.size())
+            return false;
+
+        Schema schema = plan.getSchema();
+        for (int i = 0; i < orderByExprs.size(); i++) {
+            OrderByExpression required = orderByExprs.get(i);
+            OrderByExpression produced = resultsOrder.get(i);
+            if (required.isAscending() != produced.isAscending())
+                return false;
+
+            int iCol = findColumn(schema, required.getExpression());
+            if (iCol == -1 ||
+                iCol != findColumn(schema, produced.getExpression())) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+
+    /**
+     * Returns true if one plan is cheaper than another.  Plans are compared
+     * by the number of block IOs they perform, since those dominate the
+     * time they take, and then by their CPU costs.  A plan whose cost isn't
+     * known is never considered cheaper.
+     *
+     * @param cost the cost of the first plan, or {@code null} if unknown
+     *
+     * @param otherCost the cost of the second plan, or {@code null} if
+     *        unknown
+     *
+     * @return true if the first plan is cheaper than the second one
+     */
+    private boolean isCheaper(PlanCost cost, PlanCost otherCost) {
+        if (cost == null)
+            return false;
+
+        if (otherCost == null)
+            return true;
+
+        if (cost.numBlockIOs != otherCost.numBlockIOs)
+            return cost.numBlockIOs < otherCost.numBlockIOs;
+
+        return cost.cpuCost < otherCost.cpuCost;
+    }
+
+
+    /**
+     * Finds the column of a schema that an expression refers to.
+     *
+     * @param schema the schema to search
+     *
+     * @param expr the expression
+     *
+     * @return the index of the column, or -1 if the expression isn't a
+     *         reference to exactly one column of the schema
+     */
+    private int findColumn(Schema schema, Expression expr) {
+        if (!(expr instanceof ColumnValue))
+            return -1;
+
+        try {
+            return schema.getColumnIndex(((ColumnValue) expr).getColumnName());
+        }
+        catch (SchemaNameException e) {
+            // The column's name is ambiguous.
+            return -1;
+        }
+    }
+
+
+    /**
+     * Makes an index scan from the conjuncts that compare the leading key
+     * column of an index to a literal value, or to a parameter of a prepared
+     * statement.  If some conjunct requires the column to equal a value then
+     * an equality scan is made; otherwise the first lower and upper bounds
+     * that are found become a range scan.  Parameters have no value until the
+     * statement is executed, so the scan computes those keys when it starts.
+     *
+     * @param indexInfo the index to scan
+     *
+     * @param keyColName the name of the index's leading key column
+     *
+     * @param keyColType the type of the index's leading key column
+     *
+     * @param conjuncts the conjuncts to examine
+     *
+     * @param descending true if the scan must produce tuples in descending
+     *        order of the index's key; this requires a B<sup>+</sup> tree
+     *        index, and an equality scan becomes a range scan over the key
+     *
+     * @return an index scan, or {@code null} if no conjunct restricts the
+     *         leading key column
+     */
+    private IndexScanNode makeKeyScan(IndexInfo indexInfo, String keyColName,
+        ColumnType keyColType, Collection<Expression> conjuncts,
+        boolean descending) {
+
+        TupleLiteral lower = null;
+        TupleLiteral upper = null;
+        boolean includeLower = false;
+        boolean includeUpper = false;
+        Expression lowerParam = null;
+        Expression upperParam = null;
+
+        for (Expression e : conjuncts) {
+            if (!(e instanceof CompareOperator))
+                continue;
+
+            CompareOperator cmp = (CompareOperator) e;
+            CompareOperator.Type type = cmp.getType();
+            Expression lhs = cmp.getLeftExpression();
+            Expression rhs = cmp.getRightExpression();
+
+            if ((lhs instanceof LiteralValue || lhs instanceof ParameterValue) &&
+                rhs instanceof ColumnValue) {
+                // Put the column on the left, flipping the comparison.
+                Expression tmp = lhs;
+                lhs = rhs;
+                rhs = tmp;
+                type = type.flip();
+            }
+
+            if (!(lhs instanceof ColumnValue && (rhs instanceof LiteralValue ||
+                  rhs instanceof ParameterValue))) {
+                continue;
+            }
+
+            ColumnName colName = ((ColumnValue) lhs).getColumnName();
+            if (!keyColName.equals(colName.getColumnName()))
+                continue;
+
+            TupleLiteral key = new TupleLiteral();
+            Expression param = null;
+            if (rhs instanceof ParameterValue) {
+                // The scan converts the parameter's value to the column's
+                // type when it starts; this key is just a placeholder.
+                param = rhs;
+                key.addValue(null);
+            }
+            else {
+                // The index compares values without coercing them, so the
+                // literal must have the same type as the column.
+                Object value = rhs.evaluate();
+                SQLDataType valueType = TypeConverter.getSQLType(value);
+                SQLDataType colType = keyColType.getBaseType();
+                if (value == null || (valueType != colType &&
+                    !(valueType == SQLDataType.VARCHAR &&
+                      colType == SQLDataType.CHAR))) {
+                    continue;
+                }
+
+                key.addValue(value);
+            }
+
+            switch (type) {
+            case EQUALS:
+                IndexScanNode scan;
+                if (descending) {
+                    scan = new IndexScanNode(indexInfo, key, true, key, true,
+                        true);
+                    if (param != null)
+                        scan.setKeyExpressions(param, param, keyColType);
+                }
+                else {
+                    scan = new IndexScanNode(indexInfo, key);
+                    if (param != null)
+                        scan.setKeyExpressions(param, null, keyColType);
+                }
+
+                return scan;
+
+            case GREATER_THAN:
+            case GREATER_OR_EQUAL:
+                if (lower == null) {
+                    lower = key;
+                    lowerParam = param;
+                    includeLower = (type == CompareOperator.Type.GREATER_OR_EQUAL);
+                }
+                break;
+
+            case LESS_THAN:
+            case LESS_OR_EQUAL:
+                if (upper == null) {
+                    upper = key;
+                    upperParam = param;
+                    includeUpper = (type == CompareOperator.Type.LESS_OR_EQUAL);
+                }
+                break;
+
+            default:
+                // Inequality doesn't restrict the range of the scan.
+            }
+        }
+
+        if (lower == null && upper == null)
+            return null;
+
+        IndexScanNode scan = new IndexScanNode(indexInfo, lower, includeLower,
+            upper, includeUpper, descending);
+        if (lowerParam != null || upperParam != null)
+            scan.setKeyExpressions(lowerParam, upperParam, keyColType);
+
+        return scan;
+    }
+
+
     /**
      * Constructs a simple select plan that reads directly from a table, with
      * an optional predicate for selecting rows.
@@ -3,8 +3,8 @@ package edu.caltech.nanodb.qeval;
 
 /**
  * This class holds statistics generated from a query evaluation operation,
- * such as the number of rows fetched and the total time to perform the
- * evaluation.
+ * such as the number of rows fetched, the total time to perform the
+ * evaluation, and the number of pages it read.
  */
 public class EvalStats {
 
@@ -15,10 +15,29 @@ public class EvalStats {
     /** The total time elapsed for query evaluation, in nanoseconds. */
     private long elapsedTimeNanos;
 
+
+    /** The number of pages read from disk during the evaluation. */
+    private long pagesRead;
+
+
+    /**
+     * The number of pages requested during the evaluation that were already
+     * in memory.
+     */
+    private long pagesHit;
+
     
     public EvalStats(int rowsProduced, long elapsedTimeNanos) {
+        this(rowsProduced, elapsedTimeNanos, 0, 0);
+    }
+
+
+    public EvalStats(int rowsProduced, long elapsedTimeNanos, long pagesRead,
+                     long pagesHit) {
         this.rowsProduced = rowsProduced;
         this.elapsedTimeNanos = elapsedTimeNanos;
+        this.pagesRead = pagesRead;
+        this.pagesHit = pagesHit;
     }
     
     
@@ -32,6 +51,16 @@ public class EvalStats {
     }
     
     
+    public long getPagesRead() {
+        return pagesRead;
+    }
+
+
+    public long getPagesHit() {
+        return pagesHit;
+    }
+
+
     public float getElapsedTimeSecs() {
         // 1 second contains 10^9 nanoseconds
         return (float) elapsedTimeNanos / 1e9f;
@@ -0,0 +1,158 @@
+package edu.caltech.nanodb.qeval;
+
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import edu.caltech.nanodb.client.SessionState;
+
+
+/**
+ * This class holds the statistics actually measured while a plan node was
+ * evaluated, for <tt>EXPLAIN ANALYZE</tt>, so that they can be compared with
+ * the node's estimated {@link PlanCost}.  The plan node calls
+ * {@link #startCall} and {@link #endCall} around each request for its next
+ * tuple.
+ * <p>
+ * The time, page accesses and memory allocated during a call include the work
+ * done by the node's children, since the node asks its children for tuples
+ * during the call.  Page accesses are taken from the counts that the storage
+ * manager keeps for the current session.  Memory is measured as the bytes
+ * allocated by the current thread, where the JVM supports it; Java doesn't
+ * report how much of that memory a node still holds.
+ */
+public class NodeEvalStats {
+
+    /** Used to measure the memory allocated by the current thread. */
+    private static final ThreadMXBean threadBean =
+        ManagementFactory.getThreadMXBean();
+
+
+    /** The number of tuples the node produced. */
+    private int rowsProduced;
+
+
+    /** The total time spent producing the node's tuples, in nanoseconds. */
+    private long elapsedTimeNanos;
+
+
+    /** The number of pages requested that were already in memory. */
+    private long pagesHit;
+
+
+    /** The number of pages requested that had to be read from disk. */
+    private long pagesRead;
+
+
+    /**
+     * The number of bytes allocated while producing the node's tuples, or -1
+     * if the JVM can't measure it.
+     */
+    private long bytesAllocated;
+
+
+    // The values at the start of the current call.
+
+    private long startTime;
+
+    private long startPagesHit;
+
+    private long startPagesRead;
+
+    private long startBytesAllocated;
+
+
+    public NodeEvalStats() {
+        bytesAllocated = (getAllocatedBytes() < 0) ? -1 : 0;
+    }
+
+
+    /**
+     * Returns the number of bytes the current thread has allocated, or -1 if
+     * the JVM can't measure it.
+     */
+    private static long getAllocatedBytes() {
+        if (threadBean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean bean =
+                (com.sun.management.ThreadMXBean) threadBean;
+
+            if (bean.isThreadAllocatedMemorySupported() &&
+                bean.isThreadAllocatedMemoryEnabled()) {
+                return bean.getThreadAllocatedBytes(
+                    Thread.currentThread().getId());
+            }
+        }
+
+        return -1;
+    }
+
+
+    /** Records the start of a request for the node's next tuple. */
+    public void startCall() {
+        SessionState state = SessionState.get();
+        startPagesHit = state.getPagesHit();
+        startPagesRead = state.getPagesRead();
+
+        if (bytesAllocated >= 0)
+            startBytesAllocated = getAllocatedBytes();
+
+        startTime = System.nanoTime();
+    }
+
+
+    /**
+     * Records the end of a request for the node's next tuple.
+     *
+     * @param produced true if the node produced a tuple, or false if it had
+     *        no more tuples
+     */
+    public void endCall(boolean produced) {
+        elapsedTimeNanos += System.nanoTime() - startTime;
+
+        SessionState state = SessionState.get();
+        pagesHit += state.getPagesHit() - startPagesHit;
+        pagesRead += state.getPagesRead() - startPagesRead;
+
+        if (bytesAllocated >= 0)
+            bytesAllocated += getAllocatedBytes() - startBytesAllocated;
+
+        if (produced)
+            rowsProduced++;
+    }
+
+
+    public int getRowsProduced() {
+        return rowsProduced;
+    }
+
+
+    public long getElapsedTimeNanos() {
+        return elapsedTimeNanos;
+    }
+
+
+    public long getPagesHit() {
+        return pagesHit;
+    }
+
+
+    public long getPagesRead() {
+        return pagesRead;
+    }
+
+
+    public long getBytesAllocated() {
+        return bytesAllocated;
+    }
+
+
+    @Override
+    public String toString() {
+        String alloc = (bytesAllocated < 0) ? "?" :
+            String.format("%.1f", bytesAllocated / 1024.0);
+
+        return String.format("[rows=%d, time=%.3fms, pagesRead=%d, " +
+            "pagesHit=%d, allocKB=%s]", rowsProduced, elapsedTimeNanos / 1e6,
+            pagesRead, pagesHit, alloc);
+    }
+}
@@ -1,11 +1,15 @@
 package edu.caltech.nanodb.qeval;
 
 
+import edu.caltech.nanodb.client.SessionState;
+
 import edu.caltech.nanodb.plans.PlanNode;
 
 import edu.caltech.nanodb.relations.Schema;
 import edu.caltech.nanodb.relations.Tuple;
 
+import edu.caltech.nanodb.server.performance.PerformanceCounters;
+
 
 public class QueryEvaluator {
 
@@ -27,6 +31,9 @@ public class QueryEvaluator {
 
         // Execute the plan, and record some basic statistics as we go.
 
+        SessionState state = SessionState.get();
+        long startPagesHit = state.getPagesHit();
+        long startPagesRead = state.getPagesRead();
         long startTime = System.nanoTime();
 
         Schema resultSchema = plan.getSchema();
@@ -56,9 +63,13 @@ public class QueryEvaluator {
         processor.finish();
 
         long elapsedTimeNanos = System.nanoTime() - startTime;
+        PerformanceCounters.recordLatency(PerformanceCounters.QUERY_EXEC_TIME,
+            elapsedTimeNanos);
 
         // Return the basic statistics we gathered.
-        return new EvalStats(rowsProduced, elapsedTimeNanos);
+        return new EvalStats(rowsProduced, elapsedTimeNanos,
+            state.getPagesRead() - startPagesRead,
+            state.getPagesHit() - startPagesHit);
     }
 }
 
@@ -0,0 +1,76 @@
+package edu.caltech.nanodb.relations;
+
+
+import java.util.Arrays;
+
+
+/**
+ * This class represents a bitmap join index:  an index on a table's rows by
+ * the value of a column in another table that the rows refer to through a
+ * foreign key.  The columns of the index are the columns of the foreign key,
+ * and the foreign key's referenced table is the index's <em>dimension
+ * table</em>.
+ */
+public class BitmapJoinColumnRefs extends ColumnRefs {
+    /** The name of the table referenced by the foreign key. */
+    private String dimensionTable;
+
+
+    /** The name of the column of the dimension table that is indexed. */
+    private String dimensionColumn;
+
+
+    public BitmapJoinColumnRefs(String indexName, int[] colIndexes,
+                                String dimensionTable, String dimensionColumn) {
+        super(indexName, colIndexes);
+
+        if (dimensionTable == null)
+            throw new IllegalArgumentException("dimensionTable cannot be null");
+
+        if (dimensionColumn == null)
+            throw new IllegalArgumentException("dimensionColumn cannot be null");
+
+        this.dimensionTable = dimensionTable;
+        this.dimensionColumn = dimensionColumn;
+    }
+
+
+    public String getDimensionTable() {
+        return dimensionTable;
+    }
+
+
+    public String getDimensionColumn() {
+        return dimensionColumn;
+    }
+
+
+    /**
+     * Finds the foreign key that joins a table to the dimension table, given
+     * the table's schema.
+     *
+     * @param schema the schema of the table the index is on
+     *
+     * @return the foreign key whose columns are this index's columns, and
+     *         which references the dimension table
+     *
+     * @throws IllegalStateException if the table has no such foreign key
+     */
+    public ForeignKeyColumnRefs getForeignKey(TableSchema schema) {
+        for (ForeignKeyColumnRefs fk : schema.getForeignKeys()) {
+            if (fk.getRefTable().equals(dimensionTable) &&
+                Arrays.equals(fk.getCols(), getCols())) {
+                return fk;
+            }
+        }
+        throw new IllegalStateException("No foreign key for bitmap join index " +
+            getIndexName() + " references table " + dimensionTable);
+    }
+
+
+    @Override
+    public String toString() {
+        return super.toString() + " joined to " + dimensionTable + "." +
+            dimensionColumn;
+    }
+}
@@ -22,6 +22,15 @@ public class ColumnRefs {
     private int[] colIndexes;
 
 
+    /**
+     * For indexes, this array holds the indexes of additional columns whose
+     * values are stored in each index entry, but are not part of the index's
+     * key.  This allows queries that only use these columns and the key
+     * columns to be answered from the index alone.
+     */
+    private int[] includedColIndexes = new int[0];
+
+
     /**
      * If this index was created to enforce a particular table constraint,
      * this field specifies the kind of constraint it is used to enforce.
@@ -89,6 +98,51 @@ public class ColumnRefs {
     }
 
 
+    /**
+     * Returns the indexes of the non-key columns that are included in each
+     * index entry.  The array is empty if no columns are included.
+     *
+     * @return the indexes of the included columns
+     */
+    public int[] getIncludedCols() {
+        return includedColIndexes;
+    }
+
+
+    /**
+     * Sets the non-key columns that are included in each index entry.
+     *
+     * @param includedColIndexes the indexes of the included columns
+     *
+     * @throws IllegalArgumentException if an included column is negative,
+     *         is duplicated, or is also a key column
+     */
+    public void setIncludedCols(int[] includedColIndexes) {
+        if (includedColIndexes == null)
+            throw new IllegalArgumentException("includedColIndexes cannot be null");
+
+        HashSet<Integer> seen = new HashSet<Integer>();
+        for (int i : colIndexes)
+            seen.add(i);
+
+        for (int i : includedColIndexes) {
+            if (i < 0) {
+                throw new IllegalArgumentException(
+                    "includedColIndexes cannot contain negative values; got " +
+                    Arrays.toString(includedColIndexes));
+            }
+
+            if (!seen.add(i)) {
+                throw new IllegalArgumentException("includedColIndexes " +
+                    "cannot repeat a column or include a key column; got " +
+                    Arrays.toString(includedColIndexes));
+            }
+        }
+
+        this.includedColIndexes = includedColIndexes;
+    }
+
+
     /**
      * Returns true if the specified <tt>ColumnIndexes</tt> object has the
      * same columns as this object, in the exact same order.
@@ -164,6 +218,11 @@ public class ColumnRefs {
         }
         buf.append(')');
 
+        if (includedColIndexes.length > 0) {
+            buf.append(" include ");
+            buf.append(Arrays.toString(includedColIndexes));
+        }
+
         return buf.toString();
     }
 }
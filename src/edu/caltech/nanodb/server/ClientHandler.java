@@ -3,8 +3,6 @@ package edu.caltech.nanodb.server;
 
 import java.io.EOFException;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.PrintStream;
 import java.io.StringReader;
 
@@ -16,7 +14,10 @@ import edu.caltech.nanodb.client.SessionState;
 import org.apache.log4j.Logger;
 
 import edu.caltech.nanodb.commands.Command;
+import edu.caltech.nanodb.commands.ExecuteCommand;
+import edu.caltech.nanodb.commands.ExecutionException;
 import edu.caltech.nanodb.commands.ExitCommand;
+import edu.caltech.nanodb.commands.FetchCommand;
 import edu.caltech.nanodb.commands.SelectCommand;
 
 import edu.caltech.nanodb.sqlparse.NanoSqlLexer;
@@ -41,10 +42,10 @@ public class ClientHandler implements Runnable {
     private Socket sock;
 
 
-    private ObjectInputStream objectInput;
+    private ProtocolReader protocolInput;
 
 
-    private ObjectOutputStream objectOutput;
+    private ProtocolWriter protocolOutput;
 
 
     private ForwardingOutputStream commandOutput;
@@ -56,6 +57,10 @@ public class ClientHandler implements Runnable {
     private TupleSender tupleSender;
 
 
+    /** The state of this client's session. */
+    private SessionState session;
+
+
     /**
      * Initialize a new client handler with the specified ID and socket.
      *
@@ -72,92 +77,208 @@ public class ClientHandler implements Runnable {
         this.server = server;
         this.id = id;
         this.sock = sock;
+
+        session = SessionState.newSession();
+    }
+
+
+    public int getID() {
+        return id;
+    }
+
+
+    public SessionState getSession() {
+        return session;
     }
 
 
     /**
-     * This is the main loop that handles the commands from the client.
+     * This is the main loop that handles the commands from the client, when
+     * the client is given a thread of its own.
      */
     @Override
     public void run() {
+        SessionState.set(session);
         try {
-            // Communicate over the socket using Java serialization, since
-            // it's much easier than implementing our own write protocol.
-            objectOutput = new ObjectOutputStream(sock.getOutputStream());
-            objectInput = new ObjectInputStream(sock.getInputStream());
-
-            // This tuple-processor is used to send tuples back to the client
-            // over the ObjectOutputStream that uses the socket.
-            tupleSender = new TupleSender(objectOutput);
-
-            // Also, set up a PrintStream that queues up text written by
-            // the currently executing command, and when the PrintStream
-            // is flushed, forward the string text over the same
-            // ObjectOutputStream that wraps the socket.
-            commandOutput = new ForwardingOutputStream(objectOutput);
-            printOutput = new PrintStream(commandOutput);
-            SessionState.get().setOutputStream(printOutput);
-
-            while (true) {
-                // Receive a command from the client and execute it.
-
-                String commandText;
-                Command cmd;
-                try {
-                    commandText = (String) objectInput.readObject();
-                    StringReader sReader = new StringReader(commandText);
-                    NanoSqlLexer lexer = new NanoSqlLexer(sReader);
-                    NanoSqlParser parser = new NanoSqlParser(lexer);
-
-                    cmd = parser.command_semicolon();
-                }
-                catch (EOFException e) {
-                    logger.info(String.format("Client %d disconnected.%n", id));
-                    break;
-                }
-                catch (RecognitionException e) {
-                    System.out.println("Parser error:  " + e.getMessage());
-                    logger.error("Parser error", e);
-
-                    // Send error back to the client.
-                    objectOutput.writeObject(e);
-                    continue;
-                }
-                catch (TokenStreamException e) {
-                    System.out.println("Input stream error:  " + e.getMessage());
-                    logger.error("Input stream error", e);
-
-                    // Send error back to the client.
-                    objectOutput.writeObject(e);
-                    continue;
-                }
-                catch (Exception e) {
-                    // This could be an IOException, a ClassNotFoundException,
-                    // or a ClassCastException.
-                    logger.error(String.format("Error communicating with " +
-                        "client %d!  Disconnecting.%n", id), e);
-                    break;
-                }
-
-                // Try to execute the command, and send the response back to the
-                // client.
-
-                if (cmd instanceof ExitCommand) {
-                    logger.info(String.format("Client %d is exiting.", id));
-                    break;
-                }
-
-                commandOutput.reset();  // (just in case)
-                doCommand(cmd);
-                objectOutput.writeObject(commandOutput.toString());
-                objectOutput.writeObject(CommandState.COMMAND_COMPLETED);
-                commandOutput.reset();
-            }
+            open();
+            while (handleCommand());
         }
         catch (IOException e) {
             logger.error(String.format(
                 "Couldn't establish communication with client %d!%n", id), e);
         }
+        finally {
+            SessionState.remove();
+        }
+    }
+
+
+    /**
+     * Sets up communication with the client over the socket.  This must be
+     * called before any commands are handled.
+     *
+     * @throws IOException if the socket's streams can't be opened
+     */
+    public void open() throws IOException {
+        // Communicate over the socket using NanoDB's binary protocol,
+        // which sends result rows in compact batches.
+        protocolOutput = new ProtocolWriter(sock.getOutputStream());
+        protocolInput = new ProtocolReader(sock.getInputStream());
+
+        // This tuple-processor is used to send tuples back to the client
+        // over the protocol writer that uses the socket.
+        tupleSender = new TupleSender(protocolOutput);
+
+        // Also, set up a PrintStream that queues up text written by
+        // the currently executing command, and when the PrintStream
+        // is flushed, forward the string text over the same
+        // protocol writer that wraps the socket.
+        commandOutput = new ForwardingOutputStream(protocolOutput);
+        printOutput = new PrintStream(commandOutput);
+        session.setOutputStream(printOutput);
+    }
+
+
+    /**
+     * Returns true if some of the client's next command has already been
+     * received, so that handling it won't wait for the client.
+     *
+     * @return true if some of the client's next command has been received
+     *
+     * @throws IOException if the socket can't be checked
+     */
+    public boolean hasInput() throws IOException {
+        return protocolInput.hasInput();
+    }
+
+
+    /**
+     * Receives one command from the client, executes it, and sends the
+     * response back to the client.  The client's session must be the
+     * session of the calling thread.
+     *
+     * @return true if the client may send more commands, or false if the
+     *         client exited or disconnected
+     *
+     * @throws IOException if the response can't be sent to the client
+     */
+    public boolean handleCommand() throws IOException {
+        // Receive a command from the client and execute it.
+
+        String commandText;
+        Command cmd;
+        try {
+            commandText = (String) protocolInput.readMessage();
+            StringReader sReader = new StringReader(commandText);
+            NanoSqlLexer lexer = new NanoSqlLexer(sReader);
+            NanoSqlParser parser = new NanoSqlParser(lexer);
+
+            cmd = parser.command_semicolon();
+        }
+        catch (EOFException e) {
+            logger.info(String.format("Client %d disconnected.%n", id));
+            return false;
+        }
+        catch (RecognitionException e) {
+            System.out.println("Parser error:  " + e.getMessage());
+            logger.error("Parser error", e);
+
+            // Send error back to the client.
+            protocolOutput.writeError(e);
+            endResponse();
+            return true;
+        }
+        catch (TokenStreamException e) {
+            System.out.println("Input stream error:  " + e.getMessage());
+            logger.error("Input stream error", e);
+
+            // Send error back to the client.
+            protocolOutput.writeError(e);
+            endResponse();
+            return true;
+        }
+        catch (Exception e) {
+            // This could be an IOException, or a ClassCastException.
+            logger.error(String.format("Error communicating with " +
+                "client %d!  Disconnecting.%n", id), e);
+            return false;
+        }
+
+        // Try to execute the command, and send the response back to the
+        // client.
+
+        if (cmd instanceof ExitCommand) {
+            logger.info(String.format("Client %d is exiting.", id));
+
+            // Responses to the client's earlier commands may be waiting.
+            protocolOutput.flush();
+            return false;
+        }
+
+        commandOutput.reset();  // (just in case)
+        doCommand(cmd);
+        protocolOutput.writeText(commandOutput.toString());
+        commandOutput.reset();
+        endResponse();
+
+        return true;
+    }
+
+
+    /**
+     * Completes the response to a command.  If the client has already sent
+     * its next command, the response isn't flushed yet, so that the
+     * responses to pipelined commands go out together; rows are still sent
+     * as their batches fill up, so large results stream back as they are
+     * produced.
+     */
+    private void endResponse() throws IOException {
+        protocolOutput.writeState(CommandState.COMMAND_COMPLETED);
+        if (!protocolInput.hasInput())
+            protocolOutput.flush();
+    }
+
+
+    /**
+     * Sends an error to the client without it having sent a command, for
+     * example to say why the server is about to disconnect it.
+     *
+     * @param message the error message
+     *
+     * @throws IOException if the error can't be sent to the client
+     */
+    public void sendError(String message) throws IOException {
+        protocolOutput.writeError(new ExecutionException(message));
+        protocolOutput.flush();
+    }
+
+
+    /**
+     * Sends any responses that haven't been flushed yet.  This must be done
+     * if the client's commands stop being handled while the client still
+     * has commands waiting.
+     *
+     * @throws IOException if the responses can't be sent to the client
+     */
+    public void flush() throws IOException {
+        protocolOutput.flush();
+    }
+
+
+    /**
+     * Closes the connection to the client, and the cursors the client left
+     * open, so that the pages they hold pinned are released.
+     */
+    public void close() {
+        session.closeCursors();
+
+        try {
+            sock.close();
+        }
+        catch (IOException e) {
+            logger.warn(String.format(
+                "Error while closing connection to client %d", id), e);
+        }
     }
 
 
@@ -178,15 +299,20 @@ public class ClientHandler implements Runnable {
             SelectCommand selCmd = (SelectCommand) cmd;
             selCmd.setTupleProcessor(tupleSender);
         }
+        else if (cmd instanceof ExecuteCommand) {
+            // The prepared statement may be a SELECT command.
+            ((ExecuteCommand) cmd).setTupleProcessor(tupleSender);
+        }
+        else if (cmd instanceof FetchCommand) {
+            ((FetchCommand) cmd).setTupleProcessor(tupleSender);
+        }
 
         try {
             cmd.execute(server.getStorageManager());
         }
         catch (Exception e) {
             logger.error("Encountered error during command execution", e);
-            objectOutput.writeObject(e);
+            protocolOutput.writeError(e);
         }
-
-        objectOutput.flush();
     }
 }
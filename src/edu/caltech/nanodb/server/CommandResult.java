@@ -1,6 +1,8 @@
 package edu.caltech.nanodb.server;
 
 
+import edu.caltech.nanodb.commands.ExecuteCommand;
+import edu.caltech.nanodb.commands.FetchCommand;
 import edu.caltech.nanodb.commands.SelectCommand;
 import edu.caltech.nanodb.expressions.TupleLiteral;
 import edu.caltech.nanodb.qeval.TupleProcessor;
@@ -32,6 +34,9 @@ public class CommandResult implements Serializable {
         }
 
         public void process(Tuple tuple) {
+            if (tuples.isEmpty())
+                firstResultTimestamp = System.currentTimeMillis();
+
             // Store the tuple.
             if (tuple instanceof TupleLiteral)
                 tuples.add((TupleLiteral) tuple);
@@ -91,6 +96,25 @@ public class CommandResult implements Serializable {
     }
 
 
+    /**
+     * Collects the results of executing a prepared statement, if the
+     * statement is a <tt>SELECT</tt> query.
+     */
+    public void collectSelectResults(ExecuteCommand command) {
+        tuples = new ArrayList<TupleLiteral>();
+        command.setTupleProcessor(new ResultCollector());
+    }
+
+
+    /**
+     * Collects the rows fetched from a cursor.
+     */
+    public void collectSelectResults(FetchCommand command) {
+        tuples = new ArrayList<TupleLiteral>();
+        command.setTupleProcessor(new ResultCollector());
+    }
+
+
     public void recordFailure(Exception e) {
         if (e == null)
             throw new IllegalArgumentException("t cannot be null");
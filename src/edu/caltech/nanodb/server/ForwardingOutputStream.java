@@ -2,7 +2,6 @@ package edu.caltech.nanodb.server;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.ObjectOutputStream;
 
 
 /**
@@ -10,18 +9,18 @@ import java.io.ObjectOutputStream;
  */
 public class ForwardingOutputStream extends ByteArrayOutputStream {
 
-    private ObjectOutputStream objectOutput;
+    private ProtocolWriter protocolOutput;
 
 
-    public ForwardingOutputStream(ObjectOutputStream objectOutput) {
-        this.objectOutput = objectOutput;
+    public ForwardingOutputStream(ProtocolWriter protocolOutput) {
+        this.protocolOutput = protocolOutput;
     }
 
 
     public void flush() throws IOException {
         String contents = toString();
-        objectOutput.writeObject(contents);
-        objectOutput.flush();
+        protocolOutput.writeText(contents);
+        protocolOutput.flush();
         reset();
     }
 }
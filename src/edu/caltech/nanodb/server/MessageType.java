@@ -0,0 +1,27 @@
+package edu.caltech.nanodb.server;
+
+
+/**
+ * The kinds of messages sent between NanoDB clients and the shared server.
+ * Each message starts with the ordinal of its type, as one byte; see
+ * {@link ProtocolWriter} for the format of each message.
+ */
+public enum MessageType {
+    /** A command for the server to execute, sent by a client. */
+    COMMAND,
+
+    /** Text output by the command being executed. */
+    TEXT,
+
+    /** The schema of the rows that a query will produce. */
+    SCHEMA,
+
+    /** A batch of rows produced by a query. */
+    ROWS,
+
+    /** An error that occurred while parsing or executing a command. */
+    ERROR,
+
+    /** A change in the state of the command; see {@link CommandState}. */
+    STATE
+}
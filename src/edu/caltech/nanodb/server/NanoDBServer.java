@@ -14,7 +14,15 @@ import antlr.RecognitionException;
 import antlr.TokenStreamException;
 
 import edu.caltech.nanodb.commands.Command;
+import edu.caltech.nanodb.commands.ExecuteCommand;
+import edu.caltech.nanodb.commands.ExecutionException;
+import edu.caltech.nanodb.commands.FetchCommand;
+import edu.caltech.nanodb.commands.QueryCursor;
+import edu.caltech.nanodb.commands.QueryResultCache;
 import edu.caltech.nanodb.commands.SelectCommand;
+import edu.caltech.nanodb.commands.StatementCache;
+import edu.caltech.nanodb.qeval.TupleProcessor;
+import edu.caltech.nanodb.server.performance.MetricsDumper;
 import edu.caltech.nanodb.sqlparse.NanoSqlLexer;
 import edu.caltech.nanodb.sqlparse.NanoSqlParser;
 import edu.caltech.nanodb.storage.StorageManager;
@@ -58,6 +66,25 @@ public class NanoDBServer {
         propReg.registerProperties(
             new PlannerFactory.PlannerFactoryPropertyHandler(),
             PlannerFactory.PROP_PLANNER_CLASS);
+
+        propReg.registerProperties(
+            new StatementCache.StatementCachePropertyHandler(),
+            StatementCache.PROP_STATEMENTCACHE_SIZE);
+
+        propReg.registerProperties(
+            new QueryResultCache.ResultCachePropertyHandler(),
+            QueryResultCache.PROP_RESULTCACHE_SIZE);
+
+        // Cached query results are no longer used once rows of the tables
+        // they read have changed.
+        EventDispatcher.getInstance().addRowEventListener(
+            new QueryResultCache.TableChangeListener());
+
+        propReg.registerProperties(
+            new MetricsDumper.MetricsDumperPropertyHandler(),
+            MetricsDumper.PROP_DUMP_INTERVAL, MetricsDumper.PROP_REPORTER_CLASS);
+
+        MetricsDumper.getInstance().start();
     }
 
 
@@ -124,7 +151,110 @@ public class NanoDBServer {
 
         if (includeTuples && command instanceof SelectCommand)
             result.collectSelectResults((SelectCommand) command);
+        else if (includeTuples && command instanceof ExecuteCommand)
+            result.collectSelectResults((ExecuteCommand) command);
+        else if (includeTuples && command instanceof FetchCommand)
+            result.collectSelectResults((FetchCommand) command);
+
+        executeCommand(command, result);
+        return result;
+    }
+
 
+    /**
+     * Executes a command, sending the rows it produces to the specified
+     * tuple-processor as they are produced, rather than collecting them in
+     * the result.  This allows large results to be consumed without holding
+     * them all in memory.
+     *
+     * @param command the command to execute
+     * @param processor the tuple-processor to send the rows to, if the
+     *        command is a <tt>SELECT</tt>, executes a prepared
+     *        <tt>SELECT</tt>, or fetches rows from a cursor
+     *
+     * @return the result of the command, which doesn't include its rows
+     */
+    public CommandResult doCommand(Command command, TupleProcessor processor) {
+        if (processor == null)
+            throw new IllegalArgumentException("processor cannot be null");
+
+        if (command instanceof SelectCommand)
+            ((SelectCommand) command).setTupleProcessor(processor);
+        else if (command instanceof ExecuteCommand)
+            ((ExecuteCommand) command).setTupleProcessor(processor);
+        else if (command instanceof FetchCommand)
+            ((FetchCommand) command).setTupleProcessor(processor);
+
+        CommandResult result = new CommandResult();
+        executeCommand(command, result);
+        return result;
+    }
+
+
+    /**
+     * Opens a cursor over the results of a <tt>SELECT</tt> query, so that
+     * the results can be read a few rows at a time instead of being produced
+     * all at once.  The query's command is considered to be executing until
+     * the cursor is closed, so the cursor must always be closed, by the
+     * session that opened it.
+     *
+     * @param query the text of the <tt>SELECT</tt> query
+     *
+     * @return a cursor over the results of the query
+     *
+     * @throws RecognitionException if the query can't be parsed
+     * @throws TokenStreamException if the query can't be parsed
+     * @throws ExecutionException if the query isn't a <tt>SELECT</tt> query,
+     *         or can't be planned
+     */
+    public QueryCursor openCursor(String query)
+        throws RecognitionException, TokenStreamException, ExecutionException {
+
+        Command command = parseCommand(query);
+        if (!(command instanceof SelectCommand)) {
+            throw new ExecutionException(
+                "Cursors can only be opened over SELECT queries.");
+        }
+
+        final SelectCommand selCommand = (SelectCommand) command;
+        final EventDispatcher eventDispatch = EventDispatcher.getInstance();
+        try {
+            eventDispatch.fireBeforeCommandExecuted(selCommand);
+        }
+        catch (EventDispatchException e) {
+            throw new ExecutionException(e);
+        }
+
+        try {
+            return new QueryCursor(selCommand, storageManager) {
+                @Override
+                public void close() {
+                    if (isClosed())
+                        return;
+
+                    super.close();
+                    try {
+                        eventDispatch.fireAfterCommandExecuted(selCommand);
+                    }
+                    catch (EventDispatchException e) {
+                        logger.error("Closing cursor threw an exception!", e);
+                    }
+                    finishCommand();
+                }
+            };
+        }
+        catch (ExecutionException e) {
+            finishCommand();
+            throw e;
+        }
+    }
+
+
+    /**
+     * Executes a command, firing the before- and after-command events and
+     * recording the outcome in the specified result.
+     */
+    private void executeCommand(Command command, CommandResult result) {
         EventDispatcher eventDispatch = EventDispatcher.getInstance();
         result.startExecution();
         try {
@@ -141,7 +271,12 @@ public class NanoDBServer {
         }
         result.endExecution();
 
-        // Post-command cleanup:
+        finishCommand();
+    }
+
+
+    /** Performs the cleanup needed after each command. */
+    private void finishCommand() {
         storageManager.getBufferManager().unpinAllSessionPages();
 
         // TODO:  Remove this to improve performance.
@@ -153,8 +288,6 @@ public class NanoDBServer {
                     e);
             }
         }
-
-        return result;
     }
 
 
@@ -169,6 +302,11 @@ public class NanoDBServer {
         boolean success = true;
 
         PropertyRegistry.getInstance().unregisterAllProperties();
+        MetricsDumper.getInstance().stop();
+
+        // The cached plans and results refer to the storage manager's tables.
+        StatementCache.getInstance().clear();
+        QueryResultCache.getInstance().clear();
 
         try {
             storageManager.shutdown();
@@ -0,0 +1,262 @@
+package edu.caltech.nanodb.server;
+
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+
+import edu.caltech.nanodb.expressions.TupleLiteral;
+import edu.caltech.nanodb.relations.ColumnInfo;
+import edu.caltech.nanodb.relations.ColumnType;
+import edu.caltech.nanodb.relations.SQLDataType;
+import edu.caltech.nanodb.relations.Schema;
+
+
+/**
+ * This class reads the messages written by a {@link ProtocolWriter}.  Each
+ * message is returned as the object it represents, so that readers can
+ * dispatch on the object's class.  The rows of a <tt>ROWS</tt> message are
+ * returned one at a time, as {@link TupleLiteral}s, and are decoded as they
+ * are returned.
+ */
+public class ProtocolReader {
+
+    private DataInputStream input;
+
+
+    /** The types of the columns of the rows currently being received. */
+    private SQLDataType[] columnTypes;
+
+
+    /** The batch of rows being returned, or null if there isn't one. */
+    private DataInputStream batch;
+
+
+    private int batchRowsLeft;
+
+
+    public ProtocolReader(InputStream input) {
+        if (input == null)
+            throw new IllegalArgumentException("input cannot be null");
+
+        this.input = new DataInputStream(
+            new BufferedInputStream(input, ProtocolWriter.MAX_BATCH_BYTES));
+    }
+
+
+    /**
+     * Reads the next message, or the next row of the current batch of rows.
+     *
+     * @return a {@link String} for commands and text, a {@link Schema}, a
+     *         {@link TupleLiteral} for each row, a {@link ServerException}
+     *         for errors, or a {@link CommandState}
+     *
+     * @throws EOFException if the other end closed the connection
+     * @throws IOException if the message can't be read
+     */
+    public Object readMessage() throws IOException {
+        if (batchRowsLeft > 0) {
+            batchRowsLeft--;
+            return readTuple();
+        }
+        batch = null;
+
+        int typeOrdinal = input.read();
+        if (typeOrdinal < 0)
+            throw new EOFException();
+
+        if (typeOrdinal >= MessageType.values().length)
+            throw new IOException("Unrecognized message type " + typeOrdinal);
+
+        switch (MessageType.values()[typeOrdinal]) {
+        case COMMAND:
+        case TEXT:
+            return readString(input);
+
+        case SCHEMA:
+            return readSchema();
+
+        case ROWS:
+            batchRowsLeft = input.readInt();
+            byte[] bytes = new byte[input.readInt()];
+            input.readFully(bytes);
+            batch = new DataInputStream(new ByteArrayInputStream(bytes));
+            return readMessage();
+
+        case ERROR:
+            String className = readString(input);
+            String message = readString(input);
+            String stackTrace = readString(input);
+            return new ServerException(className, message, stackTrace);
+
+        case STATE:
+            int state = input.readUnsignedByte();
+            if (state >= CommandState.values().length)
+                throw new IOException("Unrecognized command state " + state);
+
+            return CommandState.values()[state];
+
+        default:
+            throw new IOException("Unrecognized message type " + typeOrdinal);
+        }
+    }
+
+
+    /**
+     * Returns true if some of the next message has been received, so that
+     * reading it won't wait for the other end to send something.  Since this
+     * reader buffers its input, callers that wait for input on the
+     * underlying stream by other means must first check that this is false.
+     *
+     * @return true if some of the next message has been received
+     *
+     * @throws IOException if the underlying stream can't be checked
+     */
+    public boolean hasInput() throws IOException {
+        return batchRowsLeft > 0 || input.available() > 0;
+    }
+
+
+    public void close() throws IOException {
+        input.close();
+    }
+
+
+    private Schema readSchema() throws IOException {
+        Schema schema = new Schema();
+
+        columnTypes = new SQLDataType[input.readInt()];
+        for (int i = 0; i < columnTypes.length; i++) {
+            String name = readString(input);
+            String tableName = readString(input);
+
+            byte typeID = input.readByte();
+            SQLDataType baseType = SQLDataType.findType(typeID);
+            if (baseType == null)
+                throw new IOException("Unrecognized column type " + typeID);
+
+            ColumnType colType = new ColumnType(baseType);
+            if (colType.hasLength()) {
+                colType.setLength(input.readInt());
+            }
+            else if (baseType == SQLDataType.NUMERIC) {
+                colType.setPrecision(input.readInt());
+                colType.setScale(input.readInt());
+            }
+
+            columnTypes[i] = baseType;
+            schema.addColumnInfo(new ColumnInfo(name, tableName, colType));
+        }
+
+        return schema;
+    }
+
+
+    private TupleLiteral readTuple() throws IOException {
+        if (columnTypes == null)
+            throw new IOException("Received rows before their schema");
+
+        byte[] nulls = new byte[(columnTypes.length + 7) / 8];
+        byte[] tagged = new byte[nulls.length];
+        batch.readFully(nulls);
+        batch.readFully(tagged);
+
+        TupleLiteral tuple = new TupleLiteral();
+        for (int i = 0; i < columnTypes.length; i++) {
+            if ((nulls[i / 8] & (1 << (i % 8))) != 0)
+                tuple.addValue(null);
+            else if ((tagged[i / 8] & (1 << (i % 8))) != 0)
+                tuple.addValue(readTaggedValue(batch));
+            else
+                tuple.addValue(readValue(batch, columnTypes[i]));
+        }
+
+        return tuple;
+    }
+
+
+    static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0)
+            return null;
+
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, ProtocolWriter.UTF8);
+    }
+
+
+    private static Object readValue(DataInputStream in, SQLDataType type)
+        throws IOException {
+
+        switch (type) {
+        case INTEGER:
+            return in.readInt();
+
+        case SMALLINT:
+            return in.readShort();
+
+        case TINYINT:
+            return in.readByte();
+
+        case BIGINT:
+            return in.readLong();
+
+        case FLOAT:
+            return in.readFloat();
+
+        case DOUBLE:
+            return in.readDouble();
+
+        case CHAR:
+        case VARCHAR:
+        case TEXT:
+            return readString(in);
+
+        default:
+            return readTaggedValue(in);
+        }
+    }
+
+
+    private static Object readTaggedValue(DataInputStream in)
+        throws IOException {
+
+        byte tag = in.readByte();
+        switch (tag) {
+        case ProtocolWriter.TAG_STRING:
+            return readString(in);
+
+        case ProtocolWriter.TAG_INTEGER:
+            return in.readInt();
+
+        case ProtocolWriter.TAG_LONG:
+            return in.readLong();
+
+        case ProtocolWriter.TAG_SHORT:
+            return in.readShort();
+
+        case ProtocolWriter.TAG_BYTE:
+            return in.readByte();
+
+        case ProtocolWriter.TAG_FLOAT:
+            return in.readFloat();
+
+        case ProtocolWriter.TAG_DOUBLE:
+            return in.readDouble();
+
+        case ProtocolWriter.TAG_DECIMAL:
+            return new BigDecimal(readString(in));
+
+        case ProtocolWriter.TAG_BOOLEAN:
+            return in.readBoolean();
+
+        default:
+            throw new IOException("Unrecognized value tag " + tag);
+        }
+    }
+}
@@ -0,0 +1,388 @@
+package edu.caltech.nanodb.server;
+
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.math.BigDecimal;
+import java.nio.charset.Charset;
+
+import edu.caltech.nanodb.expressions.TypeConverter;
+import edu.caltech.nanodb.relations.ColumnInfo;
+import edu.caltech.nanodb.relations.ColumnType;
+import edu.caltech.nanodb.relations.SQLDataType;
+import edu.caltech.nanodb.relations.Schema;
+import edu.caltech.nanodb.relations.Tuple;
+
+
+/**
+ * This class writes the messages of the binary protocol that NanoDB clients
+ * and the shared server use to talk to each other.  Each message is a
+ * {@link MessageType} byte followed by the message's contents:
+ * <ul>
+ *   <li><tt>COMMAND</tt>, <tt>TEXT</tt> - a string</li>
+ *   <li><tt>SCHEMA</tt> - the number of columns, then each column's name and
+ *       table name (both strings), its {@link SQLDataType#getTypeID type ID},
+ *       and its length, or precision and scale, if the type has them</li>
+ *   <li><tt>ROWS</tt> - the number of rows and the number of bytes in the
+ *       batch, then the rows</li>
+ *   <li><tt>ERROR</tt> - the error's class name, message and stack trace, as
+ *       strings</li>
+ *   <li><tt>STATE</tt> - the ordinal of a {@link CommandState}, as a byte</li>
+ * </ul>
+ * Strings are an <tt>int</tt> byte-count followed by UTF-8 bytes, with a
+ * count of -1 for <tt>null</tt>.
+ * <p>
+ * Rows are encoded using the schema most recently sent:  each row is a
+ * bitmap of the columns that are <tt>NULL</tt>, then a bitmap of the columns
+ * whose values are tagged, then the values of the other columns.  Values are
+ * normally in a fixed binary format for their column's type; a value whose
+ * class can't be converted to its column's type without losing information,
+ * such as the <tt>Double</tt> result of an <tt>AVG</tt> over an
+ * <tt>INTEGER</tt> column, is written with a tag giving its class.  Rows are
+ * sent in batches, so that the client reads many rows per message; a batch
+ * is sent when it is full, or before any other message is written.  Nothing
+ * is sent over the stream until the batch fills up or {@link #flush} is
+ * called, so writers must flush at the end of each response.
+ */
+public class ProtocolWriter {
+
+    /** The most rows sent in one <tt>ROWS</tt> message. */
+    public static final int MAX_BATCH_ROWS = 1000;
+
+
+    /**
+     * A batch of rows is sent once it holds at least this many bytes, even
+     * if it has fewer than {@link #MAX_BATCH_ROWS} rows.
+     */
+    public static final int MAX_BATCH_BYTES = 64 * 1024;
+
+
+    /** The character set that strings are encoded with. */
+    static final Charset UTF8 = Charset.forName("UTF-8");
+
+
+    /* Tags of the values of columns whose types don't have a fixed format. */
+    static final byte TAG_STRING = 0;
+    static final byte TAG_INTEGER = 1;
+    static final byte TAG_LONG = 2;
+    static final byte TAG_SHORT = 3;
+    static final byte TAG_BYTE = 4;
+    static final byte TAG_FLOAT = 5;
+    static final byte TAG_DOUBLE = 6;
+    static final byte TAG_DECIMAL = 7;
+    static final byte TAG_BOOLEAN = 8;
+
+
+    private DataOutputStream output;
+
+
+    /** The types of the columns of the rows currently being sent. */
+    private SQLDataType[] columnTypes;
+
+
+    /** The rows encoded so far that haven't been sent yet. */
+    private ByteArrayOutputStream batchBytes;
+
+
+    private DataOutputStream batch;
+
+
+    private int batchRows;
+
+
+    public ProtocolWriter(OutputStream output) {
+        if (output == null)
+            throw new IllegalArgumentException("output cannot be null");
+
+        this.output = new DataOutputStream(
+            new BufferedOutputStream(output, MAX_BATCH_BYTES));
+
+        batchBytes = new ByteArrayOutputStream();
+        batch = new DataOutputStream(batchBytes);
+        batchRows = 0;
+    }
+
+
+    public void writeCommand(String command) throws IOException {
+        startMessage(MessageType.COMMAND);
+        writeString(output, command);
+    }
+
+
+    public void writeText(String text) throws IOException {
+        startMessage(MessageType.TEXT);
+        writeString(output, text);
+    }
+
+
+    /**
+     * Sends the schema of the rows that will follow, which determines how
+     * the rows are encoded.
+     */
+    public void writeSchema(Schema schema) throws IOException {
+        startMessage(MessageType.SCHEMA);
+
+        columnTypes = new SQLDataType[schema.numColumns()];
+        output.writeInt(columnTypes.length);
+        for (int i = 0; i < columnTypes.length; i++) {
+            ColumnInfo colInfo = schema.getColumnInfo(i);
+            ColumnType colType = colInfo.getType();
+            columnTypes[i] = colType.getBaseType();
+
+            writeString(output, colInfo.getName());
+            writeString(output, colInfo.getTableName());
+            output.writeByte(columnTypes[i].getTypeID());
+            if (colType.hasLength()) {
+                output.writeInt(colType.getLength());
+            }
+            else if (columnTypes[i] == SQLDataType.NUMERIC) {
+                output.writeInt(colType.getPrecision());
+                output.writeInt(colType.getScale());
+            }
+        }
+    }
+
+
+    /**
+     * Adds a row to the current batch, and sends the batch if it is full.
+     * The row must match the schema most recently sent.
+     */
+    public void writeTuple(Tuple tuple) throws IOException {
+        if (columnTypes == null)
+            throw new IllegalStateException("No schema has been sent");
+
+        if (tuple.getColumnCount() != columnTypes.length) {
+            throw new IllegalArgumentException("Tuple has " +
+                tuple.getColumnCount() + " columns, but schema has " +
+                columnTypes.length);
+        }
+
+        byte[] nulls = new byte[(columnTypes.length + 7) / 8];
+        byte[] tagged = new byte[nulls.length];
+        Object[] values = new Object[columnTypes.length];
+        for (int i = 0; i < columnTypes.length; i++) {
+            values[i] = tuple.getColumnValue(i);
+            if (values[i] == null)
+                nulls[i / 8] |= (byte) (1 << (i % 8));
+            else if (!hasFixedFormat(columnTypes[i], values[i]))
+                tagged[i / 8] |= (byte) (1 << (i % 8));
+        }
+        batch.write(nulls);
+        batch.write(tagged);
+
+        for (int i = 0; i < columnTypes.length; i++) {
+            if (values[i] == null)
+                continue;
+
+            if ((tagged[i / 8] & (1 << (i % 8))) != 0)
+                writeTaggedValue(batch, values[i]);
+            else
+                writeValue(batch, columnTypes[i], values[i]);
+        }
+
+        batchRows++;
+        if (batchRows >= MAX_BATCH_ROWS || batch.size() >= MAX_BATCH_BYTES) {
+            flushTuples();
+            output.flush();
+        }
+    }
+
+
+    public void writeError(Throwable t) throws IOException {
+        StringWriter trace = new StringWriter();
+        t.printStackTrace(new PrintWriter(trace));
+
+        startMessage(MessageType.ERROR);
+        writeString(output, t.getClass().getName());
+        writeString(output, t.getMessage());
+        writeString(output, trace.toString());
+    }
+
+
+    public void writeState(CommandState state) throws IOException {
+        startMessage(MessageType.STATE);
+        output.writeByte(state.ordinal());
+    }
+
+
+    /** Sends all the rows and messages written so far. */
+    public void flush() throws IOException {
+        flushTuples();
+        output.flush();
+    }
+
+
+    public void close() throws IOException {
+        flush();
+        output.close();
+    }
+
+
+    private void startMessage(MessageType type) throws IOException {
+        // Rows go out before anything written after them
+        flushTuples();
+        output.writeByte(type.ordinal());
+    }
+
+
+    /** Writes a <tt>ROWS</tt> message with the current batch, if any. */
+    private void flushTuples() throws IOException {
+        if (batchRows == 0)
+            return;
+
+        output.writeByte(MessageType.ROWS.ordinal());
+        output.writeInt(batchRows);
+        output.writeInt(batch.size());
+        batchBytes.writeTo(output);
+
+        batchBytes.reset();
+        batch = new DataOutputStream(batchBytes);
+        batchRows = 0;
+    }
+
+
+    static void writeString(DataOutputStream out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+            return;
+        }
+
+        byte[] bytes = s.getBytes(UTF8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+
+    /**
+     * Returns true if the value can be written in the fixed format of its
+     * column's type, which is when converting it to the type doesn't lose
+     * anything.  Types without a format of their own always return false.
+     */
+    private static boolean hasFixedFormat(SQLDataType type, Object value) {
+        switch (type) {
+        case BIGINT:
+            if (value instanceof Long)
+                return true;
+            // Fall through, since smaller integers also fit in a BIGINT.
+
+        case INTEGER:
+            if (value instanceof Integer)
+                return true;
+            // Fall through.
+
+        case SMALLINT:
+            if (value instanceof Short)
+                return true;
+            // Fall through.
+
+        case TINYINT:
+            return value instanceof Byte;
+
+        case DOUBLE:
+            return value instanceof Double || value instanceof Float;
+
+        case FLOAT:
+            return value instanceof Float;
+
+        case CHAR:
+        case VARCHAR:
+        case TEXT:
+            return value instanceof String;
+
+        default:
+            return false;
+        }
+    }
+
+
+    /**
+     * Writes a non-<tt>NULL</tt> value in the format of its column's type,
+     * converting it to the type if necessary.  Types without a format of
+     * their own are written with a tag giving the value's class.
+     */
+    private static void writeValue(DataOutputStream out, SQLDataType type,
+                                   Object value) throws IOException {
+        switch (type) {
+        case INTEGER:
+            out.writeInt(TypeConverter.getIntegerValue(value));
+            break;
+
+        case SMALLINT:
+            out.writeShort(TypeConverter.getShortValue(value));
+            break;
+
+        case TINYINT:
+            out.writeByte(TypeConverter.getByteValue(value));
+            break;
+
+        case BIGINT:
+            out.writeLong(TypeConverter.getLongValue(value));
+            break;
+
+        case FLOAT:
+            out.writeFloat(TypeConverter.getFloatValue(value));
+            break;
+
+        case DOUBLE:
+            out.writeDouble(TypeConverter.getDoubleValue(value));
+            break;
+
+        case CHAR:
+        case VARCHAR:
+        case TEXT:
+            writeString(out, TypeConverter.getStringValue(value));
+            break;
+
+        default:
+            writeTaggedValue(out, value);
+        }
+    }
+
+
+    private static void writeTaggedValue(DataOutputStream out, Object value)
+        throws IOException {
+
+        if (value instanceof Integer) {
+            out.writeByte(TAG_INTEGER);
+            out.writeInt((Integer) value);
+        }
+        else if (value instanceof Long) {
+            out.writeByte(TAG_LONG);
+            out.writeLong((Long) value);
+        }
+        else if (value instanceof Short) {
+            out.writeByte(TAG_SHORT);
+            out.writeShort((Short) value);
+        }
+        else if (value instanceof Byte) {
+            out.writeByte(TAG_BYTE);
+            out.writeByte((Byte) value);
+        }
+        else if (value instanceof Float) {
+            out.writeByte(TAG_FLOAT);
+            out.writeFloat((Float) value);
+        }
+        else if (value instanceof Double) {
+            out.writeByte(TAG_DOUBLE);
+            out.writeDouble((Double) value);
+        }
+        else if (value instanceof BigDecimal) {
+            out.writeByte(TAG_DECIMAL);
+            writeString(out, value.toString());
+        }
+        else if (value instanceof Boolean) {
+            out.writeByte(TAG_BOOLEAN);
+            out.writeBoolean((Boolean) value);
+        }
+        else {
+            // Anything else is sent as its string representation
+            out.writeByte(TAG_STRING);
+            writeString(out, value.toString());
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package edu.caltech.nanodb.server;
+
+
+import java.io.PrintStream;
+import java.io.PrintWriter;
+
+
+/**
+ * This exception represents an error that the server reported to a client,
+ * while parsing or executing the client's command.  The original exception
+ * isn't sent over the wire, so this exception carries its class name and
+ * the text of its stack trace, which is what printing this exception's
+ * stack trace prints.
+ */
+public class ServerException extends Exception {
+
+    private static final long serialVersionUID = 1L;
+
+
+    /** The class name of the exception that occurred on the server. */
+    private String serverClassName;
+
+
+    /** The stack trace of the exception, as printed on the server. */
+    private String serverStackTrace;
+
+
+    public ServerException(String serverClassName, String message,
+                           String serverStackTrace) {
+        super(message);
+        this.serverClassName = serverClassName;
+        this.serverStackTrace = serverStackTrace;
+    }
+
+
+    public String getServerClassName() {
+        return serverClassName;
+    }
+
+
+    public String getServerStackTrace() {
+        return serverStackTrace;
+    }
+
+
+    @Override
+    public String toString() {
+        String message = getMessage();
+        if (message == null)
+            return serverClassName;
+
+        return serverClassName + ": " + message;
+    }
+
+
+    @Override
+    public void printStackTrace(PrintStream s) {
+        s.print(serverStackTrace != null ? serverStackTrace : toString() + "\n");
+    }
+
+
+    @Override
+    public void printStackTrace(PrintWriter s) {
+        s.print(serverStackTrace != null ? serverStackTrace : toString() + "\n");
+    }
+}
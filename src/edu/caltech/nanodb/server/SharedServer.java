@@ -2,17 +2,51 @@ package edu.caltech.nanodb.server;
 
 
 import java.io.IOException;
-import java.net.ServerSocket;
-import java.net.Socket;
-import java.util.HashMap;
+import java.net.InetSocketAddress;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.log4j.Logger;
 
+import edu.caltech.nanodb.client.SessionState;
+
 
 /**
  * This class implements a "shared" database server that listens for incoming
  * connections on a socket, so that the database can have multiple concurrent
  * clients connected at the same time.
+ * <p>
+ * Connections are served with non-blocking I/O.  A single selector thread
+ * accepts connections and waits for clients to send commands.  When a
+ * command arrives, the connection is handed to a fixed pool of worker
+ * threads, which executes the command, and any others the client has
+ * already sent, and then hands the connection back to the selector thread.
+ * Clients may pipeline their commands, sending many of them without
+ * waiting for the responses; the responses are then sent back together,
+ * while large results are streamed back a batch of rows at a time.  A
+ * client that stops reading its results stalls the worker serving it, so
+ * clients can't make the server buffer unbounded amounts of output.
+ * Thus a connection only has a thread while one of its commands is being
+ * executed, and idle connections cost no more than their sockets.
+ * <p>
+ * The server limits how many clients can be connected at once, can close
+ * connections that have been idle for too long, and when it is shut down,
+ * lets the commands being executed finish before closing their connections.
+ * These settings come from system properties, and can also be set before
+ * the server is started.
  */
 public class SharedServer {
     /** A logging object for reporting anything interesting that happens. */
@@ -22,66 +56,605 @@ public class SharedServer {
     public static final int DEFAULT_SERVER_PORT = 12200;
 
 
+    /**
+     * The system property that can be used to specify the most clients that
+     * can be connected at once.
+     */
+    public static final String PROP_MAX_CONNECTIONS =
+        "nanodb.server.maxconnections";
+
+
+    /** The default limit on connections is 1000 clients. */
+    public static final int DEFAULT_MAX_CONNECTIONS = 1000;
+
+
+    /**
+     * The system property that can be used to specify the number of worker
+     * threads that execute clients' commands.
+     */
+    public static final String PROP_WORKERS = "nanodb.server.workers";
+
+
+    /** The default number of worker threads is 8. */
+    public static final int DEFAULT_WORKERS = 8;
+
+
+    /**
+     * The system property that can be used to specify how long, in
+     * milliseconds, a client can go without sending a command before its
+     * connection is closed.  A value of 0 means connections are never closed
+     * for being idle.
+     */
+    public static final String PROP_IDLE_TIMEOUT = "nanodb.server.idletimeout";
+
+
+    /** By default, idle connections are never closed. */
+    public static final int DEFAULT_IDLE_TIMEOUT = 0;
+
+
+    /**
+     * The system property that can be used to specify how long, in
+     * milliseconds, shutting down the server waits for the commands being
+     * executed to finish.
+     */
+    public static final String PROP_DRAIN_TIMEOUT =
+        "nanodb.server.draintimeout";
+
+
+    /** By default, shutting down waits 30 seconds for commands to finish. */
+    public static final int DEFAULT_DRAIN_TIMEOUT = 30000;
+
+
+    /** Idle connections are checked for at least this often, in ms. */
+    private static final long MAX_IDLE_CHECK_INTERVAL = 1000;
+
+
+    /**
+     * Returns the value of an integer system property, or the default value
+     * if the property isn't set or isn't a non-negative integer.
+     */
+    private static int getIntProperty(String propertyName, int defaultValue) {
+        String valueStr = System.getProperty(propertyName);
+        if (valueStr == null)
+            return defaultValue;
+
+        try {
+            int value = Integer.parseInt(valueStr);
+            if (value >= 0)
+                return value;
+        }
+        catch (NumberFormatException nfe) {
+            // Fall through to the warning.
+        }
+
+        logger.warn("Current value of " + propertyName +
+            " property is not a non-negative integer:  \"" + valueStr + "\"");
+        return defaultValue;
+    }
+
+
+    /**
+     * A client's connection, which is either waiting for the client to send
+     * a command, and registered with the selector, or being served by a
+     * worker thread.
+     */
+    private class Connection implements Runnable {
+        private SocketChannel channel;
+
+
+        private ClientHandler handler;
+
+
+        /** The time the client last sent a command, or connected. */
+        private volatile long lastActive;
+
+
+        Connection(SocketChannel channel, ClientHandler handler) {
+            this.channel = channel;
+            this.handler = handler;
+            lastActive = System.currentTimeMillis();
+        }
+
+
+        /**
+         * Executes the client's commands on a worker thread, as long as the
+         * client has sent more of them, then returns the connection to the
+         * selector to wait for the next command.
+         */
+        @Override
+        public void run() {
+            boolean open;
+            SessionState.set(handler.getSession());
+            try {
+                // While shutting down, only the command that was received
+                // is executed.
+                do {
+                    open = handler.handleCommand();
+                }
+                while (open && running && handler.hasInput());
+
+                // Responses to pipelined commands are only flushed once the
+                // client has no more commands waiting.
+                if (open)
+                    handler.flush();
+            }
+            catch (IOException e) {
+                logger.error(String.format("Error communicating with " +
+                    "client %d!  Disconnecting.", handler.getID()), e);
+                open = false;
+            }
+            catch (RuntimeException e) {
+                logger.error(String.format("Error serving client %d!  " +
+                    "Disconnecting.", handler.getID()), e);
+                open = false;
+            }
+            finally {
+                SessionState.remove();
+            }
+
+            if (!open || !running) {
+                close();
+                return;
+            }
+
+            lastActive = System.currentTimeMillis();
+            try {
+                channel.configureBlocking(false);
+            }
+            catch (IOException e) {
+                logger.error(String.format("Couldn't wait for commands " +
+                    "from client %d!  Disconnecting.", handler.getID()), e);
+                close();
+                return;
+            }
+
+            // Only the selector thread can register channels without
+            // waiting for the selector to wake up.
+            waitingConnections.add(this);
+            selector.wakeup();
+        }
+
+
+        void close() {
+            connections.remove(handler.getID());
+            handler.close();
+        }
+    }
+
+
     private int serverPort = DEFAULT_SERVER_PORT;
 
 
+    private int maxConnections =
+        getIntProperty(PROP_MAX_CONNECTIONS, DEFAULT_MAX_CONNECTIONS);
+
+
+    private int numWorkers = getIntProperty(PROP_WORKERS, DEFAULT_WORKERS);
+
+
+    private long idleTimeout =
+        getIntProperty(PROP_IDLE_TIMEOUT, DEFAULT_IDLE_TIMEOUT);
+
+
+    private long drainTimeout =
+        getIntProperty(PROP_DRAIN_TIMEOUT, DEFAULT_DRAIN_TIMEOUT);
+
+
     private NanoDBServer server = null;
 
 
     /**
-     * A mapping from client ID to the thread handling the client.  This is
-     * declared final since we synchronize on it.
+     * True if this object started the database server, and so must also
+     * shut it down.
+     */
+    private boolean ownsServer;
+
+
+    private ServerSocketChannel serverChannel;
+
+
+    private Selector selector;
+
+
+    /** The thread that accepts connections and waits for commands. */
+    private Thread selectorThread;
+
+
+    /** The worker threads that execute clients' commands. */
+    private ExecutorService workers;
+
+
+    /**
+     * Connections whose commands have been executed, which the selector
+     * thread must register to wait for the clients' next commands.
+     */
+    private final Queue<Connection> waitingConnections =
+        new ConcurrentLinkedQueue<Connection>();
+
+
+    /**
+     * A mapping from client ID to the connection of each client, so that
+     * when the server is being shut down, all the connections can be
+     * closed.
+     */
+    private final ConcurrentHashMap<Integer, Connection> connections =
+        new ConcurrentHashMap<Integer, Connection>();
+
+
+    private volatile boolean running = false;
+
+
+    /** The ID of the next client to connect.  Only used by the selector. */
+    private int nextClientID = 1;
+
+
+    /** The last time idle connections were checked for. */
+    private long lastIdleCheck;
+
+
+    /**
+     * Creates a shared server that starts up its own database server.
+     */
+    public SharedServer() {
+    }
+
+
+    /**
+     * Creates a shared server that lets clients use a database server that
+     * is already started.  The database server isn't shut down when the
+     * shared server is.
+     *
+     * @param server the database server that clients use
+     */
+    public SharedServer(NanoDBServer server) {
+        if (server == null)
+            throw new IllegalArgumentException("server cannot be null");
+
+        this.server = server;
+    }
+
+
+    /**
+     * Returns the port that the server listens on, which once the server has
+     * started is the actual port, even if port 0 was requested.
      */
-    private final HashMap<Integer, Thread> clientThreads =
-        new HashMap<Integer, Thread>();
+    public int getPort() {
+        if (serverChannel != null)
+            return serverChannel.socket().getLocalPort();
 
+        return serverPort;
+    }
+
+
+    /** Sets the port to listen on, which must be done before startup. */
+    public void setPort(int port) {
+        serverPort = port;
+    }
+
+
+    /**
+     * Sets the most clients that can be connected at once, which must be
+     * done before startup.  Clients that connect beyond this limit are sent
+     * an error and disconnected.
+     */
+    public void setMaxConnections(int maxConnections) {
+        if (maxConnections <= 0)
+            throw new IllegalArgumentException("maxConnections must be positive");
+
+        this.maxConnections = maxConnections;
+    }
+
+
+    /**
+     * Sets the number of threads that execute clients' commands, which must
+     * be done before startup.
+     */
+    public void setNumWorkers(int numWorkers) {
+        if (numWorkers <= 0)
+            throw new IllegalArgumentException("numWorkers must be positive");
+
+        this.numWorkers = numWorkers;
+    }
+
+
+    /**
+     * Sets how long in milliseconds a client can go without sending a
+     * command before it is disconnected, or 0 if clients can be idle
+     * indefinitely.  This must be done before startup.
+     */
+    public void setIdleTimeout(long idleTimeout) {
+        if (idleTimeout < 0)
+            throw new IllegalArgumentException("idleTimeout cannot be negative");
+
+        this.idleTimeout = idleTimeout;
+    }
+
+
+    /**
+     * Sets how long in milliseconds shutting down waits for the commands
+     * being executed to finish, before their connections are closed anyway.
+     */
+    public void setDrainTimeout(long drainTimeout) {
+        if (drainTimeout < 0)
+            throw new IllegalArgumentException("drainTimeout cannot be negative");
+
+        this.drainTimeout = drainTimeout;
+    }
 
+
+    /** Returns the number of clients currently connected. */
+    public int getNumConnections() {
+        return connections.size();
+    }
+
+
+    /**
+     * Starts listening for connections, on a thread of the server's own, and
+     * then returns.  If this object doesn't have a database server, one is
+     * started, along with a shutdown hook to shut it down cleanly.
+     *
+     * @throws IOException if the server can't listen on its port
+     */
     public void startup() throws IOException {
-        if (server != null)
+        if (selectorThread != null)
             throw new IllegalStateException("Server is already started!");
 
-        logger.info("Starting shared database server.");
-        server = new NanoDBServer();
-        server.startup();
+        if (server == null) {
+            logger.info("Starting shared database server.");
+            server = new NanoDBServer();
+            server.startup();
+            ownsServer = true;
 
-        // Register a shutdown hook so we can shut down the database cleanly.
-        Runtime rt = Runtime.getRuntime();
-        rt.addShutdownHook(new Thread(new Runnable() {
-            public void run() { shutdown(); }
-        } ));
+            // Register a shutdown hook so we can shut down the database
+            // cleanly.
+            Runtime rt = Runtime.getRuntime();
+            rt.addShutdownHook(new Thread(new Runnable() {
+                public void run() { shutdown(); }
+            } ));
+        }
 
         // Start up the server-socket that we receive incoming connections on.
-        ServerSocket serverSocket = new ServerSocket(serverPort);
-        logger.info("Listening on socket " + serverPort + ".");
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.socket().bind(new InetSocketAddress(serverPort));
+        serverChannel.configureBlocking(false);
+
+        selector = Selector.open();
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        logger.info("Listening on socket " + getPort() + ".");
+
+        workers = Executors.newFixedThreadPool(numWorkers);
+        running = true;
+
+        selectorThread = new Thread(new Runnable() {
+            public void run() { serveConnections(); }
+        }, "SharedServer-selector");
+        selectorThread.start();
+    }
+
+
+    /**
+     * Stops accepting connections, closes the connections that are waiting
+     * for commands, and waits up to the drain timeout for the commands being
+     * executed to finish before closing the remaining connections.  If this
+     * object started the database server, it is then shut down.
+     */
+    public void shutdown() {
+        synchronized (this) {
+            if (!running)
+                return;
 
-        // Wait for a client to connect.  When one does, spin off a thread to
-        // handle requests from that client.
-        int clientID = 1;
-        while (true) {
-            logger.info("Waiting for client connection.");
-            Socket sock = serverSocket.accept();
-            logger.info("Received client connection.");
-            ClientHandler clientHandler =
-                new ClientHandler(server, clientID, sock);
-            Thread t = new Thread(clientHandler);
+            running = false;
+        }
+
+        logger.info("Shutting down shared database server.");
+
+        // The selector thread closes the server socket and idle connections
+        // as it exits.
+        selector.wakeup();
+        try {
+            selectorThread.join();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
 
-            // Record the thread so that when the server is being shut down,
-            // we can stop all the client threads.
-            synchronized (clientThreads) {
-                clientThreads.put(clientID, t);
+        workers.shutdown();
+        try {
+            if (!workers.awaitTermination(drainTimeout, TimeUnit.MILLISECONDS)) {
+                logger.warn(String.format("Commands of %d clients didn't " +
+                    "finish before shutdown.", connections.size()));
             }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        // Closing the sockets also interrupts workers still reading from them.
+        for (Connection conn : connections.values())
+            conn.close();
+
+        workers.shutdownNow();
 
-            t.start();
+        if (ownsServer)
+            server.shutdown();
+    }
+
+
+    /**
+     * This is the main loop of the selector thread, which accepts
+     * connections, hands connections whose clients have sent commands to the
+     * worker threads, and closes idle connections.
+     */
+    private void serveConnections() {
+        try {
+            while (running) {
+                // Keys selected by a previous selectNow() are still waiting.
+                if (selector.selectedKeys().isEmpty())
+                    selector.select(getSelectTimeout());
+                else
+                    selector.selectNow();
+
+                registerWaitingConnections();
+
+                List<Connection> ready = new ArrayList<Connection>();
+                Iterator<SelectionKey> iter = selector.selectedKeys().iterator();
+                while (iter.hasNext()) {
+                    SelectionKey key = iter.next();
+                    iter.remove();
+
+                    if (!key.isValid())
+                        continue;
+
+                    if (key.isAcceptable()) {
+                        acceptConnections();
+                    }
+                    else if (key.isReadable()) {
+                        key.cancel();
+                        ready.add((Connection) key.attachment());
+                    }
+                }
+
+                if (!ready.isEmpty()) {
+                    // A channel must be deregistered before it can block
+                    // again, and cancelled keys are only deregistered by the
+                    // next selection.
+                    selector.selectNow();
+                    for (Connection conn : ready)
+                        dispatch(conn);
+                }
+
+                closeIdleConnections();
+            }
+        }
+        catch (IOException e) {
+            logger.error("Error while waiting for client connections!", e);
+            running = false;
+        }
+        finally {
+            try {
+                serverChannel.close();
+            }
+            catch (IOException e) {
+                logger.warn("Error while closing the server socket", e);
+            }
+
+            // Connections still registered are waiting for commands, so
+            // nothing is lost by closing them now.
+            for (SelectionKey key : selector.keys()) {
+                if (key.attachment() instanceof Connection)
+                    ((Connection) key.attachment()).close();
+            }
+
+            try {
+                selector.close();
+            }
+            catch (IOException e) {
+                logger.warn("Error while closing the selector", e);
+            }
         }
     }
 
 
-    public void shutdown() {
-        for (Thread t : clientThreads.values()) {
-            // TODO:  Shut down the client thread.
+    private long getSelectTimeout() {
+        // A timeout of 0 waits until something happens.
+        if (idleTimeout == 0)
+            return 0;
+
+        return Math.min(idleTimeout, MAX_IDLE_CHECK_INTERVAL);
+    }
+
+
+    private void acceptConnections() throws IOException {
+        SocketChannel channel;
+        while ((channel = serverChannel.accept()) != null) {
+            int clientID = nextClientID++;
+            logger.info("Received client connection " + clientID + ".");
+
+            ClientHandler handler =
+                new ClientHandler(server, clientID, channel.socket());
+            Connection conn = new Connection(channel, handler);
+            try {
+                // The accepted channel is in blocking mode until registered.
+                handler.open();
+                if (connections.size() >= maxConnections) {
+                    logger.warn(String.format("Refusing client %d, since " +
+                        "%d clients are connected.", clientID, maxConnections));
+                    handler.sendError(String.format("The server already " +
+                        "has the most clients allowed (%d).", maxConnections));
+                    handler.close();
+                    continue;
+                }
+
+                connections.put(clientID, conn);
+                channel.configureBlocking(false);
+                channel.register(selector, SelectionKey.OP_READ, conn);
+            }
+            catch (IOException e) {
+                logger.error(String.format(
+                    "Couldn't establish communication with client %d!",
+                    clientID), e);
+                conn.close();
+            }
+        }
+    }
+
+
+    /** Hands a connection whose client has sent a command to the workers. */
+    private void dispatch(Connection conn) {
+        try {
+            conn.channel.configureBlocking(true);
+            workers.execute(conn);
+        }
+        catch (IOException e) {
+            logger.error(String.format("Couldn't read command from client " +
+                "%d!  Disconnecting.", conn.handler.getID()), e);
+            conn.close();
         }
+        catch (RejectedExecutionException e) {
+            conn.close();
+        }
+    }
+
 
-        server.shutdown();
+    private void registerWaitingConnections() {
+        Connection conn;
+        while ((conn = waitingConnections.poll()) != null) {
+            try {
+                conn.channel.register(selector, SelectionKey.OP_READ, conn);
+            }
+            catch (ClosedChannelException e) {
+                conn.close();
+            }
+        }
+    }
+
+
+    /**
+     * Closes the connections that are waiting for commands, and haven't
+     * received one within the idle timeout.
+     */
+    private void closeIdleConnections() {
+        if (idleTimeout == 0)
+            return;
+
+        long now = System.currentTimeMillis();
+        if (now - lastIdleCheck < getSelectTimeout())
+            return;
+
+        lastIdleCheck = now;
+        for (SelectionKey key : selector.keys()) {
+            if (!key.isValid() || !(key.attachment() instanceof Connection))
+                continue;
+
+            Connection conn = (Connection) key.attachment();
+            if (now - conn.lastActive >= idleTimeout) {
+                logger.info(String.format("Disconnecting client %d, which " +
+                    "has been idle for %d ms.", conn.handler.getID(),
+                    now - conn.lastActive));
+                key.cancel();
+                conn.close();
+            }
+        }
     }
 
 
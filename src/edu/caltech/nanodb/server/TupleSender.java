@@ -2,9 +2,7 @@ package edu.caltech.nanodb.server;
 
 
 import java.io.IOException;
-import java.io.ObjectOutputStream;
 
-import edu.caltech.nanodb.expressions.TupleLiteral;
 import edu.caltech.nanodb.qeval.TupleProcessor;
 import edu.caltech.nanodb.relations.Schema;
 import edu.caltech.nanodb.relations.Tuple;
@@ -12,41 +10,31 @@ import edu.caltech.nanodb.relations.Tuple;
 
 /**
  * This implementation of the tuple-processor interface sends the schema and
- * tuples produced by the <tt>SELECT</tt> statement over an
- * {@link ObjectOutputStream}.
+ * tuples produced by the <tt>SELECT</tt> statement over a
+ * {@link ProtocolWriter}.  Tuples are encoded directly from the plan's
+ * tuples, and sent in batches; the last batch is sent when the response to
+ * the command is flushed.
  */
 public class TupleSender implements TupleProcessor {
 
-    private ObjectOutputStream objectOutput;
+    private ProtocolWriter protocolOutput;
 
 
-    public TupleSender(ObjectOutputStream objectOutput) {
-        if (objectOutput == null)
-            throw new IllegalArgumentException("objectOutput cannot be null");
+    public TupleSender(ProtocolWriter protocolOutput) {
+        if (protocolOutput == null)
+            throw new IllegalArgumentException("protocolOutput cannot be null");
 
-        this.objectOutput = objectOutput;
+        this.protocolOutput = protocolOutput;
     }
 
 
     public void setSchema(Schema schema) throws IOException {
-        // If the incoming schema-object is not of type Schema then make a copy
-        // of it and send it over.
-        if (!schema.getClass().equals(Schema.class))
-            schema = new Schema(schema);
-
-        objectOutput.writeObject(schema);
+        protocolOutput.writeSchema(schema);
     }
 
 
     public void process(Tuple tuple) throws IOException {
-        TupleLiteral tupLit;
-
-        if (!(tuple instanceof TupleLiteral))
-            tupLit = new TupleLiteral(tuple);
-        else
-            tupLit = (TupleLiteral) tuple;
-        
-        objectOutput.writeObject(tupLit);
+        protocolOutput.writeTuple(tuple);
     }
 
 
@@ -0,0 +1,190 @@
+package edu.caltech.nanodb.server.performance;
+
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * This class records the distribution of the durations of some operation,
+ * such as reading a page or committing a transaction, so that percentiles of
+ * the operation's latency can be reported.  Durations are counted in buckets
+ * whose bounds are powers of two nanoseconds, so a percentile is only
+ * reported to within a factor of two, but recording a duration is cheap and
+ * can be done concurrently from many threads without contention.
+ */
+public class LatencyHistogram {
+
+    /** The suffix of the statistic that reports the number of durations. */
+    public static final String COUNT = "count";
+
+
+    /**
+     * The suffixes of the statistics that a histogram reports, after the
+     * histogram's name and a period.  Apart from {@link #COUNT}, these are
+     * all durations in microseconds.
+     */
+    public static final String[] STAT_NAMES =
+        { COUNT, "mean", "p50", "p95", "p99", "max" };
+
+
+    /**
+     * Bucket <em>i</em> counts the durations that need <em>i</em> bits, i.e.
+     * those from 2<sup>i-1</sup> to 2<sup>i</sup>-1 nanoseconds.
+     */
+    private LongAdder[] buckets = new LongAdder[64];
+
+
+    private LongAdder count = new LongAdder();
+
+
+    private LongAdder totalNanos = new LongAdder();
+
+
+    private AtomicLong maxNanos = new AtomicLong();
+
+
+    public LatencyHistogram() {
+        for (int i = 0; i < buckets.length; i++)
+            buckets[i] = new LongAdder();
+    }
+
+
+    /**
+     * Records the duration of one operation.
+     *
+     * @param nanos the duration in nanoseconds; negative values are recorded
+     *        as zero
+     */
+    public void record(long nanos) {
+        if (nanos < 0)
+            nanos = 0;
+
+        buckets[64 - Long.numberOfLeadingZeros(nanos)].increment();
+        count.increment();
+        totalNanos.add(nanos);
+
+        long max = maxNanos.get();
+        while (nanos > max && !maxNanos.compareAndSet(max, nanos))
+            max = maxNanos.get();
+    }
+
+
+    public long getCount() {
+        return count.sum();
+    }
+
+
+    public long getTotalNanos() {
+        return totalNanos.sum();
+    }
+
+
+    public long getMaxNanos() {
+        return maxNanos.get();
+    }
+
+
+    public long getMeanNanos() {
+        long n = count.sum();
+        return (n == 0) ? 0 : totalNanos.sum() / n;
+    }
+
+
+    /**
+     * Returns an upper bound on the specified percentile of the recorded
+     * durations.
+     *
+     * @param percentile the percentile, between 0 and 100
+     *
+     * @return the largest duration in the bucket that holds the percentile,
+     *         or the largest duration recorded if that is smaller, or 0 if no
+     *         durations have been recorded
+     */
+    public long getPercentileNanos(double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException(
+                "percentile must be between 0 and 100, got " + percentile);
+        }
+
+        // The counts are read separately, so they may not add up to the
+        // total if durations are recorded meanwhile.
+        long[] counts = new long[buckets.length];
+        long n = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            counts[i] = buckets[i].sum();
+            n += counts[i];
+        }
+
+        if (n == 0)
+            return 0;
+
+        long rank = Math.max(1, (long) Math.ceil(n * percentile / 100));
+        long seen = 0;
+        int i = 0;
+        while (i < counts.length - 1) {
+            seen += counts[i];
+            if (seen >= rank)
+                break;
+
+            i++;
+        }
+
+        long upperBound = (i == 0) ? 0 : (1L << i) - 1;
+        return Math.min(upperBound, maxNanos.get());
+    }
+
+
+    /**
+     * Returns one of the statistics named by {@link #STAT_NAMES}.
+     *
+     * @param statName the name of the statistic
+     *
+     * @return the count, or the duration in microseconds
+     *
+     * @throws IllegalArgumentException if the name isn't recognized
+     */
+    public long getStat(String statName) {
+        long nanos;
+        if (COUNT.equals(statName))
+            return getCount();
+        else if ("mean".equals(statName))
+            nanos = getMeanNanos();
+        else if ("p50".equals(statName))
+            nanos = getPercentileNanos(50);
+        else if ("p95".equals(statName))
+            nanos = getPercentileNanos(95);
+        else if ("p99".equals(statName))
+            nanos = getPercentileNanos(99);
+        else if ("max".equals(statName))
+            nanos = getMaxNanos();
+        else
+            throw new IllegalArgumentException("No statistic named " + statName);
+
+        return nanos / 1000;
+    }
+
+
+    /**
+     * Clears the histogram.  Durations recorded while it is being cleared may
+     * be only partly cleared.
+     *
+     * @return the number of durations that had been recorded
+     */
+    public long clear() {
+        for (LongAdder bucket : buckets)
+            bucket.reset();
+
+        totalNanos.reset();
+        maxNanos.set(0);
+        return count.sumThenReset();
+    }
+
+
+    @Override
+    public String toString() {
+        return String.format("[count=%d, mean=%dus, p50=%dus, p95=%dus, " +
+            "p99=%dus, max=%dus]", getCount(), getStat("mean"),
+            getStat("p50"), getStat("p95"), getStat("p99"), getStat("max"));
+    }
+}
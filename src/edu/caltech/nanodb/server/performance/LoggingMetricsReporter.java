@@ -0,0 +1,28 @@
+package edu.caltech.nanodb.server.performance;
+
+
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+
+/**
+ * This is the default {@link MetricsReporter}, which writes the value of every
+ * counter and histogram statistic to the log, one per line.
+ */
+public class LoggingMetricsReporter implements MetricsReporter {
+    /** A logging object for reporting anything interesting that happens. */
+    private static Logger logger = Logger.getLogger(LoggingMetricsReporter.class);
+
+
+    @Override
+    public void report(MetricsRegistry metrics) {
+        StringBuilder buf = new StringBuilder("Server statistics:");
+        for (Map.Entry<String, Long> entry : metrics.getValues().entrySet()) {
+            buf.append(String.format("%n    %s = %d", entry.getKey(),
+                entry.getValue()));
+        }
+
+        logger.info(buf.toString());
+    }
+}
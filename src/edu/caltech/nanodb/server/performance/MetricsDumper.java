@@ -0,0 +1,270 @@
+package edu.caltech.nanodb.server.performance;
+
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+import edu.caltech.nanodb.expressions.TypeCastException;
+import edu.caltech.nanodb.expressions.TypeConverter;
+import edu.caltech.nanodb.server.properties.PropertyHandler;
+import edu.caltech.nanodb.server.properties.ReadOnlyPropertyException;
+import edu.caltech.nanodb.server.properties.UnrecognizedPropertyException;
+
+
+/**
+ * This class periodically passes the server's global statistics to a
+ * {@link MetricsReporter}, on a background thread.  Dumping is enabled by
+ * setting {@link #PROP_DUMP_INTERVAL} to the number of seconds between
+ * dumps, and the reporter is chosen with {@link #PROP_REPORTER_CLASS}.
+ */
+public class MetricsDumper {
+    /** A logging object for reporting anything interesting that happens. */
+    private static Logger logger = Logger.getLogger(MetricsDumper.class);
+
+
+    /**
+     * The system property that can be used to specify the number of seconds
+     * between dumps of the server's statistics.
+     */
+    public static final String PROP_DUMP_INTERVAL = "nanodb.stats.dumpInterval";
+
+
+    /** By default, statistics are not dumped. */
+    public static final int DEFAULT_DUMP_INTERVAL = 0;
+
+
+    /**
+     * The system property that can be used to specify the class of the
+     * reporter that the statistics are dumped to.
+     */
+    public static final String PROP_REPORTER_CLASS = "nanodb.stats.reporterClass";
+
+
+    /** By default, statistics are dumped to the log. */
+    public static final String DEFAULT_REPORTER_CLASS =
+        "edu.caltech.nanodb.server.performance.LoggingMetricsReporter";
+
+
+    public static class MetricsDumperPropertyHandler implements PropertyHandler {
+
+        @Override
+        public Object getPropertyValue(String propertyName)
+                throws UnrecognizedPropertyException {
+
+            if (PROP_DUMP_INTERVAL.equals(propertyName)) {
+                return getInstance().getInterval();
+            }
+            else if (PROP_REPORTER_CLASS.equals(propertyName)) {
+                return getInstance().getReporter().getClass().getName();
+            }
+            else {
+                throw new UnrecognizedPropertyException("No property named " +
+                        propertyName);
+            }
+        }
+
+        @Override
+        public void setPropertyValue(String propertyName, Object value)
+                throws UnrecognizedPropertyException, ReadOnlyPropertyException,
+                TypeCastException {
+
+            if (PROP_DUMP_INTERVAL.equals(propertyName)) {
+                Integer interval = TypeConverter.getIntegerValue(value);
+                if (interval == null || interval < 0) {
+                    throw new TypeCastException(
+                        "Invalid statistics dump interval " + value);
+                }
+
+                getInstance().setInterval(interval);
+            }
+            else if (PROP_REPORTER_CLASS.equals(propertyName)) {
+                getInstance().setReporter(
+                    createReporter(TypeConverter.getStringValue(value)));
+            }
+            else {
+                throw new UnrecognizedPropertyException("No property named " +
+                        propertyName);
+            }
+        }
+    }
+
+
+    private static MetricsDumper instance = new MetricsDumper();
+
+
+    public static MetricsDumper getInstance() {
+        return instance;
+    }
+
+
+    /** The number of seconds between dumps, or 0 if dumping is disabled. */
+    private int interval;
+
+
+    /** The reporter that the statistics are dumped to. */
+    private volatile MetricsReporter reporter;
+
+
+    /** True if the server is running, so that dumps may be scheduled. */
+    private boolean started;
+
+
+    /** The thread that dumps the statistics, or null if it isn't running. */
+    private ScheduledExecutorService executor;
+
+
+    /** The scheduled dumps, or null if none are scheduled. */
+    private ScheduledFuture<?> task;
+
+
+    private MetricsDumper() {
+        interval = configureInterval();
+
+        String className = System.getProperty(PROP_REPORTER_CLASS,
+            DEFAULT_REPORTER_CLASS);
+        try {
+            reporter = createReporter(className);
+        }
+        catch (IllegalArgumentException e) {
+            logger.error(e.getMessage() + "; using the default reporter", e);
+            reporter = new LoggingMetricsReporter();
+        }
+    }
+
+
+    private static int configureInterval() {
+        String str = System.getProperty(PROP_DUMP_INTERVAL);
+        if (str == null)
+            return DEFAULT_DUMP_INTERVAL;
+
+        try {
+            int interval = Integer.parseInt(str.trim());
+            if (interval >= 0)
+                return interval;
+        }
+        catch (NumberFormatException e) {
+            // Fall through to the error.
+        }
+
+        logger.error(String.format("Could not parse statistics dump " +
+            "interval value \"%s\"; using default value of %d seconds", str,
+            DEFAULT_DUMP_INTERVAL));
+        return DEFAULT_DUMP_INTERVAL;
+    }
+
+
+    private static MetricsReporter createReporter(String className) {
+        try {
+            Class<?> c = Class.forName(className);
+            return (MetricsReporter) c.getDeclaredConstructor().newInstance();
+        }
+        catch (ReflectiveOperationException | ClassCastException e) {
+            throw new IllegalArgumentException("Couldn't instantiate " +
+                "MetricsReporter class " + className, e);
+        }
+    }
+
+
+    public synchronized int getInterval() {
+        return interval;
+    }
+
+
+    /**
+     * Sets the number of seconds between dumps.  If the server is running,
+     * the dumps are rescheduled with the new interval.
+     *
+     * @param interval the number of seconds between dumps, or 0 to disable
+     *        dumping
+     */
+    public synchronized void setInterval(int interval) {
+        if (interval < 0)
+            throw new IllegalArgumentException("interval must be >= 0");
+
+        this.interval = interval;
+        if (started)
+            schedule();
+    }
+
+
+    public MetricsReporter getReporter() {
+        return reporter;
+    }
+
+
+    public void setReporter(MetricsReporter reporter) {
+        if (reporter == null)
+            throw new IllegalArgumentException("reporter cannot be null");
+
+        this.reporter = reporter;
+    }
+
+
+    /**
+     * Passes the server's statistics to the reporter now.  Errors from the
+     * reporter are logged rather than thrown, so that a failing reporter
+     * doesn't stop later dumps.
+     */
+    public void dump() {
+        try {
+            reporter.report(MetricsRegistry.getGlobal());
+        }
+        catch (RuntimeException e) {
+            logger.error("Couldn't report the server's statistics", e);
+        }
+    }
+
+
+    /** Starts dumping the statistics, if an interval has been set. */
+    public synchronized void start() {
+        started = true;
+        schedule();
+    }
+
+
+    /** Stops dumping the statistics, and stops the background thread. */
+    public synchronized void stop() {
+        started = false;
+        schedule();
+
+        if (executor != null) {
+            executor.shutdown();
+            executor = null;
+        }
+    }
+
+
+    private void schedule() {
+        if (task != null) {
+            task.cancel(false);
+            task = null;
+        }
+
+        if (!started || interval == 0)
+            return;
+
+        if (executor == null) {
+            executor = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "MetricsDumper");
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+        }
+
+        task = executor.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                dump();
+            }
+        }, interval, interval, TimeUnit.SECONDS);
+    }
+}
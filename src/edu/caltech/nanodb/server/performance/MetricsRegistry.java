@@ -0,0 +1,204 @@
+package edu.caltech.nanodb.server.performance;
+
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * This class holds a set of named counters and latency histograms.  There is
+ * one global registry for the whole server, and each session has its own
+ * registry, so that the work a session did can be told apart from the work
+ * of other sessions; {@link PerformanceCounters} records each value into
+ * both.  Counters are {@link LongAdder}s, which spread concurrent updates
+ * over several cells, so that the threads of many sessions don't all contend
+ * on one value.
+ * <p>
+ * Each statistic of a histogram can be read as if it were a counter, by
+ * appending a period and one of the {@link LatencyHistogram#STAT_NAMES} to
+ * the histogram's name, e.g. <tt>query.execTime.p99</tt>.
+ */
+public class MetricsRegistry {
+
+    /** The registry of the statistics of the whole server. */
+    private static final MetricsRegistry globalRegistry = new MetricsRegistry();
+
+
+    /**
+     * Returns the registry of the statistics of the whole server.
+     *
+     * @return the global registry
+     */
+    public static MetricsRegistry getGlobal() {
+        return globalRegistry;
+    }
+
+
+    private ConcurrentHashMap<String, LongAdder> counters =
+        new ConcurrentHashMap<String, LongAdder>();
+
+
+    private ConcurrentHashMap<String, LatencyHistogram> histograms =
+        new ConcurrentHashMap<String, LatencyHistogram>();
+
+
+    private LongAdder getCounter(String counterName) {
+        // Do this in two steps so that we can try to avoid allocating a
+        // LongAdder unless it looks like we need to.
+        LongAdder counter = counters.get(counterName);
+        if (counter == null) {
+            counters.putIfAbsent(counterName, new LongAdder());
+            counter = counters.get(counterName);
+        }
+
+        return counter;
+    }
+
+
+    /**
+     * Returns the named histogram, creating it if it doesn't exist yet.
+     *
+     * @param histogramName the name of the histogram
+     *
+     * @return the histogram
+     */
+    public LatencyHistogram getHistogram(String histogramName) {
+        LatencyHistogram histogram = histograms.get(histogramName);
+        if (histogram == null) {
+            histograms.putIfAbsent(histogramName, new LatencyHistogram());
+            histogram = histograms.get(histogramName);
+        }
+
+        return histogram;
+    }
+
+
+    public void add(String counterName, long value) {
+        getCounter(counterName).add(value);
+    }
+
+
+    public void inc(String counterName) {
+        getCounter(counterName).increment();
+    }
+
+
+    /**
+     * Sets the value of a counter.  This is intended for values that are
+     * measured rather than counted, such as the size of a cache, since
+     * changes made to the counter while it is being set may be lost.
+     *
+     * @param counterName the name of the counter
+     * @param value the new value of the counter
+     */
+    public void set(String counterName, long value) {
+        LongAdder counter = getCounter(counterName);
+        counter.reset();
+        counter.add(value);
+    }
+
+
+    /**
+     * Records the duration of an operation in the named histogram.
+     *
+     * @param histogramName the name of the histogram
+     * @param nanos the duration of the operation, in nanoseconds
+     */
+    public void recordLatency(String histogramName, long nanos) {
+        getHistogram(histogramName).record(nanos);
+    }
+
+
+    /**
+     * Returns the value of a counter, or of a statistic of a histogram.
+     *
+     * @param name the name of the counter, or the name of a histogram
+     *        followed by a period and the name of one of its statistics
+     *
+     * @return the value, or 0 if there is no such counter or histogram
+     */
+    public long get(String name) {
+        LongAdder counter = counters.get(name);
+        if (counter != null)
+            return counter.sum();
+
+        int dot = name.lastIndexOf('.');
+        if (dot != -1) {
+            LatencyHistogram histogram = histograms.get(name.substring(0, dot));
+            if (histogram != null) {
+                try {
+                    return histogram.getStat(name.substring(dot + 1));
+                }
+                catch (IllegalArgumentException e) {
+                    // Not a statistic of the histogram.
+                }
+            }
+        }
+
+        return 0;
+    }
+
+
+    /**
+     * Clears a counter, or all the statistics of a histogram.
+     *
+     * @param name the name of the counter or histogram
+     *
+     * @return the old value of the counter, or the number of durations the
+     *         histogram had recorded
+     */
+    public long clear(String name) {
+        LatencyHistogram histogram = histograms.get(name);
+        if (histogram != null)
+            return histogram.clear();
+
+        LongAdder counter = counters.get(name);
+        return (counter == null) ? 0 : counter.sumThenReset();
+    }
+
+
+    /** Removes all the counters and histograms. */
+    public void clearAll() {
+        counters.clear();
+        histograms.clear();
+    }
+
+
+    public Set<String> getCounterNames() {
+        return new HashSet<String>(counters.keySet());
+    }
+
+
+    public Set<String> getHistogramNames() {
+        return new HashSet<String>(histograms.keySet());
+    }
+
+
+    /**
+     * Returns the values of all the counters, and of all the statistics of
+     * the histograms, under the names that {@link #get} accepts.
+     *
+     * @return the values, sorted by name
+     */
+    public SortedMap<String, Long> getValues() {
+        TreeMap<String, Long> values = new TreeMap<String, Long>();
+
+        for (Map.Entry<String, LongAdder> entry : counters.entrySet())
+            values.put(entry.getKey(), entry.getValue().sum());
+
+        for (Map.Entry<String, LatencyHistogram> entry : histograms.entrySet()) {
+            for (String statName : LatencyHistogram.STAT_NAMES) {
+                values.put(entry.getKey() + "." + statName,
+                    entry.getValue().getStat(statName));
+            }
+        }
+
+        return values;
+    }
+}
@@ -0,0 +1,17 @@
+package edu.caltech.nanodb.server.performance;
+
+
+/**
+ * This interface is implemented by classes that publish the server's
+ * statistics somewhere, e.g. to a log or to a monitoring system.  The
+ * {@link MetricsDumper} calls the configured reporter periodically; the class
+ * must have a public constructor with no arguments.
+ */
+public interface MetricsReporter {
+    /**
+     * Publishes the current statistics of the server.
+     *
+     * @param metrics the global registry of the server's statistics
+     */
+    void report(MetricsRegistry metrics);
+}
@@ -2,13 +2,9 @@ package edu.caltech.nanodb.server.performance;
 
 
 
-import java.util.HashSet;
 import java.util.Set;
 
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicInteger;
-
-import org.apache.log4j.Logger;
+import edu.caltech.nanodb.client.SessionState;
 
 
 /**
@@ -16,18 +12,14 @@ import org.apache.log4j.Logger;
  * concurrently from many different threads.  It allows us to record
  * performance statistics from the database, and ultimately to expose them
  * through SQL queries as well.
- *
- * @review (Donnie) I really don't like that this is a static class, because
- *         it prevents us from having multiple sets of performance counters.
- *         This is just the easiest way to add counters to NanoDB in the short
- *         run.  In the future, make this non-static, and maybe stick an
- *         instance of it on the NanoDB Server object.  We can put it into
- *         thread-local storage to make it easy to access.
+ * <p>
+ * Each count and latency is recorded both in the {@link MetricsRegistry#getGlobal
+ * global registry} and in the registry of the current session, so that
+ * statistics can be reported for the whole server or for a single session.
+ * The methods that read and clear values by name operate on the global
+ * registry; the registries themselves can be used to access either scope.
  */
 public class PerformanceCounters {
-    /** A logging object for reporting anything interesting that happens. */
-    private static Logger logger = Logger.getLogger(PerformanceCounters.class);
-
 
     public static final String STORAGE_LARGE_SEEKS = "storage.largeSeeks";
 
@@ -44,59 +36,158 @@ public class PerformanceCounters {
     public static final String STORAGE_BYTES_WRITTEN = "storage.bytesWritten";
 
 
-    private static ConcurrentHashMap<String, AtomicInteger> counters =
-        new ConcurrentHashMap<String, AtomicInteger>();
+    /** The time taken to read a page from its file, as a histogram. */
+    public static final String STORAGE_PAGE_READ_TIME = "storage.pageReadTime";
+
+
+    /**
+     * The number of pages requested that were already in the buffer
+     * manager.
+     */
+    public static final String BUFFER_PAGES_HIT = "buffer.pagesHit";
+
+
+    /**
+     * The number of pages requested that had to be read from their files.
+     */
+    public static final String BUFFER_PAGES_MISSED = "buffer.pagesMissed";
+
+
+    /** The time taken to force the write-ahead log to disk, as a histogram. */
+    public static final String WAL_FORCE_TIME = "wal.forceTime";
+
+
+    /** The time taken to commit a transaction, as a histogram. */
+    public static final String TXN_COMMIT_TIME = "txn.commitTime";
+
+
+    /** The time taken to evaluate a query plan, as a histogram. */
+    public static final String QUERY_EXEC_TIME = "query.execTime";
+
+
+    public static final String BITMAP_CACHE_HITS = "bitmap.cacheHits";
+
+
+    public static final String BITMAP_CACHE_MISSES = "bitmap.cacheMisses";
+
 
+    public static final String BITMAP_CACHE_EVICTIONS = "bitmap.cacheEvictions";
+
+
+    /** The number of bytes of bitmaps currently cached, rather than a count. */
+    public static final String BITMAP_CACHE_BYTES = "bitmap.cacheBytes";
+
+
+    private PerformanceCounters() {
+        throw new UnsupportedOperationException(
+            "This class should not be instantiated.");
+    }
+
+
+    /**
+     * Returns the registry of the statistics of the whole server.
+     *
+     * @return the global registry
+     */
+    public static MetricsRegistry getGlobalMetrics() {
+        return MetricsRegistry.getGlobal();
+    }
+
+
+    /**
+     * Returns the registry of the statistics of the current session.
+     *
+     * @return the current session's registry
+     */
+    public static MetricsRegistry getSessionMetrics() {
+        return SessionState.get().getMetrics();
+    }
+
+
+    /**
+     * Returns the registry of the statistics of the specified scope.
+     *
+     * @param scope "<tt>GLOBAL</tt>" for the whole server, or
+     *        "<tt>SESSION</tt>" for the current session, in any case
+     *
+     * @return the registry of the scope
+     *
+     * @throws IllegalArgumentException if the scope isn't recognized
+     */
+    public static MetricsRegistry getMetrics(String scope) {
+        if ("GLOBAL".equalsIgnoreCase(scope))
+            return getGlobalMetrics();
+        else if ("SESSION".equalsIgnoreCase(scope))
+            return getSessionMetrics();
+
+        throw new IllegalArgumentException("Unrecognized statistics scope \"" +
+            scope + "\"; expected GLOBAL or SESSION");
+    }
+
+
+    public static void inc(String counterName) {
+        MetricsRegistry.getGlobal().inc(counterName);
+        getSessionMetrics().inc(counterName);
+    }
 
-    private static AtomicInteger getCounter(String counterName) {
-        // Do this in two steps so that we can try to avoid allocating an
-        // AtomicInteger unless it looks like we need to.
-        AtomicInteger counter = counters.get(counterName);
-        if (counter == null) {
-            counters.putIfAbsent(counterName, new AtomicInteger());
-            counter = counters.get(counterName);
-        }
 
-        return counter;
+    public static void add(String counterName, long value) {
+        MetricsRegistry.getGlobal().add(counterName, value);
+        getSessionMetrics().add(counterName, value);
     }
 
 
-    public static int inc(String counterName) {
-        return getCounter(counterName).incrementAndGet();
+    public static void dec(String counterName) {
+        add(counterName, -1);
     }
 
 
-    public static int add(String counterName, int value) {
-        return getCounter(counterName).addAndGet(value);
+    public static void sub(String counterName, long value) {
+        add(counterName, -value);
     }
 
 
-    public static int dec(String counterName) {
-        return getCounter(counterName).decrementAndGet();
+    /**
+     * Sets the value of a counter that measures the state of the whole
+     * server, such as the size of a cache.  Since such a value isn't the
+     * work of any one session, it is only set in the global registry.
+     *
+     * @param counterName the name of the counter
+     * @param value the new value of the counter
+     */
+    public static void set(String counterName, long value) {
+        MetricsRegistry.getGlobal().set(counterName, value);
     }
 
 
-    public static int sub(String counterName, int value) {
-        return add(counterName, -value);
+    /**
+     * Records the duration of an operation in the named latency histogram.
+     *
+     * @param histogramName the name of the histogram
+     * @param nanos the duration of the operation, in nanoseconds
+     */
+    public static void recordLatency(String histogramName, long nanos) {
+        MetricsRegistry.getGlobal().recordLatency(histogramName, nanos);
+        getSessionMetrics().recordLatency(histogramName, nanos);
     }
 
 
-    public static int get(String counterName) {
-        return getCounter(counterName).get();
+    public static long get(String counterName) {
+        return MetricsRegistry.getGlobal().get(counterName);
     }
 
 
-    public static int clear(String counterName) {
-        return getCounter(counterName).getAndSet(0);
+    public static long clear(String counterName) {
+        return MetricsRegistry.getGlobal().clear(counterName);
     }
 
 
     public static void clearAll() {
-        counters.clear();
+        MetricsRegistry.getGlobal().clearAll();
     }
 
 
     public static Set<String> getCounterNames() {
-        return new HashSet<String>(counters.keySet());
+        return MetricsRegistry.getGlobal().getCounterNames();
     }
 }
@@ -66,117 +66,130 @@ public NanoSqlLexer(LexerSharedInputState state) {
 	caseSensitiveLiterals = false;
 	setCaseSensitive(true);
 	literals = new Hashtable();
-	literals.put(new ANTLRHashString("type", this), new Integer(83));
-	literals.put(new ANTLRHashString("blob", this), new Integer(99));
+	literals.put(new ANTLRHashString("type", this), new Integer(96));
+	literals.put(new ANTLRHashString("copy", this), new Integer(21));
+	literals.put(new ANTLRHashString("blob", this), new Integer(112));
+	literals.put(new ANTLRHashString("cursor", this), new Integer(25));
 	literals.put(new ANTLRHashString("between", this), new Integer(13));
-	literals.put(new ANTLRHashString("time", this), new Integer(111));
-	literals.put(new ANTLRHashString("delete", this), new Integer(24));
-	literals.put(new ANTLRHashString("transaction", this), new Integer(81));
-	literals.put(new ANTLRHashString("format", this), new Integer(37));
-	literals.put(new ANTLRHashString("view", this), new Integer(94));
-	literals.put(new ANTLRHashString("timestamp", this), new Integer(112));
-	literals.put(new ANTLRHashString("limit", this), new Integer(54));
-	literals.put(new ANTLRHashString("insert", this), new Integer(46));
-	literals.put(new ANTLRHashString("distinct", this), new Integer(26));
-	literals.put(new ANTLRHashString("variable", this), new Integer(90));
-	literals.put(new ANTLRHashString("where", this), new Integer(95));
+	literals.put(new ANTLRHashString("time", this), new Integer(124));
+	literals.put(new ANTLRHashString("delete", this), new Integer(29));
+	literals.put(new ANTLRHashString("transaction", this), new Integer(94));
+	literals.put(new ANTLRHashString("format", this), new Integer(45));
+	literals.put(new ANTLRHashString("view", this), new Integer(107));
+	literals.put(new ANTLRHashString("timestamp", this), new Integer(125));
+	literals.put(new ANTLRHashString("limit", this), new Integer(64));
+	literals.put(new ANTLRHashString("insert", this), new Integer(56));
+	literals.put(new ANTLRHashString("distinct", this), new Integer(31));
+	literals.put(new ANTLRHashString("variable", this), new Integer(103));
+	literals.put(new ANTLRHashString("where", this), new Integer(108));
 	literals.put(new ANTLRHashString("alter", this), new Integer(6));
-	literals.put(new ANTLRHashString("integer", this), new Integer(108));
+	literals.put(new ANTLRHashString("integer", this), new Integer(121));
 	literals.put(new ANTLRHashString("analyze", this), new Integer(7));
-	literals.put(new ANTLRHashString("decimal", this), new Integer(104));
-	literals.put(new ANTLRHashString("select", this), new Integer(73));
+	literals.put(new ANTLRHashString("decimal", this), new Integer(117));
+	literals.put(new ANTLRHashString("select", this), new Integer(84));
 	literals.put(new ANTLRHashString("cascade", this), new Integer(16));
-	literals.put(new ANTLRHashString("to", this), new Integer(80));
+	literals.put(new ANTLRHashString("to", this), new Integer(93));
 	literals.put(new ANTLRHashString("and", this), new Integer(8));
-	literals.put(new ANTLRHashString("outer", this), new Integer(64));
-	literals.put(new ANTLRHashString("float", this), new Integer(105));
-	literals.put(new ANTLRHashString("not", this), new Integer(57));
-	literals.put(new ANTLRHashString("constraint", this), new Integer(19));
-	literals.put(new ANTLRHashString("verbose", this), new Integer(92));
-	literals.put(new ANTLRHashString("numeric", this), new Integer(109));
-	literals.put(new ANTLRHashString("date", this), new Integer(102));
-	literals.put(new ANTLRHashString("using", this), new Integer(88));
-	literals.put(new ANTLRHashString("dump", this), new Integer(28));
-	literals.put(new ANTLRHashString("key", this), new Integer(51));
-	literals.put(new ANTLRHashString("offset", this), new Integer(59));
-	literals.put(new ANTLRHashString("from", this), new Integer(38));
-	literals.put(new ANTLRHashString("bigint", this), new Integer(98));
-	literals.put(new ANTLRHashString("null", this), new Integer(58));
-	literals.put(new ANTLRHashString("optimize", this), new Integer(61));
+	literals.put(new ANTLRHashString("outer", this), new Integer(74));
+	literals.put(new ANTLRHashString("float", this), new Integer(118));
+	literals.put(new ANTLRHashString("not", this), new Integer(67));
+	literals.put(new ANTLRHashString("constraint", this), new Integer(20));
+	literals.put(new ANTLRHashString("fetch", this), new Integer(40));
+	literals.put(new ANTLRHashString("verbose", this), new Integer(105));
+	literals.put(new ANTLRHashString("deallocate", this), new Integer(26));
+	literals.put(new ANTLRHashString("numeric", this), new Integer(122));
+	literals.put(new ANTLRHashString("date", this), new Integer(115));
+	literals.put(new ANTLRHashString("using", this), new Integer(101));
+	literals.put(new ANTLRHashString("dump", this), new Integer(33));
+	literals.put(new ANTLRHashString("key", this), new Integer(61));
+	literals.put(new ANTLRHashString("offset", this), new Integer(69));
+	literals.put(new ANTLRHashString("from", this), new Integer(46));
+	literals.put(new ANTLRHashString("bigint", this), new Integer(111));
+	literals.put(new ANTLRHashString("null", this), new Integer(68));
+	literals.put(new ANTLRHashString("optimize", this), new Integer(71));
 	literals.put(new ANTLRHashString("add", this), new Integer(4));
-	literals.put(new ANTLRHashString("quit", this), new Integer(67));
-	literals.put(new ANTLRHashString("like", this), new Integer(53));
-	literals.put(new ANTLRHashString("natural", this), new Integer(56));
-	literals.put(new ANTLRHashString("flush", this), new Integer(35));
-	literals.put(new ANTLRHashString("inner", this), new Integer(45));
-	literals.put(new ANTLRHashString("exit", this), new Integer(31));
-	literals.put(new ANTLRHashString("except", this), new Integer(29));
-	literals.put(new ANTLRHashString("text", this), new Integer(110));
-	literals.put(new ANTLRHashString("character", this), new Integer(101));
-	literals.put(new ANTLRHashString("verify", this), new Integer(93));
-	literals.put(new ANTLRHashString("with", this), new Integer(96));
-	literals.put(new ANTLRHashString("set", this), new Integer(74));
+	literals.put(new ANTLRHashString("quit", this), new Integer(78));
+	literals.put(new ANTLRHashString("like", this), new Integer(63));
+	literals.put(new ANTLRHashString("natural", this), new Integer(66));
+	literals.put(new ANTLRHashString("flush", this), new Integer(42));
+	literals.put(new ANTLRHashString("inner", this), new Integer(55));
+	literals.put(new ANTLRHashString("exit", this), new Integer(37));
+	literals.put(new ANTLRHashString("except", this), new Integer(34));
+	literals.put(new ANTLRHashString("prepare", this), new Integer(75));
+	literals.put(new ANTLRHashString("text", this), new Integer(123));
+	literals.put(new ANTLRHashString("character", this), new Integer(114));
+	literals.put(new ANTLRHashString("verify", this), new Integer(106));
+	literals.put(new ANTLRHashString("include", this), new Integer(53));
+	literals.put(new ANTLRHashString("with", this), new Integer(109));
+	literals.put(new ANTLRHashString("set", this), new Integer(86));
 	literals.put(new ANTLRHashString("bitmap", this), new Integer(14));
-	literals.put(new ANTLRHashString("foreign", this), new Integer(36));
-	literals.put(new ANTLRHashString("intersect", this), new Integer(47));
-	literals.put(new ANTLRHashString("work", this), new Integer(97));
-	literals.put(new ANTLRHashString("similar", this), new Integer(76));
-	literals.put(new ANTLRHashString("join", this), new Integer(50));
-	literals.put(new ANTLRHashString("rollback", this), new Integer(72));
-	literals.put(new ANTLRHashString("commit", this), new Integer(18));
-	literals.put(new ANTLRHashString("is", this), new Integer(49));
-	literals.put(new ANTLRHashString("file", this), new Integer(34));
-	literals.put(new ANTLRHashString("or", this), new Integer(62));
+	literals.put(new ANTLRHashString("global", this), new Integer(48));
+	literals.put(new ANTLRHashString("foreign", this), new Integer(44));
+	literals.put(new ANTLRHashString("intersect", this), new Integer(57));
+	literals.put(new ANTLRHashString("work", this), new Integer(110));
+	literals.put(new ANTLRHashString("similar", this), new Integer(88));
+	literals.put(new ANTLRHashString("join", this), new Integer(60));
+	literals.put(new ANTLRHashString("rollback", this), new Integer(83));
+	literals.put(new ANTLRHashString("commit", this), new Integer(19));
+	literals.put(new ANTLRHashString("is", this), new Integer(59));
+	literals.put(new ANTLRHashString("close", this), new Integer(17));
+	literals.put(new ANTLRHashString("file", this), new Integer(41));
+	literals.put(new ANTLRHashString("or", this), new Integer(72));
 	literals.put(new ANTLRHashString("any", this), new Integer(9));
-	literals.put(new ANTLRHashString("create", this), new Integer(21));
-	literals.put(new ANTLRHashString("crash", this), new Integer(20));
-	literals.put(new ANTLRHashString("if", this), new Integer(42));
-	literals.put(new ANTLRHashString("full", this), new Integer(39));
-	literals.put(new ANTLRHashString("double", this), new Integer(106));
+	literals.put(new ANTLRHashString("create", this), new Integer(23));
+	literals.put(new ANTLRHashString("crash", this), new Integer(22));
+	literals.put(new ANTLRHashString("if", this), new Integer(51));
+	literals.put(new ANTLRHashString("full", this), new Integer(47));
+	literals.put(new ANTLRHashString("double", this), new Integer(119));
 	literals.put(new ANTLRHashString("as", this), new Integer(10));
 	literals.put(new ANTLRHashString("by", this), new Integer(15));
-	literals.put(new ANTLRHashString("minus", this), new Integer(55));
+	literals.put(new ANTLRHashString("minus", this), new Integer(65));
 	literals.put(new ANTLRHashString("all", this), new Integer(5));
-	literals.put(new ANTLRHashString("union", this), new Integer(84));
-	literals.put(new ANTLRHashString("drop", this), new Integer(27));
-	literals.put(new ANTLRHashString("order", this), new Integer(63));
-	literals.put(new ANTLRHashString("primary", this), new Integer(65));
-	literals.put(new ANTLRHashString("some", this), new Integer(77));
-	literals.put(new ANTLRHashString("show", this), new Integer(75));
-	literals.put(new ANTLRHashString("properties", this), new Integer(66));
-	literals.put(new ANTLRHashString("values", this), new Integer(89));
-	literals.put(new ANTLRHashString("start", this), new Integer(78));
-	literals.put(new ANTLRHashString("int", this), new Integer(107));
-	literals.put(new ANTLRHashString("cross", this), new Integer(22));
-	literals.put(new ANTLRHashString("varchar", this), new Integer(113));
-	literals.put(new ANTLRHashString("char", this), new Integer(100));
-	literals.put(new ANTLRHashString("index", this), new Integer(44));
-	literals.put(new ANTLRHashString("default", this), new Integer(23));
-	literals.put(new ANTLRHashString("explain", this), new Integer(32));
-	literals.put(new ANTLRHashString("false", this), new Integer(33));
-	literals.put(new ANTLRHashString("exists", this), new Integer(30));
-	literals.put(new ANTLRHashString("table", this), new Integer(79));
+	literals.put(new ANTLRHashString("union", this), new Integer(97));
+	literals.put(new ANTLRHashString("drop", this), new Integer(32));
+	literals.put(new ANTLRHashString("order", this), new Integer(73));
+	literals.put(new ANTLRHashString("primary", this), new Integer(76));
+	literals.put(new ANTLRHashString("some", this), new Integer(89));
+	literals.put(new ANTLRHashString("show", this), new Integer(87));
+	literals.put(new ANTLRHashString("properties", this), new Integer(77));
+	literals.put(new ANTLRHashString("values", this), new Integer(102));
+	literals.put(new ANTLRHashString("start", this), new Integer(90));
+	literals.put(new ANTLRHashString("declare", this), new Integer(27));
+	literals.put(new ANTLRHashString("int", this), new Integer(120));
+	literals.put(new ANTLRHashString("for", this), new Integer(43));
+	literals.put(new ANTLRHashString("cross", this), new Integer(24));
+	literals.put(new ANTLRHashString("varchar", this), new Integer(126));
+	literals.put(new ANTLRHashString("char", this), new Integer(113));
+	literals.put(new ANTLRHashString("index", this), new Integer(54));
+	literals.put(new ANTLRHashString("default", this), new Integer(28));
+	literals.put(new ANTLRHashString("explain", this), new Integer(38));
+	literals.put(new ANTLRHashString("stats", this), new Integer(91));
+	literals.put(new ANTLRHashString("false", this), new Integer(39));
+	literals.put(new ANTLRHashString("exists", this), new Integer(36));
+	literals.put(new ANTLRHashString("table", this), new Integer(92));
 	literals.put(new ANTLRHashString("asc", this), new Integer(11));
-	literals.put(new ANTLRHashString("unknown", this), new Integer(86));
-	literals.put(new ANTLRHashString("variables", this), new Integer(91));
-	literals.put(new ANTLRHashString("left", this), new Integer(52));
-	literals.put(new ANTLRHashString("desc", this), new Integer(25));
-	literals.put(new ANTLRHashString("datetime", this), new Integer(103));
-	literals.put(new ANTLRHashString("on", this), new Integer(60));
+	literals.put(new ANTLRHashString("unknown", this), new Integer(99));
+	literals.put(new ANTLRHashString("session", this), new Integer(85));
+	literals.put(new ANTLRHashString("variables", this), new Integer(104));
+	literals.put(new ANTLRHashString("left", this), new Integer(62));
+	literals.put(new ANTLRHashString("desc", this), new Integer(30));
+	literals.put(new ANTLRHashString("datetime", this), new Integer(116));
+	literals.put(new ANTLRHashString("on", this), new Integer(70));
 	literals.put(new ANTLRHashString("begin", this), new Integer(12));
-	literals.put(new ANTLRHashString("restrict", this), new Integer(70));
-	literals.put(new ANTLRHashString("into", this), new Integer(48));
-	literals.put(new ANTLRHashString("rename", this), new Integer(69));
-	literals.put(new ANTLRHashString("right", this), new Integer(71));
-	literals.put(new ANTLRHashString("in", this), new Integer(43));
-	literals.put(new ANTLRHashString("update", this), new Integer(87));
-	literals.put(new ANTLRHashString("true", this), new Integer(82));
-	literals.put(new ANTLRHashString("group", this), new Integer(40));
-	literals.put(new ANTLRHashString("having", this), new Integer(41));
-	literals.put(new ANTLRHashString("column", this), new Integer(17));
-	literals.put(new ANTLRHashString("unique", this), new Integer(85));
-	literals.put(new ANTLRHashString("references", this), new Integer(68));
-	literals.put(new ANTLRHashString("varying", this), new Integer(114));
+	literals.put(new ANTLRHashString("restrict", this), new Integer(81));
+	literals.put(new ANTLRHashString("into", this), new Integer(58));
+	literals.put(new ANTLRHashString("execute", this), new Integer(35));
+	literals.put(new ANTLRHashString("rename", this), new Integer(80));
+	literals.put(new ANTLRHashString("right", this), new Integer(82));
+	literals.put(new ANTLRHashString("in", this), new Integer(52));
+	literals.put(new ANTLRHashString("update", this), new Integer(100));
+	literals.put(new ANTLRHashString("true", this), new Integer(95));
+	literals.put(new ANTLRHashString("group", this), new Integer(49));
+	literals.put(new ANTLRHashString("having", this), new Integer(50));
+	literals.put(new ANTLRHashString("column", this), new Integer(18));
+	literals.put(new ANTLRHashString("unique", this), new Integer(98));
+	literals.put(new ANTLRHashString("references", this), new Integer(79));
+	literals.put(new ANTLRHashString("varying", this), new Integer(127));
 }
 
 public Token nextToken() throws TokenStreamException {
@@ -243,6 +256,12 @@ tryAgain:
 					theRetToken=_returnToken;
 					break;
 				}
+				case '?':
+				{
+					mQUESTION(true);
+					theRetToken=_returnToken;
+					break;
+				}
 				case '\n':  case '\r':
 				{
 					mNEWLINE(true);
@@ -464,6 +483,19 @@ tryAgain:
 		_returnToken = _token;
 	}
 	
+	public final void mQUESTION(boolean _createToken) throws RecognitionException, CharStreamException, TokenStreamException {
+		int _ttype; Token _token=null; int _begin=text.length();
+		_ttype = QUESTION;
+		int _saveIndex;
+		
+		match('?');
+		if ( _createToken && _token==null && _ttype!=Token.SKIP ) {
+			_token = makeToken(_ttype);
+			_token.setText(new String(text.getBuffer(), _begin, text.length()-_begin));
+		}
+		_returnToken = _token;
+	}
+	
 	public final void mNEWLINE(boolean _createToken) throws RecognitionException, CharStreamException, TokenStreamException {
 		int _ttype; Token _token=null; int _begin=text.length();
 		_ttype = NEWLINE;
@@ -503,8 +535,8 @@ tryAgain:
 		int _saveIndex;
 		
 		{
-		int _cnt220=0;
-		_loop220:
+		int _cnt256=0;
+		_loop256:
 		do {
 			switch ( LA(1)) {
 			case ' ':
@@ -519,10 +551,10 @@ tryAgain:
 			}
 			default:
 			{
-				if ( _cnt220>=1 ) { break _loop220; } else {throw new NoViableAltForCharException((char)LA(1), getFilename(), getLine(), getColumn());}
+				if ( _cnt256>=1 ) { break _loop256; } else {throw new NoViableAltForCharException((char)LA(1), getFilename(), getLine(), getColumn());}
 			}
 			}
-			_cnt220++;
+			_cnt256++;
 		} while (true);
 		}
 		_ttype = Token.SKIP;
@@ -548,15 +580,15 @@ tryAgain:
 		match('-');
 		match('-');
 		{
-		_loop224:
+		_loop260:
 		do {
 			// nongreedy exit test
-			if ((LA(1)=='\n') && (true)) break _loop224;
+			if ((LA(1)=='\n') && (true)) break _loop260;
 			if (((LA(1) >= '\u0000' && LA(1) <= '\u007f')) && ((LA(2) >= '\u0000' && LA(2) <= '\u007f'))) {
 				matchNot(EOF_CHAR);
 			}
 			else {
-				break _loop224;
+				break _loop260;
 			}
 			
 		} while (true);
@@ -695,7 +727,7 @@ tryAgain:
 		}
 		}
 		{
-		_loop234:
+		_loop270:
 		do {
 			switch ( LA(1)) {
 			case 'A':  case 'B':  case 'C':  case 'D':
@@ -734,7 +766,7 @@ tryAgain:
 			}
 			default:
 			{
-				break _loop234;
+				break _loop270;
 			}
 			}
 		} while (true);
@@ -792,7 +824,7 @@ tryAgain:
 		}
 		}
 		{
-		_loop238:
+		_loop274:
 		do {
 			switch ( LA(1)) {
 			case 'A':  case 'B':  case 'C':  case 'D':
@@ -831,7 +863,7 @@ tryAgain:
 			}
 			default:
 			{
-				break _loop238;
+				break _loop274;
 			}
 			}
 		} while (true);
@@ -865,17 +897,17 @@ tryAgain:
 		case '8':  case '9':
 		{
 			{
-			int _cnt241=0;
-			_loop241:
+			int _cnt277=0;
+			_loop277:
 			do {
 				if (((LA(1) >= '0' && LA(1) <= '9'))) {
 					matchRange('0','9');
 				}
 				else {
-					if ( _cnt241>=1 ) { break _loop241; } else {throw new NoViableAltForCharException((char)LA(1), getFilename(), getLine(), getColumn());}
+					if ( _cnt277>=1 ) { break _loop277; } else {throw new NoViableAltForCharException((char)LA(1), getFilename(), getLine(), getColumn());}
 				}
 				
-				_cnt241++;
+				_cnt277++;
 			} while (true);
 			}
 			_ttype = INT_LITERAL;
@@ -897,13 +929,13 @@ tryAgain:
 				match('.');
 				_ttype = DEC_LITERAL;
 				{
-				_loop246:
+				_loop282:
 				do {
 					if (((LA(1) >= '0' && LA(1) <= '9'))) {
 						matchRange('0','9');
 					}
 					else {
-						break _loop246;
+						break _loop282;
 					}
 					
 				} while (true);
@@ -959,13 +991,13 @@ tryAgain:
 				}
 				_ttype = DEC_LITERAL;
 				{
-				_loop252:
+				_loop288:
 				do {
 					if (((LA(1) >= '0' && LA(1) <= '9'))) {
 						matchRange('0','9');
 					}
 					else {
-						break _loop252;
+						break _loop288;
 					}
 					
 				} while (true);
@@ -1028,7 +1060,7 @@ tryAgain:
 		match('\'');
 		text.setLength(_saveIndex);
 		{
-		_loop258:
+		_loop294:
 		do {
 			if ((_tokenSet_0.member(LA(1)))) {
 				{
@@ -1036,7 +1068,7 @@ tryAgain:
 				}
 			}
 			else {
-				break _loop258;
+				break _loop294;
 			}
 			
 		} while (true);
@@ -35,6 +35,69 @@ import antlr.collections.impl.BitSet;
  */
 public class NanoSqlParser extends antlr.LLkParser       implements NanoSqlParserTokenTypes
  {
+
+  /**
+   * The parameters of the statement being prepared, in the order they
+   * appear, or null if no statement is being prepared.  Parameters are only
+   * allowed in prepared statements.
+   */
+  private List<ParameterValue> parameters = null;
+
+
+  /**
+   * The normalized text of the statement being prepared, or null if no
+   * statement is being prepared.  See {@link #getTokenText}.
+   */
+  private StringBuilder statementText = null;
+
+
+  /**
+   * Records the text of each token of a statement being prepared, as the
+   * token is consumed.
+   */
+  @Override
+  public void consume() throws TokenStreamException {
+    if (statementText != null && inputState.guessing == 0) {
+      if (statementText.length() > 0)
+        statementText.append(' ');
+
+      statementText.append(getTokenText(LT(1)));
+    }
+
+    super.consume();
+  }
+
+
+  /**
+   * Returns the normalized text of a token.  Keywords and identifiers are
+   * upper-cased, and literals and quoted identifiers are written so that
+   * the lexer produces the same token from the text.  Joining the text of a
+   * statement's tokens with spaces therefore gives the same text for
+   * statements that differ only in case, whitespace and comments.
+   *
+   * @param token the token to return the text of
+   *
+   * @return the normalized text of the token
+   */
+  public static String getTokenText(Token token) {
+    String text = token.getText();
+    switch (token.getType()) {
+    case STRING_LITERAL:
+      return "'" + text + "'";
+
+    case QUOTED_IDENT:
+      return "\"" + text + "\"";
+
+    case LONG_LITERAL:
+      return text + "L";
+
+    case FLOAT_LITERAL:
+      return text + "F";
+
+    default:
+      return text.toUpperCase();
+    }
+  }
 
 protected NanoSqlParser(TokenBuffer tokenBuf, int k) {
   super(tokenBuf,k);
@@ -79,17 +142,24 @@ public NanoSqlParser(ParserSharedInputState state) {
 					switch ( LA(1)) {
 					case ANALYZE:
 					case BEGIN:
+					case CLOSE:
 					case COMMIT:
+					case COPY:
 					case CRASH:
 					case CREATE:
+					case DEALLOCATE:
+					case DECLARE:
 					case DELETE:
 					case DROP:
 					case DUMP:
+					case EXECUTE:
 					case EXIT:
 					case EXPLAIN:
+					case FETCH:
 					case FLUSH:
 					case INSERT:
 					case OPTIMIZE:
+					case PREPARE:
 					case QUIT:
 					case ROLLBACK:
 					case SELECT:
@@ -156,7 +226,7 @@ public NanoSqlParser(ParserSharedInputState state) {
 			case SELECT:
 			case WITH:
 			{
-				c=select_stmt();
+				c=top_select_stmt();
 				break;
 			}
 			case INSERT:
@@ -216,6 +286,11 @@ public NanoSqlParser(ParserSharedInputState state) {
 				c=dump_table_stmt();
 				break;
 			}
+			case COPY:
+			{
+				c=copy_stmt();
+				break;
+			}
 			case FLUSH:
 			{
 				c=flush_stmt();
@@ -231,18 +306,49 @@ public NanoSqlParser(ParserSharedInputState state) {
 				c=optimize_stmt();
 				break;
 			}
-			case SHOW:
+			case SET:
 			{
-				c=showvars_stmt();
+				c=setvar_stmt();
 				break;
 			}
-			case SET:
+			case PREPARE:
 			{
-				c=setvar_stmt();
+				c=prepare_stmt();
 				break;
 			}
-			default:
+			case EXECUTE:
 			{
+				c=execute_stmt();
+				break;
+			}
+			case DEALLOCATE:
+			{
+				c=deallocate_stmt();
+				break;
+			}
+			case DECLARE:
+			{
+				c=declare_cursor_stmt();
+				break;
+			}
+			case FETCH:
+			{
+				c=fetch_stmt();
+				break;
+			}
+			case CLOSE:
+			{
+				c=close_cursor_stmt();
+				break;
+			}
+			default:
+				if ((LA(1)==SHOW) && (LA(2)==VARIABLES)) {
+					c=showvars_stmt();
+				}
+				else if ((LA(1)==SHOW) && (LA(2)==GLOBAL||LA(2)==SESSION||LA(2)==STATS)) {
+					c=showstats_stmt();
+				}
+			else {
 				throw new NoViableAltException(LT(1), getFilename());
 			}
 			}
@@ -328,14 +434,25 @@ public NanoSqlParser(ParserSharedInputState state) {
 		return c;
 	}
 	
-	public final QueryCommand  select_stmt() throws RecognitionException, TokenStreamException {
+/**
+ * A SELECT statement issued as a command of its own.  The normalized text of
+ * the statement is recorded as it is parsed, so that its results can be
+ * found in the query result cache.
+ */
+	public final QueryCommand  top_select_stmt() throws RecognitionException, TokenStreamException {
 		QueryCommand c;
 		
-		c = null; SelectClause sc = null;
+		
+		c = null;
+		statementText = new StringBuilder();
+		
 		
 		try {      // for error handling
-			sc=select_clause();
-			c = new SelectCommand(sc);
+			c=select_stmt();
+			
+			((SelectCommand) c).setSQL(statementText.toString());
+			statementText = null;
+			
 		}
 		catch (RecognitionException ex) {
 			reportError(ex);
@@ -409,7 +526,7 @@ public NanoSqlParser(ParserSharedInputState state) {
 			e=expression();
 			uc.addValue(name, e);
 			{
-			_loop124:
+			_loop130:
 			do {
 				if ((LA(1)==COMMA)) {
 					match(COMMA);
@@ -419,7 +536,7 @@ public NanoSqlParser(ParserSharedInputState state) {
 					uc.addValue(name, e);
 				}
 				else {
-					break _loop124;
+					break _loop130;
 				}
 				
 			} while (true);
@@ -646,7 +763,7 @@ public NanoSqlParser(ParserSharedInputState state) {
 			tblName=dbobj_ident();
 			c = new AnalyzeCommand(tblName, verbose);
 			{
-			_loop138:
+			_loop144:
 			do {
 				if ((LA(1)==COMMA)) {
 					match(COMMA);
@@ -654,7 +771,7 @@ public NanoSqlParser(ParserSharedInputState state) {
 					c.addTable(tblName);
 				}
 				else {
-					break _loop138;
+					break _loop144;
 				}
 				
 			} while (true);
@@ -673,12 +790,35 @@ public NanoSqlParser(ParserSharedInputState state) {
 		
 		c = null;
 		QueryCommand cmdToExplain = null;
+		boolean analyze = false;
 		
 		
 		try {      // for error handling
 			match(EXPLAIN);
 			{
 			switch ( LA(1)) {
+			case ANALYZE:
+			{
+				match(ANALYZE);
+				analyze = true;
+				break;
+			}
+			case DELETE:
+			case INSERT:
+			case SELECT:
+			case UPDATE:
+			case WITH:
+			{
+				break;
+			}
+			default:
+			{
+				throw new NoViableAltException(LT(1), getFilename());
+			}
+			}
+			}
+			{
+			switch ( LA(1)) {
 			case SELECT:
 			case WITH:
 			{
@@ -706,7 +846,7 @@ public NanoSqlParser(ParserSharedInputState state) {
 			}
 			}
 			}
-			c = new ExplainCommand(cmdToExplain);
+			c = new ExplainCommand(cmdToExplain, analyze);
 		}
 		catch (RecognitionException ex) {
 			reportError(ex);
@@ -858,6 +998,178 @@ public NanoSqlParser(ParserSharedInputState state) {
 		return c;
 	}
 	
+	public final Command  copy_stmt() throws RecognitionException, TokenStreamException {
+		Command c;
+		
+		Token  s1 = null;
+		Token  s2 = null;
+		Token  s3 = null;
+		
+		c = null;
+		String tblName = null;
+		QueryCommand query = null;
+		String format = null;
+		CommandProperties p = null;
+		CopyFromCommand fromCmd = null;
+		CopyToCommand toCmd = null;
+		
+		
+		try {      // for error handling
+			match(COPY);
+			{
+			switch ( LA(1)) {
+			case IDENT:
+			case QUOTED_IDENT:
+			{
+				tblName=dbobj_ident();
+				{
+				switch ( LA(1)) {
+				case FROM:
+				{
+					match(FROM);
+					s1 = LT(1);
+					match(STRING_LITERAL);
+					c = fromCmd = new CopyFromCommand(tblName, s1.getText());
+					{
+					switch ( LA(1)) {
+					case PROPERTIES:
+					{
+						p=cmd_properties();
+						fromCmd.setProperties(p);
+						break;
+					}
+					case EOF:
+					case SEMICOLON:
+					{
+						break;
+					}
+					default:
+					{
+						throw new NoViableAltException(LT(1), getFilename());
+					}
+					}
+					}
+					break;
+				}
+				case TO:
+				{
+					match(TO);
+					s2 = LT(1);
+					match(STRING_LITERAL);
+					{
+					switch ( LA(1)) {
+					case FORMAT:
+					{
+						match(FORMAT);
+						format=dbobj_ident();
+						break;
+					}
+					case EOF:
+					case PROPERTIES:
+					case SEMICOLON:
+					{
+						break;
+					}
+					default:
+					{
+						throw new NoViableAltException(LT(1), getFilename());
+					}
+					}
+					}
+					c = toCmd = new CopyToCommand(tblName, s2.getText(), format);
+					{
+					switch ( LA(1)) {
+					case PROPERTIES:
+					{
+						p=cmd_properties();
+						toCmd.setProperties(p);
+						break;
+					}
+					case EOF:
+					case SEMICOLON:
+					{
+						break;
+					}
+					default:
+					{
+						throw new NoViableAltException(LT(1), getFilename());
+					}
+					}
+					}
+					break;
+				}
+				default:
+				{
+					throw new NoViableAltException(LT(1), getFilename());
+				}
+				}
+				}
+				break;
+			}
+			case LPAREN:
+			{
+				match(LPAREN);
+				query=select_stmt();
+				match(RPAREN);
+				match(TO);
+				s3 = LT(1);
+				match(STRING_LITERAL);
+				{
+				switch ( LA(1)) {
+				case FORMAT:
+				{
+					match(FORMAT);
+					format=dbobj_ident();
+					break;
+				}
+				case EOF:
+				case PROPERTIES:
+				case SEMICOLON:
+				{
+					break;
+				}
+				default:
+				{
+					throw new NoViableAltException(LT(1), getFilename());
+				}
+				}
+				}
+				c = toCmd = new CopyToCommand(query, s3.getText(), format);
+				{
+				switch ( LA(1)) {
+				case PROPERTIES:
+				{
+					p=cmd_properties();
+					toCmd.setProperties(p);
+					break;
+				}
+				case EOF:
+				case SEMICOLON:
+				{
+					break;
+				}
+				default:
+				{
+					throw new NoViableAltException(LT(1), getFilename());
+				}
+				}
+				}
+				break;
+			}
+			default:
+			{
+				throw new NoViableAltException(LT(1), getFilename());
+			}
+			}
+			}
+		}
+		catch (RecognitionException ex) {
+			reportError(ex);
+			recover(ex,_tokenSet_1);
+		}
+		return c;
+	}
+	
 	public final FlushCommand  flush_stmt() throws RecognitionException, TokenStreamException {
 		FlushCommand c;
 		
@@ -887,7 +1199,7 @@ public NanoSqlParser(ParserSharedInputState state) {
 			tblName=dbobj_ident();
 			c = new VerifyCommand(tblName);
 			{
-			_loop149:
+			_loop180:
 			do {
 				if ((LA(1)==COMMA)) {
 					match(COMMA);
@@ -895,7 +1207,7 @@ public NanoSqlParser(ParserSharedInputState state) {
 					c.addTable(tblName);
 				}
 				else {
-					break _loop149;
+					break _loop180;
 				}
 				
 			} while (true);
@@ -921,7 +1233,7 @@ public NanoSqlParser(ParserSharedInputState state) {
 			tblName=dbobj_ident();
 			c = new OptimizeCommand(tblName);
 			{
-			_loop152:
+			_loop183:
 			do {
 				if ((LA(1)==COMMA)) {
 					match(COMMA);
@@ -929,41 +1241,371 @@ public NanoSqlParser(ParserSharedInputState state) {
 					c.addTable(tblName);
 				}
 				else {
-					break _loop152;
+					break _loop183;
 				}
 				
 			} while (true);
 			}
-		}
-		catch (RecognitionException ex) {
-			reportError(ex);
-			recover(ex,_tokenSet_1);
-		}
-		return c;
-	}
-	
-	public final ShowVariablesCommand  showvars_stmt() throws RecognitionException, TokenStreamException {
-		ShowVariablesCommand c;
-		
-		Token  s = null;
-		c = null;
-		
-		try {      // for error handling
-			match(SHOW);
-			match(VARIABLES);
-			c = new ShowVariablesCommand();
+		}
+		catch (RecognitionException ex) {
+			reportError(ex);
+			recover(ex,_tokenSet_1);
+		}
+		return c;
+	}
+	
+	public final ShowVariablesCommand  showvars_stmt() throws RecognitionException, TokenStreamException {
+		ShowVariablesCommand c;
+		
+		Token  s = null;
+		c = null;
+		
+		try {      // for error handling
+			match(SHOW);
+			match(VARIABLES);
+			c = new ShowVariablesCommand();
+			{
+			switch ( LA(1)) {
+			case LIKE:
+			{
+				match(LIKE);
+				s = LT(1);
+				match(STRING_LITERAL);
+				c.setFilter(s.getText());
+				break;
+			}
+			case EOF:
+			case SEMICOLON:
+			{
+				break;
+			}
+			default:
+			{
+				throw new NoViableAltException(LT(1), getFilename());
+			}
+			}
+			}
+		}
+		catch (RecognitionException ex) {
+			reportError(ex);
+			recover(ex,_tokenSet_1);
+		}
+		return c;
+	}
+	
+	public final SetVariableCommand  setvar_stmt() throws RecognitionException, TokenStreamException {
+		SetVariableCommand c;
+		
+		Token  n = null;
+		
+		c = null;
+		Expression e = null;
+		
+		
+		try {      // for error handling
+			match(SET);
+			match(VARIABLE);
+			n = LT(1);
+			match(STRING_LITERAL);
+			match(EQUALS);
+			e=expression();
+			c = new SetVariableCommand(n.getText(), e);
+		}
+		catch (RecognitionException ex) {
+			reportError(ex);
+			recover(ex,_tokenSet_1);
+		}
+		return c;
+	}
+	
+/**
+ * Shows the performance counters and latency histograms of the server, or
+ * those of the current session.
+ */
+	public final ShowStatsCommand  showstats_stmt() throws RecognitionException, TokenStreamException {
+		ShowStatsCommand c;
+		
+		Token  s = null;
+		
+		c = null;
+		boolean session = false;
+		
+		
+		try {      // for error handling
+			match(SHOW);
+			{
+			switch ( LA(1)) {
+			case SESSION:
+			{
+				match(SESSION);
+				session = true;
+				break;
+			}
+			case GLOBAL:
+			{
+				match(GLOBAL);
+				break;
+			}
+			case STATS:
+			{
+				break;
+			}
+			default:
+			{
+				throw new NoViableAltException(LT(1), getFilename());
+			}
+			}
+			}
+			match(STATS);
+			c = new ShowStatsCommand(session);
+			{
+			switch ( LA(1)) {
+			case LIKE:
+			{
+				match(LIKE);
+				s = LT(1);
+				match(STRING_LITERAL);
+				c.setFilter(s.getText());
+				break;
+			}
+			case EOF:
+			case SEMICOLON:
+			{
+				break;
+			}
+			default:
+			{
+				throw new NoViableAltException(LT(1), getFilename());
+			}
+			}
+			}
+		}
+		catch (RecognitionException ex) {
+			reportError(ex);
+			recover(ex,_tokenSet_1);
+		}
+		return c;
+	}
+	
+	public final PrepareCommand  prepare_stmt() throws RecognitionException, TokenStreamException {
+		PrepareCommand c;
+		
+		
+		c = null;
+		String name = null;
+		PreparedStatement ps = null;
+		
+		
+		try {      // for error handling
+			match(PREPARE);
+			name=dbobj_ident();
+			match(AS);
+			ps=prepared_stmt();
+			c = new PrepareCommand(name, ps);
+		}
+		catch (RecognitionException ex) {
+			reportError(ex);
+			recover(ex,_tokenSet_1);
+		}
+		return c;
+	}
+	
+	public final ExecuteCommand  execute_stmt() throws RecognitionException, TokenStreamException {
+		ExecuteCommand c;
+		
+		
+		c = null;
+		String name = null;
+		Expression e = null;
+		
+		
+		try {      // for error handling
+			match(EXECUTE);
+			name=dbobj_ident();
+			c = new ExecuteCommand(name);
+			{
+			switch ( LA(1)) {
+			case LPAREN:
+			{
+				match(LPAREN);
+				e=expression();
+				c.addArgument(e);
+				{
+				_loop154:
+				do {
+					if ((LA(1)==COMMA)) {
+						match(COMMA);
+						e=expression();
+						c.addArgument(e);
+					}
+					else {
+						break _loop154;
+					}
+					
+				} while (true);
+				}
+				match(RPAREN);
+				break;
+			}
+			case EOF:
+			case SEMICOLON:
+			{
+				break;
+			}
+			default:
+			{
+				throw new NoViableAltException(LT(1), getFilename());
+			}
+			}
+			}
+		}
+		catch (RecognitionException ex) {
+			reportError(ex);
+			recover(ex,_tokenSet_1);
+		}
+		return c;
+	}
+	
+	public final DeallocateCommand  deallocate_stmt() throws RecognitionException, TokenStreamException {
+		DeallocateCommand c;
+		
+		
+		c = null;
+		String name = null;
+		
+		
+		try {      // for error handling
+			match(DEALLOCATE);
+			{
+			switch ( LA(1)) {
+			case PREPARE:
+			{
+				match(PREPARE);
+				break;
+			}
+			case ALL:
+			case IDENT:
+			case QUOTED_IDENT:
+			{
+				break;
+			}
+			default:
+			{
+				throw new NoViableAltException(LT(1), getFilename());
+			}
+			}
+			}
+			{
+			switch ( LA(1)) {
+			case IDENT:
+			case QUOTED_IDENT:
+			{
+				name=dbobj_ident();
+				c = new DeallocateCommand(name);
+				break;
+			}
+			case ALL:
+			{
+				match(ALL);
+				c = new DeallocateCommand(null);
+				break;
+			}
+			default:
+			{
+				throw new NoViableAltException(LT(1), getFilename());
+			}
+			}
+			}
+		}
+		catch (RecognitionException ex) {
+			reportError(ex);
+			recover(ex,_tokenSet_1);
+		}
+		return c;
+	}
+	
+	public final DeclareCursorCommand  declare_cursor_stmt() throws RecognitionException, TokenStreamException {
+		DeclareCursorCommand c;
+		
+		
+		c = null;
+		String name = null;
+		QueryCommand query = null;
+		
+		
+		try {      // for error handling
+			match(DECLARE);
+			name=dbobj_ident();
+			match(CURSOR);
+			match(FOR);
+			query=select_stmt();
+			c = new DeclareCursorCommand(name, query);
+		}
+		catch (RecognitionException ex) {
+			reportError(ex);
+			recover(ex,_tokenSet_1);
+		}
+		return c;
+	}
+	
+/**
+ * Fetches the next row of a cursor's results by default, or the specified
+ * number of rows, or all the remaining rows.
+ */
+	public final FetchCommand  fetch_stmt() throws RecognitionException, TokenStreamException {
+		FetchCommand c;
+		
+		Token  n = null;
+		
+		c = null;
+		String name = null;
+		int count = 1;
+		
+		
+		try {      // for error handling
+			match(FETCH);
+			{
+			switch ( LA(1)) {
+			case INT_LITERAL:
+			{
+				n = LT(1);
+				match(INT_LITERAL);
+				count = Integer.parseInt(n.getText());
+				break;
+			}
+			case ALL:
+			{
+				match(ALL);
+				count = FetchCommand.FETCH_ALL;
+				break;
+			}
+			case FROM:
+			case IN:
+			case IDENT:
+			case QUOTED_IDENT:
+			{
+				break;
+			}
+			default:
+			{
+				throw new NoViableAltException(LT(1), getFilename());
+			}
+			}
+			}
 			{
 			switch ( LA(1)) {
-			case LIKE:
+			case FROM:
 			{
-				match(LIKE);
-				s = LT(1);
-				match(STRING_LITERAL);
-				c.setFilter(s.getText());
+				match(FROM);
 				break;
 			}
-			case EOF:
-			case SEMICOLON:
+			case IN:
+			{
+				match(IN);
+				break;
+			}
+			case IDENT:
+			case QUOTED_IDENT:
 			{
 				break;
 			}
@@ -973,6 +1615,8 @@ public NanoSqlParser(ParserSharedInputState state) {
 			}
 			}
 			}
+			name=dbobj_ident();
+			c = new FetchCommand(name, count);
 		}
 		catch (RecognitionException ex) {
 			reportError(ex);
@@ -981,23 +1625,37 @@ public NanoSqlParser(ParserSharedInputState state) {
 		return c;
 	}
 	
-	public final SetVariableCommand  setvar_stmt() throws RecognitionException, TokenStreamException {
-		SetVariableCommand c;
+	public final CloseCursorCommand  close_cursor_stmt() throws RecognitionException, TokenStreamException {
+		CloseCursorCommand c;
 		
-		Token  n = null;
 		
 		c = null;
-		Expression e = null;
+		String name = null;
 		
 		
 		try {      // for error handling
-			match(SET);
-			match(VARIABLE);
-			n = LT(1);
-			match(STRING_LITERAL);
-			match(EQUALS);
-			e=expression();
-			c = new SetVariableCommand(n.getText(), e);
+			match(CLOSE);
+			{
+			switch ( LA(1)) {
+			case IDENT:
+			case QUOTED_IDENT:
+			{
+				name=dbobj_ident();
+				c = new CloseCursorCommand(name);
+				break;
+			}
+			case ALL:
+			{
+				match(ALL);
+				c = new CloseCursorCommand(null);
+				break;
+			}
+			default:
+			{
+				throw new NoViableAltException(LT(1), getFilename());
+			}
+			}
+			}
 		}
 		catch (RecognitionException ex) {
 			reportError(ex);
@@ -1312,15 +1970,13 @@ public NanoSqlParser(ParserSharedInputState state) {
 			tblName=dbobj_ident();
 			c = new CreateIndexCommand(idxName, tblName, unique, bitmap);
 			match(LPAREN);
-			colName=dbobj_ident();
-			c.addColumn(colName);
+			index_column(c);
 			{
 			_loop58:
 			do {
 				if ((LA(1)==COMMA)) {
 					match(COMMA);
-					colName=dbobj_ident();
-					c.addColumn(colName);
+					index_column(c);
 				}
 				else {
 					break _loop58;
@@ -1331,6 +1987,43 @@ public NanoSqlParser(ParserSharedInputState state) {
 			match(RPAREN);
 			{
 			switch ( LA(1)) {
+			case INCLUDE:
+			{
+				match(INCLUDE);
+				match(LPAREN);
+				colName=dbobj_ident();
+				c.addIncludedColumn(colName);
+				{
+				_loop61:
+				do {
+					if ((LA(1)==COMMA)) {
+						match(COMMA);
+						colName=dbobj_ident();
+						c.addIncludedColumn(colName);
+					}
+					else {
+						break _loop61;
+					}
+					
+				} while (true);
+				}
+				match(RPAREN);
+				break;
+			}
+			case EOF:
+			case PROPERTIES:
+			case SEMICOLON:
+			{
+				break;
+			}
+			default:
+			{
+				throw new NoViableAltException(LT(1), getFilename());
+			}
+			}
+			}
+			{
+			switch ( LA(1)) {
 			case PROPERTIES:
 			{
 				p=cmd_properties();
@@ -2185,7 +2878,7 @@ public NanoSqlParser(ParserSharedInputState state) {
 				name=dbobj_ident();
 				sc.addWithClause(name, withSC);
 				{
-				_loop70:
+				_loop76:
 				do {
 					if ((LA(1)==COMMA)) {
 						match(COMMA);
@@ -2214,7 +2907,7 @@ public NanoSqlParser(ParserSharedInputState state) {
 						sc.addWithClause(name, withSC);
 					}
 					else {
-						break _loop70;
+						break _loop76;
 					}
 					
 				} while (true);
@@ -2261,6 +2954,7 @@ public NanoSqlParser(ParserSharedInputState state) {
 			case STAR:
 			case STRING_LITERAL:
 			case PLUS:
+			case QUESTION:
 			{
 				break;
 			}
@@ -2273,7 +2967,7 @@ public NanoSqlParser(ParserSharedInputState state) {
 			sv=select_value();
 			sc.addSelectValue(sv);
 			{
-			_loop73:
+			_loop79:
 			do {
 				if ((LA(1)==COMMA)) {
 					match(COMMA);
@@ -2281,7 +2975,7 @@ public NanoSqlParser(ParserSharedInputState state) {
 					sc.addSelectValue(sv);
 				}
 				else {
-					break _loop73;
+					break _loop79;
 				}
 				
 			} while (true);
@@ -2346,7 +3040,7 @@ public NanoSqlParser(ParserSharedInputState state) {
 				e=expression();
 				sc.addGroupByExpr(e);
 				{
-				_loop78:
+				_loop84:
 				do {
 					if ((LA(1)==COMMA)) {
 						match(COMMA);
@@ -2354,7 +3048,7 @@ public NanoSqlParser(ParserSharedInputState state) {
 						sc.addGroupByExpr(e);
 					}
 					else {
-						break _loop78;
+						break _loop84;
 					}
 					
 				} while (true);
@@ -2438,7 +3132,7 @@ public NanoSqlParser(ParserSharedInputState state) {
 				}
 				sc.addOrderByExpr(new OrderByExpression(e, ascending));
 				{
-				_loop84:
+				_loop90:
 				do {
 					if ((LA(1)==COMMA)) {
 						match(COMMA);
@@ -2475,7 +3169,7 @@ public NanoSqlParser(ParserSharedInputState state) {
 						sc.addOrderByExpr(new OrderByExpression(e, ascending));
 					}
 					else {
-						break _loop84;
+						break _loop90;
 					}
 					
 				} while (true);
@@ -2549,6 +3243,53 @@ public NanoSqlParser(ParserSharedInputState state) {
 		return sc;
 	}
 	
+/**
+ * An index column is a column of the table, or a column of another table that
+ * the table references through a foreign key, for bitmap join indexes.
+ */
+	public final void index_column(
+		CreateIndexCommand c
+	) throws RecognitionException, TokenStreamException {
+		
+		
+		String n1 = null;
+		String n2 = null;
+		
+		
+		try {      // for error handling
+			n1=dbobj_ident();
+			{
+			switch ( LA(1)) {
+			case PERIOD:
+			{
+				match(PERIOD);
+				n2=dbobj_ident();
+				break;
+			}
+			case COMMA:
+			case RPAREN:
+			{
+				break;
+			}
+			default:
+			{
+				throw new NoViableAltException(LT(1), getFilename());
+			}
+			}
+			}
+			
+			if (n2 == null)
+			c.addColumn(n1);
+			else
+			c.addJoinColumn(n1, n2);
+			
+		}
+		catch (RecognitionException ex) {
+			reportError(ex);
+			recover(ex,_tokenSet_6);
+		}
+	}
+	
 	public final DropTableCommand  drop_table_stmt() throws RecognitionException, TokenStreamException {
 		DropTableCommand c;
 		
@@ -2615,6 +3356,22 @@ public NanoSqlParser(ParserSharedInputState state) {
 		return c;
 	}
 	
+	public final QueryCommand  select_stmt() throws RecognitionException, TokenStreamException {
+		QueryCommand c;
+		
+		c = null; SelectClause sc = null;
+		
+		try {      // for error handling
+			sc=select_clause();
+			c = new SelectCommand(sc);
+		}
+		catch (RecognitionException ex) {
+			reportError(ex);
+			recover(ex,_tokenSet_9);
+		}
+		return c;
+	}
+	
 	public final SelectValue  select_value() throws RecognitionException, TokenStreamException {
 		SelectValue sv;
 		
@@ -2648,6 +3405,7 @@ public NanoSqlParser(ParserSharedInputState state) {
 			case LPAREN:
 			case STRING_LITERAL:
 			case PLUS:
+			case QUESTION:
 			{
 				e=expression();
 				{
@@ -2723,7 +3481,7 @@ public NanoSqlParser(ParserSharedInputState state) {
 		try {      // for error handling
 			fc=join_expr();
 			{
-			_loop92:
+			_loop98:
 			do {
 				if ((LA(1)==COMMA)) {
 					match(COMMA);
@@ -2731,7 +3489,7 @@ public NanoSqlParser(ParserSharedInputState state) {
 					fc = new FromClause(fc, next, JoinType.CROSS);
 				}
 				else {
-					break _loop92;
+					break _loop98;
 				}
 				
 			} while (true);
@@ -2785,7 +3543,7 @@ public NanoSqlParser(ParserSharedInputState state) {
 		try {      // for error handling
 			fc=from_expr();
 			{
-			_loop104:
+			_loop110:
 			do {
 				if ((_tokenSet_13.member(LA(1)))) {
 					{
@@ -2930,7 +3688,7 @@ public NanoSqlParser(ParserSharedInputState state) {
 						fc.addUsingName(n);
 						
 						{
-						_loop103:
+						_loop109:
 						do {
 							if ((LA(1)==COMMA)) {
 								match(COMMA);
@@ -2938,7 +3696,7 @@ public NanoSqlParser(ParserSharedInputState state) {
 								fc.addUsingName(n);
 							}
 							else {
-								break _loop103;
+								break _loop109;
 							}
 							
 						} while (true);
@@ -2974,7 +3732,7 @@ public NanoSqlParser(ParserSharedInputState state) {
 					}
 				}
 				else {
-					break _loop104;
+					break _loop110;
 				}
 				
 			} while (true);
@@ -3024,11 +3782,12 @@ public NanoSqlParser(ParserSharedInputState state) {
 					case LPAREN:
 					case STRING_LITERAL:
 					case PLUS:
+					case QUESTION:
 					{
 						e=expression();
 						args = new ArrayList<Expression>(); args.add(e);
 						{
-						_loop109:
+						_loop115:
 						do {
 							if ((LA(1)==COMMA)) {
 								match(COMMA);
@@ -3036,7 +3795,7 @@ public NanoSqlParser(ParserSharedInputState state) {
 								args.add(e);
 							}
 							else {
-								break _loop109;
+								break _loop115;
 							}
 							
 						} while (true);
@@ -3205,7 +3964,7 @@ public NanoSqlParser(ParserSharedInputState state) {
 				name=dbobj_ident();
 				cols = new ArrayList<String>(); cols.add(name);
 				{
-				_loop118:
+				_loop124:
 				do {
 					if ((LA(1)==COMMA)) {
 						match(COMMA);
@@ -3213,7 +3972,7 @@ public NanoSqlParser(ParserSharedInputState state) {
 						cols.add(name);
 					}
 					else {
-						break _loop118;
+						break _loop124;
 					}
 					
 				} while (true);
@@ -3255,7 +4014,7 @@ public NanoSqlParser(ParserSharedInputState state) {
 			e=expression();
 			exprs.add(e);
 			{
-			_loop121:
+			_loop127:
 			do {
 				if ((LA(1)==COMMA)) {
 					match(COMMA);
@@ -3263,7 +4022,7 @@ public NanoSqlParser(ParserSharedInputState state) {
 					exprs.add(e);
 				}
 				else {
-					break _loop121;
+					break _loop127;
 				}
 				
 			} while (true);
@@ -3277,6 +4036,66 @@ public NanoSqlParser(ParserSharedInputState state) {
 		return exprs;
 	}
 	
+/**
+ * A statement that can be prepared:  a SELECT, INSERT, UPDATE or DELETE
+ * statement whose expressions may include parameters, written as "?".  The
+ * normalized text of the statement is recorded as it is parsed, so that the
+ * same statement prepared by different sessions can share its plans.
+ */
+	public final PreparedStatement  prepared_stmt() throws RecognitionException, TokenStreamException {
+		PreparedStatement ps;
+		
+		
+		ps = null;
+		QueryCommand c = null;
+		
+		parameters = new ArrayList<ParameterValue>();
+		statementText = new StringBuilder();
+		
+		
+		try {      // for error handling
+			{
+			switch ( LA(1)) {
+			case SELECT:
+			case WITH:
+			{
+				c=select_stmt();
+				break;
+			}
+			case INSERT:
+			{
+				c=insert_stmt();
+				break;
+			}
+			case UPDATE:
+			{
+				c=update_stmt();
+				break;
+			}
+			case DELETE:
+			{
+				c=delete_stmt();
+				break;
+			}
+			default:
+			{
+				throw new NoViableAltException(LT(1), getFilename());
+			}
+			}
+			}
+			
+			ps = new PreparedStatement(statementText.toString(), c, parameters);
+			parameters = null;
+			statementText = null;
+			
+		}
+		catch (RecognitionException ex) {
+			reportError(ex);
+			recover(ex,_tokenSet_1);
+		}
+		return ps;
+	}
+	
 	public final DumpIndexCommand  dump_index_stmt() throws RecognitionException, TokenStreamException {
 		DumpIndexCommand c;
 		
@@ -3357,7 +4176,7 @@ public NanoSqlParser(ParserSharedInputState state) {
 		try {      // for error handling
 			e=logical_and_expr();
 			{
-			_loop166:
+			_loop200:
 			do {
 				if ((LA(1)==OR)) {
 					match(OR);
@@ -3377,7 +4196,7 @@ public NanoSqlParser(ParserSharedInputState state) {
 					
 				}
 				else {
-					break _loop166;
+					break _loop200;
 				}
 				
 			} while (true);
@@ -3417,11 +4236,12 @@ public NanoSqlParser(ParserSharedInputState state) {
 			case LPAREN:
 			case STRING_LITERAL:
 			case PLUS:
+			case QUESTION:
 			{
 				e=expression();
 				exprs.add(e);
 				{
-				_loop163:
+				_loop197:
 				do {
 					if ((LA(1)==COMMA)) {
 						match(COMMA);
@@ -3429,7 +4249,7 @@ public NanoSqlParser(ParserSharedInputState state) {
 						exprs.add(e);
 					}
 					else {
-						break _loop163;
+						break _loop197;
 					}
 					
 				} while (true);
@@ -3467,7 +4287,7 @@ public NanoSqlParser(ParserSharedInputState state) {
 		try {      // for error handling
 			e=logical_not_expr();
 			{
-			_loop169:
+			_loop203:
 			do {
 				if ((LA(1)==AND)) {
 					match(AND);
@@ -3487,7 +4307,7 @@ public NanoSqlParser(ParserSharedInputState state) {
 					
 				}
 				else {
-					break _loop169;
+					break _loop203;
 				}
 				
 			} while (true);
@@ -3532,6 +4352,7 @@ public NanoSqlParser(ParserSharedInputState state) {
 			case LPAREN:
 			case STRING_LITERAL:
 			case PLUS:
+			case QUESTION:
 			{
 				break;
 			}
@@ -3556,6 +4377,7 @@ public NanoSqlParser(ParserSharedInputState state) {
 			case LPAREN:
 			case STRING_LITERAL:
 			case PLUS:
+			case QUESTION:
 			{
 				e=relational_expr();
 				break;
@@ -3700,31 +4522,33 @@ public NanoSqlParser(ParserSharedInputState state) {
 			case NOT:
 			case SIMILAR:
 			{
+				{
 				{
 				switch ( LA(1)) {
-				case LIKE:
 				case NOT:
+				{
+					match(NOT);
+					invert = true;
+					break;
+				}
+				case BETWEEN:
+				case IN:
+				case LIKE:
+				case SIMILAR:
+				{
+					break;
+				}
+				default:
+				{
+					throw new NoViableAltException(LT(1), getFilename());
+				}
+				}
+				}
+				{
+				switch ( LA(1)) {
+				case LIKE:
 				case SIMILAR:
 				{
-					{
-					switch ( LA(1)) {
-					case NOT:
-					{
-						match(NOT);
-						invert = true;
-						break;
-					}
-					case LIKE:
-					case SIMILAR:
-					{
-						break;
-					}
-					default:
-					{
-						throw new NoViableAltException(LT(1), getFilename());
-					}
-					}
-					}
 					{
 					{
 					switch ( LA(1)) {
@@ -3797,6 +4621,7 @@ public NanoSqlParser(ParserSharedInputState state) {
 				}
 				}
 				}
+				}
 				
 				if (invert) {
 				// Wrap the comparison in a NOT expression.
@@ -3884,7 +4709,7 @@ public NanoSqlParser(ParserSharedInputState state) {
 		try {      // for error handling
 			e=mult_expr();
 			{
-			_loop189:
+			_loop224:
 			do {
 				if ((LA(1)==MINUS||LA(1)==PLUS)) {
 					{
@@ -3911,7 +4736,7 @@ public NanoSqlParser(ParserSharedInputState state) {
 					e = new ArithmeticOperator(mathType, e, e2);
 				}
 				else {
-					break _loop189;
+					break _loop224;
 				}
 				
 			} while (true);
@@ -3940,7 +4765,7 @@ public NanoSqlParser(ParserSharedInputState state) {
 		try {      // for error handling
 			e=unary_op_expr();
 			{
-			_loop193:
+			_loop228:
 			do {
 				if ((LA(1)==STAR||LA(1)==SLASH||LA(1)==PERCENT)) {
 					{
@@ -3973,7 +4798,7 @@ public NanoSqlParser(ParserSharedInputState state) {
 					e = new ArithmeticOperator(mathType, e, e2);
 				}
 				else {
-					break _loop193;
+					break _loop228;
 				}
 				
 			} while (true);
@@ -4023,6 +4848,7 @@ public NanoSqlParser(ParserSharedInputState state) {
 			case QUOTED_IDENT:
 			case LPAREN:
 			case STRING_LITERAL:
+			case QUESTION:
 			{
 				e=base_expr();
 				break;
@@ -4063,6 +4889,21 @@ public NanoSqlParser(ParserSharedInputState state) {
 				e=literal_expr();
 				break;
 			}
+			case QUESTION:
+			{
+				match(QUESTION);
+				
+				if (parameters == null) {
+				throw new SemanticException(
+				"Parameters are only allowed in prepared statements.");
+				}
+				
+				ParameterValue p = new ParameterValue(parameters.size() + 1);
+				parameters.add(p);
+				e = p;
+				
+				break;
+			}
 			case LPAREN:
 			{
 				match(LPAREN);
@@ -4083,6 +4924,7 @@ public NanoSqlParser(ParserSharedInputState state) {
 				case LPAREN:
 				case STRING_LITERAL:
 				case PLUS:
+				case QUESTION:
 				{
 					e=logical_or_expr();
 					break;
@@ -4164,6 +5006,7 @@ public NanoSqlParser(ParserSharedInputState state) {
 			case STAR:
 			case STRING_LITERAL:
 			case PLUS:
+			case QUESTION:
 			{
 				{
 				switch ( LA(1)) {
@@ -4183,6 +5026,7 @@ public NanoSqlParser(ParserSharedInputState state) {
 				case LPAREN:
 				case STRING_LITERAL:
 				case PLUS:
+				case QUESTION:
 				{
 					{
 					switch ( LA(1)) {
@@ -4207,6 +5051,7 @@ public NanoSqlParser(ParserSharedInputState state) {
 					case LPAREN:
 					case STRING_LITERAL:
 					case PLUS:
+					case QUESTION:
 					{
 						break;
 					}
@@ -4219,7 +5064,7 @@ public NanoSqlParser(ParserSharedInputState state) {
 					e=expression();
 					args.add(e);
 					{
-					_loop204:
+					_loop239:
 					do {
 						if ((LA(1)==COMMA)) {
 							match(COMMA);
@@ -4227,7 +5072,7 @@ public NanoSqlParser(ParserSharedInputState state) {
 							args.add(e);
 						}
 						else {
-							break _loop204;
+							break _loop239;
 						}
 						
 					} while (true);
@@ -4301,12 +5146,17 @@ public NanoSqlParser(ParserSharedInputState state) {
 		"\"bitmap\"",
 		"\"by\"",
 		"\"cascade\"",
+		"\"close\"",
 		"\"column\"",
 		"\"commit\"",
 		"\"constraint\"",
+		"\"copy\"",
 		"\"crash\"",
 		"\"create\"",
 		"\"cross\"",
+		"\"cursor\"",
+		"\"deallocate\"",
+		"\"declare\"",
 		"\"default\"",
 		"\"delete\"",
 		"\"desc\"",
@@ -4314,20 +5164,25 @@ public NanoSqlParser(ParserSharedInputState state) {
 		"\"drop\"",
 		"\"dump\"",
 		"\"except\"",
+		"\"execute\"",
 		"\"exists\"",
 		"\"exit\"",
 		"\"explain\"",
 		"\"false\"",
+		"\"fetch\"",
 		"\"file\"",
 		"\"flush\"",
+		"\"for\"",
 		"\"foreign\"",
 		"\"format\"",
 		"\"from\"",
 		"\"full\"",
+		"\"global\"",
 		"\"group\"",
 		"\"having\"",
 		"\"if\"",
 		"\"in\"",
+		"\"include\"",
 		"\"index\"",
 		"\"inner\"",
 		"\"insert\"",
@@ -4349,6 +5204,7 @@ public NanoSqlParser(ParserSharedInputState state) {
 		"\"or\"",
 		"\"order\"",
 		"\"outer\"",
+		"\"prepare\"",
 		"\"primary\"",
 		"\"properties\"",
 		"\"quit\"",
@@ -4358,11 +5214,13 @@ public NanoSqlParser(ParserSharedInputState state) {
 		"\"right\"",
 		"\"rollback\"",
 		"\"select\"",
+		"\"session\"",
 		"\"set\"",
 		"\"show\"",
 		"\"similar\"",
 		"\"some\"",
 		"\"start\"",
+		"\"stats\"",
 		"\"table\"",
 		"\"to\"",
 		"\"transaction\"",
@@ -4422,6 +5280,7 @@ public NanoSqlParser(ParserSharedInputState state) {
 		"PLUS",
 		"SLASH",
 		"PERCENT",
+		"QUESTION",
 		"COLON",
 		"NEWLINE",
 		"WS",
@@ -4436,112 +5295,112 @@ public NanoSqlParser(ParserSharedInputState state) {
 	}
 	public static final BitSet _tokenSet_0 = new BitSet(mk_tokenSet_0());
 	private static final long[] mk_tokenSet_1() {
-		long[] data = { 2L, 72057594037927936L, 0L, 0L};
+		long[] data = { 2L, 0L, 32L, 0L, 0L, 0L};
 		return data;
 	}
 	public static final BitSet _tokenSet_1 = new BitSet(mk_tokenSet_1());
 	private static final long[] mk_tokenSet_2() {
-		long[] data = { -2596839894022083326L, -612489542829533568L, 1021L, 0L, 0L, 0L};
+		long[] data = { -2839836223281812222L, 53189434155887L, 8371952L, 0L, 0L, 0L};
 		return data;
 	}
 	public static final BitSet _tokenSet_2 = new BitSet(mk_tokenSet_2());
 	private static final long[] mk_tokenSet_3() {
-		long[] data = { -3749761536067883774L, -1801439848800710528L, 1021L, 0L, 0L, 0L};
+		long[] data = { -2839871407687455486L, 17592203084591L, 8371424L, 0L, 0L, 0L};
 		return data;
 	}
 	public static final BitSet _tokenSet_3 = new BitSet(mk_tokenSet_3());
 	private static final long[] mk_tokenSet_4() {
-		long[] data = { 2L, 72057594037927940L, 0L, 0L};
+		long[] data = { 2L, 8192L, 32L, 0L, 0L, 0L};
 		return data;
 	}
 	public static final BitSet _tokenSet_4 = new BitSet(mk_tokenSet_4());
 	private static final long[] mk_tokenSet_5() {
-		long[] data = { 144115188076380160L, 2097170L, 0L, 0L};
+		long[] data = { 1048576L, 17179906056L, 0L, 0L};
 		return data;
 	}
 	public static final BitSet _tokenSet_5 = new BitSet(mk_tokenSet_5());
 	private static final long[] mk_tokenSet_6() {
-		long[] data = { 0L, 6917529027641081856L, 0L, 0L};
+		long[] data = { 0L, 0L, 3072L, 0L, 0L, 0L};
 		return data;
 	}
 	public static final BitSet _tokenSet_6 = new BitSet(mk_tokenSet_6());
 	private static final long[] mk_tokenSet_7() {
-		long[] data = { 68720001026L, 216172782124269574L, 0L, 0L};
+		long[] data = { 17592187092994L, 85899358208L, 96L, 0L, 0L, 0L};
 		return data;
 	}
 	public static final BitSet _tokenSet_7 = new BitSet(mk_tokenSet_7());
 	private static final long[] mk_tokenSet_8() {
-		long[] data = { 144115188076380160L, 6917529027643179026L, 0L, 0L};
+		long[] data = { 1048576L, 17179906056L, 3072L, 0L, 0L, 0L};
 		return data;
 	}
 	public static final BitSet _tokenSet_8 = new BitSet(mk_tokenSet_8());
 	private static final long[] mk_tokenSet_9() {
-		long[] data = { 2L, 4683743612465315840L, 0L, 0L};
+		long[] data = { 2L, 0L, 2080L, 0L, 0L, 0L};
 		return data;
 	}
 	public static final BitSet _tokenSet_9 = new BitSet(mk_tokenSet_9());
 	private static final long[] mk_tokenSet_10() {
-		long[] data = { -8628895511652335614L, 6989586623826493440L, 0L, 0L};
+		long[] data = { 633318697598978L, 17592186044961L, 3104L, 0L, 0L, 0L};
 		return data;
 	}
 	public static final BitSet _tokenSet_10 = new BitSet(mk_tokenSet_10());
 	private static final long[] mk_tokenSet_11() {
-		long[] data = { -8628895786530242558L, 4683743614612799488L, 0L, 0L};
+		long[] data = { 562949953421314L, 17592186044961L, 2080L, 0L, 0L, 0L};
 		return data;
 	}
 	public static final BitSet _tokenSet_11 = new BitSet(mk_tokenSet_11());
 	private static final long[] mk_tokenSet_12() {
-		long[] data = { -8551170484891284478L, 7421932188054061184L, 0L, 0L};
+		long[] data = { 5802536277236517890L, 17592186307109L, 3296L, 0L, 0L, 0L};
 		return data;
 	}
 	public static final BitSet _tokenSet_12 = new BitSet(mk_tokenSet_12());
 	private static final long[] mk_tokenSet_13() {
-		long[] data = { 77722827704238080L, 128L, 0L, 0L};
+		long[] data = { 5800777057558331392L, 262148L, 0L, 0L};
 		return data;
 	}
 	public static final BitSet _tokenSet_13 = new BitSet(mk_tokenSet_13());
 	private static final long[] mk_tokenSet_14() {
-		long[] data = { -8628895786530242558L, 6989586623826493440L, 0L, 0L};
+		long[] data = { 562949953421314L, 17592186044961L, 3104L, 0L, 0L, 0L};
 		return data;
 	}
 	public static final BitSet _tokenSet_14 = new BitSet(mk_tokenSet_14());
 	private static final long[] mk_tokenSet_15() {
-		long[] data = { -7398251454219157502L, 6989586623843270784L, 0L, 0L};
+		long[] data = { 5801340007511752706L, 17729625260645L, 3104L, 0L, 0L, 0L};
 		return data;
 	}
 	public static final BitSet _tokenSet_15 = new BitSet(mk_tokenSet_15());
 	private static final long[] mk_tokenSet_16() {
-		long[] data = { 0L, 4328522240L, 0L, 0L};
+		long[] data = { 0L, 35459251044352L, 0L, 0L};
 		return data;
 	}
 	public static final BitSet _tokenSet_16 = new BitSet(mk_tokenSet_16());
 	private static final long[] mk_tokenSet_17() {
-		long[] data = { -3939484466463896318L, 7421932188054061184L, 0L, 0L};
+		long[] data = { 5802536277236518146L, 17592186307365L, 3296L, 0L, 0L, 0L};
 		return data;
 	}
 	public static final BitSet _tokenSet_17 = new BitSet(mk_tokenSet_17());
 	private static final long[] mk_tokenSet_18() {
-		long[] data = { -3939484466463896574L, 7421932188054061184L, 0L, 0L};
+		long[] data = { 5802536277236517890L, 17592186307365L, 3296L, 0L, 0L, 0L};
 		return data;
 	}
 	public static final BitSet _tokenSet_18 = new BitSet(mk_tokenSet_18());
 	private static final long[] mk_tokenSet_19() {
-		long[] data = { 468374370910208000L, 6230730084467343360L, 130L, 0L, 0L, 0L};
+		long[] data = { 618475290624L, 2147483674L, 9456335L, 0L, 0L, 0L};
 		return data;
 	}
 	public static final BitSet _tokenSet_19 = new BitSet(mk_tokenSet_19());
 	private static final long[] mk_tokenSet_20() {
-		long[] data = { -3785790333086847742L, -1801439848800710528L, 124L, 0L, 0L, 0L};
+		long[] data = { -2839871407687455486L, 17592203084589L, 1023200L, 0L, 0L, 0L};
 		return data;
 	}
 	public static final BitSet _tokenSet_20 = new BitSet(mk_tokenSet_20());
 	private static final long[] mk_tokenSet_21() {
-		long[] data = { -3749761536067883774L, -1801439848800710528L, 252L, 0L, 0L, 0L};
+		long[] data = { -2839871407687455486L, 17592203084591L, 2071776L, 0L, 0L, 0L};
 		return data;
 	}
 	public static final BitSet _tokenSet_21 = new BitSet(mk_tokenSet_21());
 	private static final long[] mk_tokenSet_22() {
-		long[] data = { -3749761536067883774L, -1765411051781746560L, 1021L, 0L, 0L, 0L};
+		long[] data = { -2839871407687455486L, 17592203084591L, 8371440L, 0L, 0L, 0L};
 		return data;
 	}
 	public static final BitSet _tokenSet_22 = new BitSet(mk_tokenSet_22());
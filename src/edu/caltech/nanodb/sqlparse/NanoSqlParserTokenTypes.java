@@ -29,131 +29,145 @@ public interface NanoSqlParserTokenTypes {
 	int BITMAP = 14;
 	int BY = 15;
 	int CASCADE = 16;
-	int COLUMN = 17;
-	int COMMIT = 18;
-	int CONSTRAINT = 19;
-	int CRASH = 20;
-	int CREATE = 21;
-	int CROSS = 22;
-	int DEFAULT = 23;
-	int DELETE = 24;
-	int DESC = 25;
-	int DISTINCT = 26;
-	int DROP = 27;
-	int DUMP = 28;
-	int EXCEPT = 29;
-	int EXISTS = 30;
-	int EXIT = 31;
-	int EXPLAIN = 32;
-	int FALSE = 33;
-	int FILE = 34;
-	int FLUSH = 35;
-	int FOREIGN = 36;
-	int FORMAT = 37;
-	int FROM = 38;
-	int FULL = 39;
-	int GROUP = 40;
-	int HAVING = 41;
-	int IF = 42;
-	int IN = 43;
-	int INDEX = 44;
-	int INNER = 45;
-	int INSERT = 46;
-	int INTERSECT = 47;
-	int INTO = 48;
-	int IS = 49;
-	int JOIN = 50;
-	int KEY = 51;
-	int LEFT = 52;
-	int LIKE = 53;
-	int LIMIT = 54;
-	int MINUS = 55;
-	int NATURAL = 56;
-	int NOT = 57;
-	int NULL = 58;
-	int OFFSET = 59;
-	int ON = 60;
-	int OPTIMIZE = 61;
-	int OR = 62;
-	int ORDER = 63;
-	int OUTER = 64;
-	int PRIMARY = 65;
-	int PROPERTIES = 66;
-	int QUIT = 67;
-	int REFERENCES = 68;
-	int RENAME = 69;
-	int RESTRICT = 70;
-	int RIGHT = 71;
-	int ROLLBACK = 72;
-	int SELECT = 73;
-	int SET = 74;
-	int SHOW = 75;
-	int SIMILAR = 76;
-	int SOME = 77;
-	int START = 78;
-	int TABLE = 79;
-	int TO = 80;
-	int TRANSACTION = 81;
-	int TRUE = 82;
-	int TYPE = 83;
-	int UNION = 84;
-	int UNIQUE = 85;
-	int UNKNOWN = 86;
-	int UPDATE = 87;
-	int USING = 88;
-	int VALUES = 89;
-	int VARIABLE = 90;
-	int VARIABLES = 91;
-	int VERBOSE = 92;
-	int VERIFY = 93;
-	int VIEW = 94;
-	int WHERE = 95;
-	int WITH = 96;
-	int WORK = 97;
-	int TYPE_BIGINT = 98;
-	int TYPE_BLOB = 99;
-	int TYPE_CHAR = 100;
-	int TYPE_CHARACTER = 101;
-	int TYPE_DATE = 102;
-	int TYPE_DATETIME = 103;
-	int TYPE_DECIMAL = 104;
-	int TYPE_FLOAT = 105;
-	int TYPE_DOUBLE = 106;
-	int TYPE_INT = 107;
-	int TYPE_INTEGER = 108;
-	int TYPE_NUMERIC = 109;
-	int TYPE_TEXT = 110;
-	int TYPE_TIME = 111;
-	int TYPE_TIMESTAMP = 112;
-	int TYPE_VARCHAR = 113;
-	int TYPE_VARYING = 114;
-	int INT_LITERAL = 115;
-	int LONG_LITERAL = 116;
-	int FLOAT_LITERAL = 117;
-	int DEC_LITERAL = 118;
-	int PERIOD = 119;
-	int SEMICOLON = 120;
-	int IDENT = 121;
-	int QUOTED_IDENT = 122;
-	int TEMPORARY = 123;
-	int LPAREN = 124;
-	int COMMA = 125;
-	int RPAREN = 126;
-	int EQUALS = 127;
-	int STAR = 128;
-	int STRING_LITERAL = 129;
-	int NOT_EQUALS = 130;
-	int GRTR_THAN = 131;
-	int LESS_THAN = 132;
-	int GRTR_EQUAL = 133;
-	int LESS_EQUAL = 134;
-	int PLUS = 135;
-	int SLASH = 136;
-	int PERCENT = 137;
-	int COLON = 138;
-	int NEWLINE = 139;
-	int WS = 140;
-	int COMMENT = 141;
-	int COMPARE_OPERATOR = 142;
-	int NUM_LITERAL_OR_SYMBOL = 143;
+	int CLOSE = 17;
+	int COLUMN = 18;
+	int COMMIT = 19;
+	int CONSTRAINT = 20;
+	int COPY = 21;
+	int CRASH = 22;
+	int CREATE = 23;
+	int CROSS = 24;
+	int CURSOR = 25;
+	int DEALLOCATE = 26;
+	int DECLARE = 27;
+	int DEFAULT = 28;
+	int DELETE = 29;
+	int DESC = 30;
+	int DISTINCT = 31;
+	int DROP = 32;
+	int DUMP = 33;
+	int EXCEPT = 34;
+	int EXECUTE = 35;
+	int EXISTS = 36;
+	int EXIT = 37;
+	int EXPLAIN = 38;
+	int FALSE = 39;
+	int FETCH = 40;
+	int FILE = 41;
+	int FLUSH = 42;
+	int FOR = 43;
+	int FOREIGN = 44;
+	int FORMAT = 45;
+	int FROM = 46;
+	int FULL = 47;
+	int GLOBAL = 48;
+	int GROUP = 49;
+	int HAVING = 50;
+	int IF = 51;
+	int IN = 52;
+	int INCLUDE = 53;
+	int INDEX = 54;
+	int INNER = 55;
+	int INSERT = 56;
+	int INTERSECT = 57;
+	int INTO = 58;
+	int IS = 59;
+	int JOIN = 60;
+	int KEY = 61;
+	int LEFT = 62;
+	int LIKE = 63;
+	int LIMIT = 64;
+	int MINUS = 65;
+	int NATURAL = 66;
+	int NOT = 67;
+	int NULL = 68;
+	int OFFSET = 69;
+	int ON = 70;
+	int OPTIMIZE = 71;
+	int OR = 72;
+	int ORDER = 73;
+	int OUTER = 74;
+	int PREPARE = 75;
+	int PRIMARY = 76;
+	int PROPERTIES = 77;
+	int QUIT = 78;
+	int REFERENCES = 79;
+	int RENAME = 80;
+	int RESTRICT = 81;
+	int RIGHT = 82;
+	int ROLLBACK = 83;
+	int SELECT = 84;
+	int SESSION = 85;
+	int SET = 86;
+	int SHOW = 87;
+	int SIMILAR = 88;
+	int SOME = 89;
+	int START = 90;
+	int STATS = 91;
+	int TABLE = 92;
+	int TO = 93;
+	int TRANSACTION = 94;
+	int TRUE = 95;
+	int TYPE = 96;
+	int UNION = 97;
+	int UNIQUE = 98;
+	int UNKNOWN = 99;
+	int UPDATE = 100;
+	int USING = 101;
+	int VALUES = 102;
+	int VARIABLE = 103;
+	int VARIABLES = 104;
+	int VERBOSE = 105;
+	int VERIFY = 106;
+	int VIEW = 107;
+	int WHERE = 108;
+	int WITH = 109;
+	int WORK = 110;
+	int TYPE_BIGINT = 111;
+	int TYPE_BLOB = 112;
+	int TYPE_CHAR = 113;
+	int TYPE_CHARACTER = 114;
+	int TYPE_DATE = 115;
+	int TYPE_DATETIME = 116;
+	int TYPE_DECIMAL = 117;
+	int TYPE_FLOAT = 118;
+	int TYPE_DOUBLE = 119;
+	int TYPE_INT = 120;
+	int TYPE_INTEGER = 121;
+	int TYPE_NUMERIC = 122;
+	int TYPE_TEXT = 123;
+	int TYPE_TIME = 124;
+	int TYPE_TIMESTAMP = 125;
+	int TYPE_VARCHAR = 126;
+	int TYPE_VARYING = 127;
+	int INT_LITERAL = 128;
+	int LONG_LITERAL = 129;
+	int FLOAT_LITERAL = 130;
+	int DEC_LITERAL = 131;
+	int PERIOD = 132;
+	int SEMICOLON = 133;
+	int IDENT = 134;
+	int QUOTED_IDENT = 135;
+	int TEMPORARY = 136;
+	int LPAREN = 137;
+	int COMMA = 138;
+	int RPAREN = 139;
+	int EQUALS = 140;
+	int STAR = 141;
+	int STRING_LITERAL = 142;
+	int NOT_EQUALS = 143;
+	int GRTR_THAN = 144;
+	int LESS_THAN = 145;
+	int GRTR_EQUAL = 146;
+	int LESS_EQUAL = 147;
+	int PLUS = 148;
+	int SLASH = 149;
+	int PERCENT = 150;
+	int QUESTION = 151;
+	int COLON = 152;
+	int NEWLINE = 153;
+	int WS = 154;
+	int COMMENT = 155;
+	int COMPARE_OPERATOR = 156;
+	int NUM_LITERAL_OR_SYMBOL = 157;
 }
@@ -28,6 +28,11 @@ import edu.caltech.nanodb.server.properties.UnrecognizedPropertyException;
  * The buffer manager reduces the number of disk IO operations by managing an
  * in-memory cache of data pages.  It also imposes a limit on the maximum
  * amount of space that can be used for data pages in the database.
+ * <p>
+ * Multiple sessions may use the buffer manager concurrently, so its public
+ * operations synchronize on the buffer manager object.  Code that needs to
+ * perform several buffer-manager operations atomically (such as looking up
+ * a page and then loading it on a miss) can also synchronize on it.
  *
  * @todo Eventually add integrity checks, e.g. to make sure every cached
  *       page's file appears in the collection of cached files.
@@ -209,6 +214,8 @@ public class BufferManager {
      * This collection maps session IDs to the files and pages that each
      * session has pinned, so that we can forcibly unpin pages used by a
      * given session when the session is done with the current command.
+     * Pages pinned by a session's open cursors are recorded under the
+     * cursors' own IDs instead; see {@link SessionState#getPinOwnerID}.
      */
     private HashMap<Integer, HashMap<DBPageID, SessionPinCount>> sessionPinCounts;
 
@@ -327,7 +334,7 @@ public class BufferManager {
      *
      * @param obs the observer to add to the buffer manager
      */
-    public void addObserver(BufferManagerObserver obs) {
+    public synchronized void addObserver(BufferManagerObserver obs) {
         if (obs == null)
             throw new IllegalArgumentException("obs cannot be null");
 
@@ -347,7 +354,7 @@ public class BufferManager {
      *         manager, and an IO error occurred while writing the page to
      *         persistent storage.
      */
-    public byte[] allocBuffer(int size) throws IOException {
+    public synchronized byte[] allocBuffer(int size) throws IOException {
         if (size <= 0)
             throw new IllegalArgumentException("size must be > 0, got " + size);
 
@@ -371,7 +378,7 @@ public class BufferManager {
     }
 
 
-    public void releaseBuffer(byte[] buffer) {
+    public synchronized void releaseBuffer(byte[] buffer) {
         // Verify that this was a buffer we allocated?
         if (!allocatedBuffers.remove(System.identityHashCode(buffer))) {
             throw new IllegalArgumentException("Received a buffer that " +
@@ -395,7 +402,7 @@ public class BufferManager {
      *         already been opened, or <tt>null</tt> if the file isn't currently
      *         open.
      */
-    public DBFile getFile(String filename) {
+    public synchronized DBFile getFile(String filename) {
         DBFile dbFile = cachedFiles.get(filename);
 
         logger.debug(String.format(
@@ -406,7 +413,7 @@ public class BufferManager {
     }
 
 
-    public void addFile(DBFile dbFile) {
+    public synchronized void addFile(DBFile dbFile) {
         if (dbFile == null)
             throw new IllegalArgumentException("dbFile cannot be null");
 
@@ -432,8 +439,8 @@ public class BufferManager {
      *
      * @param dbPage the page that was pinned by the session
      */
-    public void recordPagePinned(DBPage dbPage) {
-        int sessionID = SessionState.get().getSessionID();
+    public synchronized void recordPagePinned(DBPage dbPage) {
+        int sessionID = SessionState.get().getPinOwnerID();
 
         // Retrieve the set of pages pinned by the current session.
         HashMap<DBPageID, SessionPinCount> pinnedBySession =
@@ -462,8 +469,8 @@ public class BufferManager {
      *
      * @param dbPage the page that was unpinned
      */
-    public void recordPageUnpinned(DBPage dbPage) {
-        int sessionID = SessionState.get().getSessionID();
+    public synchronized void recordPageUnpinned(DBPage dbPage) {
+        int sessionID = SessionState.get().getPinOwnerID();
 
         // Retrieve the set of pages pinned by the current session.
         HashMap<DBPageID, SessionPinCount> pinnedBySession =
@@ -504,10 +511,13 @@ public class BufferManager {
      * This method unpins all pages pinned by the current session.  This is
      * generally done at the end of each transaction so that pages aren't
      * pinned forever, and can actually be evicted from the buffer manager.
+     * Pages pinned by the session's open cursors stay pinned, since the
+     * cursors' plans still refer to them; each cursor unpins its pages by
+     * calling this method under its own pin-owner ID when it is closed.
      */
-    public void unpinAllSessionPages() {
+    public synchronized void unpinAllSessionPages() {
         // Unpin all pages pinned by this session.
-        int sessionID = SessionState.get().getSessionID();
+        int sessionID = SessionState.get().getPinOwnerID();
 
         // Retrieve the set of pages pinned by the current session.
         HashMap<DBPageID, SessionPinCount> pinnedBySession =
@@ -539,7 +549,7 @@ public class BufferManager {
     }
 
 
-    public void recordPageInvalidated(DBPage dbPage) {
+    public synchronized void recordPageInvalidated(DBPage dbPage) {
         if (dbPage == null)
             throw new IllegalArgumentException("dbPage cannot be null");
 
@@ -564,6 +574,22 @@ public class BufferManager {
     }
 
 
+    /**
+     * Returns the number of cached pages that are currently pinned, by any
+     * session or cursor.
+     *
+     * @return the number of cached pages that are currently pinned
+     */
+    public synchronized int getNumPinnedPages() {
+        int numPinned = 0;
+        for (DBPage dbPage : cachedPages.values()) {
+            if (dbPage.isPinned())
+                numPinned++;
+        }
+        return numPinned;
+    }
+
+
     /**
      * Retrieves the specified {@code DBPage} from the Buffer Manager if it's
      * currently buffered, or {@code null} if the page is not currently
@@ -573,7 +599,7 @@ public class BufferManager {
      * @param pageNo the page number in the {@code DBFile} to retrieve
      * @return the requested {@code DBPage}, or {@code null} if not found
      */
-    public DBPage getPage(DBFile dbFile, int pageNo) {
+    public synchronized DBPage getPage(DBFile dbFile, int pageNo) {
         DBPage dbPage = cachedPages.get(new CachedPageInfo(dbFile, pageNo));
 
         logger.debug(String.format(
@@ -605,7 +631,7 @@ public class BufferManager {
      * @throws IllegalStateException if the page already appears in the Buffer
      *         Manager.
      */
-    public void addPage(DBPage dbPage) throws IOException {
+    public synchronized void addPage(DBPage dbPage) throws IOException {
         if (dbPage == null)
             throw new IllegalArgumentException("dbPage cannot be null");
 
@@ -756,7 +782,7 @@ public class BufferManager {
      * @throws IOException if an IO error occurs while updating the write-ahead
      *         log, or while writing the file's contents.
      */
-    public void writeDBFile(DBFile dbFile, int minPageNo, int maxPageNo,
+    public synchronized void writeDBFile(DBFile dbFile, int minPageNo, int maxPageNo,
                             boolean sync) throws IOException {
 
         logger.info(String.format("Writing all dirty pages for file %s to disk%s.",
@@ -812,7 +838,7 @@ public class BufferManager {
      * @throws IOException if an IO error occurs while updating the write-ahead
      *         log, or while writing the file's contents.
      */
-    public void writeDBFile(DBFile dbFile, boolean sync) throws IOException {
+    public synchronized void writeDBFile(DBFile dbFile, boolean sync) throws IOException {
         writeDBFile(dbFile, 0, Integer.MAX_VALUE, sync);
     }
 
@@ -830,7 +856,7 @@ public class BufferManager {
      * @throws IOException if an IO error occurs while updating the write-ahead
      *         log, or while writing the file's contents.
      */
-    public void writeAll(boolean sync) throws IOException {
+    public synchronized void writeAll(boolean sync) throws IOException {
         logger.info("Writing ALL dirty pages in the Buffer Manager to disk.");
 
         Iterator<Map.Entry<CachedPageInfo, DBPage>> entries =
@@ -882,7 +908,7 @@ public class BufferManager {
      * @throws IOException if an IO error occurs while updating the write-ahead
      *         log, or the file's contents
      */
-    public void flushDBFile(DBFile dbFile) throws IOException {
+    public synchronized void flushDBFile(DBFile dbFile) throws IOException {
         logger.info("Flushing all pages for file " + dbFile +
             " from the Buffer Manager.");
 
@@ -931,23 +957,34 @@ public class BufferManager {
      * performance issues to manifest with individual commands, and the Storage
      * Manager also uses it during shutdown processing to ensure all data is
      * saved to disk.
+     * <p>
+     * Pinned pages are written out but stay cached, since they are still in
+     * use by other sessions' commands or by open cursors.
      *
      * @throws IOException if an IO error occurs while updating the write-ahead
      *         log, or the file's contents
      */
-    public void flushAll() throws IOException {
+    public synchronized void flushAll() throws IOException {
         logger.info("Flushing ALL database pages from the Buffer Manager.");
 
         Iterator<Map.Entry<CachedPageInfo, DBPage>> entries =
             cachedPages.entrySet().iterator();
 
         ArrayList<DBPage> dirtyPages = new ArrayList<DBPage>();
+        ArrayList<DBPage> dirtyPinnedPages = new ArrayList<DBPage>();
 
         while (entries.hasNext()) {
             Map.Entry<CachedPageInfo, DBPage> entry = entries.next();
 
             DBPage oldPage = entry.getValue();
 
+            if (oldPage.isPinned()) {
+                if (oldPage.isDirty())
+                    dirtyPinnedPages.add(oldPage);
+
+                continue;
+            }
+
             logger.debug(String.format(
                 "    Evicting page [%s,%d] from page-cache.",
                 oldPage.getDBFile(), oldPage.getPageNo()));
@@ -968,6 +1005,7 @@ public class BufferManager {
         }
 
         writeDirtyPages(dirtyPages, /* invalidate */ true);
+        writeDirtyPages(dirtyPinnedPages, /* invalidate */ false);
     }
 
 
@@ -980,7 +1018,7 @@ public class BufferManager {
      *
      * @throws IOException if an IO error occurs while writing out dirty pages
      */
-    public void removeDBFile(DBFile dbFile) throws IOException {
+    public synchronized void removeDBFile(DBFile dbFile) throws IOException {
         logger.info("Removing DBFile " + dbFile + " from buffer manager");
         flushDBFile(dbFile);
         cachedFiles.remove(dbFile.getDataFile().getName());
@@ -998,7 +1036,7 @@ public class BufferManager {
      *
      * @throws IOException if an IO error occurs while writing out dirty pages
      */
-    public List<DBFile> removeAll() throws IOException {
+    public synchronized List<DBFile> removeAll() throws IOException {
         logger.info("Removing ALL DBFiles from buffer manager");
 
         // Flush all pages, ensuring that dirty pages will be written too.
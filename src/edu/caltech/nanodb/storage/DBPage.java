@@ -187,24 +187,30 @@ public class DBPage implements Pinnable {
 
     @Override
     public void pin() {
-        pinCount++;
+        // Pin counts are examined by the Buffer Manager when it evicts
+        // pages, so they are updated while holding its monitor.
+        synchronized (bufferManager) {
+            pinCount++;
 
-        // To facilitate debugging of pinned-page leaks!
-        bufferManager.recordPagePinned(this);
+            // To facilitate debugging of pinned-page leaks!
+            bufferManager.recordPagePinned(this);
+        }
     }
 
 
     @Override
     public void unpin() {
-        if (pinCount <= 0) {
-            throw new IllegalStateException(
-                "pinCount is not positive (value is " + pinCount + ")");
-        }
+        synchronized (bufferManager) {
+            if (pinCount <= 0) {
+                throw new IllegalStateException(
+                    "pinCount is not positive (value is " + pinCount + ")");
+            }
 
-        // To facilitate debugging of pinned-page leaks!
-        bufferManager.recordPageUnpinned(this);
+            // To facilitate debugging of pinned-page leaks!
+            bufferManager.recordPageUnpinned(this);
 
-        pinCount--;
+            pinCount--;
+        }
     }
 
 
@@ -230,9 +230,13 @@ public class FileManagerImpl implements FileManager {
         long pageStart = getPageStart(dbFile, pageNo);
 
         RandomAccessFile fileContents = dbFile.getFileContents();
+        long startTime = System.nanoTime();
         fileContents.seek(pageStart);
         try {
             fileContents.readFully(buffer);
+            PerformanceCounters.recordLatency(
+                PerformanceCounters.STORAGE_PAGE_READ_TIME,
+                System.nanoTime() - startTime);
         }
         catch (EOFException e) {
             if (create) {
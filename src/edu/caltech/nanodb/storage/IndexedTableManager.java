@@ -5,11 +5,13 @@ import java.io.IOException;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.log4j.Logger;
 
 import edu.caltech.nanodb.commands.CommandProperties;
 import edu.caltech.nanodb.indexes.IndexManager;
+import edu.caltech.nanodb.indexes.bitmapindex.BitmapIndexManager;
 import edu.caltech.nanodb.relations.ForeignKeyColumnRefs;
 import edu.caltech.nanodb.relations.KeyColumnRefs;
 import edu.caltech.nanodb.relations.TableInfo;
@@ -31,6 +33,10 @@ public class IndexedTableManager implements TableManager {
     private HashMap<String, TableInfo> openTables;
 
 
+    /** The version of the tables' definitions; see {@link #getCatalogVersion}. */
+    private AtomicLong catalogVersion = new AtomicLong();
+
+
     public IndexedTableManager(StorageManager storageManager) {
         this.storageManager = storageManager;
         openTables = new HashMap<String, TableInfo>();
@@ -110,6 +116,7 @@ public class IndexedTableManager implements TableManager {
         // Cache this table since it's now considered "open".
         TableInfo tableInfo = new TableInfo(tableName, tupleFile);
         openTables.put(tableName, tableInfo);
+        catalogVersion.incrementAndGet();
 
         return tableInfo;
     }
@@ -121,6 +128,7 @@ public class IndexedTableManager implements TableManager {
         TupleFile tupleFile = tableInfo.getTupleFile();
         TupleFileManager manager = tupleFile.getManager();
         manager.saveMetadata(tupleFile);
+        catalogVersion.incrementAndGet();
     }
 
 
@@ -152,6 +160,7 @@ public class IndexedTableManager implements TableManager {
     public void analyzeTable(TableInfo tableInfo) throws IOException {
         // Analyze the table's tuple-file.
         tableInfo.getTupleFile().analyze();
+        catalogVersion.incrementAndGet();
 
         // TODO:  Probably want to analyze all the indexes associated with
         //        the table as well...
@@ -163,6 +172,7 @@ public class IndexedTableManager implements TableManager {
     public void closeTable(TableInfo tableInfo) throws IOException {
         // Remove this table from the cache since it's about to be closed.
         openTables.remove(tableInfo.getTableName());
+        catalogVersion.incrementAndGet();
 
         DBFile dbFile = tableInfo.getTupleFile().getDBFile();
 
@@ -186,6 +196,14 @@ public class IndexedTableManager implements TableManager {
 
         String tblFileName = getTableFileName(tableName);
         storageManager.getFileManager().deleteDBFile(tblFileName);
+        catalogVersion.incrementAndGet();
+    }
+
+
+    // Inherit interface docs.
+    @Override
+    public long getCatalogVersion() {
+        return catalogVersion.get();
     }
 
 
@@ -257,5 +275,9 @@ public class IndexedTableManager implements TableManager {
         IndexManager indexManager = storageManager.getIndexManager();
         for (String indexName : schema.getIndexes().keySet())
             indexManager.dropIndex(tableInfo, indexName);
+
+        BitmapIndexManager bitmapIndexManager = storageManager.getBitmapIndexManager();
+        for (String attribute : bitmapIndexManager.getIndexedAttributes(tableInfo))
+            bitmapIndexManager.dropBitmapIndex(tableInfo, attribute);
     }
 }
@@ -507,8 +507,10 @@ public abstract class PageTuple implements Tuple {
 
             deleteTupleDataRange(valueOffsets[iCol], valueSize);
 
-            // Update all affected value-offsets within this tuple.
+            // The start of the tuple, and all values before this one, moved
+            // forward by the size of the removed value.
 
+            pageOffset += valueSize;
             for (int jCol = 0; jCol < iCol; jCol++) {
                 if (valueOffsets[jCol] != NULL_OFFSET)
                     valueOffsets[jCol] += valueSize;
@@ -586,17 +588,32 @@ public abstract class PageTuple implements Tuple {
         }
         newDataSize = getStorageSize(colType, newDataLength);
 
+        // Resizing the tuple slides the start of the tuple, and every value
+        // before this one, backward (to make room) or forward (to reclaim
+        // space).  The new value starts wherever its first byte ends up.
         int diff = newDataSize - oldDataSize;
         if (diff > 0) {
             insertTupleDataRange(offset, diff);
-            pageOffset -= diff;
         }
         else if (diff < 0) {
-            diff = -diff;
-            deleteTupleDataRange(offset, diff);
-            pageOffset += diff;
+            deleteTupleDataRange(offset, -diff);
         }
 
+        int shift = -diff;
+        if (shift != 0) {
+            pageOffset += shift;
+            offset += shift;
+            for (int jCol = 0; jCol < colIndex; jCol++) {
+                if (valueOffsets[jCol] != NULL_OFFSET)
+                    valueOffsets[jCol] += shift;
+            }
+        }
+
+        if (valueOffsets[colIndex] == NULL_OFFSET)
+            setNullFlag(colIndex, false);
+
+        valueOffsets[colIndex] = offset;
+
         // Finally, write the value to the column!
 
         writeNonNullValue(dbPage, offset, colType, value);
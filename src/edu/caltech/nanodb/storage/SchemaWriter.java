@@ -11,6 +11,7 @@ import java.util.Set;
 
 import org.apache.log4j.Logger;
 
+import edu.caltech.nanodb.relations.BitmapJoinColumnRefs;
 import edu.caltech.nanodb.relations.ColumnRefs;
 import edu.caltech.nanodb.relations.ColumnInfo;
 import edu.caltech.nanodb.relations.ColumnType;
@@ -146,7 +147,8 @@ import edu.caltech.nanodb.relations.TableSchema;
  *       <li>Number of Indexes (unsigned byte)</li>
  *       <li>For each index:
  *         <ul>
- *           <li>Number of Columns in Index (unsigned byte)</li>
+ *           <li>Number of Columns in Index, and Included Columns Flag
+ *               (unsigned byte)</li>
  *           <li>For each column:
  *             <ul>
  *               <li>Index of Column in Index (unsigned byte)</li>
@@ -154,6 +156,9 @@ import edu.caltech.nanodb.relations.TableSchema;
  *           </li>
  *           <li>Name of Index (a string up to 255 characters,
  *               stored as {@link PageReader#readVarString255})</li>
+ *           <li>If the flag is set, Number of Included Columns (unsigned
+ *               byte), followed by the Index of each Included Column
+ *               (unsigned byte)</li>
  *         </ul>
  *       </li>
  *     </ul>
@@ -452,12 +457,25 @@ public class SchemaWriter {
         logger.debug(String.format(" * Index %s, enforced with index %s",
                                       idx, idx.getIndexName()));
 
-        hpWriter.writeByte(idx.size());
+        // The high bit of the size is set if the index includes non-key
+        // columns.
+        int[] includedCols = idx.getIncludedCols();
+        int size = idx.size();
+        if (includedCols.length > 0)
+            size |= 0x80;
+
+        hpWriter.writeByte(size);
         for (int i = 0; i < idx.size(); i++)
             hpWriter.writeByte(idx.getCol(i));
 
         // This should always be specified.
         hpWriter.writeVarString255(idx.getIndexName());
+
+        if (includedCols.length > 0) {
+            hpWriter.writeByte(includedCols.length);
+            for (int iCol : includedCols)
+                hpWriter.writeByte(iCol);
+        }
     }
 
 
@@ -756,6 +774,9 @@ public class SchemaWriter {
         logger.debug(" * Reading index");
 
         int idxSize = pgReader.readUnsignedByte();
+        boolean hasIncludedCols = (idxSize & 0x80) != 0;
+        idxSize &= 0x7F;
+
         int[] idxCols = new int[idxSize];
         for (int i = 0; i < idxSize; i++)
             idxCols[i] = pgReader.readUnsignedByte();
@@ -763,7 +784,17 @@ public class SchemaWriter {
         // This should always be specified.
         String indexName = pgReader.readVarString255();
 
-        return new ColumnRefs(indexName, idxCols);
+        ColumnRefs index = new ColumnRefs(indexName, idxCols);
+
+        if (hasIncludedCols) {
+            int[] includedCols = new int[pgReader.readUnsignedByte()];
+            for (int i = 0; i < includedCols.length; i++)
+                includedCols[i] = pgReader.readUnsignedByte();
+
+            index.setIncludedCols(includedCols);
+        }
+
+        return index;
     }
 
     protected void writeBitmapIndexes(TableSchema schema, PageWriter pgWriter) {
@@ -779,9 +810,24 @@ public class SchemaWriter {
     }
 
     protected void writeBitmapIndex(PageWriter hpWriter, ColumnRefs idx) {
-        hpWriter.writeByte(idx.getCol(0));
+        // The high bit of the size is set if the index is a bitmap join
+        // index, which is followed by the column of the other table.
+        int size = idx.size();
+        if (idx instanceof BitmapJoinColumnRefs)
+            size |= 0x80;
+
+        hpWriter.writeByte(size);
+        for (int i = 0; i < idx.size(); i++)
+            hpWriter.writeByte(idx.getCol(i));
+
         // This should always be specified.
         hpWriter.writeVarString255(idx.getIndexName());
+
+        if (idx instanceof BitmapJoinColumnRefs) {
+            BitmapJoinColumnRefs joinIdx = (BitmapJoinColumnRefs) idx;
+            hpWriter.writeVarString255(joinIdx.getDimensionTable());
+            hpWriter.writeVarString255(joinIdx.getDimensionColumn());
+        }
     }
 
     protected void readBitmapIndexes(PageReader pgReader, TableSchema schema) {
@@ -795,11 +841,24 @@ public class SchemaWriter {
 
         logger.debug(" * Reading bitmap index");
 
-        int idxCol = pgReader.readUnsignedByte();
-        int[] idxCols = {idxCol};
+        int idxSize = pgReader.readUnsignedByte();
+        boolean isJoinIndex = (idxSize & 0x80) != 0;
+        idxSize &= 0x7f;
+
+        int[] idxCols = new int[idxSize];
+        for (int i = 0; i < idxSize; i++)
+            idxCols[i] = pgReader.readUnsignedByte();
+
         // This should always be specified.
         String indexName = pgReader.readVarString255();
 
+        if (isJoinIndex) {
+            String dimensionTable = pgReader.readVarString255();
+            String dimensionColumn = pgReader.readVarString255();
+            return new BitmapJoinColumnRefs(indexName, idxCols,
+                dimensionTable, dimensionColumn);
+        }
+
         return new ColumnRefs(indexName, idxCols);
     }
 }
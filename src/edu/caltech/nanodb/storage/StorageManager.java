@@ -3,13 +3,16 @@ package edu.caltech.nanodb.storage;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
 
 import edu.caltech.nanodb.indexes.bitmapindex.BitmapIndexManager;
 import edu.caltech.nanodb.indexes.bitmapindex.BitmapIndexUpdater;
 import org.apache.log4j.Logger;
 
+import edu.caltech.nanodb.client.SessionState;
 import edu.caltech.nanodb.expressions.TypeCastException;
 
 import edu.caltech.nanodb.indexes.BasicIndexManager;
@@ -161,10 +164,55 @@ public class StorageManager {
     private boolean initialized = false;
 
 
+    /**
+     * This helper class records a page that a session is reading from its
+     * file, so that other sessions that want the same page wait for the read
+     * to finish instead of reading another copy of the page.
+     */
+    private static class PageLoad {
+        public DBFile dbFile;
+
+        public int pageNo;
+
+        /** Released when the read has finished, whether or not it worked. */
+        public CountDownLatch done = new CountDownLatch(1);
+
+        public PageLoad(DBFile dbFile, int pageNo) {
+            this.dbFile = dbFile;
+            this.pageNo = pageNo;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (obj instanceof PageLoad) {
+                PageLoad other = (PageLoad) obj;
+                return dbFile.equals(other.dbFile) && pageNo == other.pageNo;
+            }
+            return false;
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = 7;
+            hash = 31 * hash + dbFile.hashCode();
+            hash = 31 * hash + pageNo;
+            return hash;
+        }
+    }
+
+
     /** The buffer manager stores data pages in memory, to avoid disk IOs. */
     private BufferManager bufferManager;
 
 
+    /**
+     * The pages that are currently being read from their files.  This is
+     * guarded by the buffer manager's lock.
+     */
+    private HashMap<PageLoad, PageLoad> pageLoads =
+        new HashMap<PageLoad, PageLoad>();
+
+
     /**
      * The file manager performs basic operations against the filesystem,
      * without performing any buffering whatsoever.
@@ -271,8 +319,11 @@ public class StorageManager {
             // Register the event-handler that updates indexes when tables change.
             eventDispatcher.addRowEventListener(new IndexUpdater(this));
 
-            // Register the handler that updates bitmap indexes
-            eventDispatcher.addRowEventListener(new BitmapIndexUpdater(this));
+            // Register the handler that updates bitmap indexes, which also
+            // rebuilds bitmap join indexes when commands finish
+            BitmapIndexUpdater bitmapIndexUpdater = new BitmapIndexUpdater(this);
+            eventDispatcher.addRowEventListener(bitmapIndexUpdater);
+            eventDispatcher.addCommandEventListener(bitmapIndexUpdater);
         }
 
         initialized = true;
@@ -427,6 +478,10 @@ public class StorageManager {
      * other database pages to be evicted from the buffer manager, and written
      * back to disk if the evicted pages are dirty.
      * <p>
+     * The page is read from the file without holding the buffer manager's
+     * lock.  If several sessions want the same page, one of them reads it
+     * and the others wait for it, rather than each reading its own copy.
+     * <p>
      * The <tt>create</tt> flag controls whether an error is propagated, if the
      * requested page is past the current end of the data file.  (Note that if a
      * new page is created, the file's size will not reflect the new page until
@@ -447,24 +502,92 @@ public class StorageManager {
     public DBPage loadDBPage(DBFile dbFile, int pageNo, boolean create)
         throws IOException {
 
-        // Try to retrieve from the buffer manager.
-        DBPage dbPage = bufferManager.getPage(dbFile, pageNo);
-        if (dbPage == null) {
-            // Buffer manager didn't have it.  Read the page directly from
-            // the file, then add it to the buffer manager.
-            dbPage = new DBPage(bufferManager, dbFile, pageNo);
+        // If this thread already holds the buffer manager's lock, e.g. because
+        // evicting pages forced the write-ahead log, it can't wait for another
+        // session to add the page, so it reads the page itself.
+        if (Thread.holdsLock(bufferManager))
+            return readDBPage(dbFile, pageNo, create);
+
+        PageLoad pageLoad = new PageLoad(dbFile, pageNo);
+        while (true) {
+            PageLoad otherLoad;
+            synchronized (bufferManager) {
+                // Try to retrieve from the buffer manager.
+                DBPage dbPage = bufferManager.getPage(dbFile, pageNo);
+                if (dbPage != null) {
+                    SessionState.get().recordPageAccess(true);
+                    return dbPage;
+                }
+
+                // The lookup and the registration of the read must happen
+                // atomically, or else two sessions could both miss and read
+                // separate copies of the page.
+                otherLoad = pageLoads.get(pageLoad);
+                if (otherLoad == null) {
+                    pageLoads.put(pageLoad, pageLoad);
+                    break;
+                }
+            }
+
+            // Another session is reading the page.  Wait for it to finish,
+            // then look for the page again; if the read failed, this session
+            // will try it.
             try {
-                fileManager.loadPage(dbFile, pageNo, dbPage.getPageData(), create);
-                bufferManager.addPage(dbPage);
+                otherLoad.done.await();
             }
-            catch (IOException e) {
-                // Make sure to release the DBPage's buffer, or else we will
-                // have a resource leak...
-                dbPage.invalidate();
-                throw e;
+            catch (InterruptedException e) {
+                throw new InterruptedIOException(String.format(
+                    "Interrupted while waiting for page [%s,%d] to be read",
+                    dbFile, pageNo));
             }
         }
 
+        // Read the page without holding the buffer manager's lock, so that
+        // other sessions can use the buffer manager during the IO.
+        try {
+            return readDBPage(dbFile, pageNo, create);
+        }
+        finally {
+            synchronized (bufferManager) {
+                pageLoads.remove(pageLoad);
+            }
+            pageLoad.done.countDown();
+        }
+    }
+
+
+    /**
+     * Reads a page that the buffer manager didn't have from its file, and
+     * adds it to the buffer manager.  If another session added the page in
+     * the meantime, the page read is discarded and the buffered page is
+     * returned instead.
+     */
+    private DBPage readDBPage(DBFile dbFile, int pageNo, boolean create)
+        throws IOException {
+
+        SessionState.get().recordPageAccess(false);
+
+        DBPage dbPage = new DBPage(bufferManager, dbFile, pageNo);
+        try {
+            fileManager.loadPage(dbFile, pageNo, dbPage.getPageData(), create);
+
+            synchronized (bufferManager) {
+                DBPage bufferedPage = bufferManager.getPage(dbFile, pageNo);
+                if (bufferedPage != null) {
+                    dbPage.invalidate();
+                    return bufferedPage;
+                }
+
+                bufferManager.addPage(dbPage);
+            }
+        }
+        catch (IOException e) {
+            // Make sure to release the DBPage's buffer, or else we will have
+            // a resource leak...
+            dbPage.invalidate();
+            throw e;
+        }
+
         return dbPage;
     }
 
@@ -113,4 +113,15 @@ public interface TableManager {
      *         table's backing storage.
      */
     void dropTable(String tableName) throws IOException;
+
+
+    /**
+     * Returns a number that changes whenever a table is created, dropped or
+     * closed, or whenever a table's schema, indexes or statistics are saved.
+     * Anything derived from the tables' definitions, such as a cached query
+     * plan, is still valid as long as this number hasn't changed.
+     *
+     * @return the current version of the tables' definitions
+     */
+    long getCatalogVersion();
 }
@@ -46,6 +46,12 @@ public interface BitSet {
      */
     public int[] toArray();
 
+    /**
+     * Returns an iterator over the indices of set bits, in sorted order. Unlike toArray, this
+     * doesn't copy the indices out of the bitset.
+     */
+    public BitSetIterator iterator();
+
     /**
      * Given the bytes of a bitset object, load the object into this bitset, overwriting
      * any previous contents.
@@ -0,0 +1,17 @@
+package edu.caltech.nanodb.storage.bitmapfile;
+
+/**
+ * An iterator over the indices of the set bits of a {@link BitSet}, in sorted order. The bitset
+ * must not be modified while it is being iterated over.
+ */
+public interface BitSetIterator {
+    /**
+     * Returns true if there are more set bits
+     */
+    public boolean hasNext();
+
+    /**
+     * Returns the index of the next set bit
+     */
+    public int next();
+}
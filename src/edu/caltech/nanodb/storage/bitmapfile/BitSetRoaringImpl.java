@@ -1,9 +1,12 @@
 package edu.caltech.nanodb.storage.bitmapfile;
 
 import org.apache.log4j.Logger;
+import org.roaringbitmap.FastAggregation;
+import org.roaringbitmap.IntIterator;
 import org.roaringbitmap.RoaringBitmap;
 
 import java.io.*;
+import java.util.List;
 
 /**
  * A version of bitset implemented with the RoaringBitmap library. More info at https://github.com/lemire/RoaringBitmap
@@ -65,6 +68,54 @@ public class BitSetRoaringImpl implements BitSet {
         return this.bitset.toArray();
     }
 
+    public BitSetIterator iterator() {
+        final IntIterator iter = this.bitset.getIntIterator();
+        return new BitSetIterator() {
+            public boolean hasNext() {
+                return iter.hasNext();
+            }
+
+            public int next() {
+                return iter.next();
+            }
+        };
+    }
+
+    /**
+     * Returns the and of any number of bitsets, which must not be empty, as a new bitset. All of
+     * the bitsets are combined at once, so the only bitset allocated is the result.
+     */
+    public static BitSetRoaringImpl and(List<BitSet> bitsets) {
+        // The aggregation may return a lone input as it is, rather than a copy
+        if (bitsets.size() == 1)
+            return (BitSetRoaringImpl) bitsets.get(0).clone();
+
+        BitSetRoaringImpl ret = new BitSetRoaringImpl();
+        ret.bitset = FastAggregation.and(toRoaring(bitsets));
+        return ret;
+    }
+
+    /**
+     * Returns the or of any number of bitsets, which must not be empty, as a new bitset. All of
+     * the bitsets are combined at once, so the only bitset allocated is the result.
+     */
+    public static BitSetRoaringImpl or(List<BitSet> bitsets) {
+        // The aggregation may return a lone input as it is, rather than a copy
+        if (bitsets.size() == 1)
+            return (BitSetRoaringImpl) bitsets.get(0).clone();
+
+        BitSetRoaringImpl ret = new BitSetRoaringImpl();
+        ret.bitset = FastAggregation.or(toRoaring(bitsets));
+        return ret;
+    }
+
+    private static RoaringBitmap[] toRoaring(List<BitSet> bitsets) {
+        RoaringBitmap[] ret = new RoaringBitmap[bitsets.size()];
+        for (int i = 0; i < ret.length; i++)
+            ret[i] = ((BitSetRoaringImpl) bitsets.get(i)).bitset;
+        return ret;
+    }
+
     public void load(byte[] input) {
         ByteArrayInputStream bais = new ByteArrayInputStream(input);
         DataInputStream dis = new DataInputStream(bais);
@@ -3,7 +3,9 @@ package edu.caltech.nanodb.storage.bitmapfile;
 import edu.caltech.nanodb.indexes.bitmapindex.BitmapIndex;
 import edu.caltech.nanodb.relations.TableInfo;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
 /**
  * Represents an individual bitmap of some type that can do operations against other bitmaps,
@@ -15,6 +17,7 @@ import java.util.Arrays;
 public class Bitmap {
 
     private BitmapFile bitmapFile;
+    private int bitmapNumber;
     private BitSet bitset;
 
     public Bitmap() {
@@ -28,14 +31,22 @@ public class Bitmap {
         return ret;
     }
 
-    public void setBitmapFile(BitmapFile bitmapFile) {
+    /**
+     * Makes this bitmap disk backed, as the bitmap with the given number in a bitmap file.
+     */
+    public void setBitmapFile(BitmapFile bitmapFile, int bitmapNumber) {
         this.bitmapFile = bitmapFile;
+        this.bitmapNumber = bitmapNumber;
     }
 
     public BitmapFile getBitmapFile() {
         return bitmapFile;
     }
 
+    public int getBitmapNumber() {
+        return bitmapNumber;
+    }
+
     public void setBitSet(BitSet bitset) {
         this.bitset = bitset;
     }
@@ -62,6 +73,21 @@ public class Bitmap {
         return this.bitset.toArray();
     }
 
+    /**
+     * Returns an iterator over the set bits, in order. The bitmap must not be modified while it
+     * is being iterated over, so a disk backed bitmap should be copied first.
+     */
+    public BitSetIterator iterator() {
+        return this.bitset.iterator();
+    }
+
+    /**
+     * Returns the size of the bitmap in bytes, which is the size it takes up when it is saved.
+     */
+    public int getSizeInBytes() {
+        return this.bitset.size();
+    }
+
     public int cardinality() {
         return this.bitset.cardinality();
     }
@@ -72,22 +98,28 @@ public class Bitmap {
 
     /**
      * Set a bit as the given position. If this is a disk backed bitmap, make the same change to
-     * the file by writing the bitmap to file.
+     * the file, which only modifies the page holding the bit.
      */
     public void set(int pos) {
+        if (this.bitset.get(pos))
+            return;
+
         this.bitset.add(pos);
         if (isDiskBacked())
-            this.bitmapFile.writeBitmapToFile();
+            this.bitmapFile.writeBit(bitmapNumber, pos, true);
     }
 
     /**
      * Unset a bit as the given position. If this is a disk backed bitmap, make the same change to
-     * the file by writing the bitmap to file.
+     * the file, which only modifies the page holding the bit.
      */
     public void unset(int pos) {
+        if (!this.bitset.get(pos))
+            return;
+
         this.bitset.remove(pos);
         if (isDiskBacked())
-            this.bitmapFile.writeBitmapToFile();
+            this.bitmapFile.writeBit(bitmapNumber, pos, false);
     }
 
     public boolean contains(int pos) {
@@ -122,6 +154,51 @@ public class Bitmap {
         return ret;
     }
 
+    /**
+     * Returns the bits of the first bitmap that are not in the second bitmap, as a new bitmap.
+     * The inputs are not modified.
+     */
+    public static Bitmap andNot(Bitmap m1, Bitmap m2) {
+        Bitmap ret = m1.clone();
+        ret.bitset.andNot(m2.bitset);
+        return ret;
+    }
+
+    /**
+     * Returns the and of any number of bitmaps, of which there must be at least one, as a new
+     * bitmap. The bitmaps are combined all at once, rather than a pair at a time, so no
+     * intermediate bitmaps are made. The inputs are not modified.
+     */
+    public static Bitmap and(List<Bitmap> maps) {
+        if (maps.isEmpty())
+            throw new IllegalArgumentException("Need at least one bitmap to and");
+
+        Bitmap ret = new Bitmap();
+        ret.setBitSet(BitSetRoaringImpl.and(getBitSets(maps)));
+        return ret;
+    }
+
+    /**
+     * Returns the or of any number of bitmaps as a new bitmap, which is empty if there are no
+     * bitmaps. The bitmaps are combined all at once, rather than a pair at a time, so no
+     * intermediate bitmaps are made. The inputs are not modified.
+     */
+    public static Bitmap or(List<Bitmap> maps) {
+        if (maps.isEmpty())
+            return emptyBitmap();
+
+        Bitmap ret = new Bitmap();
+        ret.setBitSet(BitSetRoaringImpl.or(getBitSets(maps)));
+        return ret;
+    }
+
+    private static List<BitSet> getBitSets(List<Bitmap> maps) {
+        ArrayList<BitSet> ret = new ArrayList<BitSet>(maps.size());
+        for (Bitmap map : maps)
+            ret.add(map.bitset);
+        return ret;
+    }
+
     @Override
     public String toString() {
         return Arrays.toString(toArray());
@@ -3,122 +3,788 @@ package edu.caltech.nanodb.storage.bitmapfile;
 import edu.caltech.nanodb.storage.DBFile;
 import edu.caltech.nanodb.storage.DBFileType;
 import edu.caltech.nanodb.storage.DBPage;
+import edu.caltech.nanodb.storage.StorageManager;
 import org.apache.log4j.Logger;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
 
 /**
- * A class representing a Bitmap stored in a file. The format stores the same first two bytes as a DBFile,
- * followed by an int representing the size of the bitset, then the rest of the bytes are the bytes of the
- * bitset, in whatever format the bitset class chooses to serialize itself to.
+ * <p>
+ * A class representing the single file that holds every bitmap of a bitmap index, along with
+ * the index's value dictionary (see {@link ValueSet}).  Bitmaps in the file are identified by
+ * number.  The numbers below {@link #FIRST_VALUE_BITMAP} are set aside for the index's
+ * existence bitmap, the bitmap of rows whose value is NULL, and the bit-slices of integer
+ * values; the numbers of value bitmaps are handed out by {@link #allocateBitmapNumber}.
+ * </p>
+ * <p>
+ * The bit positions of a bitmap are split into fixed-size <em>chunks</em>.  A chunk with few
+ * set bits is stored in a <em>slot</em> of a packed page, which is split into
+ * {@link #SLOTS_PER_PAGE} slots that can hold chunks of different bitmaps.  Once a chunk
+ * outgrows its slot it moves to a page of its own, so setting or clearing a single bit only
+ * modifies (and logs) the page that holds its chunk, plus a directory page when the chunk is
+ * added or moved.  The modified pages stay in the buffer manager until it flushes them, e.g.
+ * at a checkpoint or when they are evicted.
+ * </p>
+ * <p>
+ * Page 0 starts with the same two bytes as every DBFile, then an int holding the next unused
+ * bitmap number, an int holding the first page of the value dictionary (0 if there is none),
+ * and then the first page of the chunk directory:  an int holding the page number of the next
+ * directory page (0 if there is none), an int holding the number of entries on this page, and
+ * then the entries themselves.  Each entry holds the bitmap number and the chunk number (ints),
+ * the number of the page that holds the chunk (an int), and the chunk's slot in that page (an
+ * unsigned short, {@link #FULL_PAGE} if the chunk has the page to itself).  Entries of dropped
+ * bitmaps are marked free and reused.  Further directory pages have the same layout starting
+ * at byte 0.
+ * </p>
+ * <p>
+ * Each chunk starts with the form of the chunk (a byte) and the number of set bits in the
+ * chunk (an int).  Chunks with few bits are stored as a sorted array of unsigned shorts, the
+ * offsets of the set bits within the chunk.  Denser chunks are stored as plain bits, in the
+ * same way that Roaring bitmaps choose between array and bitmap containers; only chunks with a
+ * page of their own can take this form.
+ * </p>
+ * <p>
+ * Pages that hold no chunks, e.g. after a bitmap is dropped, are reused for new chunks and
+ * dictionary pages.  Which pages are free isn't stored; it is worked out from the directory
+ * and the dictionary when the file is opened.
+ * </p>
  */
 public class BitmapFile {
     private static Logger logger = Logger.getLogger(BitmapFile.class);
 
+    /** The number of the existence bitmap of the index. */
+    public static final int EXISTENCE_BITMAP = 0;
+
+    /** The number of the bitmap of the rows whose value is NULL. */
+    public static final int NULL_BITMAP = 1;
+
+    /** The number of the bitmap for the lowest bit-slice of integer values. */
+    public static final int FIRST_SLICE_BITMAP = 2;
+
+    /** The largest number of bit-slices an index can have. */
+    public static final int MAX_SLICES = 64;
+
+    /** The number of the first value bitmap. */
+    public static final int FIRST_VALUE_BITMAP = FIRST_SLICE_BITMAP + MAX_SLICES;
+
+    /** The offset in page 0 of the next unused bitmap number. */
+    private static final int OFFSET_NEXT_BITMAP = 2;
+
+    /** The offset in page 0 of the first page of the value dictionary. */
+    private static final int OFFSET_DICTIONARY_PAGE = 6;
+
+    /** The offset of the chunk directory in page 0, after the file header. */
+    private static final int OFFSET_FIRST_DIRECTORY = 10;
+
+    /**
+     * Within the directory part of a page, the offset of the next directory page number.
+     * Dictionary pages also start with the number of the next page in their chain.
+     */
+    static final int OFFSET_NEXT_PAGE = 0;
+
+    /** Within the directory part of a page, the offset of the number of entries. */
+    private static final int OFFSET_DIR_NUM_ENTRIES = 4;
+
+    /** Within the directory part of a page, the offset of the first entry. */
+    private static final int OFFSET_DIR_ENTRIES = 8;
+
+    /** The size of a directory entry:  the bitmap, chunk and page numbers, and the slot. */
+    private static final int DIR_ENTRY_SIZE = 14;
+
+    /** The bitmap number of a directory entry that isn't in use. */
+    private static final int FREE_ENTRY = -1;
+
+    /** The slot number of a chunk that has a page to itself. */
+    private static final int FULL_PAGE = 0xFFFF;
+
+    /** The number of slots in a packed page. */
+    private static final int SLOTS_PER_PAGE = 16;
+
+    /** Within a chunk, the offset of the chunk's form. */
+    private static final int OFFSET_CHUNK_FORM = 0;
+
+    /** Within a chunk, the offset of the number of set bits. */
+    private static final int OFFSET_CHUNK_CARDINALITY = 1;
+
+    /** Within a chunk, the offset of the chunk's data. */
+    private static final int OFFSET_CHUNK_DATA = 5;
+
+    /** The chunk form where the offsets of the set bits are stored as an array. */
+    private static final int FORM_ARRAY = 1;
+
+    /** The chunk form where every bit of the chunk is stored. */
+    private static final int FORM_BITS = 2;
+
+    /**
+     * Where a chunk is stored, and where its entry is in the chunk directory.
+     */
+    private static class ChunkLocation {
+        int pageNo;
+        int slot;
+        int dirPageNo;
+        int dirOffset;
+    }
+
     /** The manager for bitmap files */
     private BitmapFileManager bitmapFileManager;
 
     /** The file that stores the index. */
     private DBFile dbFile;
 
-    /** The bitmap the file is associated with */
-    private Bitmap bitmap;
+    /** The number of bit positions in each chunk; a power of two. */
+    private int chunkBits;
+
+    /** The largest number of bits that a chunk with its own page can hold in array form. */
+    private int maxArrayBits;
+
+    /** The size of a slot in a packed page. */
+    private int slotSize;
+
+    /** The largest number of bits that a chunk in a slot can hold. */
+    private int maxSlotBits;
 
-    public BitmapFile(DBFile dbFile, Bitmap bitmap, BitmapFileManager manager) {
+    /** For each bitmap in the file, a map from chunk numbers to where the chunks are. */
+    private HashMap<Integer, HashMap<Integer, ChunkLocation>> chunks;
+
+    /** Directory entries that were freed when their bitmaps were dropped. */
+    private ArrayList<ChunkLocation> freeEntries;
+
+    /** A map from the packed pages of the file to bit-masks of their slots in use. */
+    private TreeMap<Integer, Integer> packedPages;
+
+    /** The packed pages that have at least one free slot. */
+    private TreeSet<Integer> openPackedPages;
+
+    /** Pages that don't hold anything, and can be reused. */
+    private TreeSet<Integer> freePages;
+
+    /** The last page of the chunk directory, where new entries are added. */
+    private int lastDirectoryPage;
+
+    public BitmapFile(DBFile dbFile, BitmapFileManager manager) {
         this.bitmapFileManager = manager;
         this.dbFile = dbFile;
-        this.bitmap = bitmap;
+
+        chunkBits = getChunkBits(dbFile.getPageSize());
+        maxArrayBits = chunkBits / 16;
+        slotSize = dbFile.getPageSize() / SLOTS_PER_PAGE;
+        maxSlotBits = getMaxSlotBits(dbFile.getPageSize());
+
+        chunks = new HashMap<Integer, HashMap<Integer, ChunkLocation>>();
+        freeEntries = new ArrayList<ChunkLocation>();
+        packedPages = new TreeMap<Integer, Integer>();
+        openPackedPages = new TreeSet<Integer>();
+        freePages = new TreeSet<Integer>();
+    }
+
+    /**
+     * Returns the number of bit positions in each chunk for the given page size.  This is the
+     * largest power of two whose bits fit in a page, but no more than 2<sup>16</sup>, so that
+     * offsets within a chunk fit in an unsigned short.
+     */
+    public static int getChunkBits(int pageSize) {
+        int bits = 8;
+        while (bits * 2 <= (pageSize - OFFSET_CHUNK_DATA) * 8 && bits * 2 <= 65536)
+            bits *= 2;
+        return bits;
+    }
+
+    /**
+     * Returns the largest number of bits that a chunk can have and still be stored in a slot
+     * of a packed page, for the given page size.
+     */
+    public static int getMaxSlotBits(int pageSize) {
+        return (pageSize / SLOTS_PER_PAGE - OFFSET_CHUNK_DATA) / 2;
     }
 
     public DBFile getDbFile() {
         return dbFile;
     }
 
+    StorageManager getStorageManager() {
+        return bitmapFileManager.getStorageManager();
+    }
+
+    private static int getDirectoryOffset(int pageNo) {
+        return pageNo == 0 ? OFFSET_FIRST_DIRECTORY : 0;
+    }
+
     /**
-     * Opens the DBFile associated with this BitmapFile and reads its contents into
-     * this bitmap. First reads in the bitmap size, and loads that many bytes into
-     * the bitmap. The previous bitmap is overwritten.
+     * Writes an empty header and chunk directory to a newly created file.
      */
-    public void readFileToBitmap() {
-        // Open up each page of this file and read the data into a single byte array
-        ByteArrayOutputStream bitmapbytes = new ByteArrayOutputStream();
+    public void initialize() {
         try {
-            int bitmapsize = -1;
-            for (int i = 0; i < dbFile.getNumPages(); i++) {
-                DBPage page = bitmapFileManager.getStorageManager().loadDBPage(dbFile, i);
-                byte[] data = page.getPageData();
-
-                if (i == 0) {
-                    // Read the file type and size from the first page
-                    if (DBFileType.valueOf(page.readByte(0)) != DBFileType.BITMAP_INDEX_FILE)
-                        throw new IllegalStateException("Not a bitmap file!");
-                    bitmapsize = page.readInt(2);
-
-                    // Check if the rest of the data is shorter than the bitmap. If so, write
-                    // the bytes and subtract the amount written from the size. Otherwise,
-                    // write the bytes and finish.
-                    if (data.length - 6 < bitmapsize) {
-                        bitmapbytes.write(data, 6, data.length - 6);
-                        bitmapsize -= data.length - 6;
-                    } else {
-                        bitmapbytes.write(data, 6, bitmapsize);
-                        bitmapsize -= bitmapsize;
-                        break;
-                    }
-                } else {
-                    // The whole page is data
-                    if (data.length < bitmapsize) {
-                        bitmapbytes.write(data, 0, data.length);
-                        bitmapsize -= data.length;
-                    } else {
-                        bitmapbytes.write(data, 0, bitmapsize);
-                        bitmapsize -= bitmapsize;
-                        break;
+            DBPage page = getStorageManager().loadDBPage(dbFile, 0);
+            page.writeInt(OFFSET_NEXT_BITMAP, FIRST_VALUE_BITMAP);
+            page.writeInt(OFFSET_DICTIONARY_PAGE, 0);
+            page.writeInt(OFFSET_FIRST_DIRECTORY + OFFSET_NEXT_PAGE, 0);
+            page.writeInt(OFFSET_FIRST_DIRECTORY + OFFSET_DIR_NUM_ENTRIES, 0);
+            getStorageManager().logDBPageWrite(page);
+            page.unpin();
+        } catch (IOException e) {
+            logger.error(e.getMessage());
+        }
+
+        clearState();
+        lastDirectoryPage = 0;
+    }
+
+    /**
+     * Reads the chunk directory of an existing file, and works out which pages are free.  The
+     * bitmaps themselves aren't read until they are loaded.
+     */
+    public void open() {
+        clearState();
+
+        HashSet<Integer> usedPages = new HashSet<Integer>();
+        try {
+            // Read the chunk directory, one page at a time.
+            int dirPageNo = 0;
+            while (true) {
+                DBPage page = getStorageManager().loadDBPage(dbFile, dirPageNo);
+                if (dirPageNo == 0 &&
+                    DBFileType.valueOf(page.readByte(0)) != DBFileType.BITMAP_INDEX_FILE) {
+                    throw new IllegalStateException("Not a bitmap file!");
+                }
+                usedPages.add(dirPageNo);
+
+                int offset = getDirectoryOffset(dirPageNo);
+                int numEntries = page.readInt(offset + OFFSET_DIR_NUM_ENTRIES);
+                for (int i = 0; i < numEntries; i++) {
+                    ChunkLocation loc = new ChunkLocation();
+                    loc.dirPageNo = dirPageNo;
+                    loc.dirOffset = offset + OFFSET_DIR_ENTRIES + i * DIR_ENTRY_SIZE;
+
+                    int bitmapNo = page.readInt(loc.dirOffset);
+                    if (bitmapNo == FREE_ENTRY) {
+                        freeEntries.add(loc);
+                        continue;
                     }
+
+                    int chunk = page.readInt(loc.dirOffset + 4);
+                    loc.pageNo = page.readInt(loc.dirOffset + 8);
+                    loc.slot = page.readUnsignedShort(loc.dirOffset + 12);
+                    getChunks(bitmapNo).put(chunk, loc);
+
+                    usedPages.add(loc.pageNo);
+                    if (loc.slot != FULL_PAGE)
+                        useSlot(loc.pageNo, loc.slot);
                 }
+
+                lastDirectoryPage = dirPageNo;
+                dirPageNo = page.readInt(offset + OFFSET_NEXT_PAGE);
+                page.unpin();
+
+                if (dirPageNo == 0)
+                    break;
+            }
+
+            // The value dictionary's pages are in use too.
+            int dictPageNo = getDictionaryPage();
+            while (dictPageNo != 0) {
+                usedPages.add(dictPageNo);
+                DBPage page = getStorageManager().loadDBPage(dbFile, dictPageNo);
+                dictPageNo = page.readInt(OFFSET_NEXT_PAGE);
+                page.unpin();
+            }
+
+            for (int pageNo = 1; pageNo < dbFile.getNumPages(); pageNo++) {
+                if (!usedPages.contains(pageNo))
+                    freePages.add(pageNo);
             }
-            if (bitmapsize != 0) throw new IllegalStateException("Bitmap reading from file error");
         } catch (IOException e) {
             logger.error(e.getMessage());
         }
-        bitmap.load(bitmapbytes.toByteArray());
+    }
+
+    private void clearState() {
+        chunks.clear();
+        freeEntries.clear();
+        packedPages.clear();
+        openPackedPages.clear();
+        freePages.clear();
+    }
+
+    /**
+     * Returns a new bitmap number, which is never handed out again for this file.
+     */
+    public int allocateBitmapNumber() {
+        try {
+            DBPage page = getStorageManager().loadDBPage(dbFile, 0);
+            int bitmapNo = page.readInt(OFFSET_NEXT_BITMAP);
+            page.writeInt(OFFSET_NEXT_BITMAP, bitmapNo + 1);
+            getStorageManager().logDBPageWrite(page);
+            page.unpin();
+            return bitmapNo;
+        } catch (IOException e) {
+            throw new RuntimeException("Couldn't allocate a bitmap number", e);
+        }
     }
 
     /**
-     * Saves the serialized bytes of the bitset to the DBFile. First saves the size of the bytes as
-     * an int, then breaks the data up into pages and saves one page at a time. The data is only actually
-     * written when the BufferManager flushes it, though.
+     * Returns the first page of the value dictionary, or 0 if the dictionary has no pages.
      */
-    public void writeBitmapToFile() {
-        // TODO only write if the page changed?
-        byte[] bytes = bitmap.save();
+    int getDictionaryPage() throws IOException {
+        DBPage page = getStorageManager().loadDBPage(dbFile, 0);
+        int pageNo = page.readInt(OFFSET_DICTIONARY_PAGE);
+        page.unpin();
+        return pageNo;
+    }
+
+    /**
+     * Records the first page of the value dictionary in the file header.
+     */
+    void setDictionaryPage(int pageNo) throws IOException {
+        DBPage page = getStorageManager().loadDBPage(dbFile, 0);
+        page.writeInt(OFFSET_DICTIONARY_PAGE, pageNo);
+        getStorageManager().logDBPageWrite(page);
+        page.unpin();
+    }
+
+    /**
+     * Returns a page that isn't in use, reusing a free page if there is one and otherwise
+     * extending the file.  The page is pinned, and its contents are undefined.
+     */
+    DBPage allocatePage() throws IOException {
+        Integer pageNo = freePages.pollFirst();
+        if (pageNo == null)
+            return getStorageManager().loadDBPage(dbFile, dbFile.getNumPages(), true);
+
+        return getStorageManager().loadDBPage(dbFile, pageNo);
+    }
+
+    /**
+     * Makes a page available for reuse.  The page must not be referenced from anywhere.
+     */
+    void freePage(int pageNo) {
+        freePages.add(pageNo);
+    }
+
+    /**
+     * Returns a new disk-backed bitmap with no bits set.  Nothing is written to the file until
+     * a bit is set.
+     */
+    public Bitmap createBitmap(int bitmapNo) {
+        Bitmap bitmap = new Bitmap();
+        bitmap.setBitSet(new BitSetRoaringImpl());
+        bitmap.setBitmapFile(this, bitmapNo);
+        return bitmap;
+    }
+
+    /**
+     * Reads a bitmap from the file, one chunk at a time, into a new disk-backed bitmap.
+     */
+    public Bitmap loadBitmap(int bitmapNo) {
+        BitSet bitset = new BitSetRoaringImpl();
+
+        try {
+            for (Map.Entry<Integer, ChunkLocation> entry : getChunks(bitmapNo).entrySet()) {
+                int base = entry.getKey() * chunkBits;
+                ChunkLocation loc = entry.getValue();
+
+                DBPage page = getStorageManager().loadDBPage(dbFile, loc.pageNo);
+                for (int offset : readChunk(page, getChunkOffset(loc)))
+                    bitset.add(base + offset);
+                page.unpin();
+            }
+        } catch (IOException e) {
+            logger.error(e.getMessage());
+        }
+
+        Bitmap bitmap = new Bitmap();
+        bitmap.setBitSet(bitset);
+        bitmap.setBitmapFile(this, bitmapNo);
+        return bitmap;
+    }
+
+    /**
+     * Saves an entire bitmap to the file, replacing whatever the file held for the bitmap.
+     * Each chunk is put in a slot or on a page of its own, depending on how many bits it has.
+     * This is only needed when the bitmap was built without writing each bit to the file as it
+     * was set; the data is only actually written when the BufferManager flushes it, though.
+     */
+    public void writeBitmap(int bitmapNo, Bitmap bitmap) {
+        int[] bits = bitmap.toArray();
+        dropBitmap(bitmapNo);
+
         try {
-            // size of the file to be written
-            int size = bytes.length + 6;
-            int pagesize = dbFile.getPageSize();
-            int numPages = dbFile.getNumPages();
-            // Break up the data into pages, and save each page
-            for (int i = 0; i < size / pagesize + 1; i++) {
-                DBPage page = bitmapFileManager.getStorageManager().loadDBPage(dbFile, i, true);
-                if (i == 0) {
-                    page.writeInt(2, bytes.length);
-                    // Skip the first 6 bytes when writing to page 0
-                    byte[] buffer = Arrays.copyOfRange(bytes, 0, pagesize - 6);
-                    page.write(6, buffer);
-                } else if (i < size / pagesize) {
-                    // Write a full page
-                    byte[] buffer = Arrays.copyOfRange(bytes, i * pagesize - 6, (i + 1) * pagesize - 6);
-                    page.write(0, buffer);
-                } else if (i == size / pagesize && size % pagesize != 0) {
-                    // Write the extra bytes to the last page
-                    byte[] buffer = Arrays.copyOfRange(bytes, (size / pagesize) * pagesize - 6, bytes.length);
-                    page.write(0, buffer);
+            // Write each run of bits that falls in a single chunk.
+            int start = 0;
+            while (start < bits.length) {
+                int chunk = bits[start] / chunkBits;
+                int end = start;
+                while (end < bits.length && bits[end] / chunkBits == chunk)
+                    end++;
+
+                int[] offsets = new int[end - start];
+                for (int i = start; i < end; i++)
+                    offsets[i - start] = bits[i] - chunk * chunkBits;
+
+                ChunkLocation loc = (offsets.length <= maxSlotBits) ?
+                    allocateSlot(bitmapNo, chunk) : allocateFullPage(bitmapNo, chunk);
+
+                DBPage page = getStorageManager().loadDBPage(dbFile, loc.pageNo);
+                writeChunkData(page, getChunkOffset(loc), offsets,
+                    offsets.length > maxArrayBits ? FORM_BITS : FORM_ARRAY);
+                getStorageManager().logDBPageWrite(page);
+                page.unpin();
+
+                start = end;
+            }
+        } catch (IOException e) {
+            logger.error(e.getMessage());
+        }
+    }
+
+    /**
+     * Removes a bitmap from the file.  Its slots, pages and directory entries are freed.
+     */
+    public void dropBitmap(int bitmapNo) {
+        HashMap<Integer, ChunkLocation> bitmapChunks = chunks.remove(bitmapNo);
+        if (bitmapChunks == null)
+            return;
+
+        try {
+            for (ChunkLocation loc : bitmapChunks.values()) {
+                if (loc.slot == FULL_PAGE)
+                    freePage(loc.pageNo);
+                else
+                    freeSlot(loc.pageNo, loc.slot);
+
+                DBPage page = getStorageManager().loadDBPage(dbFile, loc.dirPageNo);
+                page.writeInt(loc.dirOffset, FREE_ENTRY);
+                getStorageManager().logDBPageWrite(page);
+                page.unpin();
+
+                freeEntries.add(loc);
+            }
+        } catch (IOException e) {
+            logger.error(e.getMessage());
+        }
+    }
+
+    /**
+     * Sets or clears a single bit of a bitmap in the file.  Only the page holding the bit's
+     * chunk is modified, unless the chunk doesn't have a place in the file yet or has outgrown
+     * its slot, in which case the chunk is given one and the chunk directory is updated.
+     *
+     * @param bitmapNo the number of the bitmap
+     * @param pos the position of the bit
+     * @param value true to set the bit, false to clear it
+     */
+    public void writeBit(int bitmapNo, int pos, boolean value) {
+        int chunk = pos / chunkBits;
+        int offset = pos % chunkBits;
+
+        try {
+            ChunkLocation loc = getChunks(bitmapNo).get(chunk);
+            if (loc == null) {
+                if (!value)
+                    return;
+                loc = allocateSlot(bitmapNo, chunk);
+            }
+
+            DBPage page = getStorageManager().loadDBPage(dbFile, loc.pageNo);
+            int base = getChunkOffset(loc);
+            if (page.readByte(base + OFFSET_CHUNK_FORM) == FORM_ARRAY) {
+                int maxBits = (loc.slot == FULL_PAGE) ? maxArrayBits : maxSlotBits;
+                int[] grown = writeArrayBit(page, base, offset, value, maxBits);
+
+                if (grown != null && loc.slot != FULL_PAGE) {
+                    // The chunk has outgrown its slot; give it a page of its own.
+                    page.unpin();
+                    moveToFullPage(bitmapNo, chunk, loc, grown);
+                    return;
+                } else if (grown != null) {
+                    writeChunkData(page, base, grown, FORM_BITS);
                 }
+            } else {
+                writeBitsBit(page, base, offset, value);
             }
+
+            getStorageManager().logDBPageWrite(page);
+            page.unpin();
         } catch (IOException e) {
             logger.error(e.getMessage());
         }
     }
+
+    private HashMap<Integer, ChunkLocation> getChunks(int bitmapNo) {
+        HashMap<Integer, ChunkLocation> bitmapChunks = chunks.get(bitmapNo);
+        if (bitmapChunks == null) {
+            bitmapChunks = new HashMap<Integer, ChunkLocation>();
+            chunks.put(bitmapNo, bitmapChunks);
+        }
+        return bitmapChunks;
+    }
+
+    /**
+     * Returns the offset of a chunk within its page.
+     */
+    private int getChunkOffset(ChunkLocation loc) {
+        return (loc.slot == FULL_PAGE) ? 0 : loc.slot * slotSize;
+    }
+
+    private void useSlot(int pageNo, int slot) {
+        Integer used = packedPages.get(pageNo);
+        int mask = (used == null ? 0 : used) | (1 << slot);
+        packedPages.put(pageNo, mask);
+
+        if (mask == (1 << SLOTS_PER_PAGE) - 1)
+            openPackedPages.remove(pageNo);
+        else
+            openPackedPages.add(pageNo);
+    }
+
+    /**
+     * Frees a slot of a packed page, and the page itself once none of its slots are in use.
+     */
+    private void freeSlot(int pageNo, int slot) {
+        int mask = packedPages.get(pageNo) & ~(1 << slot);
+        if (mask == 0) {
+            packedPages.remove(pageNo);
+            openPackedPages.remove(pageNo);
+            freePage(pageNo);
+        } else {
+            packedPages.put(pageNo, mask);
+            openPackedPages.add(pageNo);
+        }
+    }
+
+    /**
+     * Gives a new chunk an empty slot in a packed page, adding a packed page if none of them
+     * have a free slot.
+     */
+    private ChunkLocation allocateSlot(int bitmapNo, int chunk) throws IOException {
+        DBPage page;
+        if (openPackedPages.isEmpty())
+            page = allocatePage();
+        else
+            page = getStorageManager().loadDBPage(dbFile, openPackedPages.first());
+
+        Integer used = packedPages.get(page.getPageNo());
+        int slot = 0;
+        while (used != null && (used & (1 << slot)) != 0)
+            slot++;
+        useSlot(page.getPageNo(), slot);
+
+        ChunkLocation loc = addDirectoryEntry(bitmapNo, chunk, page.getPageNo(), slot);
+        writeChunkData(page, getChunkOffset(loc), new int[0], FORM_ARRAY);
+        getStorageManager().logDBPageWrite(page);
+        page.unpin();
+
+        return loc;
+    }
+
+    /**
+     * Gives a new chunk a page of its own.  The chunk's data is left for the caller to write.
+     */
+    private ChunkLocation allocateFullPage(int bitmapNo, int chunk) throws IOException {
+        DBPage page = allocatePage();
+        int pageNo = page.getPageNo();
+        page.unpin();
+
+        return addDirectoryEntry(bitmapNo, chunk, pageNo, FULL_PAGE);
+    }
+
+    /**
+     * Moves a chunk from its slot to a page of its own, with the specified set bits.
+     */
+    private void moveToFullPage(int bitmapNo, int chunk, ChunkLocation loc, int[] offsets)
+        throws IOException {
+        DBPage page = allocatePage();
+        writeChunkData(page, 0, offsets, FORM_ARRAY);
+        getStorageManager().logDBPageWrite(page);
+
+        freeSlot(loc.pageNo, loc.slot);
+        loc.pageNo = page.getPageNo();
+        loc.slot = FULL_PAGE;
+        page.unpin();
+
+        writeDirectoryEntry(bitmapNo, chunk, loc);
+    }
+
+    /**
+     * Records where a chunk is in the chunk directory, reusing a free entry if there is one.
+     * Otherwise the entry is added to the last page of the directory, chaining a new directory
+     * page onto the directory if the last page is full.
+     */
+    private ChunkLocation addDirectoryEntry(int bitmapNo, int chunk, int pageNo, int slot)
+        throws IOException {
+
+        ChunkLocation loc;
+        if (!freeEntries.isEmpty()) {
+            loc = freeEntries.remove(freeEntries.size() - 1);
+        } else {
+            DBPage page = getStorageManager().loadDBPage(dbFile, lastDirectoryPage);
+            int offset = getDirectoryOffset(lastDirectoryPage);
+            int numEntries = page.readInt(offset + OFFSET_DIR_NUM_ENTRIES);
+
+            if (offset + OFFSET_DIR_ENTRIES + (numEntries + 1) * DIR_ENTRY_SIZE >
+                dbFile.getPageSize()) {
+                // The last directory page is full; chain a new one onto it.
+                DBPage newPage = allocatePage();
+                newPage.writeInt(OFFSET_NEXT_PAGE, 0);
+                newPage.writeInt(OFFSET_DIR_NUM_ENTRIES, 0);
+
+                page.writeInt(offset + OFFSET_NEXT_PAGE, newPage.getPageNo());
+                getStorageManager().logDBPageWrite(page);
+                page.unpin();
+
+                page = newPage;
+                offset = 0;
+                numEntries = 0;
+                lastDirectoryPage = newPage.getPageNo();
+            }
+
+            page.writeInt(offset + OFFSET_DIR_NUM_ENTRIES, numEntries + 1);
+            getStorageManager().logDBPageWrite(page);
+            page.unpin();
+
+            loc = new ChunkLocation();
+            loc.dirPageNo = lastDirectoryPage;
+            loc.dirOffset = offset + OFFSET_DIR_ENTRIES + numEntries * DIR_ENTRY_SIZE;
+        }
+
+        loc.pageNo = pageNo;
+        loc.slot = slot;
+        writeDirectoryEntry(bitmapNo, chunk, loc);
+        getChunks(bitmapNo).put(chunk, loc);
+        return loc;
+    }
+
+    private void writeDirectoryEntry(int bitmapNo, int chunk, ChunkLocation loc)
+        throws IOException {
+        DBPage page = getStorageManager().loadDBPage(dbFile, loc.dirPageNo);
+        page.writeInt(loc.dirOffset, bitmapNo);
+        page.writeInt(loc.dirOffset + 4, chunk);
+        page.writeInt(loc.dirOffset + 8, loc.pageNo);
+        page.writeShort(loc.dirOffset + 12, loc.slot);
+        getStorageManager().logDBPageWrite(page);
+        page.unpin();
+    }
+
+    /**
+     * Returns the offsets of the set bits in a chunk, in increasing order.
+     */
+    private int[] readChunk(DBPage page, int base) {
+        int cardinality = page.readInt(base + OFFSET_CHUNK_CARDINALITY);
+        int[] offsets = new int[cardinality];
+        int data = base + OFFSET_CHUNK_DATA;
+
+        if (page.readByte(base + OFFSET_CHUNK_FORM) == FORM_ARRAY) {
+            for (int i = 0; i < cardinality; i++)
+                offsets[i] = page.readUnsignedShort(data + 2 * i);
+        } else {
+            int n = 0;
+            for (int i = 0; i < chunkBits / 8 && n < cardinality; i++) {
+                int b = page.readUnsignedByte(data + i);
+                for (int j = 0; b != 0; j++, b >>>= 1) {
+                    if ((b & 1) != 0)
+                        offsets[n++] = i * 8 + j;
+                }
+            }
+        }
+
+        return offsets;
+    }
+
+    /**
+     * Writes the form, cardinality and data of a chunk from the sorted offsets of its set bits.
+     */
+    private void writeChunkData(DBPage page, int base, int[] offsets, int form) {
+        int data = base + OFFSET_CHUNK_DATA;
+        page.writeByte(base + OFFSET_CHUNK_FORM, form);
+        page.writeInt(base + OFFSET_CHUNK_CARDINALITY, offsets.length);
+
+        if (form == FORM_ARRAY) {
+            for (int i = 0; i < offsets.length; i++)
+                page.writeShort(data + 2 * i, offsets[i]);
+        } else {
+            page.setDataRange(data, chunkBits / 8, (byte) 0);
+            for (int offset : offsets) {
+                int pos = data + offset / 8;
+                page.writeByte(pos, page.readUnsignedByte(pos) | (1 << (offset % 8)));
+            }
+        }
+    }
+
+    /**
+     * Sets or clears a bit in an array-form chunk.  If the array already holds {@code maxBits}
+     * bits and the bit is being set, the chunk isn't changed; instead, the offsets of its set
+     * bits including the new one are returned, so that the caller can store them in a larger
+     * form.  Otherwise this returns null.
+     */
+    private int[] writeArrayBit(DBPage page, int base, int offset, boolean value, int maxBits) {
+        int cardinality = page.readInt(base + OFFSET_CHUNK_CARDINALITY);
+        int data = base + OFFSET_CHUNK_DATA;
+
+        // Binary search for the offset in the sorted array.
+        int low = 0;
+        int high = cardinality - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int midOffset = page.readUnsignedShort(data + 2 * mid);
+            if (midOffset < offset)
+                low = mid + 1;
+            else if (midOffset > offset)
+                high = mid - 1;
+            else {
+                low = mid;
+                break;
+            }
+        }
+
+        boolean found = low < cardinality && page.readUnsignedShort(data + 2 * low) == offset;
+        if (found == value)
+            return null;
+
+        int pos = data + 2 * low;
+        int tailLength = 2 * (cardinality - low);
+        if (value) {
+            if (cardinality == maxBits) {
+                int[] offsets = readChunk(page, base);
+                int[] grown = new int[cardinality + 1];
+                System.arraycopy(offsets, 0, grown, 0, low);
+                grown[low] = offset;
+                System.arraycopy(offsets, low, grown, low + 1, cardinality - low);
+                return grown;
+            }
+
+            page.moveDataRange(pos, pos + 2, tailLength);
+            page.writeShort(pos, offset);
+            page.writeInt(base + OFFSET_CHUNK_CARDINALITY, cardinality + 1);
+        } else {
+            page.moveDataRange(pos + 2, pos, tailLength - 2);
+            page.writeInt(base + OFFSET_CHUNK_CARDINALITY, cardinality - 1);
+        }
+        return null;
+    }
+
+    /**
+     * Sets or clears a bit in a bits-form chunk, converting the chunk back to array form once
+     * it holds few enough bits.  (Conversion back happens at half the array limit, so that a
+     * chunk at the limit doesn't switch forms on every change.)
+     */
+    private void writeBitsBit(DBPage page, int base, int offset, boolean value) {
+        int pos = base + OFFSET_CHUNK_DATA + offset / 8;
+        int mask = 1 << (offset % 8);
+        int b = page.readUnsignedByte(pos);
+        if (((b & mask) != 0) == value)
+            return;
+
+        page.writeByte(pos, value ? (b | mask) : (b & ~mask));
+
+        int cardinality = page.readInt(base + OFFSET_CHUNK_CARDINALITY) + (value ? 1 : -1);
+        page.writeInt(base + OFFSET_CHUNK_CARDINALITY, cardinality);
+
+        if (cardinality <= maxArrayBits / 2)
+            writeChunkData(page, base, readChunk(page, base), FORM_ARRAY);
+    }
 }
@@ -3,50 +3,43 @@ package edu.caltech.nanodb.storage.bitmapfile;
 import java.io.IOException;
 import java.util.LinkedHashMap;
 
-import edu.caltech.nanodb.indexes.bitmapindex.BitmapIndex;
 import edu.caltech.nanodb.storage.*;
 import org.apache.log4j.Logger;
 
 
 /**
- * This class provides high-level operations on bitmaps such as creating a new bitmap
- * or loading a bitmap from a file. Bitmaps are cached for easy reuse.
+ * This class provides high-level operations on bitmap index files such as creating a new file
+ * or opening an existing one.  Each bitmap index is stored in one file, which holds all of the
+ * index's bitmaps and its values; open files are cached for easy reuse.
  */
 public class BitmapFileManager {
     /** A logging object for reporting anything interesting that happens. */
     private static Logger logger = Logger.getLogger(BitmapFileManager.class);
 
-    /** Maximum number of bitmaps that can be stored in the cache **/
-    private static final int MAX_CACHE = 10;
-
     /** A reference to the storage manager. */
     private StorageManager storageManager;
 
-    // TODO add cache eviction in case the cache gets too full.
-    // if cache gets bigger than 10, evict the oldest one. maybe change to be by size?
-    /** A cache of the currently open indexes for easy retrieval **/
-    private LinkedHashMap<String, Bitmap> openBitmaps;
+    /** A cache of the currently open bitmap files for easy retrieval **/
+    private LinkedHashMap<String, BitmapFile> openFiles;
 
     public BitmapFileManager(StorageManager storageManager) {
         if (storageManager == null)
             throw new IllegalArgumentException("storageManager cannot be null");
 
-        openBitmaps = new LinkedHashMap<String, Bitmap>();
+        openFiles = new LinkedHashMap<String, BitmapFile>();
         this.storageManager = storageManager;
     }
 
     /**
-     * Given a bitmap specification without a backing file or bitset, creates the bitmap file on disk
-     * and allocates an empty bitset.
+     * Creates a new bitmap file on disk with an empty chunk directory, ready for bitmaps to be
+     * added to it.
      */
-    public Bitmap createBitmapFile(String idxFileName, BitmapIndex parent) {
+    public BitmapFile createBitmapFile(String idxFileName) {
         logger.debug("Creating bitmap file for file " + idxFileName);
 
-        Bitmap bitmap = new Bitmap();
-
         FileManager fileManager = storageManager.getFileManager();
 
-        if (openBitmaps.containsKey(idxFileName) || fileManager.fileExists(idxFileName)) {
+        if (openFiles.containsKey(idxFileName) || fileManager.fileExists(idxFileName)) {
             throw new IllegalArgumentException("Index file already exists for this " + idxFileName);
         }
 
@@ -62,29 +55,24 @@ public class BitmapFileManager {
             logger.error(e.getMessage());
         }
 
-        BitmapFile bitmapFile = new BitmapFile(dbFile, bitmap, this);
-
-        // Create a new bitmap
-        bitmap.setBitmapFile(bitmapFile);
-        BitSet bitset = new BitSetRoaringImpl();
-        bitmap.setBitSet(bitset);
-
-        // Write the empty bitmap to file
-        bitmapFile.writeBitmapToFile();
+        // Write the empty header and chunk directory to file
+        BitmapFile bitmapFile = new BitmapFile(dbFile, this);
+        bitmapFile.initialize();
 
-        // Cache this index since it's now considered "open".
-        openBitmaps.put(idxFileName, bitmap);
+        // Cache this file since it's now considered "open".
+        openFiles.put(idxFileName, bitmapFile);
 
-        return bitmap;
+        return bitmapFile;
     }
 
     /**
-     * Given info on the bitmap file, load the bitmap from file, or from cache if it is in the cache.
+     * Opens an existing bitmap file, or returns it from the cache if it is already open.  Only
+     * the chunk directory is read; the bitmaps are read when they are loaded from the file.
      */
-    public Bitmap loadBitmapFile(String idxFileName, BitmapIndex parent) {
+    public BitmapFile openBitmapFile(String idxFileName) {
 
         // Get it from the cache if possible
-        if (openBitmaps.containsKey(idxFileName)) return openBitmaps.get(idxFileName);
+        if (openFiles.containsKey(idxFileName)) return openFiles.get(idxFileName);
 
         if (!storageManager.getFileManager().fileExists(idxFileName))
             throw new IllegalArgumentException("Doesn't exist! " + idxFileName);
@@ -101,22 +89,32 @@ public class BitmapFileManager {
         if (dbFile.getType() != DBFileType.BITMAP_INDEX_FILE)
             throw new IllegalArgumentException("Not a bitmap index file");
 
-        Bitmap bitmap = new Bitmap();
-        BitmapFile bitmapFile = new BitmapFile(dbFile, bitmap, this);
-        bitmap.setBitmapFile(bitmapFile);
+        BitmapFile bitmapFile = new BitmapFile(dbFile, this);
+        bitmapFile.open();
 
-        BitSet bitset = new BitSetRoaringImpl();
-        bitmap.setBitSet(bitset);
-        bitmapFile.readFileToBitmap();
+        // Cache this file since it's now considered "open".
+        openFiles.put(idxFileName, bitmapFile);
 
-        // Cache this index since it's now considered "open".
-        openBitmaps.put(idxFileName, bitmap);
+        return bitmapFile;
+    }
 
-        return bitmap;
+    /**
+     * Deletes a bitmap file, along with any of its pages that are in the buffer manager.
+     */
+    public void deleteBitmapFile(String idxFileName) throws IOException {
+        BitmapFile bitmapFile = openFiles.remove(idxFileName);
+
+        DBFile dbFile = (bitmapFile != null) ? bitmapFile.getDbFile() :
+            storageManager.getBufferManager().getFile(idxFileName);
+        if (dbFile != null) {
+            storageManager.getBufferManager().removeDBFile(dbFile);
+            storageManager.getFileManager().closeDBFile(dbFile);
+        }
+        storageManager.getFileManager().deleteDBFile(idxFileName);
     }
 
     public void clearCache() {
-        this.openBitmaps.clear();
+        this.openFiles.clear();
     }
 
     public StorageManager getStorageManager() {
@@ -1,116 +1,448 @@
 package edu.caltech.nanodb.storage.bitmapfile;
 
-import edu.caltech.nanodb.expressions.TupleLiteral;
-import edu.caltech.nanodb.relations.*;
-import edu.caltech.nanodb.storage.DBFile;
-import edu.caltech.nanodb.storage.DBFileType;
+import edu.caltech.nanodb.relations.SQLDataType;
+import edu.caltech.nanodb.storage.DBPage;
 import edu.caltech.nanodb.storage.StorageManager;
-import edu.caltech.nanodb.storage.TupleFile;
-import edu.caltech.nanodb.storage.heapfile.HeapTupleFileManager;
 import org.apache.log4j.Logger;
 
 import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
-import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
 import java.util.Set;
+import java.util.TreeMap;
 
 /**
- * A class representing a set of values to be used with Bitmap Indexes. The values are
- * backed to disk as a tuple file.
+ * A class representing the sorted set of values of a bitmap index, and the number of each
+ * value's bitmap.  Values are kept in their own type rather than as strings:  values of integer
+ * attributes are kept as longs, values of floating-point attributes as doubles, and all other
+ * values as strings, which the bitmap numbers then serve as integer codes for.  Lookups search
+ * the values in order, and ranges of values can be found without looking at the values outside
+ * of them.
+ * <p>
+ * The values are stored in the dictionary pages of the index's {@link BitmapFile}, in order:
+ * every value on a page is less than every value on the pages after it in the chain.  Each
+ * dictionary page starts with the number of the next dictionary page (0 if there is none), the
+ * number of entries on the page and the end of the last entry (unsigned shorts).  Each entry is
+ * the bitmap number (an int) followed by the value:  8 bytes for a long or a double, or the
+ * length of the string (an unsigned short) followed by the string in UTF-8.  A page that fills
+ * up is split in two, and a page whose last entry is removed is unlinked from the chain and
+ * reused.
  */
 public class ValueSet {
     private static Logger logger = Logger.getLogger(ValueSet.class);
-    private static final int MAX_VALUE_LENGTH = 65535;
 
-    private String filename;
-    private StorageManager storageManager;
-    private HeapTupleFileManager tupleFileManager;
+    /** The offset in a dictionary page of the number of entries. */
+    private static final int OFFSET_NUM_ENTRIES = 4;
 
-    private TupleFile file;
-    private Set<String> values;
+    /** The offset in a dictionary page of the end of the last entry. */
+    private static final int OFFSET_DATA_END = 6;
 
-    public ValueSet(String filename, StorageManager manager) {
-        this.filename = filename;
-        this.storageManager = manager;
-        this.tupleFileManager = (HeapTupleFileManager) manager.getTupleFileManager(DBFileType.HEAP_TUPLE_FILE);
-        values = new HashSet<String>();
+    /** The offset in a dictionary page of the first entry. */
+    private static final int OFFSET_ENTRIES = 8;
+
+    /** The size of an entry, apart from the value itself. */
+    private static final int ENTRY_HEADER_SIZE = 4;
+
+    /** Values are stored as longs. */
+    private static final int KEY_LONG = 1;
+
+    /** Values are stored as doubles. */
+    private static final int KEY_DOUBLE = 2;
+
+    /** Values are stored as strings. */
+    private static final int KEY_STRING = 3;
+
+    /** A value and the number of its bitmap, as stored in a dictionary page. */
+    private static class Entry {
+        Object key;
+        int bitmapNo;
+
+        Entry(Object key, int bitmapNo) {
+            this.key = key;
+            this.bitmapNo = bitmapNo;
+        }
     }
 
+    private BitmapFile bitmapFile;
+
+    /** How the values are stored; one of the KEY_ constants. */
+    private int keyType;
+
+    /** A sorted map from the values to the numbers of their bitmaps. */
+    private TreeMap<Object, Integer> values;
+
+    /** A sorted map from the first value on each dictionary page to the page number. */
+    private TreeMap<Object, Integer> pages;
+
     /**
-     * Creates a new ValueSet file and initializes it to be empty. Use addValue to initialize the values.
+     * Creates a value set for an attribute of the given type.  The set is empty until values
+     * are added or it is loaded.
      */
-    public void createFile() {
-        if (storageManager.getFileManager().fileExists(filename)) throw new IllegalArgumentException("Already Exists!");
+    public ValueSet(BitmapFile bitmapFile, SQLDataType type) {
+        this.bitmapFile = bitmapFile;
+        this.keyType = getKeyType(type);
+        values = new TreeMap<Object, Integer>();
+        pages = new TreeMap<Object, Integer>();
+    }
 
-        TableSchema schema = new TableSchema();
-        ColumnType columnType = new ColumnType(SQLDataType.VARCHAR);
-        columnType.setLength(MAX_VALUE_LENGTH);
-        ColumnInfo columnInfo = new ColumnInfo("value", filename, columnType);
-        schema.addColumnInfo(columnInfo);
+    private static int getKeyType(SQLDataType type) {
+        switch (type) {
+            case TINYINT:
+            case SMALLINT:
+            case INTEGER:
+            case BIGINT:
+                return KEY_LONG;
+            case FLOAT:
+            case DOUBLE:
+                return KEY_DOUBLE;
+            default:
+                return KEY_STRING;
+        }
+    }
 
-        try {
-            DBFile dbFile = storageManager.createDBFile(filename, DBFileType.HEAP_TUPLE_FILE);
-            file = tupleFileManager.createTupleFile(dbFile, schema);
-        } catch (IOException e) {
-            logger.error("Couldn't create file for ValueSet " + filename);
+    private StorageManager getStorageManager() {
+        return bitmapFile.getStorageManager();
+    }
+
+    /**
+     * Converts a value to the form this set keeps values in:  a Long, a Double or a String.
+     * Returns null if the value can't be equal to any value of the set's type, such as 2.5 in a
+     * set of integers.
+     */
+    public Object toKey(Object value) {
+        return toKey(keyType, value);
+    }
+
+    /**
+     * Converts a value to the form values of the given type are kept in by a value set.
+     * Returns null if the value can't be equal to any value of the type.
+     */
+    public static Object toKey(SQLDataType type, Object value) {
+        return toKey(getKeyType(type), value);
+    }
+
+    private static Object toKey(int keyType, Object value) {
+        if (value == null)
+            return null;
+
+        switch (keyType) {
+            case KEY_LONG:
+                if (value instanceof Long)
+                    return value;
+                if (value instanceof Integer || value instanceof Short || value instanceof Byte)
+                    return ((Number) value).longValue();
+                if (value instanceof Number) {
+                    double d = ((Number) value).doubleValue();
+                    return ((long) d == d) ? Long.valueOf((long) d) : null;
+                }
+                return null;
+            case KEY_DOUBLE:
+                if (value instanceof Number)
+                    return ((Number) value).doubleValue();
+                return null;
+            default:
+                return String.valueOf(value);
         }
     }
 
     /**
-     * Loads a ValueSet file and adds all the values to this set.
+     * Reads all the values from the dictionary pages of the bitmap file.
      */
-    public void loadFile() {
+    public void load() {
+        values.clear();
+        pages.clear();
+
         try {
-            DBFile dbFile = storageManager.openDBFile(filename);
-            this.file = tupleFileManager.openTupleFile(dbFile);
+            int pageNo = bitmapFile.getDictionaryPage();
+            while (pageNo != 0) {
+                DBPage page = getStorageManager().loadDBPage(bitmapFile.getDbFile(), pageNo);
+                List<Entry> entries = readEntries(page);
+                for (Entry entry : entries)
+                    values.put(entry.key, entry.bitmapNo);
 
-            Tuple tuple = file.getFirstTuple();
-            while (true) {
-                if (tuple == null) break;
-                String value = (String) tuple.getColumnValue(0);
-                values.add(value);
+                if (!entries.isEmpty())
+                    pages.put(entries.get(0).key, pageNo);
 
-                tuple = file.getNextTuple(tuple);
+                pageNo = page.readInt(BitmapFile.OFFSET_NEXT_PAGE);
+                page.unpin();
             }
         } catch (IOException e) {
-            logger.error("Couldn't load ValueSet " + filename);
+            logger.error("Couldn't load ValueSet from " + bitmapFile.getDbFile());
         }
     }
 
     /**
-     * Adds a value to this ValueSet and makes the changes to disk as well
+     * Adds a value to this ValueSet and makes the changes to disk as well.  The value is given
+     * a new bitmap number, which is returned.
      */
-    public void addValue(String value) {
-        this.values.add(value);
+    public int addValue(Object value) {
+        Object key = toKey(value);
+        if (key == null)
+            throw new IllegalArgumentException("Value can't be stored in this set: " + value);
+        if (values.containsKey(key))
+            throw new IllegalArgumentException("Value is already in the set: " + value);
+
+        if (OFFSET_ENTRIES + getEntrySize(key) > bitmapFile.getDbFile().getPageSize())
+            throw new IllegalArgumentException("Value is too long for a bitmap index: " + value);
+
+        int bitmapNo = bitmapFile.allocateBitmapNumber();
         try {
-            this.file.addTuple(new TupleLiteral(value));
+            Entry newEntry = new Entry(key, bitmapNo);
+
+            // The value goes on the last page starting at or before it, or on the first page
+            // if it comes before all the other values.
+            Map.Entry<Object, Integer> pageEntry = pages.floorEntry(key);
+            if (pageEntry == null)
+                pageEntry = pages.firstEntry();
+
+            if (pageEntry == null) {
+                DBPage page = bitmapFile.allocatePage();
+                page.writeInt(BitmapFile.OFFSET_NEXT_PAGE, 0);
+                bitmapFile.setDictionaryPage(page.getPageNo());
+                pages.put(key, page.getPageNo());
+                writePage(page, Collections.singletonList(newEntry));
+            } else {
+                DBPage page = getStorageManager().loadDBPage(bitmapFile.getDbFile(),
+                        pageEntry.getValue());
+                List<Entry> entries = readEntries(page);
+
+                int i = 0;
+                while (i < entries.size() && compareKeys(entries.get(i).key, key) < 0)
+                    i++;
+                entries.add(i, newEntry);
+
+                if (i == 0) {
+                    pages.remove(pageEntry.getKey());
+                    pages.put(key, page.getPageNo());
+                }
+                writePage(page, entries);
+            }
+
+            values.put(key, bitmapNo);
         } catch (IOException e) {
-            logger.error("Couldn't add value to ValueSet " + filename);
+            logger.error("Couldn't add value to ValueSet in " + bitmapFile.getDbFile());
         }
+
+        return bitmapNo;
     }
 
     /**
-     * Remove a value from the valueset.
+     * Remove a value from the valueset.  The entries after it on its page are moved down over
+     * it, and if the page becomes empty it is unlinked from the dictionary and freed.
      */
-    public void removeValue(String value) {
-        values.remove(value);
+    public void removeValue(Object value) {
+        Object key = toKey(value);
+        if (key == null || values.remove(key) == null)
+            return;
+
         try {
-            Tuple tuple = file.getFirstTuple();
-            while (true) {
-                if (((String) tuple.getColumnValue(0)).equals(value)) file.deleteTuple(tuple);
+            Map.Entry<Object, Integer> pageEntry = pages.floorEntry(key);
+            int pageNo = pageEntry.getValue();
+            DBPage page = getStorageManager().loadDBPage(bitmapFile.getDbFile(), pageNo);
 
-                tuple = file.getNextTuple(tuple);
-                if (tuple == null) break;
+            List<Entry> entries = readEntries(page);
+            for (int i = 0; i < entries.size(); i++) {
+                if (compareKeys(entries.get(i).key, key) == 0) {
+                    entries.remove(i);
+                    break;
+                }
+            }
+            pages.remove(pageEntry.getKey());
+
+            if (entries.isEmpty()) {
+                // Point the page before this one (or the file header) past this page
+                int nextPageNo = page.readInt(BitmapFile.OFFSET_NEXT_PAGE);
+                page.unpin();
+
+                Map.Entry<Object, Integer> prevEntry = pages.lowerEntry(key);
+                if (prevEntry == null) {
+                    bitmapFile.setDictionaryPage(nextPageNo);
+                } else {
+                    DBPage prevPage = getStorageManager().loadDBPage(bitmapFile.getDbFile(),
+                            prevEntry.getValue());
+                    prevPage.writeInt(BitmapFile.OFFSET_NEXT_PAGE, nextPageNo);
+                    getStorageManager().logDBPageWrite(prevPage);
+                    prevPage.unpin();
+                }
+                bitmapFile.freePage(pageNo);
+            } else {
+                pages.put(entries.get(0).key, pageNo);
+                writePage(page, entries);
             }
         } catch (IOException e) {
-            logger.error("Couldn't load ValueSet " + filename);
+            logger.error("Couldn't remove value from ValueSet in " + bitmapFile.getDbFile());
+        }
+    }
+
+    /**
+     * Writes the entries of a dictionary page, then logs and unpins the page.  If the entries
+     * don't all fit, the page is split:  about half of them are written to this page, and the
+     * rest to new pages linked in after it.
+     */
+    private void writePage(DBPage page, List<Entry> entries) throws IOException {
+        int pageSize = page.getPageSize();
+        int total = OFFSET_ENTRIES;
+        for (Entry entry : entries)
+            total += getEntrySize(entry.key);
+
+        int limit = pageSize;
+        if (total > pageSize)
+            limit = OFFSET_ENTRIES + (total - OFFSET_ENTRIES) / 2;
+
+        // Every entry fits on a page by itself, so each page gets at least one
+        int count = 0;
+        int offset = OFFSET_ENTRIES;
+        while (count < entries.size()) {
+            int size = getEntrySize(entries.get(count).key);
+            if (count > 0 && offset + size > limit)
+                break;
+
+            writeEntry(page, offset, entries.get(count));
+            offset += size;
+            count++;
+        }
+        page.writeShort(OFFSET_NUM_ENTRIES, count);
+        page.writeShort(OFFSET_DATA_END, offset);
+
+        if (count < entries.size()) {
+            DBPage newPage = bitmapFile.allocatePage();
+            newPage.writeInt(BitmapFile.OFFSET_NEXT_PAGE, page.readInt(BitmapFile.OFFSET_NEXT_PAGE));
+            page.writeInt(BitmapFile.OFFSET_NEXT_PAGE, newPage.getPageNo());
+            pages.put(entries.get(count).key, newPage.getPageNo());
+            writePage(newPage, entries.subList(count, entries.size()));
         }
+
+        getStorageManager().logDBPageWrite(page);
+        page.unpin();
+    }
+
+    /**
+     * Reads all the entries on a dictionary page, in order.
+     */
+    private List<Entry> readEntries(DBPage page) {
+        int numEntries = page.readUnsignedShort(OFFSET_NUM_ENTRIES);
+        ArrayList<Entry> entries = new ArrayList<Entry>(numEntries + 1);
+
+        int offset = OFFSET_ENTRIES;
+        for (int i = 0; i < numEntries; i++) {
+            int bitmapNo = page.readInt(offset);
+            offset += ENTRY_HEADER_SIZE;
+
+            Object key;
+            switch (keyType) {
+                case KEY_LONG:
+                    key = page.readLong(offset);
+                    offset += 8;
+                    break;
+                case KEY_DOUBLE:
+                    key = page.readDouble(offset);
+                    offset += 8;
+                    break;
+                default:
+                    byte[] bytes = new byte[page.readUnsignedShort(offset)];
+                    page.read(offset + 2, bytes);
+                    key = decode(bytes);
+                    offset += 2 + bytes.length;
+            }
+            entries.add(new Entry(key, bitmapNo));
+        }
+        return entries;
+    }
+
+    private void writeEntry(DBPage page, int offset, Entry entry) {
+        page.writeInt(offset, entry.bitmapNo);
+        offset += ENTRY_HEADER_SIZE;
+
+        switch (keyType) {
+            case KEY_LONG:
+                page.writeLong(offset, (Long) entry.key);
+                break;
+            case KEY_DOUBLE:
+                page.writeDouble(offset, (Double) entry.key);
+                break;
+            default:
+                byte[] bytes = encode((String) entry.key);
+                page.writeShort(offset, bytes.length);
+                page.write(offset + 2, bytes);
+        }
+    }
+
+    private int getEntrySize(Object key) {
+        if (keyType == KEY_STRING)
+            return ENTRY_HEADER_SIZE + 2 + encode((String) key).length;
+
+        return ENTRY_HEADER_SIZE + 8;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static int compareKeys(Object a, Object b) {
+        return ((Comparable<Object>) a).compareTo(b);
+    }
+
+    private static byte[] encode(String value) {
+        try {
+            return value.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static String decode(byte[] bytes) {
+        try {
+            return new String(bytes, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Returns the number of the bitmap for a value, or null if the value isn't in the set.
+     */
+    public Integer getBitmapNumber(Object value) {
+        Object key = toKey(value);
+        if (key == null)
+            return null;
+
+        return values.get(key);
+    }
+
+    /**
+     * Returns the numbers of the bitmaps for the values in a range, in the order of the values.
+     * The bounds must be values that {@link #toKey} can convert.
+     *
+     * @param lower the lower bound of the range, or null if there is no lower bound
+     * @param lowerInclusive true if a value equal to the lower bound is in the range
+     * @param upper the upper bound of the range, or null if there is no upper bound
+     * @param upperInclusive true if a value equal to the upper bound is in the range
+     */
+    public Collection<Integer> getBitmapNumbers(Object lower, boolean lowerInclusive,
+                                                Object upper, boolean upperInclusive) {
+        NavigableMap<Object, Integer> range = values;
+        if (lower != null)
+            range = range.tailMap(toBound(lower), lowerInclusive);
+        if (upper != null)
+            range = range.headMap(toBound(upper), upperInclusive);
+
+        return Collections.unmodifiableCollection(range.values());
+    }
+
+    private Object toBound(Object bound) {
+        Object key = toKey(bound);
+        if (key == null)
+            throw new IllegalArgumentException("Can't compare values of this set to " + bound);
+
+        return key;
     }
 
     /**
-     * Return all values in this set
+     * Return all values in this set, in order, in the form {@link #toKey} converts them to.
      */
-    public Set<String> getValues() {
-        return Collections.unmodifiableSet(values);
+    public Set<Object> getValues() {
+        return Collections.unmodifiableSet(values.keySet());
     }
 }
@@ -0,0 +1,726 @@
+package edu.caltech.nanodb.storage.btreefile;
+
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+import org.apache.log4j.Logger;
+
+import edu.caltech.nanodb.expressions.TupleComparator;
+import edu.caltech.nanodb.expressions.TupleLiteral;
+import edu.caltech.nanodb.relations.Schema;
+import edu.caltech.nanodb.relations.Tuple;
+import edu.caltech.nanodb.storage.DBFile;
+import edu.caltech.nanodb.storage.DBFileType;
+import edu.caltech.nanodb.storage.DBPage;
+import edu.caltech.nanodb.storage.PageTuple;
+import edu.caltech.nanodb.storage.StorageManager;
+import edu.caltech.nanodb.storage.TupleFileManager;
+
+import static edu.caltech.nanodb.storage.btreefile.BTreePageTypes.*;
+
+
+/**
+ * <p>
+ * This class builds a B<sup>+</sup> tree tuple file bottom-up from a
+ * collection of tuples, rather than inserting the tuples one at a time
+ * through {@link BTreeTupleFile#addTuple}.  Tuples may be added in any
+ * order; they are buffered in memory and sorted, and if the buffer grows
+ * larger than the sort-buffer size then each sorted run is spilled into a
+ * temporary B<sup>+</sup> tree file.  When {@link #finish} is called, the
+ * runs are merged and the tree is built in a single pass:
+ * </p>
+ * <ol>
+ * <li>Leaf pages are filled from left to right until they reach the fill
+ *     factor, and are chained together as they are written.</li>
+ * <li>Each level of inner pages is then built from the low key and page
+ *     number of every page in the level below it, until a level contains
+ *     only one page, which becomes the root.  A leaf's low key is the
+ *     truncated separator between it and the previous leaf.</li>
+ * </ol>
+ * <p>
+ * Since the pages of an empty file are allocated sequentially, the
+ * resulting file is written almost entirely with sequential IO, and no
+ * leaf or inner page ever has to be split.
+ * </p>
+ */
+public class BTreeBulkLoader {
+    /** A logging object for reporting anything interesting that happens. */
+    private static Logger logger = Logger.getLogger(BTreeBulkLoader.class);
+
+
+    /**
+     * The system property that can be used to specify the fraction of each
+     * page that is filled when a B<sup>+</sup> tree file is bulk-loaded.
+     */
+    public static final String PROP_FILL_FACTOR = "nanodb.btree.fillfactor";
+
+
+    /**
+     * The default fill factor leaves some room in every page, so that a few
+     * subsequent inserts don't immediately cause page splits.
+     */
+    public static final float DEFAULT_FILL_FACTOR = 0.9f;
+
+
+    /**
+     * The system property that can be used to specify how many bytes of
+     * tuple data are sorted in memory before a sorted run is spilled to disk.
+     */
+    public static final String PROP_SORT_BUFFER_SIZE = "nanodb.btree.sortbuffer";
+
+
+    /** The default sort-buffer size is 16MB. */
+    public static final long DEFAULT_SORT_BUFFER_SIZE = 16 * 1024 * 1024;
+
+
+    /**
+     * A rough estimate of the in-memory overhead of each buffered tuple,
+     * over and above its storage size, used for sort-buffer accounting.
+     */
+    private static final int TUPLE_MEMORY_OVERHEAD = 64;
+
+
+    /**
+     * Returns the current fill factor to use when bulk-loading B<sup>+</sup>
+     * tree files.  If the <tt>nanodb.btree.fillfactor</tt> system property
+     * is a number in the range (0, 1] then it is used.  Otherwise, the
+     * {@link #DEFAULT_FILL_FACTOR} value is used.
+     *
+     * @return the current fill factor to use for bulk-loading
+     */
+    public static float getCurrentFillFactor() {
+        float fillFactor = DEFAULT_FILL_FACTOR;
+
+        String str = System.getProperty(PROP_FILL_FACTOR);
+        if (str != null) {
+            try {
+                fillFactor = Float.parseFloat(str.trim());
+            }
+            catch (NumberFormatException e) {
+                logger.warn("Current value of " + PROP_FILL_FACTOR +
+                    " property is not a number:  \"" + str + "\"");
+            }
+
+            if (fillFactor <= 0.0f || fillFactor > 1.0f) {
+                logger.warn("Current value of " + PROP_FILL_FACTOR +
+                    " property is not in the range (0, 1]:  " + fillFactor);
+
+                fillFactor = DEFAULT_FILL_FACTOR;
+            }
+        }
+
+        return fillFactor;
+    }
+
+
+    /**
+     * Returns the current sort-buffer size to use when bulk-loading
+     * B<sup>+</sup> tree files.  If the <tt>nanodb.btree.sortbuffer</tt>
+     * system property is a positive integer then it is used.  Otherwise, the
+     * {@link #DEFAULT_SORT_BUFFER_SIZE} value is used.
+     *
+     * @return the current sort-buffer size, in bytes
+     */
+    public static long getCurrentSortBufferSize() {
+        long size = DEFAULT_SORT_BUFFER_SIZE;
+
+        String str = System.getProperty(PROP_SORT_BUFFER_SIZE);
+        if (str != null) {
+            try {
+                size = Long.parseLong(str.trim());
+            }
+            catch (NumberFormatException e) {
+                logger.warn("Current value of " + PROP_SORT_BUFFER_SIZE +
+                    " property is not an integer:  \"" + str + "\"");
+            }
+
+            if (size <= 0) {
+                logger.warn("Current value of " + PROP_SORT_BUFFER_SIZE +
+                    " property is not positive:  " + size);
+
+                size = DEFAULT_SORT_BUFFER_SIZE;
+            }
+        }
+
+        return size;
+    }
+
+
+    /**
+     * This helper class records a page that has been written at one level of
+     * the tree, along with the low key that separates it from the previous
+     * page.  The keys are what the next level up uses to separate its
+     * page-pointers.
+     */
+    private static class PageEntry {
+        public int pageNo;
+
+        public TupleLiteral lowKey;
+
+        public PageEntry(int pageNo, TupleLiteral lowKey) {
+            this.pageNo = pageNo;
+            this.lowKey = lowKey;
+        }
+    }
+
+
+    /**
+     * This helper class is used when merging sorted runs; it holds the
+     * current tuple from one run.
+     */
+    private static class RunCursor {
+        public BTreeTupleFile runFile;
+
+        public Tuple current;
+
+        public RunCursor(BTreeTupleFile runFile) throws IOException {
+            this.runFile = runFile;
+            current = runFile.getFirstTuple();
+        }
+
+        public void advance() throws IOException {
+            current = runFile.getNextTuple(current);
+        }
+    }
+
+
+    /** Orders tuples using all of their columns, as the leaves require. */
+    private static final Comparator<Tuple> TUPLE_ORDER = new Comparator<Tuple>() {
+        @Override
+        public int compare(Tuple t1, Tuple t2) {
+            return TupleComparator.compareTuples(t1, t2);
+        }
+    };
+
+
+    /** The storage manager to use for loading and creating pages. */
+    private StorageManager storageManager;
+
+
+    /** The B<sup>+</sup> tree tuple file being loaded. */
+    private BTreeTupleFile tupleFile;
+
+
+    /** File-level operations, used to allocate new pages in the file. */
+    private FileOperations fileOps;
+
+
+    /** The fraction of each page to fill with entries. */
+    private float fillFactor;
+
+
+    /** The number of tuple-data bytes to sort in memory before spilling. */
+    private long sortBufferSize;
+
+
+    /**
+     * If positive, the number of leading columns of each tuple that must be
+     * unique across the entire file.
+     */
+    private int uniqueKeySize;
+
+
+    /** Tuples that have been added but not yet sorted or spilled. */
+    private ArrayList<TupleLiteral> buffer;
+
+
+    /** An estimate of the memory used by the tuples in {@link #buffer}. */
+    private long bufferBytes;
+
+
+    /** The sorted runs that have been spilled to disk. */
+    private ArrayList<BTreeTupleFile> runs;
+
+
+    /**
+     * Initialize a bulk-loader for the specified B<sup>+</sup> tree tuple
+     * file.  The file must currently be empty.
+     *
+     * @param storageManager the storage manager to use for page access
+     * @param tupleFile the empty tuple file to load
+     */
+    public BTreeBulkLoader(StorageManager storageManager,
+                           BTreeTupleFile tupleFile) {
+        if (storageManager == null)
+            throw new IllegalArgumentException("storageManager cannot be null");
+
+        if (tupleFile == null)
+            throw new IllegalArgumentException("tupleFile cannot be null");
+
+        this.storageManager = storageManager;
+        this.tupleFile = tupleFile;
+
+        fileOps = new FileOperations(storageManager, tupleFile.getDBFile());
+
+        fillFactor = getCurrentFillFactor();
+        sortBufferSize = getCurrentSortBufferSize();
+        uniqueKeySize = 0;
+
+        buffer = new ArrayList<TupleLiteral>();
+        bufferBytes = 0;
+        runs = new ArrayList<BTreeTupleFile>();
+    }
+
+
+    public void setFillFactor(float fillFactor) {
+        if (fillFactor <= 0.0f || fillFactor > 1.0f) {
+            throw new IllegalArgumentException(
+                "fillFactor must be in the range (0, 1]; got " + fillFactor);
+        }
+
+        this.fillFactor = fillFactor;
+    }
+
+
+    public void setSortBufferSize(long sortBufferSize) {
+        if (sortBufferSize <= 0) {
+            throw new IllegalArgumentException(
+                "sortBufferSize must be positive; got " + sortBufferSize);
+        }
+
+        this.sortBufferSize = sortBufferSize;
+    }
+
+
+    /**
+     * Specifies that the first {@code uniqueKeySize} columns of the loaded
+     * tuples must be unique.  If two tuples have the same values in these
+     * columns, {@link #finish} will throw an {@code IllegalStateException}.
+     *
+     * @param uniqueKeySize the number of leading columns that must be
+     *        unique, or 0 if no uniqueness check is required
+     */
+    public void setUniqueKeySize(int uniqueKeySize) {
+        if (uniqueKeySize < 0) {
+            throw new IllegalArgumentException(
+                "uniqueKeySize must be nonnegative; got " + uniqueKeySize);
+        }
+
+        this.uniqueKeySize = uniqueKeySize;
+    }
+
+
+    /**
+     * Adds a tuple to be loaded into the file.  Tuples may be added in any
+     * order.
+     *
+     * @param tup the tuple to add
+     *
+     * @throws IOException if the sort buffer is full and an IO error occurs
+     *         while spilling it to disk
+     */
+    public void addTuple(Tuple tup) throws IOException {
+        TupleLiteral tupLit = new TupleLiteral(tup);
+        tupLit.setStorageSize(
+            PageTuple.getTupleStorageSize(tupleFile.getSchema(), tupLit));
+
+        buffer.add(tupLit);
+        bufferBytes += tupLit.getStorageSize() + TUPLE_MEMORY_OVERHEAD;
+
+        if (bufferBytes >= sortBufferSize)
+            spillBuffer();
+    }
+
+
+    /**
+     * Sorts all tuples added to the loader, and builds the B<sup>+</sup>
+     * tree file from them.  Any temporary files used for spilled runs are
+     * deleted before this method returns.
+     *
+     * @throws IOException if an IO error occurs while building the file
+     */
+    public void finish() throws IOException {
+        try {
+            Iterator<? extends Tuple> sorted;
+            if (runs.isEmpty()) {
+                Collections.sort(buffer, TUPLE_ORDER);
+                sorted = buffer.iterator();
+            }
+            else {
+                if (!buffer.isEmpty())
+                    spillBuffer();
+
+                logger.debug(String.format("Merging %d sorted runs into %s",
+                    runs.size(), tupleFile.getDBFile()));
+
+                sorted = new MergeIterator(runs);
+            }
+
+            buildTree(sorted);
+        }
+        finally {
+            buffer.clear();
+            bufferBytes = 0;
+            deleteRuns();
+        }
+    }
+
+
+    /**
+     * Sorts the current contents of the sort buffer and writes them to a new
+     * temporary B<sup>+</sup> tree file, which is packed completely full.
+     *
+     * @throws IOException if an IO error occurs while writing the run
+     */
+    private void spillBuffer() throws IOException {
+        Collections.sort(buffer, TUPLE_ORDER);
+
+        DBFile dbFile = tupleFile.getDBFile();
+        String runFileName = String.format("%s.run%03d",
+            dbFile.getDataFile().getName(), runs.size());
+
+        logger.debug(String.format("Spilling %d tuples to sorted run %s",
+            buffer.size(), runFileName));
+
+        TupleFileManager btreeFileManager =
+            storageManager.getTupleFileManager(DBFileType.BTREE_TUPLE_FILE);
+
+        DBFile runDBFile = storageManager.createDBFile(runFileName,
+            DBFileType.BTREE_TUPLE_FILE);
+        BTreeTupleFile runFile = (BTreeTupleFile)
+            btreeFileManager.createTupleFile(runDBFile, tupleFile.getSchema());
+        runs.add(runFile);
+
+        BTreeBulkLoader runLoader = new BTreeBulkLoader(storageManager, runFile);
+        runLoader.setFillFactor(1.0f);
+        runLoader.buildTree(buffer.iterator());
+
+        buffer.clear();
+        bufferBytes = 0;
+    }
+
+
+    private void deleteRuns() throws IOException {
+        for (BTreeTupleFile runFile : runs) {
+            DBFile runDBFile = runFile.getDBFile();
+            storageManager.getBufferManager().removeDBFile(runDBFile);
+            storageManager.getFileManager().closeDBFile(runDBFile);
+            storageManager.getFileManager().deleteDBFile(runDBFile);
+        }
+        runs.clear();
+    }
+
+
+    /**
+     * This iterator performs a k-way merge of the sorted runs, producing all
+     * tuples from all runs in sorted order.
+     */
+    private static class MergeIterator implements Iterator<Tuple> {
+        private PriorityQueue<RunCursor> queue;
+
+        public MergeIterator(List<BTreeTupleFile> runs) throws IOException {
+            queue = new PriorityQueue<RunCursor>(runs.size(),
+                new Comparator<RunCursor>() {
+                    @Override
+                    public int compare(RunCursor c1, RunCursor c2) {
+                        return TupleComparator.compareTuples(c1.current,
+                                                             c2.current);
+                    }
+                });
+
+            for (BTreeTupleFile run : runs) {
+                RunCursor cursor = new RunCursor(run);
+                if (cursor.current != null)
+                    queue.add(cursor);
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !queue.isEmpty();
+        }
+
+        @Override
+        public Tuple next() {
+            RunCursor cursor = queue.poll();
+            if (cursor == null)
+                throw new NoSuchElementException();
+
+            // The tuple is copied out of the run's page, since the cursor is
+            // about to move past it.
+            TupleLiteral result = new TupleLiteral(cursor.current);
+            try {
+                cursor.advance();
+            }
+            catch (IOException e) {
+                throw new RuntimeException("Couldn't read sorted run", e);
+            }
+
+            if (cursor.current != null)
+                queue.add(cursor);
+
+            return result;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+
+    /**
+     * Builds the B<sup>+</sup> tree structure from a sequence of tuples that
+     * is already in sorted order.
+     *
+     * @param sortedTuples the tuples to store in the file, in increasing
+     *        order
+     *
+     * @throws IOException if an IO error occurs while building the file
+     *
+     * @throws IllegalStateException if the file isn't empty, if the tuples
+     *         aren't sorted, or if a uniqueness constraint is violated
+     */
+    void buildTree(Iterator<? extends Tuple> sortedTuples) throws IOException {
+        // Nothing else may use the file while its structure is being built.
+        PageLatches latches = tupleFile.getLatches();
+        latches.lockTreeExclusive();
+        try {
+            DBFile dbFile = tupleFile.getDBFile();
+            DBPage dbpHeader = storageManager.loadDBPage(dbFile, 0);
+            if (HeaderPage.getRootPageNo(dbpHeader) != 0) {
+                throw new IllegalStateException("B+ tree file " + dbFile +
+                    " must be empty to be bulk-loaded");
+            }
+
+            List<PageEntry> level = buildLeafLevel(sortedTuples);
+            if (level.isEmpty()) {
+                logger.debug("No tuples to bulk-load into " + dbFile);
+                return;
+            }
+
+            HeaderPage.setFirstLeafPageNo(dbpHeader, level.get(0).pageNo);
+
+            int height = 1;
+            while (level.size() > 1) {
+                level = buildInnerLevel(level);
+                height++;
+            }
+
+            HeaderPage.setRootPageNo(dbpHeader, level.get(0).pageNo);
+
+            logger.debug(String.format("Bulk-loaded B+ tree file %s:  height " +
+                "%d, root page %d", dbFile, height, level.get(0).pageNo));
+        }
+        finally {
+            latches.unlockTreeExclusive();
+        }
+    }
+
+
+    /**
+     * Writes the sorted tuples into a chain of leaf pages, filling each leaf
+     * up to the fill factor.
+     *
+     * @param sortedTuples the tuples to store, in increasing order
+     *
+     * @return the page number and low key of each leaf that was written,
+     *         in order
+     */
+    private List<PageEntry> buildLeafLevel(Iterator<? extends Tuple> sortedTuples)
+        throws IOException {
+
+        Schema schema = tupleFile.getSchema();
+        ArrayList<PageEntry> leaves = new ArrayList<PageEntry>();
+
+        DBPage leafPage = null;
+        int numTuples = 0;
+        int endOffset = 0;
+        int fillLimit = 0;
+
+        Tuple prevTuple = null;
+        while (sortedTuples.hasNext()) {
+            Tuple tup = sortedTuples.next();
+
+            if (prevTuple != null)
+                checkOrder(prevTuple, tup);
+
+            int tupSize = PageTuple.getTupleStorageSize(schema, tup);
+
+            if (leafPage == null || (numTuples > 0 &&
+                endOffset + tupSize > fillLimit)) {
+                // Finish the current leaf (if any), and start a new one.
+                DBPage newLeafPage = fileOps.getNewDataPage();
+                LeafPage.init(newLeafPage, schema);
+
+                if (leafPage != null) {
+                    leafPage.writeShort(LeafPage.OFFSET_NUM_TUPLES, numTuples);
+                    leafPage.writeShort(LeafPage.OFFSET_NEXT_PAGE_NO,
+                        newLeafPage.getPageNo());
+
+                    // We are done with the previous leaf, so it can be
+                    // evicted whenever the Buffer Manager needs the space.
+                    leafPage.unpin();
+                }
+
+                leafPage = newLeafPage;
+                numTuples = 0;
+                endOffset = LeafPage.OFFSET_FIRST_TUPLE;
+                fillLimit = (int) (leafPage.getPageSize() * fillFactor);
+
+                // The key separating this leaf from the previous one only
+                // needs to distinguish the tuples on either side of it.
+                TupleLiteral key = (prevTuple == null ? new TupleLiteral(tup) :
+                    InnerPage.makeSeparatorKey(schema, prevTuple, tup));
+                leaves.add(new PageEntry(leafPage.getPageNo(), key));
+            }
+
+            if (endOffset + tupSize > leafPage.getPageSize()) {
+                throw new IOException("Tuple size " + tupSize +
+                    " is larger than the space available in a leaf page.");
+            }
+
+            endOffset = PageTuple.storeTuple(leafPage, endOffset, schema, tup);
+            numTuples++;
+
+            prevTuple = tup;
+        }
+
+        if (leafPage != null) {
+            leafPage.writeShort(LeafPage.OFFSET_NUM_TUPLES, numTuples);
+            leafPage.unpin();
+        }
+
+        logger.debug("Bulk-load wrote " + leaves.size() + " leaf pages");
+
+        return leaves;
+    }
+
+
+    /**
+     * Builds one level of inner pages on top of the specified level of
+     * pages.
+     *
+     * @param children the pages in the level below, in order
+     *
+     * @return the page number and low key of each inner page that was
+     *         written, in order
+     */
+    private List<PageEntry> buildInnerLevel(List<PageEntry> children)
+        throws IOException {
+
+        Schema schema = tupleFile.getSchema();
+        int pageSize = tupleFile.getDBFile().getPageSize();
+        int fillLimit = (int) (pageSize * fillFactor);
+
+        // First, divide the children into groups that will each go into one
+        // inner page.  Each group is represented by the index of its first
+        // child; every group must have at least two pointers.
+        ArrayList<Integer> groupStarts = new ArrayList<Integer>();
+        groupStarts.add(0);
+
+        int used = InnerPage.OFFSET_FIRST_POINTER + 2;
+        int groupSize = 1;
+        for (int i = 1; i < children.size(); i++) {
+            int entrySize =
+                PageTuple.getTupleStorageSize(schema, children.get(i).lowKey) + 2;
+
+            if (groupSize >= 2 && used + entrySize > fillLimit) {
+                groupStarts.add(i);
+                used = InnerPage.OFFSET_FIRST_POINTER + 2;
+                groupSize = 1;
+            }
+            else {
+                if (used + entrySize > pageSize) {
+                    throw new IOException("Key size " + entrySize +
+                        " is larger than the space available in an inner page.");
+                }
+
+                used += entrySize;
+                groupSize++;
+            }
+        }
+
+        // The last group may have ended up with only one pointer.  Borrow a
+        // pointer from the previous group, or merge the two groups if the
+        // previous group can't spare one.
+        int numGroups = groupStarts.size();
+        if (numGroups > 1 && children.size() - groupStarts.get(numGroups - 1) < 2) {
+            int prevStart = groupStarts.get(numGroups - 2);
+            int lastStart = groupStarts.get(numGroups - 1);
+            if (lastStart - prevStart > 2)
+                groupStarts.set(numGroups - 1, lastStart - 1);
+            else
+                groupStarts.remove(numGroups - 1);
+        }
+
+        ArrayList<PageEntry> parents = new ArrayList<PageEntry>();
+        for (int g = 0; g < groupStarts.size(); g++) {
+            int start = groupStarts.get(g);
+            int end = (g + 1 < groupStarts.size()) ?
+                groupStarts.get(g + 1) : children.size();
+
+            DBPage dbPage = fileOps.getNewDataPage();
+            dbPage.writeByte(DataPage.OFFSET_PAGE_TYPE, BTREE_INNER_PAGE);
+
+            // Write the contents of the inner page:  [ptr0, key1, ptr1, ...]
+            // The first child's key is not stored in this page; instead it
+            // goes up into the parent page.
+            int offset = InnerPage.OFFSET_FIRST_POINTER;
+            dbPage.writeShort(offset, children.get(start).pageNo);
+            offset += 2;
+
+            for (int i = start + 1; i < end; i++) {
+                PageEntry child = children.get(i);
+                if (offset + PageTuple.getTupleStorageSize(schema,
+                    child.lowKey) + 2 > pageSize) {
+                    throw new IllegalStateException("Couldn't fit " +
+                        (end - start) + " pointers into inner page " +
+                        dbPage.getPageNo());
+                }
+
+                offset = PageTuple.storeTuple(dbPage, offset, schema,
+                                              child.lowKey);
+                dbPage.writeShort(offset, child.pageNo);
+                offset += 2;
+            }
+
+            dbPage.writeShort(InnerPage.OFFSET_NUM_POINTERS, end - start);
+            dbPage.unpin();
+
+            parents.add(new PageEntry(dbPage.getPageNo(),
+                                      children.get(start).lowKey));
+        }
+
+        logger.debug("Bulk-load wrote " + parents.size() + " inner pages");
+
+        return parents;
+    }
+
+
+    /**
+     * Verifies that two consecutive tuples are in strictly increasing order,
+     * and that they don't violate the uniqueness constraint (if any).
+     */
+    private void checkOrder(Tuple prevTuple, Tuple tup) {
+        int cmp = TupleComparator.compareTuples(prevTuple, tup);
+        if (cmp >= 0) {
+            throw new IllegalStateException("Tuple " + tup + " is not " +
+                "greater than the preceding tuple " + prevTuple);
+        }
+
+        if (uniqueKeySize > 0) {
+            boolean same = true;
+            for (int i = 0; i < uniqueKeySize; i++) {
+                TupleLiteral v1 = new TupleLiteral(prevTuple.getColumnValue(i));
+                TupleLiteral v2 = new TupleLiteral(tup.getColumnValue(i));
+                if (TupleComparator.compareTuples(v1, v2) != 0) {
+                    same = false;
+                    break;
+                }
+            }
+
+            if (same) {
+                throw new IllegalStateException("Unique index " +
+                    "already contains a tuple with this value.");
+            }
+        }
+    }
+}
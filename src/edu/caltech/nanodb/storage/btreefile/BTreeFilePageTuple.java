@@ -1,6 +1,7 @@
 package edu.caltech.nanodb.storage.btreefile;
 
 
+import edu.caltech.nanodb.expressions.TupleLiteral;
 import edu.caltech.nanodb.relations.Schema;
 import edu.caltech.nanodb.storage.DBPage;
 import edu.caltech.nanodb.storage.PageTuple;
@@ -12,12 +13,42 @@ import edu.caltech.nanodb.storage.PageTuple;
  * extension, which is to allow the tuple to remember its index within the
  * leaf page it is from; this makes it easy to move to the next tuple within
  * the page very easily.
+ * <p>
+ * Tuples that a {@link BTreeTupleFile} returns are <em>detached</em>:  their
+ * values are copied while their leaf is latched, since other sessions may
+ * move the tuple's data within the page as soon as the leaf is unlatched.
+ * The tuple also remembers the versions of the tree and the leaf at that
+ * time, so that the file can tell whether its index is still valid.
  */
 public class BTreeFilePageTuple extends PageTuple {
 
     private int tupleIndex;
 
 
+    /**
+     * If this tuple has been deleted from the file, this is a copy of its
+     * values, so that a scan can find the tuple that followed it even if the
+     * delete moved the tuples around.  Otherwise this is {@code null}.
+     */
+    private TupleLiteral deletedValues;
+
+
+    /**
+     * If this tuple has been detached, this is a copy of its values, which
+     * are read from here instead of from the page.  Otherwise this is
+     * {@code null}.
+     */
+    private TupleLiteral values;
+
+
+    /** The structure version of the tree when this tuple was detached. */
+    private long structureVersion;
+
+
+    /** The version of this tuple's leaf when this tuple was detached. */
+    private long leafVersion;
+
+
     public BTreeFilePageTuple(Schema schema, DBPage dbPage, int pageOffset,
                               int tupleIndex) {
         super(dbPage, pageOffset, schema);
@@ -36,6 +67,66 @@ public class BTreeFilePageTuple extends PageTuple {
     }
 
 
+    public TupleLiteral getDeletedValues() {
+        return deletedValues;
+    }
+
+
+    public void setDeletedValues(TupleLiteral deletedValues) {
+        this.deletedValues = deletedValues;
+    }
+
+
+    /**
+     * Copies this tuple's values, so that they can still be read after its
+     * leaf is unlatched.  The caller must hold a latch on the leaf.
+     *
+     * @param structureVersion the current structure version of the tree
+     *
+     * @param leafVersion the current version of the tuple's leaf
+     */
+    void detach(long structureVersion, long leafVersion) {
+        values = new TupleLiteral(this);
+        this.structureVersion = structureVersion;
+        this.leafVersion = leafVersion;
+    }
+
+
+    /**
+     * Returns true if this tuple was detached when the tree and its leaf had
+     * the specified versions, so that its index in the leaf is still valid.
+     *
+     * @param structureVersion the current structure version of the tree
+     *
+     * @param leafVersion the current version of the tuple's leaf
+     *
+     * @return true if neither the tree nor the leaf has changed since this
+     *         tuple was detached
+     */
+    boolean isCurrent(long structureVersion, long leafVersion) {
+        return values != null && this.structureVersion == structureVersion &&
+            this.leafVersion == leafVersion;
+    }
+
+
+    @Override
+    public boolean isNullValue(int colIndex) {
+        if (values != null)
+            return values.isNullValue(colIndex);
+
+        return super.isNullValue(colIndex);
+    }
+
+
+    @Override
+    public Object getColumnValue(int colIndex) {
+        if (values != null)
+            return values.getColumnValue(colIndex);
+
+        return super.getColumnValue(colIndex);
+    }
+
+
     @Override
     protected void insertTupleDataRange(int off, int len) {
         throw new UnsupportedOperationException(
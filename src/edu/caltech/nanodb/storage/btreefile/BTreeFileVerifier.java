@@ -81,6 +81,27 @@ public class BTreeFileVerifier {
     }
 
 
+    /**
+     * This helper class records the smallest and largest tuples stored in a
+     * subtree of the B<sup>+</sup> tree, so that the separator keys in the
+     * subtree's parent can be checked against them.
+     */
+    private static class SubtreeRange {
+        /** The first tuple in the subtree. */
+        public TupleLiteral first;
+
+
+        /** The last tuple in the subtree. */
+        public TupleLiteral last;
+
+
+        public SubtreeRange(Tuple first, Tuple last) {
+            this.first = new TupleLiteral(first);
+            this.last = new TupleLiteral(last);
+        }
+    }
+
+
     /** A reference to the storage manager since we use it so much. */
     private StorageManager storageManager;
 
@@ -200,9 +221,12 @@ public class BTreeFileVerifier {
     /**
      * This helper function traverses the B<sup>+</sup> tree structure,
      * verifying various invariants that should hold on the file structure.
+     *
+     * @return the first and last tuples stored in the subtree, or
+     *         {@code null} if the subtree contains no tuples
      */
-    private void scanTree(int pageNo, int parentPageNo, Tuple parentLeftKey,
-                          Tuple parentRightKey) throws IOException {
+    private SubtreeRange scanTree(int pageNo, int parentPageNo,
+        Tuple parentLeftKey, Tuple parentRightKey) throws IOException {
 
         PageInfo info = pages.get(pageNo);
         info.accessibleFromRoot = true;
@@ -265,7 +289,7 @@ public class BTreeFileVerifier {
 
             int numKeys = inner.getNumKeys();
             ArrayList<TupleLiteral> keys = new ArrayList<TupleLiteral>(numKeys);
-            if (numKeys > 1) {
+            if (numKeys >= 1) {
                 Tuple prevKey = inner.getKey(0);
                 keys.add(new TupleLiteral(prevKey));
 
@@ -312,6 +336,7 @@ public class BTreeFileVerifier {
 
             int p = 0;
             Tuple prevKey = parentLeftKey;
+            ArrayList<SubtreeRange> ranges = new ArrayList<SubtreeRange>();
             for (int refPageNo : refPages) {
                 Tuple nextKey;
                 if (p < keys.size())
@@ -319,12 +344,56 @@ public class BTreeFileVerifier {
                 else
                     nextKey = parentRightKey;
 
-                scanTree(refPageNo, pageNo, prevKey, nextKey);
+                ranges.add(scanTree(refPageNo, pageNo, prevKey, nextKey));
                 prevKey = nextKey;
                 p++;
             }
 
-            break;
+            // Keys in inner pages may be truncated, so they don't have to
+            // match any tuple in the leaves; but each key must still be
+            // greater than everything under the pointer to its left, and no
+            // greater than everything under the pointer to its right.
+
+            int numColumns = tupleFile.getSchema().numColumns();
+            SubtreeRange result = null;
+            for (int k = 0; k < keys.size(); k++) {
+                TupleLiteral key = keys.get(k);
+                if (key.getColumnCount() != numColumns) {
+                    errors.add(String.format("Pass 2:  Inner page %d key %d " +
+                        "has %d columns, but the schema has %d columns",
+                        pageNo, k, key.getColumnCount(), numColumns));
+                    continue;
+                }
+
+                SubtreeRange left = ranges.get(k);
+                SubtreeRange right = ranges.get(k + 1);
+
+                if (left != null &&
+                    TupleComparator.compareTuples(left.last, key) >= 0) {
+                    errors.add(String.format("Pass 2:  Inner page %d key %d " +
+                        "is not greater than the last tuple under pointer %d",
+                        pageNo, k, k));
+                }
+
+                if (right != null &&
+                    TupleComparator.compareTuples(key, right.first) > 0) {
+                    errors.add(String.format("Pass 2:  Inner page %d key %d " +
+                        "is greater than the first tuple under pointer %d",
+                        pageNo, k, k + 1));
+                }
+            }
+
+            for (SubtreeRange range : ranges) {
+                if (range == null)
+                    continue;
+
+                if (result == null)
+                    result = new SubtreeRange(range.first, range.last);
+                else
+                    result.last = range.last;
+            }
+
+            return result;
         }
 
         case BTREE_LEAF_PAGE:
@@ -373,9 +442,11 @@ public class BTreeFileVerifier {
                             "%d's last key", parentPageNo, pageNo));
                     }
                 }
+
+                return new SubtreeRange(leaf.getTuple(0), prevKey);
             }
 
-            break;
+            return null;
         }
 
         default:
@@ -383,6 +454,8 @@ public class BTreeFileVerifier {
                 "but it's  not a leaf or an inner page!  Type = %d", pageNo,
                 info.pageType));
         }
+
+        return null;
     }
 
 
@@ -0,0 +1,666 @@
+package edu.caltech.nanodb.storage.btreefile;
+
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.log4j.Logger;
+
+import edu.caltech.nanodb.expressions.TupleComparator;
+import edu.caltech.nanodb.expressions.TupleLiteral;
+import edu.caltech.nanodb.relations.Schema;
+import edu.caltech.nanodb.relations.Tuple;
+import edu.caltech.nanodb.storage.DBFile;
+import edu.caltech.nanodb.storage.DBPage;
+import edu.caltech.nanodb.storage.StorageManager;
+
+import static edu.caltech.nanodb.storage.btreefile.BTreePageTypes.*;
+
+
+/**
+ * <p>
+ * This class iterates over the tuples of a B<sup>+</sup> tree file that fall
+ * within a range of values, in either ascending or descending order.  Either
+ * bound may be omitted, and each bound may be inclusive or exclusive.  Bounds
+ * are compared with {@link TupleComparator#comparePartialTuples}, so a bound
+ * may specify only a prefix of the file's columns; for example, the key
+ * columns of an index without the <tt>#TUPLE_PTR</tt> column.
+ * </p>
+ * <p>
+ * Rather than returning one {@link BTreeFilePageTuple} at a time, the cursor
+ * visits each leaf once, copying all of the leaf's tuples that fall within
+ * the range into a batch while the leaf is latched, and then releases the
+ * leaf.  Tuples are then returned from the batch without touching the page
+ * again.  While one leaf is being consumed, the following leaves are read
+ * into the Buffer Manager by a background thread, so that a long range scan
+ * doesn't wait on one page read at a time.  The number of leaves read ahead
+ * is controlled by the <tt>nanodb.btree.prefetch</tt> property.
+ * </p>
+ * <p>
+ * The cursor remembers where it is between batches, but holds no latches
+ * between calls to {@link #next}.  If the structure of the tree changes in
+ * the meantime, the cursor searches the tree again from the last tuple it
+ * returned, so a concurrent split or merge can't cause tuples to be skipped
+ * or repeated.
+ * </p>
+ */
+public class BTreeRangeCursor {
+    /** A logging object for reporting anything interesting that happens. */
+    private static Logger logger = Logger.getLogger(BTreeRangeCursor.class);
+
+
+    /**
+     * The system property that can be used to specify how many leaves are
+     * read ahead of a range scan.  A value of 0 disables read-ahead.
+     */
+    public static final String PROP_PREFETCH_LEAVES = "nanodb.btree.prefetch";
+
+
+    /** By default, four leaves are read ahead of a range scan. */
+    public static final int DEFAULT_PREFETCH_LEAVES = 4;
+
+
+    /**
+     * The executor that reads leaf pages ahead of range scans.  A single
+     * thread is enough, since its only job is to keep the disk busy.
+     */
+    private static ExecutorService prefetchExecutor;
+
+
+    /**
+     * Returns the current number of leaves to read ahead of range scans.  If
+     * the <tt>nanodb.btree.prefetch</tt> system property is a non-negative
+     * integer then it is used.  Otherwise, the
+     * {@link #DEFAULT_PREFETCH_LEAVES} value is used.
+     *
+     * @return the current number of leaves to read ahead of range scans
+     */
+    public static int getCurrentPrefetchLeaves() {
+        int leaves = DEFAULT_PREFETCH_LEAVES;
+
+        String str = System.getProperty(PROP_PREFETCH_LEAVES);
+        if (str != null) {
+            try {
+                leaves = Integer.parseInt(str.trim());
+            }
+            catch (NumberFormatException e) {
+                logger.warn("Current value of " + PROP_PREFETCH_LEAVES +
+                    " property is not an integer:  \"" + str + "\"");
+            }
+
+            if (leaves < 0) {
+                logger.warn("Current value of " + PROP_PREFETCH_LEAVES +
+                    " property is negative:  " + leaves);
+
+                leaves = DEFAULT_PREFETCH_LEAVES;
+            }
+        }
+
+        return leaves;
+    }
+
+
+    private static synchronized ExecutorService getPrefetchExecutor() {
+        if (prefetchExecutor == null) {
+            prefetchExecutor = Executors.newSingleThreadExecutor(
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "BTreeLeafPrefetcher");
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+        }
+        return prefetchExecutor;
+    }
+
+
+    private StorageManager storageManager;
+
+
+    private DBFile dbFile;
+
+
+    private Schema schema;
+
+
+    private PageLatches latches;
+
+
+    private Tuple lowerBound;
+
+
+    private boolean includeLower;
+
+
+    private Tuple upperBound;
+
+
+    private boolean includeUpper;
+
+
+    /** True if the cursor returns tuples in descending order. */
+    private boolean reverse;
+
+
+    /** The number of leaves to read ahead of the scan, or 0 for none. */
+    private int prefetchLeaves;
+
+
+    /** The tuples copied out of the most recently visited leaf. */
+    private ArrayList<TupleLiteral> batch = new ArrayList<>();
+
+
+    /** The index of the next tuple in {@link #batch} to return. */
+    private int batchPos;
+
+
+    /**
+     * The position the cursor continues from if it has to search the tree
+     * again.  Initially this is the starting bound of the scan (the lower
+     * bound for a forward scan, or the upper bound for a reverse scan); after
+     * a leaf has been visited, it is the last tuple in that leaf, in the
+     * direction of the scan.
+     */
+    private Tuple resumeKey;
+
+
+    /** True if a tuple equal to {@link #resumeKey} should be returned. */
+    private boolean resumeInclusive;
+
+
+    /**
+     * True if tuples must still be checked against {@link #resumeKey}.  This
+     * is only the case until the first tuple past the resume key is found.
+     */
+    private boolean checkResume;
+
+
+    /**
+     * The path from the root to the leaf most recently visited.  Each entry
+     * holds a page number, and for inner pages, the index of the pointer
+     * that was followed.
+     */
+    private ArrayList<int[]> path = new ArrayList<>();
+
+
+    /**
+     * The page number of the leaf to visit next, or 0 if the scan is
+     * complete.  This is only valid if the tree's structure version is still
+     * {@link #structureVersion}.
+     */
+    private int nextLeafPageNo;
+
+
+    /**
+     * The structure version of the tree when {@link #nextLeafPageNo} and
+     * {@link #path} were computed, or -1 if the tree must be searched again.
+     */
+    private long structureVersion = -1;
+
+
+    /** The number of leaves the cursor has visited so far. */
+    private int leavesVisited;
+
+
+    /** The leaf count at which the next read-ahead should be started. */
+    private int nextPrefetchAt;
+
+
+    /** True once the cursor has returned every tuple in the range. */
+    private boolean done;
+
+
+    /**
+     * Opens a range cursor over a B<sup>+</sup> tree file.  Cursors are
+     * created with {@link BTreeTupleFile#openRangeCursor}.
+     */
+    BTreeRangeCursor(StorageManager storageManager, BTreeTupleFile tupleFile,
+        Tuple lowerBound, boolean includeLower, Tuple upperBound,
+        boolean includeUpper, boolean reverse) {
+
+        this.storageManager = storageManager;
+        this.dbFile = tupleFile.getDBFile();
+        this.schema = tupleFile.getSchema();
+        this.latches = tupleFile.getLatches();
+
+        this.lowerBound = lowerBound;
+        this.includeLower = includeLower;
+        this.upperBound = upperBound;
+        this.includeUpper = includeUpper;
+        this.reverse = reverse;
+
+        prefetchLeaves = getCurrentPrefetchLeaves();
+
+        if (reverse)
+            restartAt(upperBound, includeUpper);
+        else
+            restartAt(lowerBound, includeLower);
+    }
+
+
+    /**
+     * Returns true if the cursor returns tuples in descending order.
+     *
+     * @return true if the cursor returns tuples in descending order
+     */
+    public boolean isReverse() {
+        return reverse;
+    }
+
+
+    /**
+     * Repositions the cursor so that the next call to {@link #next} returns
+     * the first tuple in the range at or after the specified tuple, in the
+     * direction of the scan.  This allows a caller to rewind to a tuple that
+     * it returned earlier.
+     *
+     * @param tup the tuple to continue the scan from
+     */
+    public void restart(Tuple tup) {
+        restartAt(tup, true);
+    }
+
+
+    private void restartAt(Tuple key, boolean inclusive) {
+        batch.clear();
+        batchPos = 0;
+
+        resumeKey = key;
+        resumeInclusive = inclusive;
+        checkResume = (key != null);
+
+        structureVersion = -1;
+        done = false;
+    }
+
+
+    /**
+     * Returns the next tuple in the range, or {@code null} if there are no
+     * more tuples.  The returned tuple is a copy, and remains valid after
+     * the cursor moves on.
+     *
+     * @return the next tuple in the range, or {@code null} if there are no
+     *         more tuples
+     *
+     * @throws IOException if an IO error occurs while reading the file
+     */
+    public TupleLiteral next() throws IOException {
+        while (batchPos >= batch.size()) {
+            if (done)
+                return null;
+
+            readNextLeaf();
+        }
+
+        return batch.get(batchPos++);
+    }
+
+
+    /**
+     * Closes the cursor.  The cursor holds no latches or pins between calls
+     * to {@link #next}, so this simply discards any tuples it has buffered.
+     */
+    public void close() {
+        batch.clear();
+        batchPos = 0;
+        done = true;
+    }
+
+
+    /**
+     * Visits the next leaf in the scan, copying the qualifying tuples into
+     * {@link #batch}.  The batch may be empty if no tuples in the leaf fall
+     * within the range; {@link #done} is set when the scan is complete.
+     */
+    private void readNextLeaf() throws IOException {
+        batch.clear();
+        batchPos = 0;
+
+        latches.lockTreeShared();
+        try {
+            int leafPageNo;
+            if (structureVersion == latches.getStructureVersion()) {
+                if (reverse)
+                    leafPageNo = stepLeft();
+                else
+                    leafPageNo = nextLeafPageNo;
+            }
+            else {
+                leafPageNo = searchTree();
+                structureVersion = latches.getStructureVersion();
+            }
+
+            if (leafPageNo == 0) {
+                done = true;
+                return;
+            }
+
+            DBPage dbPage = storageManager.loadDBPage(dbFile, leafPageNo);
+            latches.lockPageShared(leafPageNo);
+            try {
+                LeafPage leaf = new LeafPage(dbPage, schema);
+                if (reverse)
+                    copyTuplesReverse(leaf);
+                else
+                    copyTuplesForward(leaf);
+
+                nextLeafPageNo = leaf.getNextPageNo();
+            }
+            finally {
+                latches.unlockPageShared(leafPageNo);
+                dbPage.unpin();
+            }
+
+            leavesVisited++;
+            if (!done && prefetchLeaves > 0 && leavesVisited >= nextPrefetchAt) {
+                startPrefetch();
+                nextPrefetchAt = leavesVisited + prefetchLeaves;
+            }
+        }
+        finally {
+            latches.unlockTreeShared();
+        }
+    }
+
+
+    private void copyTuplesForward(LeafPage leaf) {
+        int numTuples = leaf.getNumTuples();
+        for (int i = 0; i < numTuples; i++) {
+            BTreeFilePageTuple tup = leaf.getTuple(i);
+
+            if (checkResume) {
+                int cmp = TupleComparator.comparePartialTuples(tup, resumeKey);
+                if (cmp < 0 || (cmp == 0 && !resumeInclusive))
+                    continue;
+
+                checkResume = false;
+            }
+
+            if (upperBound != null) {
+                int cmp = TupleComparator.comparePartialTuples(tup, upperBound);
+                if (cmp > 0 || (cmp == 0 && !includeUpper)) {
+                    done = true;
+                    break;
+                }
+            }
+
+            batch.add(new TupleLiteral(tup));
+        }
+
+        if (numTuples > 0)
+            setResumePosition(leaf.getTuple(numTuples - 1));
+
+        if (leaf.getNextPageNo() == 0)
+            done = true;
+    }
+
+
+    private void copyTuplesReverse(LeafPage leaf) {
+        int numTuples = leaf.getNumTuples();
+        for (int i = numTuples - 1; i >= 0; i--) {
+            BTreeFilePageTuple tup = leaf.getTuple(i);
+
+            if (checkResume) {
+                int cmp = TupleComparator.comparePartialTuples(tup, resumeKey);
+                if (cmp > 0 || (cmp == 0 && !resumeInclusive))
+                    continue;
+
+                checkResume = false;
+            }
+
+            if (lowerBound != null) {
+                int cmp = TupleComparator.comparePartialTuples(tup, lowerBound);
+                if (cmp < 0 || (cmp == 0 && !includeLower)) {
+                    done = true;
+                    break;
+                }
+            }
+
+            batch.add(new TupleLiteral(tup));
+        }
+
+        if (numTuples > 0)
+            setResumePosition(leaf.getTuple(0));
+    }
+
+
+    /**
+     * Records that every tuple up to and including the specified tuple (in
+     * the direction of the scan) has been visited.
+     */
+    private void setResumePosition(Tuple tup) {
+        resumeKey = new TupleLiteral(tup);
+        resumeInclusive = false;
+        checkResume = true;
+    }
+
+
+    /**
+     * Searches from the root of the tree to the leaf where the scan should
+     * continue, based on {@link #resumeKey}, and records the path taken.
+     * The caller must hold the tree latch.
+     *
+     * @return the page number of the leaf, or 0 if the tree is empty
+     */
+    private int searchTree() throws IOException {
+        path.clear();
+
+        DBPage dbpHeader = storageManager.loadDBPage(dbFile, 0);
+        int rootPageNo = HeaderPage.getRootPageNo(dbpHeader);
+        dbpHeader.unpin();
+
+        if (rootPageNo == 0)
+            return 0;
+
+        // A forward scan starts in the subtree to the right of every key
+        // less than the resume key (or equal to it, if the resume key is
+        // exclusive).  A reverse scan starts in the subtree to the right of
+        // every key less than the resume key (or equal to it, if the resume
+        // key is inclusive).
+        boolean countEqual = (reverse == resumeInclusive);
+        return descend(rootPageNo, resumeKey, countEqual);
+    }
+
+
+    /**
+     * Descends from the specified page to a leaf, appending the pages
+     * visited to {@link #path}.  At each inner page, the pointer followed
+     * is the one after every key less than the search key, or less than or
+     * equal to it if {@code countEqual} is true.  A {@code null} search key
+     * selects the leftmost pointer for a forward scan, or the rightmost
+     * pointer for a reverse scan.
+     *
+     * @return the page number of the leaf reached
+     */
+    private int descend(int pageNo, Tuple searchKey, boolean countEqual)
+        throws IOException {
+
+        while (true) {
+            DBPage dbPage = storageManager.loadDBPage(dbFile, pageNo);
+            try {
+                int pageType = dbPage.readByte(0);
+                if (pageType == BTREE_LEAF_PAGE) {
+                    path.add(new int[] {pageNo, -1});
+                    return pageNo;
+                }
+                else if (pageType != BTREE_INNER_PAGE) {
+                    throw new IOException(
+                        "Invalid page type encountered:  " + pageType);
+                }
+
+                InnerPage inner = new InnerPage(dbPage, schema);
+                int numKeys = inner.getNumKeys();
+
+                int index;
+                if (searchKey == null) {
+                    index = reverse ? numKeys : 0;
+                }
+                else {
+                    index = 0;
+                    while (index < numKeys) {
+                        int cmp = TupleComparator.comparePartialTuples(
+                            inner.getKey(index), searchKey);
+                        if (cmp > 0 || (cmp == 0 && !countEqual))
+                            break;
+
+                        index++;
+                    }
+                }
+
+                path.add(new int[] {pageNo, index});
+                pageNo = inner.getPointer(index);
+            }
+            finally {
+                dbPage.unpin();
+            }
+        }
+    }
+
+
+    /**
+     * Moves from the leaf at the end of {@link #path} to its left neighbor,
+     * updating the path.  The caller must hold the tree latch, and the
+     * tree's structure must not have changed since the path was recorded.
+     *
+     * @return the page number of the left neighbor, or 0 if the last leaf
+     *         visited was the leftmost leaf in the tree
+     */
+    private int stepLeft() throws IOException {
+        // Remove the leaf, then climb until we find an inner page where we
+        // didn't follow the leftmost pointer.
+        path.remove(path.size() - 1);
+        while (!path.isEmpty()) {
+            int[] entry = path.get(path.size() - 1);
+            if (entry[1] > 0)
+                break;
+
+            path.remove(path.size() - 1);
+        }
+
+        if (path.isEmpty())
+            return 0;
+
+        int[] entry = path.get(path.size() - 1);
+        entry[1]--;
+
+        DBPage dbPage = storageManager.loadDBPage(dbFile, entry[0]);
+        int pageNo;
+        try {
+            pageNo = new InnerPage(dbPage, schema).getPointer(entry[1]);
+        }
+        finally {
+            dbPage.unpin();
+        }
+
+        return descend(pageNo, null, false);
+    }
+
+
+    /**
+     * Starts reading the leaves that the scan will visit next into the
+     * Buffer Manager on the prefetch thread.  The caller must hold the tree
+     * latch.
+     */
+    private void startPrefetch() throws IOException {
+        Runnable task;
+        if (reverse) {
+            // The leaves to the left of the current leaf are found through
+            // its parent, so we can hand the prefetcher their page numbers
+            // directly.  We don't look beyond the parent; the next read-ahead
+            // will be started from the next parent soon enough.
+            if (path.size() < 2)
+                return;
+
+            int[] parentEntry = path.get(path.size() - 2);
+            if (parentEntry[1] == 0)
+                return;
+
+            final ArrayList<Integer> pageNos = new ArrayList<>();
+            DBPage dbPage = storageManager.loadDBPage(dbFile, parentEntry[0]);
+            try {
+                InnerPage parent = new InnerPage(dbPage, schema);
+                int i = parentEntry[1] - 1;
+                while (i >= 0 && pageNos.size() < 2 * prefetchLeaves) {
+                    pageNos.add(parent.getPointer(i));
+                    i--;
+                }
+            }
+            finally {
+                dbPage.unpin();
+            }
+
+            task = new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int pageNo : pageNos)
+                            storageManager.loadDBPage(dbFile, pageNo).unpin();
+                    }
+                    catch (Exception e) {
+                        logger.debug("Couldn't prefetch B+ tree leaves", e);
+                    }
+                }
+            };
+        }
+        else {
+            // The leaves to the right of the current leaf are found by
+            // following the leaves' next-page pointers.  Reading twice as
+            // many leaves as the prefetch interval keeps the prefetcher
+            // ahead of the scan.
+            final int startPageNo = nextLeafPageNo;
+            if (startPageNo == 0)
+                return;
+
+            final int count = 2 * prefetchLeaves;
+            task = new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        prefetchForward(startPageNo, count);
+                    }
+                    catch (Exception e) {
+                        logger.debug("Couldn't prefetch B+ tree leaves", e);
+                    }
+                }
+            };
+        }
+
+        getPrefetchExecutor().execute(task);
+    }
+
+
+    /**
+     * Reads up to {@code count} leaves into the Buffer Manager, starting with
+     * the specified leaf and following the next-page pointers.  This runs on
+     * the prefetch thread, so it latches the tree for each page it reads; if
+     * the tree has changed so that a page is no longer a leaf, it gives up.
+     */
+    private void prefetchForward(int pageNo, int count) throws IOException {
+        for (int i = 0; i < count && pageNo != 0; i++) {
+            latches.lockTreeShared();
+            try {
+                DBPage dbPage = storageManager.loadDBPage(dbFile, pageNo);
+                latches.lockPageShared(pageNo);
+                try {
+                    if (dbPage.readByte(0) != BTREE_LEAF_PAGE)
+                        return;
+
+                    pageNo = dbPage.readUnsignedShort(
+                        LeafPage.OFFSET_NEXT_PAGE_NO);
+                }
+                finally {
+                    latches.unlockPageShared(dbPage.getPageNo());
+                    dbPage.unpin();
+                }
+            }
+            finally {
+                latches.unlockTreeShared();
+            }
+        }
+    }
+}
@@ -59,6 +59,19 @@ import static edu.caltech.nanodb.storage.btreefile.BTreePageTypes.*;
  *     an unsigned short stored at index 1 (after the page-type value in index
  *     0).  The final empty page stores 0 as its next-page pointer value.</li>
  * </ul>
+ * <p>
+ * Multiple sessions may use the same B<sup>+</sup> tree file concurrently.
+ * Every operation latches the file as described in the {@link PageLatches}
+ * class:  lookups, scans, and inserts and deletes that fit within one leaf
+ * only latch the leaf they work on, while operations that change the shape
+ * of the tree run with the whole file latched exclusively.
+ * </p>
+ * <p>
+ * Since leaves are unlatched between the calls of a scan, the tuples that
+ * this class returns hold copies of their values (see
+ * {@link BTreeFilePageTuple}).  If another session changes the current
+ * tuple's leaf during a scan, the next tuple is found again by value.
+ * </p>
  */
 public class BTreeTupleFile implements SequentialTupleFile {
     /** A logging object for reporting anything interesting that happens. */
@@ -121,6 +134,10 @@ public class BTreeTupleFile implements SequentialTupleFile {
     private InnerPageOperations innerPageOps;
 
 
+    /** The latches used to coordinate concurrent access to the file. */
+    private PageLatches latches = new PageLatches();
+
+
     // private IndexInfo idxFileInfo;
 
 
@@ -143,6 +160,7 @@ public class BTreeTupleFile implements SequentialTupleFile {
             throw new IllegalArgumentException("stats cannot be null");
 
         this.storageManager = storageManager;
+        this.btreeFileManager = btreeFileManager;
         this.dbFile = dbFile;
         this.schema = schema;
         this.stats = stats;
@@ -176,6 +194,34 @@ public class BTreeTupleFile implements SequentialTupleFile {
     }
 
 
+    PageLatches getLatches() {
+        return latches;
+    }
+
+
+    /**
+     * Returns true if the file has no tree at all, which is the only state
+     * that a {@link BTreeBulkLoader} can load the file from.  (A tree whose
+     * tuples have all been deleted still has its root page.)
+     *
+     * @return true if the file has no root page
+     *
+     * @throws IOException if an IO error occurs while reading the header page
+     */
+    public boolean isEmpty() throws IOException {
+        latches.lockTreeShared();
+        try {
+            DBPage dbpHeader = storageManager.loadDBPage(dbFile, 0);
+            boolean empty = (HeaderPage.getRootPageNo(dbpHeader) == 0);
+            dbpHeader.unpin();
+            return empty;
+        }
+        finally {
+            latches.unlockTreeShared();
+        }
+    }
+
+
     @Override
     public List<OrderByExpression> getOrderSpec() {
         throw new UnsupportedOperationException("NYI");
@@ -190,10 +236,20 @@ public class BTreeTupleFile implements SequentialTupleFile {
         // navigateToLeafPage() method to choose the leftmost leaf page.
 
         TupleLiteral noTup = new TupleLiteral();
-        LeafPage leaf = navigateToLeafPage(noTup, false, null);
 
-        if (leaf != null && leaf.getNumTuples() > 0)
-            tup = leaf.getTuple(0);
+        latches.lockTreeShared();
+        try {
+            LeafPage leaf = navigateToLeafPage(noTup, false, null, false);
+            if (leaf != null) {
+                if (leaf.getNumTuples() > 0)
+                    tup = detach(leaf.getTuple(0));
+
+                unlatchLeaf(leaf.getPageNo(), false);
+            }
+        }
+        finally {
+            latches.unlockTreeShared();
+        }
 
         return tup;
     }
@@ -203,35 +259,88 @@ public class BTreeTupleFile implements SequentialTupleFile {
     public Tuple getNextTuple(Tuple tup) throws IOException {
         BTreeFilePageTuple tuple = (BTreeFilePageTuple) tup;
 
-        // Get the page that holds the current entry, and see where it falls
-        // within the page.
-        DBPage dbPage = tuple.getDBPage();
-        LeafPage leaf = new LeafPage(dbPage, schema);
+        // If the tuple was deleted, the tuples after it may have moved, even
+        // to other pages, so find the next one by value instead.
+        if (tuple.getDeletedValues() != null)
+            return findFirstTupleAfter(tuple.getDeletedValues(), true);
 
-        // Use the offset of the passed-in entry to find the next entry.
+        BTreeFilePageTuple nextTuple = null;
+        boolean moved = false;
+
+        latches.lockTreeShared();
+        try {
+            // Get the page that holds the current entry, and see where it
+            // falls within the page.
+            DBPage dbPage = tuple.getDBPage();
+            latchLeaf(dbPage.getPageNo(), false);
+
+            // If another session changed the leaf or the tree since the
+            // tuple was returned, the tuples may have moved, even to other
+            // pages, so find the next one by value instead.
+            if (!tuple.isCurrent(latches.getStructureVersion(),
+                                 latches.getPageVersion(dbPage.getPageNo()))) {
+                unlatchLeaf(dbPage.getPageNo(), false);
+                moved = true;
+            }
+            else {
+                nextTuple = getNextTuple(tuple, dbPage);
+            }
+        }
+        finally {
+            latches.unlockTreeShared();
+        }
+
+        if (moved)
+            return findFirstTupleAfter(tuple, false);
+
+        return nextTuple;
+    }
+
+
+    /**
+     * Returns the tuple after the specified tuple, using the tuple's index
+     * in its leaf.  The caller must hold the tree latch, and a shared latch
+     * on the tuple's leaf, which this method releases.
+     */
+    private BTreeFilePageTuple getNextTuple(BTreeFilePageTuple tuple,
+        DBPage dbPage) throws IOException {
 
         BTreeFilePageTuple nextTuple = null;
+        LeafPage leaf = new LeafPage(dbPage, schema);
+
+        // Use the offset of the passed-in entry to find the next entry.
 
         int nextIndex = tuple.getTupleIndex() + 1;
         if (nextIndex < leaf.getNumTuples()) {
             // Still more entries in this leaf.
-            nextTuple = leaf.getTuple(nextIndex);
+            nextTuple = detach(leaf.getTuple(nextIndex));
+            unlatchLeaf(dbPage.getPageNo(), false);
         }
         else {
             // No more entries in this leaf.  Must go to the next leaf.
+            // The leaf can't go away while we hold the tree latch, so we can
+            // release this leaf before latching the next one.
             int nextPageNo = leaf.getNextPageNo();
+            unlatchLeaf(dbPage.getPageNo(), false);
+
             if (nextPageNo != 0) {
                 dbPage = storageManager.loadDBPage(dbFile, nextPageNo);
 
-                leaf = new LeafPage(dbPage, schema);
-                if (leaf.getNumTuples() > 0) {
-                    nextTuple = leaf.getTuple(0);
+                latchLeaf(nextPageNo, false);
+                try {
+                    leaf = new LeafPage(dbPage, schema);
+                    if (leaf.getNumTuples() > 0) {
+                        nextTuple = detach(leaf.getTuple(0));
+                    }
+                    else {
+                        // This would be *highly* unusual.  Leaves are
+                        // supposed to be at least 1/2 full, always!
+                        logger.error(String.format(
+                            "Next leaf node %d has no entries?!", nextPageNo));
+                    }
                 }
-                else {
-                    // This would be *highly* unusual.  Leaves are supposed
-                    // to be at least 1/2 full, always!
-                    logger.error(String.format(
-                        "Next leaf node %d has no entries?!", nextPageNo));
+                finally {
+                    unlatchLeaf(nextPageNo, false);
                 }
             }
         }
@@ -256,15 +365,23 @@ public class BTreeTupleFile implements SequentialTupleFile {
         // tuple itself.
 
         int fpOffset = fptr.getOffset();
-        LeafPage leaf = new LeafPage(dbPage, schema);
-        for (int i = 0; i < leaf.getNumTuples(); i++) {
-            BTreeFilePageTuple tup = leaf.getTuple(i);
-            if (tup.getOffset() == fpOffset)
-                return tup;
+        latches.lockTreeShared();
+        latchLeaf(dbPage.getPageNo(), false);
+        try {
+            LeafPage leaf = new LeafPage(dbPage, schema);
+            for (int i = 0; i < leaf.getNumTuples(); i++) {
+                BTreeFilePageTuple tup = leaf.getTuple(i);
+                if (tup.getOffset() == fpOffset)
+                    return detach(tup);
 
-            // Tuple offsets within a page will be monotonically increasing.
-            if (tup.getOffset() > fpOffset)
-                break;
+                // Tuple offsets within a page will be monotonically increasing.
+                if (tup.getOffset() > fpOffset)
+                    break;
+            }
+        }
+        finally {
+            unlatchLeaf(dbPage.getPageNo(), false);
+            latches.unlockTreeShared();
         }
 
         throw new InvalidFilePointerException("No tuple at offset " + fptr);
@@ -276,12 +393,33 @@ public class BTreeTupleFile implements SequentialTupleFile {
         logger.debug("Finding first tuple that equals " + searchKey +
             " in BTree file " + dbFile);
 
-        LeafPage leaf = navigateToLeafPage(searchKey, false, null);
-        if (leaf == null) {
-            logger.debug("BTree file is empty!");
-            return null;
+        latches.lockTreeShared();
+        try {
+            LeafPage leaf = navigateToLeafPage(searchKey, false, null, false);
+            if (leaf == null) {
+                logger.debug("BTree file is empty!");
+                return null;
+            }
+
+            try {
+                return detach(findFirstTupleEquals(leaf, searchKey));
+            }
+            finally {
+                unlatchLeaf(leaf.getPageNo(), false);
+            }
         }
+        finally {
+            latches.unlockTreeShared();
+        }
+    }
 
+
+    /**
+     * Scans the specified leaf for the first tuple that equals the search
+     * key.  The caller must hold a latch on the leaf.
+     */
+    private BTreeFilePageTuple findFirstTupleEquals(LeafPage leaf,
+                                                    Tuple searchKey) {
         logger.debug("Navigated to leaf page " + leaf.getPageNo());
         if (leaf.getNumTuples() > 0) {
             // We have at least one tuple to look at, so scan through to find
@@ -310,32 +448,116 @@ public class BTreeTupleFile implements SequentialTupleFile {
 
     @Override
     public PageTuple findFirstTupleGreaterThan(Tuple searchKey) throws IOException {
-        LeafPage leaf = navigateToLeafPage(searchKey, false, null);
+        latches.lockTreeShared();
+        try {
+            LeafPage leaf = navigateToLeafPage(searchKey, false, null, false);
+            if (leaf == null)
+                return null;
 
-        if (leaf != null && leaf.getNumTuples() > 0) {
-            // We have at least one tuple to look at, so scan through to find
-            // the first tuple that equals what we are looking for.
-            for (int i = 0; i < leaf.getNumTuples(); i++) {
-                BTreeFilePageTuple tup = leaf.getTuple(i);
-                int cmp = TupleComparator.comparePartialTuples(tup, searchKey);
-                if (cmp > 0)
-                    return tup;  // Found it!
+            try {
+                // Scan through the leaf to find the first tuple that is
+                // greater than what we are looking for.
+                for (int i = 0; i < leaf.getNumTuples(); i++) {
+                    BTreeFilePageTuple tup = leaf.getTuple(i);
+                    int cmp = TupleComparator.comparePartialTuples(tup, searchKey);
+                    if (cmp > 0)
+                        return detach(tup);  // Found it!
+                }
+            }
+            finally {
+                unlatchLeaf(leaf.getPageNo(), false);
             }
         }
+        finally {
+            latches.unlockTreeShared();
+        }
 
         return null;
     }
 
 
+    /**
+     * Returns the first tuple in the file that is greater than (or equal to,
+     * if {@code inclusive} is true) the search key, which may be on the leaf
+     * after the one that the search key leads to.  This is how a scan
+     * continues after the tuple it is on is deleted or moved.
+     */
+    private Tuple findFirstTupleAfter(Tuple searchKey, boolean inclusive)
+        throws IOException {
+        latches.lockTreeShared();
+        try {
+            LeafPage leaf = navigateToLeafPage(searchKey, false, null, false);
+            if (leaf == null)
+                return null;
+
+            int nextPageNo;
+            try {
+                for (int i = 0; i < leaf.getNumTuples(); i++) {
+                    BTreeFilePageTuple tup = leaf.getTuple(i);
+                    int cmp = TupleComparator.comparePartialTuples(tup, searchKey);
+                    if (cmp > 0 || (cmp == 0 && inclusive))
+                        return detach(tup);
+                }
+                nextPageNo = leaf.getNextPageNo();
+            }
+            finally {
+                unlatchLeaf(leaf.getPageNo(), false);
+            }
+
+            if (nextPageNo == 0)
+                return null;
+
+            DBPage dbPage = storageManager.loadDBPage(dbFile, nextPageNo);
+            latchLeaf(nextPageNo, false);
+            try {
+                leaf = new LeafPage(dbPage, schema);
+                return leaf.getNumTuples() > 0 ? detach(leaf.getTuple(0)) : null;
+            }
+            finally {
+                unlatchLeaf(nextPageNo, false);
+            }
+        }
+        finally {
+            latches.unlockTreeShared();
+        }
+    }
+
+
+    /**
+     * Opens a cursor over the tuples in this file that fall between the
+     * specified bounds.  Bounds may specify only a prefix of the file's
+     * columns, and either bound may be {@code null} to leave that end of
+     * the range open.  See {@link BTreeRangeCursor} for details.
+     *
+     * @param lowerBound the lower bound of the range, or {@code null} if
+     *        the range has no lower bound
+     *
+     * @param includeLower true if tuples equal to the lower bound are in the
+     *        range
+     *
+     * @param upperBound the upper bound of the range, or {@code null} if
+     *        the range has no upper bound
+     *
+     * @param includeUpper true if tuples equal to the upper bound are in the
+     *        range
+     *
+     * @param reverse true to return tuples in descending order, or false to
+     *        return them in ascending order
+     *
+     * @return a cursor over the tuples in the range
+     */
+    public BTreeRangeCursor openRangeCursor(Tuple lowerBound,
+        boolean includeLower, Tuple upperBound, boolean includeUpper,
+        boolean reverse) {
+        return new BTreeRangeCursor(storageManager, this, lowerBound,
+            includeLower, upperBound, includeUpper, reverse);
+    }
+
+
     @Override
     public Tuple addTuple(Tuple tup) throws IOException {
         logger.debug("Adding tuple " + tup + " to BTree file " + dbFile);
 
-        // Navigate to the leaf-page, creating one if the BTree file is
-        // currently empty.
-        ArrayList<Integer> pagePath = new ArrayList<Integer>();
-        LeafPage leaf = navigateToLeafPage(tup, true, pagePath);
-
         // TODO:  This is definitely not ideal, but should get us going.
         TupleLiteral tupLit;
         if (tup instanceof TupleLiteral)
@@ -344,7 +566,38 @@ public class BTreeTupleFile implements SequentialTupleFile {
             tupLit = new TupleLiteral(tup);
         tupLit.setStorageSize(PageTuple.getTupleStorageSize(schema, tupLit));
 
-        return leafPageOps.addTuple(leaf, tupLit, pagePath);
+        // First, try to add the tuple without changing the tree structure.
+        latches.lockTreeShared();
+        try {
+            LeafPage leaf = navigateToLeafPage(tupLit, false, null, true);
+            if (leaf != null) {
+                try {
+                    if (leaf.getFreeSpace() >= tupLit.getStorageSize())
+                        return detach(leaf.addTuple(tupLit));
+                }
+                finally {
+                    unlatchLeaf(leaf.getPageNo(), true);
+                }
+            }
+        }
+        finally {
+            latches.unlockTreeShared();
+        }
+
+        // The file is empty, or the leaf must be split or rebalanced.  Do
+        // this with the entire tree latched.
+        latches.lockTreeExclusive();
+        try {
+            // Navigate to the leaf-page, creating one if the BTree file is
+            // currently empty.
+            ArrayList<Integer> pagePath = new ArrayList<Integer>();
+            LeafPage leaf = navigateToLeafPage(tupLit, true, pagePath, true);
+
+            return detach(leafPageOps.addTuple(leaf, tupLit, pagePath));
+        }
+        finally {
+            latches.unlockTreeExclusive();
+        }
     }
 
 
@@ -358,12 +611,102 @@ public class BTreeTupleFile implements SequentialTupleFile {
 
     @Override
     public void deleteTuple(Tuple tup) throws IOException {
-        ArrayList<Integer> pagePath = new ArrayList<Integer>();
-        LeafPage leaf = navigateToLeafPage(tup, false, pagePath);
-
         logger.debug("Deleting tuple " + tup + " from file " + dbFile);
 
-        leafPageOps.deleteTuple(leaf, tup, pagePath);
+        // A scan that is on this tuple continues from its values
+        if (tup instanceof BTreeFilePageTuple)
+            ((BTreeFilePageTuple) tup).setDeletedValues(new TupleLiteral(tup));
+
+        // First, try to delete the tuple without changing the tree
+        // structure; this is possible if the leaf will still be at least
+        // half full afterward.
+        int tupSize = PageTuple.getTupleStorageSize(schema, tup);
+        latches.lockTreeShared();
+        try {
+            LeafPage leaf = navigateToLeafPage(tup, false, null, true);
+            if (leaf != null) {
+                try {
+                    if (leaf.getUsedSpace() - tupSize >= leaf.getTotalSpace() / 2) {
+                        leaf.deleteTuple(tup);
+                        return;
+                    }
+                }
+                finally {
+                    unlatchLeaf(leaf.getPageNo(), true);
+                }
+            }
+        }
+        finally {
+            latches.unlockTreeShared();
+        }
+
+        latches.lockTreeExclusive();
+        try {
+            ArrayList<Integer> pagePath = new ArrayList<Integer>();
+            LeafPage leaf = navigateToLeafPage(tup, false, pagePath, true);
+
+            leafPageOps.deleteTuple(leaf, tup, pagePath);
+        }
+        finally {
+            latches.unlockTreeExclusive();
+        }
+    }
+
+
+    /**
+     * Detaches a tuple that is about to be returned, so that its values can
+     * still be read after its leaf is unlatched.  The caller must hold the
+     * tree latch and a latch on the tuple's leaf.
+     *
+     * @param tup the tuple to detach, or {@code null}
+     *
+     * @return the tuple that was passed in
+     */
+    private BTreeFilePageTuple detach(BTreeFilePageTuple tup) {
+        if (tup != null) {
+            tup.detach(latches.getStructureVersion(),
+                       latches.getPageVersion(tup.getDBPage().getPageNo()));
+        }
+        return tup;
+    }
+
+
+    /**
+     * Latches the specified leaf page, unless the current thread holds the
+     * tree latch exclusively, in which case no page latches are needed.
+     *
+     * @param pageNo the leaf page to latch
+     *
+     * @param exclusive true to latch the page exclusively, or false to latch
+     *        it in shared mode
+     */
+    private void latchLeaf(int pageNo, boolean exclusive) {
+        if (latches.holdsTreeExclusive())
+            return;
+
+        if (exclusive)
+            latches.lockPageExclusive(pageNo);
+        else
+            latches.lockPageShared(pageNo);
+    }
+
+
+    /**
+     * Releases a latch acquired by {@link #latchLeaf}.
+     *
+     * @param pageNo the leaf page to unlatch
+     *
+     * @param exclusive true if the page was latched exclusively, or false if
+     *        it was latched in shared mode
+     */
+    private void unlatchLeaf(int pageNo, boolean exclusive) {
+        if (latches.holdsTreeExclusive())
+            return;
+
+        if (exclusive)
+            latches.unlockPageExclusive(pageNo);
+        else
+            latches.unlockPageShared(pageNo);
     }
 
 
@@ -388,6 +731,12 @@ public class BTreeTupleFile implements SequentialTupleFile {
      *        from root to leaf.  If {@code null} is passed then nothing is
      *        stored as the method traverses the B<sup>+</sup> tree structure.
      *
+     * @param latchExclusive the leaf page is latched before it is returned,
+     *        exclusively if this is true, or in shared mode otherwise.  The
+     *        caller must release the latch with {@link #unlatchLeaf}.  The
+     *        caller must also hold the tree latch, exclusively if
+     *        {@code createIfNeeded} is true.
+     *
      * @return the leaf-page where the search-key would appear, or
      *         {@code null} if the B<sup>+</sup> tree file is currently empty
      *         and {@code createIfNeeded} is {@code false}.
@@ -396,7 +745,8 @@ public class BTreeTupleFile implements SequentialTupleFile {
      *         B<sup>+</sup> tree file's structure
      */
     private LeafPage navigateToLeafPage(Tuple searchKey,
-        boolean createIfNeeded, List<Integer> pagePath) throws IOException {
+        boolean createIfNeeded, List<Integer> pagePath,
+        boolean latchExclusive) throws IOException {
 
         // The header page tells us where the root page starts.
         DBPage dbpHeader = storageManager.loadDBPage(dbFile, 0);
@@ -498,6 +848,7 @@ public class BTreeTupleFile implements SequentialTupleFile {
 
         logger.debug("Navigated to leaf page " + dbPage.getPageNo());
 
+        latchLeaf(dbPage.getPageNo(), latchExclusive);
         return new LeafPage(dbPage, schema);
     }
 
@@ -513,7 +864,13 @@ public class BTreeTupleFile implements SequentialTupleFile {
         BTreeFileVerifier verifier =
             new BTreeFileVerifier(storageManager, this);
 
-        return verifier.verify();
+        latches.lockTreeExclusive();
+        try {
+            return verifier.verify();
+        }
+        finally {
+            latches.unlockTreeExclusive();
+        }
     }
 
 
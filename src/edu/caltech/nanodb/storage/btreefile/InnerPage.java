@@ -5,6 +5,7 @@ import java.io.IOException;
 
 import java.util.List;
 
+import edu.caltech.nanodb.relations.SQLDataType;
 import edu.caltech.nanodb.relations.Schema;
 import org.apache.log4j.Logger;
 
@@ -167,6 +168,73 @@ public class InnerPage implements DataPage {
     }
 
 
+    /**
+     * <p>
+     * This static helper function computes the key to store in an inner page
+     * between two adjacent child pages, given the last tuple under the left
+     * child and the first tuple under the right child.  Rather than storing
+     * the entire right-hand tuple, the key is truncated to the shortest value
+     * <em>S</em> such that <tt>lastLeft</tt> &lt; <em>S</em> &le;
+     * <tt>firstRight</tt>, which is all that navigation requires:
+     * </p>
+     * <ul>
+     *   <li>Columns after the first one that differs between the two tuples
+     *       are set to <tt>NULL</tt>, which sorts before every other value
+     *       and takes no space in the stored tuple.</li>
+     *   <li>If the first differing column is a <tt>VARCHAR</tt>, only the
+     *       shortest prefix of the right value that is still greater than
+     *       the left value is kept.</li>
+     * </ul>
+     * <p>
+     * Since the keys are still stored as tuples of the file's schema, inner
+     * pages can hold truncated and untruncated keys side by side.
+     * </p>
+     *
+     * @param schema the schema of the tuples in the B<sup>+</sup> tree file
+     *
+     * @param lastLeft the last tuple stored under the left child page
+     *
+     * @param firstRight the first tuple stored under the right child page
+     *
+     * @return the truncated separator key to store between the two pages
+     */
+    public static TupleLiteral makeSeparatorKey(Schema schema, Tuple lastLeft,
+                                                Tuple firstRight) {
+        int numCols = firstRight.getColumnCount();
+        TupleLiteral key = new TupleLiteral(numCols);
+
+        for (int i = 0; i < numCols; i++) {
+            Object rightVal = firstRight.getColumnValue(i);
+            Object leftVal = lastLeft.getColumnValue(i);
+
+            key.setColumnValue(i, rightVal);
+            if (rightVal == null ? leftVal == null : rightVal.equals(leftVal))
+                continue;
+
+            // This is the first column that differs, so it decides the
+            // ordering of the two tuples; the rest of the key stays NULL.
+            if (leftVal instanceof String && rightVal instanceof String &&
+                schema.getColumnInfo(i).getType().getBaseType() ==
+                SQLDataType.VARCHAR) {
+
+                String leftStr = (String) leftVal;
+                String rightStr = (String) rightVal;
+                for (int len = 1; len < rightStr.length(); len++) {
+                    String prefix = rightStr.substring(0, len);
+                    if (prefix.compareTo(leftStr) > 0) {
+                        key.setColumnValue(i, prefix);
+                        break;
+                    }
+                }
+            }
+
+            break;
+        }
+
+        return key;
+    }
+
+
     /**
      * This private helper scans through the inner page's contents and caches
      * the contents of the inner page in a way that makes it easy to use and
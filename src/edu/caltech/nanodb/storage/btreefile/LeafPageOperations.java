@@ -203,7 +203,11 @@ public class LeafPageOperations {
                  rightSibling.getUsedSpace() + leaf.getSpaceUsedByTuples() <
                  rightSibling.getTotalSpace()) {
 
-            // Coalesce the current node into the right sibling.
+            // Coalesce the right sibling into the current node.  (Going in
+            // this direction means only the current node's next-page
+            // pointer changes.  The leaf before the current node may have a
+            // different parent, so we may not have it loaded, and couldn't
+            // update its next-page pointer.)
             logger.debug("Delete from leaf " + leaf.getPageNo() +
                 ":  coalescing with right sibling leaf.");
 
@@ -211,27 +215,28 @@ public class LeafPageOperations {
                 "tuples and right sibling has %d tuples.",
                 leaf.getNumTuples(), rightSibling.getNumTuples()));
 
-            leaf.moveTuplesRight(rightSibling, leaf.getNumTuples());
-            leftSibling.setNextPageNo(rightPageNo);
+            rightSibling.moveTuplesLeft(leaf, rightSibling.getNumTuples());
+            leaf.setNextPageNo(rightSibling.getNextPageNo());
 
             logger.debug(String.format("After coalesce-right, page has %d " +
                 "tuples and right sibling has %d tuples.",
                 leaf.getNumTuples(), rightSibling.getNumTuples()));
 
-            // Free up the leaf page since it's empty now
-            fileOps.releaseDataPage(leaf.getDBPage());
+            // Free up the right sibling since it's empty now
+            fileOps.releaseDataPage(rightSibling.getDBPage());
 
-            // Since the leaf page has been removed from the index structure,
-            // we need to remove it from the parent page.  Also, since the
-            // page was coalesced into its right sibling, we need to remove
-            // the tuple to the right of the pointer being removed.
+            // Since the right sibling has been removed from the index
+            // structure, we need to remove it from the parent page.  Also,
+            // since the right sibling was coalesced into its left sibling,
+            // we need to remove the tuple to the left of the pointer being
+            // removed.
 
             InnerPage parent =
                 innerPageOps.loadPage(pagePath.get(pagePath.size() - 2));
 
             List<Integer> parentPagePath = pagePath.subList(0, pagePath.size() - 1);
-            innerPageOps.deletePointer(parent, parentPagePath, leafPageNo,
-                /* remove right tuple */ true);
+            innerPageOps.deletePointer(parent, parentPagePath, rightPageNo,
+                /* remove right tuple */ false);
         }
         else {
             // Can't coalesce the leaf node into either sibling.  Redistribute
@@ -307,12 +312,12 @@ public class LeafPageOperations {
             if (adjPage == leftSibling) {
                 adjPage.moveTuplesRight(leaf, tuplesToMove);
                 index = parent.getIndexOfPointer(adjPage.getPageNo());
-                parent.replaceTuple(index, leaf.getTuple(0));
+                parent.replaceTuple(index, makeSeparatorKey(adjPage, leaf));
             }
             else { // adjPage == right sibling
                 adjPage.moveTuplesLeft(leaf, tuplesToMove);
                 index = parent.getIndexOfPointer(leaf.getPageNo());
-                parent.replaceTuple(index, adjPage.getTuple(0));
+                parent.replaceTuple(index, makeSeparatorKey(leaf, adjPage));
             }
         }
     }
@@ -446,10 +451,10 @@ public class LeafPageOperations {
                     // Since we relocated tuples between two nodes, update
                     // the parent page to reflect the tuple that is now at
                     // the start of the right page.
-                    BTreeFilePageTuple firstRightTuple = page.getTuple(0);
+                    TupleLiteral separator = makeSeparatorKey(prevPage, page);
                     pagePath.remove(pathSize - 1);
                     innerPageOps.replaceTuple(parentPage, pagePath,
-                        prevPage.getPageNo(), firstRightTuple, page.getPageNo());
+                        prevPage.getPageNo(), separator, page.getPageNo());
 
                     return result;
                 }
@@ -497,10 +502,10 @@ public class LeafPageOperations {
                     // Since we relocated tuples between two nodes, update
                     // the parent page to reflect the tuple that is now at
                     // the start of the right page.
-                    BTreeFilePageTuple firstRightTuple = nextPage.getTuple(0);
+                    TupleLiteral separator = makeSeparatorKey(page, nextPage);
                     pagePath.remove(pathSize - 1);
                     innerPageOps.replaceTuple(parentPage, pagePath,
-                        page.getPageNo(), firstRightTuple, nextPage.getPageNo());
+                        page.getPageNo(), separator, nextPage.getPageNo());
 
                     return result;
                 }
@@ -633,6 +638,26 @@ public class LeafPageOperations {
     }
 
 
+    /**
+     * This helper function computes the key that the parent of two adjacent
+     * leaf pages should store between them, using the last tuple of the left
+     * leaf and the first tuple of the right leaf.  See
+     * {@link InnerPage#makeSeparatorKey} for details.
+     *
+     * @param leftLeaf the left leaf of the pair; must not be empty
+     *
+     * @param rightLeaf the right leaf of the pair; must not be empty
+     *
+     * @return the separator key to store in the parent page
+     */
+    private TupleLiteral makeSeparatorKey(LeafPage leftLeaf,
+                                          LeafPage rightLeaf) {
+        return InnerPage.makeSeparatorKey(tupleFile.getSchema(),
+            leftLeaf.getTuple(leftLeaf.getNumTuples() - 1),
+            rightLeaf.getTuple(0));
+    }
+
+
     /**
      * This helper function splits the specified leaf-node into two nodes,
      * also updating the parent node in the process, and then inserts the
@@ -685,10 +710,23 @@ public class LeafPageOperations {
             logger.debug("    New next-leaf next-page:  " + newLeaf.getNextPageNo());
         }
 
-        // Figure out how many values we want to move from the old page to the
-        // new page.
+        // If the leaf is the last one in the file and the new tuple goes after
+        // everything in it, the insert is most likely part of a sequence of
+        // increasing keys.  Splitting 50/50 would leave a trail of half-full
+        // leaves behind, so just start the new leaf with the new tuple.
 
         int numTuples = leaf.getNumTuples();
+        boolean appending = (newLeaf.getNextPageNo() == 0 && numTuples > 0 &&
+            TupleComparator.compareTuples(tuple,
+                leaf.getTuple(numTuples - 1)) > 0);
+        if (appending) {
+            logger.debug("New tuple follows all tuples in the last leaf; " +
+                "adding it to the new leaf by itself.");
+            numTuples = 0;
+        }
+
+        // Figure out how many values we want to move from the old page to the
+        // new page.
 
         if (logger.isDebugEnabled()) {
             logger.debug(String.format("Relocating %d tuples from left-leaf %d" +
@@ -697,14 +735,20 @@ public class LeafPageOperations {
             logger.debug("    Old right # of tuples:  " + newLeaf.getNumTuples());
         }
 
-        leaf.moveTuplesRight(newLeaf, numTuples / 2);
-
-        if (logger.isDebugEnabled()) {
-            logger.debug("    New left # of tuples:  " + leaf.getNumTuples());
-            logger.debug("    New right # of tuples:  " + newLeaf.getNumTuples());
+        BTreeFilePageTuple result;
+        if (appending) {
+            result = newLeaf.addTuple(tuple);
         }
+        else {
+            leaf.moveTuplesRight(newLeaf, numTuples / 2);
 
-        BTreeFilePageTuple result = addTupleToLeafPair(leaf, newLeaf, tuple);
+            if (logger.isDebugEnabled()) {
+                logger.debug("    New left # of tuples:  " + leaf.getNumTuples());
+                logger.debug("    New right # of tuples:  " + newLeaf.getNumTuples());
+            }
+
+            result = addTupleToLeafPair(leaf, newLeaf, tuple);
+        }
         if (result == null) {
             // This is unexpected, but we had better report it if it happens.
             throw new IllegalStateException("UNEXPECTED:  Couldn't add " +
@@ -712,8 +756,8 @@ public class LeafPageOperations {
         }
 
         // Since we split the leaf node, we need to update the parent node
-        // with the value of the first tuple from the right leaf.
-        BTreeFilePageTuple firstRightTuple = newLeaf.getTuple(0);
+        // with a key separating the two leaves.
+        TupleLiteral separator = makeSeparatorKey(leaf, newLeaf);
 
         // If the current node doesn't have a parent, it's because it's
         // currently the root.
@@ -723,7 +767,7 @@ public class LeafPageOperations {
             // parent.
             DBPage parentPage = fileOps.getNewDataPage();
             InnerPage.init(parentPage, tupleFile.getSchema(),
-                leaf.getPageNo(), firstRightTuple, newLeaf.getPageNo());
+                leaf.getPageNo(), separator, newLeaf.getPageNo());
 
             int parentPageNo = parentPage.getPageNo();
 
@@ -750,7 +794,7 @@ public class LeafPageOperations {
 
             pagePath.remove(pathSize - 1);
             innerPageOps.addTuple(parentPage, pagePath,
-                leaf.getPageNo(), firstRightTuple, newLeaf.getPageNo());
+                leaf.getPageNo(), separator, newLeaf.getPageNo());
 
             logger.debug("Parent page " + parentPageNo + " now has " +
                 parentPage.getNumPointers() + " page-pointers.");
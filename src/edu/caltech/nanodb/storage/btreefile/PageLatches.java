@@ -0,0 +1,202 @@
+package edu.caltech.nanodb.storage.btreefile;
+
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+
+/**
+ * <p>
+ * This class holds the latches that allow multiple sessions to use a single
+ * B<sup>+</sup> tree tuple file at the same time.  Latches are short-term
+ * locks that protect the physical structure of the file; they are held only
+ * for the duration of a single file operation, and have nothing to do with
+ * transaction-level locking.
+ * </p>
+ * <p>
+ * There are two kinds of latches:
+ * </p>
+ * <ul>
+ * <li>The <em>tree latch</em> protects the shape of the tree:  the header
+ *     page, the inner pages, and the set of leaf pages.  Lookups, scans and
+ *     modifications that stay within a single leaf hold it in shared mode.
+ *     Any operation that splits, merges or redistributes pages holds it in
+ *     exclusive mode.</li>
+ * <li>Each leaf page has its own <em>page latch</em>.  Since the shape of
+ *     the tree can't change while the tree latch is held in shared mode,
+ *     inner pages never change during a shared-mode operation, and the page
+ *     latches only need to protect the contents of individual leaves.
+ *     Readers hold the page latch in shared mode, and writers hold it in
+ *     exclusive mode.</li>
+ * </ul>
+ * <p>
+ * Writers start optimistically, holding the tree latch in shared mode and
+ * the target leaf's page latch in exclusive mode.  If the change can't be
+ * made without modifying the tree structure, the writer releases its
+ * latches and retries with the tree latch held in exclusive mode.  Since
+ * leaves are much larger than a single tuple, almost all inserts and
+ * deletes complete on the optimistic path, and sessions working on
+ * different leaves proceed in parallel.
+ * </p>
+ * <p>
+ * To avoid deadlocks, the tree latch is always acquired before any page
+ * latch, and no thread holds more than one page latch at a time.
+ * </p>
+ * <p>
+ * Both kinds of latches count how many times they have been released from
+ * exclusive mode.  A scan that unlatches a leaf between tuples can compare
+ * these versions to the ones it saw before, to find out whether the tuples
+ * may have moved in the meantime.
+ * </p>
+ */
+class PageLatches {
+    /** A page latch, along with the version of the page's contents. */
+    private static class PageLatch {
+        /** The lock that latches the page. */
+        final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+        /**
+         * This counter is incremented every time the latch is released from
+         * exclusive mode, since the page may have changed.
+         */
+        volatile long version = 0;
+    }
+
+
+    /** The latch protecting the structure of the tree. */
+    private ReentrantReadWriteLock treeLatch = new ReentrantReadWriteLock();
+
+
+    /**
+     * This counter is incremented every time the tree latch is released from
+     * exclusive mode.  Code that remembers page numbers between operations
+     * can compare it to a previously-seen value to find out whether the
+     * tree structure may have changed in the meantime.
+     */
+    private volatile long structureVersion = 0;
+
+
+    /** The latches of individual pages, created on first use. */
+    private ConcurrentHashMap<Integer, PageLatch> pageLatches =
+        new ConcurrentHashMap<Integer, PageLatch>();
+
+
+    /** Acquires the tree latch in shared mode. */
+    public void lockTreeShared() {
+        treeLatch.readLock().lock();
+    }
+
+
+    /** Releases the tree latch from shared mode. */
+    public void unlockTreeShared() {
+        treeLatch.readLock().unlock();
+    }
+
+
+    /** Acquires the tree latch in exclusive mode. */
+    public void lockTreeExclusive() {
+        treeLatch.writeLock().lock();
+    }
+
+
+    /** Releases the tree latch from exclusive mode. */
+    public void unlockTreeExclusive() {
+        structureVersion++;
+        treeLatch.writeLock().unlock();
+    }
+
+
+    /**
+     * Returns the current structure version of the tree.  Callers should
+     * hold the tree latch in shared mode, so that the version can't change
+     * while they use the structure.
+     *
+     * @return the current structure version of the tree
+     */
+    public long getStructureVersion() {
+        return structureVersion;
+    }
+
+
+    /**
+     * Returns true if the current thread holds the tree latch in exclusive
+     * mode.  Page latches are unnecessary in this case, since no other
+     * thread can be using the file.
+     *
+     * @return true if the current thread holds the tree latch exclusively
+     */
+    public boolean holdsTreeExclusive() {
+        return treeLatch.isWriteLockedByCurrentThread();
+    }
+
+
+    private PageLatch getPageLatch(int pageNo) {
+        PageLatch latch = pageLatches.get(pageNo);
+        if (latch == null) {
+            latch = new PageLatch();
+            PageLatch existing =
+                pageLatches.putIfAbsent(pageNo, latch);
+            if (existing != null)
+                latch = existing;
+        }
+        return latch;
+    }
+
+
+    /**
+     * Acquires the specified page's latch in shared mode.
+     *
+     * @param pageNo the page to latch
+     */
+    public void lockPageShared(int pageNo) {
+        getPageLatch(pageNo).lock.readLock().lock();
+    }
+
+
+    /**
+     * Releases the specified page's latch from shared mode.
+     *
+     * @param pageNo the page to unlatch
+     */
+    public void unlockPageShared(int pageNo) {
+        getPageLatch(pageNo).lock.readLock().unlock();
+    }
+
+
+    /**
+     * Acquires the specified page's latch in exclusive mode.
+     *
+     * @param pageNo the page to latch
+     */
+    public void lockPageExclusive(int pageNo) {
+        getPageLatch(pageNo).lock.writeLock().lock();
+    }
+
+
+    /**
+     * Releases the specified page's latch from exclusive mode.
+     *
+     * @param pageNo the page to unlatch
+     */
+    public void unlockPageExclusive(int pageNo) {
+        PageLatch latch = getPageLatch(pageNo);
+        latch.version++;
+        latch.lock.writeLock().unlock();
+    }
+
+
+    /**
+     * Returns the current version of the specified page's contents.  This
+     * only counts changes made with the page latched; changes made with the
+     * tree latched exclusively change the structure version instead.
+     * Callers should hold the page's latch in shared mode, so that the
+     * version can't change while they use the page.
+     *
+     * @param pageNo the page to get the version of
+     *
+     * @return the current version of the page's contents
+     */
+    public long getPageVersion(int pageNo) {
+        return getPageLatch(pageNo).version;
+    }
+}
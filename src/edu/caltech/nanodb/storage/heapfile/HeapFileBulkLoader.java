@@ -0,0 +1,161 @@
+package edu.caltech.nanodb.storage.heapfile;
+
+
+import java.io.IOException;
+
+import org.apache.log4j.Logger;
+
+import edu.caltech.nanodb.relations.TableSchema;
+import edu.caltech.nanodb.relations.Tuple;
+import edu.caltech.nanodb.storage.DBFile;
+import edu.caltech.nanodb.storage.DBPage;
+import edu.caltech.nanodb.storage.PageTuple;
+import edu.caltech.nanodb.storage.StorageManager;
+
+
+/**
+ * <p>
+ * This class appends a large number of tuples to a heap tuple file, filling
+ * new data pages at the end of the file one after another, rather than
+ * adding the tuples one at a time through {@link HeapTupleFile#addTuple}.
+ * Each tuple goes straight into the page currently being filled, without
+ * searching the file for free space, and each page is recorded in the
+ * write-ahead log once, when it is full, instead of once for every tuple
+ * stored in it.  Since the pages are new, each log record holds the page's
+ * entire contents.
+ * </p>
+ * <p>
+ * Free space in the file's existing pages isn't reused.  The loader doesn't
+ * fire any row events either, so the caller is responsible for checking
+ * the table's constraints and updating its indexes.
+ * </p>
+ */
+public class HeapFileBulkLoader {
+    /** A logging object for reporting anything interesting that happens. */
+    private static Logger logger = Logger.getLogger(HeapFileBulkLoader.class);
+
+
+    /** The storage manager to use for loading pages and logging writes. */
+    private StorageManager storageManager;
+
+
+    /** The heap tuple file being appended to. */
+    private HeapTupleFile tupleFile;
+
+
+    /** The data page currently being filled, or null if there is none. */
+    private DBPage currentPage;
+
+
+    /** The number of data pages that the loader has filled. */
+    private int pagesWritten;
+
+
+    /** The number of tuples that the loader has added to the file. */
+    private int tuplesAdded;
+
+
+    /**
+     * Initialize a bulk-loader for the specified heap tuple file.
+     *
+     * @param storageManager the storage manager to use for page access
+     * @param tupleFile the tuple file to append to
+     */
+    public HeapFileBulkLoader(StorageManager storageManager,
+                              HeapTupleFile tupleFile) {
+        if (storageManager == null)
+            throw new IllegalArgumentException("storageManager cannot be null");
+
+        if (tupleFile == null)
+            throw new IllegalArgumentException("tupleFile cannot be null");
+
+        this.storageManager = storageManager;
+        this.tupleFile = tupleFile;
+    }
+
+
+    public int getPagesWritten() {
+        return pagesWritten;
+    }
+
+
+    public int getTuplesAdded() {
+        return tuplesAdded;
+    }
+
+
+    /**
+     * Stores a tuple into the data page being filled, starting a new page at
+     * the end of the file if the tuple doesn't fit in the current one.  The
+     * returned tuple is pinned, so the caller must unpin it when it is
+     * finished with it.
+     *
+     * @param tup the tuple to store
+     *
+     * @return the stored tuple
+     *
+     * @throws IOException if the tuple is larger than a page, or if an IO
+     *         error occurs while starting a new page or logging a full one
+     */
+    public HeapFilePageTuple addTuple(Tuple tup) throws IOException {
+        TableSchema schema = tupleFile.getSchema();
+        DBFile dbFile = tupleFile.getDBFile();
+
+        int tupSize = PageTuple.getTupleStorageSize(schema, tup);
+
+        // The "+ 2" is for the tuple's slot entry.
+        if (tupSize + 2 > dbFile.getPageSize()) {
+            throw new IOException("Tuple size " + tupSize +
+                " is larger than page size " + dbFile.getPageSize() + ".");
+        }
+
+        // New pages never have empty slots to reuse, so a page that has all
+        // of its slots is full.
+        if (currentPage != null &&
+            (DataPage.getFreeSpaceInPage(currentPage) < tupSize + 2 ||
+             DataPage.getNumSlots(currentPage) >= tupleFile.getMaxSlotsPerPage())) {
+            finishPage();
+        }
+
+        if (currentPage == null) {
+            int pageNo = dbFile.getNumPages();
+            logger.debug("Starting new page " + pageNo + " of file " + dbFile);
+
+            currentPage = storageManager.loadDBPage(dbFile, pageNo, true);
+            DataPage.initNewPage(currentPage);
+        }
+
+        int slot = DataPage.allocNewTuple(currentPage, tupSize);
+        int tupOffset = DataPage.getSlotValue(currentPage, slot);
+
+        tuplesAdded++;
+        return HeapFilePageTuple.storeNewTuple(schema, currentPage, slot,
+            tupOffset, tup);
+    }
+
+
+    /**
+     * Logs and releases the data page that is being filled, if there is one.
+     * This must be called once all of the tuples have been added.
+     *
+     * @throws IOException if an IO error occurs while logging the page
+     */
+    public void finish() throws IOException {
+        if (currentPage != null)
+            finishPage();
+
+        logger.debug(String.format("Bulk-loaded %d tuples into %d pages of %s.",
+            tuplesAdded, pagesWritten, tupleFile.getDBFile()));
+    }
+
+
+    /** Logs the current data page to the write-ahead log and releases it. */
+    private void finishPage() throws IOException {
+        DataPage.sanityCheck(currentPage);
+        storageManager.logDBPageWrite(currentPage);
+
+        currentPage.unpin();
+        currentPage = null;
+        pagesWritten++;
+    }
+}
@@ -10,9 +10,11 @@ import java.util.Map;
 
 import org.apache.log4j.Logger;
 
+import edu.caltech.nanodb.expressions.TupleLiteral;
 import edu.caltech.nanodb.qeval.ColumnStats;
 import edu.caltech.nanodb.qeval.ColumnStatsCollector;
 import edu.caltech.nanodb.qeval.TableStats;
+import edu.caltech.nanodb.relations.ColumnInfo;
 import edu.caltech.nanodb.relations.TableSchema;
 import edu.caltech.nanodb.relations.Tuple;
 
@@ -62,6 +64,13 @@ public class HeapTupleFile implements TupleFile {
     private DBFile dbFile;
 
 
+    /**
+     * The most slots that a data page of this file may have.  Each data page
+     * gets this many row IDs; see {@link #getRowId}.
+     */
+    private int maxSlotsPerPage;
+
+
     public HeapTupleFile(StorageManager storageManager,
                          HeapTupleFileManager heapFileManager, DBFile dbFile,
                          TableSchema schema, TableStats stats) {
@@ -85,6 +94,34 @@ public class HeapTupleFile implements TupleFile {
         this.dbFile = dbFile;
         this.schema = schema;
         this.stats = stats;
+
+        computeMaxSlots();
+    }
+
+
+    /**
+     * Works out how many slots a data page of this file can need, from the
+     * smallest tuple the schema allows, and sets {@link #maxSlotsPerPage} to
+     * match.  The smallest tuple is taken to have
+     * every column set, and empty <tt>VARCHAR</tt> values; tuples with
+     * <tt>NULL</tt> values can be smaller, so pages full of them may be left
+     * with some unused space.
+     */
+    private void computeMaxSlots() {
+        int minTupleSize = PageTuple.getNullFlagsSize(schema.numColumns());
+        for (ColumnInfo colInfo : schema.getColumnInfos()) {
+            try {
+                minTupleSize += PageTuple.getStorageSize(colInfo.getType(), 0);
+            }
+            catch (UnsupportedOperationException e) {
+                // Such columns can only ever be NULL.
+            }
+        }
+
+        // Each tuple also needs a 2-byte slot, and the page starts with the
+        // 2-byte count of slots.
+        maxSlotsPerPage =
+            Math.max((dbFile.getPageSize() - 2) / (minTupleSize + 2), 1);
     }
 
 
@@ -110,6 +147,83 @@ public class HeapTupleFile implements TupleFile {
     }
 
 
+    /**
+     * Returns a dense row ID for a tuple in this file, for uses such as the
+     * positions in a bitmap index.  Each data page has
+     * {@link #maxSlotsPerPage} row IDs, so the ID is the tuple's data page
+     * number, counting from 0, times that many, plus its slot number.  Row
+     * IDs only skip numbers for slots that pages don't use.
+     *
+     * @param fptr the file-pointer to the tuple, as returned by
+     *        {@link PageTuple#getExternalReference}
+     *
+     * @return the row ID of the tuple
+     */
+    public int getRowId(FilePointer fptr) {
+        // The inverse of DataPage.getSlotOffset().
+        int slot = fptr.getOffset() / 2 - 1;
+        if (fptr.getPageNo() < 1 || slot < 0 || slot >= maxSlotsPerPage) {
+            throw new IllegalArgumentException(
+                "File-pointer doesn't refer to a tuple slot:  " + fptr);
+        }
+
+        long rowId = (long) (fptr.getPageNo() - 1) * maxSlotsPerPage + slot;
+        if (rowId > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException(
+                "File-pointer is beyond the range of row IDs:  " + fptr);
+        }
+
+        return (int) rowId;
+    }
+
+
+    /**
+     * Returns the file-pointer to the tuple with a row ID from
+     * {@link #getRowId}.
+     *
+     * @param rowId the row ID of the tuple
+     *
+     * @return a file-pointer to the tuple
+     */
+    public FilePointer getFilePointer(int rowId) {
+        int pageNo = rowId / maxSlotsPerPage + 1;
+        int slot = rowId % maxSlotsPerPage;
+        return new FilePointer(pageNo, DataPage.getSlotOffset(slot));
+    }
+
+
+    /**
+     * Returns the most slots that a data page of this file may have.
+     *
+     * @return the most slots that a data page of this file may have
+     */
+    int getMaxSlotsPerPage() {
+        return maxSlotsPerPage;
+    }
+
+
+    /**
+     * Returns true if a new tuple can go into a data page without the page
+     * having more than {@link #maxSlotsPerPage} slots, either because the
+     * page has an empty slot or because it can add another one.
+     *
+     * @param dbPage the data page to check
+     *
+     * @return true if a new tuple can be given a slot in the page
+     */
+    private boolean hasFreeSlot(DBPage dbPage) {
+        int numSlots = DataPage.getNumSlots(dbPage);
+        if (numSlots < maxSlotsPerPage)
+            return true;
+
+        for (int slot = 0; slot < numSlots; slot++) {
+            if (DataPage.getSlotValue(dbPage, slot) == DataPage.EMPTY_SLOT)
+                return true;
+        }
+        return false;
+    }
+
+
     /**
      * Returns the first tuple in this table file, or <tt>null</tt> if
      * there are no tuples in the file.
@@ -154,6 +268,45 @@ public class HeapTupleFile implements TupleFile {
     }
 
 
+    /**
+     * Returns copies of all the tuples in one data page, in slot order.  The
+     * page is only pinned while the tuples are copied, so ranges of pages can
+     * be scanned independently this way, even by several threads at once.
+     *
+     * @param pageNo the number of the data page, which must be at least 1
+     *
+     * @return copies of the tuples in the page
+     *
+     * @throws EOFException if the page doesn't exist
+     * @throws IOException if an IO error occurs while loading the page
+     */
+    public List<TupleLiteral> getPageTuples(int pageNo) throws IOException {
+        if (pageNo < 1)
+            throw new IllegalArgumentException("pageNo must be at least 1");
+
+        ArrayList<TupleLiteral> tuples = new ArrayList<TupleLiteral>();
+        DBPage dbPage = storageManager.loadDBPage(dbFile, pageNo);
+        try {
+            int numSlots = DataPage.getNumSlots(dbPage);
+            for (int iSlot = 0; iSlot < numSlots; iSlot++) {
+                int offset = DataPage.getSlotValue(dbPage, iSlot);
+                if (offset == DataPage.EMPTY_SLOT)
+                    continue;
+
+                HeapFilePageTuple ptup =
+                    new HeapFilePageTuple(schema, dbPage, iSlot, offset);
+                tuples.add(new TupleLiteral(ptup));
+                ptup.unpin();
+            }
+        }
+        finally {
+            dbPage.unpin();
+        }
+
+        return tuples;
+    }
+
+
     /**
      * Returns the tuple corresponding to the specified file pointer.  This
      * method is used by many other operations in the database, such as
@@ -326,8 +479,9 @@ public class HeapTupleFile implements TupleFile {
 
             // If this page has enough free space to add a new tuple, break
             // out of the loop.  (The "+ 2" is for the new slot entry we will
-            // also need.)
-            if (freeSpace >= tupSize + 2) {
+            // also need.)  The page must also have a slot to give the tuple,
+            // so that its row ID stays within the page's range of row IDs.
+            if (freeSpace >= tupSize + 2 && hasFreeSlot(dbPage)) {
                 logger.debug("Found space for new tuple in page " + pageNo + ".");
                 break;
             }
@@ -17,6 +17,7 @@ import edu.caltech.nanodb.server.properties.UnrecognizedPropertyException;
 import edu.caltech.nanodb.client.SessionState;
 
 import edu.caltech.nanodb.server.EventDispatcher;
+import edu.caltech.nanodb.server.performance.PerformanceCounters;
 
 import edu.caltech.nanodb.storage.BufferManager;
 import edu.caltech.nanodb.storage.BufferManagerObserver;
@@ -338,6 +339,7 @@ public class TransactionManager implements BufferManagerObserver {
         if (txnState.hasLoggedTxnStart()) {
             // Must record the transaction as committed to the write-ahead log.
             // Then, we must force the WAL to include this commit record.
+            long startTime = System.nanoTime();
             try {
                 walManager.writeTxnRecord(WALRecordType.COMMIT_TXN);
                 forceWAL(walManager.getNextLSN());
@@ -346,6 +348,9 @@ public class TransactionManager implements BufferManagerObserver {
                 throw new TransactionException("Couldn't commit transaction " +
                     txnID + "!", e);
             }
+            PerformanceCounters.recordLatency(
+                PerformanceCounters.TXN_COMMIT_TIME,
+                System.nanoTime() - startTime);
         }
         else {
             logger.debug("Transaction " + txnID + " has made no changes; not " +
@@ -470,6 +475,7 @@ public class TransactionManager implements BufferManagerObserver {
         // Flush all dirty pages for the write-ahead log, then sync the WAL to
         // disk.
 
+        long startTime = System.nanoTime();
         BufferManager bufferManager = storageManager.getBufferManager();
 
         // Go through all WAL files that we need to sync the entirety of, and
@@ -508,6 +514,9 @@ public class TransactionManager implements BufferManagerObserver {
             WALManager.computeNextLSN(lsn.getLogFileNo(), lastPosition);
         storeTxnStateToFile();
 
+        PerformanceCounters.recordLatency(PerformanceCounters.WAL_FORCE_TIME,
+            System.nanoTime() - startTime);
+
         logger.debug(String.format("WAL was successfully forced to LSN %s " +
             "(plus %d bytes)", lsn, lsn.getRecordSize()));
     }
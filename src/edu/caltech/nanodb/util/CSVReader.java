@@ -0,0 +1,218 @@
+package edu.caltech.nanodb.util;
+
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * <p>
+ * This class reads comma-separated values from a character stream one
+ * record at a time, so that files of any size can be read without holding
+ * more than a record in memory.  The format is the usual one:
+ * </p>
+ * <ul>
+ *   <li>Records end with <tt>\n</tt>, <tt>\r\n</tt> or <tt>\r</tt>.</li>
+ *   <li>Fields are separated by the delimiter, which is a comma unless
+ *       specified otherwise.</li>
+ *   <li>A field may be enclosed in double quotes, in which case it can
+ *       contain delimiters, line breaks and doubled quotes <tt>""</tt>,
+ *       which stand for a single quote.</li>
+ * </ul>
+ * <p>
+ * A field that is empty and not quoted is read as <tt>null</tt>, so that it
+ * can stand for <tt>NULL</tt>; an empty string must be written as
+ * <tt>""</tt>.
+ * </p>
+ */
+public class CSVReader {
+
+    /** The number of characters read from the stream at a time. */
+    private static final int BUFFER_SIZE = 65536;
+
+
+    private Reader in;
+
+
+    /** The character that separates fields. */
+    private char delimiter;
+
+
+    /** The characters most recently read from the stream. */
+    private char[] buffer = new char[BUFFER_SIZE];
+
+
+    /** The position of the next character to use in {@link #buffer}. */
+    private int position = 0;
+
+
+    /** The number of characters in {@link #buffer}. */
+    private int limit = 0;
+
+
+    /** The line that the next character is on, counting from 1. */
+    private int lineNumber = 1;
+
+
+    /** The line that the most recently read record started on. */
+    private int recordLineNumber = 0;
+
+
+    /** Builds up each field's value. */
+    private StringBuilder field = new StringBuilder();
+
+
+    public CSVReader(Reader in, char delimiter) {
+        if (in == null)
+            throw new IllegalArgumentException("in cannot be null");
+
+        if (delimiter == '"' || delimiter == '\r' || delimiter == '\n') {
+            throw new IllegalArgumentException(
+                "delimiter cannot be a quote or a line break");
+        }
+
+        this.in = in;
+        this.delimiter = delimiter;
+    }
+
+
+    public CSVReader(Reader in) {
+        this(in, ',');
+    }
+
+
+    /**
+     * Returns the line that the most recently read record started on, for
+     * reporting problems with the record.
+     *
+     * @return the line that the most recently read record started on,
+     *         counting from 1, or 0 if no record has been read
+     */
+    public int getRecordLineNumber() {
+        return recordLineNumber;
+    }
+
+
+    /**
+     * Reads the next record from the stream.
+     *
+     * @return the record's fields, with <tt>null</tt> for the fields that
+     *         are empty and not quoted, or <tt>null</tt> if the stream has
+     *         no more records
+     *
+     * @throws IOException if an IO error occurs, or if a quoted field is
+     *         malformed
+     */
+    public List<String> readRecord() throws IOException {
+        int ch = read();
+        if (ch == -1)
+            return null;
+
+        recordLineNumber = lineNumber;
+        ArrayList<String> record = new ArrayList<String>();
+        while (true) {
+            field.setLength(0);
+            if (ch == '"') {
+                ch = readQuotedField();
+                record.add(field.toString());
+            }
+            else {
+                while (ch != -1 && ch != delimiter && ch != '\r' && ch != '\n') {
+                    field.append((char) ch);
+                    ch = read();
+                }
+                record.add(field.length() > 0 ? field.toString() : null);
+            }
+
+            if (ch == delimiter) {
+                ch = read();
+                continue;
+            }
+
+            // The record ends at a line break or the end of the stream.
+            if (ch == '\r' && peek() == '\n')
+                read();
+
+            if (ch != -1)
+                lineNumber++;
+
+            return record;
+        }
+    }
+
+
+    /**
+     * Reads a quoted field into {@link #field}, after its opening quote has
+     * been read.
+     *
+     * @return the character after the closing quote
+     *
+     * @throws IOException if an IO error occurs, or if the field isn't
+     *         closed, or is followed by something other than a delimiter or
+     *         the end of the record
+     */
+    private int readQuotedField() throws IOException {
+        while (true) {
+            int ch = read();
+            if (ch == -1) {
+                throw new IOException("Line " + recordLineNumber +
+                    ":  quoted field is never closed");
+            }
+
+            if (ch == '"') {
+                if (peek() != '"')
+                    break;
+
+                // A doubled quote stands for a quote in the value.
+                read();
+            }
+            else if (ch == '\n' || (ch == '\r' && peek() != '\n')) {
+                lineNumber++;
+            }
+
+            field.append((char) ch);
+        }
+
+        int ch = read();
+        if (ch != -1 && ch != delimiter && ch != '\r' && ch != '\n') {
+            throw new IOException("Line " + lineNumber +
+                ":  unexpected character after a quoted field");
+        }
+        return ch;
+    }
+
+
+    private int read() throws IOException {
+        if (position == limit && !fill())
+            return -1;
+
+        return buffer[position++];
+    }
+
+
+    private int peek() throws IOException {
+        if (position == limit && !fill())
+            return -1;
+
+        return buffer[position];
+    }
+
+
+    private boolean fill() throws IOException {
+        limit = in.read(buffer, 0, buffer.length);
+        position = 0;
+
+        if (limit <= 0) {
+            limit = 0;
+            return false;
+        }
+        return true;
+    }
+
+
+    public void close() throws IOException {
+        in.close();
+    }
+}
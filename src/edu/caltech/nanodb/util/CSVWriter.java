@@ -0,0 +1,148 @@
+package edu.caltech.nanodb.util;
+
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.util.List;
+
+
+/**
+ * This class writes comma-separated values to a channel, in the format that
+ * {@link CSVReader} reads.  <tt>null</tt> values are written as empty
+ * fields, and values are quoted if they contain the delimiter, a quote or a
+ * line break, or if they are empty strings.  Records end with <tt>\n</tt>.
+ * <p>
+ * Records are encoded as UTF-8 into a buffer, which is written to the
+ * channel whenever it fills up, so the channel sees a few large writes
+ * rather than many small ones.  {@link #flush} or {@link #close} must be
+ * called once all the records have been written.
+ */
+public class CSVWriter {
+
+    /** The number of bytes buffered before they are written to the channel. */
+    private static final int BUFFER_SIZE = 65536;
+
+
+    private WritableByteChannel channel;
+
+
+    /** The character that separates fields. */
+    private char delimiter;
+
+
+    private CharsetEncoder encoder = Charset.forName("UTF-8").newEncoder();
+
+
+    /** Builds up each record's text before it is encoded. */
+    private StringBuilder record = new StringBuilder();
+
+
+    /** The encoded records that haven't been written to the channel. */
+    private ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+
+    public CSVWriter(WritableByteChannel channel, char delimiter) {
+        if (channel == null)
+            throw new IllegalArgumentException("channel cannot be null");
+
+        if (delimiter == '"' || delimiter == '\r' || delimiter == '\n') {
+            throw new IllegalArgumentException(
+                "delimiter cannot be a quote or a line break");
+        }
+
+        this.channel = channel;
+        this.delimiter = delimiter;
+    }
+
+
+    public CSVWriter(WritableByteChannel channel) {
+        this(channel, ',');
+    }
+
+
+    /**
+     * Writes a record.  Each value is written using its <tt>toString()</tt>
+     * method.
+     *
+     * @param values the values of the record's fields
+     *
+     * @throws IOException if an IO error occurs while writing to the channel
+     */
+    public void writeRecord(List<?> values) throws IOException {
+        record.setLength(0);
+        boolean first = true;
+        for (Object value : values) {
+            if (first)
+                first = false;
+            else
+                record.append(delimiter);
+
+            if (value != null)
+                appendField(value.toString());
+        }
+        record.append('\n');
+
+        CharBuffer chars = CharBuffer.wrap(record);
+        while (true) {
+            CoderResult result = encoder.encode(chars, buffer, true);
+            if (result.isUnderflow())
+                break;
+
+            if (result.isOverflow())
+                writeBuffer();
+            else
+                result.throwException();
+        }
+        encoder.reset();
+    }
+
+
+    private void appendField(String value) {
+        boolean quote = value.isEmpty();
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char ch = value.charAt(i);
+            quote = (ch == delimiter || ch == '"' || ch == '\r' || ch == '\n');
+        }
+
+        if (!quote) {
+            record.append(value);
+            return;
+        }
+
+        record.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char ch = value.charAt(i);
+            if (ch == '"')
+                record.append('"');
+
+            record.append(ch);
+        }
+        record.append('"');
+    }
+
+
+    /** Writes the buffered records to the channel. */
+    public void flush() throws IOException {
+        writeBuffer();
+    }
+
+
+    /** Writes the buffered records to the channel, and closes it. */
+    public void close() throws IOException {
+        flush();
+        channel.close();
+    }
+
+
+    private void writeBuffer() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+        buffer.clear();
+    }
+}
@@ -0,0 +1,163 @@
+package edu.caltech.test.nanodb.indexes;
+
+
+import java.util.ArrayList;
+
+import org.testng.annotations.Test;
+
+import edu.caltech.nanodb.commands.SelectClause;
+import edu.caltech.nanodb.commands.SelectCommand;
+import edu.caltech.nanodb.expressions.TupleLiteral;
+import edu.caltech.nanodb.plans.PlanNode;
+import edu.caltech.nanodb.qeval.PlannerFactory;
+import edu.caltech.nanodb.relations.ColumnRefs;
+import edu.caltech.nanodb.relations.TableInfo;
+import edu.caltech.nanodb.server.CommandResult;
+import edu.caltech.nanodb.storage.StorageManager;
+import edu.caltech.nanodb.storage.TableManager;
+
+import edu.caltech.test.nanodb.sql.SqlTestCase;
+
+
+/**
+ * This class exercises indexes with included (non-key) columns, and the
+ * index-only scans that the planner makes from them.
+ */
+@Test
+public class TestIncludedColumns extends SqlTestCase {
+
+    /** The number of rows in the test tables; column a holds 0 .. NUM_ROWS-1. */
+    private static final int NUM_ROWS = 500;
+
+
+    private void createTable(String tableName) throws Exception {
+        tryDoCommand("CREATE TABLE " + tableName +
+            " (a INTEGER, b VARCHAR(30), c INTEGER);", false);
+
+        for (int i = 0; i < NUM_ROWS; i++) {
+            tryDoCommand(String.format(
+                "INSERT INTO %s VALUES (%d, 'row %d', %d);",
+                tableName, (i * 7) % NUM_ROWS, i, i), false);
+        }
+    }
+
+
+    /** Returns the plan that the planner makes for a query. */
+    private String getPlan(String query) throws Exception {
+        SelectClause selClause =
+            ((SelectCommand) server.parseCommand(query)).getSelectClause();
+
+        StorageManager storageManager = server.getStorageManager();
+        selClause.computeSchema(storageManager.getTableManager());
+        PlanNode plan =
+            PlannerFactory.getPlanner(storageManager).makePlan(selClause, null);
+
+        return PlanNode.printNodeTreeToString(plan, false);
+    }
+
+
+    /** Makes the expected (a, c) row for a value of column a. */
+    private TupleLiteral row(int a, int c) {
+        TupleLiteral tup = new TupleLiteral();
+        tup.addValue(a);
+        tup.addValue(c);
+        return tup;
+    }
+
+
+    /**
+     * Returns the (a, c) rows whose a value falls in the specified range.
+     * The row with a = {@code skip} is left out, and the row with
+     * a = {@code changedA} gets {@code changedC} for its c value.
+     */
+    private TupleLiteral[] expected(int lower, int upper, int skip,
+                                    int changedA, int changedC) {
+        ArrayList<TupleLiteral> rows = new ArrayList<TupleLiteral>();
+
+        for (int i = 0; i < NUM_ROWS; i++) {
+            int a = (i * 7) % NUM_ROWS;
+            if (a < lower || a > upper || a == skip)
+                continue;
+
+            rows.add(row(a, a == changedA ? changedC : i));
+        }
+        return rows.toArray(new TupleLiteral[rows.size()]);
+    }
+
+
+    /**
+     * Checks that queries using only the key and included columns are
+     * answered from the index, with correct results, and that the results
+     * follow updates and deletes on the table.
+     *
+     * @throws Exception if any issues occur.
+     */
+    public void testIndexOnlyScans() throws Exception {
+        createTable("include_scan");
+        tryDoCommand("CREATE INDEX idx_include_scan ON include_scan (a) " +
+            "INCLUDE (c);", false);
+
+        String rangeQuery =
+            "SELECT a, c FROM include_scan WHERE a >= 100 AND a < 150;";
+        String equalityQuery = "SELECT c, a FROM include_scan WHERE 77 = a;";
+
+        assert getPlan(rangeQuery).contains("index-only");
+        assert getPlan(equalityQuery).contains("index-only");
+
+        // Column b isn't stored in the index, and without a predicate on the
+        // key the index isn't used at all.
+        assert !getPlan("SELECT a, b FROM include_scan WHERE a = 77;")
+            .contains("IndexScan");
+        assert !getPlan("SELECT a, c FROM include_scan WHERE c = 77;")
+            .contains("IndexScan");
+
+        CommandResult result = tryDoCommand(rangeQuery, true);
+        assert checkUnorderedResults(expected(100, 149, -1, -1, -1), result);
+
+        result = tryDoCommand(equalityQuery, true);
+        assert result.getTuples().size() == 1;
+        assert result.getTuples().get(0).getColumnValue(1).equals(77);
+
+        // Changes to the table must show up in the included columns.
+        tryDoCommand("UPDATE include_scan SET c = -1 WHERE a = 120;", false);
+        tryDoCommand("DELETE FROM include_scan WHERE a = 121;", false);
+
+        result = tryDoCommand(rangeQuery, true);
+        assert checkUnorderedResults(expected(100, 149, 121, 120, -1), result);
+    }
+
+
+    /**
+     * Checks that the included columns of an index are stored in the table
+     * schema, and that invalid included columns are rejected.
+     *
+     * @throws Exception if any issues occur.
+     */
+    public void testIncludedColumnsDefinition() throws Exception {
+        tryDoCommand("CREATE TABLE include_def " +
+            "(a INTEGER, b VARCHAR(30), c INTEGER);", false);
+        tryDoCommand("CREATE INDEX idx_include_def ON include_def (a) " +
+            "INCLUDE (c, b);", false);
+
+        TableManager tableManager = server.getStorageManager().getTableManager();
+        TableInfo tableInfo = tableManager.openTable("INCLUDE_DEF");
+        tableManager.closeTable(tableInfo);
+        tableInfo = tableManager.openTable("INCLUDE_DEF");
+
+        ColumnRefs colRefs =
+            tableInfo.getSchema().getIndexes().get("IDX_INCLUDE_DEF");
+        int[] includedCols = colRefs.getIncludedCols();
+        assert includedCols.length == 2;
+        assert includedCols[0] == 2 && includedCols[1] == 1;
+
+        // Key columns can't also be included columns.
+        CommandResult result = server.doCommand("CREATE INDEX idx_include_bad " +
+            "ON include_def (a, b) INCLUDE (b);", false);
+        assert result.failed();
+
+        // Bitmap indexes don't have leaf entries to store the columns in.
+        result = server.doCommand("CREATE BITMAP INDEX idx_include_bitmap " +
+            "ON include_def (b) INCLUDE (c);", false);
+        assert result.failed();
+    }
+}
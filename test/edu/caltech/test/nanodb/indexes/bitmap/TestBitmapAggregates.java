@@ -0,0 +1,144 @@
+package edu.caltech.test.nanodb.indexes.bitmap;
+
+import edu.caltech.nanodb.commands.SelectClause;
+import edu.caltech.nanodb.commands.SelectCommand;
+import edu.caltech.nanodb.expressions.TupleLiteral;
+import edu.caltech.nanodb.plans.PlanNode;
+import edu.caltech.nanodb.qeval.PlannerFactory;
+import edu.caltech.nanodb.server.CommandResult;
+import edu.caltech.nanodb.storage.StorageManager;
+import edu.caltech.test.nanodb.sql.SqlTestCase;
+import org.testng.annotations.Test;
+
+import java.util.Random;
+
+
+/**
+ * Tests counts and grouping that are computed from bitmap indexes, without reading the table.
+ * Queries should give the same result as the same query on a table without bitmap indexes.
+ */
+@Test
+public class TestBitmapAggregates extends SqlTestCase {
+
+    /** The number of rows in the test tables. */
+    private static final int NUM_ROWS = 400;
+
+    /** Queries that bitmap indexes can answer on their own; %s is the table name. */
+    private static final String[] QUERIES = {
+        "SELECT COUNT(*) FROM %s;",
+        "SELECT COUNT(*) FROM %s WHERE a = 1 AND b = 'q';",
+        "SELECT a, COUNT(*) FROM %s GROUP BY a;",
+        "SELECT b, COUNT(a), COUNT(DISTINCT c) FROM %s WHERE a > 2 GROUP BY b;",
+        "SELECT a, b, COUNT(*) FROM %s WHERE c IS NOT NULL GROUP BY a, b;",
+        "SELECT COUNT(DISTINCT a), COUNT(b) FROM %s WHERE c < 3 OR b IN ('p', 'r');",
+        "SELECT a, COUNT(*) AS n FROM %s GROUP BY a HAVING COUNT(*) > 60;",
+        "SELECT COUNT(*) + 1 FROM %s WHERE a IS NULL;",
+        "SELECT COUNT(a) FROM %s WHERE a IS NULL;",
+        "SELECT b, COUNT(a), COUNT(DISTINCT a) FROM %s WHERE a IS NULL GROUP BY b;",
+        "SELECT COUNT(*) FROM %s WHERE a > 1000;",
+        "SELECT c FROM %s GROUP BY c;",
+    };
+
+
+    private void createTables() throws Exception {
+        String columns = " (a INTEGER, b VARCHAR(10), c DOUBLE, d INTEGER);";
+        tryDoCommand("CREATE TABLE bitmap_counts" + columns, false);
+        tryDoCommand("CREATE TABLE bitmap_counts_noindex" + columns, false);
+
+        Random rand = new Random(4321);
+        String[] bValues = {"'p'", "'q'", "'r'", "NULL"};
+        for (int i = 0; i < NUM_ROWS; i++) {
+            String a = (i % 17 == 0) ? "NULL" : Integer.toString(rand.nextInt(6));
+            String b = bValues[rand.nextInt(bValues.length)];
+            String c = (i % 11 == 0) ? "NULL" : Double.toString(rand.nextInt(5) / 2.0);
+
+            String values = String.format(" VALUES (%s, %s, %s, %d);", a, b, c, i);
+            tryDoCommand("INSERT INTO bitmap_counts" + values, false);
+            tryDoCommand("INSERT INTO bitmap_counts_noindex" + values, false);
+        }
+
+        tryDoCommand("CREATE BITMAP INDEX ON bitmap_counts (a);", false);
+        tryDoCommand("CREATE BITMAP INDEX ON bitmap_counts (b);", false);
+        tryDoCommand("CREATE BITMAP INDEX ON bitmap_counts (c);", false);
+    }
+
+
+    /** Returns the plan that the planner makes for a query. */
+    private String getPlan(String query) throws Exception {
+        SelectClause selClause =
+            ((SelectCommand) server.parseCommand(query)).getSelectClause();
+
+        StorageManager storageManager = server.getStorageManager();
+        selClause.computeSchema(storageManager.getTableManager());
+        PlanNode plan =
+            PlannerFactory.getPlanner(storageManager).makePlan(selClause, null);
+
+        return PlanNode.printNodeTreeToString(plan, false);
+    }
+
+
+    private void checkQueries() throws Exception {
+        for (String query : QUERIES) {
+            String indexed = String.format(query, "bitmap_counts");
+            String plan = getPlan(indexed);
+            assert plan.contains("BitmapGroupAggregate") : query;
+            assert !plan.contains("FileScan") : query;
+
+            CommandResult expected =
+                tryDoCommand(String.format(query, "bitmap_counts_noindex"), true);
+            CommandResult actual = tryDoCommand(indexed, true);
+
+            assert checkUnorderedResults(expected.getTuples().toArray(
+                new TupleLiteral[expected.getTuples().size()]), actual) : query;
+        }
+    }
+
+
+    /**
+     * Checks counts with and without grouping and predicates, before and after changes to the
+     * table.
+     *
+     * @throws Exception if any issues occur.
+     */
+    public void testBitmapCounts() throws Exception {
+        createTables();
+        checkQueries();
+
+        String[] changes = {
+            "UPDATE %s SET a = NULL WHERE a = 4 AND d < 200;",
+            "UPDATE %s SET b = 's' WHERE b = 'p';",
+            "DELETE FROM %s WHERE a = 2 OR c = 1;",
+            "INSERT INTO %s VALUES (7, 'q', NULL, 1000);",
+        };
+        for (String change : changes) {
+            tryDoCommand(String.format(change, "bitmap_counts"), false);
+            tryDoCommand(String.format(change, "bitmap_counts_noindex"), false);
+        }
+        checkQueries();
+    }
+
+
+    /**
+     * Checks that aggregates, grouping and predicates that the indexes can't answer are still
+     * computed by reading the table.
+     *
+     * @throws Exception if any issues occur.
+     */
+    public void testUnsupportedAggregates() throws Exception {
+        tryDoCommand("CREATE TABLE bitmap_counts_other (a INTEGER, d INTEGER);", false);
+        tryDoCommand("INSERT INTO bitmap_counts_other VALUES (1, 2);", false);
+        tryDoCommand("CREATE BITMAP INDEX ON bitmap_counts_other (a);", false);
+
+        String[] queries = {
+            "SELECT SUM(a) FROM bitmap_counts_other;",
+            "SELECT COUNT(d) FROM bitmap_counts_other;",
+            "SELECT d, COUNT(*) FROM bitmap_counts_other GROUP BY d;",
+            "SELECT COUNT(*) FROM bitmap_counts_other WHERE d = 2;",
+            "SELECT COUNT(*) FROM bitmap_counts_other AS t WHERE a = 1;",
+        };
+        for (String query : queries) {
+            assert !getPlan(query).contains("BitmapGroupAggregate") : query;
+            assert tryDoCommand(query, true).getTuples().size() == 1 : query;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package edu.caltech.test.nanodb.indexes.bitmap;
+
+import edu.caltech.nanodb.expressions.TupleLiteral;
+import edu.caltech.nanodb.indexes.bitmapindex.BitmapCache;
+import edu.caltech.nanodb.server.CommandResult;
+import edu.caltech.nanodb.server.performance.PerformanceCounters;
+import edu.caltech.nanodb.server.properties.PropertyRegistry;
+import edu.caltech.test.nanodb.sql.SqlTestCase;
+import org.testng.annotations.Test;
+
+
+/**
+ * Tests that the cache of loaded bitmaps stays within its memory budget, evicting bitmaps that
+ * haven't been used recently, and that evicted bitmaps are loaded again with all their changes.
+ */
+@Test
+public class TestBitmapCache extends SqlTestCase {
+
+    /** The number of distinct values of <tt>a</tt>, each of which has its own bitmap. */
+    private static final int NUM_VALUES = 60;
+
+
+    private void createTables() throws Exception {
+        tryDoCommand("CREATE TABLE bitmap_cache (a INTEGER, b INTEGER);", false);
+        tryDoCommand("CREATE TABLE bitmap_cache_noindex (a INTEGER, b INTEGER);", false);
+        tryDoCommand("CREATE BITMAP INDEX bitmap_cache_a ON bitmap_cache (a);", false);
+
+        for (int i = 0; i < NUM_VALUES * 5; i++)
+            doChange("INSERT INTO %s VALUES (" + (i % NUM_VALUES) + ", " + i + ");");
+    }
+
+
+    private void doChange(String change) throws Exception {
+        tryDoCommand(String.format(change, "bitmap_cache"), false);
+        tryDoCommand(String.format(change, "bitmap_cache_noindex"), false);
+    }
+
+
+    private void checkQuery(String query) throws Exception {
+        CommandResult expected =
+            tryDoCommand(String.format(query, "bitmap_cache_noindex"), true);
+        CommandResult actual = tryDoCommand(String.format(query, "bitmap_cache"), true);
+
+        assert checkUnorderedResults(expected.getTuples().toArray(
+            new TupleLiteral[expected.getTuples().size()]), actual) : query;
+    }
+
+
+    private BitmapCache getCache() {
+        return server.getStorageManager().getBitmapIndexManager().getBitmapCache();
+    }
+
+
+    /**
+     * Checks that querying many values with a small cache evicts bitmaps to stay within the
+     * budget, and that changes made to bitmaps before they were evicted aren't lost.
+     *
+     * @throws Exception if any issues occur.
+     */
+    public void testEviction() throws Exception {
+        createTables();
+
+        PropertyRegistry.getInstance().setPropertyValue(
+            BitmapCache.PROP_BITMAPCACHE_SIZE, "1k");
+        assert getCache().getMaxSize() == 1024;
+        assert getCache().getTotalBytes() <= 1024;
+
+        // Querying a value twice in a row finds its bitmap in the cache
+        PerformanceCounters.clear(PerformanceCounters.BITMAP_CACHE_HITS);
+        checkQuery("SELECT * FROM %s WHERE a = 7;");
+        checkQuery("SELECT * FROM %s WHERE a = 7;");
+        assert PerformanceCounters.get(PerformanceCounters.BITMAP_CACHE_HITS) > 0;
+
+        PerformanceCounters.clear(PerformanceCounters.BITMAP_CACHE_EVICTIONS);
+        for (int i = 0; i < NUM_VALUES; i++)
+            checkQuery("SELECT * FROM %s WHERE a = " + i + ";");
+        assert PerformanceCounters.get(PerformanceCounters.BITMAP_CACHE_EVICTIONS) > 0;
+        assert getCache().getTotalBytes() <= 1024;
+        assert PerformanceCounters.get(PerformanceCounters.BITMAP_CACHE_BYTES) ==
+            getCache().getTotalBytes();
+
+        // Change bitmaps, let them be evicted, and check that they are read back with the changes
+        doChange("INSERT INTO %s VALUES (3, 1000);");
+        doChange("DELETE FROM %s WHERE a = 4 AND b < 100;");
+        for (int i = 0; i < NUM_VALUES; i++)
+            checkQuery("SELECT * FROM %s WHERE a = " + i + ";");
+        checkQuery("SELECT * FROM %s WHERE a > 50 OR a < 5;");
+
+        // Shrinking the cache evicts bitmaps right away
+        getCache().setMaxSize(0);
+        assert getCache().getTotalBytes() == 0;
+        checkQuery("SELECT * FROM %s WHERE a = 3;");
+
+        getCache().setMaxSize(BitmapCache.DEFAULT_BITMAPCACHE_SIZE);
+    }
+}
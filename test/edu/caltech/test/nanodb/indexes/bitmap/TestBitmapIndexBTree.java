@@ -0,0 +1,177 @@
+package edu.caltech.test.nanodb.indexes.bitmap;
+
+import edu.caltech.nanodb.commands.SelectClause;
+import edu.caltech.nanodb.commands.SelectCommand;
+import edu.caltech.nanodb.expressions.TupleLiteral;
+import edu.caltech.nanodb.indexes.bitmapindex.BitmapIndex;
+import edu.caltech.nanodb.indexes.bitmapindex.BitmapRowIds;
+import edu.caltech.nanodb.plans.PlanNode;
+import edu.caltech.nanodb.qeval.PlannerFactory;
+import edu.caltech.nanodb.server.CommandResult;
+import edu.caltech.nanodb.storage.FileManager;
+import edu.caltech.nanodb.storage.StorageManager;
+import edu.caltech.test.nanodb.sql.SqlTestCase;
+import org.testng.annotations.Test;
+
+import java.util.Random;
+
+
+/**
+ * Tests bitmap indexes on B<sup>+</sup> tree tables, whose rows move as the tree changes, and
+ * rebuilding bitmap indexes with <tt>OPTIMIZE</tt>. Queries should give the same result as the
+ * same query on a heap table without bitmap indexes.
+ */
+@Test
+public class TestBitmapIndexBTree extends SqlTestCase {
+
+    /** The number of rows first added to the test tables. */
+    private static final int NUM_ROWS = 300;
+
+    /** Queries that use the bitmap indexes; %s is the table name. */
+    private static final String[] QUERIES = {
+        "SELECT * FROM %s WHERE a = 3;",
+        "SELECT * FROM %s WHERE a > 4 AND b = 'bbbbbbbbbbbbbbbbbbbb';",
+        "SELECT * FROM %s WHERE a IS NULL OR b IN ('a', 'ccc');",
+        "SELECT a, COUNT(*) FROM %s GROUP BY a;",
+        "SELECT b, COUNT(a) FROM %s WHERE a < 5 GROUP BY b;",
+    };
+
+
+    /** The value of <tt>c</tt> in the next row added; every row is different. */
+    private int nextC = 0;
+
+
+    private void createTables() throws Exception {
+        String columns = " (a INTEGER, b VARCHAR(40), c INTEGER)";
+        tryDoCommand("CREATE TABLE bitmap_btree" + columns +
+            " PROPERTIES (storage = 'btree', pagesize = 4096);", false);
+        tryDoCommand("CREATE TABLE bitmap_btree_noindex" + columns + ";", false);
+
+        // Index the table before adding rows, so that the rows move after they are indexed
+        tryDoCommand("CREATE BITMAP INDEX bitmap_btree_a ON bitmap_btree (a);", false);
+        tryDoCommand("CREATE BITMAP INDEX bitmap_btree_b ON bitmap_btree (b);", false);
+
+        insertRows(new Random(2468), NUM_ROWS);
+    }
+
+
+    /**
+     * Adds rows with random values to both tables, in random order, so that rows are added in
+     * the middle of the tree's leaves.
+     */
+    private void insertRows(Random rand, int numRows) throws Exception {
+        String[] bValues = {"'a'", "'bbbbbbbbbbbbbbbbbbbb'", "'ccc'", "NULL"};
+        for (int i = 0; i < numRows; i++) {
+            String a = (i % 13 == 0) ? "NULL" : Integer.toString(rand.nextInt(8));
+            String b = bValues[rand.nextInt(bValues.length)];
+            String values = String.format(" VALUES (%s, %s, %d);", a, b, nextC++);
+            tryDoCommand("INSERT INTO bitmap_btree" + values, false);
+            tryDoCommand("INSERT INTO bitmap_btree_noindex" + values, false);
+        }
+    }
+
+
+    /** Returns the plan that the planner makes for a query. */
+    private String getPlan(String query) throws Exception {
+        SelectClause selClause =
+            ((SelectCommand) server.parseCommand(query)).getSelectClause();
+
+        StorageManager storageManager = server.getStorageManager();
+        selClause.computeSchema(storageManager.getTableManager());
+        PlanNode plan =
+            PlannerFactory.getPlanner(storageManager).makePlan(selClause, null);
+
+        return PlanNode.printNodeTreeToString(plan, false);
+    }
+
+
+    private void checkQueries(boolean indexed) throws Exception {
+        for (String query : QUERIES) {
+            String btreeQuery = String.format(query, "bitmap_btree");
+            assert getPlan(btreeQuery).contains("Bitmap") == indexed : query;
+
+            CommandResult expected =
+                tryDoCommand(String.format(query, "bitmap_btree_noindex"), true);
+            CommandResult actual = tryDoCommand(btreeQuery, true);
+
+            assert checkUnorderedResults(expected.getTuples().toArray(
+                new TupleLiteral[expected.getTuples().size()]), actual) : query;
+        }
+    }
+
+
+    private void doChange(String change) throws Exception {
+        tryDoCommand(String.format(change, "bitmap_btree"), false);
+        tryDoCommand(String.format(change, "bitmap_btree_noindex"), false);
+    }
+
+
+    private boolean fileExists(String fileName) {
+        FileManager fileManager = server.getStorageManager().getFileManager();
+        return fileManager.fileExists(fileName);
+    }
+
+
+    /**
+     * Checks that bitmap indexes on a B<sup>+</sup> tree table find the right rows after
+     * inserts and deletes that split and merge the tree's pages, after the indexes are rebuilt,
+     * and that dropping the indexes removes their files.
+     *
+     * @throws Exception if any issues occur.
+     */
+    public void testBTreeBitmapIndexes() throws Exception {
+        createTables();
+        assert fileExists(BitmapRowIds.getMappingFileName("BITMAP_BTREE"));
+        checkQueries(true);
+
+        doChange("DELETE FROM %s WHERE c < 100 AND a > 3;");
+        doChange("DELETE FROM %s WHERE a = 2 OR b = 'ccc';");
+        checkQueries(true);
+
+        insertRows(new Random(1357), NUM_ROWS / 2);
+        checkQueries(true);
+
+        tryDoCommand("OPTIMIZE bitmap_btree;", false);
+        checkQueries(true);
+
+        doChange("DELETE FROM %s WHERE a = 5;");
+        insertRows(new Random(9753), 50);
+        checkQueries(true);
+
+        tryDoCommand("DROP INDEX bitmap_btree_a ON bitmap_btree;", false);
+        assert !fileExists(BitmapIndex.getIndexFileName("BITMAP_BTREE", "A"));
+        assert fileExists(BitmapRowIds.getMappingFileName("BITMAP_BTREE"));
+
+        tryDoCommand("DROP INDEX bitmap_btree_b ON bitmap_btree;", false);
+        assert !fileExists(BitmapRowIds.getMappingFileName("BITMAP_BTREE"));
+        checkQueries(false);
+    }
+
+
+    /**
+     * Checks that rebuilding the bitmap indexes on a heap table gives the same results as
+     * the indexes that were kept up to date row by row.
+     *
+     * @throws Exception if any issues occur.
+     */
+    public void testOptimizeHeapTable() throws Exception {
+        tryDoCommand("CREATE TABLE bitmap_optimize (a INTEGER, b VARCHAR(10));", false);
+        for (int i = 0; i < 200; i++) {
+            tryDoCommand(String.format("INSERT INTO bitmap_optimize VALUES (%d, '%s');",
+                i % 7, (i % 3 == 0) ? "x" : "y"), false);
+        }
+        tryDoCommand("CREATE BITMAP INDEX ON bitmap_optimize (a);", false);
+        tryDoCommand("DELETE FROM bitmap_optimize WHERE a = 1;", false);
+
+        String query = "SELECT a, b FROM bitmap_optimize WHERE a > 4;";
+        CommandResult before = tryDoCommand(query, true);
+        assert before.getTuples().size() > 0;
+
+        tryDoCommand("OPTIMIZE bitmap_optimize;", false);
+        assert getPlan(query).contains("Bitmap");
+
+        CommandResult after = tryDoCommand(query, true);
+        assert checkUnorderedResults(before.getTuples().toArray(
+            new TupleLiteral[before.getTuples().size()]), after);
+    }
+}
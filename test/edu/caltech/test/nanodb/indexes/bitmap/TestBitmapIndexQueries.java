@@ -82,6 +82,37 @@ public class TestBitmapIndexQueries extends SqlTestCase {
         assert(checkUnorderedResults(r3.getTuples().toArray(new TupleLiteral[r3.getTuples().size()]), r4));
     }
 
+    /** Makes a row of the outer join of test_bitmap_indexes2 to test_bitmap_indexes. */
+    private TupleLiteral outerRow(Integer a2, Integer d, Integer a, Integer b, Integer c) {
+        TupleLiteral tup = new TupleLiteral();
+        tup.addValue(a2);
+        tup.addValue(d);
+        tup.addValue(a);
+        tup.addValue(b);
+        tup.addValue(c);
+        return tup;
+    }
+
+    public void testOuterJoins() throws Throwable {
+        TupleLiteral[] expected = {
+            outerRow(0, 0, 0, 0, 5),
+            outerRow(1, 30, 1, 10, 5),
+            outerRow(2, 40, 2, 20, 6),
+            outerRow(3, 50, 3, 30, 6),
+            outerRow(7, 60, null, null, null)
+        };
+
+        // The kept side is scanned, and the other side is found with its bitmap index on a
+        CommandResult r1 = server.doCommand("SELECT * FROM test_bitmap_indexes2 LEFT OUTER JOIN " +
+            "test_bitmap_indexes ON test_bitmap_indexes2.a = test_bitmap_indexes.a", true);
+        assert(checkUnorderedResults(expected, r1));
+
+        CommandResult r2 = server.doCommand("SELECT test_bitmap_indexes2.a, d, " +
+            "test_bitmap_indexes.a, b, c FROM test_bitmap_indexes RIGHT OUTER JOIN " +
+            "test_bitmap_indexes2 ON test_bitmap_indexes.a = test_bitmap_indexes2.a", true);
+        assert(checkUnorderedResults(expected, r2));
+    }
+
     public void testAggregations() throws Throwable {
 
     }
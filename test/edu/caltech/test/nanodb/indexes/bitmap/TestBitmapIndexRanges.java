@@ -0,0 +1,151 @@
+package edu.caltech.test.nanodb.indexes.bitmap;
+
+import edu.caltech.nanodb.commands.SelectClause;
+import edu.caltech.nanodb.commands.SelectCommand;
+import edu.caltech.nanodb.expressions.TupleLiteral;
+import edu.caltech.nanodb.plans.PlanNode;
+import edu.caltech.nanodb.qeval.PlannerFactory;
+import edu.caltech.nanodb.server.CommandResult;
+import edu.caltech.nanodb.storage.StorageManager;
+import edu.caltech.test.nanodb.sql.SqlTestCase;
+import org.testng.annotations.Test;
+
+import java.util.Random;
+
+
+/**
+ * Tests range, IN and NULL predicates on tables with bitmap indexes. Queries should give the
+ * same result as the same query on a table without bitmap indexes, and should be answered by a
+ * bitmap index scan.
+ */
+@Test
+public class TestBitmapIndexRanges extends SqlTestCase {
+
+    /** The number of rows in the test tables. */
+    private static final int NUM_ROWS = 300;
+
+    /** Predicates that bitmap indexes can answer on their own. */
+    private static final String[] PREDICATES = {
+        "a < 17", "a <= 17", "a > -20", "a >= 40", "17 > a", "-5 <= a",
+        "a BETWEEN -10 AND 10", "a NOT BETWEEN -10 AND 10", "a < -1000", "a > 1000",
+        "a < 2147483647", "a > -2147483647",
+        "b < 0", "b >= 4000000000L", "b BETWEEN -4000000000L AND 100",
+        "c < 'm'", "c >= 'row 5'", "c BETWEEN 'b' AND 'q'",
+        "d < 2.5", "d >= 0", "d > 10",
+        "a IN (1, 3, 5, 1000)", "c IN ('a', 'zz', 'row 7')", "a NOT IN (1, 2, 3)",
+        "a IS NULL", "a IS NOT NULL", "c IS NULL",
+        "a <> 3", "a = 3",
+        "(a < 0 OR a > 30) AND c >= 'h'", "a > 0 AND b < 0",
+    };
+
+
+    private void createTables() throws Exception {
+        String columns = " (a INTEGER, b BIGINT, c VARCHAR(20), d DOUBLE);";
+        tryDoCommand("CREATE TABLE bitmap_ranges" + columns, false);
+        tryDoCommand("CREATE TABLE bitmap_ranges_noindex" + columns, false);
+
+        Random rand = new Random(1234);
+        for (int i = 0; i < NUM_ROWS; i++) {
+            String a = (i % 23 == 0) ? "NULL" : Integer.toString(rand.nextInt(101) - 50);
+            long b = (rand.nextLong() % 10000000000L);
+            String c = (i % 19 == 0) ? "NULL" :
+                "'" + (char) ('a' + rand.nextInt(26)) + " " + rand.nextInt(10) + "'";
+            double d = rand.nextInt(100) / 8.0 - 2;
+
+            String values = String.format(" VALUES (%s, %dL, %s, %s);", a, b, c, d);
+            tryDoCommand("INSERT INTO bitmap_ranges" + values, false);
+            tryDoCommand("INSERT INTO bitmap_ranges_noindex" + values, false);
+        }
+
+        // Some rows at the ends of the integer ranges.
+        String[] extremes = {
+            "(2147483647, 9223372036854775807L, 'zz', 100)",
+            "(-2147483647, -9223372036854775807L, 'a', -100)",
+        };
+        for (String values : extremes) {
+            tryDoCommand("INSERT INTO bitmap_ranges VALUES " + values + ";", false);
+            tryDoCommand("INSERT INTO bitmap_ranges_noindex VALUES " + values + ";", false);
+        }
+
+        tryDoCommand("CREATE BITMAP INDEX ON bitmap_ranges (a);", false);
+        tryDoCommand("CREATE BITMAP INDEX ON bitmap_ranges (b);", false);
+        tryDoCommand("CREATE BITMAP INDEX ON bitmap_ranges (c);", false);
+        tryDoCommand("CREATE BITMAP INDEX ON bitmap_ranges (d);", false);
+    }
+
+
+    /** Returns the plan that the planner makes for a query. */
+    private String getPlan(String query) throws Exception {
+        SelectClause selClause =
+            ((SelectCommand) server.parseCommand(query)).getSelectClause();
+
+        StorageManager storageManager = server.getStorageManager();
+        selClause.computeSchema(storageManager.getTableManager());
+        PlanNode plan =
+            PlannerFactory.getPlanner(storageManager).makePlan(selClause, null);
+
+        return PlanNode.printNodeTreeToString(plan, false);
+    }
+
+
+    private void checkPredicates() throws Exception {
+        for (String predicate : PREDICATES) {
+            String query = "SELECT * FROM bitmap_ranges WHERE " + predicate + ";";
+            assert getPlan(query).contains("BitmapIndexScan") : predicate;
+
+            CommandResult expected = tryDoCommand(
+                "SELECT * FROM bitmap_ranges_noindex WHERE " + predicate + ";", true);
+            CommandResult actual = tryDoCommand(query, true);
+
+            assert checkUnorderedResults(expected.getTuples().toArray(
+                new TupleLiteral[expected.getTuples().size()]), actual) : predicate;
+        }
+    }
+
+
+    /**
+     * Checks range, IN and NULL predicates against the bit-sliced indexes on the integer
+     * columns and the value-list indexes on the others, before and after changes to the
+     * table.
+     *
+     * @throws Exception if any issues occur.
+     */
+    public void testRangeAndListPredicates() throws Exception {
+        createTables();
+        checkPredicates();
+
+        // The slices and the NULL bitmap must follow changes to the table.
+        String[] changes = {
+            "UPDATE %s SET a = -a WHERE a > 40;",
+            "UPDATE %s SET a = NULL, c = 'row 7' WHERE b < -9000000000L;",
+            "UPDATE %s SET a = 25 WHERE a < -45 AND d > 5;",
+            "DELETE FROM %s WHERE a BETWEEN 0 AND 10;",
+            "INSERT INTO %s VALUES (12, 12, NULL, 12);",
+        };
+        for (String change : changes) {
+            tryDoCommand(String.format(change, "bitmap_ranges"), false);
+            tryDoCommand(String.format(change, "bitmap_ranges_noindex"), false);
+        }
+        checkPredicates();
+    }
+
+
+    /**
+     * Checks that predicates the indexes can't compare against don't use a bitmap index scan.
+     *
+     * @throws Exception if any issues occur.
+     */
+    public void testUnsupportedPredicates() throws Exception {
+        tryDoCommand("CREATE TABLE bitmap_ranges_other (a INTEGER, c VARCHAR(20));", false);
+        tryDoCommand("INSERT INTO bitmap_ranges_other VALUES (1, 'a');", false);
+        tryDoCommand("CREATE BITMAP INDEX ON bitmap_ranges_other (a);", false);
+        tryDoCommand("CREATE BITMAP INDEX ON bitmap_ranges_other (c);", false);
+
+        assert !getPlan("SELECT * FROM bitmap_ranges_other WHERE a < 2.5;")
+            .contains("BitmapIndexScan");
+        assert !getPlan("SELECT * FROM bitmap_ranges_other WHERE c < 5;")
+            .contains("BitmapIndexScan");
+        assert !getPlan("SELECT * FROM bitmap_ranges_other WHERE a < c;")
+            .contains("BitmapIndexScan");
+    }
+}
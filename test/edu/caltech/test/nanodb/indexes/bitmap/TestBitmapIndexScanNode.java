@@ -161,4 +161,41 @@ public class TestBitmapIndexScanNode extends SqlTestCase {
         logger.debug(tuple);
         assert (tuple == null);
     }
+
+    /**
+     * Checks that the node can return to a marked tuple in the middle of its results, and can
+     * start its results over when it is initialized again.
+     */
+    public void testMarkAndReset() throws Throwable {
+        Expression pred = new CompareOperator(CompareOperator.Type.GREATER_OR_EQUAL,
+                new ColumnValue(new ColumnName(tableName, column1)),
+                new LiteralValue(10));
+
+        BitmapIndexScanNode node = new BitmapIndexScanNode(pred, null,
+                server.getStorageManager().getTableManager().openTable(tableName),
+                server.getStorageManager().getBitmapIndexManager());
+        node.prepare();
+        node.initialize();
+
+        // Resetting before anything is marked starts over
+        assert (node.getNextTuple().getColumnValue(0).equals(Integer.valueOf(1)));
+        node.resetToLastMark();
+        assert (node.getNextTuple().getColumnValue(0).equals(Integer.valueOf(1)));
+
+        assert (node.getNextTuple().getColumnValue(0).equals(Integer.valueOf(2)));
+        node.markCurrentPosition();
+        assert (node.getNextTuple().getColumnValue(0).equals(Integer.valueOf(3)));
+        assert (node.getNextTuple().getColumnValue(0).equals(Integer.valueOf(4)));
+        assert (node.getNextTuple() == null);
+
+        node.resetToLastMark();
+        assert (node.getNextTuple().getColumnValue(0).equals(Integer.valueOf(2)));
+        assert (node.getNextTuple().getColumnValue(0).equals(Integer.valueOf(3)));
+
+        node.initialize();
+        int count = 0;
+        while (node.getNextTuple() != null)
+            count++;
+        assert (count == 4);
+    }
 }
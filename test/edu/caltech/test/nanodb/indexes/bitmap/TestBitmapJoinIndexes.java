@@ -0,0 +1,171 @@
+package edu.caltech.test.nanodb.indexes.bitmap;
+
+import edu.caltech.nanodb.commands.SelectClause;
+import edu.caltech.nanodb.commands.SelectCommand;
+import edu.caltech.nanodb.expressions.TupleLiteral;
+import edu.caltech.nanodb.indexes.bitmapindex.BitmapIndex;
+import edu.caltech.nanodb.plans.PlanNode;
+import edu.caltech.nanodb.qeval.PlannerFactory;
+import edu.caltech.nanodb.server.CommandResult;
+import edu.caltech.nanodb.storage.StorageManager;
+import edu.caltech.test.nanodb.sql.SqlTestCase;
+import org.testng.annotations.Test;
+
+import java.util.Random;
+
+
+/**
+ * Tests composite bitmap indexes over several columns, and bitmap join indexes on a fact table
+ * by the columns of a dimension table it references. Queries should give the same result as the
+ * same query on a copy of the fact table without bitmap indexes.
+ */
+@Test
+public class TestBitmapJoinIndexes extends SqlTestCase {
+
+    /** The number of rows added to the fact tables. */
+    private static final int NUM_ROWS = 300;
+
+    /** The number of rows in the dimension table. */
+    private static final int NUM_DIMENSIONS = 10;
+
+    private static final String[] REGIONS = {"'east'", "'west'", "'north'"};
+
+    /** Queries that the composite index on (a, b) evaluates; %1$s is the fact table's name. */
+    private static final String[] COMPOSITE_QUERIES = {
+        "SELECT * FROM %1$s WHERE a = 3 AND b = 'x';",
+        "SELECT * FROM %1$s WHERE b = 'y' AND a = 1 AND c > 100;",
+        "SELECT * FROM %1$s WHERE b = 'z' AND 2 = a;",
+    };
+
+    /** Star joins that the join indexes on the fact table evaluate. */
+    private static final String[] JOIN_QUERIES = {
+        "SELECT * FROM %1$s, bitmap_dim WHERE %1$s.dim_id = bitmap_dim.id " +
+            "AND bitmap_dim.region = 'east';",
+        "SELECT %1$s.a, bitmap_dim.size FROM %1$s, bitmap_dim " +
+            "WHERE bitmap_dim.id = %1$s.dim_id AND bitmap_dim.size > 5 AND %1$s.c < 200;",
+        "SELECT * FROM %1$s, bitmap_dim WHERE %1$s.dim_id = bitmap_dim.id " +
+            "AND (bitmap_dim.region = 'north' OR bitmap_dim.size < 2);",
+    };
+
+
+    /** True once the tables have been created; both tests use them. */
+    private boolean created = false;
+
+
+    private void createTables() throws Exception {
+        if (created)
+            return;
+        created = true;
+
+        tryDoCommand("CREATE TABLE bitmap_dim (id INTEGER PRIMARY KEY, " +
+            "region VARCHAR(20), size INTEGER);", false);
+        for (int i = 0; i < NUM_DIMENSIONS; i++) {
+            tryDoCommand(String.format("INSERT INTO bitmap_dim VALUES (%d, %s, %d);",
+                i, REGIONS[i % REGIONS.length], i), false);
+        }
+
+        for (String table : new String[] {"bitmap_fact", "bitmap_fact_noindex"}) {
+            tryDoCommand("CREATE TABLE " + table + " (a INTEGER, b VARCHAR(20), " +
+                "c INTEGER, dim_id INTEGER, " +
+                "FOREIGN KEY (dim_id) REFERENCES bitmap_dim (id));", false);
+        }
+
+        tryDoCommand("CREATE BITMAP INDEX bitmap_fact_ab ON bitmap_fact (a, b);", false);
+        tryDoCommand("CREATE BITMAP INDEX bitmap_fact_region ON " +
+            "bitmap_fact (bitmap_dim.region);", false);
+        tryDoCommand("CREATE BITMAP INDEX bitmap_fact_size ON " +
+            "bitmap_fact (bitmap_dim.size);", false);
+
+        Random rand = new Random(8642);
+        String[] bValues = {"'x'", "'y'", "'z'", "NULL"};
+        for (int i = 0; i < NUM_ROWS; i++) {
+            String a = (i % 17 == 0) ? "NULL" : Integer.toString(rand.nextInt(4));
+            String b = bValues[rand.nextInt(bValues.length)];
+            String dimId = (i % 11 == 0) ? "NULL" : Integer.toString(rand.nextInt(NUM_DIMENSIONS));
+            doChange("INSERT INTO %s VALUES (" + a + ", " + b + ", " + i + ", " + dimId + ");");
+        }
+    }
+
+
+    /** Returns the plan that the planner makes for a query. */
+    private String getPlan(String query) throws Exception {
+        SelectClause selClause =
+            ((SelectCommand) server.parseCommand(query)).getSelectClause();
+
+        StorageManager storageManager = server.getStorageManager();
+        selClause.computeSchema(storageManager.getTableManager());
+        PlanNode plan =
+            PlannerFactory.getPlanner(storageManager).makePlan(selClause, null);
+
+        return PlanNode.printNodeTreeToString(plan, false);
+    }
+
+
+    private void checkQueries(String[] queries, boolean indexed) throws Exception {
+        for (String query : queries) {
+            String indexedQuery = String.format(query, "bitmap_fact");
+            assert getPlan(indexedQuery).contains("Bitmap") == indexed : query;
+
+            CommandResult expected =
+                tryDoCommand(String.format(query, "bitmap_fact_noindex"), true);
+            CommandResult actual = tryDoCommand(indexedQuery, true);
+
+            assert checkUnorderedResults(expected.getTuples().toArray(
+                new TupleLiteral[expected.getTuples().size()]), actual) : query;
+        }
+    }
+
+
+    private void doChange(String change) throws Exception {
+        tryDoCommand(String.format(change, "bitmap_fact"), false);
+        tryDoCommand(String.format(change, "bitmap_fact_noindex"), false);
+    }
+
+
+    /**
+     * Checks that a composite index finds the rows with a pair of values, as rows are changed.
+     *
+     * @throws Exception if any issues occur.
+     */
+    public void testCompositeIndex() throws Exception {
+        createTables();
+        checkQueries(COMPOSITE_QUERIES, true);
+
+        doChange("DELETE FROM %s WHERE a = 3 AND c < 150;");
+        doChange("UPDATE %s SET b = 'x' WHERE a = 3 AND b = 'y';");
+        checkQueries(COMPOSITE_QUERIES, true);
+
+        tryDoCommand("DROP INDEX bitmap_fact_ab ON bitmap_fact;", false);
+        assert !server.getStorageManager().getFileManager().fileExists(
+            BitmapIndex.getIndexFileName("BITMAP_FACT", "A,B"));
+        checkQueries(COMPOSITE_QUERIES, false);
+    }
+
+
+    /**
+     * Checks that join indexes filter the fact table in star joins, as rows of both the fact
+     * table and the dimension table are changed.
+     *
+     * @throws Exception if any issues occur.
+     */
+    public void testJoinIndexes() throws Exception {
+        createTables();
+        checkQueries(JOIN_QUERIES, true);
+
+        doChange("DELETE FROM %s WHERE dim_id = 4;");
+        doChange("UPDATE %s SET dim_id = 2 WHERE dim_id = 1;");
+        doChange("INSERT INTO %s VALUES (1, 'x', 500, 5);");
+        checkQueries(JOIN_QUERIES, true);
+
+        // Changing the dimension table changes which fact rows match
+        tryDoCommand("UPDATE bitmap_dim SET region = 'north' WHERE id = 0 OR id = 2;", false);
+        tryDoCommand("UPDATE bitmap_dim SET size = 1 WHERE region = 'west';", false);
+        tryDoCommand("INSERT INTO bitmap_dim VALUES (100, 'east', 7);", false);
+        doChange("INSERT INTO %s VALUES (2, 'y', 501, 100);");
+        checkQueries(JOIN_QUERIES, true);
+
+        tryDoCommand("DROP INDEX bitmap_fact_region ON bitmap_fact;", false);
+        tryDoCommand("DROP INDEX bitmap_fact_size ON bitmap_fact;", false);
+        checkQueries(JOIN_QUERIES, false);
+    }
+}
@@ -1,6 +1,9 @@
 package edu.caltech.test.nanodb.indexes.bitmap;
 
 
+import edu.caltech.nanodb.relations.SQLDataType;
+import edu.caltech.nanodb.storage.DBFile;
+import edu.caltech.nanodb.storage.DBPage;
 import edu.caltech.nanodb.storage.FilePointer;
 import edu.caltech.nanodb.storage.StorageManager;
 import edu.caltech.nanodb.storage.bitmapfile.*;
@@ -10,9 +13,11 @@ import org.testng.annotations.Test;
 
 import java.util.Collections;
 import java.util.Random;
+import java.util.TreeMap;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
 /**
  * These tests test storage aspects of bitmap indexes i.e. making sure that all aspects of
@@ -32,10 +37,10 @@ public class TestBitmapStorage extends SqlTestCase {
      */
     public void testValueSet() throws Throwable {
         StorageManager storageManager = server.getStorageManager();
+        BitmapFileManager bitmapFileManager = new BitmapFileManager(storageManager);
         String filename = "VALUESET";
 
-        ValueSet set = new ValueSet(filename, storageManager);
-        set.createFile();
+        ValueSet set = new ValueSet(bitmapFileManager.createBitmapFile(filename), SQLDataType.VARCHAR);
 
         set.addValue("Value 1 fdsklahferoqgherpqgodfvnhaknvdq[ew");
         set.addValue("Value 2 gsqitqrppqtpqwetqwet");
@@ -43,13 +48,84 @@ public class TestBitmapStorage extends SqlTestCase {
         set.addValue("Value 4 qqewqrghreoih34-g4389-2-4143");
         set.addValue("Value 5 32vt43720cthuoasfhdecqwohertumq0980");
 
+        set.removeValue("Value 2 gsqitqrppqtpqwetqwet");
+        set.addValue("Value 6 \u00e9\u00e8");
+
+        bitmapFileManager.clearCache();
         storageManager.getBufferManager().flushAll();
         assert(storageManager.getFileManager().fileExists(filename));
 
-        ValueSet set2 = new ValueSet(filename, storageManager);
-        set2.loadFile();
+        ValueSet set2 = new ValueSet(bitmapFileManager.openBitmapFile(filename), SQLDataType.VARCHAR);
+        set2.load();
 
-        assert(set.getValues().containsAll(set2.getValues()));
+        assert(set.getValues().equals(set2.getValues()));
+        for (Object value : set.getValues())
+            assert(set.getBitmapNumber(value).equals(set2.getBitmapNumber(value)));
+    }
+
+    /**
+     * This test fills an integer ValueSet with enough values to split its dictionary over many
+     * pages, removes most of them again, and checks that the values stay in order, that ranges
+     * are looked up correctly, and that the values are intact when read back from disk.
+     */
+    public void testSortedValueSet() throws Throwable {
+        StorageManager storageManager = server.getStorageManager();
+        BitmapFileManager bitmapFileManager = new BitmapFileManager(storageManager);
+        String filename = "SORTEDVALUESET";
+
+        BitmapFile bitmapFile = bitmapFileManager.createBitmapFile(filename);
+        ValueSet set = new ValueSet(bitmapFile, SQLDataType.INTEGER);
+
+        // Values in random order, and the bitmap numbers they should have
+        TreeMap<Long, Integer> expected = new TreeMap<Long, Integer>();
+        Random rand = new Random(34);
+        while (expected.size() < 5000) {
+            int value = rand.nextInt(200000) - 100000;
+            if (!expected.containsKey((long) value))
+                expected.put((long) value, set.addValue(value));
+        }
+        int numPages = bitmapFile.getDbFile().getNumPages();
+
+        // The lowest 4000 values are removed in random order.  The dictionary pages hold the
+        // values in order, so removing values at random would leave a few on almost every page
+        // and free none of them; only a run of neighbouring values, such as the lowest ones,
+        // fills whole pages that can be emptied.
+        List<Long> lowest = new ArrayList<Long>(expected.keySet()).subList(0, 4000);
+        ArrayList<Long> removed = new ArrayList<Long>(lowest);
+        Collections.shuffle(removed, rand);
+        for (Long value : removed) {
+            set.removeValue(value);
+            expected.remove(value);
+        }
+
+        // Integers, longs and integral doubles all find the same values
+        for (Long value : expected.keySet()) {
+            assert(set.getBitmapNumber(value).equals(expected.get(value)));
+            assert(set.getBitmapNumber(value.intValue()).equals(expected.get(value)));
+            assert(set.getBitmapNumber(value.doubleValue()).equals(expected.get(value)));
+        }
+        assert(set.getBitmapNumber(2.5) == null);
+        assert(new ArrayList<Object>(set.getValues()).equals(new ArrayList<Object>(expected.keySet())));
+        assert(new ArrayList<Integer>(set.getBitmapNumbers(-500, true, 20000, false)).equals(
+                new ArrayList<Integer>(expected.subMap(-500L, true, 20000L, false).values())));
+
+        // The pages emptied by the removals are reused instead of extending the file.  The new
+        // values are larger than all the others, so they all go on the last page, and each split
+        // leaves that page half full:  1500 values fit in the freed pages, but 3000 would not.
+        for (int i = 0; i < 1500; i++) {
+            int value = 200000 + i;
+            expected.put((long) value, set.addValue(value));
+        }
+        assert(bitmapFile.getDbFile().getNumPages() <= numPages);
+
+        bitmapFileManager.clearCache();
+        storageManager.getBufferManager().flushAll();
+
+        ValueSet set2 = new ValueSet(bitmapFileManager.openBitmapFile(filename), SQLDataType.INTEGER);
+        set2.load();
+        assert(new ArrayList<Object>(set2.getValues()).equals(new ArrayList<Object>(expected.keySet())));
+        for (Long value : expected.keySet())
+            assert(set2.getBitmapNumber(value).equals(expected.get(value)));
     }
 
     /**
@@ -63,7 +139,8 @@ public class TestBitmapStorage extends SqlTestCase {
 
         int mapsize = 10000;
         String filename = "TESTBITMAP";
-        Bitmap map = bitmapFileManager.createBitmapFile(filename, null);
+        BitmapFile bitmapFile = bitmapFileManager.createBitmapFile(filename);
+        Bitmap map = bitmapFile.createBitmap(BitmapFile.EXISTENCE_BITMAP);
 
         ArrayList<Integer> ints = new ArrayList<Integer>();
         Random rand = new Random();
@@ -87,7 +164,8 @@ public class TestBitmapStorage extends SqlTestCase {
         assert(storageManager.getFileManager().fileExists(filename));
 
         t = System.currentTimeMillis();
-        Bitmap map2 = bitmapFileManager.loadBitmapFile(filename, null);
+        Bitmap map2 = bitmapFileManager.openBitmapFile(filename)
+            .loadBitmap(BitmapFile.EXISTENCE_BITMAP);
         logger.info("Took " + (System.currentTimeMillis() - t) + " millis to load bitmap");
         logger.info("Size = " + map2.save().length + " Pages  = " + map2.getBitmapFile().getDbFile().getNumPages());
 
@@ -97,6 +175,133 @@ public class TestBitmapStorage extends SqlTestCase {
         }
     }
 
+    /**
+     * This test checks that changing single bits of a disk-backed bitmap only modifies the page
+     * holding the changed bit, and that chunks survive switching between their array and bits
+     * forms.
+     */
+    public void testIncrementalBitmapWrites() throws Throwable {
+        StorageManager storageManager = server.getStorageManager();
+        BitmapFileManager bitmapFileManager = new BitmapFileManager(storageManager);
+
+        String filename = "TESTBITMAPINCR";
+        BitmapFile bitmapFile = bitmapFileManager.createBitmapFile(filename);
+        Bitmap map = bitmapFile.createBitmap(bitmapFile.allocateBitmapNumber());
+        int chunkBits = BitmapFile.getChunkBits(StorageManager.getCurrentPageSize());
+
+        // A dense run of bits in the first chunk, and a few bits in several later chunks.
+        ArrayList<Integer> ints = new ArrayList<Integer>();
+        for (int i = 0; i < chunkBits / 2; i += 3)
+            ints.add(i);
+        for (int i = 1; i <= 5; i++)
+            ints.add(i * 7 * chunkBits + i);
+        for (int i : ints)
+            map.set(i);
+
+        storageManager.getBufferManager().flushAll();
+        DBFile dbFile = map.getBitmapFile().getDbFile();
+
+        // Flip one bit in a sparse chunk and one in the dense chunk, and count dirty pages.
+        map.set(3 * 7 * chunkBits + 100);
+        assert countDirtyPages(storageManager, dbFile) == 1;
+        storageManager.getBufferManager().flushAll();
+
+        map.unset(3);
+        assert countDirtyPages(storageManager, dbFile) == 1;
+        ints.add(3 * 7 * chunkBits + 100);
+        ints.remove(Integer.valueOf(3));
+
+        // Thin out the dense chunk so it goes back to array form.
+        for (int i = 6; i < chunkBits / 2; i += 3) {
+            if (i % 300 != 0) {
+                map.unset(i);
+                ints.remove(Integer.valueOf(i));
+            }
+        }
+
+        bitmapFileManager.clearCache();
+        storageManager.getBufferManager().flushAll();
+
+        Bitmap map2 = bitmapFileManager.openBitmapFile(filename)
+            .loadBitmap(map.getBitmapNumber());
+        Collections.sort(ints);
+        int[] expected = new int[ints.size()];
+        for (int i = 0; i < expected.length; i++)
+            expected[i] = ints.get(i);
+
+        assert Arrays.equals(expected, map2.toArray());
+    }
+
+    /**
+     * This test stores many small bitmaps in one file, and checks that they share pages, that
+     * the space of dropped bitmaps is reused, and that every bitmap reads back intact.
+     */
+    public void testManyBitmapsInOneFile() throws Throwable {
+        StorageManager storageManager = server.getStorageManager();
+        BitmapFileManager bitmapFileManager = new BitmapFileManager(storageManager);
+
+        String filename = "TESTBITMAPMANY";
+        BitmapFile bitmapFile = bitmapFileManager.createBitmapFile(filename);
+        int pageSize = StorageManager.getCurrentPageSize();
+        int chunkBits = BitmapFile.getChunkBits(pageSize);
+        int maxSlotBits = BitmapFile.getMaxSlotBits(pageSize);
+
+        // Bitmaps with a few bits each, and one that outgrows its slot.
+        int numBitmaps = 400;
+        ArrayList<Bitmap> maps = new ArrayList<Bitmap>();
+        for (int i = 0; i < numBitmaps; i++) {
+            Bitmap map = bitmapFile.createBitmap(bitmapFile.allocateBitmapNumber());
+            for (int j = 0; j < 3; j++)
+                map.set(j * numBitmaps + i);
+            maps.add(map);
+        }
+        for (int i = 0; i <= maxSlotBits; i++)
+            maps.get(0).set(chunkBits + i);
+
+        DBFile dbFile = bitmapFile.getDbFile();
+        int numPages = dbFile.getNumPages();
+        assert numPages < numBitmaps / 4;
+
+        // Drop every other bitmap, and make new ones in their place.
+        for (int i = 1; i < numBitmaps; i += 2) {
+            bitmapFile.dropBitmap(maps.get(i).getBitmapNumber());
+            Bitmap map = bitmapFile.createBitmap(bitmapFile.allocateBitmapNumber());
+            map.set(5 * i);
+            maps.set(i, map);
+        }
+        assert dbFile.getNumPages() == numPages;
+
+        bitmapFileManager.clearCache();
+        storageManager.getBufferManager().flushAll();
+
+        BitmapFile bitmapFile2 = bitmapFileManager.openBitmapFile(filename);
+        for (Bitmap map : maps) {
+            Bitmap map2 = bitmapFile2.loadBitmap(map.getBitmapNumber());
+            assert Arrays.equals(map.toArray(), map2.toArray());
+        }
+
+        // Bulk writes replace the bitmap, and free pages are found again after reopening.
+        Bitmap bulk = Bitmap.emptyBitmap();
+        for (int i = 0; i < 3 * chunkBits; i += 2)
+            bulk.set(i);
+        bitmapFile2.writeBitmap(maps.get(0).getBitmapNumber(), bulk);
+        bitmapFile2.dropBitmap(maps.get(2).getBitmapNumber());
+        assert Arrays.equals(bulk.toArray(),
+            bitmapFile2.loadBitmap(maps.get(0).getBitmapNumber()).toArray());
+        assert bitmapFile2.loadBitmap(maps.get(2).getBitmapNumber()).cardinality() == 0;
+    }
+
+    private int countDirtyPages(StorageManager storageManager, DBFile dbFile) throws Exception {
+        int dirty = 0;
+        for (int i = 0; i < dbFile.getNumPages(); i++) {
+            DBPage page = storageManager.loadDBPage(dbFile, i);
+            if (page.isDirty())
+                dirty++;
+            page.unpin();
+        }
+        return dirty;
+    }
+
     /**
      * Tests how much space the bitset class would take up given various inputs
      */
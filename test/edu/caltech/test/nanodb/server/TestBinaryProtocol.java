@@ -0,0 +1,244 @@
+package edu.caltech.test.nanodb.server;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.math.BigDecimal;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.testng.annotations.Test;
+
+import edu.caltech.nanodb.expressions.TupleLiteral;
+import edu.caltech.nanodb.relations.ColumnInfo;
+import edu.caltech.nanodb.relations.ColumnType;
+import edu.caltech.nanodb.relations.SQLDataType;
+import edu.caltech.nanodb.relations.Schema;
+import edu.caltech.nanodb.server.ClientHandler;
+import edu.caltech.nanodb.server.CommandResult;
+import edu.caltech.nanodb.server.CommandState;
+import edu.caltech.nanodb.server.ProtocolReader;
+import edu.caltech.nanodb.server.ProtocolWriter;
+import edu.caltech.nanodb.server.ServerException;
+
+import edu.caltech.test.nanodb.sql.SqlTestCase;
+
+
+/**
+ * This test class exercises the binary protocol that clients and the shared
+ * server use, both directly and through a {@link ClientHandler}.
+ */
+@Test
+public class TestBinaryProtocol extends SqlTestCase {
+
+    private static ColumnInfo makeColumn(String name, SQLDataType type) {
+        ColumnType colType = new ColumnType(type);
+        if (colType.hasLength())
+            colType.setLength(20);
+
+        return new ColumnInfo(name, "T", colType);
+    }
+
+
+    /**
+     * Writes messages of every type, with rows of every column type and
+     * enough rows to fill several batches, and checks that they are read
+     * back the same.
+     */
+    public void testRoundTrip() throws Exception {
+        Schema schema = new Schema();
+        schema.addColumnInfo(makeColumn("I", SQLDataType.INTEGER));
+        schema.addColumnInfo(makeColumn("S", SQLDataType.SMALLINT));
+        schema.addColumnInfo(makeColumn("B", SQLDataType.TINYINT));
+        schema.addColumnInfo(makeColumn("L", SQLDataType.BIGINT));
+        schema.addColumnInfo(makeColumn("F", SQLDataType.FLOAT));
+        schema.addColumnInfo(makeColumn("D", SQLDataType.DOUBLE));
+        schema.addColumnInfo(makeColumn("V", SQLDataType.VARCHAR));
+        schema.addColumnInfo(makeColumn("X", SQLDataType.TEXT));
+        schema.addColumnInfo(makeColumn("N", SQLDataType.NUMERIC));
+
+        int numRows = ProtocolWriter.MAX_BATCH_ROWS * 2 + 17;
+        List<TupleLiteral> rows = new ArrayList<>();
+        for (int i = 0; i < numRows; i++) {
+            TupleLiteral row = new TupleLiteral();
+            row.addValue(i % 7 == 0 ? null : i);
+            row.addValue((short) (i % 1000));
+            row.addValue((byte) (i % 100));
+            row.addValue((long) i * 1000000007L);
+            row.addValue(i / 4.0f);
+            row.addValue(i % 11 == 0 ? null : i / 3.0);
+            row.addValue("row " + i + " \u00e9");
+            row.addValue(i % 2 == 0 ? "" : null);
+            row.addValue(new BigDecimal(i).movePointLeft(2));
+            rows.add(row);
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ProtocolWriter writer = new ProtocolWriter(bytes);
+        writer.writeCommand("SELECT * FROM t;");
+        writer.writeSchema(schema);
+        for (TupleLiteral row : rows)
+            writer.writeTuple(row);
+        writer.writeText("done\n");
+        writer.writeError(new IllegalStateException("broken"));
+        writer.writeState(CommandState.COMMAND_COMPLETED);
+        writer.flush();
+
+        ProtocolReader reader = new ProtocolReader(
+            new ByteArrayInputStream(bytes.toByteArray()));
+        Object command = reader.readMessage();
+        assert "SELECT * FROM t;".equals(command);
+
+        Schema received = (Schema) reader.readMessage();
+        assert received.numColumns() == schema.numColumns();
+        for (int i = 0; i < schema.numColumns(); i++) {
+            // ColumnInfo.equals() compares the column types by identity
+            ColumnInfo sent = schema.getColumnInfo(i);
+            ColumnInfo got = received.getColumnInfo(i);
+            assert got.getName().equals(sent.getName());
+            assert got.getTableName().equals(sent.getTableName());
+            assert got.getType().equals(sent.getType());
+        }
+
+        for (TupleLiteral row : rows) {
+            TupleLiteral receivedRow = (TupleLiteral) reader.readMessage();
+            assert receivedRow.equals(row) : receivedRow + " != " + row;
+        }
+
+        Object text = reader.readMessage();
+        assert "done\n".equals(text);
+
+        ServerException error = (ServerException) reader.readMessage();
+        assert error.getServerClassName().equals("java.lang.IllegalStateException");
+        assert error.getMessage().equals("broken");
+        assert error.getServerStackTrace().contains("testRoundTrip");
+
+        Object state = reader.readMessage();
+        assert state == CommandState.COMMAND_COMPLETED;
+    }
+
+
+    /**
+     * Runs commands through a client handler over a socket, and checks that
+     * the rows received are the rows of the query.
+     */
+    public void testClientHandler() throws Exception {
+        tryDoCommand("CREATE TABLE protocol_test (a INTEGER, b VARCHAR(30));", false);
+        for (int i = 0; i < 2500; i++) {
+            tryDoCommand("INSERT INTO protocol_test VALUES (" + i + ", " +
+                (i % 5 == 0 ? "NULL" : "'value " + i + "'") + ");", false);
+        }
+        CommandResult expected =
+            tryDoCommand("SELECT * FROM protocol_test;", true);
+
+        ServerSocket serverSocket = new ServerSocket(0);
+        Socket clientSocket = new Socket("localhost", serverSocket.getLocalPort());
+        Socket handlerSocket = serverSocket.accept();
+        Thread handlerThread =
+            new Thread(new ClientHandler(server, 1, handlerSocket));
+        handlerThread.start();
+
+        try {
+            ProtocolWriter writer = new ProtocolWriter(clientSocket.getOutputStream());
+            ProtocolReader reader = new ProtocolReader(clientSocket.getInputStream());
+
+            writer.writeCommand("SELECT * FROM protocol_test;");
+            writer.flush();
+
+            List<TupleLiteral> received = new ArrayList<>();
+            Schema schema = null;
+            while (true) {
+                Object obj = reader.readMessage();
+                if (obj == CommandState.COMMAND_COMPLETED)
+                    break;
+                else if (obj instanceof Schema)
+                    schema = (Schema) obj;
+                else if (obj instanceof TupleLiteral)
+                    received.add((TupleLiteral) obj);
+                else
+                    assert obj instanceof String : obj;
+            }
+
+            assert schema != null && schema.numColumns() == 2;
+            assert checkUnorderedResults(
+                received.toArray(new TupleLiteral[received.size()]), expected);
+
+            // Errors are reported, and the command still completes
+            writer.writeCommand("SELECT * FROM no_such_table;");
+            writer.flush();
+
+            boolean gotError = false;
+            while (true) {
+                Object obj = reader.readMessage();
+                if (obj == CommandState.COMMAND_COMPLETED)
+                    break;
+                else if (obj instanceof ServerException)
+                    gotError = true;
+            }
+            assert gotError;
+
+            writer.writeCommand("EXIT;");
+            writer.flush();
+            handlerThread.join(10000);
+        }
+        finally {
+            clientSocket.close();
+            handlerSocket.close();
+            serverSocket.close();
+        }
+    }
+
+
+    /**
+     * Checks that values whose class doesn't match their column's declared
+     * type, such as the average of an <tt>INTEGER</tt> column, are received
+     * without being truncated to the declared type.
+     */
+    public void testAverageOfIntegers() throws Exception {
+        tryDoCommand("CREATE TABLE protocol_avg (a INTEGER);", false);
+        tryDoCommand("INSERT INTO protocol_avg VALUES (1);", false);
+        tryDoCommand("INSERT INTO protocol_avg VALUES (2);", false);
+
+        ServerSocket serverSocket = new ServerSocket(0);
+        Socket clientSocket = new Socket("localhost", serverSocket.getLocalPort());
+        Socket handlerSocket = serverSocket.accept();
+        Thread handlerThread =
+            new Thread(new ClientHandler(server, 1, handlerSocket));
+        handlerThread.start();
+
+        try {
+            ProtocolWriter writer = new ProtocolWriter(clientSocket.getOutputStream());
+            ProtocolReader reader = new ProtocolReader(clientSocket.getInputStream());
+
+            writer.writeCommand("SELECT AVG(a), SUM(a) FROM protocol_avg;");
+            writer.flush();
+
+            List<TupleLiteral> received = new ArrayList<>();
+            while (true) {
+                Object obj = reader.readMessage();
+                if (obj == CommandState.COMMAND_COMPLETED)
+                    break;
+                else if (obj instanceof TupleLiteral)
+                    received.add((TupleLiteral) obj);
+                else
+                    assert !(obj instanceof ServerException) : obj;
+            }
+
+            assert received.size() == 1 : received;
+            TupleLiteral row = received.get(0);
+            assert Double.valueOf(1.5).equals(row.getColumnValue(0)) : row;
+            assert Integer.valueOf(3).equals(row.getColumnValue(1)) : row;
+
+            writer.writeCommand("EXIT;");
+            writer.flush();
+            handlerThread.join(10000);
+        }
+        finally {
+            clientSocket.close();
+            handlerSocket.close();
+            serverSocket.close();
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package edu.caltech.test.nanodb.server;
+
+
+import java.util.List;
+
+import org.testng.annotations.Test;
+
+import edu.caltech.nanodb.commands.ExecutionException;
+import edu.caltech.nanodb.commands.QueryCursor;
+import edu.caltech.nanodb.expressions.TupleLiteral;
+import edu.caltech.nanodb.qeval.TupleProcessor;
+import edu.caltech.nanodb.relations.Schema;
+import edu.caltech.nanodb.relations.Tuple;
+import edu.caltech.nanodb.server.CommandResult;
+import edu.caltech.nanodb.storage.BufferManager;
+
+import edu.caltech.test.nanodb.sql.SqlTestCase;
+
+
+/**
+ * This test class exercises the ways of consuming query results without
+ * collecting them all first:  cursors, and streaming the results to a
+ * tuple-processor.
+ */
+@Test
+public class TestQueryCursor extends SqlTestCase {
+
+    private void createTable(String tableName, int numRows) throws Exception {
+        tryDoCommand("CREATE TABLE " + tableName + " (a INTEGER, b VARCHAR(20));");
+        for (int i = 0; i < numRows; i++) {
+            tryDoCommand("INSERT INTO " + tableName + " VALUES (" + i +
+                ", 'value " + i + "');");
+        }
+    }
+
+
+    public void testFetchInChunks() throws Exception {
+        createTable("cursor_chunks", 250);
+
+        QueryCursor cursor =
+            server.openCursor("SELECT a, b FROM cursor_chunks WHERE a >= 50;");
+        try {
+            Schema schema = cursor.getSchema();
+            assert schema.numColumns() == 2;
+            assert schema.getColumnInfo(1).getName().equalsIgnoreCase("b");
+
+            int total = 0;
+            boolean[] seen = new boolean[250];
+            while (true) {
+                List<TupleLiteral> rows = cursor.fetch(30);
+                for (TupleLiteral row : rows) {
+                    int a = (Integer) row.getColumnValue(0);
+                    assert a >= 50 && !seen[a];
+                    assert row.getColumnValue(1).equals("value " + a);
+                    seen[a] = true;
+                }
+
+                total += rows.size();
+                if (rows.size() < 30)
+                    break;
+            }
+
+            assert total == 200;
+            assert cursor.getRowsProduced() == 200;
+            assert cursor.next() == null;
+        }
+        finally {
+            cursor.close();
+        }
+
+        assert cursor.isClosed();
+        try {
+            cursor.next();
+            assert false : "A closed cursor produced a row";
+        }
+        catch (ExecutionException e) {
+            // Expected.
+        }
+
+        // Closing again does nothing, and other commands still work.
+        cursor.close();
+        assert getResultTuples("SELECT * FROM cursor_chunks;").size() == 250;
+    }
+
+
+    /**
+     * Checks that a cursor only keeps the pages of its current position
+     * pinned between fetches, for a scan and for a join, instead of every
+     * page it has read.
+     */
+    public void testFetchUnpinsPages() throws Exception {
+        tryDoCommand("CREATE TABLE cursor_pins (a INTEGER, b CHAR(200));");
+        for (int i = 0; i < 1000; i++)
+            tryDoCommand("INSERT INTO cursor_pins VALUES (" + i + ", 'x');");
+        createTable("cursor_pins_small", 3);
+
+        BufferManager bufferManager =
+            server.getStorageManager().getBufferManager();
+        int pinnedBefore = bufferManager.getNumPinnedPages();
+
+        QueryCursor cursor = server.openCursor(
+            "SELECT * FROM cursor_pins_small s, cursor_pins p " +
+            "WHERE s.a = p.a % 3;");
+        try {
+            int total = 0;
+            boolean[] seen = new boolean[1000];
+            while (true) {
+                List<TupleLiteral> rows = cursor.fetch(40);
+                for (TupleLiteral row : rows) {
+                    int a = (Integer) row.getColumnValue(2);
+                    assert !seen[a] && row.getColumnValue(0).equals(a % 3);
+                    seen[a] = true;
+                }
+                total += rows.size();
+
+                int pinned = bufferManager.getNumPinnedPages() - pinnedBefore;
+                assert pinned <= 4 : pinned + " pages are still pinned";
+
+                if (rows.size() < 40)
+                    break;
+            }
+            assert total == 1000;
+        }
+        finally {
+            cursor.close();
+        }
+
+        assert bufferManager.getNumPinnedPages() == pinnedBefore;
+    }
+
+
+    public void testCloseEarly() throws Exception {
+        createTable("cursor_early", 100);
+
+        QueryCursor cursor = server.openCursor(
+            "SELECT * FROM cursor_early ORDER BY a DESC;");
+        TupleLiteral row = cursor.next();
+        assert row.getColumnValue(0).equals(99);
+        cursor.close();
+
+        tryDoCommand("DELETE FROM cursor_early WHERE a < 50;");
+        assert getResultTuples("SELECT * FROM cursor_early;").size() == 50;
+    }
+
+
+    public void testCursorErrors() throws Exception {
+        createTable("cursor_errors", 1);
+
+        try {
+            server.openCursor("DELETE FROM cursor_errors;");
+            assert false : "Cursor was opened over a DELETE";
+        }
+        catch (ExecutionException e) {
+            // Expected.
+        }
+
+        try {
+            server.openCursor("SELECT * FROM no_such_table;");
+            assert false : "Cursor was opened over a missing table";
+        }
+        catch (ExecutionException e) {
+            // Expected.
+        }
+
+        assert getResultTuples("SELECT * FROM cursor_errors;").size() == 1;
+    }
+
+
+    /** Streams a query's results to a tuple-processor that counts them. */
+    public void testStreamToProcessor() throws Exception {
+        createTable("cursor_stream", 500);
+
+        final int[] counts = new int[2];
+        TupleProcessor counter = new TupleProcessor() {
+            public void setSchema(Schema schema) {
+                counts[0]++;
+            }
+
+            public void process(Tuple tuple) {
+                counts[1]++;
+            }
+
+            public void finish() {
+            }
+        };
+
+        CommandResult result = server.doCommand(
+            server.parseCommand("SELECT * FROM cursor_stream WHERE a < 300;"),
+            counter);
+        assert !result.failed();
+        assert result.getTuples() == null;
+        assert counts[0] == 1 && counts[1] == 300;
+    }
+}
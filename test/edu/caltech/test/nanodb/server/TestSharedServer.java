@@ -0,0 +1,283 @@
+package edu.caltech.test.nanodb.server;
+
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.testng.annotations.Test;
+
+import edu.caltech.nanodb.expressions.TupleLiteral;
+import edu.caltech.nanodb.server.CommandState;
+import edu.caltech.nanodb.server.ProtocolReader;
+import edu.caltech.nanodb.server.ProtocolWriter;
+import edu.caltech.nanodb.server.ServerException;
+import edu.caltech.nanodb.server.SharedServer;
+
+import edu.caltech.test.nanodb.sql.SqlTestCase;
+
+
+/**
+ * This test class exercises the shared server's handling of connections:
+ * many idle connections, the connection limit, idle timeouts, pipelined
+ * commands, and letting commands finish when the server shuts down.
+ */
+@Test
+public class TestSharedServer extends SqlTestCase {
+
+    /** A client connection to the shared server. */
+    private static class Client {
+        Socket socket;
+        ProtocolWriter writer;
+        ProtocolReader reader;
+
+        Client(int port) throws IOException {
+            socket = new Socket("localhost", port);
+            writer = new ProtocolWriter(socket.getOutputStream());
+            reader = new ProtocolReader(socket.getInputStream());
+        }
+
+        void send(String command) throws IOException {
+            writer.writeCommand(command);
+            writer.flush();
+        }
+
+        /** Reads the rows of a command's response, until it completes. */
+        List<TupleLiteral> readRows() throws IOException {
+            List<TupleLiteral> rows = new ArrayList<>();
+            while (true) {
+                Object obj = reader.readMessage();
+                if (obj == CommandState.COMMAND_COMPLETED)
+                    return rows;
+
+                assert !(obj instanceof ServerException) : obj;
+                if (obj instanceof TupleLiteral)
+                    rows.add((TupleLiteral) obj);
+            }
+        }
+
+        /** Returns true if the server has closed the connection. */
+        boolean isClosedByServer() throws IOException {
+            try {
+                reader.readMessage();
+                return false;
+            }
+            catch (EOFException e) {
+                return true;
+            }
+        }
+
+        void close() throws IOException {
+            socket.close();
+        }
+    }
+
+
+    private SharedServer startServer() throws IOException {
+        SharedServer sharedServer = new SharedServer(server);
+        sharedServer.setPort(0);
+        sharedServer.setNumWorkers(2);
+        return sharedServer;
+    }
+
+
+    private void createTable(String tableName, int numRows) throws Exception {
+        tryDoCommand("CREATE TABLE " + tableName + " (a INTEGER, b VARCHAR(20));",
+            false);
+        for (int i = 0; i < numRows; i++) {
+            tryDoCommand("INSERT INTO " + tableName + " VALUES (" + i +
+                ", 'value " + i + "');", false);
+        }
+    }
+
+
+    /**
+     * Opens many more connections than there are worker threads, leaves most
+     * of them idle, and runs commands on some of them.
+     */
+    public void testManyIdleConnections() throws Exception {
+        createTable("shared_idle", 10);
+
+        SharedServer sharedServer = startServer();
+        sharedServer.startup();
+
+        int threadsBefore = Thread.activeCount();
+        List<Client> clients = new ArrayList<>();
+        try {
+            for (int i = 0; i < 300; i++)
+                clients.add(new Client(sharedServer.getPort()));
+
+            // Idle connections don't get threads of their own
+            assert Thread.activeCount() - threadsBefore < 10;
+
+            for (int i = 0; i < clients.size(); i += 15)
+                clients.get(i).send("SELECT * FROM shared_idle;");
+
+            for (int i = 0; i < clients.size(); i += 15)
+                assert clients.get(i).readRows().size() == 10;
+
+            assert sharedServer.getNumConnections() == 300;
+        }
+        finally {
+            for (Client client : clients)
+                client.close();
+
+            sharedServer.shutdown();
+        }
+    }
+
+
+    /**
+     * Checks that clients beyond the connection limit are sent an error and
+     * disconnected, and that closing a connection makes room for another.
+     */
+    public void testConnectionLimit() throws Exception {
+        SharedServer sharedServer = startServer();
+        sharedServer.setMaxConnections(2);
+        sharedServer.startup();
+
+        try {
+            Client client1 = new Client(sharedServer.getPort());
+            Client client2 = new Client(sharedServer.getPort());
+            Client client3 = new Client(sharedServer.getPort());
+
+            assert client3.reader.readMessage() instanceof ServerException;
+            assert client3.isClosedByServer();
+            client3.close();
+
+            client1.send("EXIT;");
+            assert client1.isClosedByServer();
+            client1.close();
+
+            Client client4 = new Client(sharedServer.getPort());
+            client4.send("SHOW VARIABLES;");
+            client4.readRows();
+
+            client2.close();
+            client4.close();
+        }
+        finally {
+            sharedServer.shutdown();
+        }
+    }
+
+
+    /**
+     * Checks that connections are closed once they are idle for longer than
+     * the idle timeout, and that active connections aren't.
+     */
+    public void testIdleTimeout() throws Exception {
+        SharedServer sharedServer = startServer();
+        sharedServer.setIdleTimeout(300);
+        sharedServer.startup();
+
+        try {
+            Client idle = new Client(sharedServer.getPort());
+            Client active = new Client(sharedServer.getPort());
+
+            for (int i = 0; i < 8; i++) {
+                Thread.sleep(100);
+                active.send("SHOW VARIABLES;");
+                active.readRows();
+            }
+
+            assert idle.isClosedByServer();
+            assert sharedServer.getNumConnections() == 1;
+
+            idle.close();
+            active.close();
+        }
+        finally {
+            sharedServer.shutdown();
+        }
+    }
+
+
+    /**
+     * Sends many commands without reading any responses, including ones
+     * that fail, and checks that the responses come back in order.
+     */
+    public void testPipelinedCommands() throws Exception {
+        createTable("shared_pipeline", 0);
+
+        SharedServer sharedServer = startServer();
+        sharedServer.startup();
+
+        Client client = new Client(sharedServer.getPort());
+        try {
+            for (int i = 0; i < 200; i++) {
+                client.writer.writeCommand("INSERT INTO shared_pipeline " +
+                    "VALUES (" + i + ", 'value " + i + "');");
+                client.writer.writeCommand("SELECT b FROM shared_pipeline " +
+                    "WHERE a = " + i + ";");
+                client.writer.writeCommand("SELECT * FROM no_such_table;");
+            }
+            client.writer.flush();
+
+            for (int i = 0; i < 200; i++) {
+                assert client.readRows().isEmpty();
+
+                List<TupleLiteral> rows = client.readRows();
+                assert rows.size() == 1;
+                assert rows.get(0).getColumnValue(0).equals("value " + i);
+
+                boolean failed = false;
+                while (true) {
+                    Object obj = client.reader.readMessage();
+                    if (obj == CommandState.COMMAND_COMPLETED)
+                        break;
+
+                    if (obj instanceof ServerException)
+                        failed = true;
+                }
+                assert failed;
+            }
+
+            // The client can wait for a response once more.
+            client.send("SELECT * FROM shared_pipeline;");
+            assert client.readRows().size() == 200;
+        }
+        finally {
+            client.close();
+            sharedServer.shutdown();
+        }
+    }
+
+
+    /**
+     * Shuts down the server while a command is sending its results, and
+     * checks that the command finishes before the connection is closed.
+     */
+    public void testShutdownDrainsCommands() throws Exception {
+        createTable("shared_drain", 3000);
+
+        final SharedServer sharedServer = startServer();
+        sharedServer.startup();
+
+        Client idle = new Client(sharedServer.getPort());
+        Client busy = new Client(sharedServer.getPort());
+        busy.send("SELECT * FROM shared_drain;");
+
+        // Once the first batch of rows arrives, the command is executing
+        int numRows = 0;
+        while (!(busy.reader.readMessage() instanceof TupleLiteral));
+        numRows++;
+
+        Thread shutdownThread = new Thread(new Runnable() {
+            public void run() { sharedServer.shutdown(); }
+        });
+        shutdownThread.start();
+
+        numRows += busy.readRows().size();
+        assert numRows == 3000 : numRows;
+
+        assert busy.isClosedByServer();
+        assert idle.isClosedByServer();
+        shutdownThread.join(10000);
+
+        busy.close();
+        idle.close();
+    }
+}
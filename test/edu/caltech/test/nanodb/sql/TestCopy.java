@@ -0,0 +1,345 @@
+package edu.caltech.test.nanodb.sql;
+
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.List;
+
+import org.testng.annotations.Test;
+
+import edu.caltech.nanodb.expressions.TupleLiteral;
+import edu.caltech.nanodb.indexes.IndexInfo;
+import edu.caltech.nanodb.indexes.IndexUtils;
+import edu.caltech.nanodb.relations.Schema;
+import edu.caltech.nanodb.relations.TableInfo;
+import edu.caltech.nanodb.relations.Tuple;
+import edu.caltech.nanodb.server.CommandResult;
+import edu.caltech.nanodb.server.ProtocolReader;
+import edu.caltech.nanodb.storage.StorageManager;
+import edu.caltech.nanodb.storage.TupleFile;
+
+
+/**
+ * This class exercises <tt>COPY ... FROM</tt> and <tt>COPY ... TO</tt>,
+ * checking that values are parsed from and written to CSV files correctly,
+ * and that tables loaded in bulk end up with indexes that match their rows.
+ */
+@Test
+public class TestCopy extends SqlTestCase {
+
+    private String writeFile(String contents) throws Exception {
+        File file = File.createTempFile("nanodb-copy", ".csv");
+        file.deleteOnExit();
+
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        writer.write(contents);
+        writer.close();
+
+        return file.getPath();
+    }
+
+
+    private String tempPath() throws Exception {
+        File file = File.createTempFile("nanodb-copy", ".out");
+        file.deleteOnExit();
+        return file.getPath();
+    }
+
+
+    private String readFile(String path) throws Exception {
+        FileInputStream in = new FileInputStream(path);
+        try {
+            byte[] bytes = new byte[(int) new File(path).length()];
+            int len = 0;
+            while (len < bytes.length)
+                len += in.read(bytes, len, bytes.length - len);
+
+            return new String(bytes, "UTF-8");
+        }
+        finally {
+            in.close();
+        }
+    }
+
+
+    private String makeRows(int start, int end) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = start; i < end; i++)
+            sb.append(i).append(",value ").append(i).append('\n');
+
+        return sb.toString();
+    }
+
+
+    private String writeRows(int start, int end) throws Exception {
+        return writeFile(makeRows(start, end));
+    }
+
+
+    private void assertFails(String command) throws Exception {
+        CommandResult result = server.doCommand(command, false);
+        assert result.failed() : command;
+    }
+
+
+    /**
+     * Checks that every index on the table has exactly one entry for each of
+     * the table's rows.
+     */
+    private void checkIndexes(String tableName, int numRows) throws Exception {
+        StorageManager storageManager = server.getStorageManager();
+
+        // The parser converts unquoted names to uppercase.
+        TableInfo tableInfo = storageManager.getTableManager().openTable(
+            tableName.toUpperCase());
+
+        for (String indexName : tableInfo.getSchema().getIndexNames()) {
+            IndexInfo indexInfo = storageManager.getIndexManager().openIndex(
+                tableInfo, indexName);
+            TupleFile indexFile = indexInfo.getTupleFile();
+
+            List<String> errors = IndexUtils.verifyIndex(
+                tableInfo.getTupleFile(), indexFile);
+            assert errors.isEmpty() : errors;
+
+            int numEntries = 0;
+            for (Tuple tup = indexFile.getFirstTuple(); tup != null;
+                 tup = indexFile.getNextTuple(tup)) {
+                numEntries++;
+            }
+            assert numEntries == numRows : indexName + " has " + numEntries;
+        }
+    }
+
+
+    public void testCopyValues() throws Throwable {
+        tryDoCommand("CREATE TABLE copy_values (a INTEGER, b VARCHAR(30), c DOUBLE);");
+
+        String path = writeFile("a,b,c\r\n" +
+            "1,plain,1.5\r\n" +
+            "2,\"with, comma\",-2\r\n" +
+            "3,\"say \"\"hi\"\"\",\n" +
+            ",\"\",3.25\n" +
+            "5,\"two\nlines\",0");
+        tryDoCommand("COPY copy_values FROM '" + path +
+            "' PROPERTIES (header = TRUE);");
+
+        List<TupleLiteral> rows = getResultTuples("SELECT * FROM copy_values;");
+        assert rows.size() == 5;
+
+        assert rows.get(0).getColumnValue(0).equals(1);
+        assert rows.get(0).getColumnValue(1).equals("plain");
+        assert rows.get(0).getColumnValue(2).equals(1.5);
+
+        assert rows.get(1).getColumnValue(1).equals("with, comma");
+        assert rows.get(1).getColumnValue(2).equals(-2.0);
+
+        assert rows.get(2).getColumnValue(1).equals("say \"hi\"");
+        assert rows.get(2).getColumnValue(2) == null;
+
+        // An empty value is NULL, but a quoted empty value is a string.
+        assert rows.get(3).getColumnValue(0) == null;
+        assert rows.get(3).getColumnValue(1).equals("");
+
+        assert rows.get(4).getColumnValue(1).equals("two\nlines");
+
+        tryDoCommand("CREATE TABLE copy_delim (a INTEGER, b VARCHAR(30));");
+        path = writeFile("7|a,b\n8|c\n");
+        tryDoCommand("COPY copy_delim FROM '" + path +
+            "' PROPERTIES (delimiter = '|');");
+
+        rows = getResultTuples("SELECT * FROM copy_delim;");
+        assert rows.size() == 2 && rows.get(0).getColumnValue(1).equals("a,b");
+    }
+
+
+    public void testCopyIndexedTable() throws Throwable {
+        tryDoCommand("CREATE TABLE copy_indexed (a INTEGER PRIMARY KEY, " +
+            "b VARCHAR(30));");
+        tryDoCommand("CREATE INDEX idx_copy_b ON copy_indexed (b);");
+
+        // The indexes are empty, so they are built by the bulk-loader.
+        tryDoCommand("COPY copy_indexed FROM '" + writeRows(0, 3000) + "';");
+        checkIndexes("copy_indexed", 3000);
+
+        // Now they have entries, so the new ones are added to them.
+        tryDoCommand("COPY copy_indexed FROM '" + writeRows(3000, 4000) + "';");
+        checkIndexes("copy_indexed", 4000);
+
+        assert getResultTuples("SELECT * FROM copy_indexed;").size() == 4000;
+
+        List<TupleLiteral> rows =
+            getResultTuples("SELECT b FROM copy_indexed WHERE a = 3456;");
+        assert rows.size() == 1 &&
+            rows.get(0).getColumnValue(0).equals("value 3456");
+
+        // Rows can still be inserted normally into the loaded pages.
+        tryDoCommand("INSERT INTO copy_indexed VALUES (5000, 'inserted');");
+        checkIndexes("copy_indexed", 4001);
+
+        // A duplicate of an existing key violates the primary key.
+        assertFails("COPY copy_indexed FROM '" + writeRows(3999, 4001) + "';");
+    }
+
+
+    /**
+     * Checks that when a load into an indexed table fails partway, the rows
+     * loaded before the bad row are in the indexes too, and a row that
+     * violates the primary key is never stored.
+     */
+    public void testCopyIndexedTableErrors() throws Throwable {
+        tryDoCommand("CREATE TABLE copy_indexed_errs (a INTEGER PRIMARY KEY, " +
+            "b VARCHAR(30));");
+        tryDoCommand("CREATE INDEX idx_copy_errs_b ON copy_indexed_errs (b);");
+
+        // A key repeated within the file, while the indexes are bulk-loaded.
+        assertFails("COPY copy_indexed_errs FROM '" +
+            writeFile(makeRows(0, 2000) + "5,again\n" + makeRows(2000, 2100)) + "';");
+        checkIndexes("copy_indexed_errs", 2000);
+
+        // A bad value, while the indexes are added to.
+        assertFails("COPY copy_indexed_errs FROM '" +
+            writeFile(makeRows(2000, 2500) + "oops,bad\n") + "';");
+        checkIndexes("copy_indexed_errs", 2500);
+
+        // A key that the table already has.
+        assertFails("COPY copy_indexed_errs FROM '" +
+            writeFile(makeRows(2500, 2600) + "100,again\n") + "';");
+        checkIndexes("copy_indexed_errs", 2600);
+
+        List<TupleLiteral> rows = getResultTuples(
+            "SELECT b FROM copy_indexed_errs WHERE a = 5 OR a = 100;");
+        assert rows.size() == 2;
+        for (TupleLiteral row : rows)
+            assert ((String) row.getColumnValue(0)).startsWith("value ") : row;
+    }
+
+
+    public void testCopyErrors() throws Throwable {
+        tryDoCommand("CREATE TABLE copy_errs (a INTEGER NOT NULL, b VARCHAR(30));");
+
+        assertFails("COPY copy_errs FROM '" + writeFile("1,a,extra\n") + "';");
+        assertFails("COPY copy_errs FROM '" + writeFile("one,a\n") + "';");
+        assertFails("COPY copy_errs FROM '" + writeFile(",a\n") + "';");
+        assertFails("COPY copy_errs FROM '" + writeFile("1,\"a\n") + "';");
+        assertFails("COPY copy_errs FROM '" + writeFile("1,\"a\"b\n") + "';");
+        assertFails("COPY copy_errs FROM 'no_such_file.csv';");
+        assertFails("COPY no_such_table FROM '" + writeFile("1,a\n") + "';");
+        assertFails("COPY copy_errs FROM '" + writeFile("1;a\n") +
+            "' PROPERTIES (delimiter = ';;');");
+        assertFails("COPY copy_errs FROM '" + writeFile("1,a\n") +
+            "' PROPERTIES (quote = 'x');");
+
+        assert getResultTuples("SELECT * FROM copy_errs;").isEmpty();
+
+        tryDoCommand("COPY copy_errs FROM '" + writeFile("1,a\n2,\n") + "';");
+        assert getResultTuples("SELECT * FROM copy_errs;").size() == 2;
+    }
+
+
+    public void testCopyQueryToCsv() throws Throwable {
+        tryDoCommand("CREATE TABLE copy_out (a INTEGER, b VARCHAR(30), c DOUBLE);");
+        tryDoCommand("INSERT INTO copy_out VALUES (1, 'plain', 1.5);");
+        tryDoCommand("INSERT INTO copy_out VALUES (2, 'a, \"quoted\" b', NULL);");
+        tryDoCommand("INSERT INTO copy_out VALUES (3, '', -0.25);");
+        tryDoCommand("INSERT INTO copy_out VALUES (NULL, NULL, 4);");
+
+        String path = tempPath();
+        tryDoCommand("COPY (SELECT * FROM copy_out) TO '" + path +
+            "' PROPERTIES (header = TRUE);");
+
+        // The file loads back in with the same values.
+        tryDoCommand("CREATE TABLE copy_back (a INTEGER, b VARCHAR(30), c DOUBLE);");
+        tryDoCommand("COPY copy_back FROM '" + path +
+            "' PROPERTIES (header = TRUE);");
+
+        List<TupleLiteral> expected = getResultTuples("SELECT * FROM copy_out;");
+        List<TupleLiteral> actual = getResultTuples("SELECT * FROM copy_back;");
+        assert expected.size() == 4;
+        assert sameResultsOrdered(expected.toArray(new TupleLiteral[4]), actual);
+
+        path = tempPath();
+        tryDoCommand("COPY (SELECT a, c FROM copy_out WHERE a > 1) TO '" +
+            path + "' FORMAT CSV PROPERTIES (delimiter = '|');");
+        assert readFile(path).equals("2|\n3|-0.25\n");
+    }
+
+
+    public void testCopyQueryToBinary() throws Throwable {
+        tryDoCommand("CREATE TABLE copy_bin (a INTEGER, b VARCHAR(30));");
+        for (int i = 0; i < 2500; i++) {
+            tryDoCommand("INSERT INTO copy_bin VALUES (" + i + ", " +
+                (i % 10 == 0 ? "NULL" : "'value " + i + "'") + ");");
+        }
+
+        String path = tempPath();
+        tryDoCommand("COPY (SELECT * FROM copy_bin WHERE a < 2000) TO '" +
+            path + "' FORMAT BINARY;");
+
+        ProtocolReader reader = new ProtocolReader(new FileInputStream(path));
+        try {
+            Schema schema = (Schema) reader.readMessage();
+            assert schema.numColumns() == 2;
+
+            for (int i = 0; i < 2000; i++) {
+                TupleLiteral row = (TupleLiteral) reader.readMessage();
+                assert row.getColumnValue(0).equals(i);
+                assert (i % 10 == 0 ? row.getColumnValue(1) == null :
+                    row.getColumnValue(1).equals("value " + i));
+            }
+
+            try {
+                reader.readMessage();
+                assert false : "Expected the end of the file";
+            }
+            catch (EOFException e) {
+                // Expected.
+            }
+        }
+        finally {
+            reader.close();
+        }
+    }
+
+
+    public void testCopyTableSegments() throws Throwable {
+        tryDoCommand("CREATE TABLE copy_segs (a INTEGER, b VARCHAR(30));");
+        tryDoCommand("COPY copy_segs FROM '" + writeRows(0, 5000) + "';");
+
+        String path = tempPath();
+        tryDoCommand("COPY copy_segs TO '" + path +
+            "' PROPERTIES (writers = 3);");
+
+        // Loading the segments in order gives back the table's rows in order.
+        tryDoCommand("CREATE TABLE copy_segs_back (a INTEGER, b VARCHAR(30));");
+        for (int i = 0; i < 3; i++) {
+            File segment = new File(String.format("%s.%03d", path, i));
+            segment.deleteOnExit();
+            assert segment.length() > 0 : segment;
+
+            tryDoCommand("COPY copy_segs_back FROM '" + segment.getPath() + "';");
+        }
+        assert !new File(path + ".003").exists();
+
+        List<TupleLiteral> rows =
+            getResultTuples("SELECT * FROM copy_segs_back;");
+        assert rows.size() == 5000;
+        for (int i = 0; i < rows.size(); i++) {
+            assert rows.get(i).getColumnValue(0).equals(i);
+            assert rows.get(i).getColumnValue(1).equals("value " + i);
+        }
+
+        // A single writer writes the file itself.
+        path = tempPath();
+        tryDoCommand("COPY copy_segs TO '" + path + "' FORMAT BINARY;");
+        assert new File(path).length() > 0;
+
+        assertFails("COPY copy_segs TO '" + tempPath() + "' FORMAT XML;");
+        assertFails("COPY copy_segs TO '" + tempPath() +
+            "' PROPERTIES (writers = 0);");
+    }
+}
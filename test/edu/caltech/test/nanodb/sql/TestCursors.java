@@ -0,0 +1,115 @@
+package edu.caltech.test.nanodb.sql;
+
+
+import java.util.List;
+
+import org.testng.annotations.Test;
+
+import edu.caltech.nanodb.expressions.TupleLiteral;
+import edu.caltech.nanodb.server.CommandResult;
+
+
+/**
+ * This class exercises <tt>DECLARE ... CURSOR</tt>, <tt>FETCH</tt> and
+ * <tt>CLOSE</tt>, and checks that cursors' suspended plans survive the
+ * commands executed between fetches.
+ */
+@Test
+public class TestCursors extends SqlTestCase {
+
+    private void createTable(String tableName, int numRows) throws Exception {
+        tryDoCommand("CREATE TABLE " + tableName + " (a INTEGER, b VARCHAR(20));");
+        for (int i = 0; i < numRows; i++) {
+            tryDoCommand("INSERT INTO " + tableName + " VALUES (" + i +
+                ", 'value " + i + "');");
+        }
+    }
+
+
+    private void assertFails(String command) throws Exception {
+        CommandResult result = server.doCommand(command, false);
+        assert result.failed() : command;
+    }
+
+
+    public void testFetchPages() throws Throwable {
+        createTable("cursor_pages", 300);
+        createTable("cursor_other", 50);
+
+        tryDoCommand("DECLARE pages CURSOR FOR " +
+            "SELECT a, b FROM cursor_pages WHERE a >= 10 ORDER BY a;");
+
+        // Other commands run between fetches, unpinning the session's pages.
+        int next = 10;
+        for (int page = 0; page < 3; page++) {
+            CommandResult result = tryDoCommand("FETCH 100 FROM pages;", true);
+            assert result.getSchema().numColumns() == 2;
+
+            List<TupleLiteral> rows = result.getTuples();
+            assert rows.size() == (page < 2 ? 100 : 90);
+            for (TupleLiteral row : rows) {
+                assert row.getColumnValue(0).equals(next);
+                assert row.getColumnValue(1).equals("value " + next);
+                next++;
+            }
+
+            tryDoCommand("INSERT INTO cursor_other VALUES (" + (50 + page) +
+                ", 'other');");
+            assert getResultTuples("SELECT * FROM cursor_other;").size() ==
+                51 + page;
+        }
+
+        assert getResultTuples("FETCH 100 FROM pages;").isEmpty();
+        tryDoCommand("CLOSE pages;");
+        assertFails("FETCH pages;");
+    }
+
+
+    public void testFetchCounts() throws Throwable {
+        createTable("cursor_counts", 20);
+
+        tryDoCommand("DECLARE counts CURSOR FOR SELECT a FROM cursor_counts;");
+
+        // A heap file scan produces the rows in insertion order.
+        List<TupleLiteral> rows = getResultTuples("FETCH counts;");
+        assert rows.size() == 1 && rows.get(0).getColumnValue(0).equals(0);
+
+        rows = getResultTuples("FETCH 0 IN counts;");
+        assert rows.isEmpty();
+
+        rows = getResultTuples("FETCH 4 counts;");
+        assert rows.size() == 4 && rows.get(3).getColumnValue(0).equals(4);
+
+        rows = getResultTuples("FETCH ALL FROM counts;");
+        assert rows.size() == 15 && rows.get(0).getColumnValue(0).equals(5);
+
+        tryDoCommand("CLOSE counts;");
+    }
+
+
+    public void testCursorErrors() throws Throwable {
+        createTable("cursor_errs", 5);
+
+        assertFails("FETCH 1 FROM missing;");
+        assertFails("CLOSE missing;");
+        assertFails("DECLARE bad CURSOR FOR SELECT * FROM no_such_table;");
+
+        tryDoCommand("DECLARE errs CURSOR FOR SELECT * FROM cursor_errs;");
+        assertFails("DECLARE errs CURSOR FOR SELECT * FROM cursor_errs;");
+
+        // A failed declaration doesn't leave a cursor behind.
+        assertFails("FETCH bad;");
+
+        tryDoCommand("DECLARE errs2 CURSOR FOR SELECT * FROM cursor_errs;");
+        assert getResultTuples("FETCH 2 FROM errs2;").size() == 2;
+
+        tryDoCommand("CLOSE ALL;");
+        assertFails("FETCH errs;");
+        assertFails("FETCH errs2;");
+
+        // Names can be reused once the cursors are closed.
+        tryDoCommand("DECLARE errs CURSOR FOR SELECT * FROM cursor_errs;");
+        assert getResultTuples("FETCH ALL errs;").size() == 5;
+        tryDoCommand("CLOSE errs;");
+    }
+}
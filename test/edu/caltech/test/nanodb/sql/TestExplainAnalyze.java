@@ -0,0 +1,86 @@
+package edu.caltech.test.nanodb.sql;
+
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+import org.testng.annotations.Test;
+
+import edu.caltech.nanodb.client.SessionState;
+
+
+/**
+ * This class exercises <tt>EXPLAIN ANALYZE</tt>, checking that the actual
+ * statistics of every plan node are reported, and that statements other than
+ * <tt>SELECT</tt> are executed.
+ */
+@Test
+public class TestExplainAnalyze extends SqlTestCase {
+
+    /** Runs a command, returning the output it prints. */
+    private String getOutput(String command) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        SessionState state = SessionState.get();
+        state.setOutputStream(new PrintStream(bytes, true, "UTF-8"));
+        try {
+            tryDoCommand(command);
+        }
+        finally {
+            state.setOutputStream(System.out);
+        }
+
+        return bytes.toString("UTF-8");
+    }
+
+
+    private void createTable(String tableName, int numRows) throws Exception {
+        tryDoCommand("CREATE TABLE " + tableName + " (a INTEGER, b VARCHAR(20));");
+        for (int i = 0; i < numRows; i++) {
+            tryDoCommand("INSERT INTO " + tableName + " VALUES (" + i +
+                ", 'value " + i + "');");
+        }
+    }
+
+
+    public void testExplainAnalyzeSelect() throws Throwable {
+        createTable("analyze_sel", 100);
+        createTable("analyze_join", 20);
+
+        String output = getOutput("EXPLAIN ANALYZE SELECT * FROM analyze_sel " +
+            "WHERE a < 10;");
+        assert output.contains("actual=[rows=10,") : output;
+        assert output.contains("Actual 10 tuples") : output;
+
+        // Every node of the plan reports what it did.
+        output = getOutput("EXPLAIN ANALYZE SELECT * FROM analyze_sel s, " +
+            "analyze_join j WHERE s.a = j.a;");
+        int numNodes = 0;
+        for (String line : output.split("\n")) {
+            if (line.contains(" cost=")) {
+                assert line.contains(" actual=[rows=") : line;
+                numNodes++;
+            }
+        }
+        assert numNodes >= 3 : output;
+        assert output.contains("Actual 20 tuples") : output;
+
+        // The table's pages are read by the scans.
+        assert output.matches("(?s).*pagesHit=[1-9].*") : output;
+
+        // EXPLAIN alone doesn't execute the query.
+        output = getOutput("EXPLAIN SELECT * FROM analyze_sel;");
+        assert !output.contains("actual=") : output;
+        assert !output.contains("Actual ") : output;
+    }
+
+
+    public void testExplainAnalyzeDelete() throws Throwable {
+        createTable("analyze_del", 30);
+
+        String output = getOutput("EXPLAIN ANALYZE DELETE FROM analyze_del " +
+            "WHERE a >= 10;");
+        assert output.contains("Actual 20 tuples") : output;
+
+        assert getResultTuples("SELECT * FROM analyze_del;").size() == 10;
+    }
+}
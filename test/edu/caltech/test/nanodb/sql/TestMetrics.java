@@ -0,0 +1,165 @@
+package edu.caltech.test.nanodb.sql;
+
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.annotations.Test;
+
+import edu.caltech.nanodb.client.SessionState;
+import edu.caltech.nanodb.expressions.TupleLiteral;
+import edu.caltech.nanodb.server.performance.LatencyHistogram;
+import edu.caltech.nanodb.server.performance.MetricsDumper;
+import edu.caltech.nanodb.server.performance.MetricsRegistry;
+import edu.caltech.nanodb.server.performance.MetricsReporter;
+import edu.caltech.nanodb.server.performance.PerformanceCounters;
+
+
+/**
+ * This class exercises the performance counters and latency histograms,
+ * checking that statistics are kept for each session as well as for the
+ * whole server, and that they can be read, reset, shown and dumped.
+ */
+@Test
+public class TestMetrics extends SqlTestCase {
+
+    /** A reporter that counts the dumps it receives. */
+    public static class CountingReporter implements MetricsReporter {
+        static CountDownLatch dumps = new CountDownLatch(2);
+
+        @Override
+        public void report(MetricsRegistry metrics) {
+            dumps.countDown();
+        }
+    }
+
+
+    private long getValue(String query) throws Exception {
+        List<TupleLiteral> rows = getResultTuples(query);
+        assert rows.size() == 1;
+        return (Long) rows.get(0).getColumnValue(0);
+    }
+
+
+    private long sessionQueries() throws Exception {
+        return getValue("SELECT PERF_COUNTER('query.execTime.count', 'SESSION');");
+    }
+
+
+    public void testLatencyHistogram() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assert histogram.getPercentileNanos(99) == 0;
+
+        for (int i = 1; i <= 100; i++)
+            histogram.record(i * 1000L);
+
+        assert histogram.getCount() == 100;
+        assert histogram.getMaxNanos() == 100000;
+        assert histogram.getMeanNanos() == 50500;
+        assert histogram.getStat("mean") == 50;
+
+        // Percentiles are only reported to within a factor of two.
+        long p50 = histogram.getPercentileNanos(50);
+        assert p50 >= 50000 && p50 < 100000 : p50;
+        assert histogram.getPercentileNanos(100) == 100000;
+
+        assert histogram.clear() == 100;
+        assert histogram.getCount() == 0 && histogram.getMaxNanos() == 0;
+    }
+
+
+    public void testSessionAndGlobalScopes() throws Throwable {
+        tryDoCommand("CREATE TABLE metrics_t (a INTEGER);");
+        tryDoCommand("INSERT INTO metrics_t VALUES (1);");
+
+        long session = sessionQueries();
+        long global = PerformanceCounters.get("query.execTime.count");
+        assert global >= session;
+
+        tryDoCommand("SELECT * FROM metrics_t;");
+        assert sessionQueries() == session + 2;
+
+        // Queries of another session only count towards the global value.
+        session = sessionQueries();
+        global = PerformanceCounters.get("query.execTime.count");
+        Thread other = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    tryDoCommand("SELECT * FROM metrics_t;");
+                }
+                catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        other.start();
+        other.join();
+
+        assert PerformanceCounters.get("query.execTime.count") > global;
+        assert sessionQueries() == session + 1;
+
+        // Resetting the session's histogram leaves the global one.  The
+        // table has one row, so the function is called once.
+        session = sessionQueries();
+        long reset = getValue("SELECT RESET_PERF_COUNTER('query.execTime', " +
+            "'session') FROM metrics_t;");
+        assert reset == session + 1;
+        assert sessionQueries() == 1;
+        assert PerformanceCounters.get("query.execTime.count") > global;
+
+        // Page accesses are counted too.
+        MetricsRegistry metrics = PerformanceCounters.getSessionMetrics();
+        assert metrics.get(PerformanceCounters.BUFFER_PAGES_HIT) +
+            metrics.get(PerformanceCounters.BUFFER_PAGES_MISSED) > 0;
+
+        assert server.doCommand(
+            "SELECT PERF_COUNTER('query.execTime.count', 'other');",
+            false).failed();
+    }
+
+
+    public void testShowStats() throws Throwable {
+        tryDoCommand("SELECT 1;");
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        SessionState state = SessionState.get();
+        state.setOutputStream(new PrintStream(bytes, true, "UTF-8"));
+        try {
+            tryDoCommand("SHOW SESSION STATS LIKE 'query._xecTime.%';");
+        }
+        finally {
+            state.setOutputStream(System.out);
+        }
+
+        String output = bytes.toString("UTF-8");
+        assert output.contains("| query.execTime.p99 ") : output;
+        assert !output.contains("storage.") : output;
+
+        tryDoCommand("SHOW STATS;");
+        tryDoCommand("SHOW GLOBAL STATS;");
+    }
+
+
+    public void testPeriodicDump() throws Throwable {
+        MetricsDumper dumper = MetricsDumper.getInstance();
+        MetricsReporter oldReporter = dumper.getReporter();
+
+        tryDoCommand("SET VARIABLE 'nanodb.stats.reporterClass' = '" +
+            CountingReporter.class.getName() + "';");
+        try {
+            assert dumper.getReporter() instanceof CountingReporter;
+            dumper.dump();
+
+            tryDoCommand("SET VARIABLE 'nanodb.stats.dumpInterval' = 1;");
+            assert CountingReporter.dumps.await(10, TimeUnit.SECONDS);
+        }
+        finally {
+            dumper.setInterval(0);
+            dumper.setReporter(oldReporter);
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package edu.caltech.test.nanodb.sql;
+
+
+import java.util.List;
+
+import org.testng.annotations.Test;
+
+import edu.caltech.nanodb.commands.ExecutionException;
+import edu.caltech.nanodb.commands.StatementCache;
+import edu.caltech.nanodb.expressions.TupleLiteral;
+import edu.caltech.nanodb.server.CommandResult;
+import edu.caltech.nanodb.server.performance.PerformanceCounters;
+
+
+/**
+ * This class exercises <tt>PREPARE</tt>, <tt>EXECUTE</tt> and
+ * <tt>DEALLOCATE</tt>, and the caching of prepared statements' plans.
+ */
+@Test
+public class TestPreparedStatements extends SqlTestCase {
+
+    private void createTable(String tableName, int numRows) throws Exception {
+        tryDoCommand("CREATE TABLE " + tableName + " (a INTEGER, b VARCHAR(20));");
+        for (int i = 0; i < numRows; i++) {
+            tryDoCommand("INSERT INTO " + tableName + " VALUES (" + i +
+                ", 'value " + i + "');");
+        }
+    }
+
+
+    private void assertFails(String command) throws Exception {
+        CommandResult result = server.doCommand(command, false);
+        assert result.failed() : command;
+    }
+
+
+    public void testSelectWithParameters() throws Throwable {
+        createTable("prep_select", 10);
+
+        tryDoCommand("PREPARE sel AS SELECT a, b FROM prep_select " +
+            "WHERE a >= ? AND b <> ?;");
+
+        TupleLiteral[] expected1 = {
+            new TupleLiteral(8, "value 8"),
+            new TupleLiteral(9, "value 9")
+        };
+        assert checkUnorderedResults(expected1,
+            tryDoCommand("EXECUTE sel (8, 'none');", true));
+
+        TupleLiteral[] expected2 = {
+            new TupleLiteral(6, "value 6"),
+            new TupleLiteral(8, "value 8"),
+            new TupleLiteral(9, "value 9")
+        };
+        assert checkUnorderedResults(expected2,
+            tryDoCommand("EXECUTE sel (5 + 1, 'value 7');", true));
+
+        // Nothing compares to NULL.
+        assert getResultTuples("EXECUTE sel (NULL, 'none');").isEmpty();
+
+        tryDoCommand("DEALLOCATE PREPARE sel;");
+        assertFails("EXECUTE sel (8, 'none');");
+    }
+
+
+    public void testModifyWithParameters() throws Throwable {
+        createTable("prep_modify", 0);
+
+        tryDoCommand("PREPARE ins AS INSERT INTO prep_modify VALUES (?, ?);");
+        tryDoCommand("PREPARE upd AS UPDATE prep_modify SET b = ? WHERE a = ?;");
+        tryDoCommand("PREPARE del AS DELETE FROM prep_modify WHERE a > ?;");
+
+        for (int i = 0; i < 5; i++)
+            tryDoCommand("EXECUTE ins (" + i + ", 'row " + i + "');");
+
+        tryDoCommand("EXECUTE upd ('updated', 2);");
+        tryDoCommand("EXECUTE del (2);");
+
+        TupleLiteral[] expected = {
+            new TupleLiteral(0, "row 0"),
+            new TupleLiteral(1, "row 1"),
+            new TupleLiteral(2, "updated")
+        };
+        assert checkUnorderedResults(expected,
+            tryDoCommand("SELECT * FROM prep_modify;", true));
+
+        tryDoCommand("DEALLOCATE ALL;");
+        assertFails("EXECUTE ins (5, 'row 5');");
+    }
+
+
+    public void testErrors() throws Throwable {
+        createTable("prep_errors", 3);
+
+        tryDoCommand("PREPARE errs AS SELECT * FROM prep_errors WHERE a = ?;");
+
+        // Wrong numbers of values.
+        assertFails("EXECUTE errs;");
+        assertFails("EXECUTE errs (1, 2);");
+
+        // Values can't refer to columns.
+        assertFails("EXECUTE errs (a);");
+
+        // Names can't be reused, and must exist.
+        assertFails("PREPARE errs AS SELECT * FROM prep_errors;");
+        assertFails("EXECUTE missing (1);");
+        assertFails("DEALLOCATE missing;");
+
+        // Statements are planned when they are prepared.
+        assertFails("PREPARE bad AS SELECT * FROM no_such_table WHERE a = ?;");
+        assertFails("PREPARE bad AS SELECT no_such_column FROM prep_errors;");
+
+        // Parameters are only allowed in prepared statements.
+        try {
+            server.doCommand("SELECT * FROM prep_errors WHERE a = ?;", false);
+            assert false : "Parameters were allowed outside PREPARE";
+        }
+        catch (Exception e) {
+            // Expected.
+        }
+
+        // A failed execution doesn't break the statement.
+        assert getResultTuples("EXECUTE errs (1);").size() == 1;
+    }
+
+
+    /**
+     * Checks that executing a statement reuses its plan, and that sessions
+     * preparing the same statement with different formatting share it.
+     */
+    public void testPlanReuse() throws Throwable {
+        createTable("prep_reuse", 5);
+
+        tryDoCommand("PREPARE reuse1 AS select a FROM prep_reuse where a = ?;");
+
+        long hits = PerformanceCounters.get(StatementCache.STATEMENT_CACHE_HITS);
+        long misses =
+            PerformanceCounters.get(StatementCache.STATEMENT_CACHE_MISSES);
+
+        for (int i = 0; i < 5; i++) {
+            List<TupleLiteral> tuples =
+                getResultTuples("EXECUTE reuse1 (" + i + ");");
+            assert tuples.size() == 1;
+            assert tuples.get(0).getColumnValue(0).equals(i);
+        }
+
+        tryDoCommand("PREPARE reuse2 AS SELECT  a FROM   PREP_REUSE\n" +
+            "  WHERE a=? -- a comment\n;");
+        assert getResultTuples("EXECUTE reuse2 (3);").size() == 1;
+
+        assert PerformanceCounters.get(StatementCache.STATEMENT_CACHE_HITS) ==
+            hits + 6;
+        assert PerformanceCounters.get(StatementCache.STATEMENT_CACHE_MISSES) ==
+            misses;
+    }
+
+
+    /**
+     * Checks that plans are made again when table statistics or schemas
+     * change, and that the new plans can use new indexes.
+     */
+    public void testInvalidation() throws Throwable {
+        createTable("prep_invalid", 50);
+
+        tryDoCommand("PREPARE inval AS SELECT a FROM prep_invalid " +
+            "WHERE a >= ? AND a < ?;");
+        assert getResultTuples("EXECUTE inval (10, 15);").size() == 5;
+
+        long invalidations = PerformanceCounters.get(
+            StatementCache.STATEMENT_CACHE_INVALIDATIONS);
+
+        tryDoCommand("ANALYZE prep_invalid;");
+        assert getResultTuples("EXECUTE inval (10, 15);").size() == 5;
+        assert PerformanceCounters.get(
+            StatementCache.STATEMENT_CACHE_INVALIDATIONS) == invalidations + 1;
+
+        // The new plan scans the index, computing its range when it starts.
+        tryDoCommand("CREATE INDEX idx_prep_invalid ON prep_invalid (a);");
+        assert getResultTuples("EXECUTE inval (10, 15);").size() == 5;
+        assert getResultTuples("EXECUTE inval (45, 100);").size() == 5;
+        assert getResultTuples("EXECUTE inval (-5, 2);").size() == 2;
+        assert getResultTuples("EXECUTE inval (NULL, 2);").isEmpty();
+
+        // Bounds that don't fit the key column exactly.
+        assert getResultTuples("EXECUTE inval (9.5, 11.5);").size() == 2;
+        assert getResultTuples("EXECUTE inval (-0.5, 0.5);").size() == 1;
+        assert getResultTuples("EXECUTE inval (100000000000000000000.0, " +
+            "1000000000000000000000.0);").isEmpty();
+        assert getResultTuples("EXECUTE inval ('10', '12');").size() == 2;
+
+        tryDoCommand("PREPARE inval_eq AS SELECT a FROM prep_invalid " +
+            "WHERE a = ?;");
+        assert getResultTuples("EXECUTE inval_eq (7);").size() == 1;
+        assert getResultTuples("EXECUTE inval_eq (7.5);").isEmpty();
+        assert getResultTuples("EXECUTE inval_eq ('7');").size() == 1;
+
+        // A dropped table can't be executed against.
+        createTable("prep_dropped", 5);
+        tryDoCommand("PREPARE dropped AS SELECT a FROM prep_dropped " +
+            "WHERE a > ?;");
+        assert getResultTuples("EXECUTE dropped (2);").size() == 2;
+        tryDoCommand("DROP TABLE prep_dropped;");
+        CommandResult result = server.doCommand("EXECUTE dropped (2);", false);
+        assert result.failed();
+        assert result.getFailure() instanceof ExecutionException;
+    }
+}
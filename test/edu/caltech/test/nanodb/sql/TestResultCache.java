@@ -0,0 +1,162 @@
+package edu.caltech.test.nanodb.sql;
+
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.Writer;
+import java.util.List;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import edu.caltech.nanodb.commands.QueryResultCache;
+import edu.caltech.nanodb.expressions.TupleLiteral;
+import edu.caltech.nanodb.server.performance.PerformanceCounters;
+
+
+/**
+ * This class exercises the caching of <tt>SELECT</tt> results, checking that
+ * a cached result is only used until a table it reads changes.
+ */
+@Test
+public class TestResultCache extends SqlTestCase {
+
+    private QueryResultCache cache = QueryResultCache.getInstance();
+
+
+    @BeforeMethod
+    public void enableCache() {
+        cache.clear();
+        cache.setMaxSize(1000);
+    }
+
+
+    @AfterMethod
+    public void disableCache() {
+        cache.setMaxSize(0);
+    }
+
+
+    private void createTable(String tableName, int numRows) throws Exception {
+        tryDoCommand("CREATE TABLE " + tableName + " (a INTEGER, b VARCHAR(20));");
+        for (int i = 0; i < numRows; i++) {
+            tryDoCommand("INSERT INTO " + tableName + " VALUES (" + i +
+                ", 'value " + i + "');");
+        }
+    }
+
+
+    private long hits() {
+        return PerformanceCounters.get(QueryResultCache.RESULT_CACHE_HITS);
+    }
+
+
+    private long invalidations() {
+        return PerformanceCounters.get(
+            QueryResultCache.RESULT_CACHE_INVALIDATIONS);
+    }
+
+
+    private Object getSum(String query) throws Exception {
+        List<TupleLiteral> rows = getResultTuples(query);
+        assert rows.size() == 1;
+        return rows.get(0).getColumnValue(0);
+    }
+
+
+    public void testCachedResults() throws Throwable {
+        createTable("cache_sum", 10);
+
+        long hits = hits();
+        assert getSum("SELECT SUM(a) FROM cache_sum;").equals(45);
+        assert hits() == hits;
+
+        // Statements differing only in case and whitespace share a result.
+        assert getSum("select  sum(A)\n  FROM cache_sum").equals(45);
+        assert hits() == hits + 1;
+
+        long invalidations = invalidations();
+        tryDoCommand("INSERT INTO cache_sum VALUES (10, 'value 10');");
+        assert getSum("SELECT SUM(a) FROM cache_sum;").equals(55);
+        assert invalidations() == invalidations + 1;
+
+        tryDoCommand("UPDATE cache_sum SET a = 20 WHERE a = 10;");
+        assert getSum("SELECT SUM(a) FROM cache_sum;").equals(65);
+
+        tryDoCommand("DELETE FROM cache_sum WHERE a >= 5;");
+        assert getSum("SELECT SUM(a) FROM cache_sum;").equals(10);
+        assert invalidations() == invalidations + 3;
+
+        // Changes to the rows of other tables don't affect the result.
+        createTable("cache_other", 1);
+        assert getSum("SELECT SUM(a) FROM cache_sum;").equals(10);
+        hits = hits();
+        tryDoCommand("INSERT INTO cache_other VALUES (5, 'five');");
+        assert getSum("SELECT SUM(a) FROM cache_sum;").equals(10);
+        assert hits() == hits + 1;
+
+        // Tables read by derived tables and joins are tracked too.
+        String query = "SELECT COUNT(*) FROM cache_sum JOIN " +
+            "(SELECT a FROM cache_other) AS t ON cache_sum.a = t.a;";
+        assert getSum(query).equals(1);
+        tryDoCommand("INSERT INTO cache_other VALUES (3, 'three');");
+        assert getSum(query).equals(2);
+    }
+
+
+    public void testDropAndCopy() throws Throwable {
+        createTable("cache_drop", 3);
+        assert getSum("SELECT COUNT(*) FROM cache_drop;").equals(3);
+
+        // A new table with the same name has different rows.
+        tryDoCommand("DROP TABLE cache_drop;");
+        createTable("cache_drop", 1);
+        assert getSum("SELECT COUNT(*) FROM cache_drop;").equals(1);
+
+        // Rows loaded in bulk don't fire row events, but still make the
+        // result stale.
+        File file = File.createTempFile("nanodb-cache", ".csv");
+        file.deleteOnExit();
+        Writer writer = new FileWriter(file);
+        writer.write("7,seven\n8,eight\n");
+        writer.close();
+
+        tryDoCommand("COPY cache_drop FROM '" + file.getPath() + "';");
+        assert getSum("SELECT COUNT(*) FROM cache_drop;").equals(3);
+    }
+
+
+    public void testUncachedQueries() throws Throwable {
+        createTable("cache_big", 20);
+
+        // Results that don't fit in the cache aren't kept.
+        cache.setMaxSize(10);
+        int size = cache.size();
+        assert getResultTuples("SELECT * FROM cache_big;").size() == 20;
+        assert cache.size() == size;
+
+        // Neither are results of queries with functions that aren't
+        // deterministic.
+        getResultTuples("SELECT PERF_COUNTER('resultcache.hits');");
+        assert cache.size() == size;
+
+        // The least recently used results are evicted to make room.
+        long evictions = PerformanceCounters.get(
+            QueryResultCache.RESULT_CACHE_EVICTIONS);
+        getResultTuples("SELECT * FROM cache_big WHERE a < 6;");
+        getResultTuples("SELECT * FROM cache_big WHERE a >= 14;");
+        assert cache.size() == size + 1;
+        assert PerformanceCounters.get(
+            QueryResultCache.RESULT_CACHE_EVICTIONS) == evictions + 1;
+
+        long hits = hits();
+        getResultTuples("SELECT * FROM cache_big WHERE a >= 14;");
+        assert hits() == hits + 1;
+
+        cache.setMaxSize(0);
+        assert cache.size() == 0;
+        getResultTuples("SELECT * FROM cache_big WHERE a >= 14;");
+        assert hits() == hits + 1;
+    }
+}
@@ -0,0 +1,190 @@
+package edu.caltech.test.nanodb.storage.btreefile;
+
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.testng.annotations.Test;
+
+import edu.caltech.nanodb.expressions.TupleComparator;
+import edu.caltech.nanodb.expressions.TupleLiteral;
+import edu.caltech.nanodb.indexes.IndexInfo;
+import edu.caltech.nanodb.indexes.IndexUtils;
+import edu.caltech.nanodb.relations.TableInfo;
+import edu.caltech.nanodb.relations.Tuple;
+import edu.caltech.nanodb.server.CommandResult;
+import edu.caltech.nanodb.storage.StorageManager;
+import edu.caltech.nanodb.storage.TupleFile;
+import edu.caltech.nanodb.storage.btreefile.BTreeBulkLoader;
+import edu.caltech.nanodb.storage.btreefile.BTreeTupleFile;
+
+import edu.caltech.test.nanodb.sql.SqlTestCase;
+
+
+/**
+ * This class exercises the bottom-up construction of B<sup>+</sup> tree
+ * files, both directly through the {@link BTreeBulkLoader}, and through the
+ * <tt>CREATE INDEX</tt> command on a table that already contains rows.
+ */
+@Test
+public class TestBTreeBulkLoader extends SqlTestCase {
+
+    /**
+     * A source of randomness to generate tuples from.  Set the seed so we
+     * have reproducible test cases.
+     */
+    private Random rand = new Random(54321);
+
+
+    private String makeRandomString(int minChars, int maxChars) {
+        StringBuilder buf = new StringBuilder();
+
+        int num = minChars + rand.nextInt(maxChars - minChars + 1);
+        for (int i = 0; i < num; i++)
+            buf.append((char) ('A' + rand.nextInt('Z' - 'A' + 1)));
+
+        return buf.toString();
+    }
+
+
+    private void assertNoErrors(List<String> errors) {
+        for (String error : errors)
+            System.err.println(" * " + error);
+
+        assert errors.isEmpty();
+    }
+
+
+    /**
+     * Bulk-loads a B<sup>+</sup> tree table with a sort buffer small enough
+     * that several sorted runs must be spilled and merged, then checks that
+     * the resulting tree is well-formed and contains every tuple in order.
+     *
+     * @throws Exception if any issues occur.
+     */
+    public void testBulkLoadWithSpilledRuns() throws Exception {
+        tryDoCommand("CREATE TABLE btree_bulk_load (a INTEGER, b VARCHAR(50)) " +
+            "PROPERTIES (storage = 'btree');", false);
+
+        StorageManager storageManager = server.getStorageManager();
+        TableInfo tableInfo =
+            storageManager.getTableManager().openTable("BTREE_BULK_LOAD");
+        BTreeTupleFile tupleFile = (BTreeTupleFile) tableInfo.getTupleFile();
+
+        BTreeBulkLoader loader = new BTreeBulkLoader(storageManager, tupleFile);
+        loader.setSortBufferSize(64 * 1024);
+
+        ArrayList<TupleLiteral> inserted = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            TupleLiteral tup = new TupleLiteral(rand.nextInt(1000),
+                makeRandomString(20, 50));
+            inserted.add(tup);
+            loader.addTuple(tup);
+        }
+        loader.finish();
+
+        assertNoErrors(tupleFile.verify());
+
+        Collections.sort(inserted, new Comparator<Tuple>() {
+            @Override
+            public int compare(Tuple t1, Tuple t2) {
+                return TupleComparator.compareTuples(t1, t2);
+            }
+        });
+        CommandResult result =
+            tryDoCommand("SELECT * FROM btree_bulk_load;", true);
+        assert checkOrderedResults(
+            inserted.toArray(new TupleLiteral[inserted.size()]), result);
+
+        // The tree should also accept ordinary inserts after loading.
+        tryDoCommand("INSERT INTO btree_bulk_load VALUES (500, 'ABC');", false);
+        assertNoErrors(tupleFile.verify());
+    }
+
+
+    /**
+     * Creates an index on a table that already holds enough rows to need a
+     * multi-level index, and checks the index against the table.
+     *
+     * @throws Exception if any issues occur.
+     */
+    public void testCreateIndexOnPopulatedTable() throws Exception {
+        tryDoCommand("CREATE TABLE bulk_index (a INTEGER, b VARCHAR(50));",
+            false);
+
+        for (int i = 0; i < 3000; i++) {
+            tryDoCommand(String.format("INSERT INTO bulk_index VALUES " +
+                "(%d, '%s');", i, makeRandomString(20, 50)), false);
+        }
+
+        tryDoCommand("CREATE INDEX idx_bulk_b ON bulk_index (b);", false);
+        tryDoCommand("CREATE UNIQUE INDEX idx_bulk_a ON bulk_index (a);", false);
+
+        StorageManager storageManager = server.getStorageManager();
+        TableInfo tableInfo =
+            storageManager.getTableManager().openTable("BULK_INDEX");
+
+        for (String indexName : new String[] {"IDX_BULK_A", "IDX_BULK_B"}) {
+            IndexInfo indexInfo = storageManager.getIndexManager().openIndex(
+                tableInfo, indexName);
+            TupleFile indexTupleFile = indexInfo.getTupleFile();
+
+            assertNoErrors(indexTupleFile.verify());
+            assertNoErrors(IndexUtils.verifyIndex(tableInfo.getTupleFile(),
+                indexTupleFile));
+        }
+    }
+
+
+    /**
+     * Checks that a unique index can't be bulk-loaded from a table that
+     * contains duplicate values in the indexed column.
+     *
+     * @throws Exception if any issues occur.
+     */
+    public void testCreateUniqueIndexWithDuplicates() throws Exception {
+        tryDoCommand("CREATE TABLE bulk_index_dups (a INTEGER, b INTEGER);",
+            false);
+
+        for (int i = 0; i < 500; i++) {
+            tryDoCommand(String.format("INSERT INTO bulk_index_dups VALUES " +
+                "(%d, %d);", i, i % 100), false);
+        }
+
+        CommandResult result = server.doCommand(
+            "CREATE UNIQUE INDEX idx_bulk_dups ON bulk_index_dups (b);", false);
+        assert result.failed();
+    }
+
+
+    /**
+     * Inserts rows in increasing key order, which should fill each leaf
+     * rather than leaving a trail of half-full leaves behind.
+     *
+     * @throws Exception if any issues occur.
+     */
+    public void testSortedInserts() throws Exception {
+        tryDoCommand("CREATE TABLE btree_sorted (a INTEGER, b VARCHAR(50)) " +
+            "PROPERTIES (storage = 'btree');", false);
+
+        ArrayList<TupleLiteral> inserted = new ArrayList<>();
+        for (int i = 0; i < 4000; i++) {
+            String b = makeRandomString(20, 50);
+            tryDoCommand(String.format(
+                "INSERT INTO btree_sorted VALUES (%d, '%s');", i, b), false);
+            inserted.add(new TupleLiteral(i, b));
+        }
+
+        TableInfo tableInfo = server.getStorageManager().getTableManager()
+            .openTable("BTREE_SORTED");
+        assertNoErrors(tableInfo.getTupleFile().verify());
+
+        CommandResult result =
+            tryDoCommand("SELECT * FROM btree_sorted;", true);
+        assert checkOrderedResults(
+            inserted.toArray(new TupleLiteral[inserted.size()]), result);
+    }
+}
@@ -3,7 +3,9 @@ package edu.caltech.test.nanodb.storage.btreefile;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Random;
 
 import edu.caltech.nanodb.expressions.ColumnName;
@@ -15,7 +17,11 @@ import edu.caltech.nanodb.relations.ColumnInfo;
 import edu.caltech.nanodb.relations.ColumnType;
 import edu.caltech.nanodb.relations.SQLDataType;
 import edu.caltech.nanodb.relations.Schema;
+import edu.caltech.nanodb.relations.TableInfo;
+import edu.caltech.nanodb.relations.Tuple;
 import edu.caltech.nanodb.server.CommandResult;
+import edu.caltech.nanodb.storage.StorageManager;
+import edu.caltech.nanodb.storage.TupleFile;
 import org.testng.annotations.*;
 
 import edu.caltech.test.nanodb.sql.SqlTestCase;
@@ -44,6 +50,11 @@ public class TestBTreeFile extends SqlTestCase {
 
 
     private String makeRandomString(int minChars, int maxChars) {
+        return makeRandomString(rand, minChars, maxChars);
+    }
+
+
+    private String makeRandomString(Random rand, int minChars, int maxChars) {
         StringBuilder buf = new StringBuilder();
 
         int num = minChars + rand.nextInt(maxChars - minChars + 1);
@@ -165,6 +176,198 @@ public class TestBTreeFile extends SqlTestCase {
     }
 
 
+    /**
+     * Inserts long string keys, which are stored truncated in the inner
+     * pages, and then checks that the file structure is still valid.
+     */
+    public void testBTreeTableTruncatedKeys() throws Exception {
+        tryDoCommand("CREATE TABLE btree_trunc_keys (b VARCHAR(250), a INTEGER) " +
+            "PROPERTIES (storage = 'btree');", false);
+
+        ArrayList<TupleLiteral> inserted = new ArrayList<>();
+        for (int i = 0; i < 3000; i++) {
+            String b = makeRandomString(150, 250);
+            int a = rand.nextInt(1000);
+
+            tryDoCommand(String.format(
+                "INSERT INTO btree_trunc_keys VALUES ('%s', %d);", b, a), false);
+            inserted.add(new TupleLiteral(b, a));
+        }
+
+        TableInfo tableInfo = server.getStorageManager().getTableManager()
+            .openTable("BTREE_TRUNC_KEYS");
+        List<String> errors = tableInfo.getTupleFile().verify();
+        assert errors.isEmpty() : errors;
+
+        Collections.sort(inserted, new Comparator<TupleLiteral>() {
+            @Override
+            public int compare(TupleLiteral t1, TupleLiteral t2) {
+                return TupleComparator.compareTuples(t1, t2);
+            }
+        });
+        CommandResult result = tryDoCommand(
+            "SELECT * FROM btree_trunc_keys;", true);
+        assert checkOrderedResults(inserted.toArray(new TupleLiteral[inserted.size()]), result);
+    }
+
+
+    /**
+     * Inserts tuples into the same B<sup>+</sup> tree file from several
+     * threads at once, and then checks that every tuple made it into a
+     * well-formed tree.
+     */
+    public void testBTreeTableConcurrentInserts() throws Exception {
+        tryDoCommand("CREATE TABLE btree_concurrent (a INTEGER, b VARCHAR(50)) " +
+            "PROPERTIES (storage = 'btree');", false);
+
+        final StorageManager storageManager = server.getStorageManager();
+        TableInfo tableInfo = storageManager.getTableManager()
+            .openTable("BTREE_CONCURRENT");
+        final TupleFile tupleFile = tableInfo.getTupleFile();
+
+        // Use a separate source of randomness, so that this test doesn't
+        // change the tuples that the other tests generate.
+        Random rand = new Random(54321);
+
+        final int numThreads = 4;
+        final int rowsPerThread = 1500;
+        final ArrayList<TupleLiteral> inserted = new ArrayList<>();
+        final ArrayList<Throwable> failures = new ArrayList<>();
+
+        Thread[] threads = new Thread[numThreads];
+        for (int t = 0; t < numThreads; t++) {
+            final ArrayList<TupleLiteral> tuples = new ArrayList<>();
+            for (int i = 0; i < rowsPerThread; i++) {
+                tuples.add(new TupleLiteral(rand.nextInt(1000),
+                    t + "-" + i + "-" + makeRandomString(rand, 10, 40)));
+            }
+            inserted.addAll(tuples);
+
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (TupleLiteral tup : tuples)
+                            tupleFile.addTuple(tup);
+                    }
+                    catch (Throwable e) {
+                        synchronized (failures) {
+                            failures.add(e);
+                        }
+                    }
+                    finally {
+                        storageManager.getBufferManager().unpinAllSessionPages();
+                    }
+                }
+            };
+        }
+
+        for (Thread thread : threads)
+            thread.start();
+
+        for (Thread thread : threads)
+            thread.join();
+
+        assert failures.isEmpty() : failures;
+
+        List<String> errors = tupleFile.verify();
+        assert errors.isEmpty() : errors;
+
+        sortTupleLiteralArray(inserted);
+        CommandResult result = tryDoCommand(
+            "SELECT * FROM btree_concurrent;", true);
+        assert checkOrderedResults(inserted.toArray(new TupleLiteral[inserted.size()]), result);
+    }
+
+
+    /**
+     * Scans a B<sup>+</sup> tree file while another thread inserts tuples
+     * between the ones already in it, so that the inserts move the tuples of
+     * the leaves being scanned.  Every scan must return the tuples in order,
+     * without duplicates, with intact values, and must not miss any of the
+     * tuples that were there before the inserts started.
+     */
+    public void testBTreeTableScanDuringInserts() throws Exception {
+        tryDoCommand("CREATE TABLE btree_scan_insert (a INTEGER, b VARCHAR(50)) " +
+            "PROPERTIES (storage = 'btree');", false);
+
+        final StorageManager storageManager = server.getStorageManager();
+        TableInfo tableInfo = storageManager.getTableManager()
+            .openTable("BTREE_SCAN_INSERT");
+        final TupleFile tupleFile = tableInfo.getTupleFile();
+
+        // The initial tuples have even values of a; the inserts add the odd
+        // values in between, and a copy of a in b to check the values with.
+        final int numTuples = 3000;
+        for (int a = 0; a < numTuples; a += 2)
+            tupleFile.addTuple(new TupleLiteral(a, "value-" + a));
+
+        final ArrayList<Throwable> failures = new ArrayList<>();
+
+        Thread inserter = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Random rand = new Random(24680);
+                    ArrayList<Integer> values = new ArrayList<>();
+                    for (int a = 1; a < numTuples; a += 2)
+                        values.add(a);
+                    Collections.shuffle(values, rand);
+
+                    for (int a : values)
+                        tupleFile.addTuple(new TupleLiteral(a, "value-" + a));
+                }
+                catch (Throwable e) {
+                    synchronized (failures) {
+                        failures.add(e);
+                    }
+                }
+                finally {
+                    storageManager.getBufferManager().unpinAllSessionPages();
+                }
+            }
+        };
+
+        inserter.start();
+        try {
+            boolean inserting;
+            do {
+                inserting = inserter.isAlive();
+                int prevA = -1;
+                int numEven = 0;
+
+                Tuple tup = tupleFile.getFirstTuple();
+                while (tup != null) {
+                    int a = (Integer) tup.getColumnValue(0);
+                    assert a > prevA : "got " + a + " after " + prevA;
+                    assert ("value-" + a).equals(tup.getColumnValue(1)) :
+                        tup.getColumnValue(1) + " for " + a;
+
+                    if (a % 2 == 0)
+                        numEven++;
+
+                    prevA = a;
+                    Tuple next = tupleFile.getNextTuple(tup);
+                    tup.unpin();
+                    tup = next;
+                }
+
+                assert numEven == numTuples / 2 : numEven;
+            }
+            while (inserting);
+        }
+        finally {
+            inserter.join();
+            storageManager.getBufferManager().unpinAllSessionPages();
+        }
+
+        assert failures.isEmpty() : failures;
+
+        List<String> errors = tupleFile.verify();
+        assert errors.isEmpty() : errors;
+    }
+
+
     public void testBTreeTableOnePageInsertDelete() throws Exception {
         tryDoCommand("CREATE TABLE btree_one_page_del (a INTEGER, b VARCHAR(20)) " +
             "PROPERTIES (storage = 'btree');", false);
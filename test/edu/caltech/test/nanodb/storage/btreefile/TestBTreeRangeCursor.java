@@ -0,0 +1,337 @@
+package edu.caltech.test.nanodb.storage.btreefile;
+
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.testng.annotations.Test;
+
+import edu.caltech.nanodb.commands.SelectClause;
+import edu.caltech.nanodb.commands.SelectCommand;
+import edu.caltech.nanodb.expressions.OrderByExpression;
+import edu.caltech.nanodb.expressions.TupleLiteral;
+import edu.caltech.nanodb.indexes.IndexInfo;
+import edu.caltech.nanodb.plans.IndexScanNode;
+import edu.caltech.nanodb.plans.PlanNode;
+import edu.caltech.nanodb.qeval.PlannerFactory;
+import edu.caltech.nanodb.relations.TableInfo;
+import edu.caltech.nanodb.relations.Tuple;
+import edu.caltech.nanodb.server.CommandResult;
+import edu.caltech.nanodb.storage.StorageManager;
+import edu.caltech.nanodb.storage.btreefile.BTreeRangeCursor;
+import edu.caltech.nanodb.storage.btreefile.BTreeTupleFile;
+
+import edu.caltech.test.nanodb.sql.SqlTestCase;
+
+
+/**
+ * This class exercises the range cursor over B<sup>+</sup> tree files, and
+ * index scans that use it.  The tables are large enough that ranges span
+ * many leaves and several levels of inner pages.
+ */
+@Test
+public class TestBTreeRangeCursor extends SqlTestCase {
+
+    /** The number of rows in the test tables; keys are 0, 2, 4, ... */
+    private static final int NUM_ROWS = 3000;
+
+
+    private BTreeTupleFile createTable(String tableName) throws Exception {
+        tryDoCommand("CREATE TABLE " + tableName +
+            " (a INTEGER, b VARCHAR(50)) PROPERTIES (storage = 'btree');",
+            false);
+
+        for (int i = 0; i < NUM_ROWS; i++) {
+            tryDoCommand(String.format("INSERT INTO %s VALUES " +
+                "(%d, 'row number %d in the table');", tableName, 2 * i, i),
+                false);
+        }
+
+        TableInfo tableInfo = server.getStorageManager().getTableManager()
+            .openTable(tableName.toUpperCase());
+        return (BTreeTupleFile) tableInfo.getTupleFile();
+    }
+
+
+    /**
+     * Makes a search key for the first column.  (The {@code TupleLiteral}
+     * constructor that takes an {@code int} makes that many NULL columns.)
+     */
+    private TupleLiteral key(int a) {
+        TupleLiteral key = new TupleLiteral();
+        key.addValue(a);
+        return key;
+    }
+
+
+    /** Returns the plan that the planner makes for a query. */
+    private String getPlan(String query) throws Exception {
+        SelectClause selClause =
+            ((SelectCommand) server.parseCommand(query)).getSelectClause();
+
+        StorageManager storageManager = server.getStorageManager();
+        selClause.computeSchema(storageManager.getTableManager());
+        PlanNode plan =
+            PlannerFactory.getPlanner(storageManager).makePlan(selClause, null);
+
+        return PlanNode.printNodeTreeToString(plan, false);
+    }
+
+
+    /** Returns the values of the first column of a query's results. */
+    private List<Integer> getFirstColumn(String query) throws Exception {
+        CommandResult result = tryDoCommand(query, true);
+        ArrayList<Integer> values = new ArrayList<>();
+        for (Tuple tup : result.getTuples())
+            values.add((Integer) tup.getColumnValue(0));
+
+        return values;
+    }
+
+
+    private List<Integer> readAll(BTreeRangeCursor cursor) throws Exception {
+        ArrayList<Integer> values = new ArrayList<>();
+        while (true) {
+            Tuple tup = cursor.next();
+            if (tup == null)
+                break;
+
+            values.add((Integer) tup.getColumnValue(0));
+        }
+        cursor.close();
+        return values;
+    }
+
+
+    /**
+     * Returns the keys in the table from {@code lower} to {@code upper}, in
+     * the requested order.
+     */
+    private List<Integer> expected(int lower, boolean includeLower, int upper,
+                                   boolean includeUpper, boolean reverse) {
+        ArrayList<Integer> values = new ArrayList<>();
+        for (int i = 0; i < NUM_ROWS; i++) {
+            int a = 2 * i;
+            if (a < lower || (a == lower && !includeLower))
+                continue;
+            if (a > upper || (a == upper && !includeUpper))
+                continue;
+
+            if (reverse)
+                values.add(0, a);
+            else
+                values.add(a);
+        }
+        return values;
+    }
+
+
+    private void checkRange(BTreeTupleFile tupleFile, int lower,
+        boolean includeLower, int upper, boolean includeUpper,
+        boolean reverse) throws Exception {
+
+        BTreeRangeCursor cursor = tupleFile.openRangeCursor(
+            key(lower), includeLower,
+            key(upper), includeUpper, reverse);
+
+        assert readAll(cursor).equals(
+            expected(lower, includeLower, upper, includeUpper, reverse));
+    }
+
+
+    /**
+     * Scans ranges with every combination of inclusive and exclusive
+     * bounds, in both directions.  The bounds are partial tuples, since
+     * they only specify the first column of the table.
+     *
+     * @throws Exception if any issues occur.
+     */
+    public void testBoundedRanges() throws Exception {
+        BTreeTupleFile tupleFile = createTable("btree_range_bounds");
+
+        boolean[] flags = {false, true};
+        for (boolean reverse : flags) {
+            for (boolean includeLower : flags) {
+                for (boolean includeUpper : flags) {
+                    // Bounds that exist in the table, bounds that don't,
+                    // a single value, and an empty range.
+                    checkRange(tupleFile, 100, includeLower, 4000,
+                        includeUpper, reverse);
+                    checkRange(tupleFile, 101, includeLower, 3999,
+                        includeUpper, reverse);
+                    checkRange(tupleFile, 500, includeLower, 500,
+                        includeUpper, reverse);
+                    checkRange(tupleFile, 501, includeLower, 501,
+                        includeUpper, reverse);
+                    checkRange(tupleFile, -10, includeLower, 10000,
+                        includeUpper, reverse);
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Scans the entire table with open-ended ranges, in both directions,
+     * and checks that the cursor can be restarted from a tuple it returned.
+     *
+     * @throws Exception if any issues occur.
+     */
+    public void testOpenRangesAndRestart() throws Exception {
+        BTreeTupleFile tupleFile = createTable("btree_range_open");
+
+        List<Integer> all = expected(0, true, 2 * NUM_ROWS, true, false);
+        List<Integer> allReversed = expected(0, true, 2 * NUM_ROWS, true, true);
+
+        assert readAll(tupleFile.openRangeCursor(null, false, null, false,
+            false)).equals(all);
+        assert readAll(tupleFile.openRangeCursor(null, false, null, false,
+            true)).equals(allReversed);
+
+        assert readAll(tupleFile.openRangeCursor(key(3000), false,
+            null, false, false)).equals(expected(3000, false, 2 * NUM_ROWS,
+            true, false));
+        assert readAll(tupleFile.openRangeCursor(null, false,
+            key(3000), false, true)).equals(expected(0, true,
+            3000, false, true));
+
+        // Read part of the way through the table, then rewind.
+        BTreeRangeCursor cursor =
+            tupleFile.openRangeCursor(null, false, null, false, true);
+        Tuple marked = null;
+        for (int i = 0; i < 1000; i++) {
+            Tuple tup = cursor.next();
+            if (i == 700)
+                marked = tup;
+        }
+        cursor.restart(marked);
+        assert readAll(cursor).equals(allReversed.subList(700, NUM_ROWS));
+    }
+
+
+    /**
+     * Scans an index on a heap table in descending order, and checks that
+     * the index scan reports the order of its results.
+     *
+     * @throws Exception if any issues occur.
+     */
+    public void testDescendingIndexScan() throws Exception {
+        tryDoCommand("CREATE TABLE range_index (a INTEGER, b INTEGER);", false);
+        for (int i = 0; i < NUM_ROWS; i++) {
+            tryDoCommand(String.format(
+                "INSERT INTO range_index VALUES (%d, %d);", (i * 7) % NUM_ROWS,
+                i), false);
+        }
+        tryDoCommand("CREATE INDEX idx_range_a ON range_index (a);", false);
+
+        StorageManager storageManager = server.getStorageManager();
+        TableInfo tableInfo =
+            storageManager.getTableManager().openTable("RANGE_INDEX");
+        IndexInfo indexInfo = storageManager.getIndexManager().openIndex(
+            tableInfo, "IDX_RANGE_A");
+
+        IndexScanNode scan = new IndexScanNode(indexInfo,
+            key(1000), true, key(2000), false, true);
+        scan.prepare();
+        scan.initialize();
+
+        List<OrderByExpression> orderBy = scan.resultsOrderedBy();
+        assert orderBy != null && orderBy.size() == 1;
+        assert !orderBy.get(0).isAscending();
+
+        int expectedA = 1999;
+        while (true) {
+            Tuple tup = scan.getNextTuple();
+            if (tup == null)
+                break;
+
+            assert tup.getColumnValue(0).equals(expectedA);
+            expectedA--;
+        }
+        scan.cleanUp();
+
+        assert expectedA == 999;
+    }
+
+
+    /**
+     * Checks that the planner reads a table from an index in the order that
+     * an <tt>ORDER BY</tt> clause requires, scanning the index backwards for
+     * descending orders, when that is cheaper than sorting the table's rows.
+     * The rows are padded so that the table spans many more pages than the
+     * index.
+     *
+     * @throws Exception if any issues occur.
+     */
+    public void testOrderByIndexScan() throws Exception {
+        tryDoCommand("CREATE TABLE range_order (a INTEGER, b INTEGER, " +
+            "c CHAR(200));", false);
+        for (int i = 0; i < NUM_ROWS; i++) {
+            tryDoCommand(String.format(
+                "INSERT INTO range_order VALUES (%d, %d, 'row %d');",
+                (i * 7) % NUM_ROWS, i, i), false);
+        }
+        tryDoCommand("INSERT INTO range_order VALUES (NULL, -1, 'null');", false);
+        tryDoCommand("CREATE INDEX idx_order_a ON range_order (a);", false);
+        tryDoCommand("CREATE UNIQUE INDEX idx_order_b ON range_order (b);",
+            false);
+        tryDoCommand("ANALYZE range_order;", false);
+
+        // Column a is in the index, so the table isn't read at all.
+        String query = "SELECT a FROM range_order ORDER BY a DESC;";
+        String plan = getPlan(query);
+        assert plan.contains("IndexScan") && plan.contains("descending") &&
+            plan.contains("index-only") : plan;
+        assert !plan.contains("Sort[") : plan;
+
+        // NULLs come last, just as a sort would put them.
+        List<Integer> values = getFirstColumn(query);
+        assert values.size() == NUM_ROWS + 1;
+        for (int i = 0; i < NUM_ROWS; i++)
+            assert values.get(i) == NUM_ROWS - 1 - i;
+        assert values.get(NUM_ROWS) == null;
+
+        // Range predicates bound the scan.
+        query = "SELECT a FROM range_order WHERE a >= 1000 AND a < 2000 " +
+            "ORDER BY a DESC;";
+        plan = getPlan(query);
+        assert plan.contains("index-only") && !plan.contains("Sort[") : plan;
+        values = getFirstColumn(query);
+        assert values.size() == 1000;
+        for (int i = 0; i < 1000; i++)
+            assert values.get(i) == 1999 - i;
+
+        // Small ranges are cheap to read from the table through the index.
+        query = "SELECT * FROM range_order AS r WHERE a < 10 AND b > 0 " +
+            "ORDER BY r.a;";
+        plan = getPlan(query);
+        assert plan.contains("IndexScan") && !plan.contains("Sort[") : plan;
+        assert getFirstColumn(query).equals(
+            Arrays.asList(1, 2, 3, 4, 5, 6, 7, 8, 9));
+
+        query = "SELECT a, b FROM range_order WHERE a = 5 ORDER BY a DESC;";
+        plan = getPlan(query);
+        assert plan.contains("descending") && !plan.contains("Sort[") : plan;
+        assert getFirstColumn(query).equals(Arrays.asList(5));
+
+        // Reading every row through the index costs a page read per row, so
+        // it is cheaper to sort the table, or just the rows that another
+        // predicate selects.
+        plan = getPlan("SELECT a, b FROM range_order ORDER BY a DESC;");
+        assert plan.contains("Sort[") && !plan.contains("IndexScan") : plan;
+
+        query = "SELECT * FROM range_order WHERE b = 2 ORDER BY a;";
+        plan = getPlan(query);
+        assert plan.contains("Sort[") && !plan.contains("IDX_ORDER_A") : plan;
+        assert getFirstColumn(query).equals(Arrays.asList(14));
+
+        // Orders that the index can't produce still need a sort.
+        assert getPlan("SELECT a, b FROM range_order ORDER BY b DESC;")
+            .contains("Sort[");
+        assert getPlan("SELECT a, b FROM range_order ORDER BY a, b DESC;")
+            .contains("Sort[");
+        assert getPlan("SELECT b AS a FROM range_order ORDER BY a;")
+            .contains("Sort[");
+    }
+}
@@ -1,10 +1,16 @@
 package edu.caltech.test.nanodb.storage.heapfile;
 
 
+import java.util.HashSet;
+
 import org.testng.annotations.Test;
 
 import edu.caltech.nanodb.expressions.TupleLiteral;
+import edu.caltech.nanodb.relations.TableInfo;
 import edu.caltech.nanodb.server.CommandResult;
+import edu.caltech.nanodb.storage.FilePointer;
+import edu.caltech.nanodb.storage.PageTuple;
+import edu.caltech.nanodb.storage.heapfile.HeapTupleFile;
 import edu.caltech.test.nanodb.storage.TableFormatTestCase;
 
 
@@ -209,4 +215,61 @@ public class TestHeapTableFormat extends TableFormatTestCase {
         result = tryDoCommand("SELECT * FROM heap_update;", true);
         checkUnorderedResults(tuples, result);
     }
+
+
+    /**
+     * Checks that every tuple of a heap table gets a distinct row ID that
+     * maps back to the tuple, and that pages don't get more slots than the
+     * row IDs have room for, even for tuples of all <tt>NULL</tt>s that
+     * are much smaller than the schema's other tuples.
+     *
+     * @throws Exception if an IO error occurs, or if the test fails.
+     */
+    public void testHeapTableRowIds() throws Exception {
+        tryDoCommand("CREATE TABLE heap_row_ids (a INTEGER, b CHAR(8)) " +
+            "PROPERTIES (storage = 'heap', pagesize = 512);", false);
+
+        // Non-NULL tuples take 13 bytes plus a 2-byte slot, so at most 34
+        // fit in a page, and each page gets 34 row IDs.
+        for (int i = 0; i < 200; i++) {
+            if (i % 2 == 0) {
+                tryDoCommand(String.format(
+                    "INSERT INTO heap_row_ids VALUES (%d, 'row');", i), false);
+            }
+            else {
+                tryDoCommand("INSERT INTO heap_row_ids VALUES (NULL, NULL);",
+                    false);
+            }
+        }
+        tryDoCommand("DELETE FROM heap_row_ids WHERE a < 50;", false);
+        for (int i = 0; i < 25; i++) {
+            tryDoCommand("INSERT INTO heap_row_ids VALUES (NULL, NULL);",
+                false);
+        }
+
+        TableInfo tableInfo = server.getStorageManager().getTableManager()
+            .openTable("HEAP_ROW_IDS");
+        HeapTupleFile tupleFile = (HeapTupleFile) tableInfo.getTupleFile();
+
+        HashSet<Integer> rowIds = new HashSet<>();
+        int maxRowId = -1;
+        PageTuple tup = (PageTuple) tupleFile.getFirstTuple();
+        while (tup != null) {
+            FilePointer fptr = tup.getExternalReference();
+            int rowId = tupleFile.getRowId(fptr);
+
+            assert rowIds.add(rowId);
+            assert tupleFile.getFilePointer(rowId).equals(fptr);
+            maxRowId = Math.max(maxRowId, rowId);
+
+            tup = (PageTuple) tupleFile.getNextTuple(tup);
+        }
+        assert rowIds.size() == 200;
+
+        // The 200 tuples use at most 34 slots of each page, so they must
+        // have spread across at least 6 pages.  The deleted tuples' slots
+        // are reused, so no more than about 7 pages are needed, and row IDs
+        // don't skip numbers between pages.
+        assert maxRowId >= 5 * 34 && maxRowId < 7 * 34 : maxRowId;
+    }
 }